@@ -49,6 +49,11 @@ android {
         }
     }
 
+    // 本地单元测试中 android.jar 的方法（如 AppLog 使用的 android.util.Log）返回默认值，不抛出异常
+    testOptions {
+        unitTests.isReturnDefaultValues = true
+    }
+
 }
 
 dependencies {
@@ -0,0 +1,113 @@
+package com.kooo.evcam;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 媒体目录数据库性能测试（需要设备上的 SQLite）
+ * 在独立的临时数据库中写入 10 万条合成条目（4 路摄像头，每分钟一组），
+ * 测量批量写入、整表加载、按时间段查询、按摄像头查询和批量删除的耗时并输出到 logcat，
+ * 同时检查各项查询的结果
+ */
+@RunWith(AndroidJUnit4.class)
+public class MediaDatabaseBenchmarkTest {
+    private static final String TAG = "MediaDatabaseBenchmark";
+    private static final String DB_NAME = "media_catalog_benchmark.db";
+    private static final String ROOT = "/benchmark";
+    private static final String[] CAMERAS = {"front", "back", "left", "right"};
+    private static final int ROWS = 100_000;
+    private static final int QUERIES = 100;
+
+    private Context context;
+    private MediaDatabase db;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        context.deleteDatabase(DB_NAME);
+        db = new MediaDatabase(context, DB_NAME);
+    }
+
+    @After
+    public void tearDown() {
+        db.close();
+        context.deleteDatabase(DB_NAME);
+    }
+
+    @Test
+    public void benchmark100kRows() {
+        long baseMs = System.currentTimeMillis() - ROWS / CAMERAS.length * 60_000L;
+        List<StorageIndex.Entry> entries = new ArrayList<>(ROWS);
+        List<String> names = new ArrayList<>(ROWS);
+        for (int i = 0; i < ROWS; i++) {
+            long startMs = baseMs + (i / CAMERAS.length) * 60_000L;
+            String camera = CAMERAS[i % CAMERAS.length];
+            String name = String.format(Locale.US, "%08d_%s.mp4", i / CAMERAS.length, camera);
+            StorageIndex.Entry entry = new StorageIndex.Entry(name, 150L * 1024 * 1024, startMs, camera, false);
+            entry.durationMs = 60_000;
+            entry.width = 1280;
+            entry.height = 720;
+            entry.codec = "avc1";
+            entry.keyFrameCount = 60;
+            entry.probed = true;
+            entries.add(entry);
+            names.add(name);
+        }
+
+        long startNs = System.nanoTime();
+        db.upsertAll(ROOT, entries);
+        long insertMs = (System.nanoTime() - startNs) / 1_000_000;
+
+        startNs = System.nanoTime();
+        List<StorageIndex.Entry> loaded = db.loadEntries(ROOT);
+        long loadMs = (System.nanoTime() - startNs) / 1_000_000;
+        assertEquals(ROWS, loaded.size());
+
+        // 1 小时的时间段，每次后移 1 分钟，重复查询取平均；每个时间段内有 60 组
+        long middleMs = baseMs + (ROWS / CAMERAS.length / 2) * 60_000L;
+        startNs = System.nanoTime();
+        for (int i = 0; i < QUERIES; i++) {
+            long fromMs = middleMs + (i - QUERIES / 2) * 60_000L;
+            List<StorageIndex.Entry> matched = db.query(ROOT, fromMs, fromMs + 3600_000L, null);
+            assertEquals(60 * CAMERAS.length, matched.size());
+        }
+        long rangeUs = (System.nanoTime() - startNs) / 1000 / QUERIES;
+
+        startNs = System.nanoTime();
+        for (int i = 0; i < QUERIES; i++) {
+            long fromMs = middleMs + (i - QUERIES / 2) * 60_000L;
+            String camera = CAMERAS[i % CAMERAS.length];
+            List<StorageIndex.Entry> matched = db.query(ROOT, fromMs, fromMs + 3600_000L, camera);
+            assertEquals(60, matched.size());
+            assertEquals(camera, matched.get(0).camera);
+        }
+        long cameraUs = (System.nanoTime() - startNs) / 1000 / QUERIES;
+
+        startNs = System.nanoTime();
+        db.deleteAll(ROOT, names);
+        long deleteMs = (System.nanoTime() - startNs) / 1_000_000;
+        assertTrue(db.loadEntries(ROOT).isEmpty());
+
+        Log.i(TAG, "合成条目: " + ROWS
+                + ", 批量写入: " + insertMs + "ms"
+                + ", 整表加载: " + loadMs + "ms"
+                + ", 按时间查询（1小时）: " + rangeUs + "μs/次"
+                + ", 按摄像头查询（1小时）: " + cameraUs + "μs/次"
+                + ", 批量删除: " + deleteMs + "ms");
+    }
+}
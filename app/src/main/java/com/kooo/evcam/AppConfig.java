@@ -6,10 +6,11 @@ import android.content.SharedPreferences;
 /**
  * 应用配置管理类
  * 管理应用级别的配置项
+ * 读取来自进程内共享的不可变快照（ConfigSnapshot），创建实例和读取配置都不经过 SharedPreferences 的锁
  */
 public class AppConfig {
     private static final String TAG = "AppConfig";
-    private static final String PREF_NAME = "app_config";
+    static final String PREF_NAME = "app_config";
     
     // 配置项键名
     private static final String KEY_FIRST_LAUNCH = "first_launch";  // 首次启动标记
@@ -20,10 +21,27 @@ public class AppConfig {
     private static final String KEY_KEEP_ALIVE_ENABLED = "keep_alive_enabled";  // 保活服务
     private static final String KEY_PREVENT_SLEEP_ENABLED = "prevent_sleep_enabled";  // 防止休眠（持续WakeLock）
     private static final String KEY_RECORDING_MODE = "recording_mode";  // 录制模式
+    private static final String KEY_SHARED_GL_RENDER = "shared_gl_render";  // Codec 模式多摄像头共享 GL 渲染线程
+    private static final String KEY_MOSAIC_RECORDING = "mosaic_recording";  // Codec 模式 2x2 拼接录制（单编码器）
+    private static final String KEY_MOSAIC_WIDTH = "mosaic_width";  // 拼接画面宽度
+    private static final String KEY_MOSAIC_BITRATE_KBPS = "mosaic_bitrate_kbps";  // 拼接画面码率（0 表示按分辨率自动计算）
+    private static final String KEY_ASYNC_CODEC_OUTPUT = "async_codec_output";  // Codec 模式编码器异步输出回调
+    private static final String KEY_PRE_EVENT_BUFFER = "pre_event_buffer";  // 事件前缓存（事件录制）
+    private static final String KEY_PRE_EVENT_SECONDS = "pre_event_seconds";  // 事件前保留时长
+    private static final String KEY_POST_EVENT_SECONDS = "post_event_seconds";  // 事件后录制时长
+    private static final String KEY_PRE_EVENT_BUFFER_MB = "pre_event_buffer_mb";  // 每路事件前缓存内存上限
+    private static final String KEY_IMAGE_READER_CAPTURE = "image_reader_capture";  // 拍照使用 ImageReader JPEG 输出
     
     // 存储位置配置
-    private static final String KEY_STORAGE_LOCATION = "storage_location";  // 存储位置
-    private static final String KEY_CUSTOM_SD_CARD_PATH = "custom_sd_card_path";  // 手动设置的U盘路径
+    static final String KEY_STORAGE_LOCATION = "storage_location";  // 存储位置
+    static final String KEY_CUSTOM_SD_CARD_PATH = "custom_sd_card_path";  // 手动设置的U盘路径
+    static final String KEY_STORAGE_LAYOUT = "storage_layout";  // 存储目录布局（平铺/按天/按小时分目录）
+    private static final String KEY_RELAY_COPY_POLICY = "relay_copy_policy";  // 中转复制限速策略
+    private static final String KEY_RELAY_COPY_MAX_RATE_MB = "relay_copy_max_rate_mb";  // 中转复制最大速率（MB/s）
+    private static final String KEY_INTEGRITY_SCRUB_ENABLED = "integrity_scrub_enabled";  // 后台校验巡检开关
+    private static final String KEY_INTEGRITY_SCRUB_RATE_MB = "integrity_scrub_rate_mb";  // 后台校验巡检读取速率（MB/s）
+    private static final String KEY_STORAGE_PROFILE_AUTO = "storage_profile_auto";  // 按存储测速结果自动调整码率/帧率
+    private static final String KEY_RECORDING_BASE_LOAD = "recording_base_load";  // 标准码率、标准帧率下的录制总码率（bps）
     private static final String KEY_LAST_DETECTED_SD_PATH = "last_detected_sd_path";  // 上次自动检测到的U盘路径（缓存）
     
     // 存储位置常量
@@ -43,9 +61,19 @@ public class AppConfig {
     // 存储清理配置
     private static final String KEY_VIDEO_STORAGE_LIMIT_GB = "video_storage_limit_gb";  // 视频存储限制（GB）
     private static final String KEY_PHOTO_STORAGE_LIMIT_GB = "photo_storage_limit_gb";  // 图片存储限制（GB）
+    private static final String KEY_SPACE_WATERMARK_CLEANUP = "space_watermark_cleanup";  // 分段完成时按剩余空间水位清理
+    private static final String KEY_MIN_FREE_SPACE_MB = "min_free_space_mb";  // 录制时保留的最小剩余空间（MB）
+    private static final String KEY_RETENTION_MAX_AGE_DAYS = "retention_max_age_days";  // 视频最长保留天数
+    private static final String KEY_CAMERA_STORAGE_LIMIT_GB = "camera_storage_limit_gb";  // 每路摄像头视频存储限制（GB）
+    private static final String KEY_EVENT_STORAGE_LIMIT_GB = "event_storage_limit_gb";  // 事件片段存储配额（GB）
+    private static final String KEY_HOURLY_KEEP_DAYS = "hourly_keep_days";  // 最近N天每小时至少保留一段
     
     // 分段录制配置
     private static final String KEY_SEGMENT_DURATION_MINUTES = "segment_duration_minutes";  // 分段时长（分钟）
+    private static final String KEY_GAPLESS_SEGMENT_SWITCH = "gapless_segment_switch";  // 无缝分段切换（Codec 模式不停编码器）
+    private static final String KEY_FRAGMENTED_MP4_ENABLED = "fragmented_mp4_enabled";  // 防断电分片 MP4 写入（Codec 模式）
+    private static final String KEY_KEY_FRAMES_PER_FRAGMENT = "key_frames_per_fragment";  // 每个分片包含的关键帧数
+    private static final String KEY_SHARED_SEGMENT_CLOCK = "shared_segment_clock";  // 多路摄像头共用分段时钟（分段边界对齐）
     
     // 录制状态显示配置
     private static final String KEY_RECORDING_STATS_ENABLED = "recording_stats_enabled";  // 录制状态显示开关
@@ -295,7 +323,21 @@ public class AppConfig {
     private final SharedPreferences prefs;
     
     public AppConfig(Context context) {
-        prefs = context.getSharedPreferences(PREF_NAME, Context.MODE_PRIVATE);
+        prefs = ConfigSnapshot.preferences(context);
+    }
+    
+    /**
+     * 当前配置快照（每次读取都取最新的快照）
+     */
+    private ConfigSnapshot snapshot() {
+        return ConfigSnapshot.current();
+    }
+    
+    /**
+     * 写入配置，提交后立即刷新快照
+     */
+    private SharedPreferences.Editor edit() {
+        return ConfigSnapshot.edit(prefs);
     }
     
     // ==================== 首次启动相关方法 ====================
@@ -305,14 +347,14 @@ public class AppConfig {
      * @return true 表示首次启动（新安装后第一次打开）
      */
     public boolean isFirstLaunch() {
-        return prefs.getBoolean(KEY_FIRST_LAUNCH, true);
+        return snapshot().getBoolean(KEY_FIRST_LAUNCH, true);
     }
     
     /**
      * 标记首次启动已完成
      */
     public void setFirstLaunchCompleted() {
-        prefs.edit().putBoolean(KEY_FIRST_LAUNCH, false).apply();
+        edit().putBoolean(KEY_FIRST_LAUNCH, false).apply();
         AppLog.d(TAG, "首次启动标记已设置为完成");
     }
     
@@ -323,7 +365,7 @@ public class AppConfig {
      * @return 设备名称，如果未设置返回 null
      */
     public String getDeviceNickname() {
-        return prefs.getString(KEY_DEVICE_NICKNAME, null);
+        return snapshot().getString(KEY_DEVICE_NICKNAME, null);
     }
     
     /**
@@ -331,7 +373,7 @@ public class AppConfig {
      * @param nickname 设备名称
      */
     public void setDeviceNickname(String nickname) {
-        prefs.edit().putString(KEY_DEVICE_NICKNAME, nickname).apply();
+        edit().putString(KEY_DEVICE_NICKNAME, nickname).apply();
         AppLog.d(TAG, "设备识别名称已设置: " + nickname);
     }
     
@@ -351,7 +393,7 @@ public class AppConfig {
      * @param enabled true 表示启用开机自启动
      */
     public void setAutoStartOnBoot(boolean enabled) {
-        prefs.edit().putBoolean(KEY_AUTO_START_ON_BOOT, enabled).apply();
+        edit().putBoolean(KEY_AUTO_START_ON_BOOT, enabled).apply();
         AppLog.d(TAG, "开机自启动设置: " + (enabled ? "启用" : "禁用"));
     }
     
@@ -361,7 +403,7 @@ public class AppConfig {
      */
     public boolean isAutoStartOnBoot() {
         // 默认启用开机自启动（车机系统场景）
-        return prefs.getBoolean(KEY_AUTO_START_ON_BOOT, true);
+        return snapshot().getBoolean(KEY_AUTO_START_ON_BOOT, true);
     }
     
     /**
@@ -369,7 +411,7 @@ public class AppConfig {
      * @param enabled true 表示启用启动自动录制
      */
     public void setAutoStartRecording(boolean enabled) {
-        prefs.edit().putBoolean(KEY_AUTO_START_RECORDING, enabled).apply();
+        edit().putBoolean(KEY_AUTO_START_RECORDING, enabled).apply();
         AppLog.d(TAG, "启动自动录制设置: " + (enabled ? "启用" : "禁用"));
     }
     
@@ -379,7 +421,7 @@ public class AppConfig {
      */
     public boolean isAutoStartRecording() {
         // 默认禁用启动自动录制（需要用户主动开启）
-        return prefs.getBoolean(KEY_AUTO_START_RECORDING, false);
+        return snapshot().getBoolean(KEY_AUTO_START_RECORDING, false);
     }
     
     /**
@@ -387,7 +429,7 @@ public class AppConfig {
      * @param enabled true 表示息屏时继续录制
      */
     public void setScreenOffRecordingEnabled(boolean enabled) {
-        prefs.edit().putBoolean(KEY_SCREEN_OFF_RECORDING, enabled).apply();
+        edit().putBoolean(KEY_SCREEN_OFF_RECORDING, enabled).apply();
         AppLog.d(TAG, "息屏录制设置: " + (enabled ? "启用" : "禁用"));
     }
     
@@ -397,7 +439,7 @@ public class AppConfig {
      */
     public boolean isScreenOffRecordingEnabled() {
         // 默认禁用息屏录制
-        return prefs.getBoolean(KEY_SCREEN_OFF_RECORDING, false);
+        return snapshot().getBoolean(KEY_SCREEN_OFF_RECORDING, false);
     }
     
     /**
@@ -405,7 +447,7 @@ public class AppConfig {
      * @param enabled true 表示启用保活服务
      */
     public void setKeepAliveEnabled(boolean enabled) {
-        prefs.edit().putBoolean(KEY_KEEP_ALIVE_ENABLED, enabled).apply();
+        edit().putBoolean(KEY_KEEP_ALIVE_ENABLED, enabled).apply();
         AppLog.d(TAG, "保活服务设置: " + (enabled ? "启用" : "禁用"));
     }
     
@@ -415,7 +457,7 @@ public class AppConfig {
      */
     public boolean isKeepAliveEnabled() {
         // 默认启用保活服务
-        return prefs.getBoolean(KEY_KEEP_ALIVE_ENABLED, true);
+        return snapshot().getBoolean(KEY_KEEP_ALIVE_ENABLED, true);
     }
     
     /**
@@ -423,7 +465,7 @@ public class AppConfig {
      * @param enabled true 表示启用防止休眠
      */
     public void setPreventSleepEnabled(boolean enabled) {
-        prefs.edit().putBoolean(KEY_PREVENT_SLEEP_ENABLED, enabled).apply();
+        edit().putBoolean(KEY_PREVENT_SLEEP_ENABLED, enabled).apply();
         AppLog.d(TAG, "防止休眠设置: " + (enabled ? "启用" : "禁用"));
     }
     
@@ -436,7 +478,7 @@ public class AppConfig {
         // 原因：1. 车机使用车辆供电，不影响电池
         //       2. 摄像头应用需要在息屏时继续录制
         //       3. 远程控制需要后台运行
-        return prefs.getBoolean(KEY_PREVENT_SLEEP_ENABLED, true);
+        return snapshot().getBoolean(KEY_PREVENT_SLEEP_ENABLED, true);
     }
     
     /**
@@ -444,7 +486,7 @@ public class AppConfig {
      * @param mode 录制模式（auto/media_recorder/codec）
      */
     public void setRecordingMode(String mode) {
-        prefs.edit().putString(KEY_RECORDING_MODE, mode).apply();
+        edit().putString(KEY_RECORDING_MODE, mode).apply();
         AppLog.d(TAG, "录制模式设置: " + mode);
     }
     
@@ -453,7 +495,7 @@ public class AppConfig {
      * @return 录制模式，默认为自动
      */
     public String getRecordingMode() {
-        return prefs.getString(KEY_RECORDING_MODE, RECORDING_MODE_AUTO);
+        return snapshot().getString(KEY_RECORDING_MODE, RECORDING_MODE_AUTO);
     }
     
     /**
@@ -474,11 +516,209 @@ public class AppConfig {
         }
     }
     
+    /**
+     * 设置 Codec 录制模式是否使用共享 GL 渲染线程
+     * 启用后所有摄像头共用一个 EGL 上下文和渲染线程，而不是每路各自一个
+     * @param enabled true 表示启用
+     */
+    public void setSharedGlRenderEnabled(boolean enabled) {
+        edit().putBoolean(KEY_SHARED_GL_RENDER, enabled).apply();
+        AppLog.d(TAG, "共享GL渲染线程设置: " + (enabled ? "启用" : "禁用"));
+    }
+    
+    /**
+     * 获取 Codec 录制模式是否使用共享 GL 渲染线程
+     * @return true 表示启用，默认禁用（每路摄像头独立线程）
+     */
+    public boolean isSharedGlRenderEnabled() {
+        return snapshot().getBoolean(KEY_SHARED_GL_RENDER, false);
+    }
+    
+    // 拼接画面默认宽度（四个象限各 960 宽）
+    public static final int DEFAULT_MOSAIC_WIDTH = 1920;
+    
+    /**
+     * 设置 Codec 录制模式是否使用 2x2 拼接录制
+     * 启用后多路摄像头合成一路画面，只使用一个编码器，输出 时间戳_mosaic.mp4
+     * @param enabled true 表示启用
+     */
+    public void setMosaicRecordingEnabled(boolean enabled) {
+        edit().putBoolean(KEY_MOSAIC_RECORDING, enabled).apply();
+        AppLog.d(TAG, "拼接录制设置: " + (enabled ? "启用" : "禁用"));
+    }
+    
+    /**
+     * 获取 Codec 录制模式是否使用 2x2 拼接录制
+     * @return true 表示启用，默认禁用（每路摄像头独立编码）
+     */
+    public boolean isMosaicRecordingEnabled() {
+        return snapshot().getBoolean(KEY_MOSAIC_RECORDING, false);
+    }
+    
+    /**
+     * 设置拼接画面宽度（高度按主摄像头宽高比计算）
+     * @param width 拼接画面宽度（像素）
+     */
+    public void setMosaicWidth(int width) {
+        edit().putInt(KEY_MOSAIC_WIDTH, width).apply();
+        AppLog.d(TAG, "拼接画面宽度设置: " + width);
+    }
+    
+    /**
+     * 获取拼接画面宽度
+     * @return 拼接画面宽度（像素），默认 1920
+     */
+    public int getMosaicWidth() {
+        return snapshot().getInt(KEY_MOSAIC_WIDTH, DEFAULT_MOSAIC_WIDTH);
+    }
+    
+    /**
+     * 设置拼接画面码率
+     * @param kbps 码率（kbps），0 表示按拼接分辨率和码率等级自动计算
+     */
+    public void setMosaicBitrateKbps(int kbps) {
+        edit().putInt(KEY_MOSAIC_BITRATE_KBPS, Math.max(0, kbps)).apply();
+        AppLog.d(TAG, "拼接画面码率设置: " + (kbps > 0 ? kbps + " kbps" : "自动"));
+    }
+    
+    /**
+     * 获取拼接画面码率设置
+     * @return 码率（kbps），默认 0（自动）
+     */
+    public int getMosaicBitrateKbps() {
+        return snapshot().getInt(KEY_MOSAIC_BITRATE_KBPS, 0);
+    }
+    
+    /**
+     * 获取拼接录制实际使用的码率（bps）
+     * 未设置时与单路录制相同，按拼接分辨率和码率等级计算
+     * @param width 拼接画面宽度
+     * @param height 拼接画面高度
+     * @param frameRate 帧率
+     * @return 实际码率（bps）
+     */
+    public int getMosaicBitrate(int width, int height, int frameRate) {
+        int kbps = getMosaicBitrateKbps();
+        if (kbps <= 0) {
+            return getActualBitrate(width, height, frameRate);
+        }
+        return roundToHalfMbps(kbps * 1000);
+    }
+    
+    /**
+     * 设置 Codec 录制模式的编码器输出是否使用异步回调
+     * @param enabled true 表示异步回调，false 表示每帧轮询编码器输出
+     */
+    public void setAsyncCodecOutputEnabled(boolean enabled) {
+        edit().putBoolean(KEY_ASYNC_CODEC_OUTPUT, enabled).apply();
+        AppLog.d(TAG, "编码器异步输出设置: " + (enabled ? "启用" : "禁用"));
+    }
+    
+    /**
+     * 获取 Codec 录制模式的编码器输出是否使用异步回调
+     * @return true 表示启用，默认启用
+     */
+    public boolean isAsyncCodecOutputEnabled() {
+        return snapshot().getBoolean(KEY_ASYNC_CODEC_OUTPUT, true);
+    }
+    
+    // 事件录制默认值
+    public static final int DEFAULT_PRE_EVENT_SECONDS = 10;
+    public static final int DEFAULT_POST_EVENT_SECONDS = 20;
+    public static final int DEFAULT_PRE_EVENT_BUFFER_MB = 16;  // 每路摄像头，约 10 秒 12Mbps
+    
+    /**
+     * 设置是否启用事件前缓存（仅 Codec 录制模式）
+     * 启用后录制期间在内存中保留最近的编码帧，触发事件时保存为事件片段
+     * @param enabled true 表示启用
+     */
+    public void setPreEventBufferEnabled(boolean enabled) {
+        edit().putBoolean(KEY_PRE_EVENT_BUFFER, enabled).apply();
+        AppLog.d(TAG, "事件前缓存设置: " + (enabled ? "启用" : "禁用"));
+    }
+    
+    /**
+     * 获取是否启用事件前缓存
+     * @return true 表示启用，默认禁用（不占用额外内存）
+     */
+    public boolean isPreEventBufferEnabled() {
+        return snapshot().getBoolean(KEY_PRE_EVENT_BUFFER, false);
+    }
+    
+    /**
+     * 设置事件前保留时长
+     * @param seconds 秒数
+     */
+    public void setPreEventSeconds(int seconds) {
+        edit().putInt(KEY_PRE_EVENT_SECONDS, seconds).apply();
+        AppLog.d(TAG, "事件前保留时长设置: " + seconds + " 秒");
+    }
+    
+    /**
+     * 获取事件前保留时长
+     * @return 秒数，默认 10 秒
+     */
+    public int getPreEventSeconds() {
+        return snapshot().getInt(KEY_PRE_EVENT_SECONDS, DEFAULT_PRE_EVENT_SECONDS);
+    }
+    
+    /**
+     * 设置事件后录制时长
+     * @param seconds 秒数
+     */
+    public void setPostEventSeconds(int seconds) {
+        edit().putInt(KEY_POST_EVENT_SECONDS, seconds).apply();
+        AppLog.d(TAG, "事件后录制时长设置: " + seconds + " 秒");
+    }
+    
+    /**
+     * 获取事件后录制时长
+     * @return 秒数，默认 20 秒
+     */
+    public int getPostEventSeconds() {
+        return snapshot().getInt(KEY_POST_EVENT_SECONDS, DEFAULT_POST_EVENT_SECONDS);
+    }
+    
+    /**
+     * 设置每路摄像头事件前缓存的内存上限
+     * @param megabytes 内存上限（MB）
+     */
+    public void setPreEventBufferMb(int megabytes) {
+        edit().putInt(KEY_PRE_EVENT_BUFFER_MB, megabytes).apply();
+        AppLog.d(TAG, "事件前缓存内存上限设置: " + megabytes + " MB");
+    }
+    
+    /**
+     * 获取每路摄像头事件前缓存的内存上限
+     * @return 内存上限（MB），默认 16MB
+     */
+    public int getPreEventBufferMb() {
+        return snapshot().getInt(KEY_PRE_EVENT_BUFFER_MB, DEFAULT_PRE_EVENT_BUFFER_MB);
+    }
+    
+    /**
+     * 设置拍照是否使用 ImageReader JPEG 输出（重新创建相机会话后生效）
+     * 启用后拍照不再从预览 TextureView 截图，JPEG 直接写入文件，熄屏时也可拍照
+     * @param enabled true 表示启用
+     */
+    public void setImageReaderCaptureEnabled(boolean enabled) {
+        edit().putBoolean(KEY_IMAGE_READER_CAPTURE, enabled).apply();
+        AppLog.d(TAG, "ImageReader 拍照设置: " + (enabled ? "启用" : "禁用"));
+    }
+    
+    /**
+     * 获取拍照是否使用 ImageReader JPEG 输出
+     * @return true 表示启用，默认启用（平台不支持额外的流时自动回退到截图）
+     */
+    public boolean isImageReaderCaptureEnabled() {
+        return snapshot().getBoolean(KEY_IMAGE_READER_CAPTURE, true);
+    }
+    
     /**
      * 重置所有配置为默认值
      */
     public void resetToDefault() {
-        prefs.edit().clear().apply();
+        edit().clear().apply();
         AppLog.d(TAG, "配置已重置为默认值");
     }
     
@@ -489,7 +729,7 @@ public class AppConfig {
      * @param resolution 分辨率字符串（如 "1280x720"）或 "default"
      */
     public void setTargetResolution(String resolution) {
-        prefs.edit().putString(KEY_TARGET_RESOLUTION, resolution).apply();
+        edit().putString(KEY_TARGET_RESOLUTION, resolution).apply();
         AppLog.d(TAG, "目标分辨率设置: " + resolution);
     }
     
@@ -498,7 +738,7 @@ public class AppConfig {
      * @return 分辨率字符串，默认为 "default"
      */
     public String getTargetResolution() {
-        return prefs.getString(KEY_TARGET_RESOLUTION, RESOLUTION_DEFAULT);
+        return snapshot().getString(KEY_TARGET_RESOLUTION, RESOLUTION_DEFAULT);
     }
     
     /**
@@ -537,7 +777,7 @@ public class AppConfig {
      * @param level 码率等级（low/medium/high）
      */
     public void setBitrateLevel(String level) {
-        prefs.edit().putString(KEY_BITRATE_LEVEL, level).apply();
+        edit().putString(KEY_BITRATE_LEVEL, level).apply();
         AppLog.d(TAG, "码率等级设置: " + level);
     }
     
@@ -546,7 +786,7 @@ public class AppConfig {
      * @return 码率等级，默认为 medium
      */
     public String getBitrateLevel() {
-        return prefs.getString(KEY_BITRATE_LEVEL, BITRATE_MEDIUM);
+        return snapshot().getString(KEY_BITRATE_LEVEL, BITRATE_MEDIUM);
     }
     
     /**
@@ -665,7 +905,7 @@ public class AppConfig {
      * @param level 帧率等级（standard/low）
      */
     public void setFramerateLevel(String level) {
-        prefs.edit().putString(KEY_FRAMERATE_LEVEL, level).apply();
+        edit().putString(KEY_FRAMERATE_LEVEL, level).apply();
         AppLog.d(TAG, "帧率等级设置: " + level);
     }
     
@@ -674,7 +914,7 @@ public class AppConfig {
      * @return 帧率等级，默认为 standard
      */
     public String getFramerateLevel() {
-        return prefs.getString(KEY_FRAMERATE_LEVEL, FRAMERATE_STANDARD);
+        return snapshot().getString(KEY_FRAMERATE_LEVEL, FRAMERATE_STANDARD);
     }
     
     /**
@@ -712,7 +952,7 @@ public class AppConfig {
      * @param carModel 车型标识（galaxy_e5 或 custom）
      */
     public void setCarModel(String carModel) {
-        prefs.edit().putString(KEY_CAR_MODEL, carModel).apply();
+        edit().putString(KEY_CAR_MODEL, carModel).apply();
         AppLog.d(TAG, "车型设置: " + carModel);
     }
     
@@ -721,7 +961,7 @@ public class AppConfig {
      * @return 车型标识，默认为银河E5
      */
     public String getCarModel() {
-        return prefs.getString(KEY_CAR_MODEL, CAR_MODEL_GALAXY_E5);
+        return snapshot().getString(KEY_CAR_MODEL, CAR_MODEL_GALAXY_E5);
     }
     
     /**
@@ -736,7 +976,7 @@ public class AppConfig {
      * @param count 摄像头数量（4/2/1）
      */
     public void setCameraCount(int count) {
-        prefs.edit().putInt(KEY_CAMERA_COUNT, count).apply();
+        edit().putInt(KEY_CAMERA_COUNT, count).apply();
         AppLog.d(TAG, "摄像头数量设置: " + count);
     }
     
@@ -760,7 +1000,7 @@ public class AppConfig {
             case CAR_MODEL_CUSTOM:
             default:
                 // 自定义车型使用用户设置的数量
-                return prefs.getInt(KEY_CAMERA_COUNT, 4);
+                return snapshot().getInt(KEY_CAMERA_COUNT, 4);
         }
     }
     
@@ -769,7 +1009,7 @@ public class AppConfig {
      * @return 用户设置的摄像头数量，默认为4
      */
     public int getCustomCameraCount() {
-        return prefs.getInt(KEY_CAMERA_COUNT, 4);
+        return snapshot().getInt(KEY_CAMERA_COUNT, 4);
     }
     
     /**
@@ -777,7 +1017,7 @@ public class AppConfig {
      * @param orientation 屏幕方向（landscape/portrait）
      */
     public void setScreenOrientation(String orientation) {
-        prefs.edit().putString(KEY_SCREEN_ORIENTATION, orientation).apply();
+        edit().putString(KEY_SCREEN_ORIENTATION, orientation).apply();
         AppLog.d(TAG, "屏幕方向设置: " + orientation);
     }
     
@@ -786,7 +1026,7 @@ public class AppConfig {
      * @return 屏幕方向，默认为横屏
      */
     public String getScreenOrientation() {
-        return prefs.getString(KEY_SCREEN_ORIENTATION, "landscape");
+        return snapshot().getString(KEY_SCREEN_ORIENTATION, "landscape");
     }
     
     /**
@@ -813,7 +1053,7 @@ public class AppConfig {
                 AppLog.w(TAG, "未知的摄像头位置: " + position);
                 return;
         }
-        prefs.edit().putString(key, cameraId).apply();
+        edit().putString(key, cameraId).apply();
         AppLog.d(TAG, "摄像头编号设置: " + position + " = " + cameraId);
     }
     
@@ -845,7 +1085,7 @@ public class AppConfig {
             default:
                 return "-1";
         }
-        return prefs.getString(key, defaultValue);
+        return snapshot().getString(key, defaultValue);
     }
     
     /**
@@ -872,7 +1112,7 @@ public class AppConfig {
                 AppLog.w(TAG, "未知的摄像头位置: " + position);
                 return;
         }
-        prefs.edit().putString(key, name).apply();
+        edit().putString(key, name).apply();
         AppLog.d(TAG, "摄像头名称设置: " + position + " = " + name);
     }
     
@@ -907,7 +1147,7 @@ public class AppConfig {
             default:
                 return "未知";
         }
-        return prefs.getString(key, defaultValue);
+        return snapshot().getString(key, defaultValue);
     }
     
     /**
@@ -956,7 +1196,7 @@ public class AppConfig {
                 AppLog.w(TAG, "未知的摄像头位置: " + position);
                 return;
         }
-        prefs.edit().putInt(key, rotation).apply();
+        edit().putInt(key, rotation).apply();
         AppLog.d(TAG, "摄像头旋转角度设置: " + position + " = " + rotation + "°");
     }
 
@@ -988,7 +1228,7 @@ public class AppConfig {
             default:
                 return 0;
         }
-        return prefs.getInt(key, 0);
+        return snapshot().getInt(key, 0);
     }
     
     /**
@@ -1014,7 +1254,7 @@ public class AppConfig {
             default:
                 return;
         }
-        prefs.edit().putBoolean(key, mirror).apply();
+        edit().putBoolean(key, mirror).apply();
         AppLog.d(TAG, position + " 摄像头镜像设置: " + mirror);
     }
 
@@ -1041,7 +1281,7 @@ public class AppConfig {
             default:
                 return false;
         }
-        return prefs.getBoolean(key, false);
+        return snapshot().getBoolean(key, false);
     }
 
     /**
@@ -1052,7 +1292,7 @@ public class AppConfig {
      */
     public void setCameraCrop(String position, String direction, int pixels) {
         String key = KEY_CAMERA_CROP_PREFIX + position + "_" + direction;
-        prefs.edit().putInt(key, Math.max(0, pixels)).apply();
+        edit().putInt(key, Math.max(0, pixels)).apply();
     }
 
     /**
@@ -1063,7 +1303,7 @@ public class AppConfig {
      */
     public int getCameraCrop(String position, String direction) {
         String key = KEY_CAMERA_CROP_PREFIX + position + "_" + direction;
-        return prefs.getInt(key, 0);
+        return snapshot().getInt(key, 0);
     }
 
     /**
@@ -1113,7 +1353,7 @@ public class AppConfig {
      * @param location 存储位置（internal 或 external_sd）
      */
     public void setStorageLocation(String location) {
-        prefs.edit().putString(KEY_STORAGE_LOCATION, location).apply();
+        edit().putString(KEY_STORAGE_LOCATION, location).apply();
         AppLog.d(TAG, "存储位置设置: " + location);
     }
     
@@ -1122,7 +1362,7 @@ public class AppConfig {
      * @return 存储位置，默认为内部存储
      */
     public String getStorageLocation() {
-        return prefs.getString(KEY_STORAGE_LOCATION, STORAGE_INTERNAL);
+        return snapshot().getString(KEY_STORAGE_LOCATION, STORAGE_INTERNAL);
     }
     
     /**
@@ -1133,16 +1373,33 @@ public class AppConfig {
         return STORAGE_EXTERNAL_SD.equals(getStorageLocation());
     }
     
+    /**
+     * 设置存储目录布局（已有文件由 StorageLayoutMigrator 在后台迁移）
+     * @param layout flat（平铺）、daily（按天分目录）或 hourly（按小时分目录）
+     */
+    public void setStorageLayout(String layout) {
+        edit().putString(KEY_STORAGE_LAYOUT, layout).apply();
+        AppLog.d(TAG, "存储目录布局设置: " + layout);
+    }
+    
+    /**
+     * 获取存储目录布局
+     * @return 布局，默认 flat
+     */
+    public String getStorageLayout() {
+        return snapshot().getString(KEY_STORAGE_LAYOUT, StorageHelper.LAYOUT_FLAT);
+    }
+    
     /**
      * 设置自定义U盘路径
      * @param path U盘路径，设为null或空字符串表示使用自动检测
      */
     public void setCustomSdCardPath(String path) {
         if (path == null || path.trim().isEmpty()) {
-            prefs.edit().remove(KEY_CUSTOM_SD_CARD_PATH).apply();
+            edit().remove(KEY_CUSTOM_SD_CARD_PATH).apply();
             AppLog.d(TAG, "清除自定义U盘路径，使用自动检测");
         } else {
-            prefs.edit().putString(KEY_CUSTOM_SD_CARD_PATH, path.trim()).apply();
+            edit().putString(KEY_CUSTOM_SD_CARD_PATH, path.trim()).apply();
             AppLog.d(TAG, "设置自定义U盘路径: " + path.trim());
         }
     }
@@ -1152,7 +1409,7 @@ public class AppConfig {
      * @return 自定义路径，如果未设置返回null
      */
     public String getCustomSdCardPath() {
-        String path = prefs.getString(KEY_CUSTOM_SD_CARD_PATH, null);
+        String path = snapshot().getString(KEY_CUSTOM_SD_CARD_PATH, null);
         if (path != null && path.trim().isEmpty()) {
             return null;
         }
@@ -1172,9 +1429,9 @@ public class AppConfig {
      */
     public void setLastDetectedSdPath(String path) {
         if (path == null || path.trim().isEmpty()) {
-            prefs.edit().remove(KEY_LAST_DETECTED_SD_PATH).apply();
+            edit().remove(KEY_LAST_DETECTED_SD_PATH).apply();
         } else {
-            prefs.edit().putString(KEY_LAST_DETECTED_SD_PATH, path.trim()).apply();
+            edit().putString(KEY_LAST_DETECTED_SD_PATH, path.trim()).apply();
             AppLog.d(TAG, "缓存U盘路径: " + path.trim());
         }
     }
@@ -1184,7 +1441,7 @@ public class AppConfig {
      * @return 缓存的路径，如果未设置返回null
      */
     public String getLastDetectedSdPath() {
-        return prefs.getString(KEY_LAST_DETECTED_SD_PATH, null);
+        return snapshot().getString(KEY_LAST_DETECTED_SD_PATH, null);
     }
     
     /**
@@ -1217,6 +1474,102 @@ public class AppConfig {
         return isUsingExternalSdCard();
     }
     
+    /**
+     * 设置中转复制限速策略
+     * @param policy adaptive（按录制写入延迟自动调整）、fixed（固定最大速率）或 unlimited（不限速）
+     */
+    public void setRelayCopyPolicy(String policy) {
+        edit().putString(KEY_RELAY_COPY_POLICY, policy).apply();
+        AppLog.d(TAG, "中转复制限速策略设置: " + policy);
+    }
+    
+    /**
+     * 获取中转复制限速策略
+     * @return 策略，默认 adaptive
+     */
+    public String getRelayCopyPolicy() {
+        return snapshot().getString(KEY_RELAY_COPY_POLICY, RelayIoScheduler.POLICY_ADAPTIVE);
+    }
+    
+    /**
+     * 设置中转复制最大速率（MB/s）
+     */
+    public void setRelayCopyMaxRateMb(int rateMb) {
+        edit().putInt(KEY_RELAY_COPY_MAX_RATE_MB, rateMb).apply();
+        AppLog.d(TAG, "中转复制最大速率设置: " + rateMb + " MB/s");
+    }
+    
+    /**
+     * 获取中转复制最大速率（MB/s），默认10
+     */
+    public int getRelayCopyMaxRateMb() {
+        return snapshot().getInt(KEY_RELAY_COPY_MAX_RATE_MB, 10);
+    }
+    
+    /**
+     * 设置后台校验巡检开关（定期回读已归档视频，与校验旁路文件比对）
+     */
+    public void setIntegrityScrubEnabled(boolean enabled) {
+        edit().putBoolean(KEY_INTEGRITY_SCRUB_ENABLED, enabled).apply();
+        AppLog.d(TAG, "后台校验巡检设置: " + (enabled ? "启用" : "禁用"));
+    }
+    
+    /**
+     * 获取后台校验巡检开关
+     * @return 默认 false
+     */
+    public boolean isIntegrityScrubEnabled() {
+        return snapshot().getBoolean(KEY_INTEGRITY_SCRUB_ENABLED, false);
+    }
+    
+    /**
+     * 设置后台校验巡检读取速率（MB/s）
+     */
+    public void setIntegrityScrubRateMb(int rateMb) {
+        edit().putInt(KEY_INTEGRITY_SCRUB_RATE_MB, rateMb).apply();
+        AppLog.d(TAG, "后台校验巡检速率设置: " + rateMb + " MB/s");
+    }
+    
+    /**
+     * 获取后台校验巡检读取速率（MB/s），默认2
+     */
+    public int getIntegrityScrubRateMb() {
+        return snapshot().getInt(KEY_INTEGRITY_SCRUB_RATE_MB, 2);
+    }
+    
+    /**
+     * 设置是否按存储测速结果自动调整码率和帧率
+     * @param enabled true 表示自动应用推荐设置
+     */
+    public void setStorageProfileAuto(boolean enabled) {
+        edit().putBoolean(KEY_STORAGE_PROFILE_AUTO, enabled).apply();
+        AppLog.d(TAG, "存储测速自动调整设置: " + (enabled ? "启用" : "禁用"));
+    }
+    
+    /**
+     * 获取是否按存储测速结果自动调整码率和帧率
+     * @return 默认 false
+     */
+    public boolean isStorageProfileAuto() {
+        return snapshot().getBoolean(KEY_STORAGE_PROFILE_AUTO, false);
+    }
+    
+    /**
+     * 保存录制负载（换算到标准码率、标准帧率下的所有摄像头总码率，由 StorageBenchmark 在录制开始时记录）
+     * @param bitrate 总码率（bps）
+     */
+    public void setRecordingBaseLoad(int bitrate) {
+        edit().putInt(KEY_RECORDING_BASE_LOAD, bitrate).apply();
+    }
+    
+    /**
+     * 获取录制负载（bps）
+     * @return 总码率，尚未录制过时返回 0
+     */
+    public int getRecordingBaseLoad() {
+        return snapshot().getInt(KEY_RECORDING_BASE_LOAD, 0);
+    }
+    
     // ==================== 悬浮窗配置相关方法 ====================
     
     /**
@@ -1224,7 +1577,7 @@ public class AppConfig {
      * @param enabled true 表示启用悬浮窗
      */
     public void setFloatingWindowEnabled(boolean enabled) {
-        prefs.edit().putBoolean(KEY_FLOATING_WINDOW_ENABLED, enabled).apply();
+        edit().putBoolean(KEY_FLOATING_WINDOW_ENABLED, enabled).apply();
         AppLog.d(TAG, "悬浮窗设置: " + (enabled ? "启用" : "禁用"));
     }
     
@@ -1233,7 +1586,7 @@ public class AppConfig {
      * @return true 表示启用悬浮窗
      */
     public boolean isFloatingWindowEnabled() {
-        return prefs.getBoolean(KEY_FLOATING_WINDOW_ENABLED, false);
+        return snapshot().getBoolean(KEY_FLOATING_WINDOW_ENABLED, false);
     }
     
     /**
@@ -1241,7 +1594,7 @@ public class AppConfig {
      * @param sizeDp 悬浮窗大小，单位dp
      */
     public void setFloatingWindowSize(int sizeDp) {
-        prefs.edit().putInt(KEY_FLOATING_WINDOW_SIZE, sizeDp).apply();
+        edit().putInt(KEY_FLOATING_WINDOW_SIZE, sizeDp).apply();
         AppLog.d(TAG, "悬浮窗大小设置: " + sizeDp + "dp");
     }
     
@@ -1250,7 +1603,7 @@ public class AppConfig {
      * @return 悬浮窗大小，默认为中等大小
      */
     public int getFloatingWindowSize() {
-        return prefs.getInt(KEY_FLOATING_WINDOW_SIZE, FLOATING_SIZE_MEDIUM);
+        return snapshot().getInt(KEY_FLOATING_WINDOW_SIZE, FLOATING_SIZE_MEDIUM);
     }
     
     /**
@@ -1258,7 +1611,7 @@ public class AppConfig {
      * @param alpha 透明度百分比，0为完全透明，100为完全不透明
      */
     public void setFloatingWindowAlpha(int alpha) {
-        prefs.edit().putInt(KEY_FLOATING_WINDOW_ALPHA, alpha).apply();
+        edit().putInt(KEY_FLOATING_WINDOW_ALPHA, alpha).apply();
         AppLog.d(TAG, "悬浮窗透明度设置: " + alpha + "%");
     }
     
@@ -1267,7 +1620,7 @@ public class AppConfig {
      * @return 透明度百分比，默认为100（完全不透明）
      */
     public int getFloatingWindowAlpha() {
-        return prefs.getInt(KEY_FLOATING_WINDOW_ALPHA, 100);
+        return snapshot().getInt(KEY_FLOATING_WINDOW_ALPHA, 100);
     }
     
     /**
@@ -1276,7 +1629,7 @@ public class AppConfig {
      * @param y Y坐标
      */
     public void setFloatingWindowPosition(int x, int y) {
-        prefs.edit()
+        edit()
             .putInt(KEY_FLOATING_WINDOW_X, x)
             .putInt(KEY_FLOATING_WINDOW_Y, y)
             .apply();
@@ -1287,7 +1640,7 @@ public class AppConfig {
      * @return X坐标，默认-1表示未设置
      */
     public int getFloatingWindowX() {
-        return prefs.getInt(KEY_FLOATING_WINDOW_X, -1);
+        return snapshot().getInt(KEY_FLOATING_WINDOW_X, -1);
     }
     
     /**
@@ -1295,7 +1648,7 @@ public class AppConfig {
      * @return Y坐标，默认-1表示未设置
      */
     public int getFloatingWindowY() {
-        return prefs.getInt(KEY_FLOATING_WINDOW_Y, -1);
+        return snapshot().getInt(KEY_FLOATING_WINDOW_Y, -1);
     }
     
     // ==================== 存储清理配置相关方法 ====================
@@ -1305,7 +1658,7 @@ public class AppConfig {
      * @param limitGb 存储限制，单位GB，0表示不限制
      */
     public void setVideoStorageLimitGb(int limitGb) {
-        prefs.edit().putInt(KEY_VIDEO_STORAGE_LIMIT_GB, limitGb).apply();
+        edit().putInt(KEY_VIDEO_STORAGE_LIMIT_GB, limitGb).apply();
         AppLog.d(TAG, "视频存储限制设置: " + limitGb + " GB");
     }
     
@@ -1314,7 +1667,7 @@ public class AppConfig {
      * @return 存储限制，单位GB，0表示不限制，默认10GB
      */
     public int getVideoStorageLimitGb() {
-        return prefs.getInt(KEY_VIDEO_STORAGE_LIMIT_GB, 10);
+        return snapshot().getInt(KEY_VIDEO_STORAGE_LIMIT_GB, 10);
     }
     
     /**
@@ -1322,7 +1675,7 @@ public class AppConfig {
      * @param limitGb 存储限制，单位GB，0表示不限制
      */
     public void setPhotoStorageLimitGb(int limitGb) {
-        prefs.edit().putInt(KEY_PHOTO_STORAGE_LIMIT_GB, limitGb).apply();
+        edit().putInt(KEY_PHOTO_STORAGE_LIMIT_GB, limitGb).apply();
         AppLog.d(TAG, "图片存储限制设置: " + limitGb + " GB");
     }
     
@@ -1331,7 +1684,7 @@ public class AppConfig {
      * @return 存储限制，单位GB，0表示不限制，默认10GB
      */
     public int getPhotoStorageLimitGb() {
-        return prefs.getInt(KEY_PHOTO_STORAGE_LIMIT_GB, 10);
+        return snapshot().getInt(KEY_PHOTO_STORAGE_LIMIT_GB, 10);
     }
     
     /**
@@ -1342,6 +1695,108 @@ public class AppConfig {
         return getVideoStorageLimitGb() > 0 || getPhotoStorageLimitGb() > 0;
     }
     
+    /**
+     * 设置剩余空间水位清理
+     * @param enabled true 表示每个分段完成时检查剩余空间，低于水位时删除最旧的视频
+     */
+    public void setSpaceWatermarkCleanupEnabled(boolean enabled) {
+        edit().putBoolean(KEY_SPACE_WATERMARK_CLEANUP, enabled).apply();
+        AppLog.d(TAG, "剩余空间水位清理设置: " + (enabled ? "启用" : "禁用"));
+    }
+    
+    /**
+     * 获取剩余空间水位清理设置
+     * @return true 表示启用，默认启用
+     */
+    public boolean isSpaceWatermarkCleanupEnabled() {
+        return snapshot().getBoolean(KEY_SPACE_WATERMARK_CLEANUP, true);
+    }
+    
+    /**
+     * 设置录制时保留的最小剩余空间（MB）
+     * 实际低水位 = 该值 + 按当前码率预计的后续写入量
+     */
+    public void setMinFreeSpaceMb(int mb) {
+        edit().putInt(KEY_MIN_FREE_SPACE_MB, mb).apply();
+        AppLog.d(TAG, "最小剩余空间设置: " + mb + " MB");
+    }
+    
+    /**
+     * 获取录制时保留的最小剩余空间（MB），默认1024MB
+     */
+    public int getMinFreeSpaceMb() {
+        return snapshot().getInt(KEY_MIN_FREE_SPACE_MB, 1024);
+    }
+    
+    /**
+     * 设置视频最长保留天数
+     * @param days 保留天数，0表示不限制
+     */
+    public void setRetentionMaxAgeDays(int days) {
+        edit().putInt(KEY_RETENTION_MAX_AGE_DAYS, days).apply();
+        AppLog.d(TAG, "视频最长保留天数设置: " + days);
+    }
+    
+    /**
+     * 获取视频最长保留天数
+     * @return 保留天数，0表示不限制，默认0
+     */
+    public int getRetentionMaxAgeDays() {
+        return snapshot().getInt(KEY_RETENTION_MAX_AGE_DAYS, 0);
+    }
+    
+    /**
+     * 设置每路摄像头视频存储限制（GB）
+     * @param limitGb 存储限制，单位GB，0表示不限制
+     */
+    public void setCameraStorageLimitGb(int limitGb) {
+        edit().putInt(KEY_CAMERA_STORAGE_LIMIT_GB, limitGb).apply();
+        AppLog.d(TAG, "每路摄像头视频存储限制设置: " + limitGb + " GB");
+    }
+    
+    /**
+     * 获取每路摄像头视频存储限制（GB）
+     * @return 存储限制，单位GB，0表示不限制，默认0
+     */
+    public int getCameraStorageLimitGb() {
+        return snapshot().getInt(KEY_CAMERA_STORAGE_LIMIT_GB, 0);
+    }
+    
+    /**
+     * 设置事件片段存储配额（GB）
+     * 事件片段和受保护的视频超出该配额时删除最旧的；视频存储限制只剩受保护文件仍超限时也会删除最旧的
+     * @param limitGb 存储配额，单位GB，0表示不限制
+     */
+    public void setEventStorageLimitGb(int limitGb) {
+        edit().putInt(KEY_EVENT_STORAGE_LIMIT_GB, limitGb).apply();
+        AppLog.d(TAG, "事件片段存储配额设置: " + limitGb + " GB");
+    }
+    
+    /**
+     * 获取事件片段存储配额（GB）
+     * @return 存储配额，单位GB，0表示不限制，默认4GB
+     */
+    public int getEventStorageLimitGb() {
+        return snapshot().getInt(KEY_EVENT_STORAGE_LIMIT_GB, 4);
+    }
+    
+    /**
+     * 设置每小时保留天数：最近N天内每路摄像头每小时至少保留一段视频，不被清理删除
+     * @param days 天数，0表示不启用
+     */
+    public void setHourlyKeepDays(int days) {
+        edit().putInt(KEY_HOURLY_KEEP_DAYS, days).apply();
+        AppLog.d(TAG, "每小时保留天数设置: " + days);
+    }
+    
+    /**
+     * 获取每小时保留天数
+     * @return 天数，0表示不启用，默认0
+     */
+    public int getHourlyKeepDays() {
+        return snapshot().getInt(KEY_HOURLY_KEEP_DAYS, 0);
+    }
+    
     // ==================== 分段录制配置相关方法 ====================
     
     /**
@@ -1349,7 +1804,7 @@ public class AppConfig {
      * @param minutes 分段时长，单位分钟（1/3/5）
      */
     public void setSegmentDurationMinutes(int minutes) {
-        prefs.edit().putInt(KEY_SEGMENT_DURATION_MINUTES, minutes).apply();
+        edit().putInt(KEY_SEGMENT_DURATION_MINUTES, minutes).apply();
         AppLog.d(TAG, "分段时长设置: " + minutes + " 分钟");
     }
     
@@ -1358,7 +1813,7 @@ public class AppConfig {
      * @return 分段时长，单位分钟，默认为1分钟
      */
     public int getSegmentDurationMinutes() {
-        return prefs.getInt(KEY_SEGMENT_DURATION_MINUTES, SEGMENT_DURATION_1_MIN);
+        return snapshot().getInt(KEY_SEGMENT_DURATION_MINUTES, SEGMENT_DURATION_1_MIN);
     }
     
     /**
@@ -1369,6 +1824,71 @@ public class AppConfig {
         return getSegmentDurationMinutes() * 60 * 1000L;
     }
     
+    /**
+     * 设置无缝分段切换（仅 Codec 录制模式有效）
+     * @param enabled true 表示分段切换时不停止编码器，在关键帧处切换到新文件
+     */
+    public void setGaplessSegmentSwitchEnabled(boolean enabled) {
+        edit().putBoolean(KEY_GAPLESS_SEGMENT_SWITCH, enabled).apply();
+        AppLog.d(TAG, "无缝分段切换设置: " + (enabled ? "启用" : "禁用"));
+    }
+    
+    /**
+     * 获取无缝分段切换设置
+     * @return true 表示启用无缝分段切换，默认启用
+     */
+    public boolean isGaplessSegmentSwitchEnabled() {
+        return snapshot().getBoolean(KEY_GAPLESS_SEGMENT_SWITCH, true);
+    }
+    
+    /**
+     * 设置防断电分片 MP4 写入（仅 Codec 录制模式有效）
+     * @param enabled true 表示使用分片 MP4 代替 MediaMuxer，断电时最多丢失一个分片
+     */
+    public void setFragmentedMp4Enabled(boolean enabled) {
+        edit().putBoolean(KEY_FRAGMENTED_MP4_ENABLED, enabled).apply();
+        AppLog.d(TAG, "分片MP4写入设置: " + (enabled ? "启用" : "禁用"));
+    }
+    
+    /**
+     * 获取防断电分片 MP4 写入设置
+     * @return true 表示启用，默认禁用
+     */
+    public boolean isFragmentedMp4Enabled() {
+        return snapshot().getBoolean(KEY_FRAGMENTED_MP4_ENABLED, false);
+    }
+    
+    /**
+     * 设置每个分片包含的关键帧数（I帧间隔1秒，即断电时最多丢失的秒数）
+     */
+    public void setKeyFramesPerFragment(int count) {
+        edit().putInt(KEY_KEY_FRAMES_PER_FRAGMENT, count).apply();
+    }
+    
+    /**
+     * 获取每个分片包含的关键帧数，默认1
+     */
+    public int getKeyFramesPerFragment() {
+        return snapshot().getInt(KEY_KEY_FRAMES_PER_FRAGMENT, 1);
+    }
+    
+    /**
+     * 设置多路摄像头共用分段时钟
+     * @param enabled true 表示由 MultiCameraManager 统一调度各路分段切换，分段边界和文件时间戳对齐
+     */
+    public void setSharedSegmentClockEnabled(boolean enabled) {
+        edit().putBoolean(KEY_SHARED_SEGMENT_CLOCK, enabled).apply();
+        AppLog.d(TAG, "共用分段时钟设置: " + (enabled ? "启用" : "禁用"));
+    }
+    
+    /**
+     * 获取多路摄像头共用分段时钟设置
+     * @return true 表示启用，默认启用（禁用时各路录制器使用各自的分段定时器）
+     */
+    public boolean isSharedSegmentClockEnabled() {
+        return snapshot().getBoolean(KEY_SHARED_SEGMENT_CLOCK, true);
+    }
+    
     // ==================== 录制状态显示配置相关方法 ====================
     
     /**
@@ -1376,7 +1896,7 @@ public class AppConfig {
      * @param enabled true 表示显示录制时间和分段数
      */
     public void setRecordingStatsEnabled(boolean enabled) {
-        prefs.edit().putBoolean(KEY_RECORDING_STATS_ENABLED, enabled).apply();
+        edit().putBoolean(KEY_RECORDING_STATS_ENABLED, enabled).apply();
         AppLog.d(TAG, "录制状态显示设置: " + (enabled ? "显示" : "隐藏"));
     }
     
@@ -1386,7 +1906,7 @@ public class AppConfig {
      */
     public boolean isRecordingStatsEnabled() {
         // 默认开启录制状态显示
-        return prefs.getBoolean(KEY_RECORDING_STATS_ENABLED, true);
+        return snapshot().getBoolean(KEY_RECORDING_STATS_ENABLED, true);
     }
     
     // ==================== 补盲功能全局开关 ====================
@@ -1397,7 +1917,7 @@ public class AppConfig {
      * @param enabled true 表示启用补盲功能
      */
     public void setBlindSpotGlobalEnabled(boolean enabled) {
-        prefs.edit().putBoolean(KEY_BLIND_SPOT_GLOBAL_ENABLED, enabled).apply();
+        edit().putBoolean(KEY_BLIND_SPOT_GLOBAL_ENABLED, enabled).apply();
         AppLog.d(TAG, "补盲功能全局开关: " + (enabled ? "启用" : "禁用"));
     }
     
@@ -1406,7 +1926,7 @@ public class AppConfig {
      * @return true 表示补盲功能已启用
      */
     public boolean isBlindSpotGlobalEnabled() {
-        return prefs.getBoolean(KEY_BLIND_SPOT_GLOBAL_ENABLED, false);
+        return snapshot().getBoolean(KEY_BLIND_SPOT_GLOBAL_ENABLED, false);
     }
     
     // ==================== 补盲选项配置相关方法 (原副屏显示) ====================
@@ -1415,41 +1935,41 @@ public class AppConfig {
      * 设置副屏显示开关
      */
     public void setSecondaryDisplayEnabled(boolean enabled) {
-        prefs.edit().putBoolean(KEY_SECONDARY_DISPLAY_ENABLED, enabled).apply();
+        edit().putBoolean(KEY_SECONDARY_DISPLAY_ENABLED, enabled).apply();
         AppLog.d(TAG, "副屏显示设置: " + (enabled ? "启用" : "禁用"));
     }
     
     public boolean isSecondaryDisplayEnabled() {
-        return prefs.getBoolean(KEY_SECONDARY_DISPLAY_ENABLED, false);
+        return snapshot().getBoolean(KEY_SECONDARY_DISPLAY_ENABLED, false);
     }
     
     /**
      * 设置副屏显示的摄像头位置
      */
     public void setSecondaryDisplayCamera(String position) {
-        prefs.edit().putString(KEY_SECONDARY_DISPLAY_CAMERA, position).apply();
+        edit().putString(KEY_SECONDARY_DISPLAY_CAMERA, position).apply();
     }
     
     public String getSecondaryDisplayCamera() {
-        return prefs.getString(KEY_SECONDARY_DISPLAY_CAMERA, "front");
+        return snapshot().getString(KEY_SECONDARY_DISPLAY_CAMERA, "front");
     }
     
     /**
      * 设置副屏 Display ID
      */
     public void setSecondaryDisplayId(int displayId) {
-        prefs.edit().putInt(KEY_SECONDARY_DISPLAY_ID, displayId).apply();
+        edit().putInt(KEY_SECONDARY_DISPLAY_ID, displayId).apply();
     }
     
     public int getSecondaryDisplayId() {
-        return prefs.getInt(KEY_SECONDARY_DISPLAY_ID, 0); // 0 为默认主屏，通常副屏从1开始
+        return snapshot().getInt(KEY_SECONDARY_DISPLAY_ID, 0); // 0 为默认主屏，通常副屏从1开始
     }
     
     /**
      * 设置副屏位置和大小
      */
     public void setSecondaryDisplayBounds(int x, int y, int width, int height) {
-        prefs.edit()
+        edit()
             .putInt(KEY_SECONDARY_DISPLAY_X, x)
             .putInt(KEY_SECONDARY_DISPLAY_Y, y)
             .putInt(KEY_SECONDARY_DISPLAY_WIDTH, width)
@@ -1458,52 +1978,52 @@ public class AppConfig {
     }
     
     public int getSecondaryDisplayX() {
-        return prefs.getInt(KEY_SECONDARY_DISPLAY_X, 0);
+        return snapshot().getInt(KEY_SECONDARY_DISPLAY_X, 0);
     }
     
     public int getSecondaryDisplayY() {
-        return prefs.getInt(KEY_SECONDARY_DISPLAY_Y, 139);
+        return snapshot().getInt(KEY_SECONDARY_DISPLAY_Y, 139);
     }
     
     public int getSecondaryDisplayWidth() {
-        return prefs.getInt(KEY_SECONDARY_DISPLAY_WIDTH, 318);
+        return snapshot().getInt(KEY_SECONDARY_DISPLAY_WIDTH, 318);
     }
     
     public int getSecondaryDisplayHeight() {
-        return prefs.getInt(KEY_SECONDARY_DISPLAY_HEIGHT, 236);
+        return snapshot().getInt(KEY_SECONDARY_DISPLAY_HEIGHT, 236);
     }
     
     /**
      * 设置副屏旋转角度
      */
     public void setSecondaryDisplayRotation(int rotation) {
-        prefs.edit().putInt(KEY_SECONDARY_DISPLAY_ROTATION, rotation).apply();
+        edit().putInt(KEY_SECONDARY_DISPLAY_ROTATION, rotation).apply();
     }
     
     public int getSecondaryDisplayRotation() {
-        return prefs.getInt(KEY_SECONDARY_DISPLAY_ROTATION, 0);
+        return snapshot().getInt(KEY_SECONDARY_DISPLAY_ROTATION, 0);
     }
     
     /**
      * 设置是否显示白边框
      */
     public void setSecondaryDisplayBorderEnabled(boolean enabled) {
-        prefs.edit().putBoolean(KEY_SECONDARY_DISPLAY_BORDER, enabled).apply();
+        edit().putBoolean(KEY_SECONDARY_DISPLAY_BORDER, enabled).apply();
     }
     
     public boolean isSecondaryDisplayBorderEnabled() {
-        return prefs.getBoolean(KEY_SECONDARY_DISPLAY_BORDER, false);
+        return snapshot().getBoolean(KEY_SECONDARY_DISPLAY_BORDER, false);
     }
     
     /**
      * 设置屏幕方向
      */
     public void setSecondaryDisplayOrientation(int orientation) {
-        prefs.edit().putInt(KEY_SECONDARY_DISPLAY_ORIENTATION, orientation).apply();
+        edit().putInt(KEY_SECONDARY_DISPLAY_ORIENTATION, orientation).apply();
     }
     
     public int getSecondaryDisplayOrientation() {
-        return prefs.getInt(KEY_SECONDARY_DISPLAY_ORIENTATION, 180);
+        return snapshot().getInt(KEY_SECONDARY_DISPLAY_ORIENTATION, 180);
     }
 
     /**
@@ -1511,7 +2031,7 @@ public class AppConfig {
      * @param alpha 透明度百分比，0为完全透明，100为完全不透明
      */
     public void setSecondaryDisplayAlpha(int alpha) {
-        prefs.edit().putInt(KEY_SECONDARY_DISPLAY_ALPHA, Math.max(0, Math.min(100, alpha))).apply();
+        edit().putInt(KEY_SECONDARY_DISPLAY_ALPHA, Math.max(0, Math.min(100, alpha))).apply();
         AppLog.d(TAG, "副屏补盲悬浮窗透明度设置: " + alpha + "%");
     }
 
@@ -1520,39 +2040,39 @@ public class AppConfig {
      * @return 透明度百分比，默认为100（完全不透明）
      */
     public int getSecondaryDisplayAlpha() {
-        return prefs.getInt(KEY_SECONDARY_DISPLAY_ALPHA, 100);
+        return snapshot().getInt(KEY_SECONDARY_DISPLAY_ALPHA, 100);
     }
 
     public void setMainFloatingAspectRatioLocked(boolean locked) {
-        prefs.edit().putBoolean(KEY_MAIN_FLOATING_ASPECT_RATIO_LOCKED, locked).apply();
+        edit().putBoolean(KEY_MAIN_FLOATING_ASPECT_RATIO_LOCKED, locked).apply();
     }
 
     public boolean isMainFloatingAspectRatioLocked() {
-        return prefs.getBoolean(KEY_MAIN_FLOATING_ASPECT_RATIO_LOCKED, false);
+        return snapshot().getBoolean(KEY_MAIN_FLOATING_ASPECT_RATIO_LOCKED, false);
     }
 
     public void setMainFloatingLongPressDragEnabled(boolean enabled) {
-        prefs.edit().putBoolean(KEY_MAIN_FLOATING_LONG_PRESS_DRAG, enabled).apply();
+        edit().putBoolean(KEY_MAIN_FLOATING_LONG_PRESS_DRAG, enabled).apply();
     }
 
     public boolean isMainFloatingLongPressDragEnabled() {
-        return prefs.getBoolean(KEY_MAIN_FLOATING_LONG_PRESS_DRAG, false);
+        return snapshot().getBoolean(KEY_MAIN_FLOATING_LONG_PRESS_DRAG, false);
     }
 
     public void setBlindSpotCorrectionEnabled(boolean enabled) {
-        prefs.edit().putBoolean(KEY_BLIND_SPOT_CORRECTION_ENABLED, enabled).apply();
+        edit().putBoolean(KEY_BLIND_SPOT_CORRECTION_ENABLED, enabled).apply();
     }
 
     public boolean isBlindSpotCorrectionEnabled() {
-        return prefs.getBoolean(KEY_BLIND_SPOT_CORRECTION_ENABLED, false);
+        return snapshot().getBoolean(KEY_BLIND_SPOT_CORRECTION_ENABLED, false);
     }
 
     public void setBlindSpotDisclaimerAccepted(boolean accepted) {
-        prefs.edit().putBoolean(KEY_BLIND_SPOT_DISCLAIMER_ACCEPTED, accepted).apply();
+        edit().putBoolean(KEY_BLIND_SPOT_DISCLAIMER_ACCEPTED, accepted).apply();
     }
 
     public boolean isBlindSpotDisclaimerAccepted() {
-        return prefs.getBoolean(KEY_BLIND_SPOT_DISCLAIMER_ACCEPTED, false);
+        return snapshot().getBoolean(KEY_BLIND_SPOT_DISCLAIMER_ACCEPTED, false);
     }
 
     private String getBlindSpotCorrectionKey(String cameraPos, String suffix) {
@@ -1560,48 +2080,48 @@ public class AppConfig {
     }
 
     public void setBlindSpotCorrectionScaleX(String cameraPos, float scaleX) {
-        prefs.edit().putFloat(getBlindSpotCorrectionKey(cameraPos, "scale_x"), scaleX).apply();
+        edit().putFloat(getBlindSpotCorrectionKey(cameraPos, "scale_x"), scaleX).apply();
     }
 
     public void setBlindSpotCorrectionScaleY(String cameraPos, float scaleY) {
-        prefs.edit().putFloat(getBlindSpotCorrectionKey(cameraPos, "scale_y"), scaleY).apply();
+        edit().putFloat(getBlindSpotCorrectionKey(cameraPos, "scale_y"), scaleY).apply();
     }
 
     public void setBlindSpotCorrectionTranslateX(String cameraPos, float translateX) {
-        prefs.edit().putFloat(getBlindSpotCorrectionKey(cameraPos, "translate_x"), translateX).apply();
+        edit().putFloat(getBlindSpotCorrectionKey(cameraPos, "translate_x"), translateX).apply();
     }
 
     public void setBlindSpotCorrectionTranslateY(String cameraPos, float translateY) {
-        prefs.edit().putFloat(getBlindSpotCorrectionKey(cameraPos, "translate_y"), translateY).apply();
+        edit().putFloat(getBlindSpotCorrectionKey(cameraPos, "translate_y"), translateY).apply();
     }
 
     public float getBlindSpotCorrectionScaleX(String cameraPos) {
-        return prefs.getFloat(getBlindSpotCorrectionKey(cameraPos, "scale_x"), 1.0f);
+        return snapshot().getFloat(getBlindSpotCorrectionKey(cameraPos, "scale_x"), 1.0f);
     }
 
     public float getBlindSpotCorrectionScaleY(String cameraPos) {
-        return prefs.getFloat(getBlindSpotCorrectionKey(cameraPos, "scale_y"), 1.0f);
+        return snapshot().getFloat(getBlindSpotCorrectionKey(cameraPos, "scale_y"), 1.0f);
     }
 
     public float getBlindSpotCorrectionTranslateX(String cameraPos) {
-        return prefs.getFloat(getBlindSpotCorrectionKey(cameraPos, "translate_x"), 0.0f);
+        return snapshot().getFloat(getBlindSpotCorrectionKey(cameraPos, "translate_x"), 0.0f);
     }
 
     public float getBlindSpotCorrectionTranslateY(String cameraPos) {
-        return prefs.getFloat(getBlindSpotCorrectionKey(cameraPos, "translate_y"), 0.0f);
+        return snapshot().getFloat(getBlindSpotCorrectionKey(cameraPos, "translate_y"), 0.0f);
     }
 
     public void setBlindSpotCorrectionRotation(String cameraPos, int rotation) {
-        prefs.edit().putInt(getBlindSpotCorrectionKey(cameraPos, "rotation"), rotation).apply();
+        edit().putInt(getBlindSpotCorrectionKey(cameraPos, "rotation"), rotation).apply();
     }
 
     public int getBlindSpotCorrectionRotation(String cameraPos) {
         // 兼容旧的 float 存储，读取后转换
         try {
-            return prefs.getInt(getBlindSpotCorrectionKey(cameraPos, "rotation"), 0);
+            return snapshot().getInt(getBlindSpotCorrectionKey(cameraPos, "rotation"), 0);
         } catch (ClassCastException e) {
             // 旧版本存的是 float，读取并转换
-            float old = prefs.getFloat(getBlindSpotCorrectionKey(cameraPos, "rotation"), 0.0f);
+            float old = snapshot().getFloat(getBlindSpotCorrectionKey(cameraPos, "rotation"), 0.0f);
             int rounded = Math.round(old);
             // 规整到 0/90/180/270
             if (rounded != 0 && rounded != 90 && rounded != 180 && rounded != 270) rounded = 0;
@@ -1611,7 +2131,7 @@ public class AppConfig {
     }
 
     public void resetBlindSpotCorrection(String cameraPos) {
-        prefs.edit()
+        edit()
                 .putFloat(getBlindSpotCorrectionKey(cameraPos, "scale_x"), 1.0f)
                 .putFloat(getBlindSpotCorrectionKey(cameraPos, "scale_y"), 1.0f)
                 .putFloat(getBlindSpotCorrectionKey(cameraPos, "translate_x"), 0.0f)
@@ -1626,7 +2146,7 @@ public class AppConfig {
      * 设置预览画面矫正开关
      */
     public void setPreviewCorrectionEnabled(boolean enabled) {
-        prefs.edit().putBoolean(KEY_PREVIEW_CORRECTION_ENABLED, enabled).apply();
+        edit().putBoolean(KEY_PREVIEW_CORRECTION_ENABLED, enabled).apply();
         AppLog.d(TAG, "预览画面矫正设置: " + (enabled ? "启用" : "禁用"));
     }
 
@@ -1634,7 +2154,7 @@ public class AppConfig {
      * 获取预览画面矫正开关
      */
     public boolean isPreviewCorrectionEnabled() {
-        return prefs.getBoolean(KEY_PREVIEW_CORRECTION_ENABLED, false);
+        return snapshot().getBoolean(KEY_PREVIEW_CORRECTION_ENABLED, false);
     }
 
     private String getPreviewCorrectionKey(String cameraPos, String suffix) {
@@ -1642,42 +2162,42 @@ public class AppConfig {
     }
 
     public void setPreviewCorrectionScaleX(String cameraPos, float scaleX) {
-        prefs.edit().putFloat(getPreviewCorrectionKey(cameraPos, "scale_x"), scaleX).apply();
+        edit().putFloat(getPreviewCorrectionKey(cameraPos, "scale_x"), scaleX).apply();
     }
 
     public void setPreviewCorrectionScaleY(String cameraPos, float scaleY) {
-        prefs.edit().putFloat(getPreviewCorrectionKey(cameraPos, "scale_y"), scaleY).apply();
+        edit().putFloat(getPreviewCorrectionKey(cameraPos, "scale_y"), scaleY).apply();
     }
 
     public void setPreviewCorrectionTranslateX(String cameraPos, float translateX) {
-        prefs.edit().putFloat(getPreviewCorrectionKey(cameraPos, "translate_x"), translateX).apply();
+        edit().putFloat(getPreviewCorrectionKey(cameraPos, "translate_x"), translateX).apply();
     }
 
     public void setPreviewCorrectionTranslateY(String cameraPos, float translateY) {
-        prefs.edit().putFloat(getPreviewCorrectionKey(cameraPos, "translate_y"), translateY).apply();
+        edit().putFloat(getPreviewCorrectionKey(cameraPos, "translate_y"), translateY).apply();
     }
 
     public float getPreviewCorrectionScaleX(String cameraPos) {
-        return prefs.getFloat(getPreviewCorrectionKey(cameraPos, "scale_x"), 1.0f);
+        return snapshot().getFloat(getPreviewCorrectionKey(cameraPos, "scale_x"), 1.0f);
     }
 
     public float getPreviewCorrectionScaleY(String cameraPos) {
-        return prefs.getFloat(getPreviewCorrectionKey(cameraPos, "scale_y"), 1.0f);
+        return snapshot().getFloat(getPreviewCorrectionKey(cameraPos, "scale_y"), 1.0f);
     }
 
     public float getPreviewCorrectionTranslateX(String cameraPos) {
-        return prefs.getFloat(getPreviewCorrectionKey(cameraPos, "translate_x"), 0.0f);
+        return snapshot().getFloat(getPreviewCorrectionKey(cameraPos, "translate_x"), 0.0f);
     }
 
     public float getPreviewCorrectionTranslateY(String cameraPos) {
-        return prefs.getFloat(getPreviewCorrectionKey(cameraPos, "translate_y"), 0.0f);
+        return snapshot().getFloat(getPreviewCorrectionKey(cameraPos, "translate_y"), 0.0f);
     }
 
     /**
      * 重置单路摄像头的预览矫正参数
      */
     public void resetPreviewCorrection(String cameraPos) {
-        prefs.edit()
+        edit()
                 .putFloat(getPreviewCorrectionKey(cameraPos, "scale_x"), 1.0f)
                 .putFloat(getPreviewCorrectionKey(cameraPos, "scale_y"), 1.0f)
                 .putFloat(getPreviewCorrectionKey(cameraPos, "translate_x"), 0.0f)
@@ -1702,7 +2222,7 @@ public class AppConfig {
      * 设置鱼眼矫正开关
      */
     public void setFisheyeCorrectionEnabled(boolean enabled) {
-        prefs.edit().putBoolean(KEY_FISHEYE_CORRECTION_ENABLED, enabled).apply();
+        edit().putBoolean(KEY_FISHEYE_CORRECTION_ENABLED, enabled).apply();
         AppLog.d(TAG, "鱼眼矫正设置: " + (enabled ? "启用" : "禁用"));
     }
 
@@ -1710,7 +2230,7 @@ public class AppConfig {
      * 获取鱼眼矫正开关
      */
     public boolean isFisheyeCorrectionEnabled() {
-        return prefs.getBoolean(KEY_FISHEYE_CORRECTION_ENABLED, false);
+        return snapshot().getBoolean(KEY_FISHEYE_CORRECTION_ENABLED, false);
     }
 
     private String getFisheyeCorrectionKey(String cameraPos, String suffix) {
@@ -1719,54 +2239,54 @@ public class AppConfig {
 
     // --- K1 (主畸变系数) ---
     public void setFisheyeCorrectionK1(String cameraPos, float k1) {
-        prefs.edit().putFloat(getFisheyeCorrectionKey(cameraPos, "k1"), k1).apply();
+        edit().putFloat(getFisheyeCorrectionKey(cameraPos, "k1"), k1).apply();
     }
 
     public float getFisheyeCorrectionK1(String cameraPos) {
-        return prefs.getFloat(getFisheyeCorrectionKey(cameraPos, "k1"), 0.0f);
+        return snapshot().getFloat(getFisheyeCorrectionKey(cameraPos, "k1"), 0.0f);
     }
 
     // --- K2 (二次畸变系数) ---
     public void setFisheyeCorrectionK2(String cameraPos, float k2) {
-        prefs.edit().putFloat(getFisheyeCorrectionKey(cameraPos, "k2"), k2).apply();
+        edit().putFloat(getFisheyeCorrectionKey(cameraPos, "k2"), k2).apply();
     }
 
     public float getFisheyeCorrectionK2(String cameraPos) {
-        return prefs.getFloat(getFisheyeCorrectionKey(cameraPos, "k2"), 0.0f);
+        return snapshot().getFloat(getFisheyeCorrectionKey(cameraPos, "k2"), 0.0f);
     }
 
     // --- Zoom (矫正后缩放) ---
     public void setFisheyeCorrectionZoom(String cameraPos, float zoom) {
-        prefs.edit().putFloat(getFisheyeCorrectionKey(cameraPos, "zoom"), zoom).apply();
+        edit().putFloat(getFisheyeCorrectionKey(cameraPos, "zoom"), zoom).apply();
     }
 
     public float getFisheyeCorrectionZoom(String cameraPos) {
-        return prefs.getFloat(getFisheyeCorrectionKey(cameraPos, "zoom"), 1.0f);
+        return snapshot().getFloat(getFisheyeCorrectionKey(cameraPos, "zoom"), 1.0f);
     }
 
     // --- CenterX (畸变中心X偏移) ---
     public void setFisheyeCorrectionCenterX(String cameraPos, float cx) {
-        prefs.edit().putFloat(getFisheyeCorrectionKey(cameraPos, "center_x"), cx).apply();
+        edit().putFloat(getFisheyeCorrectionKey(cameraPos, "center_x"), cx).apply();
     }
 
     public float getFisheyeCorrectionCenterX(String cameraPos) {
-        return prefs.getFloat(getFisheyeCorrectionKey(cameraPos, "center_x"), 0.5f);
+        return snapshot().getFloat(getFisheyeCorrectionKey(cameraPos, "center_x"), 0.5f);
     }
 
     // --- CenterY (畸变中心Y偏移) ---
     public void setFisheyeCorrectionCenterY(String cameraPos, float cy) {
-        prefs.edit().putFloat(getFisheyeCorrectionKey(cameraPos, "center_y"), cy).apply();
+        edit().putFloat(getFisheyeCorrectionKey(cameraPos, "center_y"), cy).apply();
     }
 
     public float getFisheyeCorrectionCenterY(String cameraPos) {
-        return prefs.getFloat(getFisheyeCorrectionKey(cameraPos, "center_y"), 0.5f);
+        return snapshot().getFloat(getFisheyeCorrectionKey(cameraPos, "center_y"), 0.5f);
     }
 
     /**
      * 重置单路摄像头的鱼眼矫正参数
      */
     public void resetFisheyeCorrection(String cameraPos) {
-        prefs.edit()
+        edit()
                 .putFloat(getFisheyeCorrectionKey(cameraPos, "k1"), 0.0f)
                 .putFloat(getFisheyeCorrectionKey(cameraPos, "k2"), 0.0f)
                 .putFloat(getFisheyeCorrectionKey(cameraPos, "zoom"), 1.0f)
@@ -1792,30 +2312,30 @@ public class AppConfig {
      * 设置主屏悬浮窗开关
      */
     public void setMainFloatingEnabled(boolean enabled) {
-        prefs.edit().putBoolean(KEY_MAIN_FLOATING_ENABLED, enabled).apply();
+        edit().putBoolean(KEY_MAIN_FLOATING_ENABLED, enabled).apply();
         AppLog.d(TAG, "主屏悬浮窗设置: " + (enabled ? "启用" : "禁用"));
     }
 
     public boolean isMainFloatingEnabled() {
-        return prefs.getBoolean(KEY_MAIN_FLOATING_ENABLED, false);
+        return snapshot().getBoolean(KEY_MAIN_FLOATING_ENABLED, false);
     }
 
     /**
      * 设置主屏悬浮窗显示的摄像头位置
      */
     public void setMainFloatingCamera(String position) {
-        prefs.edit().putString(KEY_MAIN_FLOATING_CAMERA, position).apply();
+        edit().putString(KEY_MAIN_FLOATING_CAMERA, position).apply();
     }
 
     public String getMainFloatingCamera() {
-        return prefs.getString(KEY_MAIN_FLOATING_CAMERA, "front");
+        return snapshot().getString(KEY_MAIN_FLOATING_CAMERA, "front");
     }
 
     /**
      * 设置主屏悬浮窗位置和大小
      */
     public void setMainFloatingBounds(int x, int y, int width, int height) {
-        prefs.edit()
+        edit()
             .putInt(KEY_MAIN_FLOATING_X, x)
             .putInt(KEY_MAIN_FLOATING_Y, y)
             .putInt(KEY_MAIN_FLOATING_WIDTH, width)
@@ -1824,26 +2344,26 @@ public class AppConfig {
     }
 
     public int getMainFloatingX() {
-        return prefs.getInt(KEY_MAIN_FLOATING_X, 100);
+        return snapshot().getInt(KEY_MAIN_FLOATING_X, 100);
     }
 
     public int getMainFloatingY() {
-        return prefs.getInt(KEY_MAIN_FLOATING_Y, 100);
+        return snapshot().getInt(KEY_MAIN_FLOATING_Y, 100);
     }
 
     public int getMainFloatingWidth() {
-        return prefs.getInt(KEY_MAIN_FLOATING_WIDTH, 480);
+        return snapshot().getInt(KEY_MAIN_FLOATING_WIDTH, 480);
     }
 
     public int getMainFloatingHeight() {
-        return prefs.getInt(KEY_MAIN_FLOATING_HEIGHT, 320);
+        return snapshot().getInt(KEY_MAIN_FLOATING_HEIGHT, 320);
     }
 
     /**
      * 重置主屏悬浮窗位置和大小为默认值
      */
     public void resetMainFloatingBounds() {
-        prefs.edit()
+        edit()
             .putInt(KEY_MAIN_FLOATING_X, 100)
             .putInt(KEY_MAIN_FLOATING_Y, 100)
             .putInt(KEY_MAIN_FLOATING_WIDTH, 480)
@@ -1857,53 +2377,53 @@ public class AppConfig {
      * 设置转向灯联动开关
      */
     public void setTurnSignalLinkageEnabled(boolean enabled) {
-        prefs.edit().putBoolean(KEY_TURN_SIGNAL_LINKAGE_ENABLED, enabled).apply();
+        edit().putBoolean(KEY_TURN_SIGNAL_LINKAGE_ENABLED, enabled).apply();
         AppLog.d(TAG, "转向灯联动设置: " + (enabled ? "启用" : "禁用"));
     }
 
     public boolean isTurnSignalLinkageEnabled() {
-        return prefs.getBoolean(KEY_TURN_SIGNAL_LINKAGE_ENABLED, false);
+        return snapshot().getBoolean(KEY_TURN_SIGNAL_LINKAGE_ENABLED, false);
     }
 
     /**
      * 设置转向灯熄灭后的延迟消失时间（秒）
      */
     public void setTurnSignalTimeout(int seconds) {
-        prefs.edit().putInt(KEY_TURN_SIGNAL_TIMEOUT, seconds).apply();
+        edit().putInt(KEY_TURN_SIGNAL_TIMEOUT, seconds).apply();
     }
 
    public int getTurnSignalTimeout() {
-        return prefs.getInt(KEY_TURN_SIGNAL_TIMEOUT, 10);
+        return snapshot().getInt(KEY_TURN_SIGNAL_TIMEOUT, 10);
     }
 
     /**
      * 设置是否复用主屏悬浮窗
      */
     public void setTurnSignalReuseMainFloating(boolean reuse) {
-        prefs.edit().putBoolean(KEY_TURN_SIGNAL_REUSE_MAIN_FLOATING, reuse).apply();
+        edit().putBoolean(KEY_TURN_SIGNAL_REUSE_MAIN_FLOATING, reuse).apply();
     }
 
     public boolean isTurnSignalReuseMainFloating() {
-        return prefs.getBoolean(KEY_TURN_SIGNAL_REUSE_MAIN_FLOATING, true);
+        return snapshot().getBoolean(KEY_TURN_SIGNAL_REUSE_MAIN_FLOATING, true);
     }
 
     public void setTurnSignalCustomLeftTriggerLog(String keyword) {
-        prefs.edit().putString(KEY_TURN_SIGNAL_CUSTOM_LEFT_TRIGGER_LOG, keyword).apply();
+        edit().putString(KEY_TURN_SIGNAL_CUSTOM_LEFT_TRIGGER_LOG, keyword).apply();
     }
 
     public String getTurnSignalCustomLeftTriggerLog() {
-        return prefs.getString(
+        return snapshot().getString(
                 KEY_TURN_SIGNAL_CUSTOM_LEFT_TRIGGER_LOG,
                 "left front turn signal:1"
         );
     }
 
     public void setTurnSignalCustomRightTriggerLog(String keyword) {
-        prefs.edit().putString(KEY_TURN_SIGNAL_CUSTOM_RIGHT_TRIGGER_LOG, keyword).apply();
+        edit().putString(KEY_TURN_SIGNAL_CUSTOM_RIGHT_TRIGGER_LOG, keyword).apply();
     }
 
     public String getTurnSignalCustomRightTriggerLog() {
-        return prefs.getString(
+        return snapshot().getString(
                 KEY_TURN_SIGNAL_CUSTOM_RIGHT_TRIGGER_LOG,
                 "right front turn signal:1"
         );
@@ -1922,7 +2442,7 @@ public class AppConfig {
      * @param mode TRIGGER_MODE_LOGCAT 或 TRIGGER_MODE_CAR_API
      */
     public void setTurnSignalTriggerMode(String mode) {
-        prefs.edit().putString(KEY_TURN_SIGNAL_TRIGGER_MODE, mode).apply();
+        edit().putString(KEY_TURN_SIGNAL_TRIGGER_MODE, mode).apply();
         AppLog.d(TAG, "转向灯触发模式: " + mode);
     }
 
@@ -1930,7 +2450,7 @@ public class AppConfig {
      * 获取转向灯触发模式
      */
     public String getTurnSignalTriggerMode() {
-        return prefs.getString(KEY_TURN_SIGNAL_TRIGGER_MODE, TRIGGER_MODE_VHAL_GRPC);
+        return snapshot().getString(KEY_TURN_SIGNAL_TRIGGER_MODE, TRIGGER_MODE_VHAL_GRPC);
     }
 
     /**
@@ -1960,7 +2480,7 @@ public class AppConfig {
      * @param presetName 预设名称，如 "l6l7" 或 "boyue_l"
      */
     public void setTurnSignalPresetSelection(String presetName) {
-        prefs.edit().putString(KEY_TURN_SIGNAL_PRESET_SELECTION, presetName).apply();
+        edit().putString(KEY_TURN_SIGNAL_PRESET_SELECTION, presetName).apply();
         AppLog.d(TAG, "保存转向灯预设选择: " + presetName);
     }
 
@@ -1969,7 +2489,7 @@ public class AppConfig {
      * @return 预设名称，如 "l6l7" 或 "boyue_l"
      */
     public String getTurnSignalPresetSelection() {
-        return prefs.getString(KEY_TURN_SIGNAL_PRESET_SELECTION, "l6l7"); // 默认返回 l6l7
+        return snapshot().getString(KEY_TURN_SIGNAL_PRESET_SELECTION, "l6l7"); // 默认返回 l6l7
     }
 
     // ==================== 车门联动配置 ====================
@@ -1978,23 +2498,23 @@ public class AppConfig {
      * 设置车门联动开关（左右补盲）
      */
     public void setDoorLinkageEnabled(boolean enabled) {
-        prefs.edit().putBoolean(KEY_DOOR_LINKAGE_ENABLED, enabled).apply();
+        edit().putBoolean(KEY_DOOR_LINKAGE_ENABLED, enabled).apply();
         AppLog.d(TAG, "车门联动设置: " + (enabled ? "启用" : "禁用"));
     }
 
     public boolean isDoorLinkageEnabled() {
-        return prefs.getBoolean(KEY_DOOR_LINKAGE_ENABLED, false);
+        return snapshot().getBoolean(KEY_DOOR_LINKAGE_ENABLED, false);
     }
 
     /**
      * 设置车门关闭后延迟消失时间
      */
     public void setDoorTimeout(int seconds) {
-        prefs.edit().putInt(KEY_DOOR_TIMEOUT, seconds).apply();
+        edit().putInt(KEY_DOOR_TIMEOUT, seconds).apply();
     }
 
     public int getDoorTimeout() {
-        return prefs.getInt(KEY_DOOR_TIMEOUT, 10); // 默认10秒
+        return snapshot().getInt(KEY_DOOR_TIMEOUT, 10); // 默认10秒
     }
 
     /**
@@ -2002,7 +2522,7 @@ public class AppConfig {
      * @param presetName 预设名称，如 "l6l7" 或 "boyue_l"
      */
     public void setDoorPresetSelection(String presetName) {
-        prefs.edit().putString(KEY_DOOR_PRESET_SELECTION, presetName).apply();
+        edit().putString(KEY_DOOR_PRESET_SELECTION, presetName).apply();
         AppLog.d(TAG, "保存车门联动预设选择: " + presetName);
     }
 
@@ -2011,36 +2531,36 @@ public class AppConfig {
      * @return 预设名称，如 "l6l7" 或 "boyue_l"
      */
     public String getDoorPresetSelection() {
-        return prefs.getString(KEY_DOOR_PRESET_SELECTION, "l6l7"); // 默认返回 l6l7
+        return snapshot().getString(KEY_DOOR_PRESET_SELECTION, "l6l7"); // 默认返回 l6l7
     }
 
     /**
      * 设置车门联动是否复用主屏悬浮窗
      */
     public void setDoorReuseMainFloating(boolean reuse) {
-        prefs.edit().putBoolean(KEY_DOOR_REUSE_MAIN_FLOATING, reuse).apply();
+        edit().putBoolean(KEY_DOOR_REUSE_MAIN_FLOATING, reuse).apply();
     }
 
     public boolean isDoorReuseMainFloating() {
-        return prefs.getBoolean(KEY_DOOR_REUSE_MAIN_FLOATING, true); // 默认复用
+        return snapshot().getBoolean(KEY_DOOR_REUSE_MAIN_FLOATING, true); // 默认复用
     }
 
     /**
      * 设置车门联动副屏显示开关
      */
     public void setDoorSecondaryDisplayEnabled(boolean enabled) {
-        prefs.edit().putBoolean(KEY_DOOR_SECONDARY_DISPLAY_ENABLED, enabled).apply();
+        edit().putBoolean(KEY_DOOR_SECONDARY_DISPLAY_ENABLED, enabled).apply();
     }
 
     public boolean isDoorSecondaryDisplayEnabled() {
-        return prefs.getBoolean(KEY_DOOR_SECONDARY_DISPLAY_ENABLED, false); // 默认关闭
+        return snapshot().getBoolean(KEY_DOOR_SECONDARY_DISPLAY_ENABLED, false); // 默认关闭
     }
 
     /**
      * 设置独立补盲悬浮窗位置和大小
      */
     public void setTurnSignalFloatingBounds(int x, int y, int width, int height) {
-        prefs.edit()
+        edit()
             .putInt(KEY_TURN_SIGNAL_FLOATING_X, x)
             .putInt(KEY_TURN_SIGNAL_FLOATING_Y, y)
             .putInt(KEY_TURN_SIGNAL_FLOATING_WIDTH, width)
@@ -2049,65 +2569,65 @@ public class AppConfig {
     }
 
     public int getTurnSignalFloatingX() {
-        return prefs.getInt(KEY_TURN_SIGNAL_FLOATING_X, 200);
+        return snapshot().getInt(KEY_TURN_SIGNAL_FLOATING_X, 200);
     }
 
     public int getTurnSignalFloatingY() {
-        return prefs.getInt(KEY_TURN_SIGNAL_FLOATING_Y, 200);
+        return snapshot().getInt(KEY_TURN_SIGNAL_FLOATING_Y, 200);
     }
 
     public int getTurnSignalFloatingWidth() {
-        return prefs.getInt(KEY_TURN_SIGNAL_FLOATING_WIDTH, 640);
+        return snapshot().getInt(KEY_TURN_SIGNAL_FLOATING_WIDTH, 640);
     }
 
     public int getTurnSignalFloatingHeight() {
-        return prefs.getInt(KEY_TURN_SIGNAL_FLOATING_HEIGHT, 360);
+        return snapshot().getInt(KEY_TURN_SIGNAL_FLOATING_HEIGHT, 360);
     }
 
     /**
      * 设置独立补盲悬浮窗旋转
      */
     public void setTurnSignalFloatingRotation(int rotation) {
-        prefs.edit().putInt(KEY_TURN_SIGNAL_FLOATING_ROTATION, rotation).apply();
+        edit().putInt(KEY_TURN_SIGNAL_FLOATING_ROTATION, rotation).apply();
     }
 
     public int getTurnSignalFloatingRotation() {
-        return prefs.getInt(KEY_TURN_SIGNAL_FLOATING_ROTATION, 0);
+        return snapshot().getInt(KEY_TURN_SIGNAL_FLOATING_ROTATION, 0);
     }
 
     // ==================== 桌面悬浮模拟按钮配置相关方法 ====================
 
     public void setMockTurnSignalFloatingEnabled(boolean enabled) {
-        prefs.edit().putBoolean(KEY_MOCK_TURN_SIGNAL_FLOATING_ENABLED, enabled).apply();
+        edit().putBoolean(KEY_MOCK_TURN_SIGNAL_FLOATING_ENABLED, enabled).apply();
     }
 
     public boolean isMockTurnSignalFloatingEnabled() {
-        return prefs.getBoolean(KEY_MOCK_TURN_SIGNAL_FLOATING_ENABLED, false);
+        return snapshot().getBoolean(KEY_MOCK_TURN_SIGNAL_FLOATING_ENABLED, false);
     }
 
     public void setMockTurnSignalFloatingPosition(int x, int y) {
-        prefs.edit()
+        edit()
                 .putInt(KEY_MOCK_TURN_SIGNAL_FLOATING_X, x)
                 .putInt(KEY_MOCK_TURN_SIGNAL_FLOATING_Y, y)
                 .apply();
     }
 
     public int getMockTurnSignalFloatingX() {
-        return prefs.getInt(KEY_MOCK_TURN_SIGNAL_FLOATING_X, 200);
+        return snapshot().getInt(KEY_MOCK_TURN_SIGNAL_FLOATING_X, 200);
     }
 
     public int getMockTurnSignalFloatingY() {
-        return prefs.getInt(KEY_MOCK_TURN_SIGNAL_FLOATING_Y, 200);
+        return snapshot().getInt(KEY_MOCK_TURN_SIGNAL_FLOATING_Y, 200);
     }
 
     // ==================== 悬浮窗动效配置 ====================
 
     public void setFloatingWindowAnimationEnabled(boolean enabled) {
-        prefs.edit().putBoolean(KEY_FLOATING_WINDOW_ANIMATION_ENABLED, enabled).apply();
+        edit().putBoolean(KEY_FLOATING_WINDOW_ANIMATION_ENABLED, enabled).apply();
     }
 
     public boolean isFloatingWindowAnimationEnabled() {
-        return prefs.getBoolean(KEY_FLOATING_WINDOW_ANIMATION_ENABLED, false);
+        return snapshot().getBoolean(KEY_FLOATING_WINDOW_ANIMATION_ENABLED, false);
     }
 
     // ==================== 时间角标配置相关方法 ====================
@@ -2117,7 +2637,7 @@ public class AppConfig {
      * @param enabled true 表示在保存的视频和图片上添加时间角标
      */
     public void setTimestampWatermarkEnabled(boolean enabled) {
-        prefs.edit().putBoolean(KEY_TIMESTAMP_WATERMARK_ENABLED, enabled).apply();
+        edit().putBoolean(KEY_TIMESTAMP_WATERMARK_ENABLED, enabled).apply();
         AppLog.d(TAG, "时间角标设置: " + (enabled ? "启用" : "禁用"));
     }
     
@@ -2127,7 +2647,7 @@ public class AppConfig {
      */
     public boolean isTimestampWatermarkEnabled() {
         // 默认关闭时间角标
-        return prefs.getBoolean(KEY_TIMESTAMP_WATERMARK_ENABLED, false);
+        return snapshot().getBoolean(KEY_TIMESTAMP_WATERMARK_ENABLED, false);
     }
     
     // ==================== 录制摄像头选择配置相关方法 ====================
@@ -2156,7 +2676,7 @@ public class AppConfig {
                 AppLog.w(TAG, "未知的摄像头位置: " + position);
                 return;
         }
-        prefs.edit().putBoolean(key, enabled).apply();
+        edit().putBoolean(key, enabled).apply();
         AppLog.d(TAG, "录制摄像头设置: " + position + " = " + (enabled ? "启用" : "禁用"));
     }
     
@@ -2184,7 +2704,7 @@ public class AppConfig {
                 return true;  // 未知位置默认启用
         }
         // 默认启用（全选）
-        return prefs.getBoolean(key, true);
+        return snapshot().getBoolean(key, true);
     }
     
     /**
@@ -2232,7 +2752,7 @@ public class AppConfig {
      * 重置录制摄像头选择为全选
      */
     public void resetRecordingCameraSelection() {
-        prefs.edit()
+        edit()
             .putBoolean(KEY_RECORDING_CAMERA_FRONT_ENABLED, true)
             .putBoolean(KEY_RECORDING_CAMERA_BACK_ENABLED, true)
             .putBoolean(KEY_RECORDING_CAMERA_LEFT_ENABLED, true)
@@ -2264,7 +2784,7 @@ public class AppConfig {
      * @param enabled true 表示启用
      */
     public void setImageAdjustEnabled(boolean enabled) {
-        prefs.edit().putBoolean(KEY_IMAGE_ADJUST_ENABLED, enabled).apply();
+        edit().putBoolean(KEY_IMAGE_ADJUST_ENABLED, enabled).apply();
         AppLog.d(TAG, "亮度/降噪调节设置: " + (enabled ? "启用" : "禁用"));
     }
     
@@ -2273,7 +2793,7 @@ public class AppConfig {
      * @return true 表示启用
      */
     public boolean isImageAdjustEnabled() {
-        return prefs.getBoolean(KEY_IMAGE_ADJUST_ENABLED, false);
+        return snapshot().getBoolean(KEY_IMAGE_ADJUST_ENABLED, false);
     }
     
     /**
@@ -2281,7 +2801,7 @@ public class AppConfig {
      * @param value 曝光补偿值（范围取决于设备，通常 -12 到 +12）
      */
     public void setExposureCompensation(int value) {
-        prefs.edit().putInt(KEY_EXPOSURE_COMPENSATION, value).apply();
+        edit().putInt(KEY_EXPOSURE_COMPENSATION, value).apply();
         AppLog.d(TAG, "曝光补偿设置: " + value);
     }
     
@@ -2290,7 +2810,7 @@ public class AppConfig {
      * @return 曝光补偿值，默认为 0
      */
     public int getExposureCompensation() {
-        return prefs.getInt(KEY_EXPOSURE_COMPENSATION, 0);
+        return snapshot().getInt(KEY_EXPOSURE_COMPENSATION, 0);
     }
     
     /**
@@ -2298,7 +2818,7 @@ public class AppConfig {
      * @param mode 白平衡模式（AWB_MODE_* 常量）
      */
     public void setAwbMode(int mode) {
-        prefs.edit().putInt(KEY_AWB_MODE, mode).apply();
+        edit().putInt(KEY_AWB_MODE, mode).apply();
         AppLog.d(TAG, "白平衡模式设置: " + mode);
     }
     
@@ -2307,7 +2827,7 @@ public class AppConfig {
      * @return 白平衡模式，默认为 AWB_MODE_DEFAULT（不设置）
      */
     public int getAwbMode() {
-        return prefs.getInt(KEY_AWB_MODE, AWB_MODE_DEFAULT);
+        return snapshot().getInt(KEY_AWB_MODE, AWB_MODE_DEFAULT);
     }
     
     /**
@@ -2315,7 +2835,7 @@ public class AppConfig {
      * @param mode 色调映射模式（TONEMAP_MODE_* 常量）
      */
     public void setTonemapMode(int mode) {
-        prefs.edit().putInt(KEY_TONEMAP_MODE, mode).apply();
+        edit().putInt(KEY_TONEMAP_MODE, mode).apply();
         AppLog.d(TAG, "色调映射模式设置: " + mode);
     }
     
@@ -2324,7 +2844,7 @@ public class AppConfig {
      * @return 色调映射模式，默认为 TONEMAP_MODE_DEFAULT（不设置）
      */
     public int getTonemapMode() {
-        return prefs.getInt(KEY_TONEMAP_MODE, TONEMAP_MODE_DEFAULT);
+        return snapshot().getInt(KEY_TONEMAP_MODE, TONEMAP_MODE_DEFAULT);
     }
     
     /**
@@ -2332,7 +2852,7 @@ public class AppConfig {
      * @param mode 边缘增强模式（EDGE_MODE_* 常量）
      */
     public void setEdgeMode(int mode) {
-        prefs.edit().putInt(KEY_EDGE_MODE, mode).apply();
+        edit().putInt(KEY_EDGE_MODE, mode).apply();
         AppLog.d(TAG, "边缘增强模式设置: " + mode);
     }
     
@@ -2341,7 +2861,7 @@ public class AppConfig {
      * @return 边缘增强模式，默认为 EDGE_MODE_DEFAULT（不设置）
      */
     public int getEdgeMode() {
-        return prefs.getInt(KEY_EDGE_MODE, EDGE_MODE_DEFAULT);
+        return snapshot().getInt(KEY_EDGE_MODE, EDGE_MODE_DEFAULT);
     }
     
     /**
@@ -2349,7 +2869,7 @@ public class AppConfig {
      * @param mode 降噪模式（NOISE_REDUCTION_* 常量）
      */
     public void setNoiseReductionMode(int mode) {
-        prefs.edit().putInt(KEY_NOISE_REDUCTION_MODE, mode).apply();
+        edit().putInt(KEY_NOISE_REDUCTION_MODE, mode).apply();
         AppLog.d(TAG, "降噪模式设置: " + mode);
     }
     
@@ -2358,7 +2878,7 @@ public class AppConfig {
      * @return 降噪模式，默认为 NOISE_REDUCTION_DEFAULT（不设置）
      */
     public int getNoiseReductionMode() {
-        return prefs.getInt(KEY_NOISE_REDUCTION_MODE, NOISE_REDUCTION_DEFAULT);
+        return snapshot().getInt(KEY_NOISE_REDUCTION_MODE, NOISE_REDUCTION_DEFAULT);
     }
     
     /**
@@ -2366,7 +2886,7 @@ public class AppConfig {
      * @param mode 特效模式（EFFECT_MODE_* 常量）
      */
     public void setEffectMode(int mode) {
-        prefs.edit().putInt(KEY_EFFECT_MODE, mode).apply();
+        edit().putInt(KEY_EFFECT_MODE, mode).apply();
         AppLog.d(TAG, "特效模式设置: " + mode);
     }
     
@@ -2375,7 +2895,7 @@ public class AppConfig {
      * @return 特效模式，默认为 EFFECT_MODE_DEFAULT（不设置）
      */
     public int getEffectMode() {
-        return prefs.getInt(KEY_EFFECT_MODE, EFFECT_MODE_DEFAULT);
+        return snapshot().getInt(KEY_EFFECT_MODE, EFFECT_MODE_DEFAULT);
     }
     
     /**
@@ -2383,7 +2903,7 @@ public class AppConfig {
      * @param mode 场景模式
      */
     public void setSceneMode(int mode) {
-        prefs.edit().putInt(KEY_SCENE_MODE, mode).apply();
+        edit().putInt(KEY_SCENE_MODE, mode).apply();
         AppLog.d(TAG, "场景模式设置: " + mode);
     }
     
@@ -2392,14 +2912,14 @@ public class AppConfig {
      * @return 场景模式，默认为 -1（不设置）
      */
     public int getSceneMode() {
-        return prefs.getInt(KEY_SCENE_MODE, -1);
+        return snapshot().getInt(KEY_SCENE_MODE, -1);
     }
     
     /**
      * 重置所有亮度/降噪调节参数为默认值
      */
     public void resetImageAdjustParams() {
-        prefs.edit()
+        edit()
             .putInt(KEY_EXPOSURE_COMPENSATION, 0)
             .putInt(KEY_AWB_MODE, AWB_MODE_DEFAULT)
             .putInt(KEY_TONEMAP_MODE, TONEMAP_MODE_DEFAULT)
@@ -2491,7 +3011,7 @@ public class AppConfig {
      * @param enabled true 表示启用自由操控
      */
     public void setCustomFreeControlEnabled(boolean enabled) {
-        prefs.edit().putBoolean(KEY_CUSTOM_FREE_CONTROL_ENABLED, enabled).apply();
+        edit().putBoolean(KEY_CUSTOM_FREE_CONTROL_ENABLED, enabled).apply();
         AppLog.d(TAG, "自由操控设置: " + (enabled ? "启用" : "禁用"));
     }
     
@@ -2500,7 +3020,7 @@ public class AppConfig {
      * @return true 表示启用自由操控
      */
     public boolean isCustomFreeControlEnabled() {
-        return prefs.getBoolean(KEY_CUSTOM_FREE_CONTROL_ENABLED, false);
+        return snapshot().getBoolean(KEY_CUSTOM_FREE_CONTROL_ENABLED, false);
     }
     
     /**
@@ -2508,7 +3028,7 @@ public class AppConfig {
      * @param style 按钮样式（BUTTON_STYLE_STANDARD / BUTTON_STYLE_MULTI）
      */
     public void setCustomButtonStyle(String style) {
-        prefs.edit().putString(KEY_CUSTOM_BUTTON_STYLE, style).apply();
+        edit().putString(KEY_CUSTOM_BUTTON_STYLE, style).apply();
         AppLog.d(TAG, "按钮样式设置: " + style);
     }
     
@@ -2517,7 +3037,7 @@ public class AppConfig {
      * @return 按钮样式，默认为标准按钮
      */
     public String getCustomButtonStyle() {
-        return prefs.getString(KEY_CUSTOM_BUTTON_STYLE, BUTTON_STYLE_STANDARD);
+        return snapshot().getString(KEY_CUSTOM_BUTTON_STYLE, BUTTON_STYLE_STANDARD);
     }
     
     /**
@@ -2525,7 +3045,7 @@ public class AppConfig {
      * @param orientation 方向（BUTTON_ORIENTATION_HORIZONTAL / BUTTON_ORIENTATION_VERTICAL）
      */
     public void setCustomButtonOrientation(String orientation) {
-        prefs.edit().putString(KEY_CUSTOM_BUTTON_ORIENTATION, orientation).apply();
+        edit().putString(KEY_CUSTOM_BUTTON_ORIENTATION, orientation).apply();
         AppLog.d(TAG, "按钮布局方向设置: " + orientation);
     }
     
@@ -2534,7 +3054,7 @@ public class AppConfig {
      * @return 布局方向，默认为横版
      */
     public String getCustomButtonOrientation() {
-        return prefs.getString(KEY_CUSTOM_BUTTON_ORIENTATION, BUTTON_ORIENTATION_HORIZONTAL);
+        return snapshot().getString(KEY_CUSTOM_BUTTON_ORIENTATION, BUTTON_ORIENTATION_HORIZONTAL);
     }
     
     /**
@@ -2542,7 +3062,7 @@ public class AppConfig {
      * @param layoutDataJson 布局数据JSON字符串
      */
     public void setCustomLayoutData(String layoutDataJson) {
-        prefs.edit().putString(KEY_CUSTOM_LAYOUT_DATA, layoutDataJson).apply();
+        edit().putString(KEY_CUSTOM_LAYOUT_DATA, layoutDataJson).apply();
         AppLog.d(TAG, "自定义布局数据已保存");
     }
     
@@ -2551,14 +3071,14 @@ public class AppConfig {
      * @return 布局数据JSON字符串，如果未设置返回null
      */
     public String getCustomLayoutData() {
-        return prefs.getString(KEY_CUSTOM_LAYOUT_DATA, null);
+        return snapshot().getString(KEY_CUSTOM_LAYOUT_DATA, null);
     }
     
     /**
      * 清除自定义布局数据
      */
     public void clearCustomLayoutData() {
-        prefs.edit().remove(KEY_CUSTOM_LAYOUT_DATA).apply();
+        edit().remove(KEY_CUSTOM_LAYOUT_DATA).apply();
         AppLog.d(TAG, "自定义布局数据已清除");
     }
     
@@ -2605,10 +3125,10 @@ public class AppConfig {
      */
     public void setUpdateServerUrl(String url) {
         if (url == null || url.trim().isEmpty()) {
-            prefs.edit().remove(KEY_UPDATE_SERVER_URL).apply();
+            edit().remove(KEY_UPDATE_SERVER_URL).apply();
             AppLog.d(TAG, "清除更新服务器地址");
         } else {
-            prefs.edit().putString(KEY_UPDATE_SERVER_URL, url.trim()).apply();
+            edit().putString(KEY_UPDATE_SERVER_URL, url.trim()).apply();
             AppLog.d(TAG, "更新服务器地址设置: " + url.trim());
         }
     }
@@ -2618,7 +3138,7 @@ public class AppConfig {
      * @return 服务器地址，默认为官方更新服务器
      */
     public String getUpdateServerUrl() {
-        String url = prefs.getString(KEY_UPDATE_SERVER_URL, DEFAULT_UPDATE_SERVER_URL);
+        String url = snapshot().getString(KEY_UPDATE_SERVER_URL, DEFAULT_UPDATE_SERVER_URL);
         if (url == null || url.trim().isEmpty()) {
             return DEFAULT_UPDATE_SERVER_URL;
         }
@@ -2639,7 +3159,7 @@ public class AppConfig {
      * 设置全景影像避让开关
      */
     public void setAvmAvoidanceEnabled(boolean enabled) {
-        prefs.edit().putBoolean(KEY_AVM_AVOIDANCE_ENABLED, enabled).apply();
+        edit().putBoolean(KEY_AVM_AVOIDANCE_ENABLED, enabled).apply();
         AppLog.d(TAG, "全景影像避让设置: " + (enabled ? "启用" : "禁用"));
     }
 
@@ -2647,14 +3167,14 @@ public class AppConfig {
      * 获取全景影像避让开关状态
      */
     public boolean isAvmAvoidanceEnabled() {
-        return prefs.getBoolean(KEY_AVM_AVOIDANCE_ENABLED, false);
+        return snapshot().getBoolean(KEY_AVM_AVOIDANCE_ENABLED, false);
     }
 
     /**
      * 设置全景影像避让的Activity名称
      */
     public void setAvmAvoidanceActivity(String activityName) {
-        prefs.edit().putString(KEY_AVM_AVOIDANCE_ACTIVITY, activityName).apply();
+        edit().putString(KEY_AVM_AVOIDANCE_ACTIVITY, activityName).apply();
         AppLog.d(TAG, "全景影像避让Activity: " + activityName);
     }
 
@@ -2662,7 +3182,7 @@ public class AppConfig {
      * 获取全景影像避让的Activity名称
      */
     public String getAvmAvoidanceActivity() {
-        return prefs.getString(KEY_AVM_AVOIDANCE_ACTIVITY, "com.geely.avm_app.AvmRenderActivity");
+        return snapshot().getString(KEY_AVM_AVOIDANCE_ACTIVITY, "com.geely.avm_app.AvmRenderActivity");
     }
 
     // ==================== 定制键唤醒配置相关方法 ====================
@@ -2671,7 +3191,7 @@ public class AppConfig {
      * 设置定制键唤醒开关
      */
     public void setCustomKeyWakeupEnabled(boolean enabled) {
-        prefs.edit().putBoolean(KEY_CUSTOM_KEY_WAKEUP_ENABLED, enabled).apply();
+        edit().putBoolean(KEY_CUSTOM_KEY_WAKEUP_ENABLED, enabled).apply();
         AppLog.d(TAG, "定制键唤醒设置: " + (enabled ? "启用" : "禁用"));
     }
 
@@ -2679,14 +3199,14 @@ public class AppConfig {
      * 获取定制键唤醒开关状态
      */
     public boolean isCustomKeyWakeupEnabled() {
-        return prefs.getBoolean(KEY_CUSTOM_KEY_WAKEUP_ENABLED, false);
+        return snapshot().getBoolean(KEY_CUSTOM_KEY_WAKEUP_ENABLED, false);
     }
 
     /**
      * 设置速度阈值（秒速 m/s）
      */
     public void setCustomKeySpeedThreshold(float threshold) {
-        prefs.edit().putFloat(KEY_CUSTOM_KEY_SPEED_THRESHOLD, threshold).apply();
+        edit().putFloat(KEY_CUSTOM_KEY_SPEED_THRESHOLD, threshold).apply();
         AppLog.d(TAG, "定制键速度阈值: " + threshold + " m/s");
     }
 
@@ -2694,34 +3214,34 @@ public class AppConfig {
      * 获取速度阈值（秒速 m/s），默认8.34
      */
     public float getCustomKeySpeedThreshold() {
-        return prefs.getFloat(KEY_CUSTOM_KEY_SPEED_THRESHOLD, 8.34f);
+        return snapshot().getFloat(KEY_CUSTOM_KEY_SPEED_THRESHOLD, 8.34f);
     }
 
     /**
      * 设置速度属性ID
      */
     public void setCustomKeySpeedPropId(int propId) {
-        prefs.edit().putInt(KEY_CUSTOM_KEY_SPEED_PROP_ID, propId).apply();
+        edit().putInt(KEY_CUSTOM_KEY_SPEED_PROP_ID, propId).apply();
     }
 
     /**
      * 获取速度属性ID，默认291504647
      */
     public int getCustomKeySpeedPropId() {
-        return prefs.getInt(KEY_CUSTOM_KEY_SPEED_PROP_ID, 291504647);
+        return snapshot().getInt(KEY_CUSTOM_KEY_SPEED_PROP_ID, 291504647);
     }
 
     /**
      * 设置按钮属性ID
      */
     public void setCustomKeyButtonPropId(int propId) {
-        prefs.edit().putInt(KEY_CUSTOM_KEY_BUTTON_PROP_ID, propId).apply();
+        edit().putInt(KEY_CUSTOM_KEY_BUTTON_PROP_ID, propId).apply();
     }
 
     /**
      * 获取按钮属性ID，默认557872183
      */
     public int getCustomKeyButtonPropId() {
-        return prefs.getInt(KEY_CUSTOM_KEY_BUTTON_PROP_ID, 557872183);
+        return snapshot().getInt(KEY_CUSTOM_KEY_BUTTON_PROP_ID, 557872183);
     }
 }
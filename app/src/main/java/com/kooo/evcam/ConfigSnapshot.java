@@ -0,0 +1,427 @@
+package com.kooo.evcam;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * 应用配置快照（进程内共享）
+ * AppConfig 在录制、拍照、存储路径等热路径上被频繁创建和读取，每次读取都要经过 SharedPreferences 的锁。
+ * 本类把 app_config 中的所有配置加载为一份不可变快照，通过 volatile 引用无锁读取：
+ *
+ * - 配置按类型分别存放（布尔、整数、长整数、浮点、字符串），读取时不做类型转换；类型不符时返回默认值
+ * - 进程内只从 SharedPreferences 加载一次，之后每次提交（AppConfig 的 setter）在旧快照上应用本次修改，
+ *   生成一个新快照并原子替换，每次提交只生成一次
+ * - 变化通知（OnSharedPreferenceChangeListener）只负责回调订阅者；只有快照与 SharedPreferences 不一致时
+ *   （绕过 AppConfig 直接写入）才从 SharedPreferences 重建
+ * - 快照本身不可变，读取方拿到的引用在整个读取过程中保持一致
+ * - 子系统可以订阅指定键的变化（subscribe），在配置变化后收到新快照
+ */
+public final class ConfigSnapshot {
+    private static final String TAG = "ConfigSnapshot";
+
+    /**
+     * 配置变化监听
+     */
+    public interface Listener {
+        /**
+         * 订阅的键发生变化（在主线程或写入线程上回调）
+         * @param snapshot 变化后的快照
+         * @param key 变化的键，配置被整体清空时为 null
+         */
+        void onConfigChanged(ConfigSnapshot snapshot, String key);
+    }
+
+    private static class Subscription {
+        final Listener listener;
+        final Set<String> keys;  // 为空表示订阅所有键
+
+        Subscription(Listener listener, Set<String> keys) {
+            this.listener = listener;
+            this.keys = keys;
+        }
+    }
+
+    // 编辑器中表示删除的值
+    private static final Object REMOVED = new Object();
+
+    // 写入锁：提交到 SharedPreferences 和替换快照在同一把锁内，快照的顺序与提交顺序一致
+    private static final Object writeLock = new Object();
+    private static volatile SharedPreferences preferences;
+    private static volatile ConfigSnapshot current;
+    private static final CopyOnWriteArrayList<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+
+    // SharedPreferences 只持有监听器的弱引用，必须在这里保持强引用
+    private static final SharedPreferences.OnSharedPreferenceChangeListener changeListener =
+            (sharedPreferences, key) -> onPreferenceChanged(key);
+
+    private final Map<String, Boolean> booleans;
+    private final Map<String, Integer> ints;
+    private final Map<String, Long> longs;
+    private final Map<String, Float> floats;
+    private final Map<String, String> strings;
+    private final long version;
+
+    private ConfigSnapshot(Builder builder, long version) {
+        this.booleans = Collections.unmodifiableMap(builder.booleans);
+        this.ints = Collections.unmodifiableMap(builder.ints);
+        this.longs = Collections.unmodifiableMap(builder.longs);
+        this.floats = Collections.unmodifiableMap(builder.floats);
+        this.strings = Collections.unmodifiableMap(builder.strings);
+        this.version = version;
+    }
+
+    /**
+     * 获取配置所在的 SharedPreferences（首次调用时加载快照并注册变化监听）
+     */
+    static SharedPreferences preferences(Context context) {
+        SharedPreferences prefs = preferences;
+        if (prefs != null) {
+            return prefs;
+        }
+        synchronized (writeLock) {
+            if (preferences == null) {
+                SharedPreferences loaded = context.getApplicationContext()
+                        .getSharedPreferences(AppConfig.PREF_NAME, Context.MODE_PRIVATE);
+                loaded.registerOnSharedPreferenceChangeListener(changeListener);
+                current = new Builder().putAll(loaded.getAll()).build(1);
+                preferences = loaded;
+                AppLog.d(TAG, "配置快照已加载: " + current.size() + " 项");
+            }
+            return preferences;
+        }
+    }
+
+    /**
+     * 获取当前快照（无锁）
+     */
+    public static ConfigSnapshot get(Context context) {
+        ConfigSnapshot snapshot = current;
+        if (snapshot != null) {
+            return snapshot;
+        }
+        preferences(context);
+        return current;
+    }
+
+    /**
+     * 获取当前快照（调用前已通过 preferences() 加载）
+     */
+    static ConfigSnapshot current() {
+        return current;
+    }
+
+    /**
+     * 订阅配置变化
+     * @param listener 监听器
+     * @param keys 关心的键，不传表示所有键
+     */
+    public static void subscribe(Listener listener, String... keys) {
+        Set<String> keySet = keys.length == 0 ? Collections.emptySet() : new HashSet<>(Arrays.asList(keys));
+        subscriptions.add(new Subscription(listener, keySet));
+    }
+
+    /**
+     * 取消订阅（同一监听器的所有订阅）
+     */
+    public static void unsubscribe(Listener listener) {
+        for (Subscription subscription : subscriptions) {
+            if (subscription.listener == listener) {
+                subscriptions.remove(subscription);
+            }
+        }
+    }
+
+    /**
+     * 包装配置编辑器：提交后立即生成新快照
+     * （apply() 在非主线程调用时变化监听会延后到主线程，期间不能读到旧值）
+     */
+    static SharedPreferences.Editor edit(SharedPreferences prefs) {
+        return new RefreshingEditor(prefs.edit());
+    }
+
+    /**
+     * 快照版本（每生成一个新快照加一）
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    public boolean contains(String key) {
+        return booleans.containsKey(key) || ints.containsKey(key) || longs.containsKey(key)
+                || floats.containsKey(key) || strings.containsKey(key);
+    }
+
+    public boolean getBoolean(String key, boolean defValue) {
+        Boolean value = booleans.get(key);
+        return value != null ? value : defValue;
+    }
+
+    public int getInt(String key, int defValue) {
+        Integer value = ints.get(key);
+        return value != null ? value : defValue;
+    }
+
+    public long getLong(String key, long defValue) {
+        Long value = longs.get(key);
+        return value != null ? value : defValue;
+    }
+
+    public float getFloat(String key, float defValue) {
+        Float value = floats.get(key);
+        return value != null ? value : defValue;
+    }
+
+    public String getString(String key, String defValue) {
+        String value = strings.get(key);
+        return value != null ? value : defValue;
+    }
+
+    private int size() {
+        return booleans.size() + ints.size() + longs.size() + floats.size() + strings.size();
+    }
+
+    /**
+     * 快照中的值是否与 SharedPreferences 一致
+     */
+    private boolean matches(String key, SharedPreferences prefs) {
+        try {
+            if (booleans.containsKey(key)) {
+                return prefs.contains(key) && booleans.get(key) == prefs.getBoolean(key, false);
+            }
+            if (ints.containsKey(key)) {
+                return prefs.contains(key) && ints.get(key) == prefs.getInt(key, 0);
+            }
+            if (longs.containsKey(key)) {
+                return prefs.contains(key) && longs.get(key) == prefs.getLong(key, 0);
+            }
+            if (floats.containsKey(key)) {
+                return prefs.contains(key) && Float.compare(floats.get(key), prefs.getFloat(key, 0)) == 0;
+            }
+            if (strings.containsKey(key)) {
+                return strings.get(key).equals(prefs.getString(key, null));
+            }
+            return !prefs.contains(key);
+        } catch (ClassCastException e) {
+            return false;  // 类型已改变
+        }
+    }
+
+    /**
+     * 变化通知：快照已包含这次修改时直接回调订阅者，否则先从 SharedPreferences 重建
+     */
+    private static void onPreferenceChanged(String key) {
+        ConfigSnapshot snapshot;
+        synchronized (writeLock) {
+            SharedPreferences prefs = preferences;
+            snapshot = current;
+            if (prefs == null || snapshot == null) {
+                return;
+            }
+            if (key == null || !snapshot.matches(key, prefs)) {
+                snapshot = new Builder().putAll(prefs.getAll()).build(snapshot.version + 1);
+                current = snapshot;
+            }
+        }
+        for (Subscription subscription : subscriptions) {
+            if (key == null || subscription.keys.isEmpty() || subscription.keys.contains(key)) {
+                try {
+                    subscription.listener.onConfigChanged(snapshot, key);
+                } catch (Exception e) {
+                    AppLog.e(TAG, "配置变化回调异常: " + key, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * 按类型分拣配置值，生成快照
+     */
+    private static class Builder {
+        final Map<String, Boolean> booleans;
+        final Map<String, Integer> ints;
+        final Map<String, Long> longs;
+        final Map<String, Float> floats;
+        final Map<String, String> strings;
+
+        Builder() {
+            booleans = new HashMap<>();
+            ints = new HashMap<>();
+            longs = new HashMap<>();
+            floats = new HashMap<>();
+            strings = new HashMap<>();
+        }
+
+        /**
+         * 以已有快照为基础
+         */
+        Builder(ConfigSnapshot base) {
+            booleans = new HashMap<>(base.booleans);
+            ints = new HashMap<>(base.ints);
+            longs = new HashMap<>(base.longs);
+            floats = new HashMap<>(base.floats);
+            strings = new HashMap<>(base.strings);
+        }
+
+        Builder putAll(Map<String, ?> values) {
+            for (Map.Entry<String, ?> entry : values.entrySet()) {
+                put(entry.getKey(), entry.getValue());
+            }
+            return this;
+        }
+
+        /**
+         * 写入一个值（REMOVED 表示删除；字符串集合等快照不支持的类型只删除旧值）
+         */
+        void put(String key, Object value) {
+            remove(key);
+            if (value instanceof Boolean) {
+                booleans.put(key, (Boolean) value);
+            } else if (value instanceof Integer) {
+                ints.put(key, (Integer) value);
+            } else if (value instanceof Long) {
+                longs.put(key, (Long) value);
+            } else if (value instanceof Float) {
+                floats.put(key, (Float) value);
+            } else if (value instanceof String) {
+                strings.put(key, (String) value);
+            }
+        }
+
+        void remove(String key) {
+            booleans.remove(key);
+            ints.remove(key);
+            longs.remove(key);
+            floats.remove(key);
+            strings.remove(key);
+        }
+
+        void clear() {
+            booleans.clear();
+            ints.clear();
+            longs.clear();
+            floats.clear();
+            strings.clear();
+        }
+
+        ConfigSnapshot build(long version) {
+            return new ConfigSnapshot(this, version);
+        }
+    }
+
+    /**
+     * 记录本次修改，提交时在当前快照上应用修改并替换快照的编辑器
+     * 先替换快照再提交到 SharedPreferences：在主线程上提交时变化通知在 commit()/apply() 内同步回调，
+     * 此时快照已包含本次修改，不会再重建
+     */
+    private static class RefreshingEditor implements SharedPreferences.Editor {
+        private final SharedPreferences.Editor editor;
+        private final Map<String, Object> changes = new HashMap<>();
+        private boolean clear = false;
+
+        RefreshingEditor(SharedPreferences.Editor editor) {
+            this.editor = editor;
+        }
+
+        @Override
+        public SharedPreferences.Editor putString(String key, String value) {
+            editor.putString(key, value);
+            changes.put(key, value != null ? value : REMOVED);
+            return this;
+        }
+
+        @Override
+        public SharedPreferences.Editor putStringSet(String key, Set<String> values) {
+            editor.putStringSet(key, values);
+            changes.put(key, REMOVED);  // 快照不保存字符串集合
+            return this;
+        }
+
+        @Override
+        public SharedPreferences.Editor putInt(String key, int value) {
+            editor.putInt(key, value);
+            changes.put(key, value);
+            return this;
+        }
+
+        @Override
+        public SharedPreferences.Editor putLong(String key, long value) {
+            editor.putLong(key, value);
+            changes.put(key, value);
+            return this;
+        }
+
+        @Override
+        public SharedPreferences.Editor putFloat(String key, float value) {
+            editor.putFloat(key, value);
+            changes.put(key, value);
+            return this;
+        }
+
+        @Override
+        public SharedPreferences.Editor putBoolean(String key, boolean value) {
+            editor.putBoolean(key, value);
+            changes.put(key, value);
+            return this;
+        }
+
+        @Override
+        public SharedPreferences.Editor remove(String key) {
+            editor.remove(key);
+            changes.put(key, REMOVED);
+            return this;
+        }
+
+        @Override
+        public SharedPreferences.Editor clear() {
+            editor.clear();
+            clear = true;
+            return this;
+        }
+
+        @Override
+        public boolean commit() {
+            synchronized (writeLock) {
+                publish();
+                return editor.commit();
+            }
+        }
+
+        @Override
+        public void apply() {
+            synchronized (writeLock) {
+                publish();
+                editor.apply();  // 内存中的数据同步更新，磁盘写入异步
+            }
+        }
+
+        /**
+         * 在当前快照上应用本次修改（与 SharedPreferences 相同：先清空，再应用修改），持有 writeLock
+         */
+        private void publish() {
+            ConfigSnapshot base = current;
+            if (base == null) {
+                return;
+            }
+            Builder builder = new Builder(base);
+            if (clear) {
+                builder.clear();
+            }
+            for (Map.Entry<String, Object> entry : changes.entrySet()) {
+                if (entry.getValue() == REMOVED) {
+                    builder.remove(entry.getKey());
+                } else {
+                    builder.put(entry.getKey(), entry.getValue());
+                }
+            }
+            current = builder.build(base.version + 1);
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package com.kooo.evcam;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+
+import com.bumptech.glide.Glide;
+import com.bumptech.glide.Registry;
+import com.bumptech.glide.annotation.GlideModule;
+import com.bumptech.glide.module.AppGlideModule;
+
+import java.io.InputStream;
+
+/**
+ * Glide 配置
+ * 注册视频缩略图加载器（VideoThumbnailLoader）
+ */
+@GlideModule
+public final class EvCamGlideModule extends AppGlideModule {
+
+    @Override
+    public void registerComponents(@NonNull Context context, @NonNull Glide glide, @NonNull Registry registry) {
+        registry.prepend(VideoThumbnailLoader.Source.class, InputStream.class, new VideoThumbnailLoader.Factory());
+    }
+
+    @Override
+    public boolean isManifestParsingEnabled() {
+        return false;
+    }
+}
@@ -1,27 +1,41 @@
 package com.kooo.evcam;
 
 import android.content.Context;
-import android.os.Handler;
-import android.os.HandlerThread;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.nio.channels.FileChannel;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * 文件传输管理器
  * 负责将临时目录中的视频文件异步传输到目标存储（如U盘）
- * 
+ *
  * 工作原理：
  * 1. 录制时先写入内部存储的临时目录（高速）
- * 2. 分段完成后，将文件加入传输队列
- * 3. 后台线程负责将文件移动/复制到目标目录
+ * 2. 分段完成后，将文件加入传输队列（按优先级排序）
+ * 3. 后台线程阻塞等待队列中的任务，有任务时立即移动/复制到目标目录
  * 4. 传输完成后删除临时文件
- * 
+ *
+ * 可靠性：
+ * - 每个任务在入队时写入传输日志（应用内部存储），完成后标记删除；进程被杀后下次启动时重放日志恢复未完成的任务
+ * - 传输失败时按目标卷退避重试（U盘拔出等故障不影响其他卷，也不会在短时间内反复重试）
+ * - 过期临时文件清理会跳过队列中的任务；未入队的遗留视频转为低优先级传输而不是直接删除
+ *
  * 这样可以避免U盘慢速写入影响录制性能
  */
 public class FileTransferManager {
@@ -30,21 +44,40 @@ public class FileTransferManager {
     // 临时目录名称（在内部存储的应用缓存目录下）
     public static final String TEMP_VIDEO_DIR = "temp_video";
     
+    // 传输优先级（数值小的先传输）
+    public static final int PRIORITY_HIGH = 0;      // 录制中完成的分段（临时空间有限，尽快移出）
+    public static final int PRIORITY_NORMAL = 1;    // 停止录制后剩余的文件、上传后的文件
+    public static final int PRIORITY_LOW = 2;       // 恢复任务（修复后的文件、遗留的临时文件）
+    
     // 传输任务
     private static class TransferTask {
         final File sourceFile;      // 源文件（临时目录中）
         final File targetFile;      // 目标文件（最终存储位置）
         final TransferCallback callback;
+        final int priority;
+        final long sequence;        // 入队顺序（同优先级先进先出）
+        final long size;            // 入队时的文件大小
+        final String volumeKey;     // 目标卷
         int retryCount;             // 重试次数
         
-        TransferTask(File source, File target, TransferCallback callback) {
+        TransferTask(File source, File target, TransferCallback callback, int priority, long sequence) {
             this.sourceFile = source;
             this.targetFile = target;
             this.callback = callback;
+            this.priority = priority;
+            this.sequence = sequence;
+            this.size = source.length();
+            this.volumeKey = volumeKeyOf(target);
             this.retryCount = 0;
         }
     }
     
+    // 目标卷的退避状态
+    private static class VolumeState {
+        int consecutiveFailures;
+        long nextAttemptMs;
+    }
+    
     // 传输回调
     public interface TransferCallback {
         void onTransferComplete(File sourceFile, File targetFile);
@@ -54,30 +87,52 @@ public class FileTransferManager {
     // 单例
     private static FileTransferManager instance;
     
+    private static final Comparator<TransferTask> TASK_ORDER = (a, b) -> {
+        int cmp = Integer.compare(a.priority, b.priority);
+        return cmp != 0 ? cmp : Long.compare(a.sequence, b.sequence);
+    };
+    
     private final Context context;
-    private final ConcurrentLinkedQueue<TransferTask> transferQueue;
-    private HandlerThread transferThread;
-    private Handler transferHandler;
+    private final File journalFile;
+    
+    // 队列状态，由 queueLock 保护
+    private final Object queueLock = new Object();
+    private final TreeSet<TransferTask> transferQueue = new TreeSet<>(TASK_ORDER);  // 等待传输的任务
+    private final Map<String, TransferTask> pendingBySource = new HashMap<>();     // 所有未完成的任务（含正在传输的）
+    private final Map<String, VolumeState> volumeStates = new HashMap<>();
+    private long nextSequence = 0;
+    private long cleanupAtMs = 0;
+    private int journalLines = 0;
+    private boolean journalReplayed = false;
+    
+    private Thread transferThread;  // 传输线程，由 queueLock 保护，线程退出时置空
     private final AtomicBoolean isRunning;
-    private final AtomicBoolean isProcessing;
     
     // 配置
-    private static final int MAX_RETRY_COUNT = 3;           // 最大重试次数
-    private static final long RETRY_DELAY_MS = 5000;        // 重试延迟（毫秒）
-    private static final long TRANSFER_CHECK_INTERVAL_MS = 1000;  // 检查队列间隔
+    private static final int MAX_RETRY_COUNT = 5;                  // 单个任务最大重试次数
+    private static final long RETRY_BASE_DELAY_MS = 5000;          // 首次重试延迟（毫秒），之后按目标卷连续失败次数翻倍
+    private static final long RETRY_MAX_DELAY_MS = 5 * 60 * 1000;  // 最大重试延迟：5分钟
     private static final long STARTUP_CLEANUP_DELAY_MS = 60 * 1000;  // 启动后清理延迟：1分钟
     private static final long TEMP_FILE_EXPIRE_MS = 60 * 60 * 1000;  // 临时文件过期时间：1小时
+    private static final String TEMP_FILE_SUFFIX = ".mp4";           // 中转录像文件（临时目录下的子目录是缩略图和校验旁路文件）
+    private static final long STOP_WAIT_MS = 1000;                   // 停止时等待传输线程退出的时间
+    private static final String JOURNAL_FILE_NAME = "transfer_journal";
+    private static final int MIN_COMPACT_JOURNAL_LINES = 256;
+    private static final char OP_QUEUED = 'Q';
+    private static final char OP_DONE = 'D';
     
     // 统计
-    private long totalTransferred = 0;      // 已传输文件数
-    private long totalFailed = 0;           // 失败文件数
-    private long totalBytesTransferred = 0; // 已传输字节数
+    private volatile long totalTransferred = 0;      // 已传输文件数
+    private volatile long totalFailed = 0;           // 失败文件数
+    private volatile long totalBytesTransferred = 0; // 已传输字节数
+    private final AtomicLong bytesInFlight = new AtomicLong();  // 未完成任务的字节数
+    private volatile long copyBytes = 0;             // 跨文件系统复制的字节数（用于计算吞吐量）
+    private volatile long copyNanos = 0;             // 跨文件系统复制的耗时
     
     private FileTransferManager(Context context) {
         this.context = context.getApplicationContext();
-        this.transferQueue = new ConcurrentLinkedQueue<>();
+        this.journalFile = new File(this.context.getFilesDir(), JOURNAL_FILE_NAME);
         this.isRunning = new AtomicBoolean(false);
-        this.isProcessing = new AtomicBoolean(false);
     }
     
     /**
@@ -92,6 +147,8 @@ public class FileTransferManager {
     
     /**
      * 启动传输服务
+     * 首次启动时重放传输日志，恢复上次进程退出时未完成的任务
+     * 上次停止时传输线程还在传输当前文件（尚未退出）的，继续使用该线程，不会同时存在两个传输线程
      */
     public void start() {
         if (isRunning.getAndSet(true)) {
@@ -99,53 +156,80 @@ public class FileTransferManager {
             return;
         }
         
-        transferThread = new HandlerThread("FileTransfer");
-        transferThread.start();
-        transferHandler = new Handler(transferThread.getLooper());
-        
-        // 启动定期检查队列
-        scheduleNextCheck();
-        
-        // 启动后1分钟检查并清理过期的临时文件
-        transferHandler.postDelayed(this::cleanupExpiredTempFiles, STARTUP_CLEANUP_DELAY_MS);
+        int recovered = 0;
+        boolean reused;
+        synchronized (queueLock) {
+            if (!journalReplayed) {
+                journalReplayed = true;
+                recovered = replayJournal();
+                compactJournal();
+            }
+            // 启动后1分钟检查并清理过期的临时文件
+            cleanupAtMs = System.currentTimeMillis() + STARTUP_CLEANUP_DELAY_MS;
+            
+            // 传输线程只在持有 queueLock 且确认已停止时退出并置空，这里不为空说明它会继续运行
+            reused = transferThread != null;
+            if (reused) {
+                queueLock.notifyAll();
+            } else {
+                transferThread = new Thread(this::transferLoop, "FileTransfer");
+                transferThread.start();
+            }
+        }
         
-        AppLog.d(TAG, "File transfer service started");
+        AppLog.d(TAG, "File transfer service started" + (reused ? " (reusing transfer thread)" : "")
+                + ", recovered " + recovered + " task(s) from journal, queue: " + getQueueSize());
     }
     
     /**
      * 停止传输服务
+     * 正在传输的文件完成后退出，未完成的任务保留在队列和日志中
+     * 最多等待 STOP_WAIT_MS（在主线程调用），传输线程没有退出时由它在当前文件完成后自行退出
      */
     public void stop() {
         if (!isRunning.getAndSet(false)) {
             return;
         }
         
-        if (transferHandler != null) {
-            transferHandler.removeCallbacksAndMessages(null);
-            transferHandler = null;
+        Thread thread;
+        synchronized (queueLock) {
+            queueLock.notifyAll();
+            thread = transferThread;
         }
         
-        if (transferThread != null) {
-            transferThread.quitSafely();
+        if (thread != null) {
             try {
-                transferThread.join(1000);
+                thread.join(STOP_WAIT_MS);
             } catch (InterruptedException e) {
-                // Ignore
+                Thread.currentThread().interrupt();
+            }
+            if (thread.isAlive()) {
+                AppLog.w(TAG, "Transfer thread still finishing the current file, it exits afterwards");
             }
-            transferThread = null;
         }
         
-        AppLog.d(TAG, "File transfer service stopped. Stats: transferred=" + totalTransferred + 
-                ", failed=" + totalFailed + ", bytes=" + formatSize(totalBytesTransferred));
+        AppLog.d(TAG, "File transfer service stopped. Stats: " + getStats());
     }
     
     /**
-     * 添加传输任务
+     * 添加传输任务（普通优先级）
      * @param sourceFile 源文件（临时目录中）
      * @param targetFile 目标文件（最终位置）
      * @param callback 回调（可为null）
      */
     public void addTransferTask(File sourceFile, File targetFile, TransferCallback callback) {
+        addTransferTask(sourceFile, targetFile, PRIORITY_NORMAL, callback);
+    }
+    
+    /**
+     * 添加传输任务
+     * 同一源文件已在队列中时忽略
+     * @param sourceFile 源文件（临时目录中）
+     * @param targetFile 目标文件（最终位置）
+     * @param priority 优先级（PRIORITY_HIGH/NORMAL/LOW）
+     * @param callback 回调（可为null）
+     */
+    public void addTransferTask(File sourceFile, File targetFile, int priority, TransferCallback callback) {
         if (sourceFile == null || !sourceFile.exists()) {
             AppLog.w(TAG, "Source file does not exist: " + sourceFile);
             if (callback != null) {
@@ -154,15 +238,19 @@ public class FileTransferManager {
             return;
         }
         
-        TransferTask task = new TransferTask(sourceFile, targetFile, callback);
-        transferQueue.offer(task);
-        
-        AppLog.d(TAG, "Added transfer task: " + sourceFile.getName() + " -> " + targetFile.getAbsolutePath());
-        
-        // 如果服务在运行，立即触发处理
-        if (isRunning.get() && transferHandler != null) {
-            transferHandler.post(this::processQueue);
+        synchronized (queueLock) {
+            String key = sourceFile.getAbsolutePath();
+            if (pendingBySource.containsKey(key)) {
+                AppLog.d(TAG, "Transfer task already queued: " + sourceFile.getName());
+                return;
+            }
+            TransferTask task = new TransferTask(sourceFile, targetFile, callback, priority, nextSequence++);
+            enqueueLocked(task);
+            appendJournal(formatQueued(task));
+            queueLock.notifyAll();
         }
+        
+        AppLog.d(TAG, "Added transfer task (priority " + priority + "): " + sourceFile.getName() + " -> " + targetFile.getAbsolutePath());
     }
     
     /**
@@ -188,7 +276,7 @@ public class FileTransferManager {
         if (tempDir == null || !tempDir.exists()) {
             return 0;
         }
-        File[] files = tempDir.listFiles();
+        File[] files = tempDir.listFiles(File::isFile);  // 不含缩略图子目录
         return files != null ? files.length : 0;
     }
     
@@ -202,7 +290,7 @@ public class FileTransferManager {
         }
         
         long size = 0;
-        File[] files = tempDir.listFiles();
+        File[] files = tempDir.listFiles(File::isFile);
         if (files != null) {
             for (File file : files) {
                 size += file.length();
@@ -234,42 +322,109 @@ public class FileTransferManager {
     }
     
     /**
-     * 获取队列中等待传输的任务数
+     * 获取未完成的任务数（队列深度，含正在传输的任务）
      */
     public int getQueueSize() {
-        return transferQueue.size();
+        synchronized (queueLock) {
+            return pendingBySource.size();
+        }
+    }
+    
+    /**
+     * 获取未完成任务的总字节数
+     */
+    public long getBytesInFlight() {
+        return bytesInFlight.get();
+    }
+    
+    /**
+     * 获取跨文件系统复制的平均吞吐量（MB/s），同文件系统的移动不计入
+     */
+    public double getTransferMbps() {
+        long nanos = copyNanos;
+        return nanos > 0 ? (copyBytes / (1024.0 * 1024.0)) / (nanos / 1e9) : 0;
     }
     
     /**
      * 获取传输统计信息
      */
     public String getStats() {
-        return String.format("已传输: %d 个文件 (%s), 失败: %d, 队列: %d, 临时文件: %d",
-                totalTransferred, formatSize(totalBytesTransferred), 
-                totalFailed, getQueueSize(), getPendingFileCount());
+        return String.format("已传输: %d 个文件 (%s), 失败: %d, 队列: %d (%s), 复制速度: %.1f MB/s, 临时文件: %d",
+                totalTransferred, formatSize(totalBytesTransferred),
+                totalFailed, getQueueSize(), formatSize(getBytesInFlight()), getTransferMbps(), getPendingFileCount())
+                + ", " + RelayIoScheduler.getInstance().getStats();
     }
     
     // ===== 私有方法 =====
     
     /**
-     * 调度下一次队列检查
+     * 传输线程主循环：阻塞等待可执行的任务
+     * 退出前在 queueLock 内确认服务已停止并清除 transferThread，与 start() 的判断互斥
      */
-    private void scheduleNextCheck() {
-        if (!isRunning.get() || transferHandler == null) {
-            return;
+    private void transferLoop() {
+        while (true) {
+            TransferTask task;
+            try {
+                task = takeNextTask();
+            } catch (InterruptedException e) {
+                AppLog.w(TAG, "Transfer thread interrupted");
+                synchronized (queueLock) {
+                    isRunning.set(false);
+                    transferThread = null;
+                }
+                return;
+            }
+            if (task != null) {
+                processTask(task);
+                continue;
+            }
+            synchronized (queueLock) {
+                if (!isRunning.get()) {
+                    transferThread = null;
+                    return;
+                }
+            }
+            cleanupExpiredTempFiles();
         }
-        
-        transferHandler.postDelayed(() -> {
-            if (isRunning.get()) {
-                processQueue();
-                scheduleNextCheck();
+    }
+    
+    /**
+     * 取出优先级最高、且目标卷不在退避中的任务
+     * 没有可执行的任务时阻塞，直到有新任务、退避结束或服务停止
+     * @return 任务；到了临时文件清理时间或服务停止时返回 null
+     */
+    private TransferTask takeNextTask() throws InterruptedException {
+        synchronized (queueLock) {
+            while (isRunning.get()) {
+                long now = System.currentTimeMillis();
+                if (cleanupAtMs > 0 && now >= cleanupAtMs) {
+                    cleanupAtMs = 0;
+                    return null;
+                }
+                long waitUntil = cleanupAtMs > 0 ? cleanupAtMs : Long.MAX_VALUE;
+                for (TransferTask task : transferQueue) {
+                    VolumeState volume = volumeStates.get(task.volumeKey);
+                    if (volume == null || volume.nextAttemptMs <= now) {
+                        transferQueue.remove(task);
+                        return task;
+                    }
+                    waitUntil = Math.min(waitUntil, volume.nextAttemptMs);
+                }
+                if (waitUntil == Long.MAX_VALUE) {
+                    queueLock.wait();
+                } else {
+                    queueLock.wait(Math.max(1, waitUntil - now));
+                }
             }
-        }, TRANSFER_CHECK_INTERVAL_MS);
+            return null;
+        }
     }
     
     /**
      * 清理过期的临时文件
-     * 在服务运行期间定期调用
+     * 只处理临时目录下的中转录像文件（*.mp4），缩略图和校验旁路文件的子目录及其他文件不动
+     * 队列中的任务不清理；未入队的遗留视频（如进程被杀时未来得及入队）转为低优先级传输，
+     * 空文件直接删除，没有可用的最终目录时保留到下次清理
      */
     private void cleanupExpiredTempFiles() {
         File tempDir = getTempVideoDir();
@@ -277,53 +432,43 @@ public class FileTransferManager {
             return;
         }
         
-        File[] files = tempDir.listFiles();
+        File[] files = tempDir.listFiles(file -> file.isFile() && file.getName().endsWith(TEMP_FILE_SUFFIX));
         if (files == null || files.length == 0) {
             return;
         }
         
+        File finalDir = StorageHelper.getFinalVideoDir(context);
         long now = System.currentTimeMillis();
         int deletedCount = 0;
         long deletedSize = 0;
+        int recoveredCount = 0;
         
         for (File file : files) {
             long fileAge = now - file.lastModified();
-            if (fileAge > TEMP_FILE_EXPIRE_MS) {
-                long fileSize = file.length();
-                if (file.delete()) {
-                    deletedCount++;
-                    deletedSize += fileSize;
-                    AppLog.d(TAG, "Cleanup: deleted expired temp file: " + file.getName());
+            if (fileAge <= TEMP_FILE_EXPIRE_MS) {
+                continue;
+            }
+            synchronized (queueLock) {
+                if (pendingBySource.containsKey(file.getAbsolutePath())) {
+                    continue;
                 }
             }
-        }
-        
-        if (deletedCount > 0) {
-            AppLog.d(TAG, "Periodic cleanup: deleted " + deletedCount + " expired files, freed " + formatSize(deletedSize));
-        }
-    }
-    
-    /**
-     * 处理传输队列
-     */
-    private void processQueue() {
-        if (!isRunning.get() || isProcessing.getAndSet(true)) {
-            return;
-        }
-        
-        try {
-            TransferTask task;
-            while ((task = transferQueue.poll()) != null) {
-                if (!isRunning.get()) {
-                    // 服务停止，将任务放回队列
-                    transferQueue.offer(task);
-                    break;
+            long fileSize = file.length();
+            if (fileSize > 0) {
+                if (finalDir != null && !finalDir.equals(tempDir)) {
+                    addTransferTask(file, StorageHelper.getMediaFile(finalDir, file.getName()), PRIORITY_LOW, null);
+                    recoveredCount++;
                 }
-                
-                processTask(task);
+            } else if (file.delete()) {
+                deletedCount++;
+                deletedSize += fileSize;
+                AppLog.d(TAG, "Cleanup: deleted expired temp file: " + file.getName());
             }
-        } finally {
-            isProcessing.set(false);
+        }
+        
+        if (deletedCount > 0 || recoveredCount > 0) {
+            AppLog.d(TAG, "Temp cleanup: deleted " + deletedCount + " expired files, freed " + formatSize(deletedSize)
+                    + ", queued " + recoveredCount + " orphaned video(s) for transfer");
         }
     }
     
@@ -333,6 +478,7 @@ public class FileTransferManager {
     private void processTask(TransferTask task) {
         if (!task.sourceFile.exists()) {
             AppLog.w(TAG, "Source file no longer exists: " + task.sourceFile.getName());
+            completeTask(task);
             if (task.callback != null) {
                 task.callback.onTransferFailed(task.sourceFile, task.targetFile, "Source file not found");
             }
@@ -356,67 +502,81 @@ public class FileTransferManager {
         if (moved) {
             // 移动成功
             long fileSize = task.targetFile.length();
-            AppLog.d(TAG, "File moved successfully: " + task.sourceFile.getName() + 
+            AppLog.d(TAG, "File moved successfully: " + task.sourceFile.getName() +
                     " -> " + task.targetFile.getAbsolutePath() + " (" + formatSize(fileSize) + ")");
+            // 同一文件系统内移动不经过复制校验，直接计算校验和（刚写完的数据通常仍在页缓存中）
+            SegmentChecksum.seal(task.targetFile);
             
-            totalTransferred++;
-            totalBytesTransferred += fileSize;
-            
-            if (task.callback != null) {
-                task.callback.onTransferComplete(task.sourceFile, task.targetFile);
-            }
+            onTransferSucceeded(task, fileSize);
         } else {
             // 移动失败（可能跨文件系统），尝试复制
             AppLog.d(TAG, "Move failed, trying copy: " + task.sourceFile.getName());
             
+            long startNs = System.nanoTime();
             boolean copied = copyFile(task.sourceFile, task.targetFile);
             
             if (copied) {
-                // 复制成功，删除源文件
+                // 复制并回读校验成功，删除源文件
                 long fileSize = task.targetFile.length();
+                long elapsedNs = System.nanoTime() - startNs;
+                copyBytes += fileSize;
+                copyNanos += elapsedNs;
                 
                 if (task.sourceFile.delete()) {
-                    AppLog.d(TAG, "File copied and source deleted: " + task.sourceFile.getName() + 
-                            " -> " + task.targetFile.getAbsolutePath() + " (" + formatSize(fileSize) + ")");
+                    AppLog.d(TAG, "File copied and source deleted: " + task.sourceFile.getName() +
+                            " -> " + task.targetFile.getAbsolutePath() + " (" + formatSize(fileSize) + ", "
+                            + (elapsedNs / 1_000_000) + "ms)");
                 } else {
                     AppLog.w(TAG, "File copied but failed to delete source: " + task.sourceFile.getName());
                 }
                 
-                totalTransferred++;
-                totalBytesTransferred += fileSize;
-                
-                if (task.callback != null) {
-                    task.callback.onTransferComplete(task.sourceFile, task.targetFile);
-                }
+                onTransferSucceeded(task, fileSize);
             } else {
-                // 复制也失败
+                // 复制失败或回读校验不一致（目标文件已删除，源文件保留待重试）
                 handleTransferFailure(task, "Copy failed");
             }
         }
     }
     
+    private void onTransferSucceeded(TransferTask task, long fileSize) {
+        totalTransferred++;
+        totalBytesTransferred += fileSize;
+        StorageIndex.recordFile(context, task.targetFile);
+        VideoThumbnail.moveSidecar(task.sourceFile, task.targetFile);
+        synchronized (queueLock) {
+            volumeStates.remove(task.volumeKey);
+        }
+        completeTask(task);
+        
+        if (task.callback != null) {
+            task.callback.onTransferComplete(task.sourceFile, task.targetFile);
+        }
+    }
+    
     /**
      * 处理传输失败
+     * 目标卷进入退避（连续失败次数越多等待越久），任务放回队列；单个任务超过重试次数后放弃
      */
     private void handleTransferFailure(TransferTask task, String error) {
         task.retryCount++;
         
         if (task.retryCount < MAX_RETRY_COUNT) {
-            // 重试
-            AppLog.w(TAG, "Transfer failed, will retry (" + task.retryCount + "/" + MAX_RETRY_COUNT + "): " + 
-                    task.sourceFile.getName() + " - " + error);
-            
-            // 延迟后重新加入队列
-            if (transferHandler != null) {
-                transferHandler.postDelayed(() -> {
-                    transferQueue.offer(task);
-                }, RETRY_DELAY_MS);
+            long delayMs;
+            synchronized (queueLock) {
+                delayMs = backoffVolumeLocked(task.volumeKey);
+                transferQueue.add(task);
             }
+            AppLog.w(TAG, "Transfer failed, will retry (" + task.retryCount + "/" + MAX_RETRY_COUNT + ") in " +
+                    (delayMs / 1000) + "s: " + task.sourceFile.getName() + " - " + error);
         } else {
-            // 超过重试次数，放弃
-            AppLog.e(TAG, "Transfer failed after " + MAX_RETRY_COUNT + " retries: " + 
+            // 超过重试次数，放弃（源文件保留在临时目录，过期清理时会重新入队）
+            AppLog.e(TAG, "Transfer failed after " + MAX_RETRY_COUNT + " retries: " +
                     task.sourceFile.getName() + " - " + error);
             
+            synchronized (queueLock) {
+                backoffVolumeLocked(task.volumeKey);
+            }
+            completeTask(task);
             totalFailed++;
             
             if (task.callback != null) {
@@ -426,55 +586,170 @@ public class FileTransferManager {
     }
     
     /**
-     * 复制文件（使用 NIO Channel，效率较高）
+     * 记录目标卷的一次失败并计算退避时间（持有 queueLock 时调用）
+     * @return 退避时长（毫秒）
      */
-    private boolean copyFile(File source, File target) {
-        FileChannel sourceChannel = null;
-        FileChannel targetChannel = null;
-        
-        try {
-            sourceChannel = new FileInputStream(source).getChannel();
-            targetChannel = new FileOutputStream(target).getChannel();
-            
-            long size = sourceChannel.size();
-            long transferred = 0;
-            
-            // 分块传输，避免内存问题
-            final long CHUNK_SIZE = 8 * 1024 * 1024;  // 8MB chunks
-            
-            while (transferred < size) {
-                long remaining = size - transferred;
-                long toTransfer = Math.min(remaining, CHUNK_SIZE);
-                long actualTransferred = sourceChannel.transferTo(transferred, toTransfer, targetChannel);
-                
-                if (actualTransferred == 0) {
-                    // 传输停滞，可能有问题
-                    AppLog.w(TAG, "Transfer stalled at " + transferred + "/" + size);
-                    break;
+    private long backoffVolumeLocked(String volumeKey) {
+        VolumeState volume = volumeStates.get(volumeKey);
+        if (volume == null) {
+            volume = new VolumeState();
+            volumeStates.put(volumeKey, volume);
+        }
+        volume.consecutiveFailures++;
+        int shift = Math.min(volume.consecutiveFailures - 1, 10);
+        long delayMs = Math.min(RETRY_BASE_DELAY_MS << shift, RETRY_MAX_DELAY_MS);
+        volume.nextAttemptMs = System.currentTimeMillis() + delayMs;
+        return delayMs;
+    }
+    
+    private void enqueueLocked(TransferTask task) {
+        transferQueue.add(task);
+        pendingBySource.put(task.sourceFile.getAbsolutePath(), task);
+        bytesInFlight.addAndGet(task.size);
+    }
+    
+    /**
+     * 任务结束（成功或放弃）：移出未完成列表并在日志中标记
+     */
+    private void completeTask(TransferTask task) {
+        synchronized (queueLock) {
+            String key = task.sourceFile.getAbsolutePath();
+            if (pendingBySource.remove(key) != null) {
+                bytesInFlight.addAndGet(-task.size);
+                appendJournal(OP_DONE + "\t" + key);
+            }
+        }
+    }
+    
+    // ===== 传输日志 =====
+    
+    /**
+     * 重放传输日志，恢复源文件仍然存在的未完成任务（持有 queueLock 时调用）
+     * @return 恢复的任务数
+     */
+    private int replayJournal() {
+        if (!journalFile.exists()) {
+            return 0;
+        }
+        Map<String, String[]> queued = new HashMap<>();
+        List<String> order = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(journalFile), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split("\t", -1);
+                if (parts.length >= 4 && parts[0].equals(String.valueOf(OP_QUEUED))) {
+                    if (queued.put(parts[2], parts) == null) {
+                        order.add(parts[2]);
+                    }
+                } else if (parts.length >= 2 && parts[0].equals(String.valueOf(OP_DONE))) {
+                    queued.remove(parts[1]);
                 }
-                
-                transferred += actualTransferred;
+                // 无法解析的行（如写入中断的最后一行）直接跳过
             }
-            
-            return transferred == size;
-            
         } catch (IOException e) {
-            AppLog.e(TAG, "Error copying file: " + source.getName(), e);
-            
-            // 删除可能不完整的目标文件
-            if (target.exists()) {
-                target.delete();
+            AppLog.e(TAG, "Failed to read transfer journal", e);
+            return 0;
+        }
+        
+        int recovered = 0;
+        for (String source : order) {
+            String[] parts = queued.get(source);
+            if (parts == null || pendingBySource.containsKey(source)) {
+                continue;
             }
-            
-            return false;
-        } finally {
+            File sourceFile = new File(source);
+            if (!sourceFile.exists()) {
+                continue;
+            }
+            int priority;
             try {
-                if (sourceChannel != null) sourceChannel.close();
-                if (targetChannel != null) targetChannel.close();
-            } catch (IOException e) {
-                // Ignore
+                priority = Integer.parseInt(parts[1]);
+            } catch (NumberFormatException e) {
+                priority = PRIORITY_LOW;
+            }
+            enqueueLocked(new TransferTask(sourceFile, new File(parts[3]), null, priority, nextSequence++));
+            recovered++;
+            AppLog.d(TAG, "Recovered transfer task: " + sourceFile.getName() + " -> " + parts[3]);
+        }
+        return recovered;
+    }
+    
+    /**
+     * 把未完成的任务重写为新日志（持有 queueLock 时调用）
+     */
+    private void compactJournal() {
+        File tmp = new File(journalFile.getPath() + ".tmp");
+        List<TransferTask> tasks = new ArrayList<>(pendingBySource.values());
+        tasks.sort(TASK_ORDER);
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(tmp), StandardCharsets.UTF_8))) {
+            for (TransferTask task : tasks) {
+                writer.write(formatQueued(task));
+                writer.write('\n');
             }
+        } catch (IOException e) {
+            AppLog.e(TAG, "Failed to write transfer journal", e);
+            tmp.delete();
+            return;
         }
+        if (!tmp.renameTo(journalFile)) {
+            AppLog.e(TAG, "Failed to replace transfer journal");
+            tmp.delete();
+            return;
+        }
+        journalLines = tasks.size();
+    }
+    
+    /**
+     * 追加日志（持有 queueLock 时调用），行数过多时压缩
+     */
+    private void appendJournal(String line) {
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(journalFile, true), StandardCharsets.UTF_8)) {
+            writer.write(line);
+            writer.write('\n');
+        } catch (IOException e) {
+            AppLog.e(TAG, "Failed to append transfer journal", e);
+            return;
+        }
+        journalLines++;
+        if (journalLines > Math.max(MIN_COMPACT_JOURNAL_LINES, pendingBySource.size() * 2)) {
+            compactJournal();
+        }
+    }
+    
+    private static String formatQueued(TransferTask task) {
+        return OP_QUEUED + "\t" + task.priority + "\t" + task.sourceFile.getAbsolutePath() + "\t"
+                + task.targetFile.getAbsolutePath();
+    }
+    
+    /**
+     * 目标卷标识：/storage/<卷>（内部存储为 /storage/emulated/<用户>）或 /mnt/media_rw/<卷>，其他路径使用目标目录
+     */
+    private static String volumeKeyOf(File target) {
+        String[] parts = target.getAbsolutePath().split("/");
+        if (parts.length > 3 && "storage".equals(parts[1])) {
+            if ("emulated".equals(parts[2]) && parts.length > 4) {
+                return "/storage/emulated/" + parts[3];
+            }
+            return "/storage/" + parts[2];
+        }
+        if (parts.length > 4 && "mnt".equals(parts[1]) && "media_rw".equals(parts[2])) {
+            return "/mnt/media_rw/" + parts[3];
+        }
+        File parent = target.getParentFile();
+        return parent != null ? parent.getAbsolutePath() : target.getAbsolutePath();
+    }
+    
+    /**
+     * 复制文件（由 RelayIoScheduler 限速，避免与正在录制的写入争抢带宽）
+     * 复制完成后回读校验，通过后写入校验旁路文件（见 SegmentChecksum）
+     */
+    private boolean copyFile(File source, File target) {
+        AppConfig appConfig = new AppConfig(context);
+        RelayIoScheduler scheduler = RelayIoScheduler.getInstance();
+        scheduler.configure(appConfig.getRelayCopyPolicy(), appConfig.getRelayCopyMaxRateMb() * 1024L * 1024L);
+        return scheduler.copy(source, target);
     }
     
     /**
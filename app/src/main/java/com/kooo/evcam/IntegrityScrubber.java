@@ -0,0 +1,229 @@
+package com.kooo.evcam;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 视频完整性巡检器
+ *
+ * - 封存（seal）：直接写入最终目录的分段完成后，在独立线程上计算 CRC32C 并写入旁路文件
+ *   （分段刚写完，数据仍在页缓存中）
+ * - 巡检（scrub，需在设置中启用）：由存储清理任务每小时触发一次，按限速回读已归档的视频并与旁路文件比对，
+ *   优先检查最久未校验的文件（旁路文件的修改时间即上次校验通过的时间），每个文件最多每7天检查一次，
+ *   单次巡检最长30分钟；同时清理视频已被删除的旁路文件
+ *
+ * 封存和巡检使用两个线程，限速巡检读取大文件时不会推迟新分段的封存
+ */
+public class IntegrityScrubber {
+    private static final String TAG = "IntegrityScrubber";
+
+    private static final long REVERIFY_INTERVAL_MS = 7 * 24 * 60 * 60 * 1000L;  // 同一文件的巡检间隔
+    private static final long MAX_PASS_MS = 30 * 60 * 1000L;                     // 单次巡检最长时间
+    private static final long MB_TO_BYTES = 1024L * 1024L;
+
+    private static IntegrityScrubber instance;
+
+    private final Context context;
+    private final AppConfig appConfig;
+    private HandlerThread sealThread;
+    private Handler sealHandler;
+    private HandlerThread scrubThread;
+    private Handler scrubHandler;
+
+    // 以下字段只在巡检线程上访问
+    private boolean scrubbing = false;
+    private final ArrayDeque<File> pendingVideos = new ArrayDeque<>();
+    private long passStartMs;
+    private long paceRateBytesPerSec;
+    private long paceStartNs;
+    private long paceBytes;
+    private final SegmentChecksum.Pacer pacer = this::pace;
+
+    // 统计
+    private volatile int sealedCount = 0;
+    private volatile int verifiedCount = 0;
+    private volatile int corruptCount = 0;
+    private volatile int orphanCount = 0;
+    private volatile String lastCorruptFile;
+
+    private IntegrityScrubber(Context context) {
+        this.context = context.getApplicationContext();
+        this.appConfig = new AppConfig(this.context);
+    }
+
+    /**
+     * 获取单例实例
+     */
+    public static synchronized IntegrityScrubber getInstance(Context context) {
+        if (instance == null) {
+            instance = new IntegrityScrubber(context);
+        }
+        return instance;
+    }
+
+    /**
+     * 封存一个已完成的分段（任意线程调用，在封存线程上计算）
+     */
+    public void sealAsync(File video) {
+        if (video == null) {
+            return;
+        }
+        getSealHandler().post(() -> {
+            if (video.isFile() && SegmentChecksum.seal(video)) {
+                sealedCount++;
+            }
+        });
+    }
+
+    /**
+     * 启动一次巡检（已启用且没有正在进行的巡检时）
+     */
+    public void scrubIfDue() {
+        if (!appConfig.isIntegrityScrubEnabled()) {
+            return;
+        }
+        getScrubHandler().post(this::startPass);
+    }
+
+    /**
+     * 获取统计信息
+     */
+    public String getStats() {
+        return "sealed=" + sealedCount + ", verified=" + verifiedCount + ", corrupt=" + corruptCount
+                + ", orphans=" + orphanCount + (lastCorruptFile != null ? ", lastCorrupt=" + lastCorruptFile : "");
+    }
+
+    private synchronized Handler getSealHandler() {
+        if (sealHandler == null) {
+            sealThread = new HandlerThread("SegmentSeal");
+            sealThread.start();
+            sealHandler = new Handler(sealThread.getLooper());
+        }
+        return sealHandler;
+    }
+
+    private synchronized Handler getScrubHandler() {
+        if (scrubHandler == null) {
+            scrubThread = new HandlerThread("IntegrityScrub");
+            scrubThread.start();
+            scrubHandler = new Handler(scrubThread.getLooper());
+        }
+        return scrubHandler;
+    }
+
+    /**
+     * 收集需要巡检的视频并开始逐个检查（在巡检线程上执行）
+     */
+    private void startPass() {
+        if (scrubbing) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        List<File> sidecars = new ArrayList<>();
+        collectSidecars(StorageHelper.getVideoDir(context), now, sidecars);
+        collectSidecars(StorageHelper.getEventVideoDir(context), now, sidecars);
+        if (sidecars.isEmpty()) {
+            return;
+        }
+
+        // 最久未校验的优先
+        Collections.sort(sidecars, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+        pendingVideos.clear();
+        for (File sidecar : sidecars) {
+            pendingVideos.add(SegmentChecksum.videoFor(sidecar));
+        }
+        scrubbing = true;
+        passStartMs = now;
+        AppLog.d(TAG, "开始校验巡检: " + pendingVideos.size() + " 个文件待检查");
+        scrubNext();
+    }
+
+    /**
+     * 列出存储目录（包括日期分目录）中到期需要巡检的旁路文件，同时删除视频已不存在的旁路文件
+     */
+    private void collectSidecars(File videoRoot, long now, List<File> out) {
+        StorageHelper.walkMediaDirs(videoRoot, (dir, prefix, names) -> {
+            for (String name : names) {
+                if (SegmentChecksum.SIDECAR_DIR_NAME.equals(name)) {
+                    collectSidecarDir(new File(dir, name), now, out);
+                    break;
+                }
+            }
+        });
+    }
+
+    private void collectSidecarDir(File sidecarDir, long now, List<File> out) {
+        File[] files = sidecarDir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File sidecar : files) {
+            File video = SegmentChecksum.videoFor(sidecar);
+            if (video == null || !video.exists()) {
+                if (sidecar.delete()) {
+                    orphanCount++;
+                }
+                continue;
+            }
+            if (now - sidecar.lastModified() >= REVERIFY_INTERVAL_MS) {
+                out.add(sidecar);
+            }
+        }
+    }
+
+    /**
+     * 检查下一个文件（在巡检线程上执行），每个文件一条消息
+     */
+    private void scrubNext() {
+        File video = pendingVideos.poll();
+        if (video == null || !appConfig.isIntegrityScrubEnabled()
+                || System.currentTimeMillis() - passStartMs > MAX_PASS_MS) {
+            finishPass();
+            return;
+        }
+
+        paceRateBytesPerSec = Math.max(1, appConfig.getIntegrityScrubRateMb()) * MB_TO_BYTES;
+        paceStartNs = System.nanoTime();
+        paceBytes = 0;
+        SegmentChecksum.Result result = SegmentChecksum.verify(video, pacer);
+        switch (result) {
+            case VERIFIED:
+                verifiedCount++;
+                SegmentChecksum.sidecarFor(video).setLastModified(System.currentTimeMillis());
+                break;
+            case MISMATCH:
+                corruptCount++;
+                lastCorruptFile = video.getName();
+                AppLog.e(TAG, "巡检发现损坏的视频: " + video.getAbsolutePath());
+                break;
+            default:
+                break;
+        }
+        scrubHandler.post(this::scrubNext);
+    }
+
+    private void finishPass() {
+        AppLog.d(TAG, "校验巡检结束（剩余 " + pendingVideos.size() + " 个下次继续）: " + getStats());
+        pendingVideos.clear();
+        scrubbing = false;
+    }
+
+    /**
+     * 按巡检速率限速：读取进度超前时休眠
+     */
+    private void pace(int bytes) throws InterruptedException {
+        paceBytes += bytes;
+        long expectedNs = paceBytes * 1_000_000_000L / paceRateBytesPerSec;
+        long aheadMs = (expectedNs - (System.nanoTime() - paceStartNs)) / 1_000_000;
+        if (aheadMs > 0) {
+            Thread.sleep(aheadMs);
+        }
+    }
+}
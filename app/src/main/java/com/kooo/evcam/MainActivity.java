@@ -217,6 +217,7 @@ public class MainActivity extends AppCompatActivity {
     
     // 存储清理管理器
     private StorageCleanupManager storageCleanupManager;
+    private VideoRepairManager videoRepairManager;
     
     // 远程命令分发器（重构后的统一入口）
     private RemoteCommandDispatcher remoteCommandDispatcher;
@@ -421,8 +422,14 @@ public class MainActivity extends AppCompatActivity {
         storageCleanupManager = new StorageCleanupManager(this);
         storageCleanupManager.start();
         
-        // 启动文件传输服务（用于U盘中转写入模式）
-        FileTransferManager.getInstance(this).start();
+        // 后台修复上次中断录制留下的截断视频
+        // 中转临时目录修复完成后再启动文件传输服务（用于U盘中转写入模式），避免传输修复前的文件
+        Context appContext = getApplicationContext();
+        videoRepairManager = new VideoRepairManager(this);
+        videoRepairManager.start(() -> FileTransferManager.getInstance(appContext).start());
+
+        // 录制存储没有测速结果时在空闲时自动测速（U盘挂载时也会检查）
+        StorageBenchmark.getInstance(this).start();
 
         // 检查是否是开机自启动
         boolean autoStartFromBoot = getIntent().getBooleanExtra("auto_start_from_boot", false);
@@ -1534,6 +1541,13 @@ public class MainActivity extends AppCompatActivity {
                     cameraManager.clearSegmentDurationOverride();
                 }
             }
+            
+            @Override
+            public void triggerEventCapture(String reason) {
+                if (cameraManager != null) {
+                    cameraManager.triggerEventCapture(reason);
+                }
+            }
         });
         
         // 设置录制状态监听器
@@ -4791,6 +4805,11 @@ public class MainActivity extends AppCompatActivity {
             storageCleanupManager.stop();
         }
         
+        // 停止视频修复任务
+        if (videoRepairManager != null) {
+            videoRepairManager.stop();
+        }
+
         // 停止文件传输服务
         FileTransferManager.getInstance(this).stop();
 
@@ -0,0 +1,267 @@
+package com.kooo.evcam;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * 媒体目录数据库
+ * StorageIndex 的持久化存储：每个存储根目录下每个文件一行，记录大小、开始/结束时间、摄像头位置、
+ * 分段元数据（时长、分辨率、编码格式、关键帧数）和保护/事件标记
+ *
+ * - 主键为（存储根目录, 相对路径），时间和摄像头各有一个索引，按时间段/摄像头查询不扫描整表
+ * - 启用 WAL，录制回调写入时不阻塞回放界面和远程命令的查询
+ * - 批量修改（对账、重建）在一个事务中执行
+ * - 关键帧索引（Mp4RecoveryEngine.KeyFrameIndex 的编码）单独存放在 keyframe_index 表中，
+ *   加载目录时不读取，回放跳转时按文件读取；删除条目时一并删除
+ *
+ * 只由 StorageIndex 访问（内存中的索引是清理规划的工作副本，修改时同步写入数据库）
+ */
+class MediaDatabase extends SQLiteOpenHelper {
+    private static final String TAG = "MediaDatabase";
+
+    private static final String DB_NAME = "media_catalog.db";
+    private static final int DB_VERSION = 1;
+
+    private static final String TABLE = "media";
+    private static final String KEYFRAME_TABLE = "keyframe_index";
+    private static final String COLUMNS = "root, name, camera, start_time, end_time, duration_ms, size, "
+            + "width, height, codec, keyframes, flags";
+
+    static final int FLAG_PROTECTED = 1;  // 受保护（不会被清理选中）
+    static final int FLAG_EVENT = 2;      // 事件片段
+    static final int FLAG_PROBED = 4;     // 已读取分段元数据
+
+    private static MediaDatabase instance;
+
+    static synchronized MediaDatabase getInstance(Context context) {
+        if (instance == null) {
+            instance = new MediaDatabase(context.getApplicationContext(), DB_NAME);
+        }
+        return instance;
+    }
+
+    /**
+     * @param name 数据库文件名（测试使用独立的文件，应用内使用 getInstance()）
+     */
+    MediaDatabase(Context context, String name) {
+        super(context, name, null, DB_VERSION);
+        setWriteAheadLoggingEnabled(true);
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE + " ("
+                + "root TEXT NOT NULL, "
+                + "name TEXT NOT NULL, "
+                + "camera TEXT, "
+                + "start_time INTEGER NOT NULL, "
+                + "end_time INTEGER NOT NULL, "
+                + "duration_ms INTEGER NOT NULL DEFAULT 0, "
+                + "size INTEGER NOT NULL, "
+                + "width INTEGER NOT NULL DEFAULT 0, "
+                + "height INTEGER NOT NULL DEFAULT 0, "
+                + "codec TEXT, "
+                + "keyframes INTEGER NOT NULL DEFAULT 0, "
+                + "flags INTEGER NOT NULL DEFAULT 0, "
+                + "PRIMARY KEY (root, name))");
+        db.execSQL("CREATE INDEX media_time ON " + TABLE + " (root, start_time)");
+        db.execSQL("CREATE INDEX media_camera ON " + TABLE + " (root, camera, start_time)");
+        db.execSQL("CREATE TABLE " + KEYFRAME_TABLE + " ("
+                + "root TEXT NOT NULL, "
+                + "name TEXT NOT NULL, "
+                + "data BLOB NOT NULL, "
+                + "PRIMARY KEY (root, name))");
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        // 数据库内容可以从目录重建
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE);
+        db.execSQL("DROP TABLE IF EXISTS " + KEYFRAME_TABLE);
+        onCreate(db);
+    }
+
+    /**
+     * 读取存储根目录的所有条目
+     */
+    List<StorageIndex.Entry> loadEntries(String root) {
+        try (Cursor cursor = getReadableDatabase().rawQuery(
+                "SELECT " + COLUMNS + " FROM " + TABLE + " WHERE root = ?", new String[]{root})) {
+            return readEntries(cursor);
+        }
+    }
+
+    /**
+     * 按时间段和摄像头查询（使用 media_time / media_camera 索引）
+     * @param fromMs 开始时间下限（含）
+     * @param toMs 开始时间上限（不含）
+     * @param camera 摄像头位置，为 null 时不限
+     * @return 条目（按开始时间从旧到新）
+     */
+    List<StorageIndex.Entry> query(String root, long fromMs, long toMs, String camera) {
+        String sql = "SELECT " + COLUMNS + " FROM " + TABLE + " WHERE root = ?"
+                + (camera != null ? " AND camera = ?" : "")
+                + " AND start_time >= ? AND start_time < ? ORDER BY start_time, name";
+        String[] args = camera != null
+                ? new String[]{root, camera, Long.toString(fromMs), Long.toString(toMs)}
+                : new String[]{root, Long.toString(fromMs), Long.toString(toMs)};
+        try (Cursor cursor = getReadableDatabase().rawQuery(sql, args)) {
+            return readEntries(cursor);
+        }
+    }
+
+    /**
+     * 新增或更新条目（批量时在一个事务中执行）
+     */
+    void upsertAll(String root, Collection<StorageIndex.Entry> entries) {
+        if (entries.isEmpty()) {
+            return;
+        }
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try (SQLiteStatement statement = db.compileStatement("INSERT OR REPLACE INTO " + TABLE + " (" + COLUMNS
+                + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)")) {
+            for (StorageIndex.Entry entry : entries) {
+                bind(statement, root, entry);
+                statement.executeInsert();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    void upsert(String root, StorageIndex.Entry entry) {
+        ContentValues values = new ContentValues();
+        values.put("root", root);
+        values.put("name", entry.name);
+        values.put("camera", entry.camera);
+        values.put("start_time", entry.startTimeMs);
+        values.put("end_time", entry.getEndTimeMs());
+        values.put("duration_ms", entry.durationMs);
+        values.put("size", entry.size);
+        values.put("width", entry.width);
+        values.put("height", entry.height);
+        values.put("codec", entry.codec);
+        values.put("keyframes", entry.keyFrameCount);
+        values.put("flags", getFlags(entry));
+        getWritableDatabase().insertWithOnConflict(TABLE, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+    }
+
+    /**
+     * 保存文件的关键帧索引
+     */
+    void putKeyFrames(String root, String name, byte[] data) {
+        ContentValues values = new ContentValues();
+        values.put("root", root);
+        values.put("name", name);
+        values.put("data", data);
+        getWritableDatabase().insertWithOnConflict(KEYFRAME_TABLE, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+    }
+
+    /**
+     * 读取文件的关键帧索引
+     * @return 编码后的索引，没有时返回 null
+     */
+    byte[] loadKeyFrames(String root, String name) {
+        try (Cursor cursor = getReadableDatabase().rawQuery("SELECT data FROM " + KEYFRAME_TABLE
+                + " WHERE root = ? AND name = ?", new String[]{root, name})) {
+            return cursor.moveToFirst() ? cursor.getBlob(0) : null;
+        }
+    }
+
+    /**
+     * 删除条目（批量时在一个事务中执行）
+     */
+    void deleteAll(String root, Collection<String> names) {
+        if (names.isEmpty()) {
+            return;
+        }
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try (SQLiteStatement statement = db.compileStatement("DELETE FROM " + TABLE + " WHERE root = ? AND name = ?");
+             SQLiteStatement keyFrames = db.compileStatement("DELETE FROM " + KEYFRAME_TABLE
+                     + " WHERE root = ? AND name = ?")) {
+            for (String name : names) {
+                statement.bindString(1, root);
+                statement.bindString(2, name);
+                statement.executeUpdateDelete();
+                keyFrames.bindString(1, root);
+                keyFrames.bindString(2, name);
+                keyFrames.executeUpdateDelete();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    void delete(String root, String name) {
+        SQLiteDatabase db = getWritableDatabase();
+        db.delete(TABLE, "root = ? AND name = ?", new String[]{root, name});
+        db.delete(KEYFRAME_TABLE, "root = ? AND name = ?", new String[]{root, name});
+    }
+
+    /**
+     * 删除存储根目录的所有条目（重建目录时使用）
+     */
+    void deleteRoot(String root) {
+        SQLiteDatabase db = getWritableDatabase();
+        db.delete(TABLE, "root = ?", new String[]{root});
+        db.delete(KEYFRAME_TABLE, "root = ?", new String[]{root});
+    }
+
+    private static void bind(SQLiteStatement statement, String root, StorageIndex.Entry entry) {
+        statement.clearBindings();
+        statement.bindString(1, root);
+        statement.bindString(2, entry.name);
+        if (entry.camera != null) {
+            statement.bindString(3, entry.camera);
+        }
+        statement.bindLong(4, entry.startTimeMs);
+        statement.bindLong(5, entry.getEndTimeMs());
+        statement.bindLong(6, entry.durationMs);
+        statement.bindLong(7, entry.size);
+        statement.bindLong(8, entry.width);
+        statement.bindLong(9, entry.height);
+        if (entry.codec != null) {
+            statement.bindString(10, entry.codec);
+        }
+        statement.bindLong(11, entry.keyFrameCount);
+        statement.bindLong(12, getFlags(entry));
+    }
+
+    private static int getFlags(StorageIndex.Entry entry) {
+        return (entry.isProtected ? FLAG_PROTECTED : 0) | (entry.isEvent ? FLAG_EVENT : 0)
+                | (entry.probed ? FLAG_PROBED : 0);
+    }
+
+    /**
+     * 按 COLUMNS 的列顺序读取条目（root 列不读取）
+     */
+    private static List<StorageIndex.Entry> readEntries(Cursor cursor) {
+        List<StorageIndex.Entry> entries = new ArrayList<>(cursor.getCount());
+        while (cursor.moveToNext()) {
+            int flags = cursor.getInt(11);
+            StorageIndex.Entry entry = new StorageIndex.Entry(cursor.getString(1), cursor.getLong(6), cursor.getLong(3),
+                    cursor.isNull(2) ? null : cursor.getString(2), (flags & FLAG_PROTECTED) != 0);
+            entry.isEvent = (flags & FLAG_EVENT) != 0;
+            entry.probed = (flags & FLAG_PROBED) != 0;
+            entry.durationMs = cursor.getLong(5);
+            entry.width = cursor.getInt(7);
+            entry.height = cursor.getInt(8);
+            entry.codec = cursor.isNull(9) ? null : cursor.getString(9);
+            entry.keyFrameCount = cursor.getInt(10);
+            entries.add(entry);
+        }
+        return entries;
+    }
+}
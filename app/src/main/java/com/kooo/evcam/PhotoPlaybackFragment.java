@@ -20,7 +20,6 @@ import com.google.android.material.dialog.MaterialAlertDialogBuilder;
 
 import java.io.File;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashSet;
@@ -129,12 +128,12 @@ public class PhotoPlaybackFragment extends Fragment {
         // 获取保存目录
         File saveDir = StorageHelper.getPhotoDir(getContext());
         if (saveDir.exists() && saveDir.isDirectory()) {
-            File[] files = saveDir.listFiles((dir, name) -> {
+            List<File> files = StorageHelper.listMediaFiles(saveDir, (dir, name) -> {
                 String lowerName = name.toLowerCase();
                 return lowerName.endsWith(".jpg") || lowerName.endsWith(".jpeg") || lowerName.endsWith(".png");
             });
-            if (files != null && files.length > 0) {
-                photoFiles.addAll(Arrays.asList(files));
+            if (!files.isEmpty()) {
+                photoFiles.addAll(files);
 
                 // 按修改时间倒序排序（最新的在前）
                 Collections.sort(photoFiles, new Comparator<File>() {
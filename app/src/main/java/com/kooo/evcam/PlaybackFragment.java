@@ -20,7 +20,6 @@ import com.google.android.material.dialog.MaterialAlertDialogBuilder;
 
 import java.io.File;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashSet;
@@ -129,9 +128,9 @@ public class PlaybackFragment extends Fragment {
         // 获取保存目录
         File saveDir = StorageHelper.getVideoDir(getContext());
         if (saveDir.exists() && saveDir.isDirectory()) {
-            File[] files = saveDir.listFiles((dir, name) -> name.toLowerCase().endsWith(".mp4"));
-            if (files != null && files.length > 0) {
-                videoFiles.addAll(Arrays.asList(files));
+            List<File> files = StorageHelper.listMediaFiles(saveDir, (dir, name) -> name.toLowerCase().endsWith(".mp4"));
+            if (!files.isEmpty()) {
+                videoFiles.addAll(files);
 
                 // 按修改时间倒序排序（最新的在前）
                 Collections.sort(videoFiles, new Comparator<File>() {
@@ -220,6 +219,8 @@ public class PlaybackFragment extends Fragment {
                         if (position < videoFiles.size()) {
                             File file = videoFiles.get(position);
                             if (file.delete()) {
+                                SegmentChecksum.deleteSidecar(file);
+                                VideoThumbnail.deleteSidecar(file);
                                 videoFiles.remove((int) position);
                                 deletedCount++;
                             }
@@ -0,0 +1,337 @@
+package com.kooo.evcam;
+
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * 中转复制 I/O 调度器
+ * U盘重新连接后积压的中转文件集中复制时，会和正在录制的 Muxer 争抢同一个设备的写入带宽，导致录制掉帧。
+ * 本调度器对中转复制做限速：
+ *
+ * - 令牌桶限速：每次写入一个大块（顺序写，1MB）前先取得对应字节数的令牌
+ * - 自适应速率（adaptive 策略）：录制器在文件大小检查时上报最近的写入延迟，
+ *   延迟过高时速率减半，延迟恢复后逐步提高（AIMD）；没有录制器上报时不限速
+ * - 分段切换时暂停复制一小段时间，让新分段的文件创建和文件头写入优先完成
+ * - 每写入一定数据量调用一次 force()，避免大量脏页集中回写造成长时间阻塞
+ * - 复制时计算 CRC32C，完成后回读目标文件校验，通过后才算复制成功（源文件随后才会被删除）
+ *
+ * 复制只在 FileTransferManager 的传输线程上执行；上报和暂停可在任意线程调用
+ */
+public class RelayIoScheduler {
+    private static final String TAG = "RelayIoScheduler";
+
+    // 限速策略
+    public static final String POLICY_ADAPTIVE = "adaptive";    // 按录制写入延迟自动调整（不超过最大速率）
+    public static final String POLICY_FIXED = "fixed";          // 固定最大速率
+    public static final String POLICY_UNLIMITED = "unlimited";  // 不限速（与原来的行为一致）
+
+    private static final int CHUNK_BYTES = 1024 * 1024;                    // 单次顺序写入大小
+    private static final long FORCE_INTERVAL_BYTES = 32L * 1024 * 1024;    // 每写入 32MB 落盘一次
+    private static final long MIN_RATE_BYTES_PER_SEC = 512L * 1024;        // 自适应速率下限
+    private static final long HIGH_LATENCY_MS = 100;       // 录制写入延迟高于此值时降速
+    private static final long LOW_LATENCY_MS = 40;         // 低于此值时逐步提速
+    private static final long ADJUST_INTERVAL_MS = 1000;   // 两次调整速率的最小间隔
+    private static final long REPORT_TTL_MS = 15000;       // 超过此时间没有上报的录制器视为已停止
+    private static final long ROLLOVER_PAUSE_MS = 2000;    // 分段切换时暂停复制的时长
+
+    private static final RelayIoScheduler instance = new RelayIoScheduler();
+
+    // 以下状态由 this 保护
+    private String policy = POLICY_ADAPTIVE;
+    private long maxRateBytesPerSec = 10L * 1024 * 1024;
+    private long currentRateBytesPerSec = maxRateBytesPerSec;
+    private double tokens = 0;
+    private long lastRefillNs = 0;
+    private long pausedUntilMs = 0;
+    private long lastAdjustMs = 0;
+    private final Map<String, long[]> latencyReports = new HashMap<>();  // 来源 -> {延迟ms, 上报时间}
+
+    // 统计
+    private long throttledNs = 0;
+    private long rateDecreaseCount = 0;
+    private long rolloverPauseCount = 0;
+
+    private volatile long verifyFailureCount = 0;
+
+    // 复制缓冲区和校验器（只在传输线程上使用）
+    private ByteBuffer copyBuffer;
+    private final Crc32c copyCrc = new Crc32c();
+    private final Crc32c verifyCrc = new Crc32c();
+
+    /**
+     * 单元测试可以创建独立实例，应用内使用 getInstance()
+     */
+    RelayIoScheduler() {
+    }
+
+    public static RelayIoScheduler getInstance() {
+        return instance;
+    }
+
+    /**
+     * 设置限速策略
+     * @param policy 策略（POLICY_ADAPTIVE/FIXED/UNLIMITED）
+     * @param maxRateBytesPerSec 最大速率（字节/秒）
+     */
+    public synchronized void configure(String policy, long maxRateBytesPerSec) {
+        long maxRate = Math.max(MIN_RATE_BYTES_PER_SEC, maxRateBytesPerSec);
+        if (!policy.equals(this.policy) || maxRate != this.maxRateBytesPerSec) {
+            this.policy = policy;
+            this.maxRateBytesPerSec = maxRate;
+            this.currentRateBytesPerSec = maxRate;
+            AppLog.d(TAG, "Relay copy policy: " + policy + ", max " + formatRate(maxRate));
+        }
+    }
+
+    /**
+     * 录制器上报最近一个检查周期内的最大写入延迟（文件大小检查时调用）
+     * @param source 来源（摄像头 ID）
+     * @param latencyMs 写入延迟（毫秒）
+     */
+    public synchronized void reportWriteLatency(String source, long latencyMs) {
+        long now = System.currentTimeMillis();
+        latencyReports.put(source, new long[]{latencyMs, now});
+        if (!POLICY_ADAPTIVE.equals(policy) || now - lastAdjustMs < ADJUST_INTERVAL_MS) {
+            return;
+        }
+
+        long worst = getWorstLatencyLocked(now);
+        if (worst > HIGH_LATENCY_MS) {
+            long newRate = Math.max(MIN_RATE_BYTES_PER_SEC, currentRateBytesPerSec / 2);
+            if (newRate != currentRateBytesPerSec) {
+                AppLog.d(TAG, "Recording write latency " + worst + "ms, relay copy rate -> " + formatRate(newRate));
+                currentRateBytesPerSec = newRate;
+                rateDecreaseCount++;
+            }
+            lastAdjustMs = now;
+        } else if (worst < LOW_LATENCY_MS && currentRateBytesPerSec < maxRateBytesPerSec) {
+            currentRateBytesPerSec = Math.min(maxRateBytesPerSec, currentRateBytesPerSec + maxRateBytesPerSec / 10);
+            lastAdjustMs = now;
+        }
+    }
+
+    /**
+     * 是否有录制器在最近上报过写入延迟（即正在录制）
+     */
+    public synchronized boolean isRecordingActive() {
+        return getWorstLatencyLocked(System.currentTimeMillis()) >= 0;
+    }
+
+    /**
+     * 分段切换开始时调用：暂停复制一小段时间
+     */
+    public synchronized void onSegmentRollover() {
+        if (POLICY_UNLIMITED.equals(policy)) {
+            return;
+        }
+        pausedUntilMs = System.currentTimeMillis() + ROLLOVER_PAUSE_MS;
+        rolloverPauseCount++;
+    }
+
+    /**
+     * 复制文件（限速，大块顺序写入，定期落盘）
+     * 复制时同时计算源数据的 CRC32C，复制完成后落盘并回读比对，
+     * 一致时写入校验旁路文件（见 SegmentChecksum）
+     * 失败时删除不完整或不一致的目标文件
+     * @return 是否完整复制并通过校验
+     */
+    public boolean copy(File source, File target) {
+        long size = -1;
+        long copied = -1;
+        try (FileInputStream inStream = new FileInputStream(source);
+             FileOutputStream outStream = new FileOutputStream(target)) {
+            FileChannel in = inStream.getChannel();
+            size = in.size();
+            long written = copy(in, outStream.getChannel(), copyCrc);
+            // 落盘失败视为复制失败（posix_fadvise 不是公开 API，回读可能命中页缓存）
+            outStream.getFD().sync();
+            copied = written;
+        } catch (IOException e) {
+            AppLog.e(TAG, "Error copying file: " + source.getName(), e);
+        } catch (InterruptedException e) {
+            AppLog.w(TAG, "Relay copy interrupted: " + source.getName());
+            Thread.currentThread().interrupt();
+        }
+
+        if (copied >= 0) {
+            if (copied != size) {
+                AppLog.w(TAG, "Relay copy incomplete at " + copied + "/" + size + ": " + source.getName());
+            } else if (verifyCopy(target, copyCrc.getValue(), size)) {
+                return true;
+            }
+        }
+        // 删除可能不完整或不一致的目标文件
+        if (target.exists()) {
+            target.delete();
+        }
+        return false;
+    }
+
+    /**
+     * 在两个通道之间复制全部数据，同时计算 CRC32C
+     * @return 复制的字节数
+     */
+    long copy(FileChannel in, FileChannel out, Crc32c crc) throws IOException, InterruptedException {
+        ByteBuffer buffer = getCopyBuffer();
+        long size = in.size();
+        long copied = 0;
+        long sinceForce = 0;
+        crc.reset();
+
+        while (copied < size) {
+            buffer.clear();
+            if (size - copied < buffer.capacity()) {
+                buffer.limit((int) (size - copied));
+            }
+            while (buffer.hasRemaining()) {
+                if (in.read(buffer, copied + buffer.position()) < 0) {
+                    break;
+                }
+            }
+            buffer.flip();
+            if (!buffer.hasRemaining()) {
+                break;  // 源文件被截断
+            }
+            crc.update(buffer);
+            buffer.flip();
+
+            acquire(buffer.remaining());
+            int chunk = buffer.remaining();
+            while (buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+            copied += chunk;
+            sinceForce += chunk;
+
+            if (sinceForce >= FORCE_INTERVAL_BYTES) {
+                out.force(false);
+                sinceForce = 0;
+            }
+        }
+        out.force(false);
+        return copied;
+    }
+
+    /**
+     * 回读目标文件并与复制时计算的校验和比对，一致时写入旁路文件
+     */
+    private boolean verifyCopy(File target, long expectedCrc, long size) {
+        long actualCrc;
+        try (FileInputStream stream = new FileInputStream(target)) {
+            if (stream.getChannel().size() != size) {
+                AppLog.e(TAG, "Relay copy size mismatch after write: " + target.getName());
+                return false;
+            }
+            actualCrc = SegmentChecksum.compute(stream.getChannel(), getCopyBuffer(), verifyCrc, null);
+        } catch (IOException e) {
+            AppLog.e(TAG, "Relay copy read-back failed: " + target.getName(), e);
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        if (actualCrc != expectedCrc) {
+            verifyFailureCount++;
+            AppLog.e(TAG, "Relay copy checksum mismatch: " + target.getName()
+                    + String.format(Locale.US, " (%08x != %08x)", actualCrc, expectedCrc));
+            return false;
+        }
+        if (!SegmentChecksum.write(target, expectedCrc, size)) {
+            AppLog.w(TAG, "Relay copy verified but checksum sidecar not written: " + target.getName());
+        }
+        return true;
+    }
+
+    private ByteBuffer getCopyBuffer() {
+        if (copyBuffer == null) {
+            copyBuffer = ByteBuffer.allocateDirect(CHUNK_BYTES);
+        }
+        return copyBuffer;
+    }
+
+    /**
+     * 当前生效的速率（字节/秒），不限速时返回 -1
+     */
+    public synchronized long getEffectiveRate() {
+        return getEffectiveRateLocked(System.currentTimeMillis());
+    }
+
+    public synchronized String getStats() {
+        long rate = getEffectiveRateLocked(System.currentTimeMillis());
+        return "policy=" + policy + ", rate=" + (rate < 0 ? "unlimited" : formatRate(rate))
+                + ", throttled=" + (throttledNs / 1_000_000) + "ms, decreases=" + rateDecreaseCount
+                + ", rolloverPauses=" + rolloverPauseCount + ", verifyFailures=" + verifyFailureCount;
+    }
+
+    /**
+     * 取得写入 bytes 字节的令牌，分段切换暂停期间和令牌不足时阻塞
+     */
+    private synchronized void acquire(int bytes) throws InterruptedException {
+        long startNs = System.nanoTime();
+        while (true) {
+            long now = System.currentTimeMillis();
+            if (pausedUntilMs > now) {
+                wait(pausedUntilMs - now);
+                continue;
+            }
+            long rate = getEffectiveRateLocked(now);
+            long nowNs = System.nanoTime();
+            if (rate < 0) {
+                lastRefillNs = nowNs;
+                break;
+            }
+            // 桶容量为一个写入块，空闲后不会积攒出突发写入
+            if (lastRefillNs == 0) {
+                lastRefillNs = nowNs;
+            }
+            tokens = Math.min(CHUNK_BYTES, tokens + (nowNs - lastRefillNs) / 1e9 * rate);
+            lastRefillNs = nowNs;
+            if (tokens >= bytes) {
+                tokens -= bytes;
+                break;
+            }
+            long waitMs = (long) Math.ceil((bytes - tokens) * 1000.0 / rate);
+            wait(Math.max(1, waitMs));
+        }
+        throttledNs += System.nanoTime() - startNs;
+    }
+
+    /**
+     * 当前速率（持有锁时调用），不限速时返回 -1
+     */
+    private long getEffectiveRateLocked(long now) {
+        if (POLICY_UNLIMITED.equals(policy)) {
+            return -1;
+        }
+        if (POLICY_FIXED.equals(policy)) {
+            return maxRateBytesPerSec;
+        }
+        // 自适应：没有录制器上报时不存在争用，不限速
+        return getWorstLatencyLocked(now) < 0 ? -1 : currentRateBytesPerSec;
+    }
+
+    /**
+     * 最近上报的最大写入延迟（持有锁时调用），没有有效上报时返回 -1
+     */
+    private long getWorstLatencyLocked(long now) {
+        long worst = -1;
+        for (long[] report : latencyReports.values()) {
+            if (now - report[1] <= REPORT_TTL_MS) {
+                worst = Math.max(worst, report[0]);
+            }
+        }
+        return worst;
+    }
+
+    private static String formatRate(long bytesPerSec) {
+        return String.format(Locale.US, "%.1f MB/s", bytesPerSec / (1024.0 * 1024.0));
+    }
+}
@@ -22,6 +22,7 @@ import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.fragment.app.Fragment;
 
+import com.google.android.material.switchmaterial.SwitchMaterial;
 import com.kooo.evcam.camera.ImageAdjustManager;
 
 import java.util.ArrayList;
@@ -59,6 +60,12 @@ public class ResolutionSettingsFragment extends Fragment {
     private List<String> framerateOptions = new ArrayList<>();
     private String selectedFramerateLevel;
     
+    // 存储写入性能
+    private TextView storageBenchmarkText;
+    private SwitchMaterial storageProfileAutoSwitch;
+    private Button storageBenchmarkButton;
+    private Button applyStorageProfileButton;
+    
     // 信息显示
     private TextView currentParamsText;
     private TextView hardwareInfoText;
@@ -112,6 +119,9 @@ public class ResolutionSettingsFragment extends Fragment {
         // 初始化码率选择器
         initBitrateSpinner();
         
+        // 初始化存储写入性能（推荐依赖分辨率和帧率）
+        initStorageBenchmark();
+        
         // 初始化亮度/降噪调节
         initImageAdjust();
 
@@ -148,6 +158,10 @@ public class ResolutionSettingsFragment extends Fragment {
         bitrateDescText = view.findViewById(R.id.tv_bitrate_desc);
         framerateSpinner = view.findViewById(R.id.spinner_framerate);
         framerateDescText = view.findViewById(R.id.tv_framerate_desc);
+        storageBenchmarkText = view.findViewById(R.id.tv_storage_benchmark_result);
+        storageProfileAutoSwitch = view.findViewById(R.id.switch_storage_profile_auto);
+        storageBenchmarkButton = view.findViewById(R.id.btn_storage_benchmark);
+        applyStorageProfileButton = view.findViewById(R.id.btn_apply_storage_profile);
         currentParamsText = view.findViewById(R.id.tv_current_params);
         hardwareInfoText = view.findViewById(R.id.tv_hardware_info);
         
@@ -703,6 +717,126 @@ public class ResolutionSettingsFragment extends Fragment {
         displayCurrentParams();
     }
     
+    // ==================== 存储写入性能 ====================
+    
+    /**
+     * 初始化存储写入性能测试
+     */
+    private void initStorageBenchmark() {
+        if (getContext() == null || storageBenchmarkText == null) {
+            return;
+        }
+        
+        if (storageProfileAutoSwitch != null) {
+            storageProfileAutoSwitch.setChecked(appConfig.isStorageProfileAuto());
+            storageProfileAutoSwitch.setOnCheckedChangeListener((buttonView, isChecked) ->
+                    appConfig.setStorageProfileAuto(isChecked));
+        }
+        if (storageBenchmarkButton != null) {
+            storageBenchmarkButton.setOnClickListener(v -> runStorageBenchmark());
+        }
+        if (applyStorageProfileButton != null) {
+            applyStorageProfileButton.setOnClickListener(v -> applyStorageRecommendation());
+        }
+        
+        displayStorageBenchmark(StorageBenchmark.getInstance(getContext()).getCurrentResult());
+    }
+    
+    /**
+     * 手动测试录制存储
+     */
+    private void runStorageBenchmark() {
+        if (getContext() == null) {
+            return;
+        }
+        StorageBenchmark benchmark = StorageBenchmark.getInstance(getContext());
+        if (benchmark.isRunning()) {
+            Toast.makeText(getContext(), "正在测试，请稍候", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        storageBenchmarkButton.setEnabled(false);
+        storageBenchmarkText.setText("正在测试（约需 10~30 秒）...");
+        benchmark.runAsync((result, error) -> {
+            if (!isAdded()) {
+                return;
+            }
+            storageBenchmarkButton.setEnabled(true);
+            if (result == null) {
+                Toast.makeText(getContext(), error, Toast.LENGTH_SHORT).show();
+                displayStorageBenchmark(StorageBenchmark.getInstance(getContext()).getCurrentResult());
+                return;
+            }
+            displayStorageBenchmark(result);
+        });
+    }
+    
+    /**
+     * 显示测试结果和推荐设置
+     */
+    private void displayStorageBenchmark(StorageBenchmark.Result result) {
+        if (storageBenchmarkText == null) {
+            return;
+        }
+        if (result == null) {
+            storageBenchmarkText.setText("尚未测试");
+            applyStorageProfileButton.setEnabled(false);
+            return;
+        }
+        StorageBenchmark.Recommendation recommendation = StorageBenchmark.recommend(result, getRecordingBaseLoad());
+        String text = "存储: " + result.volumeId + "\n" +
+                String.format(java.util.Locale.getDefault(), "顺序写入: %.1f MB/s\n",
+                        result.seqWriteBytesPerSec / (1024.0 * 1024.0)) +
+                String.format(java.util.Locale.getDefault(), "fsync: P50 %.1fms / P95 %.1fms\n",
+                        result.fsyncP50Us / 1000.0, result.fsyncP95Us / 1000.0) +
+                "小文件: " + result.smallFileOpsPerSec + " 次/秒\n" +
+                "推荐: " + recommendation;
+        storageBenchmarkText.setText(text);
+        applyStorageProfileButton.setEnabled(true);
+    }
+    
+    /**
+     * 录制负载（标准码率、标准帧率下的总码率）：优先使用上次录制时记录的实际值，
+     * 尚未录制过时按目标分辨率和摄像头数量估算
+     */
+    private long getRecordingBaseLoad() {
+        int recorded = appConfig.getRecordingBaseLoad();
+        if (recorded > 0) {
+            return recorded;
+        }
+        int width = 1280;
+        int height = 800;
+        int[] parsed = AppConfig.parseResolution(appConfig.getTargetResolution());
+        if (parsed != null) {
+            width = parsed[0];
+            height = parsed[1];
+        }
+        int cameraCount = Math.max(1, cameraInfoMap.size());
+        return (long) cameraCount * AppConfig.calculateBitrate(width, height, getStandardFrameRate());
+    }
+    
+    /**
+     * 应用推荐的码率和帧率（通过选择器保存，与手动选择相同）
+     */
+    private void applyStorageRecommendation() {
+        if (getContext() == null) {
+            return;
+        }
+        StorageBenchmark.Result result = StorageBenchmark.getInstance(getContext()).getCurrentResult();
+        if (result == null) {
+            return;
+        }
+        StorageBenchmark.Recommendation recommendation = StorageBenchmark.recommend(result, getRecordingBaseLoad());
+        int bitrateIndex = 1;
+        if (AppConfig.BITRATE_LOW.equals(recommendation.bitrateLevel)) {
+            bitrateIndex = 0;
+        } else if (AppConfig.BITRATE_HIGH.equals(recommendation.bitrateLevel)) {
+            bitrateIndex = 2;
+        }
+        bitrateSpinner.setSelection(bitrateIndex);
+        framerateSpinner.setSelection(AppConfig.FRAMERATE_LOW.equals(recommendation.framerateLevel) ? 1 : 0);
+        AppLog.d(TAG, "应用存储推荐设置: " + recommendation);
+    }
+    
     // ==================== 亮度/降噪调节 ====================
     
     /**
@@ -0,0 +1,428 @@
+package com.kooo.evcam;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 分级保留策略规划器
+ * 根据一组可组合的保留策略，计算出应删除的文件列表（只做规划，不访问文件系统）
+ *
+ * 文件分为两级：
+ * - NORMAL：普通循环录制的分段，受最长保留时间、每路摄像头容量、总容量等策略约束
+ * - PROTECTED：事件片段（车门/转向灯/远程录制触发）及手动保护的文件，受独立的事件配额约束；
+ *   同时计入总容量，普通文件删完仍超过总容量上限时才删除最旧的受保护文件
+ *
+ * 规划过程为纯 Java、确定性的：相同的输入（文件列表、当前时间、策略）总是得到相同的结果，
+ * 便于在合成的大规模文件列表上评估耗时。保留类策略（如每小时保留一段）先于删除类策略执行，
+ * 被保留的文件不会被任何删除类策略选中
+ */
+public class RetentionPlanner {
+
+    private static final long HOUR_MS = 60 * 60 * 1000L;
+    private static final long DAY_MS = 24 * HOUR_MS;
+    private static final String NO_CAMERA = "";
+
+    /**
+     * 文件级别
+     */
+    public enum Tier {
+        NORMAL,
+        PROTECTED
+    }
+
+    /**
+     * 参与规划的文件
+     */
+    public static class Item {
+        public final File directory;     // 所在目录（规划本身不使用，供执行删除时定位文件）
+        public final String name;
+        public final String camera;      // 摄像头位置，无法解析时为 null
+        public final long startTimeMs;
+        public final long size;
+        public final Tier tier;
+
+        public Item(File directory, String name, String camera, long startTimeMs, long size, Tier tier) {
+            this.directory = directory;
+            this.name = name;
+            this.camera = camera;
+            this.startTimeMs = startTimeMs;
+            this.size = size;
+            this.tier = tier;
+        }
+    }
+
+    /**
+     * 保留策略
+     */
+    public interface Policy {
+        /**
+         * 策略名称（用于统计和日志）
+         */
+        String getName();
+
+        /**
+         * 保留类策略只调用 Plan.pin()，在所有删除类策略之前执行
+         */
+        default boolean isKeepPolicy() {
+            return false;
+        }
+
+        void apply(Plan plan);
+    }
+
+    // 按开始时间排序（最旧的在前），时间相同时按文件名，保证结果确定
+    private static final Comparator<Item> AGE_ORDER = (a, b) -> {
+        int cmp = Long.compare(a.startTimeMs, b.startTimeMs);
+        return cmp != 0 ? cmp : a.name.compareTo(b.name);
+    };
+
+    private final List<Policy> keepPolicies = new ArrayList<>();
+    private final List<Policy> deletePolicies = new ArrayList<>();
+
+    public RetentionPlanner(List<Policy> policies) {
+        for (Policy policy : policies) {
+            if (policy.isKeepPolicy()) {
+                keepPolicies.add(policy);
+            } else {
+                deletePolicies.add(policy);
+            }
+        }
+    }
+
+    public boolean isEmpty() {
+        return keepPolicies.isEmpty() && deletePolicies.isEmpty();
+    }
+
+    /**
+     * 计算删除计划
+     * @param items 所有文件（顺序无关）
+     * @param nowMs 当前时间
+     * @return 删除计划
+     */
+    public Plan plan(List<Item> items, long nowMs) {
+        Item[] sorted = items.toArray(new Item[0]);
+        Arrays.sort(sorted, AGE_ORDER);
+        Plan plan = new Plan(sorted, nowMs);
+        for (Policy policy : keepPolicies) {
+            plan.currentPolicy = policy.getName();
+            policy.apply(plan);
+        }
+        for (Policy policy : deletePolicies) {
+            plan.currentPolicy = policy.getName();
+            policy.apply(plan);
+        }
+        plan.currentPolicy = null;
+        return plan;
+    }
+
+    /**
+     * 删除计划（同时作为策略的操作对象）
+     * 文件按开始时间从旧到新编号
+     */
+    public static class Plan {
+        private final Item[] items;
+        private final long nowMs;
+        private final boolean[] deleted;
+        private final boolean[] pinned;
+        private final List<Item> deletions = new ArrayList<>();
+        private final Map<String, Integer> deletedByPolicy = new LinkedHashMap<>();
+        private long deletedBytes = 0;
+        private int pinnedCount = 0;
+        private String currentPolicy;
+
+        Plan(Item[] items, long nowMs) {
+            this.items = items;
+            this.nowMs = nowMs;
+            this.deleted = new boolean[items.length];
+            this.pinned = new boolean[items.length];
+        }
+
+        public int size() {
+            return items.length;
+        }
+
+        public Item get(int i) {
+            return items[i];
+        }
+
+        public long getNowMs() {
+            return nowMs;
+        }
+
+        public boolean isDeleted(int i) {
+            return deleted[i];
+        }
+
+        public boolean isPinned(int i) {
+            return pinned[i];
+        }
+
+        /**
+         * 保留文件：之后的删除类策略不会删除它
+         */
+        public void pin(int i) {
+            if (!pinned[i]) {
+                pinned[i] = true;
+                pinnedCount++;
+            }
+        }
+
+        /**
+         * 把文件加入删除计划
+         * @return 已被保留或已在计划中时返回 false
+         */
+        public boolean delete(int i) {
+            if (pinned[i] || deleted[i]) {
+                return false;
+            }
+            deleted[i] = true;
+            deletions.add(items[i]);
+            deletedBytes += items[i].size;
+            Integer count = deletedByPolicy.get(currentPolicy);
+            deletedByPolicy.put(currentPolicy, count == null ? 1 : count + 1);
+            return true;
+        }
+
+        /**
+         * 待删除的文件（按加入顺序）
+         */
+        public List<Item> getDeletions() {
+            return Collections.unmodifiableList(deletions);
+        }
+
+        public long getDeletedBytes() {
+            return deletedBytes;
+        }
+
+        public int getPinnedCount() {
+            return pinnedCount;
+        }
+
+        /**
+         * 各策略删除的文件数
+         */
+        public Map<String, Integer> getDeletedByPolicy() {
+            return Collections.unmodifiableMap(deletedByPolicy);
+        }
+
+        @Override
+        public String toString() {
+            return "files=" + items.length + ", delete=" + deletions.size() + " (" + deletedBytes + " bytes) "
+                    + deletedByPolicy + ", pinned=" + pinnedCount;
+        }
+    }
+
+    // ==================== 内置策略 ====================
+
+    /**
+     * 最近 N 天内每路摄像头每小时至少保留一段（该小时内最早的一段）
+     */
+    public static class HourlyKeepPolicy implements Policy {
+        private final long windowMs;
+
+        public HourlyKeepPolicy(int days) {
+            this.windowMs = days * DAY_MS;
+        }
+
+        @Override
+        public String getName() {
+            return "hourly-keep";
+        }
+
+        @Override
+        public boolean isKeepPolicy() {
+            return true;
+        }
+
+        @Override
+        public void apply(Plan plan) {
+            long cutoff = plan.getNowMs() - windowMs;
+            Map<String, Long> lastHour = new HashMap<>();
+            for (int i = 0; i < plan.size(); i++) {
+                Item item = plan.get(i);
+                if (item.startTimeMs < cutoff || item.tier != Tier.NORMAL) {
+                    continue;
+                }
+                String camera = item.camera != null ? item.camera : NO_CAMERA;
+                long hour = Math.floorDiv(item.startTimeMs, HOUR_MS);
+                Long last = lastHour.get(camera);
+                if (last == null || last != hour) {
+                    lastHour.put(camera, hour);
+                    plan.pin(i);
+                }
+            }
+        }
+    }
+
+    /**
+     * 删除超过最长保留时间的普通文件
+     */
+    public static class MaxAgePolicy implements Policy {
+        private final long maxAgeMs;
+
+        public MaxAgePolicy(int days) {
+            this.maxAgeMs = days * DAY_MS;
+        }
+
+        @Override
+        public String getName() {
+            return "max-age";
+        }
+
+        @Override
+        public void apply(Plan plan) {
+            long cutoff = plan.getNowMs() - maxAgeMs;
+            for (int i = 0; i < plan.size(); i++) {
+                Item item = plan.get(i);
+                if (item.startTimeMs >= cutoff) {
+                    break;  // 之后的文件都更新
+                }
+                if (item.tier == Tier.NORMAL) {
+                    plan.delete(i);
+                }
+            }
+        }
+    }
+
+    /**
+     * 每路摄像头的普通文件不超过指定容量，超出时删除该路最旧的文件
+     */
+    public static class MaxBytesPerCameraPolicy implements Policy {
+        private final long limitBytes;
+
+        public MaxBytesPerCameraPolicy(long limitBytes) {
+            this.limitBytes = limitBytes;
+        }
+
+        @Override
+        public String getName() {
+            return "camera-quota";
+        }
+
+        @Override
+        public void apply(Plan plan) {
+            Map<String, long[]> usedByCamera = new HashMap<>();
+            for (int i = 0; i < plan.size(); i++) {
+                Item item = plan.get(i);
+                if (item.tier != Tier.NORMAL || plan.isDeleted(i)) {
+                    continue;
+                }
+                String camera = item.camera != null ? item.camera : NO_CAMERA;
+                long[] used = usedByCamera.get(camera);
+                if (used == null) {
+                    used = new long[1];
+                    usedByCamera.put(camera, used);
+                }
+                used[0] += item.size;
+            }
+            for (int i = 0; i < plan.size(); i++) {
+                Item item = plan.get(i);
+                if (item.tier != Tier.NORMAL || plan.isDeleted(i)) {
+                    continue;
+                }
+                long[] used = usedByCamera.get(item.camera != null ? item.camera : NO_CAMERA);
+                if (used[0] > limitBytes && plan.delete(i)) {
+                    used[0] -= item.size;
+                }
+            }
+        }
+    }
+
+    /**
+     * 所有文件总容量超过上限时，删除最旧的普通文件直到降到目标容量；
+     * 只剩受保护文件（或被保留的文件）仍超过上限时，再删除最旧的受保护文件直到不超过上限
+     */
+    public static class MaxTotalBytesPolicy implements Policy {
+        private final long limitBytes;
+        private final long targetBytes;
+
+        /**
+         * @param limitBytes 总容量上限
+         * @param targetBytes 超限时删除到的目标容量（不大于上限，留出余量避免频繁删除）
+         */
+        public MaxTotalBytesPolicy(long limitBytes, long targetBytes) {
+            this.limitBytes = limitBytes;
+            this.targetBytes = Math.min(limitBytes, targetBytes);
+        }
+
+        @Override
+        public String getName() {
+            return "total-quota";
+        }
+
+        @Override
+        public void apply(Plan plan) {
+            long used = 0;
+            for (int i = 0; i < plan.size(); i++) {
+                if (!plan.isDeleted(i)) {
+                    used += plan.get(i).size;
+                }
+            }
+            if (used <= limitBytes) {
+                return;
+            }
+            used = deleteOldest(plan, Tier.NORMAL, used, targetBytes);
+            if (used > limitBytes) {
+                deleteOldest(plan, Tier.PROTECTED, used, limitBytes);
+            }
+        }
+    }
+
+    /**
+     * 受保护文件（事件片段）的独立配额，超出时删除最旧的受保护文件
+     */
+    public static class ProtectedQuotaPolicy implements Policy {
+        private final long quotaBytes;
+
+        public ProtectedQuotaPolicy(long quotaBytes) {
+            this.quotaBytes = quotaBytes;
+        }
+
+        @Override
+        public String getName() {
+            return "event-quota";
+        }
+
+        @Override
+        public void apply(Plan plan) {
+            deleteOldestOfTier(plan, Tier.PROTECTED, quotaBytes, quotaBytes);
+        }
+    }
+
+    /**
+     * 指定级别的文件总量超过上限时，从最旧的开始删除直到不超过目标容量（跳过被保留的文件）
+     */
+    private static void deleteOldestOfTier(Plan plan, Tier tier, long limitBytes, long targetBytes) {
+        long used = 0;
+        for (int i = 0; i < plan.size(); i++) {
+            if (plan.get(i).tier == tier && !plan.isDeleted(i)) {
+                used += plan.get(i).size;
+            }
+        }
+        if (used > limitBytes) {
+            deleteOldest(plan, tier, used, targetBytes);
+        }
+    }
+
+    /**
+     * 从最旧的开始删除指定级别的文件，直到已用容量不超过目标容量（跳过被保留的文件）
+     * @param used 当前已用容量
+     * @return 删除后的已用容量
+     */
+    private static long deleteOldest(Plan plan, Tier tier, long used, long targetBytes) {
+        for (int i = 0; i < plan.size() && used > targetBytes; i++) {
+            Item item = plan.get(i);
+            if (item.tier == tier && plan.delete(i)) {
+                used -= item.size;
+            }
+        }
+        return used;
+    }
+}
@@ -0,0 +1,243 @@
+package com.kooo.evcam;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+/**
+ * 视频分段完整性校验和（CRC32C 旁路文件）
+ * 廉价U盘可能静默损坏数据，仅比较文件大小无法发现。每个归档的分段在同目录的隐藏子目录中
+ * 保存一个旁路文件：.crc/<文件名>.crc32c，内容为 "<crc32c 十六进制> <文件大小>"
+ *
+ * - 中转复制时在复制的同时计算源数据的校验和，复制完成后回读目标文件比对，一致才写入旁路文件
+ * - 直接写入最终目录的分段在完成后立即计算（数据仍在页缓存中，不额外读U盘）
+ * - 上传前和后台巡检（IntegrityScrubber）时重新计算并与旁路文件比对
+ *
+ * 旁路文件放在子目录中，不会被 StorageIndex 和回放列表当成视频；
+ * 视频被删除后遗留的旁路文件由巡检清理
+ */
+public final class SegmentChecksum {
+    private static final String TAG = "SegmentChecksum";
+
+    public static final String SIDECAR_DIR_NAME = ".crc";
+    private static final String SIDECAR_SUFFIX = ".crc32c";
+    private static final int BUFFER_BYTES = 256 * 1024;
+
+    /**
+     * 校验结果
+     */
+    public enum Result {
+        VERIFIED,    // 与旁路文件一致
+        MISSING,     // 没有旁路文件（旧文件或未完成校验的文件）
+        MISMATCH,    // 内容或大小与旁路文件不一致（文件已损坏）
+        UNREADABLE   // 文件读取失败
+    }
+
+    /**
+     * 旁路文件记录
+     */
+    public static class Record {
+        public final long crc;
+        public final long size;
+
+        Record(long crc, long size) {
+            this.crc = crc;
+            this.size = size;
+        }
+    }
+
+    /**
+     * 每个线程复用的读取缓冲区和校验器，校验路径上不分配对象
+     */
+    private static class Scratch {
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+        final Crc32c crc = new Crc32c();
+    }
+
+    private static final ThreadLocal<Scratch> scratch = ThreadLocal.withInitial(Scratch::new);
+
+    private SegmentChecksum() {
+    }
+
+    /**
+     * 视频文件对应的旁路文件
+     */
+    public static File sidecarFor(File video) {
+        return new File(new File(video.getParentFile(), SIDECAR_DIR_NAME), video.getName() + SIDECAR_SUFFIX);
+    }
+
+    /**
+     * 旁路文件对应的视频文件（不是旁路文件时返回 null）
+     */
+    static File videoFor(File sidecar) {
+        String name = sidecar.getName();
+        File sidecarDir = sidecar.getParentFile();
+        if (!name.endsWith(SIDECAR_SUFFIX) || sidecarDir == null || sidecarDir.getParentFile() == null) {
+            return null;
+        }
+        return new File(sidecarDir.getParentFile(), name.substring(0, name.length() - SIDECAR_SUFFIX.length()));
+    }
+
+    /**
+     * 写入旁路文件（先写临时文件再重命名，不会留下半个记录）
+     */
+    public static boolean write(File video, long crc, long size) {
+        File sidecar = sidecarFor(video);
+        File dir = sidecar.getParentFile();
+        if (dir != null && !dir.exists() && !dir.mkdirs()) {
+            AppLog.w(TAG, "无法创建校验目录: " + dir.getAbsolutePath());
+            return false;
+        }
+        File tmp = new File(dir, sidecar.getName() + ".tmp");
+        String content = String.format(Locale.US, "%08x %d\n", crc, size);
+        try (FileOutputStream out = new FileOutputStream(tmp)) {
+            out.write(content.getBytes(StandardCharsets.US_ASCII));
+            out.getFD().sync();
+        } catch (IOException e) {
+            AppLog.w(TAG, "写入校验文件失败: " + video.getName() + " - " + e.getMessage());
+            tmp.delete();
+            return false;
+        }
+        if (!tmp.renameTo(sidecar)) {
+            tmp.delete();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 读取旁路文件，不存在或格式错误时返回 null
+     */
+    public static Record read(File video) {
+        File sidecar = sidecarFor(video);
+        if (!sidecar.isFile()) {
+            return null;
+        }
+        byte[] data = new byte[64];
+        int length;
+        try (FileInputStream in = new FileInputStream(sidecar)) {
+            length = in.read(data);
+        } catch (IOException e) {
+            return null;
+        }
+        if (length <= 0) {
+            return null;
+        }
+        String[] parts = new String(data, 0, length, StandardCharsets.US_ASCII).trim().split(" ");
+        if (parts.length != 2) {
+            return null;
+        }
+        try {
+            return new Record(Long.parseLong(parts[0], 16), Long.parseLong(parts[1]));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 删除旁路文件
+     */
+    public static void deleteSidecar(File video) {
+        File sidecar = sidecarFor(video);
+        if (sidecar.exists()) {
+            sidecar.delete();
+        }
+    }
+
+    /**
+     * 计算文件并写入旁路文件（分段完成、同文件系统移动后调用）
+     * @return 是否写入成功
+     */
+    public static boolean seal(File video) {
+        long crc = compute(video, null);
+        if (crc < 0) {
+            return false;
+        }
+        return write(video, crc, video.length());
+    }
+
+    /**
+     * 与旁路文件比对
+     */
+    public static Result verify(File video) {
+        return verify(video, null);
+    }
+
+    /**
+     * 与旁路文件比对
+     * @param pacer 每读取一块后调用（用于限速），可为 null
+     */
+    public static Result verify(File video, Pacer pacer) {
+        Record record = read(video);
+        if (record == null) {
+            return Result.MISSING;
+        }
+        long size = video.length();
+        if (size != record.size) {
+            AppLog.e(TAG, "文件大小与校验记录不一致: " + video.getName() + " (" + size + " != " + record.size + ")");
+            return Result.MISMATCH;
+        }
+        long crc = compute(video, pacer);
+        if (crc < 0) {
+            return Result.UNREADABLE;
+        }
+        if (crc != record.crc) {
+            AppLog.e(TAG, "文件校验失败: " + video.getName() + String.format(Locale.US, " (%08x != %08x)", crc, record.crc));
+            return Result.MISMATCH;
+        }
+        return Result.VERIFIED;
+    }
+
+    /**
+     * 计算文件的 CRC32C
+     * @param pacer 每读取一块后调用（用于限速），可为 null
+     * @return 校验和，读取失败时返回 -1
+     */
+    public static long compute(File file, Pacer pacer) {
+        Scratch s = scratch.get();
+        try (FileInputStream stream = new FileInputStream(file)) {
+            return compute(stream.getChannel(), s.buffer, s.crc, pacer);
+        } catch (IOException e) {
+            AppLog.w(TAG, "读取文件失败: " + file.getName() + " - " + e.getMessage());
+            return -1;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return -1;
+        }
+    }
+
+    /**
+     * 从通道开头计算到结尾（使用调用方提供的缓冲区和校验器）
+     */
+    static long compute(FileChannel channel, ByteBuffer buffer, Crc32c crc, Pacer pacer)
+            throws IOException, InterruptedException {
+        crc.reset();
+        long position = 0;
+        while (true) {
+            buffer.clear();
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                break;
+            }
+            buffer.flip();
+            crc.update(buffer);
+            position += read;
+            if (pacer != null) {
+                pacer.onBytesRead(read);
+            }
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * 读取限速回调
+     */
+    public interface Pacer {
+        void onBytesRead(int bytes) throws InterruptedException;
+    }
+}
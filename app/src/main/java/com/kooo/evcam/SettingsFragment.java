@@ -44,6 +44,7 @@ public class SettingsFragment extends Fragment {
     private Button saveLogsButton;
     private Button uploadLogsButton;
     private LinearLayout logButtonsLayout;
+    private LinearLayout catalogButtonsLayout;
     private SwitchMaterial autoStartSwitch;
     private SwitchMaterial autoStartRecordingSwitch;
     private SwitchMaterial screenOffRecordingSwitch;
@@ -53,6 +54,9 @@ public class SettingsFragment extends Fragment {
     // private SwitchMaterial preventSleepSwitch;
     private SwitchMaterial recordingStatsSwitch;
     private SwitchMaterial timestampWatermarkSwitch;
+    private SwitchMaterial fragmentedMp4Switch;
+    private SwitchMaterial sharedGlRenderSwitch;
+    private SwitchMaterial integrityScrubSwitch;
     
     // 预览画面矫正相关
     private SwitchMaterial previewCorrectionSwitch;
@@ -109,6 +113,13 @@ public class SettingsFragment extends Fragment {
     private String lastAppliedStorageLocation = null;
     private boolean hasExternalSdCard = false;
     
+    // 存储目录布局配置相关
+    private Spinner storageLayoutSpinner;
+    private static final String[] STORAGE_LAYOUT_OPTIONS = {"不分目录", "按天", "按小时"};
+    private static final String[] STORAGE_LAYOUT_VALUES = {StorageHelper.LAYOUT_FLAT, StorageHelper.LAYOUT_DAILY, StorageHelper.LAYOUT_HOURLY};
+    private boolean isInitializingStorageLayout = false;
+    private String lastAppliedStorageLayout = null;
+    
     
     // 存储清理配置相关
     private EditText videoStorageLimitEdit;
@@ -136,6 +147,19 @@ public class SettingsFragment extends Fragment {
     private EditText customKeySpeedPropIdEditText;
     private EditText customKeyButtonPropIdEditText;
 
+    // 事件前缓存相关
+    private SwitchMaterial preEventBufferSwitch;
+    private LinearLayout preEventBufferDetailLayout;
+    private EditText preEventSecondsEditText;
+    private EditText postEventSecondsEditText;
+    private EditText preEventBufferMbEditText;
+
+    // 拼接录制相关
+    private SwitchMaterial mosaicRecordingSwitch;
+    private LinearLayout mosaicRecordingDetailLayout;
+    private EditText mosaicWidthEditText;
+    private EditText mosaicBitrateEditText;
+
     @Nullable
     @Override
     public View onCreateView(@NonNull LayoutInflater inflater, @Nullable ViewGroup container, @Nullable Bundle savedInstanceState) {
@@ -146,6 +170,7 @@ public class SettingsFragment extends Fragment {
         saveLogsButton = view.findViewById(R.id.btn_save_logs);
         uploadLogsButton = view.findViewById(R.id.btn_upload_logs);
         logButtonsLayout = view.findViewById(R.id.layout_log_buttons);
+        catalogButtonsLayout = view.findViewById(R.id.layout_catalog_buttons);
         Button menuButton = view.findViewById(R.id.btn_menu);
         Button homeButton = view.findViewById(R.id.btn_home);
 
@@ -191,6 +216,9 @@ public class SettingsFragment extends Fragment {
             // 初始化存储位置配置
             initStorageLocationConfig(view);
             
+            // 初始化存储目录布局配置
+            initStorageLayoutConfig(view);
+            
             // 初始化存储清理配置
             initStorageCleanupConfig(view);
         }
@@ -231,6 +259,9 @@ public class SettingsFragment extends Fragment {
             }
         });
 
+        // 媒体目录维护（仅 Debug 开启时显示）
+        view.findViewById(R.id.btn_rebuild_catalog).setOnClickListener(v -> rebuildMediaCatalog());
+
         // 初始化版本更新功能
         initVersionUpdate(view);
         
@@ -283,6 +314,57 @@ public class SettingsFragment extends Fragment {
             }
         });
 
+        // 初始化防断电录制开关
+        fragmentedMp4Switch = view.findViewById(R.id.switch_fragmented_mp4);
+        if (getContext() != null && appConfig != null) {
+            fragmentedMp4Switch.setChecked(appConfig.isFragmentedMp4Enabled());
+        }
+
+        // 设置防断电录制开关监听器
+        fragmentedMp4Switch.setOnCheckedChangeListener((buttonView, isChecked) -> {
+            if (getContext() != null && appConfig != null) {
+                appConfig.setFragmentedMp4Enabled(isChecked);
+                String message = isChecked ? "防断电录制已开启，下次录制生效" : "防断电录制已关闭，下次录制生效";
+                Toast.makeText(getContext(), message, Toast.LENGTH_SHORT).show();
+                AppLog.d("SettingsFragment", message);
+            }
+        });
+
+        // 初始化共享渲染线程开关
+        sharedGlRenderSwitch = view.findViewById(R.id.switch_shared_gl_render);
+        if (getContext() != null && appConfig != null) {
+            sharedGlRenderSwitch.setChecked(appConfig.isSharedGlRenderEnabled());
+        }
+
+        // 设置共享渲染线程开关监听器
+        sharedGlRenderSwitch.setOnCheckedChangeListener((buttonView, isChecked) -> {
+            if (getContext() != null && appConfig != null) {
+                appConfig.setSharedGlRenderEnabled(isChecked);
+                String message = isChecked ? "共享渲染线程已开启，下次录制生效" : "共享渲染线程已关闭，下次录制生效";
+                Toast.makeText(getContext(), message, Toast.LENGTH_SHORT).show();
+                AppLog.d("SettingsFragment", message);
+            }
+        });
+
+        // 初始化完整性巡检开关
+        integrityScrubSwitch = view.findViewById(R.id.switch_integrity_scrub);
+        if (getContext() != null && appConfig != null) {
+            integrityScrubSwitch.setChecked(appConfig.isIntegrityScrubEnabled());
+        }
+
+        // 设置完整性巡检开关监听器（开启时立即开始一次巡检，之后由存储清理任务每小时触发）
+        integrityScrubSwitch.setOnCheckedChangeListener((buttonView, isChecked) -> {
+            if (getContext() != null && appConfig != null) {
+                appConfig.setIntegrityScrubEnabled(isChecked);
+                if (isChecked) {
+                    IntegrityScrubber.getInstance(getContext()).scrubIfDue();
+                }
+                String message = isChecked ? "完整性巡检已开启" : "完整性巡检已关闭";
+                Toast.makeText(getContext(), message, Toast.LENGTH_SHORT).show();
+                AppLog.d("SettingsFragment", message);
+            }
+        });
+
         // 初始化预览画面矫正
         previewCorrectionSwitch = view.findViewById(R.id.switch_preview_correction);
         previewCorrectionButtonsLayout = view.findViewById(R.id.layout_preview_correction_buttons);
@@ -464,6 +546,12 @@ public class SettingsFragment extends Fragment {
 
         // 初始化定制键唤醒设置
         initCustomKeyWakeupSettings(view);
+
+        // 初始化事件前缓存设置
+        initPreEventBufferSettings(view);
+
+        // 初始化拼接录制设置
+        initMosaicRecordingSettings(view);
         
         // 沉浸式状态栏兼容
         View toolbar = view.findViewById(R.id.toolbar);
@@ -727,6 +815,149 @@ public class SettingsFragment extends Fragment {
         });
     }
     
+    /**
+     * 初始化事件前缓存设置（下次录制生效）
+     */
+    private void initPreEventBufferSettings(View view) {
+        preEventBufferSwitch = view.findViewById(R.id.switch_pre_event_buffer);
+        preEventBufferDetailLayout = view.findViewById(R.id.layout_pre_event_buffer_detail);
+        preEventSecondsEditText = view.findViewById(R.id.et_pre_event_seconds);
+        postEventSecondsEditText = view.findViewById(R.id.et_post_event_seconds);
+        preEventBufferMbEditText = view.findViewById(R.id.et_pre_event_buffer_mb);
+
+        if (preEventBufferSwitch == null || getContext() == null || appConfig == null) return;
+
+        // 加载配置
+        boolean enabled = appConfig.isPreEventBufferEnabled();
+        preEventBufferSwitch.setChecked(enabled);
+        preEventBufferDetailLayout.setVisibility(enabled ? View.VISIBLE : View.GONE);
+        preEventSecondsEditText.setText(String.valueOf(appConfig.getPreEventSeconds()));
+        postEventSecondsEditText.setText(String.valueOf(appConfig.getPostEventSeconds()));
+        preEventBufferMbEditText.setText(String.valueOf(appConfig.getPreEventBufferMb()));
+
+        // 开关监听
+        preEventBufferSwitch.setOnCheckedChangeListener((buttonView, isChecked) -> {
+            if (getContext() == null || appConfig == null) return;
+            appConfig.setPreEventBufferEnabled(isChecked);
+            preEventBufferDetailLayout.setVisibility(isChecked ? View.VISIBLE : View.GONE);
+            String message = isChecked ? "事件前缓存已开启，下次录制生效" : "事件前缓存已关闭，下次录制生效";
+            Toast.makeText(getContext(), message, Toast.LENGTH_SHORT).show();
+        });
+
+        // 事件前时长监听
+        preEventSecondsEditText.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {}
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {}
+            @Override
+            public void afterTextChanged(Editable s) {
+                try {
+                    int seconds = Integer.parseInt(s.toString());
+                    if (seconds > 0) {
+                        appConfig.setPreEventSeconds(seconds);
+                    }
+                } catch (NumberFormatException ignored) {}
+            }
+        });
+
+        // 事件后时长监听
+        postEventSecondsEditText.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {}
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {}
+            @Override
+            public void afterTextChanged(Editable s) {
+                try {
+                    int seconds = Integer.parseInt(s.toString());
+                    if (seconds > 0) {
+                        appConfig.setPostEventSeconds(seconds);
+                    }
+                } catch (NumberFormatException ignored) {}
+            }
+        });
+
+        // 缓存上限监听
+        preEventBufferMbEditText.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {}
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {}
+            @Override
+            public void afterTextChanged(Editable s) {
+                try {
+                    int megabytes = Integer.parseInt(s.toString());
+                    if (megabytes > 0) {
+                        appConfig.setPreEventBufferMb(megabytes);
+                    }
+                } catch (NumberFormatException ignored) {}
+            }
+        });
+    }
+    
+    /**
+     * 初始化拼接录制设置（下次录制生效）
+     */
+    private void initMosaicRecordingSettings(View view) {
+        mosaicRecordingSwitch = view.findViewById(R.id.switch_mosaic_recording);
+        mosaicRecordingDetailLayout = view.findViewById(R.id.layout_mosaic_recording_detail);
+        mosaicWidthEditText = view.findViewById(R.id.et_mosaic_width);
+        mosaicBitrateEditText = view.findViewById(R.id.et_mosaic_bitrate);
+
+        if (mosaicRecordingSwitch == null || getContext() == null || appConfig == null) return;
+
+        // 加载配置
+        boolean enabled = appConfig.isMosaicRecordingEnabled();
+        mosaicRecordingSwitch.setChecked(enabled);
+        mosaicRecordingDetailLayout.setVisibility(enabled ? View.VISIBLE : View.GONE);
+        mosaicWidthEditText.setText(String.valueOf(appConfig.getMosaicWidth()));
+        mosaicBitrateEditText.setText(String.valueOf(appConfig.getMosaicBitrateKbps()));
+
+        // 开关监听
+        mosaicRecordingSwitch.setOnCheckedChangeListener((buttonView, isChecked) -> {
+            if (getContext() == null || appConfig == null) return;
+            appConfig.setMosaicRecordingEnabled(isChecked);
+            mosaicRecordingDetailLayout.setVisibility(isChecked ? View.VISIBLE : View.GONE);
+            String message = isChecked ? "拼接录制已开启，下次录制生效" : "拼接录制已关闭，下次录制生效";
+            Toast.makeText(getContext(), message, Toast.LENGTH_SHORT).show();
+        });
+
+        // 拼接宽度监听（过小的宽度不保存，避免输入过程中写入中间值）
+        mosaicWidthEditText.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {}
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {}
+            @Override
+            public void afterTextChanged(Editable s) {
+                try {
+                    int width = Integer.parseInt(s.toString());
+                    if (width >= 320) {
+                        appConfig.setMosaicWidth(width);
+                    }
+                } catch (NumberFormatException ignored) {}
+            }
+        });
+
+        // 拼接码率监听
+        mosaicBitrateEditText.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {}
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {}
+            @Override
+            public void afterTextChanged(Editable s) {
+                try {
+                    int kbps = Integer.parseInt(s.toString());
+                    if (kbps >= 0) {
+                        appConfig.setMosaicBitrateKbps(kbps);
+                    }
+                } catch (NumberFormatException ignored) {}
+            }
+        });
+    }
+    
     /**
      * 初始化悬浮窗大小选择器
      */
@@ -1789,6 +2020,69 @@ public class SettingsFragment extends Fragment {
                 .show();
     }
     
+    /**
+     * 初始化存储目录布局配置
+     * 切换后立即启动 StorageLayoutMigrator，把已有文件在后台移动到新布局的目录
+     */
+    private void initStorageLayoutConfig(View view) {
+        storageLayoutSpinner = view.findViewById(R.id.spinner_storage_layout);
+        
+        if (storageLayoutSpinner == null || getContext() == null || appConfig == null) {
+            return;
+        }
+        
+        isInitializingStorageLayout = true;
+        lastAppliedStorageLayout = appConfig.getStorageLayout();
+        
+        ArrayAdapter<String> adapter = new ArrayAdapter<>(
+                getContext(),
+                R.layout.spinner_item,
+                STORAGE_LAYOUT_OPTIONS
+        );
+        adapter.setDropDownViewResource(R.layout.spinner_dropdown_item);
+        storageLayoutSpinner.setAdapter(adapter);
+        
+        storageLayoutSpinner.setOnItemSelectedListener(new AdapterView.OnItemSelectedListener() {
+            @Override
+            public void onItemSelected(AdapterView<?> parent, View view, int position, long id) {
+                if (isInitializingStorageLayout) {
+                    return;
+                }
+                
+                String newLayout = STORAGE_LAYOUT_VALUES[position];
+                if (newLayout.equals(lastAppliedStorageLayout)) {
+                    return;
+                }
+                
+                lastAppliedStorageLayout = newLayout;
+                appConfig.setStorageLayout(newLayout);
+                
+                if (getContext() != null) {
+                    StorageLayoutMigrator.getInstance(getContext()).migrateIfNeeded();
+                    Toast.makeText(getContext(), "目录布局已设置为「" + STORAGE_LAYOUT_OPTIONS[position] + "」，已有文件将在后台移动", Toast.LENGTH_SHORT).show();
+                }
+            }
+            
+            @Override
+            public void onNothingSelected(AdapterView<?> parent) {
+            }
+        });
+        
+        // 根据当前配置设置选中项
+        int selectedIndex = 0;  // 默认不分目录
+        for (int i = 0; i < STORAGE_LAYOUT_VALUES.length; i++) {
+            if (STORAGE_LAYOUT_VALUES[i].equals(lastAppliedStorageLayout)) {
+                selectedIndex = i;
+                break;
+            }
+        }
+        storageLayoutSpinner.setSelection(selectedIndex);
+        
+        storageLayoutSpinner.post(() -> {
+            isInitializingStorageLayout = false;
+        });
+    }
+    
     /**
      * 初始化存储清理配置
      */
@@ -1941,6 +2235,42 @@ public class SettingsFragment extends Fragment {
         if (logButtonsLayout != null) {
             logButtonsLayout.setVisibility(visible ? View.VISIBLE : View.GONE);
         }
+        if (catalogButtonsLayout != null) {
+            catalogButtonsLayout.setVisibility(visible ? View.VISIBLE : View.GONE);
+        }
+    }
+    
+    /**
+     * 从存储目录重建媒体目录（录像、事件、图片），并重新读取所有录像分段的元数据
+     */
+    private void rebuildMediaCatalog() {
+        if (getContext() == null) {
+            return;
+        }
+        Context context = getContext().getApplicationContext();
+        Toast.makeText(context, "正在重建媒体目录...", Toast.LENGTH_SHORT).show();
+        new Thread(() -> {
+            int files = 0;
+            int probed = 0;
+            File[] roots = {
+                    StorageHelper.getVideoDir(context),
+                    StorageHelper.getEventVideoDir(context),
+                    StorageHelper.getPhotoDir(context)
+            };
+            for (File root : roots) {
+                if (root == null || !root.isDirectory()) {
+                    continue;
+                }
+                StorageIndex.ReconcileResult result = StorageIndex.forDirectory(context, root).rebuild();
+                files += result.added;
+                probed += result.probed;
+            }
+            String message = "媒体目录重建完成：" + files + " 个文件，读取元数据 " + probed + " 个";
+            AppLog.d("SettingsFragment", message);
+            if (getActivity() != null) {
+                getActivity().runOnUiThread(() -> Toast.makeText(context, message, Toast.LENGTH_LONG).show());
+            }
+        }, "CatalogRebuild").start();
     }
     
     /**
@@ -0,0 +1,578 @@
+package com.kooo.evcam;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.storage.StorageManager;
+import android.os.storage.StorageVolume;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * 存储写入性能测试
+ * 慢速U盘承受不了多路录制的总码率时，分段会变短甚至丢失。本类测量录制存储的写入能力，并据此推荐码率和帧率：
+ *
+ * - 持续顺序写入速度：1MB 块顺序写入，每 8MB 落盘一次，计时包括最后一次落盘
+ * - fsync 延迟：追加 64KB 后 force()，取 P50/P95
+ * - 小文件创建/删除速度：创建并写入 4KB 小文件后删除（分段切换、旁路文件的开销）
+ *
+ * 测试结果按存储卷 UUID 保存在应用内部存储（files/storage_benchmark/），同一个U盘重新插入时不再重复测试。
+ * 应用启动（start()）一段时间后或U盘挂载时，录制存储没有测试结果则在后台自动测试，也可以在设置中手动测试。
+ * 自动测试只在 MultiCameraManager 没有录制时进行（录制开始/停止由 onRecordingStarted/onRecordingStopped 通知），
+ * 测试中途开始录制时放弃本次测试并推迟，避免 64MB 顺序写入和 fsync 与录制的 Muxer 争抢U盘。
+ *
+ * 推荐规则：录制总码率不超过实测持续写入速度的一半（SAFETY_MARGIN），
+ * 按 高码率 → 标准码率 → 低码率 → 低码率+低帧率 的顺序选择第一个满足的组合
+ */
+public class StorageBenchmark {
+    private static final String TAG = "StorageBenchmark";
+
+    private static final String STATE_DIR_NAME = "storage_benchmark";
+    private static final String WORK_DIR_NAME = ".benchmark";       // 录制目录下的临时测试目录
+    private static final int CHUNK_BYTES = 1024 * 1024;
+    private static final long SEQ_WRITE_BYTES = 64L * 1024 * 1024;  // 顺序写入测试数据量
+    private static final long MIN_SEQ_WRITE_BYTES = 16L * 1024 * 1024;
+    private static final long SYNC_INTERVAL_BYTES = 8L * 1024 * 1024;
+    private static final int FSYNC_SAMPLES = 20;
+    private static final int FSYNC_WRITE_BYTES = 64 * 1024;
+    private static final int SMALL_FILE_COUNT = 200;
+    private static final int SMALL_FILE_BYTES = 4 * 1024;
+    private static final long DEFER_RETRY_MS = 5 * 60 * 1000L;      // 正在录制时推迟自动测试的间隔
+    private static final long STARTUP_DELAY_MS = 60 * 1000L;        // 应用启动后等待开机自动录制开始再检查
+
+    static final double SAFETY_MARGIN = 0.5;             // 录制总码率占实测写入速度的上限
+    static final long SLOW_FSYNC_P95_US = 200 * 1000L;   // fsync P95 超过此值视为慢速存储
+
+    // 推荐阶梯：{码率等级, 帧率等级}，按画质从高到低
+    private static final String[][] PROFILE_LADDER = {
+            {AppConfig.BITRATE_HIGH, AppConfig.FRAMERATE_STANDARD},
+            {AppConfig.BITRATE_MEDIUM, AppConfig.FRAMERATE_STANDARD},
+            {AppConfig.BITRATE_LOW, AppConfig.FRAMERATE_STANDARD},
+            {AppConfig.BITRATE_LOW, AppConfig.FRAMERATE_LOW},
+    };
+
+    /**
+     * 测试结果
+     */
+    public static class Result {
+        public final String volumeId;
+        public final long seqWriteBytesPerSec;  // 持续顺序写入速度（字节/秒）
+        public final long fsyncP50Us;           // fsync 延迟中位数（微秒）
+        public final long fsyncP95Us;           // fsync 延迟 P95（微秒）
+        public final long smallFileOpsPerSec;   // 小文件创建+删除操作数/秒
+        public final long measuredAtMs;
+
+        Result(String volumeId, long seqWriteBytesPerSec, long fsyncP50Us, long fsyncP95Us,
+               long smallFileOpsPerSec, long measuredAtMs) {
+            this.volumeId = volumeId;
+            this.seqWriteBytesPerSec = seqWriteBytesPerSec;
+            this.fsyncP50Us = fsyncP50Us;
+            this.fsyncP95Us = fsyncP95Us;
+            this.smallFileOpsPerSec = smallFileOpsPerSec;
+            this.measuredAtMs = measuredAtMs;
+        }
+
+        /**
+         * 是否为慢速存储（直接写入容易造成录制卡顿，需要中转写入）
+         */
+        public boolean isSlow(long recordingLoadBps) {
+            return fsyncP95Us > SLOW_FSYNC_P95_US || seqWriteBytesPerSec * 8 * SAFETY_MARGIN < recordingLoadBps;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "写入 %.1f MB/s, fsync P50 %.1fms / P95 %.1fms, 小文件 %d 次/秒",
+                    seqWriteBytesPerSec / (1024.0 * 1024.0), fsyncP50Us / 1000.0, fsyncP95Us / 1000.0, smallFileOpsPerSec);
+        }
+    }
+
+    /**
+     * 推荐的录制设置
+     */
+    public static class Recommendation {
+        public final String bitrateLevel;
+        public final String framerateLevel;
+        public final long expectedLoadBps;  // 推荐设置下的录制总码率
+        public final long budgetBps;        // 允许的录制总码率（实测写入速度 × SAFETY_MARGIN）
+        public final boolean fits;          // 最低档也超出预算时为 false
+        public final boolean relayRecommended;
+
+        Recommendation(String bitrateLevel, String framerateLevel, long expectedLoadBps, long budgetBps,
+                       boolean fits, boolean relayRecommended) {
+            this.bitrateLevel = bitrateLevel;
+            this.framerateLevel = framerateLevel;
+            this.expectedLoadBps = expectedLoadBps;
+            this.budgetBps = budgetBps;
+            this.fits = fits;
+            this.relayRecommended = relayRecommended;
+        }
+
+        @Override
+        public String toString() {
+            return "码率 " + AppConfig.getBitrateLevelDisplayName(bitrateLevel)
+                    + "，帧率 " + AppConfig.getFramerateLevelDisplayName(framerateLevel)
+                    + "（约 " + AppConfig.formatBitrate((int) Math.min(Integer.MAX_VALUE, expectedLoadBps))
+                    + " / 上限 " + AppConfig.formatBitrate((int) Math.min(Integer.MAX_VALUE, budgetBps)) + "）"
+                    + (fits ? "" : "，存储速度不足")
+                    + (relayRecommended ? "，建议中转写入" : "");
+        }
+    }
+
+    /**
+     * 测试完成回调（主线程）
+     */
+    public interface Callback {
+        /**
+         * @param result 测试结果，失败时为 null
+         * @param error 失败原因
+         */
+        void onBenchmarkComplete(Result result, String error);
+    }
+
+    private static StorageBenchmark instance;
+
+    private final Context context;
+    private final AppConfig appConfig;
+    private final File stateDir;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private HandlerThread workerThread;
+    private Handler workerHandler;
+    private volatile boolean running = false;
+    private boolean started = false;
+
+    // 正在录制的 MultiCameraManager（由 this 保护）
+    private final Set<Object> recordingOwners = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    private final StorageVolumeMonitor.Listener volumeListener = (previousRoot, currentRoot) -> {
+        // 新U盘首次挂载时自动测试
+        if (currentRoot != null) {
+            scheduleIfUnmeasured(0);
+        }
+    };
+
+    private StorageBenchmark(Context context) {
+        this.context = context.getApplicationContext();
+        this.appConfig = new AppConfig(this.context);
+        this.stateDir = new File(this.context.getFilesDir(), STATE_DIR_NAME);
+    }
+
+    /**
+     * 获取单例实例
+     */
+    public static synchronized StorageBenchmark getInstance(Context context) {
+        if (instance == null) {
+            instance = new StorageBenchmark(context);
+        }
+        return instance;
+    }
+
+    /**
+     * 启用自动测试（应用启动时调用）：监听U盘挂载，并在 STARTUP_DELAY_MS 后检查当前录制存储
+     * 延迟检查让开机自动录制先开始，录制期间的检查会推迟到录制停止后
+     */
+    public synchronized void start() {
+        if (started) {
+            return;
+        }
+        started = true;
+        StorageVolumeMonitor.getInstance(context).addListener(volumeListener);
+        scheduleIfUnmeasured(STARTUP_DELAY_MS);
+    }
+
+    /**
+     * 手动测试当前录制存储（正在录制时拒绝）
+     */
+    public void runAsync(Callback callback) {
+        getHandler().post(() -> {
+            Result result = null;
+            String error;
+            if (isRecording()) {
+                error = "正在录制，请停止录制后再测试";
+            } else {
+                result = measureCurrentVolume();
+                error = result == null ? "测试失败（存储不可写或空间不足）" : null;
+            }
+            Result finalResult = result;
+            mainHandler.post(() -> callback.onBenchmarkComplete(finalResult, error));
+        });
+    }
+
+    /**
+     * 是否正在测试
+     */
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * 当前录制存储已保存的测试结果（没有时返回 null）
+     */
+    public Result getCurrentResult() {
+        File dir = StorageHelper.getVideoDir(context);
+        return loadResult(getVolumeId(dir));
+    }
+
+    /**
+     * 录制开始时记录实际的录制负载（MultiCameraManager 调用）
+     * 负载按当前码率、帧率等级换算到标准档保存，用于推荐其他档位；启用自动调整时检查是否需要调整
+     * 录制停止前不会开始自动测试
+     * @param owner 开始录制的 MultiCameraManager
+     * @param totalBitrate 所有录制器的总码率（bps）
+     */
+    public void onRecordingStarted(Object owner, long totalBitrate) {
+        synchronized (this) {
+            recordingOwners.add(owner);
+        }
+        if (totalBitrate <= 0) {
+            return;
+        }
+        double factor = getLoadFactor(appConfig.getBitrateLevel(), appConfig.getFramerateLevel());
+        appConfig.setRecordingBaseLoad((int) Math.min(Integer.MAX_VALUE, Math.round(totalBitrate / factor)));
+        if (appConfig.isStorageProfileAuto()) {
+            getHandler().post(this::autoApply);
+        }
+    }
+
+    /**
+     * 录制停止时调用（MultiCameraManager 调用，可重复调用）
+     */
+    public synchronized void onRecordingStopped(Object owner) {
+        recordingOwners.remove(owner);
+    }
+
+    /**
+     * 是否有摄像头正在录制（MultiCameraManager 的录制状态，以及录制器最近的写入延迟上报）
+     */
+    private boolean isRecording() {
+        synchronized (this) {
+            if (!recordingOwners.isEmpty()) {
+                return true;
+            }
+        }
+        return RelayIoScheduler.getInstance().isRecordingActive();
+    }
+
+    /**
+     * 按测试结果和录制负载推荐设置
+     * @param result 测试结果
+     * @param baseLoadBps 标准码率、标准帧率下的录制总码率
+     */
+    public static Recommendation recommend(Result result, long baseLoadBps) {
+        long budget = (long) (result.seqWriteBytesPerSec * 8 * SAFETY_MARGIN);
+        String[] chosen = PROFILE_LADDER[PROFILE_LADDER.length - 1];
+        boolean fits = false;
+        for (String[] profile : PROFILE_LADDER) {
+            if (baseLoadBps * getLoadFactor(profile[0], profile[1]) <= budget) {
+                chosen = profile;
+                fits = true;
+                break;
+            }
+        }
+        long expected = Math.round(baseLoadBps * getLoadFactor(chosen[0], chosen[1]));
+        return new Recommendation(chosen[0], chosen[1], expected, budget, fits, result.isSlow(expected));
+    }
+
+    /**
+     * 码率、帧率等级相对标准档的负载系数（与 AppConfig.getActualBitrate / getActualFrameRate 一致）
+     */
+    static double getLoadFactor(String bitrateLevel, String framerateLevel) {
+        double factor;
+        if (AppConfig.BITRATE_LOW.equals(bitrateLevel)) {
+            factor = 0.5;
+        } else if (AppConfig.BITRATE_HIGH.equals(bitrateLevel)) {
+            factor = 1.5;
+        } else {
+            factor = 1.0;
+        }
+        if (AppConfig.FRAMERATE_LOW.equals(framerateLevel)) {
+            factor /= 2;
+        }
+        return factor;
+    }
+
+    private synchronized Handler getHandler() {
+        if (workerHandler == null) {
+            workerThread = new HandlerThread("StorageBenchmark");
+            workerThread.start();
+            workerHandler = new Handler(workerThread.getLooper());
+        }
+        return workerHandler;
+    }
+
+    /**
+     * 当前录制存储没有测试结果时安排自动测试（正在录制时推迟）
+     */
+    private void scheduleIfUnmeasured(long delayMs) {
+        getHandler().postDelayed(() -> {
+            File dir = StorageHelper.getVideoDir(context);
+            if (loadResult(getVolumeId(dir)) != null) {
+                return;
+            }
+            if (isRecording()) {
+                AppLog.d(TAG, "正在录制，推迟存储测速");
+                scheduleIfUnmeasured(DEFER_RETRY_MS);
+                return;
+            }
+            Result result = measureCurrentVolume();
+            if (result == null && isRecording()) {
+                // 测试中途开始录制，已放弃
+                scheduleIfUnmeasured(DEFER_RETRY_MS);
+            } else if (result != null && appConfig.isStorageProfileAuto()) {
+                autoApply();
+            }
+        }, delayMs);
+    }
+
+    /**
+     * 按当前存储的测试结果和最近的录制负载调整码率、帧率（在工作线程上执行，下次开始录制时生效）
+     */
+    private void autoApply() {
+        Result result = getCurrentResult();
+        int baseLoad = appConfig.getRecordingBaseLoad();
+        if (result == null || baseLoad <= 0) {
+            return;
+        }
+        Recommendation recommendation = recommend(result, baseLoad);
+        if (recommendation.bitrateLevel.equals(appConfig.getBitrateLevel())
+                && recommendation.framerateLevel.equals(appConfig.getFramerateLevel())) {
+            return;
+        }
+        AppLog.w(TAG, "按存储测速结果调整录制设置: " + recommendation + "（" + result + "）");
+        appConfig.setBitrateLevel(recommendation.bitrateLevel);
+        appConfig.setFramerateLevel(recommendation.framerateLevel);
+    }
+
+    // ==================== 测量 ====================
+
+    /**
+     * 测试当前录制存储并保存结果（在工作线程上执行）
+     */
+    private Result measureCurrentVolume() {
+        File videoDir = StorageHelper.getVideoDir(context);
+        File workDir = new File(videoDir, WORK_DIR_NAME);
+        String volumeId = getVolumeId(videoDir);
+        running = true;
+        try {
+            Result result = measure(workDir, volumeId, this::isRecording);
+            if (result != null) {
+                saveResult(result);
+                AppLog.d(TAG, "存储测速完成 [" + volumeId + "]: " + result);
+            }
+            return result;
+        } finally {
+            running = false;
+        }
+    }
+
+    /**
+     * 测试中途检查是否需要放弃（每写入一个块检查一次）
+     */
+    interface AbortCheck {
+        boolean shouldAbort();
+    }
+
+    /**
+     * 测试被放弃
+     */
+    private static class AbortedException extends IOException {
+        AbortedException() {
+            super("aborted: recording started");
+        }
+    }
+
+    /**
+     * 在指定目录中执行三项测试（测试文件在结束后删除）
+     * @param abort 返回 true 时放弃测试（如开始录制）
+     * @return 测试结果，目录不可写、空间不足或被放弃时返回 null
+     */
+    static Result measure(File workDir, String volumeId, AbortCheck abort) {
+        if (!workDir.exists() && !workDir.mkdirs()) {
+            AppLog.w(TAG, "无法创建测试目录: " + workDir.getAbsolutePath());
+            return null;
+        }
+        try {
+            long available = workDir.getUsableSpace();
+            long seqBytes = Math.min(SEQ_WRITE_BYTES, available / 4 / CHUNK_BYTES * CHUNK_BYTES);
+            if (seqBytes < MIN_SEQ_WRITE_BYTES) {
+                AppLog.w(TAG, "可用空间不足，跳过存储测速: " + StorageHelper.formatSize(available));
+                return null;
+            }
+            long seqRate = measureSequentialWrite(new File(workDir, "seq.tmp"), seqBytes, abort);
+            long[] fsync = measureFsyncLatency(new File(workDir, "fsync.tmp"), abort);
+            long smallOps = measureSmallFiles(workDir, abort);
+            return new Result(volumeId, seqRate, fsync[0], fsync[1], smallOps, System.currentTimeMillis());
+        } catch (AbortedException e) {
+            AppLog.d(TAG, "开始录制，放弃存储测速");
+            return null;
+        } catch (IOException e) {
+            AppLog.w(TAG, "存储测速失败: " + e.getMessage());
+            return null;
+        } finally {
+            deleteTree(workDir);
+        }
+    }
+
+    private static long measureSequentialWrite(File file, long totalBytes, AbortCheck abort) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(CHUNK_BYTES);
+        // 填充非零数据，避免个别存储对全零块做特殊处理
+        for (int i = 0; i < CHUNK_BYTES; i += 4) {
+            buffer.putInt(i, i * 0x9E3779B1);
+        }
+        long startNs = System.nanoTime();
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            FileChannel channel = out.getChannel();
+            long written = 0;
+            long sinceSync = 0;
+            while (written < totalBytes) {
+                checkAbort(abort);
+                buffer.clear();
+                while (buffer.hasRemaining()) {
+                    int n = channel.write(buffer);
+                    written += n;
+                    sinceSync += n;
+                }
+                if (sinceSync >= SYNC_INTERVAL_BYTES) {
+                    channel.force(false);
+                    sinceSync = 0;
+                }
+            }
+            channel.force(false);
+        }
+        long elapsedNs = Math.max(1, System.nanoTime() - startNs);
+        return totalBytes * 1_000_000_000L / elapsedNs;
+    }
+
+    /**
+     * @return {P50, P95}（微秒）
+     */
+    private static long[] measureFsyncLatency(File file, AbortCheck abort) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(FSYNC_WRITE_BYTES);
+        long[] samples = new long[FSYNC_SAMPLES];
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            FileChannel channel = raf.getChannel();
+            for (int i = 0; i < FSYNC_SAMPLES; i++) {
+                checkAbort(abort);
+                buffer.clear();
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                long startNs = System.nanoTime();
+                channel.force(false);
+                samples[i] = (System.nanoTime() - startNs) / 1000;
+            }
+        }
+        Arrays.sort(samples);
+        return new long[]{samples[FSYNC_SAMPLES / 2], samples[(FSYNC_SAMPLES * 95 + 99) / 100 - 1]};
+    }
+
+    private static long measureSmallFiles(File dir, AbortCheck abort) throws IOException {
+        byte[] data = new byte[SMALL_FILE_BYTES];
+        File[] files = new File[SMALL_FILE_COUNT];
+        long startNs = System.nanoTime();
+        for (int i = 0; i < SMALL_FILE_COUNT; i++) {
+            checkAbort(abort);
+            files[i] = new File(dir, "small_" + i + ".tmp");
+            try (FileOutputStream out = new FileOutputStream(files[i])) {
+                out.write(data);
+            }
+        }
+        for (File file : files) {
+            file.delete();
+        }
+        long elapsedNs = Math.max(1, System.nanoTime() - startNs);
+        return SMALL_FILE_COUNT * 2L * 1_000_000_000L / elapsedNs;
+    }
+
+    private static void checkAbort(AbortCheck abort) throws AbortedException {
+        if (abort.shouldAbort()) {
+            throw new AbortedException();
+        }
+    }
+
+    private static void deleteTree(File dir) {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    // ==================== 结果保存 ====================
+
+    /**
+     * 存储卷标识：StorageVolume 的 UUID（主存储为 primary），获取失败时使用U盘挂载目录名
+     */
+    private String getVolumeId(File dir) {
+        try {
+            StorageManager storageManager = context.getSystemService(StorageManager.class);
+            StorageVolume volume = storageManager != null ? storageManager.getStorageVolume(dir) : null;
+            if (volume != null) {
+                String uuid = volume.getUuid();
+                return uuid != null ? uuid : "primary";
+            }
+        } catch (Exception e) {
+            AppLog.w(TAG, "获取存储卷失败: " + e.getMessage());
+        }
+        File sdRoot = StorageHelper.getExternalSdCardRoot(context);
+        if (sdRoot != null && dir.getAbsolutePath().startsWith(sdRoot.getAbsolutePath() + File.separator)) {
+            return sdRoot.getName();
+        }
+        return "primary";
+    }
+
+    private File getStateFile(String volumeId) {
+        return new File(stateDir, volumeId.replaceAll("[^A-Za-z0-9._-]", "_") + ".properties");
+    }
+
+    private Result loadResult(String volumeId) {
+        File file = getStateFile(volumeId);
+        if (!file.isFile()) {
+            return null;
+        }
+        Properties properties = new Properties();
+        try (FileInputStream in = new FileInputStream(file)) {
+            properties.load(in);
+            return new Result(volumeId,
+                    Long.parseLong(properties.getProperty("seq_write_bps", "0")),
+                    Long.parseLong(properties.getProperty("fsync_p50_us", "0")),
+                    Long.parseLong(properties.getProperty("fsync_p95_us", "0")),
+                    Long.parseLong(properties.getProperty("small_file_ops", "0")),
+                    Long.parseLong(properties.getProperty("measured_at", "0")));
+        } catch (IOException | NumberFormatException e) {
+            AppLog.w(TAG, "读取测速结果失败: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private void saveResult(Result result) {
+        if (!stateDir.exists() && !stateDir.mkdirs()) {
+            return;
+        }
+        Properties properties = new Properties();
+        properties.setProperty("seq_write_bps", String.valueOf(result.seqWriteBytesPerSec));
+        properties.setProperty("fsync_p50_us", String.valueOf(result.fsyncP50Us));
+        properties.setProperty("fsync_p95_us", String.valueOf(result.fsyncP95Us));
+        properties.setProperty("small_file_ops", String.valueOf(result.smallFileOpsPerSec));
+        properties.setProperty("measured_at", String.valueOf(result.measuredAtMs));
+        try (FileOutputStream out = new FileOutputStream(getStateFile(result.volumeId))) {
+            properties.store(out, null);
+        } catch (IOException e) {
+            AppLog.w(TAG, "保存测速结果失败: " + e.getMessage());
+        }
+    }
+}
@@ -7,9 +7,9 @@ import android.widget.Toast;
 
 import java.io.File;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
@@ -23,6 +23,10 @@ import java.util.concurrent.TimeUnit;
  * - 每隔1小时执行定期检测
  * - 支持分别设置视频和图片的存储限制（GB）
  * - 删除时额外删除20%，避免频繁删除
+ * - 文件大小和时间来自 StorageIndex 增量索引，清理时不遍历目录、不逐个读取文件属性
+ * - 视频按分级保留策略（RetentionPlanner）清理：最长保留时间、每路摄像头限制、
+ *   最近N天每小时保留一段，事件片段有独立配额，不会因普通录制占满而被删除；
+ *   事件片段计入视频总限制，只剩事件片段仍超限时删除最旧的事件片段
  */
 public class StorageCleanupManager {
     private static final String TAG = "StorageCleanupManager";
@@ -43,6 +47,9 @@ public class StorageCleanupManager {
     // 低空间强制清理比例（删除20%的已用空间，保留80%）
     private static final double LOW_SPACE_CLEANUP_RATIO = 0.20;
     
+    // 视频索引对账间隔（6小时）：发现回放界面或其他应用删除的文件
+    private static final long RECONCILE_INTERVAL_MS = 6 * 60 * 60 * 1000;
+    
     private final Context context;
     private final AppConfig appConfig;
     private ScheduledExecutorService scheduler;
@@ -108,16 +115,10 @@ public class StorageCleanupManager {
         int videoLimitGb = appConfig.getVideoStorageLimitGb();
         int photoLimitGb = appConfig.getPhotoStorageLimitGb();
         
-        // 检测并清理视频
-        if (videoLimitGb > 0) {
-            CleanupResult videoResult = cleanupDirectory(
-                StorageHelper.getVideoDir(context),
-                videoLimitGb * GB_TO_BYTES,
-                "视频"
-            );
-            if (videoResult.deletedCount > 0) {
-                showCleanupNotification(videoResult, "视频");
-            }
+        // 按保留策略清理视频和事件片段
+        CleanupResult videoResult = applyVideoRetention(videoLimitGb);
+        if (videoResult.deletedCount > 0) {
+            showCleanupNotification(videoResult, "视频");
         }
         
         // 检测并清理图片
@@ -125,7 +126,8 @@ public class StorageCleanupManager {
             CleanupResult photoResult = cleanupDirectory(
                 StorageHelper.getPhotoDir(context),
                 photoLimitGb * GB_TO_BYTES,
-                "图片"
+                "图片",
+                true
             );
             if (photoResult.deletedCount > 0) {
                 showCleanupNotification(photoResult, "图片");
@@ -133,6 +135,12 @@ public class StorageCleanupManager {
         }
         
         AppLog.d(TAG, "存储清理检测完成");
+        
+        // 按限速回读校验已归档的视频（需在设置中启用）
+        IntegrityScrubber.getInstance(context).scrubIfDue();
+        
+        // 存储目录布局与设置不一致时（切换布局或更换U盘后）在后台迁移已有文件
+        StorageLayoutMigrator.getInstance(context).migrateIfNeeded();
     }
     
     /**
@@ -163,14 +171,23 @@ public class StorageCleanupManager {
         
         // 强制清理视频（删除20%的已用空间）
         File videoDir = StorageHelper.getVideoDir(context, false);
-        CleanupResult videoResult = cleanupByPercentage(videoDir, LOW_SPACE_CLEANUP_RATIO, "视频");
+        CleanupResult videoResult = cleanupByPercentage(videoDir, LOW_SPACE_CLEANUP_RATIO, "视频", false);
         if (videoResult.deletedCount > 0) {
             showLowSpaceCleanupNotification(videoResult, "视频");
         }
         
+        // 视频目录已没有可删除的文件时，强制清理事件片段
+        if (videoResult.deletedCount == 0) {
+            File eventDir = StorageHelper.getEventVideoDir(context, false);
+            CleanupResult eventResult = cleanupByPercentage(eventDir, LOW_SPACE_CLEANUP_RATIO, "事件片段", true);
+            if (eventResult.deletedCount > 0) {
+                showLowSpaceCleanupNotification(eventResult, "事件片段");
+            }
+        }
+        
         // 强制清理图片（删除20%的已用空间）
         File photoDir = StorageHelper.getPhotoDir(context, false);
-        CleanupResult photoResult = cleanupByPercentage(photoDir, LOW_SPACE_CLEANUP_RATIO, "图片");
+        CleanupResult photoResult = cleanupByPercentage(photoDir, LOW_SPACE_CLEANUP_RATIO, "图片", true);
         if (photoResult.deletedCount > 0) {
             showLowSpaceCleanupNotification(photoResult, "图片");
         }
@@ -181,26 +198,18 @@ public class StorageCleanupManager {
      * @param directory 目标目录
      * @param deleteRatio 删除比例（0.0-1.0）
      * @param typeName 类型名称
+     * @param alwaysReconcile 是否每次都与目录对账（图片未接入增量更新）
      * @return 清理结果
      */
-    private CleanupResult cleanupByPercentage(File directory, double deleteRatio, String typeName) {
+    private CleanupResult cleanupByPercentage(File directory, double deleteRatio, String typeName, boolean alwaysReconcile) {
         CleanupResult result = new CleanupResult();
         
         if (directory == null || !directory.exists() || !directory.isDirectory()) {
             return result;
         }
         
-        File[] files = directory.listFiles(File::isFile);
-        if (files == null || files.length == 0) {
-            return result;
-        }
-        
-        // 计算当前总大小
-        long totalSize = 0;
-        for (File file : files) {
-            totalSize += file.length();
-        }
-        
+        StorageIndex index = getIndex(directory, alwaysReconcile);
+        long totalSize = index.getTotalBytes();
         result.originalSize = totalSize;
         
         if (totalSize == 0) {
@@ -209,37 +218,14 @@ public class StorageCleanupManager {
         
         // 计算需要删除的大小（总大小的指定比例）
         long needToDelete = (long) (totalSize * deleteRatio);
-        long targetSize = totalSize - needToDelete;
         
         AppLog.d(TAG, typeName + "强制清理：当前占用 " + StorageHelper.formatSize(totalSize) + 
                 "，将删除 " + StorageHelper.formatSize(needToDelete) + " (20%)");
         
-        // 按修改时间排序（最旧的在前）
-        List<File> sortedFiles = new ArrayList<>(Arrays.asList(files));
-        sortedFiles.sort(Comparator.comparingLong(File::lastModified));
+        deleteOldest(index, needToDelete, result, "强制删除旧文件: ");
+        result.finalSize = totalSize - result.deletedSize;
         
-        // 删除最旧的文件直到达到目标大小
-        long deletedSize = 0;
-        int deletedCount = 0;
-        
-        for (File file : sortedFiles) {
-            if (totalSize - deletedSize <= targetSize) {
-                break;
-            }
-            
-            long fileSize = file.length();
-            if (file.delete()) {
-                deletedSize += fileSize;
-                deletedCount++;
-                AppLog.d(TAG, "强制删除旧文件: " + file.getName() + " (" + StorageHelper.formatSize(fileSize) + ")");
-            }
-        }
-        
-        result.deletedSize = deletedSize;
-        result.deletedCount = deletedCount;
-        result.finalSize = totalSize - deletedSize;
-        
-        AppLog.d(TAG, typeName + "强制清理完成：删除 " + deletedCount + " 个文件，释放 " + StorageHelper.formatSize(deletedSize));
+        AppLog.d(TAG, typeName + "强制清理完成：删除 " + result.deletedCount + " 个文件，释放 " + StorageHelper.formatSize(result.deletedSize));
         
         return result;
     }
@@ -260,9 +246,10 @@ public class StorageCleanupManager {
      * @param directory 目标目录
      * @param limitBytes 限制大小（字节）
      * @param typeName 类型名称（用于日志）
+     * @param alwaysReconcile 是否每次都与目录对账（图片未接入增量更新）
      * @return 清理结果
      */
-    private CleanupResult cleanupDirectory(File directory, long limitBytes, String typeName) {
+    private CleanupResult cleanupDirectory(File directory, long limitBytes, String typeName, boolean alwaysReconcile) {
         CleanupResult result = new CleanupResult();
         
         if (directory == null || !directory.exists() || !directory.isDirectory()) {
@@ -270,24 +257,18 @@ public class StorageCleanupManager {
             return result;
         }
         
-        // 获取目录中所有文件（不筛选格式）
-        File[] files = directory.listFiles(File::isFile);
-        
-        if (files == null || files.length == 0) {
+        // 当前总大小直接取自索引
+        StorageIndex index = getIndex(directory, alwaysReconcile);
+        if (index.getFileCount() == 0) {
             AppLog.d(TAG, typeName + "目录为空");
             return result;
         }
-        
-        // 计算当前总大小
-        long totalSize = 0;
-        for (File file : files) {
-            totalSize += file.length();
-        }
+        long totalSize = index.getTotalBytes();
         
         result.originalSize = totalSize;
         
         AppLog.d(TAG, typeName + "当前占用: " + StorageHelper.formatSize(totalSize) + 
-                " / 限制: " + StorageHelper.formatSize(limitBytes));
+                " / 限制: " + StorageHelper.formatSize(limitBytes) + "（" + index.getFileCount() + " 个文件）");
         
         // 如果未超过限制，无需清理
         if (totalSize <= limitBytes) {
@@ -302,41 +283,166 @@ public class StorageCleanupManager {
         AppLog.d(TAG, typeName + "超过限制，需要删除: " + StorageHelper.formatSize(needToDelete) + 
                 "，目标大小: " + StorageHelper.formatSize(targetSize));
         
-        // 按修改时间排序（最旧的在前）
-        List<File> sortedFiles = new ArrayList<>(Arrays.asList(files));
-        sortedFiles.sort(Comparator.comparingLong(File::lastModified));
+        // 从索引中按开始时间取最旧的文件，直到达到目标大小
+        deleteOldest(index, needToDelete, result, "已删除" + typeName + ": ");
+        result.finalSize = totalSize - result.deletedSize;
         
-        // 删除最旧的文件直到达到目标大小
-        long deletedSize = 0;
-        int deletedCount = 0;
+        AppLog.d(TAG, typeName + "清理完成：删除 " + result.deletedCount + " 个文件，释放 " + 
+                StorageHelper.formatSize(result.deletedSize) + "，剩余 " + StorageHelper.formatSize(result.finalSize));
         
-        for (File file : sortedFiles) {
-            if (totalSize - deletedSize <= targetSize) {
-                break;
+        return result;
+    }
+    
+    /**
+     * 按分级保留策略清理视频目录和事件目录
+     * 普通分段受最长保留时间、每路摄像头限制和视频总限制约束；事件片段和受保护的视频受事件配额约束，
+     * 并计入视频总限制（普通分段删完仍超限时才删除）
+     * @param videoLimitGb 视频总限制（GB），0表示不限制
+     * @return 清理结果
+     */
+    private CleanupResult applyVideoRetention(int videoLimitGb) {
+        CleanupResult result = new CleanupResult();
+        RetentionPlanner planner = buildRetentionPlanner(videoLimitGb);
+        if (planner.isEmpty()) {
+            return result;
+        }
+        
+        // 视频目录和事件目录的文件合并规划
+        Map<File, StorageIndex> indexes = new HashMap<>();
+        List<RetentionPlanner.Item> items = new ArrayList<>();
+        File videoDir = StorageHelper.getVideoDir(context);
+        if (videoDir != null && videoDir.isDirectory()) {
+            StorageIndex index = getIndex(videoDir, false);
+            indexes.put(videoDir, index);
+            for (StorageIndex.Entry entry : index.getEntries()) {
+                items.add(new RetentionPlanner.Item(videoDir, entry.name, entry.camera, entry.startTimeMs, entry.getSize(),
+                        entry.isProtected() || entry.isEvent() ? RetentionPlanner.Tier.PROTECTED : RetentionPlanner.Tier.NORMAL));
             }
-            
-            long fileSize = file.length();
-            String fileName = file.getName();
-            
+            result.originalSize += index.getTotalBytes();
+        }
+        // 事件目录文件很少，每次都对账
+        File eventDir = StorageHelper.getEventVideoDir(context);
+        if (eventDir != null && eventDir.isDirectory() && !eventDir.equals(videoDir)) {
+            StorageIndex index = getIndex(eventDir, true);
+            indexes.put(eventDir, index);
+            for (StorageIndex.Entry entry : index.getEntries()) {
+                items.add(new RetentionPlanner.Item(eventDir, entry.name, entry.camera, entry.startTimeMs, entry.getSize(),
+                        RetentionPlanner.Tier.PROTECTED));
+            }
+            result.originalSize += index.getTotalBytes();
+        }
+        if (items.isEmpty()) {
+            AppLog.d(TAG, "视频目录为空");
+            return result;
+        }
+        
+        long startNs = System.nanoTime();
+        RetentionPlanner.Plan plan = planner.plan(items, System.currentTimeMillis());
+        AppLog.d(TAG, "保留策略规划完成（" + ((System.nanoTime() - startNs) / 1_000_000) + "ms）: " + plan);
+        
+        for (RetentionPlanner.Item item : plan.getDeletions()) {
+            File file = new File(item.directory, item.name);
+            StorageIndex index = indexes.get(item.directory);
             if (file.delete()) {
-                deletedSize += fileSize;
-                deletedCount++;
-                AppLog.d(TAG, "已删除" + typeName + ": " + fileName + " (" + StorageHelper.formatSize(fileSize) + ")");
+                index.remove(item.name);
+                SegmentChecksum.deleteSidecar(file);
+                VideoThumbnail.deleteSidecar(file);
+                result.deletedSize += item.size;
+                result.deletedCount++;
+                AppLog.d(TAG, "已删除视频: " + item.name + " (" + StorageHelper.formatSize(item.size) + ")");
+            } else if (!file.exists()) {
+                index.remove(item.name);
+                AppLog.d(TAG, "文件已不存在，从索引中移除: " + item.name);
             } else {
-                AppLog.w(TAG, "删除" + typeName + "失败: " + fileName);
+                AppLog.w(TAG, "删除失败: " + item.name);
             }
         }
+        result.finalSize = result.originalSize - result.deletedSize;
         
-        result.deletedCount = deletedCount;
-        result.deletedSize = deletedSize;
-        result.finalSize = totalSize - deletedSize;
-        
-        AppLog.d(TAG, typeName + "清理完成：删除 " + deletedCount + " 个文件，释放 " + 
-                StorageHelper.formatSize(deletedSize) + "，剩余 " + StorageHelper.formatSize(result.finalSize));
+        AppLog.d(TAG, "视频清理完成：删除 " + result.deletedCount + " 个文件，释放 " + 
+                StorageHelper.formatSize(result.deletedSize) + "，剩余 " + StorageHelper.formatSize(result.finalSize));
         
         return result;
     }
     
+    /**
+     * 根据配置组合保留策略
+     * 视频总限制超出时与原来一样额外删除20%，避免频繁删除
+     */
+    private RetentionPlanner buildRetentionPlanner(int videoLimitGb) {
+        List<RetentionPlanner.Policy> policies = new ArrayList<>();
+        int hourlyKeepDays = appConfig.getHourlyKeepDays();
+        if (hourlyKeepDays > 0) {
+            policies.add(new RetentionPlanner.HourlyKeepPolicy(hourlyKeepDays));
+        }
+        int maxAgeDays = appConfig.getRetentionMaxAgeDays();
+        if (maxAgeDays > 0) {
+            policies.add(new RetentionPlanner.MaxAgePolicy(maxAgeDays));
+        }
+        int cameraLimitGb = appConfig.getCameraStorageLimitGb();
+        if (cameraLimitGb > 0) {
+            policies.add(new RetentionPlanner.MaxBytesPerCameraPolicy(cameraLimitGb * GB_TO_BYTES));
+        }
+        // 事件配额先于总限制执行，总限制按配额清理后的事件片段计算
+        int eventLimitGb = appConfig.getEventStorageLimitGb();
+        if (eventLimitGb > 0) {
+            policies.add(new RetentionPlanner.ProtectedQuotaPolicy(eventLimitGb * GB_TO_BYTES));
+        }
+        if (videoLimitGb > 0) {
+            long limitBytes = videoLimitGb * GB_TO_BYTES;
+            policies.add(new RetentionPlanner.MaxTotalBytesPolicy(limitBytes, (long) (limitBytes * (1 - EXTRA_DELETE_RATIO))));
+        }
+        return new RetentionPlanner(policies);
+    }
+    
+    /**
+     * 获取目录索引，按需与目录对账
+     * 视频索引由录制和传输回调增量维护，只在本进程首次使用和每隔6小时对账一次
+     */
+    private StorageIndex getIndex(File directory, boolean alwaysReconcile) {
+        StorageIndex index = StorageIndex.forDirectory(context, directory);
+        long lastReconcile = index.getLastReconcileTimeMs();
+        if (alwaysReconcile || lastReconcile == 0
+                || System.currentTimeMillis() - lastReconcile >= RECONCILE_INTERVAL_MS) {
+            index.reconcile();
+        }
+        return index;
+    }
+    
+    /**
+     * 删除索引中最旧的文件，直到释放指定大小
+     * 已被带外删除的文件只从索引中移除，不计入释放大小
+     */
+    private void deleteOldest(StorageIndex index, long bytesToFree, CleanupResult result, String logPrefix) {
+        File directory = index.getDirectory();
+        long remaining = bytesToFree;
+        // 带外删除的条目不计入释放大小，需要补选时再次选择（最多几轮）
+        for (int round = 0; round < 3 && remaining > 0; round++) {
+            List<StorageIndex.Entry> candidates = index.selectOldest(remaining);
+            if (candidates.isEmpty()) {
+                break;
+            }
+            for (StorageIndex.Entry entry : candidates) {
+                File file = new File(directory, entry.name);
+                long fileSize = entry.getSize();
+                if (file.delete()) {
+                    index.remove(entry.name);
+                    SegmentChecksum.deleteSidecar(file);
+                    VideoThumbnail.deleteSidecar(file);
+                    result.deletedSize += fileSize;
+                    result.deletedCount++;
+                    remaining -= fileSize;
+                    AppLog.d(TAG, logPrefix + entry.name + " (" + StorageHelper.formatSize(fileSize) + ")");
+                } else if (!file.exists()) {
+                    index.remove(entry.name);
+                    AppLog.d(TAG, "文件已不存在，从索引中移除: " + entry.name);
+                } else {
+                    AppLog.w(TAG, "删除失败: " + entry.name);
+                }
+            }
+        }
+    }
+    
     /**
      * 显示清理通知
      */
@@ -361,7 +467,7 @@ public class StorageCleanupManager {
      * @return 占用大小（字节）
      */
     public long getVideoUsedSize() {
-        return getDirectorySize(StorageHelper.getVideoDir(context));
+        return getDirectorySize(StorageHelper.getVideoDir(context), false);
     }
     
     /**
@@ -369,28 +475,17 @@ public class StorageCleanupManager {
      * @return 占用大小（字节）
      */
     public long getPhotoUsedSize() {
-        return getDirectorySize(StorageHelper.getPhotoDir(context));
+        return getDirectorySize(StorageHelper.getPhotoDir(context), true);
     }
     
     /**
-     * 获取目录中所有文件的总大小
+     * 获取目录中所有文件的总大小（来自索引）
      */
-    private long getDirectorySize(File directory) {
+    private long getDirectorySize(File directory, boolean alwaysReconcile) {
         if (directory == null || !directory.exists() || !directory.isDirectory()) {
             return 0;
         }
-        
-        File[] files = directory.listFiles(File::isFile);
-        
-        if (files == null) {
-            return 0;
-        }
-        
-        long totalSize = 0;
-        for (File file : files) {
-            totalSize += file.length();
-        }
-        return totalSize;
+        return getIndex(directory, alwaysReconcile).getTotalBytes();
     }
     
     /**
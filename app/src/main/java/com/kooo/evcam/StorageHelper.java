@@ -6,14 +6,18 @@ import android.os.Environment;
 import android.os.StatFs;
 
 import java.io.File;
+import java.io.FilenameFilter;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.TimeZone;
 
 /**
  * 存储帮助类
  * 提供U盘检测和存储路径管理功能
+ * 存储目录可选按日期分目录（见 getMediaFile / walkMediaDirs）
  * 
- * 性能优化：使用内存缓存减少重复的文件系统 I/O 操作
+ * 性能优化：U盘状态由 StorageVolumeMonitor 根据挂载事件维护，查询不做文件系统 I/O
  */
 public class StorageHelper {
     private static final String TAG = "StorageHelper";
@@ -22,74 +26,51 @@ public class StorageHelper {
     public static final String VIDEO_DIR_NAME = "EVCam_Video";
     public static final String PHOTO_DIR_NAME = "EVCam_Photo";
     public static final String LOG_DIR_NAME = "EVCam_Log";
+    public static final String EVENT_DIR_NAME = "EVCam_Event";  // 事件片段（只受事件配额约束）
     
-    // ==================== 内存缓存（性能优化）====================
-    // U盘检测结果缓存（避免重复的文件系统 I/O）
-    private static volatile Boolean cachedHasSdCard = null;
-    private static volatile File cachedSdCardRoot = null;
-    private static volatile long cacheTimestamp = 0;
-    private static final long CACHE_VALIDITY_MS = 5000;  // 缓存有效期：5秒
-    
-    // 用于同步的锁对象
-    private static final Object cacheLock = new Object();
-    
-    /**
-     * 清除内存缓存（U盘插拔时调用）
-     */
-    public static void clearCache() {
-        synchronized (cacheLock) {
-            cachedHasSdCard = null;
-            cachedSdCardRoot = null;
-            cacheTimestamp = 0;
-            AppLog.d(TAG, "U盘检测缓存已清除");
-        }
+    static {
+        // 存储位置或自定义U盘路径变化时立即重新检测U盘
+        ConfigSnapshot.subscribe((snapshot, key) -> clearCache(),
+                AppConfig.KEY_STORAGE_LOCATION, AppConfig.KEY_CUSTOM_SD_CARD_PATH);
     }
     
     /**
-     * 检查缓存是否有效
+     * 请求重新检测U盘（U盘插拔或路径设置变化时调用，检测在后台线程上执行）
      */
-    private static boolean isCacheValid() {
-        return cacheTimestamp > 0 && (System.currentTimeMillis() - cacheTimestamp) < CACHE_VALIDITY_MS;
+    public static void clearCache() {
+        StorageVolumeMonitor.requestRescan();
+        AppLog.d(TAG, "已请求重新检测U盘");
     }
     
     /**
      * 检测是否有U盘（并且可以写入公共目录）
-     * 使用内存缓存，5秒内不重复检测
+     * 读取挂载状态机的当前状态，不做文件系统 I/O
      * @param context 上下文
      * @return true 如果检测到U盘且可写入
      */
     public static boolean hasExternalSdCard(Context context) {
-        // 先检查缓存
-        synchronized (cacheLock) {
-            if (isCacheValid() && cachedHasSdCard != null) {
-                return cachedHasSdCard;
-            }
+        if (context == null) {
+            return false;
         }
-        
-        // 缓存无效，执行检测
-        File sdCardRoot = getExternalSdCardRoot(context);
-        boolean result = false;
-        
-        if (sdCardRoot != null && sdCardRoot.exists()) {
-            // 检查 DCIM 目录是否可写
-            File dcimDir = new File(sdCardRoot, Environment.DIRECTORY_DCIM);
-            if (!dcimDir.exists()) {
-                // 尝试创建 DCIM 目录
-                boolean created = dcimDir.mkdirs();
-                if (!created) {
-                    AppLog.w(TAG, "无法在U盘上创建 DCIM 目录");
-                }
-            }
-            result = dcimDir.exists() && dcimDir.canWrite();
+        return StorageVolumeMonitor.getInstance(context).isWritable();
+    }
+    
+    /**
+     * U盘的 DCIM 目录是否可写（不存在时尝试创建）
+     */
+    static boolean isDcimWritable(File sdCardRoot) {
+        if (sdCardRoot == null || !sdCardRoot.exists()) {
+            return false;
         }
-        
-        // 更新缓存
-        synchronized (cacheLock) {
-            cachedHasSdCard = result;
-            cacheTimestamp = System.currentTimeMillis();
+        File dcimDir = new File(sdCardRoot, Environment.DIRECTORY_DCIM);
+        if (!dcimDir.exists()) {
+            // 尝试创建 DCIM 目录
+            boolean created = dcimDir.mkdirs();
+            if (!created) {
+                AppLog.w(TAG, "无法在U盘上创建 DCIM 目录");
+            }
         }
-        
-        return result;
+        return dcimDir.exists() && dcimDir.canWrite();
     }
     
     /**
@@ -217,6 +198,27 @@ public class StorageHelper {
         return getStorageDir(context, useExternalSd, LOG_DIR_NAME, Environment.DIRECTORY_DOWNLOADS);
     }
     
+    /**
+     * 获取事件片段存储目录
+     * @param context 上下文
+     * @param useExternalSd 是否使用U盘
+     * @return 事件片段存储目录
+     */
+    public static File getEventVideoDir(Context context, boolean useExternalSd) {
+        return getStorageDir(context, useExternalSd, EVENT_DIR_NAME, Environment.DIRECTORY_DCIM);
+    }
+    
+    /**
+     * 根据 AppConfig 配置获取事件片段存储目录
+     * 与视频目录同级，不参与普通分段的循环覆盖；存储清理按事件配额和视频总限制清理最旧的事件片段
+     * @param context 上下文
+     * @return 事件片段存储目录
+     */
+    public static File getEventVideoDir(Context context) {
+        AppConfig config = new AppConfig(context);
+        return getEventVideoDir(context, config.isUsingExternalSdCard());
+    }
+    
     /**
      * 根据 AppConfig 配置获取视频存储目录
      * @param context 上下文
@@ -297,6 +299,281 @@ public class StorageHelper {
         return getPhotoDir(context, config.isUsingExternalSdCard());
     }
     
+    // ==================== 按日期分目录存储（可选）====================
+    // 视频、事件片段和图片目录可以按文件名中的时间戳分到 yyyy/MM/dd（或 yyyy/MM/dd/HH）子目录中，
+    // 避免 FAT/exFAT 单个目录中文件过多导致查找和列目录变慢。
+    // 所有读取方都兼容两种布局（根目录中的平铺文件和分目录中的文件），布局设置只决定新文件的位置，
+    // 已有文件由 StorageLayoutMigrator 在后台迁移
+    
+    public static final String LAYOUT_FLAT = "flat";      // 所有文件直接放在存储目录下（原有布局）
+    public static final String LAYOUT_DAILY = "daily";    // 按天分目录：yyyy/MM/dd
+    public static final String LAYOUT_HOURLY = "hourly";  // 按小时分目录：yyyy/MM/dd/HH
+    
+    private static final int MAX_SHARD_DEPTH = 4;
+    
+    /**
+     * 分目录遍历回调
+     */
+    public interface MediaDirVisitor {
+        /**
+         * @param dir 当前目录（存储根目录或分目录）
+         * @param relativePrefix 相对于存储根目录的前缀（根目录为空字符串，分目录如 "2026/01/31/"）
+         * @param names 目录中的全部名称（包括子目录，只读取一次）
+         */
+        void visit(File dir, String relativePrefix, String[] names);
+    }
+    
+    /**
+     * 获取当前的分目录布局（无锁读取配置快照，配置尚未加载时为平铺）
+     */
+    public static String getStorageLayout() {
+        ConfigSnapshot snapshot = ConfigSnapshot.current();
+        return snapshot != null ? snapshot.getString(AppConfig.KEY_STORAGE_LAYOUT, LAYOUT_FLAT) : LAYOUT_FLAT;
+    }
+    
+    /**
+     * 是否为按日期分目录的存储根目录（视频、事件片段、图片目录；中转临时目录始终平铺）
+     */
+    public static boolean isShardedRoot(File dir) {
+        String name = dir.getName();
+        return VIDEO_DIR_NAME.equals(name) || EVENT_DIR_NAME.equals(name) || PHOTO_DIR_NAME.equals(name);
+    }
+    
+    /**
+     * 按当前布局计算文件应在的目录（不创建目录）
+     * @param root 存储根目录
+     * @param fileName 文件名（以 yyyyMMdd_HHmmss 开头）
+     */
+    public static File getShardDir(File root, String fileName) {
+        return getShardDir(root, fileName, getStorageLayout());
+    }
+    
+    /**
+     * 按指定布局计算文件应在的目录（不创建目录）
+     * 平铺布局、非分目录根目录或文件名没有时间戳时返回根目录
+     */
+    public static File getShardDir(File root, String fileName, String layout) {
+        if (LAYOUT_FLAT.equals(layout) || !isShardedRoot(root) || !hasTimestampPrefix(fileName)) {
+            return root;
+        }
+        File dayDir = new File(root, fileName.substring(0, 4) + "/" + fileName.substring(4, 6) + "/" + fileName.substring(6, 8));
+        return LAYOUT_HOURLY.equals(layout) ? new File(dayDir, fileName.substring(9, 11)) : dayDir;
+    }
+    
+    /**
+     * 获取新文件的完整路径（按当前布局放入分目录，分目录不存在时创建）
+     * 录制、拍照、中转传输等所有写入新文件的地方都通过此方法确定路径
+     * @param root 存储根目录
+     * @param fileName 文件名
+     */
+    public static File getMediaFile(File root, String fileName) {
+        File dir = getShardDir(root, fileName);
+        if (dir != root && !dir.exists() && !dir.mkdirs() && !dir.exists()) {
+            AppLog.w(TAG, "创建分目录失败，写入根目录: " + dir.getAbsolutePath());
+            dir = root;
+        }
+        return new File(dir, fileName);
+    }
+    
+    /**
+     * 由文件所在目录得到存储根目录（平铺布局下即该目录本身）
+     */
+    public static File getShardRoot(File dir) {
+        File candidate = dir;
+        for (int depth = 0; depth <= MAX_SHARD_DEPTH && candidate != null; depth++) {
+            if (isShardedRoot(candidate)) {
+                return candidate;
+            }
+            if (!isShardName(candidate.getName())) {
+                break;
+            }
+            candidate = candidate.getParentFile();
+        }
+        return dir;
+    }
+    
+    /**
+     * 文件相对于存储根目录的路径（如 "2026/01/31/20260131_125430_front.mp4"），不在根目录下时返回 null
+     */
+    public static String getRelativePath(File root, File file) {
+        String rootPath = root.getAbsolutePath();
+        String path = file.getAbsolutePath();
+        if (path.length() <= rootPath.length() + 1 || !path.startsWith(rootPath)
+                || path.charAt(rootPath.length()) != File.separatorChar) {
+            return null;
+        }
+        return path.substring(rootPath.length() + 1);
+    }
+    
+    /**
+     * 遍历存储根目录及其所有日期分目录，每个目录只列一次
+     * 先访问根目录，分目录按日期从新到旧访问；隐藏目录和非日期名称的子目录不进入
+     * @return 根目录不可访问时返回 false
+     */
+    public static boolean walkMediaDirs(File root, MediaDirVisitor visitor) {
+        String[] names = root.list();
+        if (names == null) {
+            return false;
+        }
+        visitor.visit(root, "", names);
+        if (isShardedRoot(root)) {
+            walkShardChildren(root, "", names, 0, visitor);
+        }
+        return true;
+    }
+    
+    private static void walkShardChildren(File dir, String prefix, String[] names, int depth, MediaDirVisitor visitor) {
+        if (depth >= MAX_SHARD_DEPTH) {
+            return;
+        }
+        int expectedLength = depth == 0 ? 4 : 2;
+        List<String> children = new ArrayList<>();
+        for (String name : names) {
+            if (name.length() == expectedLength && isShardName(name)) {
+                children.add(name);
+            }
+        }
+        if (children.isEmpty()) {
+            return;
+        }
+        Collections.sort(children, Collections.reverseOrder());
+        for (String child : children) {
+            File childDir = new File(dir, child);
+            String[] childNames = childDir.list();
+            if (childNames == null) {
+                continue;  // 与分目录同名的普通文件
+            }
+            String childPrefix = prefix + child + "/";
+            visitor.visit(childDir, childPrefix, childNames);
+            walkShardChildren(childDir, childPrefix, childNames, depth + 1, visitor);
+        }
+    }
+    
+    /**
+     * 列出存储根目录及所有日期分目录中符合条件的文件
+     */
+    public static List<File> listMediaFiles(File root, FilenameFilter filter) {
+        List<File> result = new ArrayList<>();
+        walkMediaDirs(root, (dir, prefix, names) -> {
+            for (String name : names) {
+                if (filter.accept(dir, name)) {
+                    result.add(new File(dir, name));
+                }
+            }
+        });
+        return result;
+    }
+    
+    /**
+     * 列出某个时间戳的文件可能所在的目录：按天和按小时的分目录（存在时）以及根目录（平铺的旧文件）
+     * 按时间戳查找文件时只需列出这几个小目录，不遍历整个存储
+     * @param timestamp yyyyMMdd_HHmmss 格式的时间戳（或以其开头的文件名）
+     */
+    public static List<File> getCandidateDirs(File root, String timestamp) {
+        List<File> dirs = new ArrayList<>();
+        if (isShardedRoot(root) && hasTimestampPrefix(timestamp)) {
+            File dayDir = getShardDir(root, timestamp, LAYOUT_DAILY);
+            File hourDir = getShardDir(root, timestamp, LAYOUT_HOURLY);
+            if (hourDir.isDirectory()) {
+                dirs.add(hourDir);
+            }
+            if (dayDir.isDirectory()) {
+                dirs.add(dayDir);
+            }
+        }
+        dirs.add(root);
+        return dirs;
+    }
+    
+    /**
+     * 文件名是否以 yyyyMMdd_HHmmss 开头
+     */
+    public static boolean hasTimestampPrefix(String name) {
+        if (name == null || name.length() < 15 || name.charAt(8) != '_') {
+            return false;
+        }
+        for (int i = 0; i < 15; i++) {
+            if (i != 8 && (name.charAt(i) < '0' || name.charAt(i) > '9')) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * 解析文件名中 offset 处的 yyyyMMdd_HHmmss 时间戳（按本地时间）
+     * 按固定位置逐字符解析，不创建 SimpleDateFormat/Date，可在遍历大量文件时逐个调用
+     * @param name 文件名或相对路径
+     * @param offset 时间戳在 name 中的起始位置（相对路径传文件名部分的起始位置）
+     * @param zone 时区（由调用方获取一次后复用，TimeZone.getDefault() 每次都会复制对象）
+     * @return 时间戳（毫秒），不是有效时间戳时返回 -1
+     */
+    public static long parseTimestampPrefix(String name, int offset, TimeZone zone) {
+        if (name == null || offset < 0 || name.length() < offset + 15 || name.charAt(offset + 8) != '_') {
+            return -1;
+        }
+        int year = parseDigits(name, offset, 4);
+        int month = parseDigits(name, offset + 4, 2);
+        int day = parseDigits(name, offset + 6, 2);
+        int hour = parseDigits(name, offset + 9, 2);
+        int minute = parseDigits(name, offset + 11, 2);
+        int second = parseDigits(name, offset + 13, 2);
+        if (year < 0 || month < 1 || month > 12 || day < 1 || day > getDaysInMonth(year, month)
+                || hour < 0 || hour > 23 || minute < 0 || minute > 59 || second < 0 || second > 59) {
+            return -1;
+        }
+        long localMs = ((getEpochDay(year, month, day) * 24 + hour) * 60 + minute) * 60_000L + second * 1000L;
+        // 本地时间换算为 UTC：先按标准时差估算，再取该时刻的实际时差（含夏令时）
+        return localMs - zone.getOffset(localMs - zone.getRawOffset());
+    }
+    
+    /**
+     * 解析固定位数的十进制数字，含非数字字符时返回 -1
+     */
+    private static int parseDigits(String s, int start, int count) {
+        int value = 0;
+        for (int i = start; i < start + count; i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+    
+    private static int getDaysInMonth(int year, int month) {
+        if (month == 2) {
+            boolean leap = (year % 4 == 0 && year % 100 != 0) || year % 400 == 0;
+            return leap ? 29 : 28;
+        }
+        return (month == 4 || month == 6 || month == 9 || month == 11) ? 30 : 31;
+    }
+    
+    /**
+     * 公历日期距 1970-01-01 的天数（year >= 0）
+     */
+    private static long getEpochDay(int year, int month, int day) {
+        int y = month <= 2 ? year - 1 : year;
+        int era = (y >= 0 ? y : y - 399) / 400;
+        int yearOfEra = y - era * 400;
+        int dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097L + dayOfEra - 719468;
+    }
+    
+    private static boolean isShardName(String name) {
+        if (name.isEmpty() || name.length() > 4) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            if (name.charAt(i) < '0' || name.charAt(i) > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+    
     /**
      * 获取存储目录
      * @param context 上下文
@@ -340,7 +617,7 @@ public class StorageHelper {
     
     /**
      * 获取U盘根目录（用于写入公共目录）
-     * 优化检测逻辑：内存缓存优先 + SharedPreferences缓存 + 无感切换不同U盘
+     * 读取挂载状态机的当前状态（O(1)），U盘弹出或移除后立即返回 null
      * @param context 上下文
      * @return U盘根目录，如果没有则返回 null
      */
@@ -348,36 +625,14 @@ public class StorageHelper {
         if (context == null) {
             return null;
         }
-        
-        // 优先检查内存缓存（最快，避免任何 I/O）
-        synchronized (cacheLock) {
-            if (isCacheValid() && cachedSdCardRoot != null) {
-                // 快速验证缓存的路径仍然有效
-                if (cachedSdCardRoot.exists() && cachedSdCardRoot.canRead()) {
-                    return cachedSdCardRoot;
-                }
-                // 缓存的路径失效了，清除缓存继续检测
-                cachedSdCardRoot = null;
-                cachedHasSdCard = null;
-            }
-        }
-        
-        // 内存缓存未命中，执行检测
-        File result = getExternalSdCardRootInternal(context);
-        
-        // 更新内存缓存
-        synchronized (cacheLock) {
-            cachedSdCardRoot = result;
-            cacheTimestamp = System.currentTimeMillis();
-        }
-        
-        return result;
+        return StorageVolumeMonitor.getInstance(context).getRoot();
     }
     
     /**
-     * 实际执行U盘检测（内部方法，不使用缓存）
+     * 实际执行U盘检测（有 I/O，只由 StorageVolumeMonitor 在挂载事件时调用）
+     * 检测顺序：用户设置的路径 + SharedPreferences 缓存的路径 + 挂载表（无感切换不同U盘）
      */
-    private static File getExternalSdCardRootInternal(Context context) {
+    static File detectExternalSdCardRoot(Context context) {
         AppConfig config = new AppConfig(context);
         
         // 方法0：优先使用用户手动设置的路径
@@ -426,26 +681,16 @@ public class StorageHelper {
      * 只接受 /storage/XXXX-XXXX 格式
      */
     private static File getSdCardFromMounts() {
-        try {
-            java.io.BufferedReader reader = new java.io.BufferedReader(
-                    new java.io.FileReader("/proc/mounts"));
-            String line;
-            while ((line = reader.readLine()) != null) {
-                String[] parts = line.split("\\s+");
-                if (parts.length < 2) continue;
-                
-                String mountPoint = parts[1];
-                // 只接受 /storage/XXXX-XXXX 格式
-                if (mountPoint.matches("/storage/[0-9A-Fa-f]{4}-[0-9A-Fa-f]{4}")) {
-                    File sdCard = new File(mountPoint);
-                    if (sdCard.exists() && sdCard.isDirectory() && sdCard.canRead()) {
-                        AppLog.d(TAG, "通过 /proc/mounts 找到U盘: " + mountPoint);
-                        reader.close();
-                        return sdCard;
-                    }
+        try (java.io.BufferedReader reader = new java.io.BufferedReader(
+                new java.io.FileReader("/proc/mounts"))) {
+            // 只接受 /storage/XXXX-XXXX 格式
+            for (String mountPoint : StorageVolumeMonitor.parseMountTable(reader)) {
+                File sdCard = new File(mountPoint);
+                if (sdCard.exists() && sdCard.isDirectory() && sdCard.canRead()) {
+                    AppLog.d(TAG, "通过 /proc/mounts 找到U盘: " + mountPoint);
+                    return sdCard;
                 }
             }
-            reader.close();
         } catch (Exception e) {
             // 忽略错误
         }
@@ -473,7 +718,7 @@ public class StorageHelper {
                     if (index > 0) {
                         String sdRootPath = path.substring(0, index);
                         // 只接受 /storage/XXXX-XXXX 格式
-                        if (sdRootPath.matches("/storage/[0-9A-Fa-f]{4}-[0-9A-Fa-f]{4}")) {
+                        if (StorageVolumeMonitor.SD_CARD_MOUNT_POINT.matcher(sdRootPath).matches()) {
                             File sdRoot = new File(sdRootPath);
                             if (sdRoot.exists() && sdRoot.canRead()) {
                                 AppLog.d(TAG, "通过 getExternalFilesDirs 找到U盘: " + sdRoot.getAbsolutePath());
@@ -0,0 +1,615 @@
+package com.kooo.evcam;
+
+import android.content.Context;
+import android.database.SQLException;
+import android.os.Handler;
+import android.os.HandlerThread;
+
+import com.kooo.evcam.camera.Mp4RecoveryEngine;
+import com.kooo.evcam.playback.VideoGroup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.TreeSet;
+
+/**
+ * 存储目录索引（媒体目录）
+ * 持久化记录目录中每个文件的大小、开始/结束时间、摄像头位置、分段元数据（时长、分辨率、编码格式、关键帧数）
+ * 和保护/事件标记，使存储清理、回放界面和远程命令不必遍历目录并对每个文件调用 length()/lastModified()
+ * （U盘 FAT/exFAT 上数万个文件时非常慢）
+ *
+ * 持久化在应用内部的 SQLite 数据库中（MediaDatabase，不写入被索引的目录），修改时同步写入，批量修改使用事务；
+ * 内存中保留按开始时间排序的副本供清理规划使用，按时间段/摄像头的查询（query）直接使用数据库索引。
+ *
+ * 索引由录制分段切换、中转传输完成等回调增量更新，录像分段完成时在后台读取分段元数据（只读取 moov/moof），
+ * 同时保存分段的关键帧索引（getKeyFrameIndex，回放跳转和拖动预览使用）；
+ * 应用之外（或回放界面）删除的文件由 reconcile() 对账时发现（只读取文件名列表，不逐个 stat），
+ * rebuild() 丢弃数据库中的记录，从目录重新建立索引并重新读取所有分段的元数据
+ *
+ * 存储目录按日期分目录时（见 StorageHelper），一个存储根目录只有一个索引，
+ * 条目名称为相对于根目录的路径（如 "2026/01/31/20260131_125430_front.mp4"），对账时遍历所有分目录
+ *
+ * 线程安全，同一目录在进程内共用一个实例（forDirectory）
+ */
+public class StorageIndex {
+    private static final String TAG = "StorageIndex";
+
+    private static final Map<String, StorageIndex> instances = new HashMap<>();
+    private static Handler probeHandler;
+
+    /**
+     * 索引条目
+     */
+    public static class Entry {
+        public final String name;        // 相对于索引目录的路径（平铺布局下即文件名）
+        public final long startTimeMs;   // 开始时间（优先从文件名时间戳解析，否则为修改时间）
+        public final String camera;      // 摄像头位置（front/back/left/right/mosaic，无法解析时为 null）
+        long size;
+        boolean isProtected;
+        boolean isEvent;                 // 事件片段（位于事件目录）
+        boolean probed;                  // 已读取分段元数据
+        long durationMs;
+        int width;
+        int height;
+        String codec;                    // 视频编码格式（如 avc1、hvc1），未读取时为 null
+        int keyFrameCount;
+
+        Entry(String name, long size, long startTimeMs, String camera, boolean isProtected) {
+            this.name = name;
+            this.size = size;
+            this.startTimeMs = startTimeMs;
+            this.camera = camera;
+            this.isProtected = isProtected;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public boolean isProtected() {
+            return isProtected;
+        }
+
+        public boolean isEvent() {
+            return isEvent;
+        }
+
+        /**
+         * 结束时间（未读取分段元数据时等于开始时间）
+         */
+        public long getEndTimeMs() {
+            return startTimeMs + durationMs;
+        }
+
+        public long getDurationMs() {
+            return durationMs;
+        }
+
+        public int getWidth() {
+            return width;
+        }
+
+        public int getHeight() {
+            return height;
+        }
+
+        public String getCodec() {
+            return codec;
+        }
+
+        public int getKeyFrameCount() {
+            return keyFrameCount;
+        }
+    }
+
+    /**
+     * 对账结果
+     */
+    public static class ReconcileResult {
+        public int removed = 0;  // 索引中有但目录中已不存在的文件（带外删除）
+        public int added = 0;    // 目录中有但索引中没有的文件
+        public int probed = 0;   // 重建时读取了元数据的分段
+        public boolean directoryAvailable = true;
+    }
+
+    // 按开始时间排序（最旧的在前），时间相同时按文件名
+    private static final Comparator<Entry> AGE_ORDER = (a, b) -> {
+        int cmp = Long.compare(a.startTimeMs, b.startTimeMs);
+        return cmp != 0 ? cmp : a.name.compareTo(b.name);
+    };
+
+    private final File directory;
+    private final String rootKey;       // 数据库中的根目录列
+    private final boolean eventRoot;    // 事件目录中的文件都标记为事件片段
+    private final MediaDatabase database;
+    private final Map<String, Entry> entries = new HashMap<>();
+    private final TreeSet<Entry> byAge = new TreeSet<>(AGE_ORDER);
+    private long totalBytes = 0;
+    private boolean loaded = false;
+    private long lastReconcileTimeMs = 0;  // 本进程内最近一次对账时间（0 表示尚未对账）
+
+    /**
+     * 获取目录对应的索引（进程内单例）
+     * @param context 上下文
+     * @param directory 被索引的目录
+     */
+    public static StorageIndex forDirectory(Context context, File directory) {
+        String path = directory.getAbsolutePath();
+        synchronized (instances) {
+            StorageIndex index = instances.get(path);
+            if (index == null) {
+                index = new StorageIndex(directory, MediaDatabase.getInstance(context));
+                instances.put(path, index);
+            }
+            return index;
+        }
+    }
+
+    /**
+     * 记录一个已完成的文件（新增或更新大小）
+     * 在分段完成、传输完成等回调中调用，只对该文件 stat 一次；录像文件随后在后台读取分段元数据
+     * 文件在日期分目录中时记录到存储根目录的索引
+     */
+    public static void recordFile(Context context, File file) {
+        if (file == null || file.getParentFile() == null) {
+            return;
+        }
+        StorageIndex index = forDirectory(context, StorageHelper.getShardRoot(file.getParentFile()));
+        index.add(file);
+        String name = StorageHelper.getRelativePath(index.directory, file);
+        if (name != null && isVideoName(name)) {
+            getProbeHandler().post(() -> index.probe(name));
+        }
+    }
+
+    /**
+     * 获取录像分段的关键帧索引
+     * 分段写入后读取元数据时已保存到数据库；没有时（旧版本录制的文件）从文件样本表读取一次并保存
+     * 会访问数据库和文件，在后台线程调用
+     * @return 索引，文件不完整或无法读取时返回 null
+     */
+    public static Mp4RecoveryEngine.KeyFrameIndex getKeyFrameIndex(Context context, File file) {
+        if (file == null || file.getParentFile() == null) {
+            return null;
+        }
+        StorageIndex index = forDirectory(context, StorageHelper.getShardRoot(file.getParentFile()));
+        String name = StorageHelper.getRelativePath(index.directory, file);
+        return name != null ? index.loadKeyFrames(name, file) : null;
+    }
+
+    /**
+     * 记录一个已删除的文件
+     */
+    public static void recordDeleted(Context context, File file) {
+        if (file == null || file.getParentFile() == null) {
+            return;
+        }
+        StorageIndex index = forDirectory(context, StorageHelper.getShardRoot(file.getParentFile()));
+        String name = StorageHelper.getRelativePath(index.directory, file);
+        if (name != null) {
+            index.remove(name);
+        }
+    }
+
+    private static synchronized Handler getProbeHandler() {
+        if (probeHandler == null) {
+            HandlerThread thread = new HandlerThread("SegmentProbe");
+            thread.start();
+            probeHandler = new Handler(thread.getLooper());
+        }
+        return probeHandler;
+    }
+
+    private StorageIndex(File directory, MediaDatabase database) {
+        this.directory = directory;
+        this.rootKey = directory.getAbsolutePath();
+        this.eventRoot = StorageHelper.EVENT_DIR_NAME.equals(directory.getName());
+        this.database = database;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * 新增或更新文件条目（保留原有的保护标记；大小变化时分段元数据需要重新读取）
+     */
+    public synchronized void add(File file) {
+        ensureLoaded();
+        String name = StorageHelper.getRelativePath(directory, file);
+        if (name == null) {
+            return;
+        }
+        long size = file.length();
+        if (size <= 0 && !file.exists()) {
+            removeInternal(name, true);
+            return;
+        }
+        Entry existing = entries.get(name);
+        Entry entry;
+        if (existing != null) {
+            if (existing.size == size) {
+                return;
+            }
+            totalBytes += size - existing.size;
+            existing.size = size;
+            existing.probed = false;
+            entry = existing;
+        } else {
+            entry = newEntry(name, file, size);
+            putInternal(entry);
+        }
+        persist(entry);
+    }
+
+    /**
+     * 删除文件条目
+     */
+    public synchronized void remove(String name) {
+        ensureLoaded();
+        removeInternal(name, true);
+    }
+
+    /**
+     * 设置保护标记（受保护的文件不会被清理选中）
+     * @return 文件不在索引中时返回 false
+     */
+    public synchronized boolean setProtected(String name, boolean isProtected) {
+        ensureLoaded();
+        Entry entry = entries.get(name);
+        if (entry == null) {
+            return false;
+        }
+        if (entry.isProtected != isProtected) {
+            entry.isProtected = isProtected;
+            persist(entry);
+        }
+        return true;
+    }
+
+    /**
+     * 保存分段元数据
+     * @return 文件不在索引中时返回 false
+     */
+    public synchronized boolean setMetadata(String name, Mp4RecoveryEngine.SegmentInfo info) {
+        ensureLoaded();
+        Entry entry = entries.get(name);
+        if (entry == null) {
+            return false;
+        }
+        entry.durationMs = info.durationMs;
+        entry.width = info.width;
+        entry.height = info.height;
+        entry.codec = info.codec;
+        entry.keyFrameCount = info.keyFrameCount;
+        entry.probed = true;
+        persist(entry);
+        if (info.keyFrames != null) {
+            try {
+                database.putKeyFrames(rootKey, name, info.keyFrames.encode());
+            } catch (SQLException e) {
+                AppLog.e(TAG, "写入关键帧索引失败: " + name, e);
+            }
+        }
+        return true;
+    }
+
+    public synchronized boolean isProtected(String name) {
+        ensureLoaded();
+        Entry entry = entries.get(name);
+        return entry != null && entry.isProtected;
+    }
+
+    /**
+     * 索引中所有文件的总大小（字节）
+     */
+    public synchronized long getTotalBytes() {
+        ensureLoaded();
+        return totalBytes;
+    }
+
+    public synchronized int getFileCount() {
+        ensureLoaded();
+        return entries.size();
+    }
+
+    /**
+     * 本进程内最近一次对账的时间
+     * @return 时间戳（毫秒），尚未对账时返回 0
+     */
+    public synchronized long getLastReconcileTimeMs() {
+        return lastReconcileTimeMs;
+    }
+
+    /**
+     * 获取所有条目的副本（按开始时间从旧到新）
+     */
+    public synchronized List<Entry> getEntries() {
+        ensureLoaded();
+        return new ArrayList<>(byAge);
+    }
+
+    /**
+     * 按开始时间段和摄像头查询（使用数据库的时间/摄像头索引，不访问文件系统）
+     * @param fromMs 开始时间下限（含）
+     * @param toMs 开始时间上限（不含）
+     * @param camera 摄像头位置，为 null 时不限
+     * @return 条目的副本（按开始时间从旧到新）
+     */
+    public synchronized List<Entry> query(long fromMs, long toMs, String camera) {
+        ensureLoaded();
+        try {
+            return database.query(rootKey, fromMs, toMs, camera);
+        } catch (SQLException e) {
+            AppLog.e(TAG, "查询媒体目录失败，使用内存索引", e);
+        }
+        List<Entry> result = new ArrayList<>();
+        for (Entry entry : byAge) {
+            if (entry.startTimeMs >= toMs) {
+                break;
+            }
+            if (entry.startTimeMs >= fromMs && (camera == null || camera.equals(entry.camera))) {
+                result.add(entry);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 按开始时间从旧到新选出待删除的文件，累计大小达到 bytesToFree 即停止
+     * 只访问被选中的 k 个条目（以及跳过的受保护条目），不访问文件系统
+     * @param bytesToFree 需要释放的字节数
+     * @return 待删除的条目（最旧的在前）
+     */
+    public synchronized List<Entry> selectOldest(long bytesToFree) {
+        ensureLoaded();
+        List<Entry> selected = new ArrayList<>();
+        long selectedBytes = 0;
+        for (Entry entry : byAge) {
+            if (selectedBytes >= bytesToFree) {
+                break;
+            }
+            if (entry.isProtected) {
+                continue;
+            }
+            selected.add(entry);
+            selectedBytes += entry.size;
+        }
+        return selected;
+    }
+
+    /**
+     * 与目录内容对账
+     * 每个目录（包括日期分目录）只读取一次文件名列表：移除已不存在的文件（带外删除），
+     * 补充索引中缺少的文件（仅对这些文件 stat）
+     * 目录不可访问（如U盘已拔出）时不修改索引
+     */
+    public synchronized ReconcileResult reconcile() {
+        ensureLoaded();
+        ReconcileResult result = new ReconcileResult();
+        Set<String> present = new HashSet<>(entries.size() * 2 + 16);
+        List<Entry> added = new ArrayList<>();
+        boolean available = StorageHelper.walkMediaDirs(directory, (dir, prefix, names) -> {
+            for (String name : names) {
+                String relativeName = prefix + name;
+                present.add(relativeName);
+                if (entries.containsKey(relativeName)) {
+                    continue;
+                }
+                File file = new File(dir, name);
+                if (!file.isFile()) {
+                    continue;  // 分目录和其他子目录
+                }
+                Entry entry = newEntry(relativeName, file, file.length());
+                putInternal(entry);
+                added.add(entry);
+            }
+        });
+        // 目录不可访问时已遍历到的文件仍然保留（与逐个记录时一致）
+        result.added = added.size();
+        try {
+            database.upsertAll(rootKey, added);
+        } catch (SQLException e) {
+            AppLog.e(TAG, "写入媒体目录失败: " + directory.getAbsolutePath(), e);
+        }
+        if (!available) {
+            result.directoryAvailable = false;
+            AppLog.w(TAG, "对账跳过，目录不可访问: " + directory.getAbsolutePath());
+            return result;
+        }
+
+        List<String> missing = new ArrayList<>();
+        for (String name : entries.keySet()) {
+            if (!present.contains(name)) {
+                missing.add(name);
+            }
+        }
+        for (String name : missing) {
+            removeInternal(name, false);
+        }
+        result.removed = missing.size();
+        try {
+            database.deleteAll(rootKey, missing);
+        } catch (SQLException e) {
+            AppLog.e(TAG, "写入媒体目录失败: " + directory.getAbsolutePath(), e);
+        }
+
+        lastReconcileTimeMs = System.currentTimeMillis();
+        AppLog.d(TAG, "对账完成 " + directory.getName() + ": 移除 " + result.removed + "，新增 " + result.added
+                + "，共 " + entries.size() + " 个文件，" + StorageHelper.formatSize(totalBytes));
+        return result;
+    }
+
+    /**
+     * 从目录重建：丢弃数据库中该目录的记录（保护标记保留），重新对账并读取所有录像分段的元数据
+     * 读取元数据时不持有索引锁；在后台线程调用
+     */
+    public ReconcileResult rebuild() {
+        long startMs = System.currentTimeMillis();
+        ReconcileResult result;
+        List<String> videoNames = new ArrayList<>();
+        synchronized (this) {
+            ensureLoaded();
+            Set<String> protectedNames = new HashSet<>();
+            for (Entry entry : byAge) {
+                if (entry.isProtected) {
+                    protectedNames.add(entry.name);
+                }
+            }
+            try {
+                database.deleteRoot(rootKey);
+            } catch (SQLException e) {
+                AppLog.e(TAG, "清空媒体目录失败: " + directory.getAbsolutePath(), e);
+            }
+            entries.clear();
+            byAge.clear();
+            totalBytes = 0;
+            result = reconcile();
+            for (String name : protectedNames) {
+                setProtected(name, true);
+            }
+            for (Entry entry : byAge) {
+                if (isVideoName(entry.name)) {
+                    videoNames.add(entry.name);
+                }
+            }
+        }
+        for (String name : videoNames) {
+            if (probe(name)) {
+                result.probed++;
+            }
+        }
+        AppLog.d(TAG, "重建完成 " + directory.getAbsolutePath() + ": " + result.added + " 个文件，读取元数据 "
+                + result.probed + " 个，耗时 " + (System.currentTimeMillis() - startMs) + "ms");
+        return result;
+    }
+
+    /**
+     * 读取录像分段的元数据并保存（不持有索引锁读取文件；已读取过的分段跳过）
+     * @return 读取成功时返回 true
+     */
+    private boolean probe(String name) {
+        synchronized (this) {
+            Entry entry = entries.get(name);
+            if (entry == null || entry.probed) {
+                return false;
+            }
+        }
+        File file = new File(directory, name);
+        Mp4RecoveryEngine.SegmentInfo info;
+        try {
+            info = Mp4RecoveryEngine.readSegmentInfo(file);
+        } catch (IOException e) {
+            AppLog.w(TAG, "读取分段元数据失败: " + name + " - " + e.getMessage());
+            return false;
+        }
+        return info != null && setMetadata(name, info);
+    }
+
+    /**
+     * 从数据库读取关键帧索引，没有时读取文件的样本表（同时保存元数据）
+     */
+    private Mp4RecoveryEngine.KeyFrameIndex loadKeyFrames(String name, File file) {
+        try {
+            byte[] data = database.loadKeyFrames(rootKey, name);
+            Mp4RecoveryEngine.KeyFrameIndex keyFrames = data != null ? Mp4RecoveryEngine.KeyFrameIndex.decode(data) : null;
+            if (keyFrames != null) {
+                return keyFrames;
+            }
+        } catch (SQLException e) {
+            AppLog.w(TAG, "读取关键帧索引失败: " + name + " - " + e.getMessage());
+        }
+        Mp4RecoveryEngine.SegmentInfo info;
+        try {
+            info = Mp4RecoveryEngine.readSegmentInfo(file);
+        } catch (IOException e) {
+            AppLog.w(TAG, "读取分段元数据失败: " + name + " - " + e.getMessage());
+            return null;
+        }
+        if (info == null) {
+            return null;
+        }
+        setMetadata(name, info);
+        return info.keyFrames;
+    }
+
+    // ==================== 内部实现 ====================
+
+    private void ensureLoaded() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        long startMs = System.currentTimeMillis();
+        try {
+            for (Entry entry : database.loadEntries(rootKey)) {
+                putInternal(entry);
+            }
+        } catch (SQLException e) {
+            AppLog.e(TAG, "读取媒体目录失败: " + directory.getAbsolutePath(), e);
+        }
+        AppLog.d(TAG, "加载索引 " + directory.getAbsolutePath() + ": " + entries.size() + " 个文件，"
+                + StorageHelper.formatSize(totalBytes) + "，耗时 " + (System.currentTimeMillis() - startMs) + "ms");
+    }
+
+    private void putInternal(Entry entry) {
+        entries.put(entry.name, entry);
+        byAge.add(entry);
+        totalBytes += entry.size;
+    }
+
+    private void removeInternal(String name, boolean persist) {
+        Entry entry = entries.remove(name);
+        if (entry == null) {
+            return;
+        }
+        byAge.remove(entry);
+        totalBytes -= entry.size;
+        if (persist) {
+            try {
+                database.delete(rootKey, name);
+            } catch (SQLException e) {
+                AppLog.e(TAG, "写入媒体目录失败: " + name, e);
+            }
+        }
+    }
+
+    private void persist(Entry entry) {
+        try {
+            database.upsert(rootKey, entry);
+        } catch (SQLException e) {
+            AppLog.e(TAG, "写入媒体目录失败: " + entry.name, e);
+        }
+    }
+
+    private static boolean isVideoName(String name) {
+        return name.regionMatches(true, name.length() - 4, ".mp4", 0, 4);
+    }
+
+    /**
+     * 创建条目：开始时间和摄像头位置从文件名（不含分目录）解析
+     */
+    private Entry newEntry(String relativeName, File file, long size) {
+        String fileName = file.getName();
+        Entry entry = new Entry(relativeName, size, parseStartTime(fileName, file), VideoGroup.extractPosition(fileName), false);
+        entry.isEvent = eventRoot;
+        return entry;
+    }
+
+    /**
+     * 解析开始时间：文件名以 yyyyMMdd_HHmmss 开头时使用文件名时间，否则使用修改时间
+     */
+    private long parseStartTime(String name, File file) {
+        long startTimeMs = StorageHelper.parseTimestampPrefix(name, 0, TimeZone.getDefault());
+        // 非标准文件名，使用修改时间
+        return startTimeMs >= 0 ? startTimeMs : file.lastModified();
+    }
+}
@@ -0,0 +1,286 @@
+package com.kooo.evcam;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 存储目录布局迁移器
+ * 切换存储目录布局（平铺 / 按天 / 按小时分目录，见 StorageHelper）后，把已有文件移动到新布局对应的目录：
+ *
+ * - 同一存储内 renameTo 移动，只修改目录项，不复制数据
+ * - 校验旁路文件（SegmentChecksum）和缩略图旁路文件（VideoThumbnail）随视频一起移动，存储索引同步更新
+ * - 分小批移动（每批少量文件，批间等待），避免与正在写入的 Muxer 争抢U盘
+ * - 最近仍在修改的文件（可能正在录制）跳过，下次迁移时再处理
+ * - 每个存储根目录已完成迁移的布局记录在应用内部存储（files/storage_layout/），布局未变化时不遍历目录
+ *
+ * 由存储清理任务定期触发，布局设置变化时立即触发；所有操作在独立的后台线程上执行
+ */
+public class StorageLayoutMigrator {
+    private static final String TAG = "StorageLayoutMigrator";
+
+    private static final String STATE_DIR_NAME = "storage_layout";
+    private static final String STATE_MIGRATING = "migrating";  // 迁移未完成（与任何布局都不相同，下次一定重新检查）
+    private static final int MOVE_BATCH_FILES = 50;            // 每批最多移动的文件数
+    private static final long MOVE_BATCH_INTERVAL_MS = 200;    // 批间等待时间
+    private static final long ACTIVE_FILE_WINDOW_MS = 5 * 60 * 1000L;  // 最近修改过的文件视为可能仍在写入
+
+    private static StorageLayoutMigrator instance;
+
+    private final Context context;
+    private final AppConfig appConfig;
+    private final File stateDir;
+    private HandlerThread workerThread;
+    private Handler workerHandler;
+
+    // 以下字段只在工作线程上访问
+    private boolean migrating = false;
+    private final Set<File> deferredRoots = new HashSet<>();  // 本轮因文件仍在写入而未完成的根目录
+    private final ArrayDeque<File[]> pendingMoves = new ArrayDeque<>();  // {源文件, 目标目录}
+    private File migratingRoot;
+    private String migratingLayout;
+    private int movedCount;
+    private int skippedCount;
+
+    private StorageLayoutMigrator(Context context) {
+        this.context = context.getApplicationContext();
+        this.appConfig = new AppConfig(this.context);
+        this.stateDir = new File(this.context.getFilesDir(), STATE_DIR_NAME);
+        ConfigSnapshot.subscribe((snapshot, key) -> migrateIfNeeded(), AppConfig.KEY_STORAGE_LAYOUT);
+    }
+
+    /**
+     * 获取单例实例
+     */
+    public static synchronized StorageLayoutMigrator getInstance(Context context) {
+        if (instance == null) {
+            instance = new StorageLayoutMigrator(context);
+        }
+        return instance;
+    }
+
+    /**
+     * 检查各存储根目录的布局，与当前设置不一致时开始后台迁移（任意线程调用）
+     */
+    public void migrateIfNeeded() {
+        getHandler().post(() -> {
+            deferredRoots.clear();
+            checkRoots();
+        });
+    }
+
+    private synchronized Handler getHandler() {
+        if (workerHandler == null) {
+            workerThread = new HandlerThread("StorageLayout");
+            workerThread.start();
+            workerHandler = new Handler(workerThread.getLooper());
+        }
+        return workerHandler;
+    }
+
+    /**
+     * 找到第一个需要迁移的根目录并开始迁移（在工作线程上执行）
+     */
+    private void checkRoots() {
+        if (migrating) {
+            return;
+        }
+        String layout = appConfig.getStorageLayout();
+        File[] roots = {
+                StorageHelper.getVideoDir(context),
+                StorageHelper.getEventVideoDir(context),
+                StorageHelper.getPhotoDir(context)
+        };
+        for (File root : roots) {
+            if (root == null || deferredRoots.contains(root) || layout.equals(readMigratedLayout(root))) {
+                continue;
+            }
+            startMigration(root, layout);
+            return;
+        }
+    }
+
+    /**
+     * 遍历根目录，收集位置与目标布局不一致的文件
+     */
+    private void startMigration(File root, String layout) {
+        long activeCutoffMs = System.currentTimeMillis() - ACTIVE_FILE_WINDOW_MS;
+        pendingMoves.clear();
+        skippedCount = 0;
+        boolean available = StorageHelper.walkMediaDirs(root, (dir, prefix, names) -> {
+            for (String name : names) {
+                if (!StorageHelper.hasTimestampPrefix(name)) {
+                    continue;
+                }
+                File target = StorageHelper.getShardDir(root, name, layout);
+                if (target.equals(dir)) {
+                    continue;
+                }
+                File file = new File(dir, name);
+                if (!file.isFile()) {
+                    continue;
+                }
+                if (file.lastModified() >= activeCutoffMs) {
+                    skippedCount++;
+                    continue;
+                }
+                pendingMoves.add(new File[]{file, target});
+            }
+        });
+        if (!available) {
+            return;
+        }
+
+        migrating = true;
+        migratingRoot = root;
+        migratingLayout = layout;
+        movedCount = 0;
+        writeMigratedLayout(root, STATE_MIGRATING);
+        AppLog.d(TAG, "开始迁移 " + root.getAbsolutePath() + " 到 " + layout + " 布局: " + pendingMoves.size() + " 个文件");
+        moveBatch();
+    }
+
+    /**
+     * 移动一批文件（在工作线程上执行），未完成时延迟后继续下一批
+     */
+    private void moveBatch() {
+        if (!migratingLayout.equals(appConfig.getStorageLayout())) {
+            // 迁移过程中布局又被修改，按新布局重新开始
+            finishMigration(false);
+            checkRoots();
+            return;
+        }
+
+        StorageIndex index = StorageIndex.forDirectory(context, migratingRoot);
+        for (int i = 0; i < MOVE_BATCH_FILES; i++) {
+            File[] move = pendingMoves.poll();
+            if (move == null) {
+                break;
+            }
+            moveFile(index, move[0], move[1]);
+        }
+
+        if (pendingMoves.isEmpty()) {
+            if (skippedCount > 0) {
+                // 有文件仍在写入或移动失败，下次触发时再迁移
+                deferredRoots.add(migratingRoot);
+            }
+            finishMigration(skippedCount == 0);
+            // 继续检查下一个根目录
+            workerHandler.post(this::checkRoots);
+            return;
+        }
+        workerHandler.postDelayed(this::moveBatch, MOVE_BATCH_INTERVAL_MS);
+    }
+
+    private void moveFile(StorageIndex index, File file, File targetDir) {
+        if (!targetDir.exists() && !targetDir.mkdirs() && !targetDir.exists()) {
+            AppLog.w(TAG, "创建目录失败: " + targetDir.getAbsolutePath());
+            skippedCount++;
+            return;
+        }
+        File target = new File(targetDir, file.getName());
+        if (target.exists() || !file.renameTo(target)) {
+            AppLog.w(TAG, "移动失败: " + file.getAbsolutePath() + " -> " + targetDir.getAbsolutePath());
+            skippedCount++;
+            return;
+        }
+        movedCount++;
+
+        File sidecar = SegmentChecksum.sidecarFor(file);
+        if (sidecar.exists()) {
+            File targetSidecar = SegmentChecksum.sidecarFor(target);
+            File sidecarDir = targetSidecar.getParentFile();
+            if (sidecarDir != null && !sidecarDir.exists()) {
+                sidecarDir.mkdirs();
+            }
+            if (!sidecar.renameTo(targetSidecar)) {
+                sidecar.delete();
+            }
+        }
+        VideoThumbnail.moveSidecar(file, target);
+
+        String oldName = StorageHelper.getRelativePath(migratingRoot, file);
+        if (oldName != null) {
+            index.remove(oldName);
+        }
+        index.add(target);
+    }
+
+    private void finishMigration(boolean complete) {
+        AppLog.d(TAG, "迁移" + (complete ? "完成" : "暂停") + " " + migratingRoot.getAbsolutePath() + ": 移动 " + movedCount
+                + " 个文件，跳过 " + skippedCount + " 个，剩余 " + pendingMoves.size() + " 个");
+        if (complete) {
+            writeMigratedLayout(migratingRoot, migratingLayout);
+            removeEmptyShardDirs(migratingRoot);
+        }
+        pendingMoves.clear();
+        migrating = false;
+        migratingRoot = null;
+    }
+
+    /**
+     * 删除迁移后留下的空分目录（非空目录 delete() 会失败，不受影响）
+     */
+    private void removeEmptyShardDirs(File root) {
+        List<File> dirs = new ArrayList<>();
+        StorageHelper.walkMediaDirs(root, (dir, prefix, names) -> {
+            if (!prefix.isEmpty()) {
+                dirs.add(dir);
+            }
+        });
+        // 遍历顺序为父目录在前，倒序删除保证先删子目录
+        for (int i = dirs.size() - 1; i >= 0; i--) {
+            File dir = dirs.get(i);
+            new File(dir, SegmentChecksum.SIDECAR_DIR_NAME).delete();
+            new File(dir, VideoThumbnail.SIDECAR_DIR_NAME).delete();
+            dir.delete();
+        }
+    }
+
+    // ==================== 迁移状态 ====================
+
+    private File getStateFile(File root) {
+        String key = root.getAbsolutePath().replaceAll("[^A-Za-z0-9._-]", "_");
+        return new File(stateDir, key);
+    }
+
+    /**
+     * 根目录已完成迁移的布局（没有记录时为平铺，即原有布局；迁移未完成时为 STATE_MIGRATING）
+     */
+    private String readMigratedLayout(File root) {
+        File stateFile = getStateFile(root);
+        if (!stateFile.isFile()) {
+            return StorageHelper.LAYOUT_FLAT;
+        }
+        byte[] data = new byte[32];
+        try (FileInputStream in = new FileInputStream(stateFile)) {
+            int length = in.read(data);
+            return length > 0 ? new String(data, 0, length, StandardCharsets.US_ASCII).trim() : StorageHelper.LAYOUT_FLAT;
+        } catch (IOException e) {
+            return StorageHelper.LAYOUT_FLAT;
+        }
+    }
+
+    private void writeMigratedLayout(File root, String layout) {
+        if (!stateDir.exists() && !stateDir.mkdirs()) {
+            return;
+        }
+        try (FileOutputStream out = new FileOutputStream(getStateFile(root))) {
+            out.write(layout.getBytes(StandardCharsets.US_ASCII));
+        } catch (IOException e) {
+            AppLog.w(TAG, "保存迁移状态失败: " + e.getMessage());
+        }
+    }
+}
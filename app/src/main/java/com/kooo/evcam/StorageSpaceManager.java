@@ -0,0 +1,186 @@
+package com.kooo.evcam;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+
+import java.io.File;
+import java.util.List;
+
+/**
+ * 剩余空间水位管理器
+ * 定时清理（StorageCleanupManager，每小时一次）之间，多路高码率录制可能在一小时内写满存储，
+ * 导致 Muxer 写入和拍照保存失败。本管理器在每个分段完成时检查剩余空间：
+ *
+ * - 低水位 = 最小剩余空间 + 按当前总码率预计的后续两个分段写入量
+ * - 高水位 = 低水位 + 一个分段的写入量
+ * - 剩余空间低于低水位时，从 StorageIndex 中取最旧的视频删除，直到回到高水位
+ * - 分小批删除（每批少量文件，批间等待），避免删除操作与正在写入的 Muxer 争抢U盘带宽
+ *
+ * 所有检查和删除都在独立的后台线程上执行
+ */
+public class StorageSpaceManager {
+    private static final String TAG = "StorageSpaceManager";
+
+    private static final long MB_TO_BYTES = 1024L * 1024L;
+    private static final int PROJECTION_SEGMENTS = 2;       // 低水位预留的分段数
+    private static final int DELETE_BATCH_FILES = 2;        // 每批最多删除的文件数
+    private static final long DELETE_BATCH_INTERVAL_MS = 500;  // 批间等待时间
+
+    private static StorageSpaceManager instance;
+
+    private final Context context;
+    private final AppConfig appConfig;
+    private HandlerThread workerThread;
+    private Handler workerHandler;
+
+    // 以下字段只在工作线程上访问
+    private boolean reclaiming = false;
+    private File reclaimDir;
+    private long reclaimHighWatermark;
+    private long reclaimSegmentDurationMs;
+    private long reclaimStartFree;
+    private int reclaimDeletedCount;
+    private long reclaimDeletedBytes;
+
+    // 统计
+    private volatile int totalReclaimRuns = 0;
+    private volatile long totalReclaimedBytes = 0;
+
+    private StorageSpaceManager(Context context) {
+        this.context = context.getApplicationContext();
+        this.appConfig = new AppConfig(this.context);
+    }
+
+    /**
+     * 获取单例实例
+     */
+    public static synchronized StorageSpaceManager getInstance(Context context) {
+        if (instance == null) {
+            instance = new StorageSpaceManager(context);
+        }
+        return instance;
+    }
+
+    /**
+     * 分段完成时调用（任意线程），检查视频所在存储的剩余空间
+     * @param videoDir 视频最终存储目录
+     * @param totalBitrate 所有录制器的总码率（bps）
+     * @param segmentDurationMs 分段时长（毫秒）
+     */
+    public void onSegmentCompleted(File videoDir, long totalBitrate, long segmentDurationMs) {
+        if (videoDir == null || !appConfig.isSpaceWatermarkCleanupEnabled()) {
+            return;
+        }
+        Handler handler = getHandler();
+        handler.post(() -> checkSpace(videoDir, totalBitrate, segmentDurationMs));
+    }
+
+    /**
+     * 获取统计信息
+     */
+    public String getStats() {
+        return "reclaimRuns=" + totalReclaimRuns + ", reclaimed=" + StorageHelper.formatSize(totalReclaimedBytes);
+    }
+
+    private synchronized Handler getHandler() {
+        if (workerHandler == null) {
+            workerThread = new HandlerThread("StorageSpace");
+            workerThread.start();
+            workerHandler = new Handler(workerThread.getLooper());
+        }
+        return workerHandler;
+    }
+
+    /**
+     * 检查剩余空间（在工作线程上执行）
+     * 多路摄像头同时完成分段时会连续调用，正在回收时只更新目标水位
+     */
+    private void checkSpace(File videoDir, long totalBitrate, long segmentDurationMs) {
+        long bytesPerSegment = Math.max(0, totalBitrate) / 8 * (segmentDurationMs / 1000);
+        long lowWatermark = appConfig.getMinFreeSpaceMb() * MB_TO_BYTES + bytesPerSegment * PROJECTION_SEGMENTS;
+        long highWatermark = lowWatermark + bytesPerSegment;
+
+        if (reclaiming) {
+            reclaimHighWatermark = Math.max(reclaimHighWatermark, highWatermark);
+            reclaimSegmentDurationMs = Math.max(reclaimSegmentDurationMs, segmentDurationMs);
+            return;
+        }
+
+        long free = StorageHelper.getAvailableSpace(videoDir);
+        if (free < 0) {
+            return;
+        }
+        if (free >= lowWatermark) {
+            return;
+        }
+
+        AppLog.w(TAG, "剩余空间 " + StorageHelper.formatSize(free) + " 低于低水位 " + StorageHelper.formatSize(lowWatermark)
+                + "（每分段约 " + StorageHelper.formatSize(bytesPerSegment) + "），开始回收至 " + StorageHelper.formatSize(highWatermark));
+        reclaiming = true;
+        reclaimDir = videoDir;
+        reclaimHighWatermark = highWatermark;
+        reclaimSegmentDurationMs = segmentDurationMs;
+        reclaimStartFree = free;
+        reclaimDeletedCount = 0;
+        reclaimDeletedBytes = 0;
+        totalReclaimRuns++;
+        reclaimBatch();
+    }
+
+    /**
+     * 删除一批最旧的视频（在工作线程上执行），未达到高水位时延迟后继续下一批
+     */
+    private void reclaimBatch() {
+        long free = StorageHelper.getAvailableSpace(reclaimDir);
+        if (free < 0 || free >= reclaimHighWatermark) {
+            finishReclaim(free);
+            return;
+        }
+
+        StorageIndex index = StorageIndex.forDirectory(context, reclaimDir);
+        if (index.getLastReconcileTimeMs() == 0) {
+            index.reconcile();
+        }
+        List<StorageIndex.Entry> candidates = index.selectOldest(reclaimHighWatermark - free);
+        // 最近两个分段内开始的文件可能仍在录制，不删除
+        long activeCutoffMs = System.currentTimeMillis() - 2 * reclaimSegmentDurationMs;
+        int deletedInBatch = 0;
+        for (StorageIndex.Entry entry : candidates) {
+            if (deletedInBatch >= DELETE_BATCH_FILES || entry.startTimeMs >= activeCutoffMs) {
+                break;
+            }
+            File file = new File(reclaimDir, entry.name);
+            long size = entry.getSize();
+            if (file.delete()) {
+                index.remove(entry.name);
+                SegmentChecksum.deleteSidecar(file);
+                VideoThumbnail.deleteSidecar(file);
+                deletedInBatch++;
+                reclaimDeletedCount++;
+                reclaimDeletedBytes += size;
+                totalReclaimedBytes += size;
+                AppLog.d(TAG, "水位回收删除: " + entry.name + " (" + StorageHelper.formatSize(size) + ")");
+            } else if (!file.exists()) {
+                // 已被带外删除，只移除索引，本批继续
+                index.remove(entry.name);
+            } else {
+                AppLog.w(TAG, "水位回收删除失败: " + entry.name);
+            }
+        }
+
+        if (deletedInBatch == 0) {
+            AppLog.w(TAG, "没有可删除的视频，剩余空间 " + StorageHelper.formatSize(free) + " 仍低于目标水位");
+            finishReclaim(free);
+            return;
+        }
+        workerHandler.postDelayed(this::reclaimBatch, DELETE_BATCH_INTERVAL_MS);
+    }
+
+    private void finishReclaim(long free) {
+        reclaiming = false;
+        AppLog.d(TAG, "水位回收完成：删除 " + reclaimDeletedCount + " 个文件，释放 " + StorageHelper.formatSize(reclaimDeletedBytes)
+                + "，剩余空间 " + StorageHelper.formatSize(reclaimStartFree) + " -> " + StorageHelper.formatSize(free));
+        reclaimDir = null;
+    }
+}
@@ -0,0 +1,260 @@
+package com.kooo.evcam;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.storage.StorageManager;
+import android.os.storage.StorageVolume;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * U盘挂载状态机
+ * 取代原来 5 秒有效期的检测缓存：U盘状态只在挂载事件发生时重新检测，查询只读取一个 volatile 引用（O(1)，无 I/O）
+ *
+ * - 事件来源：MEDIA_MOUNTED / UNMOUNTED / EJECT / REMOVED / BAD_REMOVAL 广播，
+ *   Android 11 及以上同时注册 StorageManager.StorageVolumeCallback（部分车机 ROM 不发送媒体广播）
+ * - 状态：UNKNOWN（尚未检测）→ MOUNTED / ABSENT；收到弹出或移除事件时当前U盘立即进入 EJECTING，
+ *   不等待重新检测，使 getVideoDir() 等调用马上回退到内部存储
+ * - U盘丢失或更换时通知监听器（例如 MultiCameraManager 把正在录制的分段切换到内部存储）
+ * - 挂载事件有时早于目录可访问，挂载后延迟再检测一次；另外每分钟在后台线程确认一次当前U盘仍然存在，
+ *   兜底不发送任何挂载事件的系统
+ *
+ * 所有检测都在独立的后台线程上执行；状态转换在 VolumeStateMachine 中（不依赖 Android API）
+ */
+public class StorageVolumeMonitor {
+    private static final String TAG = "StorageVolumeMonitor";
+
+    private static final long MOUNT_RECHECK_DELAY_MS = 2000;   // 挂载事件后的再次检测延迟
+    private static final long PERIODIC_CHECK_MS = 60 * 1000L;  // 兜底检查间隔
+
+    // 只接受 /storage/XXXX-XXXX 格式的挂载点
+    static final Pattern SD_CARD_MOUNT_POINT = Pattern.compile("/storage/[0-9A-Fa-f]{4}-[0-9A-Fa-f]{4}");
+
+    /**
+     * U盘状态
+     */
+    public enum State {
+        UNKNOWN,    // 尚未检测
+        MOUNTED,    // 已挂载且可写入
+        EJECTING,   // 收到弹出/移除事件，等待重新检测
+        ABSENT      // 没有可用的U盘
+    }
+
+    /**
+     * U盘变化监听
+     */
+    public interface Listener {
+        /**
+         * U盘根目录发生变化（在后台线程上回调）
+         * @param previousRoot 变化前的U盘根目录（可能为 null）
+         * @param currentRoot 变化后的U盘根目录（U盘不可用时为 null）
+         */
+        void onVolumeChanged(File previousRoot, File currentRoot);
+    }
+
+    private static volatile StorageVolumeMonitor instance;
+
+    private final Context context;
+    private final HandlerThread workerThread;
+    private final Handler workerHandler;
+    private final VolumeStateMachine stateMachine;
+    private Object volumeCallback;  // StorageManager.StorageVolumeCallback（API 30+）
+
+    private final BroadcastReceiver mediaReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            Uri data = intent.getData();
+            onVolumeEvent(intent.getAction(), data != null ? data.getPath() : null);
+        }
+    };
+
+    private final Runnable periodicCheck = new Runnable() {
+        @Override
+        public void run() {
+            stateMachine.periodicCheck();
+            workerHandler.postDelayed(this, PERIODIC_CHECK_MS);
+        }
+    };
+
+    private StorageVolumeMonitor(Context context) {
+        this.context = context.getApplicationContext();
+        workerThread = new HandlerThread("StorageVolume");
+        workerThread.start();
+        workerHandler = new Handler(workerThread.getLooper());
+
+        stateMachine = new VolumeStateMachine(new VolumeStateMachine.VolumeProbe() {
+            @Override
+            public File detectRoot() {
+                return StorageHelper.detectExternalSdCardRoot(StorageVolumeMonitor.this.context);
+            }
+
+            @Override
+            public boolean isWritable(File root) {
+                return StorageHelper.isDcimWritable(root);
+            }
+
+            @Override
+            public boolean canRead(File root) {
+                return root.canRead();
+            }
+        });
+        // 首次查询时同步检测一次，之后只由事件驱动
+        stateMachine.init();
+        registerEventSources();
+        workerHandler.postDelayed(periodicCheck, PERIODIC_CHECK_MS);
+    }
+
+    /**
+     * 获取单例实例（首次调用时检测一次U盘并注册挂载事件）
+     */
+    public static StorageVolumeMonitor getInstance(Context context) {
+        StorageVolumeMonitor monitor = instance;
+        if (monitor == null) {
+            synchronized (StorageVolumeMonitor.class) {
+                monitor = instance;
+                if (monitor == null) {
+                    monitor = new StorageVolumeMonitor(context);
+                    instance = monitor;
+                }
+            }
+        }
+        return monitor;
+    }
+
+    /**
+     * 请求重新检测（已创建实例时；例如自定义U盘路径变化后）
+     */
+    public static void requestRescan() {
+        StorageVolumeMonitor monitor = instance;
+        if (monitor != null) {
+            monitor.workerHandler.post(monitor.stateMachine::rescan);
+        }
+    }
+
+    /**
+     * 当前U盘根目录（O(1)，无 I/O）
+     * @return U盘根目录，没有可用U盘时返回 null
+     */
+    public File getRoot() {
+        return stateMachine.getSnapshot().root;
+    }
+
+    /**
+     * 是否有可写入的U盘（O(1)，无 I/O）
+     */
+    public boolean isWritable() {
+        return stateMachine.getSnapshot().writable;
+    }
+
+    /**
+     * 当前状态
+     */
+    public State getState() {
+        return stateMachine.getSnapshot().state;
+    }
+
+    public void addListener(Listener listener) {
+        stateMachine.addListener(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        stateMachine.removeListener(listener);
+    }
+
+    // ==================== 事件处理 ====================
+
+    private void registerEventSources() {
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_MEDIA_MOUNTED);
+        filter.addAction(Intent.ACTION_MEDIA_UNMOUNTED);
+        filter.addAction(Intent.ACTION_MEDIA_EJECT);
+        filter.addAction(Intent.ACTION_MEDIA_REMOVED);
+        filter.addAction(Intent.ACTION_MEDIA_BAD_REMOVAL);
+        filter.addDataScheme("file");
+        try {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
+                context.registerReceiver(mediaReceiver, filter, null, workerHandler, Context.RECEIVER_EXPORTED);
+            } else {
+                context.registerReceiver(mediaReceiver, filter, null, workerHandler);
+            }
+        } catch (Exception e) {
+            AppLog.e(TAG, "注册挂载广播失败: " + e.getMessage(), e);
+        }
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
+            try {
+                StorageManager storageManager = context.getSystemService(StorageManager.class);
+                StorageManager.StorageVolumeCallback callback = new StorageManager.StorageVolumeCallback() {
+                    @Override
+                    public void onStateChanged(StorageVolume volume) {
+                        File directory = volume.getDirectory();
+                        String path = directory != null ? directory.getAbsolutePath() : null;
+                        String state = volume.getState();
+                        if (android.os.Environment.MEDIA_MOUNTED.equals(state)) {
+                            onVolumeEvent(Intent.ACTION_MEDIA_MOUNTED, path);
+                        } else if (android.os.Environment.MEDIA_EJECTING.equals(state)) {
+                            onVolumeEvent(Intent.ACTION_MEDIA_EJECT, path);
+                        } else {
+                            onVolumeEvent(Intent.ACTION_MEDIA_UNMOUNTED, path);
+                        }
+                    }
+                };
+                storageManager.registerStorageVolumeCallback(workerHandler::post, callback);
+                volumeCallback = callback;
+            } catch (Exception e) {
+                AppLog.e(TAG, "注册存储卷回调失败: " + e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * 处理挂载事件（在后台线程上执行）
+     * @param action 广播 Action
+     * @param path 挂载点（可能为 null）
+     */
+    private void onVolumeEvent(String action, String path) {
+        AppLog.d(TAG, "挂载事件: " + action + " " + path + "，当前: " + stateMachine.getSnapshot());
+        if (Intent.ACTION_MEDIA_MOUNTED.equals(action)) {
+            stateMachine.onMounted(path);
+            // 挂载事件有时早于目录可访问，稍后再确认一次
+            workerHandler.postDelayed(stateMachine::rescan, MOUNT_RECHECK_DELAY_MS);
+        } else {
+            stateMachine.onRemoved(path);
+        }
+    }
+
+    // ==================== 挂载表解析 ====================
+
+    /**
+     * 从挂载表（/proc/mounts 格式）中找出U盘挂载点
+     * 只解析文本，不检查目录是否存在（便于用挂载表样本回放验证）
+     * @param reader 挂载表内容
+     * @return 按出现顺序排列的U盘挂载点
+     */
+    static List<String> parseMountTable(BufferedReader reader) throws IOException {
+        List<String> mountPoints = new ArrayList<>();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            String[] parts = line.trim().split("\\s+");
+            if (parts.length < 2) {
+                continue;
+            }
+            String mountPoint = parts[1];
+            if (SD_CARD_MOUNT_POINT.matcher(mountPoint).matches() && !mountPoints.contains(mountPoint)) {
+                mountPoints.add(mountPoint);
+            }
+        }
+        return mountPoints;
+    }
+}
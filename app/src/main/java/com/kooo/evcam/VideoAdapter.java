@@ -18,7 +18,6 @@ import androidx.recyclerview.widget.RecyclerView;
 import com.bumptech.glide.Glide;
 import com.bumptech.glide.load.engine.DiskCacheStrategy;
 import com.bumptech.glide.request.RequestOptions;
-import com.bumptech.glide.signature.ObjectKey;
 
 import java.io.File;
 import java.text.SimpleDateFormat;
@@ -129,6 +128,8 @@ public class VideoAdapter extends RecyclerView.Adapter<VideoAdapter.VideoViewHol
                         .setMessage("确定要删除 " + videoFile.getName() + " 吗？")
                         .setPositiveButton("删除", (dialog, which) -> {
                             if (videoFile.delete()) {
+                                SegmentChecksum.deleteSidecar(videoFile);
+                                VideoThumbnail.deleteSidecar(videoFile);
                                 videoFiles.remove(position);
                                 notifyItemRemoved(position);
                                 notifyItemRangeChanged(position, videoFiles.size());
@@ -174,18 +175,16 @@ public class VideoAdapter extends RecyclerView.Adapter<VideoAdapter.VideoViewHol
             return;
         }
 
-        // 使用文件修改时间作为缓存签名，文件变化时自动更新缓存
+        // 读取录制时生成的缩略图（VideoThumbnail），缩略图本身就是磁盘缓存
         RequestOptions options = new RequestOptions()
-                .frame(0)  // 获取视频第一帧
                 .centerCrop()
-                .diskCacheStrategy(DiskCacheStrategy.RESOURCE)  // 缓存解码后的资源
-                .signature(new ObjectKey(videoFile.lastModified()))  // 文件修改时间作为缓存key
+                .diskCacheStrategy(DiskCacheStrategy.NONE)
                 .placeholder(android.R.drawable.ic_media_play)
                 .error(android.R.drawable.ic_media_play);
 
         Glide.with(context)
                 .asBitmap()
-                .load(videoFile)
+                .load(new VideoThumbnailLoader.Source(videoFile))
                 .apply(options)
                 .into(imageView);
     }
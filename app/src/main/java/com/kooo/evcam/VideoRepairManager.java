@@ -0,0 +1,226 @@
+package com.kooo.evcam;
+
+import android.content.Context;
+
+import com.kooo.evcam.camera.Mp4RecoveryEngine;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 视频修复管理器
+ * 启动时在后台扫描录制目录和中转临时目录，修复因断电/崩溃而没有写入 moov 的 MP4 分段
+ *
+ * 功能：
+ * - 只处理本次启动前写入的文件，不会触碰正在录制的分段
+ * - 使用同一摄像头（相同文件名后缀，如 _front.mp4）的健康分段提供 SPS/PPS
+ * - 先处理中转临时目录，完成后才通知启动 FileTransferManager，避免传输线程复制/移动正在改写 moov 的文件
+ * - 修复后的中转临时文件交给 FileTransferManager 继续传输到最终目录
+ * - 记录扫描吞吐量（MB/s）
+ */
+public class VideoRepairManager {
+    private static final String TAG = "VideoRepairManager";
+
+    // 小于该大小的文件由录制器的首次写入检查负责删除，这里不处理
+    private static final long MIN_REPAIR_FILE_SIZE = 10 * 1024;
+
+    // Activity 重建时上一个实例可能还在修复当前文件，同一时间只允许一个实例修复
+    private static final Object REPAIR_LOCK = new Object();
+
+    private final Context context;
+    private final long startTimeMs;
+    private ExecutorService executor;
+    private Runnable onRelayFilesReady;  // 由 this 保护，停止后置空
+    private boolean relayFilesReadyNotified = false;
+
+    // 统计（只在修复线程上访问）
+    private long totalScanned = 0;
+    private long totalNanos = 0;
+    private int repairedCount = 0;
+    private int failedCount = 0;
+
+    // 文件名后缀 -> 健康分段的轨道配置
+    private final Map<String, Mp4RecoveryEngine.TrackConfig> configCache = new HashMap<>();
+
+    public VideoRepairManager(Context context) {
+        this.context = context.getApplicationContext();
+        this.startTimeMs = System.currentTimeMillis();
+    }
+
+    /**
+     * 启动后台修复任务（单线程，执行一次）
+     * @param onRelayFilesReady 中转临时目录处理完成后在修复线程上调用（用于启动 FileTransferManager），
+     *                          修复任务在此之前被停止时不调用
+     */
+    public synchronized void start(Runnable onRelayFilesReady) {
+        if (executor != null) {
+            AppLog.d(TAG, "视频修复任务已在运行");
+            return;
+        }
+        this.onRelayFilesReady = onRelayFilesReady;
+        executor = Executors.newSingleThreadExecutor();
+        executor.execute(this::performRepair);
+    }
+
+    /**
+     * 停止修复任务
+     * 正在修复的文件会完成当前文件后退出
+     */
+    public synchronized void stop() {
+        onRelayFilesReady = null;
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    private void performRepair() {
+        File videoDir = StorageHelper.getVideoDir(context);
+        File tempDir = new File(context.getCacheDir(), FileTransferManager.TEMP_VIDEO_DIR);
+
+        synchronized (REPAIR_LOCK) {
+            try {
+                // 中转临时目录优先：传输线程在这之后才启动，不会传输修复前的文件
+                if (!repairDirectory(tempDir, true, videoDir, tempDir)) {
+                    return;
+                }
+            } finally {
+                notifyRelayFilesReady();
+            }
+            if (!repairDirectory(videoDir, false, videoDir, tempDir)) {
+                return;
+            }
+        }
+
+        if (repairedCount > 0 || failedCount > 0) {
+            double mbps = totalNanos > 0 ? (totalScanned / (1024.0 * 1024.0)) / (totalNanos / 1e9) : 0;
+            AppLog.d(TAG, "视频修复完成: 修复 " + repairedCount + " 个, 失败 " + failedCount + " 个, 扫描 "
+                    + (totalScanned / 1024 / 1024) + " MB, 吞吐量 "
+                    + String.format(java.util.Locale.US, "%.1f", mbps) + " MB/s");
+        } else {
+            AppLog.d(TAG, "视频修复检测完成，没有需要修复的文件");
+        }
+    }
+
+    /**
+     * 修复目录中本次启动前写入的截断分段
+     * @param relay 是否为中转临时目录（修复后的文件交给 FileTransferManager）
+     * @return false 表示任务被中断
+     */
+    private boolean repairDirectory(File dir, boolean relay, File videoDir, File tempDir) {
+        // 视频目录按日期分目录存储时遍历所有分目录
+        File[] files = StorageHelper.listMediaFiles(dir, (d, name) -> name.endsWith(".mp4")).toArray(new File[0]);
+        // 按文件名（时间戳）倒序，优先修复最近的录像
+        Arrays.sort(files, (a, b) -> b.getName().compareTo(a.getName()));
+
+        for (File file : files) {
+            if (Thread.currentThread().isInterrupted()) {
+                AppLog.d(TAG, "视频修复任务已中断");
+                return false;
+            }
+            if (file.length() < MIN_REPAIR_FILE_SIZE || file.lastModified() >= startTimeMs) {
+                continue;
+            }
+            try {
+                if (!Mp4RecoveryEngine.needsRepair(file)) {
+                    continue;
+                }
+                Mp4RecoveryEngine.TrackConfig config = findTrackConfig(file, file.getParentFile(), videoDir, tempDir);
+                Mp4RecoveryEngine.Result result = new Mp4RecoveryEngine().repair(file, config);
+                totalScanned += result.bytesScanned;
+                totalNanos += result.elapsedNanos;
+                AppLog.d(TAG, "修复 " + file.getName() + ": " + result);
+
+                if (result.status == Mp4RecoveryEngine.Status.REPAIRED
+                        || result.status == Mp4RecoveryEngine.Status.TRIMMED) {
+                    repairedCount++;
+                    if (relay) {
+                        scheduleRelayTransfer(file);
+                    }
+                } else if (result.status != Mp4RecoveryEngine.Status.HEALTHY) {
+                    failedCount++;
+                }
+            } catch (Exception e) {
+                failedCount++;
+                AppLog.e(TAG, "修复失败: " + file.getName(), e);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 中转临时目录处理完成（只通知一次，已停止时不通知）
+     */
+    private synchronized void notifyRelayFilesReady() {
+        if (relayFilesReadyNotified || onRelayFilesReady == null
+                || Thread.currentThread().isInterrupted()) {
+            return;
+        }
+        relayFilesReadyNotified = true;
+        onRelayFilesReady.run();
+    }
+
+    /**
+     * 查找同一摄像头的健康分段并读取其轨道配置
+     * 文件名格式为 时间戳_摄像头.mp4，后缀相同即视为同一摄像头
+     */
+    private Mp4RecoveryEngine.TrackConfig findTrackConfig(File brokenFile, File... dirs) {
+        String name = brokenFile.getName();
+        int underscore = name.lastIndexOf('_');
+        String suffix = underscore >= 0 ? name.substring(underscore) : ".mp4";
+
+        if (configCache.containsKey(suffix)) {
+            return configCache.get(suffix);
+        }
+
+        Mp4RecoveryEngine.TrackConfig config = null;
+        for (File dir : dirs) {
+            File[] candidates = dir.listFiles((d, n) -> n.endsWith(suffix));
+            if (candidates == null) {
+                continue;
+            }
+            Arrays.sort(candidates, (a, b) -> b.getName().compareTo(a.getName()));
+            for (File candidate : candidates) {
+                if (candidate.equals(brokenFile) || candidate.length() < MIN_REPAIR_FILE_SIZE) {
+                    continue;
+                }
+                try {
+                    config = Mp4RecoveryEngine.readTrackConfig(candidate);
+                } catch (Exception e) {
+                    AppLog.w(TAG, "读取健康分段失败: " + candidate.getName() + " - " + e.getMessage());
+                }
+                if (config != null) {
+                    AppLog.d(TAG, "使用 " + candidate.getName() + " 的 SPS/PPS 修复 *" + suffix);
+                    break;
+                }
+            }
+            if (config != null) {
+                break;
+            }
+        }
+        if (config == null) {
+            AppLog.w(TAG, "没有找到 *" + suffix + " 的健康分段，无法修复");
+        }
+        configCache.put(suffix, config);
+        return config;
+    }
+
+    /**
+     * 修复后的中转临时文件继续传输到最终目录
+     */
+    private void scheduleRelayTransfer(File tempFile) {
+        File finalDir = StorageHelper.getFinalVideoDir(context);
+        if (finalDir == null) {
+            return;
+        }
+        File targetFile = StorageHelper.getMediaFile(finalDir, tempFile.getName());
+        FileTransferManager.getInstance(context).addTransferTask(tempFile, targetFile,
+                FileTransferManager.PRIORITY_LOW, null);
+    }
+}
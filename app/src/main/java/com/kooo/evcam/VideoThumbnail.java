@@ -0,0 +1,429 @@
+package com.kooo.evcam;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.media.MediaMetadataRetriever;
+import android.os.Handler;
+import android.os.HandlerThread;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 视频分段缩略图（JPEG 旁路文件）
+ * 回放列表和上传封面不再对每个视频启动解码器（Glide frame(0) / MediaMetadataRetriever），
+ * 而是读取同目录隐藏子目录中的缩略图：.thumb/<文件名>.jpg（320 宽）
+ *
+ * - 录制时由编码器从分段开始后渲染的第一帧直接读回像素生成（EglSurfaceEncoder.requestThumbnail），不解码
+ * - 录制时每 TIMELINE_INTERVAL_MS 再读回一帧，拼成时间轴预览图 .thumb/<文件名>.sprite.jpg
+ *   （每格 TIMELINE_TILE_WIDTH x TIMELINE_TILE_HEIGHT，每行 TIMELINE_COLUMNS 格，第 n 格为分段开始后 n 个间隔），
+ *   回放拖动进度条时直接裁剪显示，不解码视频；每 TIMELINE_FLUSH_TILES 格写一次，断电时保留已写入的部分。
+ *   旧文件没有时间轴预览图（需要解码整段，不补齐）
+ * - 中转写入时随视频移动到最终目录（FileTransferManager），布局迁移时随视频移动（StorageLayoutMigrator）
+ * - 没有缩略图的旧文件在第一次显示时生成一次（obtain），打开回放界面时后台按从新到旧补齐（backfill），
+ *   每个文件间隔一段时间，正在录制时间隔更长，避免与录制争用硬件解码器和U盘
+ *
+ * 旁路文件放在子目录中，不会被 StorageIndex 和回放列表当成视频；
+ * 视频被删除后遗留的缩略图由补齐任务清理
+ */
+public final class VideoThumbnail {
+    private static final String TAG = "VideoThumbnail";
+
+    public static final String SIDECAR_DIR_NAME = ".thumb";
+    private static final String SIDECAR_SUFFIX = ".jpg";
+    private static final int WIDTH = 320;
+    private static final int JPEG_QUALITY = 80;
+    private static final long BACKFILL_INTERVAL_MS = 200;             // 补齐时每个文件的间隔
+    private static final long BACKFILL_RECORDING_INTERVAL_MS = 2000;  // 正在录制时的间隔
+    private static final long ACTIVE_FILE_WINDOW_MS = 2 * 60 * 1000L; // 最近修改过的文件可能仍在录制，不补齐
+
+    private static final String TIMELINE_SUFFIX = ".sprite.jpg";
+    public static final long TIMELINE_INTERVAL_MS = 5000;
+    public static final int TIMELINE_TILE_WIDTH = 160;
+    public static final int TIMELINE_TILE_HEIGHT = 90;
+    public static final int TIMELINE_COLUMNS = 10;
+    private static final int TIMELINE_INITIAL_ROWS = 6;      // 5 分钟分段
+    private static final int TIMELINE_FLUSH_TILES = 12;      // 每 12 格（1 分钟）写一次
+    private static final int TIMELINE_JPEG_QUALITY = 70;
+    private static final Paint TILE_PAINT = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+    /**
+     * 正在录制的分段的时间轴预览图
+     */
+    private static class Timeline {
+        Bitmap sheet;
+        int rows;
+        int tiles;       // 已放入的最大序号 + 1
+        int unflushed;   // 上次写入后新增的格数
+    }
+
+    private static final Map<File, Timeline> timelines = new HashMap<>();     // 只在工作线程上访问
+
+    private static Handler workerHandler;
+    private static final ArrayDeque<File> backfillQueue = new ArrayDeque<>();  // 只在工作线程上访问
+    private static final Set<File> backfillRoots = new HashSet<>();           // 只在工作线程上访问
+    private static boolean backfillRunning = false;                           // 只在工作线程上访问
+
+    private VideoThumbnail() {
+    }
+
+    private static synchronized Handler getHandler() {
+        if (workerHandler == null) {
+            HandlerThread thread = new HandlerThread("VideoThumbnail");
+            thread.start();
+            workerHandler = new Handler(thread.getLooper());
+        }
+        return workerHandler;
+    }
+
+    /**
+     * 视频对应的缩略图旁路文件
+     */
+    public static File sidecarFor(File video) {
+        return new File(new File(video.getParentFile(), SIDECAR_DIR_NAME), video.getName() + SIDECAR_SUFFIX);
+    }
+
+    /**
+     * 视频对应的时间轴预览图
+     */
+    public static File timelineFor(File video) {
+        return new File(new File(video.getParentFile(), SIDECAR_DIR_NAME), video.getName() + TIMELINE_SUFFIX);
+    }
+
+    /**
+     * 在后台处理编码器读回的分段画面（在渲染线程调用，只投递任务）
+     * 第 0 格同时写成缩略图
+     * @param tile 时间轴预览图中的序号（分段开始后 tile * TIMELINE_INTERVAL_MS）
+     * @param rgba RGBA 像素，自下而上逐行排列（OpenGL 的行顺序）
+     */
+    public static void addFrameAsync(File video, int tile, ByteBuffer rgba, int width, int height) {
+        getHandler().post(() -> {
+            Bitmap raw = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            raw.copyPixelsFromBuffer(rgba);
+            // 上下翻转为图像的行顺序
+            Matrix flip = new Matrix();
+            flip.preScale(1, -1);
+            Bitmap bitmap = Bitmap.createBitmap(raw, 0, 0, width, height, flip, false);
+            raw.recycle();
+            if (tile == 0) {
+                write(video, bitmap);
+            }
+            addTimelineTile(video, tile, bitmap);
+            bitmap.recycle();
+        });
+    }
+
+    /**
+     * 分段结束：在后台写入完整的时间轴预览图并释放内存
+     */
+    public static void finishTimelineAsync(File video) {
+        getHandler().post(() -> {
+            Timeline timeline = timelines.remove(video);
+            if (timeline != null) {
+                if (timeline.unflushed > 0) {
+                    writeTimeline(video, timeline);
+                }
+                timeline.sheet.recycle();
+            }
+        });
+    }
+
+    private static void addTimelineTile(File video, int tile, Bitmap frame) {
+        Timeline timeline = timelines.get(video);
+        if (timeline == null) {
+            if (tile != 0) {
+                return;  // 分段结束后迟到的画面
+            }
+            timeline = new Timeline();
+            timelines.put(video, timeline);
+        }
+        int row = tile / TIMELINE_COLUMNS;
+        int column = tile % TIMELINE_COLUMNS;
+        if (row >= timeline.rows) {
+            growTimeline(timeline, Math.max(row + 1, Math.max(TIMELINE_INITIAL_ROWS, timeline.rows * 2)));
+        }
+        // 居中裁剪为格子的宽高比
+        int srcWidth = frame.getWidth();
+        int srcHeight = frame.getHeight();
+        Rect src;
+        if ((long) srcWidth * TIMELINE_TILE_HEIGHT > (long) srcHeight * TIMELINE_TILE_WIDTH) {
+            int cropWidth = srcHeight * TIMELINE_TILE_WIDTH / TIMELINE_TILE_HEIGHT;
+            src = new Rect((srcWidth - cropWidth) / 2, 0, (srcWidth + cropWidth) / 2, srcHeight);
+        } else {
+            int cropHeight = srcWidth * TIMELINE_TILE_HEIGHT / TIMELINE_TILE_WIDTH;
+            src = new Rect(0, (srcHeight - cropHeight) / 2, srcWidth, (srcHeight + cropHeight) / 2);
+        }
+        Rect dst = new Rect(column * TIMELINE_TILE_WIDTH, row * TIMELINE_TILE_HEIGHT,
+                (column + 1) * TIMELINE_TILE_WIDTH, (row + 1) * TIMELINE_TILE_HEIGHT);
+        new Canvas(timeline.sheet).drawBitmap(frame, src, dst, TILE_PAINT);
+        timeline.tiles = Math.max(timeline.tiles, tile + 1);
+        if (++timeline.unflushed >= TIMELINE_FLUSH_TILES) {
+            writeTimeline(video, timeline);
+        }
+    }
+
+    private static void growTimeline(Timeline timeline, int rows) {
+        Bitmap sheet = Bitmap.createBitmap(TIMELINE_TILE_WIDTH * TIMELINE_COLUMNS, TIMELINE_TILE_HEIGHT * rows,
+                Bitmap.Config.RGB_565);
+        if (timeline.sheet != null) {
+            new Canvas(sheet).drawBitmap(timeline.sheet, 0, 0, null);
+            timeline.sheet.recycle();
+        }
+        timeline.sheet = sheet;
+        timeline.rows = rows;
+    }
+
+    /**
+     * 写入时间轴预览图（只包含已使用的行）
+     */
+    private static void writeTimeline(File video, Timeline timeline) {
+        int rows = (timeline.tiles + TIMELINE_COLUMNS - 1) / TIMELINE_COLUMNS;
+        int columns = Math.min(timeline.tiles, TIMELINE_COLUMNS);
+        Bitmap used = Bitmap.createBitmap(timeline.sheet, 0, 0,
+                columns * TIMELINE_TILE_WIDTH, rows * TIMELINE_TILE_HEIGHT);
+        writeJpeg(timelineFor(video), used, TIMELINE_JPEG_QUALITY);
+        if (used != timeline.sheet) {
+            used.recycle();
+        }
+        timeline.unflushed = 0;
+    }
+
+    /**
+     * 写入缩略图
+     */
+    public static boolean write(File video, Bitmap bitmap) {
+        return writeJpeg(sidecarFor(video), bitmap, JPEG_QUALITY);
+    }
+
+    /**
+     * 写入 JPEG（先写临时文件再重命名，读取方不会读到写了一半的文件）
+     */
+    private static boolean writeJpeg(File sidecar, Bitmap bitmap, int quality) {
+        File dir = sidecar.getParentFile();
+        if (dir != null && !dir.exists() && !dir.mkdirs() && !dir.exists()) {
+            AppLog.w(TAG, "创建缩略图目录失败: " + dir.getAbsolutePath());
+            return false;
+        }
+        File tmp = new File(sidecar.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tmp)) {
+            bitmap.compress(Bitmap.CompressFormat.JPEG, quality, out);
+        } catch (IOException e) {
+            AppLog.w(TAG, "写入缩略图失败: " + sidecar.getAbsolutePath() + " - " + e.getMessage());
+            tmp.delete();
+            return false;
+        }
+        if (!tmp.renameTo(sidecar)) {
+            tmp.delete();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 获取缩略图，没有时从视频第一个关键帧生成一次（旧文件）
+     * 会访问文件系统，可能解码，在后台线程调用
+     * @return 缩略图文件，视频无法解码时返回 null
+     */
+    public static File obtain(File video) {
+        File sidecar = sidecarFor(video);
+        if (sidecar.length() > 0) {
+            return sidecar;
+        }
+        return extract(video) ? sidecar : null;
+    }
+
+    /**
+     * 用 MediaMetadataRetriever 从第一个关键帧生成缩略图（直接按缩略图尺寸输出，不生成整帧位图）
+     */
+    private static boolean extract(File video) {
+        MediaMetadataRetriever retriever = new MediaMetadataRetriever();
+        try {
+            retriever.setDataSource(video.getAbsolutePath());
+            Bitmap bitmap = retriever.getScaledFrameAtTime(0, MediaMetadataRetriever.OPTION_CLOSEST_SYNC,
+                    WIDTH, WIDTH);
+            if (bitmap == null) {
+                AppLog.w(TAG, "无法从视频中提取帧: " + video.getName());
+                return false;
+            }
+            boolean written = write(video, bitmap);
+            bitmap.recycle();
+            return written;
+        } catch (RuntimeException e) {
+            AppLog.w(TAG, "生成缩略图失败: " + video.getName() + " - " + e.getMessage());
+            return false;
+        } finally {
+            try {
+                retriever.release();
+            } catch (Exception e) {
+                AppLog.w(TAG, "释放 MediaMetadataRetriever 失败: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 复制缩略图（上传封面使用，上传后由调用方删除副本）
+     * @return 是否成功（视频无法解码时返回 false）
+     */
+    public static boolean copyTo(File video, File target) {
+        File sidecar = obtain(video);
+        if (sidecar == null) {
+            return false;
+        }
+        try (FileChannel in = new FileInputStream(sidecar).getChannel();
+             FileChannel out = new FileOutputStream(target).getChannel()) {
+            long size = in.size();
+            long position = 0;
+            while (position < size) {
+                position += in.transferTo(position, size - position, out);
+            }
+            return true;
+        } catch (IOException e) {
+            AppLog.w(TAG, "复制缩略图失败: " + target.getAbsolutePath() + " - " + e.getMessage());
+            target.delete();
+            return false;
+        }
+    }
+
+    /**
+     * 视频移动后移动缩略图和时间轴预览图（同一存储内重命名，跨存储时复制后删除源文件）
+     */
+    public static void moveSidecar(File from, File to) {
+        moveFile(sidecarFor(from), sidecarFor(to));
+        moveFile(timelineFor(from), timelineFor(to));
+    }
+
+    private static void moveFile(File source, File target) {
+        if (!source.exists()) {
+            return;
+        }
+        File dir = target.getParentFile();
+        if (dir != null && !dir.exists()) {
+            dir.mkdirs();
+        }
+        if (!source.renameTo(target)) {
+            try (FileChannel in = new FileInputStream(source).getChannel();
+                 FileChannel out = new FileOutputStream(target).getChannel()) {
+                in.transferTo(0, in.size(), out);
+            } catch (IOException e) {
+                AppLog.w(TAG, "移动缩略图失败: " + source.getAbsolutePath() + " - " + e.getMessage());
+                target.delete();
+            }
+            source.delete();
+        }
+    }
+
+    /**
+     * 删除缩略图和时间轴预览图
+     */
+    public static void deleteSidecar(File video) {
+        File sidecar = sidecarFor(video);
+        if (sidecar.exists()) {
+            sidecar.delete();
+        }
+        File timeline = timelineFor(video);
+        if (timeline.exists()) {
+            timeline.delete();
+        }
+    }
+
+    // ==================== 补齐 ====================
+
+    /**
+     * 在后台为存储目录中没有缩略图的旧视频生成缩略图（从新到旧），并删除视频已不存在的缩略图
+     * 每个目录只读取一次文件名列表和缩略图目录列表；同一目录正在补齐时忽略重复请求
+     */
+    public static void backfill(File root) {
+        Handler handler = getHandler();
+        handler.post(() -> {
+            if (!backfillRoots.add(root)) {
+                return;
+            }
+            int queued = collectMissing(root);
+            if (queued > 0) {
+                AppLog.d(TAG, "开始补齐缩略图 " + root.getAbsolutePath() + ": " + queued + " 个文件");
+            }
+            // 队列中加入结束标记，处理到该目录的结束标记时允许再次补齐
+            backfillQueue.add(root);
+            if (!backfillRunning) {
+                backfillRunning = true;
+                handler.post(VideoThumbnail::backfillNext);
+            }
+        });
+    }
+
+    private static int collectMissing(File root) {
+        long activeCutoffMs = System.currentTimeMillis() - ACTIVE_FILE_WINDOW_MS;
+        int[] queued = {0};
+        StorageHelper.walkMediaDirs(root, (dir, prefix, names) -> {
+            File sidecarDir = new File(dir, SIDECAR_DIR_NAME);
+            String[] sidecarNames = sidecarDir.list();
+            Set<String> existing = new HashSet<>();
+            if (sidecarNames != null) {
+                for (String name : sidecarNames) {
+                    existing.add(name);
+                }
+            }
+            Set<String> videos = new HashSet<>();  // 视频文件名
+            // 文件名以时间戳开头，倒序即从新到旧
+            String[] sorted = names.clone();
+            Arrays.sort(sorted, Collections.reverseOrder());
+            for (String name : sorted) {
+                if (!name.toLowerCase().endsWith(".mp4")) {
+                    continue;
+                }
+                videos.add(name);
+                if (existing.contains(name + SIDECAR_SUFFIX)) {
+                    continue;
+                }
+                File video = new File(dir, name);
+                if (video.lastModified() < activeCutoffMs) {
+                    backfillQueue.add(video);
+                    queued[0]++;
+                }
+            }
+            for (String name : existing) {
+                String suffix = name.endsWith(TIMELINE_SUFFIX) ? TIMELINE_SUFFIX : SIDECAR_SUFFIX;
+                if (name.endsWith(suffix) && !videos.contains(name.substring(0, name.length() - suffix.length()))) {
+                    new File(sidecarDir, name).delete();
+                }
+            }
+        });
+        return queued[0];
+    }
+
+    /**
+     * 处理补齐队列中的下一个文件（在工作线程上执行）
+     */
+    private static void backfillNext() {
+        File next = backfillQueue.poll();
+        if (next == null) {
+            backfillRunning = false;
+            return;
+        }
+        if (backfillRoots.remove(next)) {
+            // 目录结束标记
+            workerHandler.post(VideoThumbnail::backfillNext);
+            return;
+        }
+        if (next.isFile() && !sidecarFor(next).exists()) {
+            extract(next);
+        }
+        long interval = RelayIoScheduler.getInstance().isRecordingActive()
+                ? BACKFILL_RECORDING_INTERVAL_MS : BACKFILL_INTERVAL_MS;
+        workerHandler.postDelayed(VideoThumbnail::backfillNext, interval);
+    }
+}
@@ -0,0 +1,117 @@
+package com.kooo.evcam;
+
+import androidx.annotation.NonNull;
+
+import com.bumptech.glide.Priority;
+import com.bumptech.glide.load.DataSource;
+import com.bumptech.glide.load.Options;
+import com.bumptech.glide.load.data.DataFetcher;
+import com.bumptech.glide.load.model.ModelLoader;
+import com.bumptech.glide.load.model.ModelLoaderFactory;
+import com.bumptech.glide.load.model.MultiModelLoaderFactory;
+import com.bumptech.glide.signature.ObjectKey;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Glide 视频缩略图加载器
+ * 列表中用 Glide.with(context).load(new VideoThumbnailLoader.Source(videoFile)) 加载，
+ * 读取 VideoThumbnail 的 JPEG 旁路文件，不再用 frame(0) 对每个视频启动解码器；
+ * 旧文件没有缩略图时在 Glide 的后台线程上生成一次（VideoThumbnail.obtain）
+ *
+ * 在 EvCamGlideModule 中注册
+ */
+public final class VideoThumbnailLoader implements ModelLoader<VideoThumbnailLoader.Source, InputStream> {
+
+    /**
+     * 加载请求：视频文件
+     */
+    public static final class Source {
+        final File video;
+
+        public Source(File video) {
+            this.video = video;
+        }
+    }
+
+    @Override
+    public LoadData<InputStream> buildLoadData(@NonNull Source source, int width, int height,
+                                               @NonNull Options options) {
+        // 文件修改时间作为缓存 key 的一部分，文件变化时自动更新缓存
+        ObjectKey key = new ObjectKey(source.video.getAbsolutePath() + "@" + source.video.lastModified());
+        return new LoadData<>(key, new Fetcher(source.video));
+    }
+
+    @Override
+    public boolean handles(@NonNull Source source) {
+        return true;
+    }
+
+    private static final class Fetcher implements DataFetcher<InputStream> {
+        private final File video;
+        private InputStream stream;
+
+        Fetcher(File video) {
+            this.video = video;
+        }
+
+        @Override
+        public void loadData(@NonNull Priority priority, @NonNull DataCallback<? super InputStream> callback) {
+            File sidecar = VideoThumbnail.obtain(video);
+            if (sidecar == null) {
+                callback.onLoadFailed(new FileNotFoundException("无法生成缩略图: " + video.getName()));
+                return;
+            }
+            try {
+                stream = new FileInputStream(sidecar);
+                callback.onDataReady(stream);
+            } catch (FileNotFoundException e) {
+                callback.onLoadFailed(e);
+            }
+        }
+
+        @Override
+        public void cleanup() {
+            if (stream != null) {
+                try {
+                    stream.close();
+                } catch (IOException e) {
+                    // 忽略
+                }
+            }
+        }
+
+        @Override
+        public void cancel() {
+            // 读取缩略图很快，不支持取消
+        }
+
+        @NonNull
+        @Override
+        public Class<InputStream> getDataClass() {
+            return InputStream.class;
+        }
+
+        @NonNull
+        @Override
+        public DataSource getDataSource() {
+            return DataSource.LOCAL;
+        }
+    }
+
+    public static final class Factory implements ModelLoaderFactory<Source, InputStream> {
+        @NonNull
+        @Override
+        public ModelLoader<Source, InputStream> build(@NonNull MultiModelLoaderFactory multiFactory) {
+            return new VideoThumbnailLoader();
+        }
+
+        @Override
+        public void teardown() {
+        }
+    }
+}
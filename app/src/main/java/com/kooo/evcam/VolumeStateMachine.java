@@ -0,0 +1,178 @@
+package com.kooo.evcam;
+
+import java.io.File;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * U盘挂载状态机（StorageVolumeMonitor 的状态转换部分）
+ * 不依赖 Android API：U盘检测和目录可访问性通过 VolumeProbe 注入，挂载事件和定时检查由
+ * StorageVolumeMonitor 在后台线程上驱动，便于在 JVM 上回放挂载/弹出序列
+ *
+ * 查询方法可在任意线程调用，其余方法只在同一个后台线程上调用
+ */
+class VolumeStateMachine {
+    private static final String TAG = "StorageVolumeMonitor";
+
+    /**
+     * U盘检测（有 I/O）
+     */
+    interface VolumeProbe {
+        /**
+         * 执行一次完整检测
+         * @return U盘根目录，没有时返回 null
+         */
+        File detectRoot();
+
+        /**
+         * U盘的 DCIM 目录是否可写
+         */
+        boolean isWritable(File root);
+
+        /**
+         * 目录是否仍可访问
+         */
+        boolean canRead(File root);
+    }
+
+    /**
+     * 不可变的状态快照，整体原子替换
+     */
+    static class Snapshot {
+        final StorageVolumeMonitor.State state;
+        final File root;        // 检测到的U盘根目录（EJECTING/ABSENT 时为 null）
+        final boolean writable; // DCIM 目录是否可写
+
+        Snapshot(StorageVolumeMonitor.State state, File root, boolean writable) {
+            this.state = state;
+            this.root = root;
+            this.writable = writable;
+        }
+
+        @Override
+        public String toString() {
+            return state + (root != null ? " " + root.getAbsolutePath() + (writable ? "" : "（不可写）") : "");
+        }
+    }
+
+    private final VolumeProbe probe;
+    private final CopyOnWriteArrayList<StorageVolumeMonitor.Listener> listeners = new CopyOnWriteArrayList<>();
+    private volatile Snapshot snapshot = new Snapshot(StorageVolumeMonitor.State.UNKNOWN, null, false);
+    private File ejectingRoot;  // 收到弹出事件但仍可访问的U盘，重新挂载前不再使用
+
+    VolumeStateMachine(VolumeProbe probe) {
+        this.probe = probe;
+    }
+
+    Snapshot getSnapshot() {
+        return snapshot;
+    }
+
+    void addListener(StorageVolumeMonitor.Listener listener) {
+        listeners.addIfAbsent(listener);
+    }
+
+    void removeListener(StorageVolumeMonitor.Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * 首次检测（不通知监听器）
+     */
+    void init() {
+        snapshot = detect();
+        AppLog.d(TAG, "初始U盘状态: " + snapshot);
+    }
+
+    /**
+     * 挂载事件：清除对应U盘的弹出标记并重新检测
+     * @param path 挂载点（可能为 null）
+     */
+    void onMounted(String path) {
+        if (ejectingRoot != null && (path == null || path.equals(ejectingRoot.getAbsolutePath()))) {
+            ejectingRoot = null;
+        }
+        rescan();
+    }
+
+    /**
+     * 弹出 / 卸载 / 移除事件：影响当前U盘时立即回退，再重新检测是否有其他U盘
+     * @param path 挂载点（可能为 null）
+     */
+    void onRemoved(String path) {
+        Snapshot current = snapshot;
+        if (current.root == null) {
+            return;
+        }
+        boolean otherVolume = path == null || !path.equals(current.root.getAbsolutePath());
+        if (otherVolume && probe.canRead(current.root)) {
+            // 其他存储设备的事件（存储卷回调在卷未挂载时不提供路径，以当前U盘是否仍可访问判断）
+            return;
+        }
+        ejectingRoot = current.root;
+        publish(new Snapshot(StorageVolumeMonitor.State.EJECTING, null, false));
+        rescan();
+    }
+
+    /**
+     * 兜底检查：确认当前U盘仍可访问，没有U盘时重新检测
+     */
+    void periodicCheck() {
+        Snapshot current = snapshot;
+        if (ejectingRoot != null && !probe.canRead(ejectingRoot)) {
+            // 弹出的U盘已真正卸载，之后重新挂载时可以直接识别
+            ejectingRoot = null;
+        }
+        if (current.root != null && !probe.canRead(current.root)) {
+            AppLog.w(TAG, "U盘已不可访问（未收到挂载事件）: " + current.root.getAbsolutePath());
+            publish(new Snapshot(StorageVolumeMonitor.State.ABSENT, null, false));
+            rescan();
+        } else if (current.root == null) {
+            rescan();
+        }
+    }
+
+    /**
+     * 重新检测U盘，状态有变化时发布
+     */
+    void rescan() {
+        Snapshot detected = detect();
+        if (detected.root != null && detected.root.equals(ejectingRoot)) {
+            // 弹出过程中目录仍可访问，不能再使用
+            detected = new Snapshot(StorageVolumeMonitor.State.EJECTING, null, false);
+        }
+        Snapshot current = snapshot;
+        if (current.state == detected.state && current.writable == detected.writable
+                && sameFile(current.root, detected.root)) {
+            return;
+        }
+        publish(detected);
+    }
+
+    private void publish(Snapshot next) {
+        Snapshot previous = snapshot;
+        snapshot = next;
+        AppLog.d(TAG, "U盘状态: " + previous + " -> " + next);
+        if (sameFile(previous.root, next.root)) {
+            return;
+        }
+        for (StorageVolumeMonitor.Listener listener : listeners) {
+            try {
+                listener.onVolumeChanged(previous.root, next.root);
+            } catch (Exception e) {
+                AppLog.e(TAG, "U盘变化监听异常: " + e.getMessage(), e);
+            }
+        }
+    }
+
+    private Snapshot detect() {
+        File root = probe.detectRoot();
+        if (root == null) {
+            return new Snapshot(StorageVolumeMonitor.State.ABSENT, null, false);
+        }
+        return new Snapshot(StorageVolumeMonitor.State.MOUNTED, root, probe.isWritable(root));
+    }
+
+    private static boolean sameFile(File a, File b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
@@ -0,0 +1,372 @@
+package com.kooo.evcam.camera;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.os.Handler;
+import android.os.HandlerThread;
+
+import androidx.annotation.NonNull;
+
+import com.kooo.evcam.AppLog;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 编码器异步输出管线
+ *
+ * 同步模式下渲染线程每帧调用 dequeueOutputBuffer(10ms) 轮询编码器输出，最多阻塞 10ms，
+ * 直接影响下一帧的渲染。本类改用 MediaCodec.setCallback 在独立的输出线程上接收编码数据：
+ * - 输出回调把数据拷贝到对象池中的样本并立即归还编码器缓冲区
+ * - 样本经无锁有界队列交给 Muxer 写入线程（CodecVideoRecorder 的编码线程）
+ * - 健康状态（最后输出时间、无输出帧数）由回调直接更新，不再依赖轮询
+ *
+ * 队列满（写入线程跟不上）时丢弃样本直到下一个关键帧，并通知录制器请求关键帧，保证文件可解码
+ */
+class AsyncEncoderOutput {
+    private static final String TAG = "AsyncEncoderOutput";
+
+    private static final int POOL_SIZE = 32;                   // 样本对象池大小（约 1 秒的帧）
+    private static final int INITIAL_SAMPLE_CAPACITY = 64 * 1024;
+    private static final int SUBMIT_HISTORY_SIZE = 64;         // 记录最近提交帧的时间，用于统计输入到写入的延迟
+
+    /**
+     * 编码样本（从对象池中复用）
+     */
+    static class EncodedSample {
+        ByteBuffer data;
+        final MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+        MediaFormat format;   // 不为 null 时表示输出格式变化事件
+        long outputTimeNs;    // 编码器输出该样本的时间
+        int generation;       // 所属编码器实例，编码器重建后旧样本被丢弃
+
+        boolean isEndOfStream() {
+            return (info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0;
+        }
+
+        boolean isKeyFrame() {
+            return (info.flags & MediaCodec.BUFFER_FLAG_KEY_FRAME) != 0;
+        }
+    }
+
+    /**
+     * 管线事件监听（在输出线程上回调）
+     */
+    interface Listener {
+        /** 队列由空变为非空，写入线程应尽快取走样本 */
+        void onOutputAvailable();
+
+        /** 因队列已满丢弃了样本，需要请求关键帧 */
+        void onSamplesDropped();
+
+        /** 编码器报告错误 */
+        void onEncoderError(MediaCodec.CodecException e);
+    }
+
+    private final String cameraId;
+    private final Listener listener;
+    private HandlerThread outputThread;
+    private Handler outputHandler;
+
+    // 输出线程 -> 写入线程
+    private final SpscRingBuffer<EncodedSample> filledQueue = new SpscRingBuffer<>(POOL_SIZE);
+    // 写入线程 -> 输出线程（对象池）
+    private final SpscRingBuffer<EncodedSample> freeQueue = new SpscRingBuffer<>(POOL_SIZE);
+
+    private volatile MediaCodec activeCodec;
+    private volatile int generation = 0;
+    private final AtomicBoolean outputSignalPending = new AtomicBoolean(false);
+    private boolean droppingUntilKeyFrame = false;  // 只在输出线程上访问
+
+    // 健康状态（输出线程写，健康检查读）
+    private volatile long lastOutputTimeMs = 0;
+    private final AtomicInteger framesWithoutOutput = new AtomicInteger();
+    private volatile long droppedSampleCount = 0;
+
+    // 输入到写入延迟统计（只在写入线程上访问；提交历史由渲染线程写，写入线程读，偶发错配只影响单个样本的统计）
+    private final long[] submitPtsUs = new long[SUBMIT_HISTORY_SIZE];
+    private final long[] submitTimeNs = new long[SUBMIT_HISTORY_SIZE];
+    private int submitIndex = 0;
+    private final LatencyRecorder inputToMuxLatency = new LatencyRecorder(1024);
+
+    AsyncEncoderOutput(String cameraId, Listener listener) {
+        this.cameraId = cameraId;
+        this.listener = listener;
+        for (int i = 0; i < POOL_SIZE; i++) {
+            EncodedSample sample = new EncodedSample();
+            sample.data = ByteBuffer.allocateDirect(INITIAL_SAMPLE_CAPACITY);
+            freeQueue.offer(sample);
+        }
+    }
+
+    /**
+     * 启动输出线程
+     */
+    void start() {
+        if (outputThread != null) {
+            return;
+        }
+        outputThread = new HandlerThread("CodecOutput-" + cameraId);
+        outputThread.start();
+        outputHandler = new Handler(outputThread.getLooper());
+        lastOutputTimeMs = System.currentTimeMillis();
+    }
+
+    /**
+     * 为新创建的编码器注册异步回调（必须在 configure() 之前调用）
+     * 之前编码器的遗留样本在写入时会被丢弃
+     */
+    void attach(MediaCodec codec) {
+        generation++;
+        activeCodec = codec;
+        droppingUntilKeyFrame = false;
+        framesWithoutOutput.set(0);
+        lastOutputTimeMs = System.currentTimeMillis();
+        codec.setCallback(callback, outputHandler);
+    }
+
+    /**
+     * 取出下一个样本（写入线程调用），用完必须调用 recycle()
+     * @return 没有样本时返回 null；旧编码器的样本会被自动丢弃
+     */
+    EncodedSample poll() {
+        EncodedSample sample;
+        while ((sample = filledQueue.poll()) != null) {
+            if (sample.generation == generation) {
+                return sample;
+            }
+            recycle(sample);
+        }
+        return null;
+    }
+
+    /**
+     * 归还样本到对象池（写入线程调用）
+     */
+    void recycle(EncodedSample sample) {
+        sample.format = null;
+        freeQueue.offer(sample);
+    }
+
+    /**
+     * 清除"待取出"标记（写入线程开始取样本前调用），之后到达的样本会重新触发 onOutputAvailable
+     */
+    void clearOutputSignal() {
+        outputSignalPending.set(false);
+    }
+
+    /**
+     * 等待输出（只在停止录制等待结束流时使用）
+     */
+    void awaitOutput(long timeoutNs) {
+        if (filledQueue.isEmpty()) {
+            LockSupport.parkNanos(timeoutNs);
+        }
+    }
+
+    /**
+     * 记录一帧已提交给编码器（渲染线程调用）
+     * @param presentationTimeNs 该帧的呈现时间（与编码器输出的 presentationTimeUs 对应）
+     */
+    void onFrameSubmitted(long presentationTimeNs) {
+        int index = submitIndex++ % SUBMIT_HISTORY_SIZE;
+        submitPtsUs[index] = presentationTimeNs / 1000;
+        submitTimeNs[index] = System.nanoTime();
+        framesWithoutOutput.incrementAndGet();
+    }
+
+    /**
+     * 样本写入 Muxer 后记录输入到写入的延迟（写入线程调用）
+     * @param encoderPtsUs 编码器输出的原始 presentationTimeUs
+     */
+    void onSampleMuxed(long encoderPtsUs) {
+        for (int i = 0; i < SUBMIT_HISTORY_SIZE; i++) {
+            if (submitPtsUs[i] == encoderPtsUs) {
+                inputToMuxLatency.record(System.nanoTime() - submitTimeNs[i]);
+                return;
+            }
+        }
+    }
+
+    long getLastOutputTimeMs() {
+        return lastOutputTimeMs;
+    }
+
+    int getFramesWithoutOutput() {
+        return framesWithoutOutput.get();
+    }
+
+    void resetHealth() {
+        framesWithoutOutput.set(0);
+        lastOutputTimeMs = System.currentTimeMillis();
+    }
+
+    /**
+     * 输入到写入延迟及丢弃统计
+     */
+    String getStats() {
+        return "input-to-mux " + inputToMuxLatency + ", queued=" + filledQueue.size() + ", dropped=" + droppedSampleCount;
+    }
+
+    LatencyRecorder getInputToMuxLatency() {
+        return inputToMuxLatency;
+    }
+
+    /**
+     * 停止输出线程（编码器释放后调用）
+     */
+    void release() {
+        activeCodec = null;
+        if (outputThread != null) {
+            outputThread.quitSafely();
+            try {
+                outputThread.join(1000);
+            } catch (InterruptedException e) {
+                // Ignore
+            }
+            outputThread = null;
+            outputHandler = null;
+        }
+        EncodedSample sample;
+        while ((sample = filledQueue.poll()) != null) {
+            recycle(sample);
+        }
+    }
+
+    // ===== 编码器回调（在输出线程上执行） =====
+
+    private final MediaCodec.Callback callback = new MediaCodec.Callback() {
+        @Override
+        public void onInputBufferAvailable(@NonNull MediaCodec codec, int index) {
+            // Surface 输入模式，不使用输入缓冲区
+        }
+
+        @Override
+        public void onOutputBufferAvailable(@NonNull MediaCodec codec, int index, @NonNull MediaCodec.BufferInfo info) {
+            if (codec != activeCodec) {
+                releaseQuietly(codec, index);
+                return;
+            }
+            try {
+                boolean endOfStream = (info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0;
+                // 配置数据（SPS/PPS）已包含在输出格式中，不写入
+                int size = (info.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0 ? 0 : info.size;
+                if (size > 0 || endOfStream) {
+                    ByteBuffer encodedData = size > 0 ? codec.getOutputBuffer(index) : null;
+                    if (size > 0 && encodedData == null) {
+                        AppLog.e(TAG, "Camera " + cameraId + " Encoder output buffer " + index + " was null");
+                    } else {
+                        enqueueSample(encodedData, info, size, endOfStream);
+                    }
+                }
+                codec.releaseOutputBuffer(index, false);
+
+                lastOutputTimeMs = System.currentTimeMillis();
+                framesWithoutOutput.set(0);
+            } catch (IllegalStateException e) {
+                AppLog.e(TAG, "Camera " + cameraId + " Encoder in invalid state during output callback", e);
+            }
+        }
+
+        @Override
+        public void onError(@NonNull MediaCodec codec, @NonNull MediaCodec.CodecException e) {
+            if (codec != activeCodec) {
+                return;
+            }
+            AppLog.e(TAG, "Camera " + cameraId + " Encoder error (transient=" + e.isTransient()
+                    + ", recoverable=" + e.isRecoverable() + ")", e);
+            listener.onEncoderError(e);
+        }
+
+        @Override
+        public void onOutputFormatChanged(@NonNull MediaCodec codec, @NonNull MediaFormat format) {
+            if (codec != activeCodec) {
+                return;
+            }
+            EncodedSample sample = freeQueue.poll();
+            if (sample == null) {
+                // 对象池耗尽时仍必须送达格式变化，临时分配一个
+                sample = new EncodedSample();
+                sample.data = ByteBuffer.allocateDirect(0);
+            }
+            sample.format = format;
+            sample.info.set(0, 0, 0, 0);
+            sample.outputTimeNs = System.nanoTime();
+            sample.generation = generation;
+            publish(sample);
+            lastOutputTimeMs = System.currentTimeMillis();
+        }
+    };
+
+    /**
+     * 拷贝一个编码输出到对象池中的样本并交给写入线程（输出线程调用）
+     * @param encodedData 编码器输出缓冲区（size 为 0 时可为 null）
+     * @param size 有效数据大小（配置数据传 0）
+     */
+    void enqueueSample(ByteBuffer encodedData, MediaCodec.BufferInfo info, int size, boolean endOfStream) {
+        boolean keyFrame = (info.flags & MediaCodec.BUFFER_FLAG_KEY_FRAME) != 0;
+        if (droppingUntilKeyFrame && !keyFrame && !endOfStream) {
+            droppedSampleCount++;
+            return;
+        }
+
+        EncodedSample sample = freeQueue.poll();
+        if (sample == null) {
+            // 写入线程跟不上：丢弃直到下一个关键帧（结束标记不能丢，临时分配）
+            if (!endOfStream) {
+                droppedSampleCount++;
+                if (!droppingUntilKeyFrame) {
+                    droppingUntilKeyFrame = true;
+                    AppLog.w(TAG, "Camera " + cameraId + " Output queue full, dropping until next key frame");
+                    listener.onSamplesDropped();
+                }
+                return;
+            }
+            sample = new EncodedSample();
+            sample.data = ByteBuffer.allocateDirect(size);
+        }
+        droppingUntilKeyFrame = false;
+
+        if (sample.data.capacity() < size) {
+            sample.data = ByteBuffer.allocateDirect(size + size / 4);
+        }
+        sample.data.clear();
+        if (size > 0) {
+            encodedData.position(info.offset);
+            encodedData.limit(info.offset + size);
+            sample.data.put(encodedData);
+        }
+        sample.data.flip();
+        // 直接赋值字段，不调用 BufferInfo.set()，便于在 JVM 上测试管线
+        sample.info.offset = 0;
+        sample.info.size = size;
+        sample.info.presentationTimeUs = info.presentationTimeUs;
+        sample.info.flags = info.flags;
+        sample.format = null;
+        sample.outputTimeNs = System.nanoTime();
+        sample.generation = generation;
+        publish(sample);
+    }
+
+    private void publish(EncodedSample sample) {
+        if (!filledQueue.offer(sample)) {
+            // 队列和对象池容量相同，只有临时分配的样本可能放不下
+            AppLog.w(TAG, "Camera " + cameraId + " Output queue overflow, sample dropped");
+            droppedSampleCount++;
+            return;
+        }
+        if (outputSignalPending.compareAndSet(false, true)) {
+            listener.onOutputAvailable();
+        }
+    }
+
+    private void releaseQuietly(MediaCodec codec, int index) {
+        try {
+            codec.releaseOutputBuffer(index, false);
+        } catch (Exception e) {
+            // 旧编码器可能已停止
+        }
+    }
+}
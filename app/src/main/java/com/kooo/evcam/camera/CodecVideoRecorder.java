@@ -4,13 +4,17 @@ import android.graphics.SurfaceTexture;
 import android.media.MediaCodec;
 import android.media.MediaCodecInfo;
 import android.media.MediaFormat;
-import android.media.MediaMuxer;
+import android.os.Bundle;
 import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.Looper;
+import android.util.Size;
 import android.view.Surface;
 
 import com.kooo.evcam.AppLog;
+import com.kooo.evcam.RelayIoScheduler;
+import com.kooo.evcam.StorageHelper;
+import com.kooo.evcam.VideoThumbnail;
 
 import java.io.File;
 import java.io.IOException;
@@ -18,8 +22,10 @@ import java.nio.ByteBuffer;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
@@ -30,9 +36,14 @@ import java.util.concurrent.atomic.AtomicBoolean;
  * 1. 创建 MediaCodec 编码器，获取其输入 Surface
  * 2. 使用 EglSurfaceEncoder 将 Camera 的帧渲染到编码器输入 Surface
  * 3. 从 MediaCodec 获取编码后的数据
- * 4. 通过 MediaMuxer 写入 MP4 文件
+ * 4. 通过 SampleMuxer 写入 MP4 文件（系统 MediaMuxer，或防断电的分片 MP4）
+ * 
+ * 无缝分段切换（默认启用）：
+ * 分段到时后编码器不停止，在分段线程上预先打开并启动下一个 MediaMuxer，
+ * 请求一个关键帧，编码线程在该关键帧处切换写入目标（仅交换引用），
+ * 旧文件的 stop()/校验在分段线程上完成，不丢帧
  */
-public class CodecVideoRecorder {
+public class CodecVideoRecorder implements SegmentClock.Participant {
     private static final String TAG = "CodecVideoRecorder";
 
     // 编码参数（常量）
@@ -53,23 +64,68 @@ public class CodecVideoRecorder {
     private MediaCodec.BufferInfo bufferInfo;
 
     // MediaMuxer 相关
-    private MediaMuxer muxer;
+    private SampleMuxer muxer;
     private int videoTrackIndex = -1;
-    private boolean muxerStarted = false;
+    private volatile boolean muxerStarted = false;  // 分段线程也会读取
+    private volatile MediaFormat encoderOutputFormat;  // 编码器输出格式（含 SPS/PPS），用于预先打开下一段 Muxer
+
+    // 无缝分段切换相关
+    private boolean gaplessSegmentSwitch = true;  // 是否启用无缝分段切换
+    private static final long GAPLESS_KEYFRAME_TIMEOUT_MS = 3000;  // 等待关键帧超时，超时回退到完整切换
+    // 已启动、等待在关键帧处接管的下一段 Muxer（发布、接管和丢弃都持有 muxerWriteLock）
+    private volatile SampleMuxer pendingMuxer;
+    private volatile int pendingTrackIndex = -1;
+    private volatile String pendingFilePath;
+    private final List<MuxerFinalizer> pendingFinalizers = new ArrayList<>();  // 已投递、尚未完成的上一段/事件片段收尾（自身加锁）
+    private volatile long lastSegmentSwitchStallNs = 0;  // 最近一次无缝切换在编码线程上的耗时
+
+    // 防断电分片 MP4 模式（每 N 个关键帧落盘一个 moof/mdat 分片，断电最多丢失一个分片）
+    private boolean fragmentedMp4Enabled = false;
+    private int keyFramesPerFragment = 1;
 
     // EGL 渲染器
     private EglSurfaceEncoder eglEncoder;
     private SurfaceTexture inputSurfaceTexture;
     private int textureId;
 
-    // 编码线程
+    // 编码线程（共享渲染模式下为共享渲染引擎的线程，不单独创建）
     private HandlerThread encoderThread;
     private Handler encoderHandler;
 
+    // 编码器异步输出（MediaCodec.setCallback），渲染线程不再阻塞在 dequeueOutputBuffer
+    private boolean asyncEncoderOutputEnabled = true;
+    private AsyncEncoderOutput asyncOutput;
+    private final Object muxerWriteLock = new Object();  // 编码线程与停止录制线程串行写入 Muxer
+    private static final long END_OF_STREAM_TIMEOUT_MS = 2000;  // 停止录制时等待编码器输出结束标记的超时
+
+    // 事件前缓存和事件片段（只在写入 Muxer 的线程上访问，muxerWriteLock 保护）
+    private int preEventBufferBytes = 0;  // 0 表示不启用
+    private long preEventDurationMs = 0;
+    private PreEventBuffer preEventBuffer;
+    private EventClipWriter eventClip;
+    private EventClipListener eventClipListener;
+    private boolean eventCaptureClosed = false;  // 停止录制后不再接受排队中的事件触发
+
+    // 共享 GL 渲染引擎（多路摄像头共用一个 EGL 上下文和渲染线程）
+    private boolean sharedRenderEnabled = false;
+    private SharedGlRenderEngine sharedRenderEngine;
+
+    // 2x2 拼接录制模式（多路摄像头合成一路画面，只用一个编码器）
+    private List<String> mosaicPositions;  // 各象限对应的摄像头位置（null 表示该象限无摄像头），为 null 时为普通模式
+    private List<Size> mosaicInputSizes;   // 各象限摄像头的输出尺寸
+    private int mosaicMasterQuadrant = -1; // 由该象限摄像头的帧驱动编码
+    private final Map<String, SurfaceTexture> mosaicInputTextures = new HashMap<>();
+    private static final int MOSAIC_MASTER_STALE_FRAMES = 3;  // 主象限超过该帧数未出帧时由其他象限驱动编码
+    private long lastMosaicDrawTimeNs = 0;
+    private long lastMosaicPresentationNs = -1;
+
     // 状态
     private final AtomicBoolean isRecording = new AtomicBoolean(false);  // 使用 AtomicBoolean 确保线程安全
     private volatile boolean isReleased = false;
     private String currentFilePath;
+    private volatile String previewSegmentPath;  // 正在生成缩略图/时间轴预览图的分段
+    private long previewStartNs;                 // 该分段第一次渲染的时间（只在编码线程上访问）
+    private int previewTiles;                    // 该分段已请求的预览帧数（只在编码线程上访问）
     
     // 缓存的录制 Surface，避免重复创建导致内存泄漏
     private Surface cachedRecordSurface = null;
@@ -77,9 +133,8 @@ public class CodecVideoRecorder {
     // 时间戳基准（用于计算相对时间戳，供输入端使用）
     private long firstFrameTimestampNs = -1;
     
-    // 分段开始时间（用于计算 PTS，基于系统时间而非帧数）
-    // 这样可以准确反映实际录制时长，不受帧率波动影响
-    private long segmentStartTimeNs = 0;
+    // 分段 PTS 时间轴（基于系统时间而非帧数，准确反映实际录制时长，不受帧率波动影响）
+    private final SegmentTimeline timeline = new SegmentTimeline();
     
     // 编码器输出帧计数（仅用于日志和统计，不再用于 PTS 计算）
     private long encodedOutputFrameCount = 0;
@@ -94,11 +149,13 @@ public class CodecVideoRecorder {
     private Handler segmentHandler;
     
     private Runnable segmentRunnable;
+    private volatile boolean externalSegmentClock = false;  // 由 MultiCameraManager 的共用分段时钟触发切换
     private int segmentIndex = 0;
-    private String saveDirectory;
+    private volatile String saveDirectory;
     private String cameraPosition;
     private VideoRecorder.SegmentTimestampProvider timestampProvider;  // 分段时间戳提供者（用于多路同步）
     private long lastFileSize = 0;
+    private volatile long maxWriteNsSinceCheck = 0;  // 上次文件大小检查以来 Muxer 单次写入的最大耗时
     private static final long FILE_SIZE_CHECK_INTERVAL_MS = 5000;
     private static final long FIRST_CHECK_DELAY_MS = 500;  // 首次检查延迟（更快检测首次写入）
     private Runnable fileSizeCheckRunnable;
@@ -119,7 +176,8 @@ public class CodecVideoRecorder {
     // 编码器健康检查
     private static final long ENCODER_HEALTH_CHECK_INTERVAL_MS = 3000;  // 健康检查间隔：3秒
     private static final int MAX_FRAMES_WITHOUT_OUTPUT = 30;  // 无输出的最大帧数阈值
-    private long lastEncoderOutputTime = 0;  // 最后一次编码器输出时间
+    private static final long MAX_OUTPUT_SILENCE_MS = 3000;  // 有帧待输出时编码器最长无输出时间
+    private volatile long lastEncoderOutputTime = 0;  // 最后一次编码器输出时间
     private int framesWithoutEncoderOutput = 0;  // 无编码器输出的连续帧数
     private volatile boolean encoderHealthy = true;  // 编码器是否健康
     private Runnable healthCheckRunnable;  // 健康检查任务
@@ -184,6 +242,147 @@ public class CodecVideoRecorder {
         AppLog.d(TAG, "Camera " + cameraId + " segment duration set to " + (durationMs / 1000) + " seconds");
     }
 
+    /**
+     * 设置是否由外部共用分段时钟调度分段切换
+     * 启用后不再启动自身的分段定时器，由 SegmentClock 在统一的分段边界调用 requestSegmentSwitch()
+     * @param enabled true 表示使用外部分段时钟
+     */
+    public void setExternalSegmentClock(boolean enabled) {
+        this.externalSegmentClock = enabled;
+    }
+
+    /**
+     * 请求立即切换到下一段（由共用分段时钟在分段边界调用，可在任意线程调用）
+     * 尚未首次写入的录制器忽略本次边界，等待下一个边界
+     * @return 是否接受请求
+     */
+    @Override
+    public boolean requestSegmentSwitch() {
+        Handler handler = segmentHandler;
+        if (!isRecording.get() || handler == null) {
+            return false;
+        }
+        handler.post(() -> {
+            if (!hasFirstWrite) {
+                AppLog.d(TAG, "Camera " + cameraId + " No data written yet, skipping shared segment boundary");
+                return;
+            }
+            if (segmentRunnable != null) {
+                segmentHandler.removeCallbacks(segmentRunnable);
+            }
+            runSegmentSwitch();
+        });
+        return true;
+    }
+
+    /**
+     * 把后续分段改为写入指定目录并立即切换分段（当前存储被移除时由 MultiCameraManager 调用，可在任意线程调用）
+     * @param directory 新的保存目录
+     * @return 是否接受请求
+     */
+    public boolean redirectSegments(String directory) {
+        if (!isRecording.get()) {
+            return false;
+        }
+        AppLog.w(TAG, "Camera " + cameraId + " redirecting segments to " + directory);
+        saveDirectory = directory;
+        return requestSegmentSwitch();
+    }
+
+    /**
+     * 设置是否启用无缝分段切换
+     * 启用后分段切换不再停止编码器，而是在关键帧处切换到预先打开的 Muxer
+     * @param enabled true 表示启用
+     */
+    public void setGaplessSegmentSwitch(boolean enabled) {
+        this.gaplessSegmentSwitch = enabled;
+        AppLog.d(TAG, "Camera " + cameraId + " gapless segment switch " + (enabled ? "enabled" : "disabled"));
+    }
+
+    /**
+     * 设置是否使用防断电分片 MP4 写入（替代 MediaMuxer）
+     * @param enabled true 表示使用 FragmentedSampleMuxer
+     * @param keyFramesPerFragment 每个分片包含的关键帧数（I帧间隔1秒时即约 N 秒）
+     */
+    public void setFragmentedMp4(boolean enabled, int keyFramesPerFragment) {
+        this.fragmentedMp4Enabled = enabled;
+        this.keyFramesPerFragment = Math.max(1, keyFramesPerFragment);
+        AppLog.d(TAG, "Camera " + cameraId + " fragmented MP4 " + (enabled ? "enabled, " + this.keyFramesPerFragment + " key frame(s)/fragment" : "disabled"));
+    }
+
+    /**
+     * 设置编码器输出是否使用异步回调（需在 prepareRecording 之前调用）
+     * 启用后编码数据在独立的输出线程上接收，经无锁队列交给编码线程写入 Muxer
+     * @param enabled true 表示异步输出，false 表示每帧同步轮询 dequeueOutputBuffer
+     */
+    public void setAsyncEncoderOutput(boolean enabled) {
+        this.asyncEncoderOutputEnabled = enabled;
+        AppLog.d(TAG, "Camera " + cameraId + " Async encoder output: " + (enabled ? "enabled" : "disabled"));
+    }
+
+    /**
+     * 获取异步输出的统计（输入到写入 Muxer 的延迟分位数、队列深度、丢弃数）
+     * @return 统计描述，未使用异步输出时返回 null
+     */
+    public String getEncoderOutputStats() {
+        AsyncEncoderOutput output = asyncOutput;
+        return output != null ? output.getStats() : null;
+    }
+
+    /**
+     * 设置是否使用共享 GL 渲染引擎（需在 prepareRecording 之前调用）
+     * 启用后不再创建独立的编码线程和 EGL 上下文，所有摄像头在同一线程上渲染和编码
+     * @param enabled true 表示使用共享渲染引擎
+     */
+    public void setSharedRenderEnabled(boolean enabled) {
+        this.sharedRenderEnabled = enabled;
+        AppLog.d(TAG, "Camera " + cameraId + " shared GL render " + (enabled ? "enabled" : "disabled"));
+    }
+
+    /**
+     * 设置 2x2 拼接录制模式（需在 prepareRecording 之前调用）
+     * 构造时的宽高为合成画面尺寸，每个象限为其四分之一
+     * @param positions 各象限（左上、右上、左下、右下）对应的摄像头位置，无摄像头的象限为 null
+     * @param inputSizes 各象限摄像头的输出尺寸
+     */
+    public void setMosaicInputs(List<String> positions, List<Size> inputSizes) {
+        this.mosaicPositions = new ArrayList<>(positions);
+        this.mosaicInputSizes = new ArrayList<>(inputSizes);
+        this.mosaicMasterQuadrant = -1;
+        for (int i = 0; i < mosaicPositions.size() && i < EglSurfaceEncoder.MOSAIC_QUADRANTS; i++) {
+            if (mosaicPositions.get(i) != null) {
+                mosaicMasterQuadrant = i;
+                break;
+            }
+        }
+        AppLog.d(TAG, "Camera " + cameraId + " mosaic inputs: " + mosaicPositions + ", master quadrant=" + mosaicMasterQuadrant);
+    }
+
+    /**
+     * 获取拼接模式下某个摄像头的输入 SurfaceTexture（prepareRecording 成功后可用）
+     * @param position 摄像头位置
+     * @return 输入 SurfaceTexture，不在拼接画面中时返回 null
+     */
+    public SurfaceTexture getMosaicInputSurfaceTexture(String position) {
+        return mosaicInputTextures.get(position);
+    }
+
+    /**
+     * 获取渲染统计（每帧渲染耗时、CPU 耗时、帧间隔）
+     * @return 统计信息，未初始化时返回 null
+     */
+    public EglSurfaceEncoder.RenderStats getRenderStats() {
+        EglSurfaceEncoder encoder = eglEncoder;
+        return encoder != null ? encoder.getRenderStats() : null;
+    }
+
+    /**
+     * 获取最近一次无缝分段切换在编码线程上的耗时（微秒）
+     */
+    public long getLastSegmentSwitchStallUs() {
+        return lastSegmentSwitchStallNs / 1000;
+    }
+
     /**
      * 获取分段时长（毫秒）
      */
@@ -264,7 +463,8 @@ public class CodecVideoRecorder {
 
         // 从文件路径中提取保存目录和摄像头位置
         File file = new File(filePath);
-        this.saveDirectory = file.getParent();
+        // 分段路径按存储根目录计算（按日期分目录时跨天的分段写入新的日期目录）
+        this.saveDirectory = StorageHelper.getShardRoot(file.getParentFile()).getPath();
         String fileName = file.getName();
         int lastUnderscoreIndex = fileName.lastIndexOf('_');
         if (lastUnderscoreIndex > 0 && fileName.endsWith(".mp4")) {
@@ -274,15 +474,37 @@ public class CodecVideoRecorder {
         }
 
         try {
-            // 创建编码线程
-            encoderThread = new HandlerThread("Encoder-" + cameraId);
-            encoderThread.start();
-            encoderHandler = new Handler(encoderThread.getLooper());
+            // 创建编码线程（共享渲染模式下使用共享渲染引擎的线程，引擎创建失败时回退到独立线程和 EGL 上下文）
+            if (sharedRenderEnabled) {
+                sharedRenderEngine = SharedGlRenderEngine.acquire();
+                if (sharedRenderEngine == null) {
+                    AppLog.w(TAG, "Camera " + cameraId + " Shared render engine unavailable, using dedicated EGL context");
+                }
+            }
+            if (sharedRenderEngine != null) {
+                encoderHandler = sharedRenderEngine.getHandler();
+            } else {
+                encoderThread = new HandlerThread("Encoder-" + cameraId);
+                encoderThread.start();
+                encoderHandler = new Handler(encoderThread.getLooper());
+            }
+
+            // 分配事件前缓存（录制期间常驻，内存上限固定）
+            if (preEventBufferBytes > 0 && preEventBuffer == null) {
+                preEventBuffer = new PreEventBuffer(preEventBufferBytes, preEventDurationMs, frameRate);
+            }
+            eventCaptureClosed = false;
+
+            // 创建异步输出线程（必须在创建编码器之前，编码器 configure 前需注册回调）
+            if (asyncEncoderOutputEnabled && asyncOutput == null) {
+                asyncOutput = new AsyncEncoderOutput(cameraId, asyncOutputListener);
+                asyncOutput.start();
+            }
 
             // 创建 MediaCodec 编码器
             createEncoder();
 
-            // 创建 MediaMuxer
+            // 创建 Muxer
             createMuxer(filePath);
 
             // 在编码线程上初始化 EGL 和 SurfaceTexture（重要：必须在同一线程上）
@@ -294,13 +516,19 @@ public class CodecVideoRecorder {
             encoderHandler.post(() -> {
                 try {
                     // 创建 EGL 渲染器（在编码线程上）
-                    eglEncoder = new EglSurfaceEncoder(cameraId, width, height);
+                    eglEncoder = new EglSurfaceEncoder(cameraId, width, height, sharedRenderEngine);
                     resultTextureId[0] = eglEncoder.initialize(encoderInputSurface);
                     textureId = resultTextureId[0];
 
                     // 创建 SurfaceTexture 供 Camera 输出（在编码线程上，绑定到 EGL context）
                     inputSurfaceTexture = new SurfaceTexture(textureId);
-                    inputSurfaceTexture.setDefaultBufferSize(width, height);
+                    if (mosaicMasterQuadrant >= 0) {
+                        // 拼接模式：主输入接收主象限摄像头的原始尺寸画面
+                        Size masterSize = mosaicInputSizes.get(mosaicMasterQuadrant);
+                        inputSurfaceTexture.setDefaultBufferSize(masterSize.getWidth(), masterSize.getHeight());
+                    } else {
+                        inputSurfaceTexture.setDefaultBufferSize(width, height);
+                    }
 
                     // 设置帧可用回调（在编码线程上）
                     // 直接在回调中处理帧，避免 Handler 死锁
@@ -342,14 +570,28 @@ public class CodecVideoRecorder {
                             }
                             long relativeTimestampNs = absoluteTimestampNs - firstFrameTimestampNs;
 
+                            // 拼接模式下其他象限可能已驱动编码更晚的时间戳，丢弃该帧保持单调递增
+                            if (mosaicMasterQuadrant >= 0 && relativeTimestampNs <= lastMosaicPresentationNs) {
+                                eglEncoder.consumeFrame();
+                                return;
+                            }
+
                             // 直接渲染帧到编码器（使用相对时间戳）
                             if (eglEncoder != null && eglEncoder.isInitialized()) {
+                                requestSegmentPreview();
                                 eglEncoder.drawFrame(relativeTimestampNs);
+                                if (asyncOutput != null) {
+                                    asyncOutput.onFrameSubmitted(relativeTimestampNs);
+                                }
+                                lastMosaicDrawTimeNs = System.nanoTime();
+                                lastMosaicPresentationNs = relativeTimestampNs;
                                 recordedFrameCount++;
 
                                 // 定期输出帧计数
                                 if (recordedFrameCount % 100 == 0) {
-                                    AppLog.d(TAG, "Camera " + cameraId + " Encoded frames: " + recordedFrameCount);
+                                    AppLog.d(TAG, "Camera " + cameraId + " Encoded frames: " + recordedFrameCount
+                                            + ", render: " + eglEncoder.getRenderStats()
+                                            + (asyncOutput != null ? ", output: " + asyncOutput.getStats() : ""));
                                 }
                             }
 
@@ -366,6 +608,11 @@ public class CodecVideoRecorder {
                     // 设置 EGL 渲染器的输入
                     eglEncoder.setInputSurfaceTexture(inputSurfaceTexture);
 
+                    // 拼接模式：为其他象限创建输入纹理
+                    if (mosaicMasterQuadrant >= 0) {
+                        setupMosaicInputs();
+                    }
+
                     // 设置时间水印（如果启用）
                     if (watermarkEnabled) {
                         eglEncoder.setWatermarkEnabled(true);
@@ -405,6 +652,122 @@ public class CodecVideoRecorder {
         }
     }
     
+    /**
+     * 在编码线程上为拼接模式的非主象限创建输入 SurfaceTexture
+     * 主象限直接使用主输入，其帧到达时合成并编码整幅画面
+     */
+    private void setupMosaicInputs() {
+        SurfaceTexture[] inputs = new SurfaceTexture[EglSurfaceEncoder.MOSAIC_QUADRANTS];
+        int[] textureIds = new int[EglSurfaceEncoder.MOSAIC_QUADRANTS];
+        for (int quadrant = 0; quadrant < mosaicPositions.size() && quadrant < EglSurfaceEncoder.MOSAIC_QUADRANTS; quadrant++) {
+            String position = mosaicPositions.get(quadrant);
+            if (position == null) {
+                continue;
+            }
+            if (quadrant == mosaicMasterQuadrant) {
+                inputs[quadrant] = inputSurfaceTexture;
+                textureIds[quadrant] = textureId;
+            } else {
+                int inputTextureId = eglEncoder.createInputTexture();
+                SurfaceTexture input = new SurfaceTexture(inputTextureId);
+                Size inputSize = mosaicInputSizes.get(quadrant);
+                input.setDefaultBufferSize(inputSize.getWidth(), inputSize.getHeight());
+                final int inputQuadrant = quadrant;
+                input.setOnFrameAvailableListener(st -> onMosaicInputFrame(inputQuadrant, st), encoderHandler);
+                inputs[quadrant] = input;
+                textureIds[quadrant] = inputTextureId;
+            }
+            mosaicInputTextures.put(position, inputs[quadrant]);
+        }
+        eglEncoder.setMosaicInputs(inputs, textureIds, mosaicMasterQuadrant);
+    }
+
+    /**
+     * 拼接模式非主象限的帧回调（在编码线程上）
+     * 只锁定最新帧；主象限摄像头断流时改由该象限驱动编码，避免整幅画面停止
+     */
+    private void onMosaicInputFrame(int quadrant, SurfaceTexture surfaceTexture) {
+        if (isReleased || eglEncoder == null || !eglEncoder.isInitialized()) {
+            return;
+        }
+
+        try {
+            // 无论是否录制都必须消费帧，否则 SurfaceTexture 不再触发回调
+            eglEncoder.latchMosaicInput(quadrant);
+
+            if (!isRecording.get() || !encoderHealthy) {
+                return;
+            }
+
+            long nowNs = System.nanoTime();
+            long staleThresholdNs = MOSAIC_MASTER_STALE_FRAMES * 1000000000L / Math.max(1, frameRate);
+            if (nowNs - lastMosaicDrawTimeNs < staleThresholdNs) {
+                return;
+            }
+
+            long absoluteTimestampNs = surfaceTexture.getTimestamp();
+            if (firstFrameTimestampNs < 0) {
+                firstFrameTimestampNs = absoluteTimestampNs;
+            }
+            long relativeTimestampNs = absoluteTimestampNs - firstFrameTimestampNs;
+            if (relativeTimestampNs <= lastMosaicPresentationNs) {
+                return;  // 时间戳必须单调递增
+            }
+
+            requestSegmentPreview();
+            eglEncoder.drawMosaicFrame(relativeTimestampNs);
+            if (asyncOutput != null) {
+                asyncOutput.onFrameSubmitted(relativeTimestampNs);
+            }
+            lastMosaicDrawTimeNs = nowNs;
+            lastMosaicPresentationNs = relativeTimestampNs;
+            recordedFrameCount++;
+
+            drainEncoder(false);
+        } catch (Exception e) {
+            AppLog.e(TAG, "Camera " + cameraId + " Error processing mosaic input " + quadrant, e);
+            encoderHealthy = false;
+        }
+    }
+
+    /**
+     * 分段开始后渲染第一帧时请求缩略图，之后每 VideoThumbnail.TIMELINE_INTERVAL_MS 请求一帧时间轴预览，
+     * 由编码器从渲染画面直接读回，写入分段的缩略图/时间轴预览图旁路文件；切换到新分段时完成上一段的预览图
+     * 在编码线程上调用
+     */
+    private void requestSegmentPreview() {
+        String path = currentFilePath;
+        if (path == null || !isRecording.get()) {
+            return;
+        }
+        long nowNs = System.nanoTime();
+        if (!path.equals(previewSegmentPath)) {
+            String previousPath = previewSegmentPath;
+            if (previousPath != null) {
+                VideoThumbnail.finishTimelineAsync(new File(previousPath));
+            }
+            previewSegmentPath = path;
+            previewStartNs = nowNs;
+            previewTiles = 0;
+        } else if (nowNs - previewStartNs < previewTiles * VideoThumbnail.TIMELINE_INTERVAL_MS * 1000000L) {
+            return;
+        }
+        File video = new File(path);
+        int tile = previewTiles++;
+        eglEncoder.requestThumbnail((rgba, width, height) -> VideoThumbnail.addFrameAsync(video, tile, rgba, width, height));
+    }
+
+    /**
+     * 录制停止：完成最后一段的时间轴预览图
+     */
+    private void finishSegmentPreview() {
+        String path = previewSegmentPath;
+        previewSegmentPath = null;
+        if (path != null) {
+            VideoThumbnail.finishTimelineAsync(new File(path));
+        }
+    }
+
     /**
      * 准备录制回调接口
      */
@@ -468,7 +831,7 @@ public class CodecVideoRecorder {
         AppLog.d(TAG, "Camera " + cameraId + " Starting codec recording");
 
         // 记录分段开始时间（用于 PTS 计算）
-        segmentStartTimeNs = System.nanoTime();
+        timeline.startSegment(System.nanoTime(), true);
         encodedOutputFrameCount = 0;
         
         // 重置首次写入状态
@@ -542,6 +905,9 @@ public class CodecVideoRecorder {
 
         isRecording.set(false);
 
+        // 丢弃尚未接管的下一段 Muxer（空文件）
+        discardPendingMuxer();
+
         // 稍等一下让正在处理的帧完成
         try {
             Thread.sleep(50);
@@ -560,6 +926,15 @@ public class CodecVideoRecorder {
             }
         }
 
+        // 结束进行中的事件片段，清空事件前缓存（下次录制重新积累）
+        synchronized (muxerWriteLock) {
+            finishEventClip();
+            eventCaptureClosed = true;
+            if (preEventBuffer != null) {
+                preEventBuffer.clear();
+            }
+        }
+
         // 停止 muxer
         if (muxerStarted && muxer != null) {
             try {
@@ -569,11 +944,16 @@ public class CodecVideoRecorder {
             }
             muxerStarted = false;
         }
+        finishSegmentPreview();
+
+        // 分段线程上可能还有上一段或事件片段的收尾没有执行，先完成（写入 moov）再校验
+        runPendingFinalizers();
 
         // 验证并清理所有录制的文件
         List<String> deletedFiles = validateAndCleanupAllFiles();
 
-        AppLog.d(TAG, "Camera " + cameraId + " Codec recording stopped, frames recorded: " + recordedFrameCount);
+        AppLog.d(TAG, "Camera " + cameraId + " Codec recording stopped, frames recorded: " + recordedFrameCount
+                + (asyncOutput != null ? ", output: " + asyncOutput.getStats() : ""));
 
         if (callback != null) {
             callback.onRecordStop(cameraId);
@@ -601,10 +981,16 @@ public class CodecVideoRecorder {
         if (isRecording.get()) {
             stopRecording();
         }
+        discardPendingMuxer();
 
-        // 释放 EGL 渲染器
+        // 释放 EGL 渲染器（共享模式下必须在共享渲染线程上释放）
         if (eglEncoder != null) {
-            eglEncoder.release();
+            final EglSurfaceEncoder encoderToRelease = eglEncoder;
+            if (sharedRenderEngine != null) {
+                sharedRenderEngine.runSync(encoderToRelease::release, 1000);
+            } else {
+                encoderToRelease.release();
+            }
             eglEncoder = null;
         }
 
@@ -614,6 +1000,14 @@ public class CodecVideoRecorder {
             cachedRecordSurface = null;
         }
 
+        // 释放拼接模式的其他象限输入
+        for (SurfaceTexture mosaicInput : mosaicInputTextures.values()) {
+            if (mosaicInput != inputSurfaceTexture) {
+                mosaicInput.release();
+            }
+        }
+        mosaicInputTextures.clear();
+
         // 释放 SurfaceTexture
         if (inputSurfaceTexture != null) {
             inputSurfaceTexture.release();
@@ -631,6 +1025,16 @@ public class CodecVideoRecorder {
             encoder = null;
         }
 
+        // 停止异步输出线程（编码器释放后不会再有回调）
+        if (asyncOutput != null) {
+            asyncOutput.release();
+        }
+
+        // 释放事件前缓存内存
+        synchronized (muxerWriteLock) {
+            preEventBuffer = null;
+        }
+
         // 释放编码器输入 Surface
         if (encoderInputSurface != null) {
             encoderInputSurface.release();
@@ -662,7 +1066,15 @@ public class CodecVideoRecorder {
             encoderHandler = null;
         }
 
-        // 清理分段处理线程
+        // 共享渲染模式：只释放对共享引擎的引用，线程由引擎管理
+        if (sharedRenderEngine != null) {
+            encoderHandler = null;
+            sharedRenderEngine.release();
+            sharedRenderEngine = null;
+        }
+
+        // 清理分段处理线程（已排队的上一段和事件片段收尾先执行，避免旧 Muxer 没有 stop() 导致缺少 moov）
+        runPendingFinalizers();
         if (segmentHandler != null) {
             segmentHandler.removeCallbacksAndMessages(null);
         }
@@ -722,8 +1134,138 @@ public class CodecVideoRecorder {
         return isRecording.get();
     }
 
+    /**
+     * 是否为 2x2 拼接录制
+     */
+    public boolean isMosaicMode() {
+        return mosaicPositions != null;
+    }
+
+    /**
+     * 事件片段完成回调（在分段线程上调用，停止录制或释放时在调用线程上调用）
+     */
+    public interface EventClipListener {
+        /**
+         * @param cameraId 录制器标识
+         * @param filePath 事件片段路径
+         * @param success 是否成功写入
+         */
+        void onEventClipFinished(String cameraId, String filePath, boolean success);
+    }
+
+    /**
+     * 设置事件前缓存（需在 prepareRecording 之前调用）
+     * 录制期间在内存中保留最近的编码帧，触发事件时写入事件片段
+     * @param capacityBytes 缓存内存上限（字节），0 表示不启用
+     * @param durationMs 保留的最长时长（毫秒）
+     */
+    public void setPreEventBuffer(int capacityBytes, long durationMs) {
+        this.preEventBufferBytes = Math.max(0, capacityBytes);
+        this.preEventDurationMs = durationMs;
+        AppLog.d(TAG, "Camera " + cameraId + " Pre-event buffer: "
+                + (capacityBytes > 0 ? (capacityBytes / 1024) + "KB, " + durationMs + "ms" : "disabled"));
+    }
+
+    /**
+     * 获取事件前缓存状态（帧数、时长、内存占用/上限）
+     * @return 状态描述，未启用时返回 null
+     */
+    public String getPreEventBufferStats() {
+        synchronized (muxerWriteLock) {
+            return preEventBuffer != null ? preEventBuffer.toString() : null;
+        }
+    }
+
+    /**
+     * 获取事件前缓存的内存上限（字节），未启用时返回 0
+     */
+    public long getPreEventBufferCapacity() {
+        PreEventBuffer buffer = preEventBuffer;
+        return buffer != null ? buffer.getCapacityBytes() : 0;
+    }
+
+    /**
+     * 触发事件录制：把事件前缓存和之后 postEventMs 的画面写入独立文件
+     * 不影响正在录制的分段文件；事件片段进行中再次触发时延长结束时间
+     * @param filePath 事件片段路径
+     * @param postEventMs 事件后录制时长（毫秒）
+     * @param listener 完成回调（可为 null）
+     * @return 是否已接受（未在录制时返回 false）
+     */
+    public boolean triggerEventCapture(String filePath, long postEventMs, EventClipListener listener) {
+        Handler handler = encoderHandler;
+        if (!isRecording.get() || handler == null) {
+            AppLog.w(TAG, "Camera " + cameraId + " Event capture ignored: not recording");
+            return false;
+        }
+        final long endTimeUs = System.nanoTime() / 1000 + postEventMs * 1000;
+        return handler.post(() -> {
+            synchronized (muxerWriteLock) {
+                startEventClip(filePath, endTimeUs, listener);
+            }
+        });
+    }
+
     // ===== 私有方法 =====
 
+    /**
+     * 创建事件片段并写入事件前缓存（编码线程上执行，持有 muxerWriteLock）
+     * 缓存写入是一次性的磁盘写入，期间到达的编码输出在异步输出队列中等待
+     */
+    private void startEventClip(String filePath, long endTimeUs, EventClipListener listener) {
+        if (eventClip != null) {
+            eventClip.extendTo(endTimeUs);
+            AppLog.d(TAG, "Camera " + cameraId + " Event clip extended: " + eventClip.getFilePath());
+            if (listener != null && !filePath.equals(eventClip.getFilePath())) {
+                listener.onEventClipFinished(cameraId, filePath, false);  // 已合并到进行中的片段
+            }
+            return;
+        }
+        if (eventCaptureClosed || !muxerStarted || encoderOutputFormat == null) {
+            AppLog.w(TAG, "Camera " + cameraId + " Event capture ignored: encoder output not ready");
+            if (listener != null) {
+                listener.onEventClipFinished(cameraId, filePath, false);
+            }
+            return;
+        }
+        try {
+            eventClip = new EventClipWriter(cameraId, filePath, openMuxer(filePath), encoderOutputFormat, endTimeUs);
+            eventClipListener = listener;
+            if (eventClip.writePreRoll(preEventBuffer) == 0) {
+                requestSyncFrame();  // 没有事件前缓存，尽快从关键帧开始
+            }
+        } catch (Exception e) {
+            AppLog.e(TAG, "Camera " + cameraId + " Failed to start event clip", e);
+            if (eventClip != null) {
+                eventClip.finish();
+                eventClip = null;
+            }
+            if (listener != null) {
+                listener.onEventClipFinished(cameraId, filePath, false);
+            }
+        }
+    }
+
+    /**
+     * 完成事件片段（到达结束时间、停止录制或重建编码器时调用，持有 muxerWriteLock）
+     * 只在锁内摘下片段，关闭文件与分段收尾一样在分段线程上执行
+     */
+    private void finishEventClip() {
+        if (eventClip == null) {
+            return;
+        }
+        final EventClipWriter clip = eventClip;
+        final EventClipListener listener = eventClipListener;
+        eventClip = null;
+        eventClipListener = null;
+        postFinalizer(() -> {
+            boolean success = clip.finish();
+            if (listener != null) {
+                listener.onEventClipFinished(cameraId, clip.getFilePath(), success);
+            }
+        });
+    }
+
     /**
      * 创建 MediaCodec 编码器
      */
@@ -735,10 +1277,14 @@ public class CodecVideoRecorder {
         format.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, I_FRAME_INTERVAL);
 
         encoder = MediaCodec.createEncoderByType(MIME_TYPE);
+        if (asyncOutput != null) {
+            asyncOutput.attach(encoder);  // 异步回调必须在 configure 之前注册
+        }
         encoder.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
 
         encoderInputSurface = encoder.createInputSurface();
         encoder.start();
+        encoderOutputFormat = null;
 
         bufferInfo = new MediaCodec.BufferInfo();
 
@@ -747,28 +1293,43 @@ public class CodecVideoRecorder {
     }
 
     /**
-     * 创建 MediaMuxer
+     * 创建 Muxer
      */
     private void createMuxer(String filePath) throws IOException {
-        muxer = new MediaMuxer(filePath, MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+        muxer = openMuxer(filePath);
         videoTrackIndex = -1;
         muxerStarted = false;
 
         AppLog.d(TAG, "Camera " + cameraId + " Muxer created: " + filePath);
     }
 
+    /**
+     * 根据当前写入模式打开样本写入器
+     */
+    private SampleMuxer openMuxer(String filePath) throws IOException {
+        if (fragmentedMp4Enabled) {
+            return new FragmentedSampleMuxer(filePath, keyFramesPerFragment);
+        }
+        return new PlatformSampleMuxer(filePath);
+    }
+
     // 注意：encodingLoop() 方法已被移除
     // 帧处理现在直接在 onFrameAvailable 回调中完成
     // 这样可以避免 Handler 死锁问题
 
     /**
      * 排空编码器输出
+     * 异步输出模式下只取走输出线程已排好的样本，不会阻塞；结束流时等待结束标记
      * 
      * 增强错误处理：
      * - 捕获 IllegalStateException 并标记编码器不健康
      * - 跟踪无输出的帧数，用于健康检查
      */
     private void drainEncoder(boolean endOfStream) {
+        if (asyncOutput != null) {
+            drainAsyncOutput(endOfStream);
+            return;
+        }
         if (encoder == null) {
             return;
         }
@@ -794,16 +1355,8 @@ public class CodecVideoRecorder {
                     }
                 } else if (outputBufferIndex == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
                     // 输出格式变化，添加视频轨道
-                    if (muxerStarted) {
-                        AppLog.w(TAG, "Camera " + cameraId + " Format changed twice");
-                    } else {
-                        MediaFormat newFormat = encoder.getOutputFormat();
-                        videoTrackIndex = muxer.addTrack(newFormat);
-                        muxer.start();
-                        muxerStarted = true;
-                        encoderHealthy = true;  // 收到格式变化说明编码器正常
-                        lastEncoderOutputTime = System.currentTimeMillis();
-                        AppLog.d(TAG, "Camera " + cameraId + " Muxer started, track=" + videoTrackIndex);
+                    synchronized (muxerWriteLock) {
+                        onEncoderFormatChanged(encoder.getOutputFormat());
                     }
                     gotOutput = true;
                 } else if (outputBufferIndex >= 0) {
@@ -816,33 +1369,13 @@ public class CodecVideoRecorder {
                         bufferInfo.size = 0;
                     }
 
-                    if (bufferInfo.size != 0) {
-                        if (!muxerStarted) {
-                            AppLog.e(TAG, "Camera " + cameraId + " Muxer not started but got data");
-                        } else {
-                            // 使用系统时间计算 PTS，而不是基于帧数和假设帧率
-                            // 优点：
-                            //   1. 视频时长精确反映实际录制时长
-                            //   2. 不受帧率波动影响（实际帧率可能是 25-30fps 不等）
-                            //   3. 掉帧时时间轴仍然正确（只是画面会卡顿）
-                            long currentTimeNs = System.nanoTime();
-                            long calculatedPtsUs = (currentTimeNs - segmentStartTimeNs) / 1000;
-                            
-                            // 调试日志（仅第一帧）
-                            if (encodedOutputFrameCount == 0) {
-                                AppLog.d(TAG, "Camera " + cameraId + " First frame PTS: " + calculatedPtsUs + " us");
+                    if (bufferInfo.size != 0 && encodedData != null) {
+                        // 使用系统时间计算 PTS，而不是基于帧数和假设帧率
+                        // 与异步输出相同，持有 muxerWriteLock 写入（停止录制线程可能同时写入或完成事件片段）
+                        synchronized (muxerWriteLock) {
+                            if (writeEncodedSample(encodedData, bufferInfo, System.nanoTime(), endOfStream)) {
+                                gotOutput = true;
                             }
-                            
-                            // 使用计算的时间戳
-                            bufferInfo.presentationTimeUs = calculatedPtsUs;
-                            
-                            encodedData.position(bufferInfo.offset);
-                            encodedData.limit(bufferInfo.offset + bufferInfo.size);
-                            muxer.writeSampleData(videoTrackIndex, encodedData, bufferInfo);
-                            
-                            encodedOutputFrameCount++;
-                            lastEncoderOutputTime = System.currentTimeMillis();
-                            gotOutput = true;
                         }
                     }
 
@@ -872,6 +1405,178 @@ public class CodecVideoRecorder {
         }
     }
 
+    /**
+     * 写入异步输出线程排好的样本（编码线程上由帧回调或输出通知触发；停止录制时在调用线程上执行）
+     * 编码线程和停止录制线程通过 muxerWriteLock 串行写入
+     */
+    private void drainAsyncOutput(boolean endOfStream) {
+        synchronized (muxerWriteLock) {
+            asyncOutput.clearOutputSignal();
+            long deadlineMs = System.currentTimeMillis() + END_OF_STREAM_TIMEOUT_MS;
+            try {
+                while (true) {
+                    AsyncEncoderOutput.EncodedSample sample = asyncOutput.poll();
+                    if (sample == null) {
+                        if (!endOfStream) {
+                            break;  // 没有数据了
+                        }
+                        if (System.currentTimeMillis() > deadlineMs) {
+                            AppLog.w(TAG, "Camera " + cameraId + " Timeout waiting for encoder end of stream");
+                            break;
+                        }
+                        asyncOutput.awaitOutput(2_000_000L);
+                        continue;
+                    }
+
+                    boolean sampleEndOfStream = sample.isEndOfStream();
+                    try {
+                        if (sample.format != null) {
+                            onEncoderFormatChanged(sample.format);
+                        } else if (sample.info.size > 0) {
+                            long encoderPtsUs = sample.info.presentationTimeUs;
+                            // 使用编码器输出该样本的时间计算 PTS（与同步模式的取样时刻一致）
+                            if (writeEncodedSample(sample.data, sample.info, sample.outputTimeNs, endOfStream)) {
+                                asyncOutput.onSampleMuxed(encoderPtsUs);
+                            }
+                        }
+                    } finally {
+                        asyncOutput.recycle(sample);
+                    }
+
+                    if (sampleEndOfStream) {
+                        break;  // 流结束
+                    }
+                }
+            } catch (Exception e) {
+                AppLog.e(TAG, "Camera " + cameraId + " Unexpected error writing encoder output", e);
+                encoderHealthy = false;
+            }
+        }
+    }
+
+    /**
+     * 编码器输出格式确定后添加轨道并启动 Muxer
+     */
+    private void onEncoderFormatChanged(MediaFormat newFormat) {
+        if (muxerStarted) {
+            AppLog.w(TAG, "Camera " + cameraId + " Format changed twice");
+            return;
+        }
+        encoderOutputFormat = newFormat;
+        videoTrackIndex = muxer.addTrack(newFormat);
+        muxer.start();
+        muxerStarted = true;
+        encoderHealthy = true;  // 收到格式变化说明编码器正常
+        lastEncoderOutputTime = System.currentTimeMillis();
+        AppLog.d(TAG, "Camera " + cameraId + " Muxer started, track=" + videoTrackIndex);
+    }
+
+    /**
+     * 写入一个编码样本（同步/异步输出共用，调用方持有 muxerWriteLock）
+     * 
+     * 使用系统时间计算 PTS，而不是基于帧数和假设帧率
+     * 优点：
+     *   1. 视频时长精确反映实际录制时长
+     *   2. 不受帧率波动影响（实际帧率可能是 25-30fps 不等）
+     *   3. 掉帧时时间轴仍然正确（只是画面会卡顿）
+     * 
+     * @param currentTimeNs 取得该样本的系统时间
+     * @return 是否写入
+     */
+    private boolean writeEncodedSample(ByteBuffer encodedData, MediaCodec.BufferInfo info,
+                                       long currentTimeNs, boolean endOfStream) {
+        if (!muxerStarted) {
+            AppLog.e(TAG, "Camera " + cameraId + " Muxer not started but got data");
+            return false;
+        }
+
+        // 无缝分段切换：下一段 Muxer 已就绪且当前为关键帧时，从此帧开始写入新文件
+        SampleMuxer next = pendingMuxer;
+        if (next != null && !endOfStream
+                && (info.flags & MediaCodec.BUFFER_FLAG_KEY_FRAME) != 0) {
+            swapToPendingMuxer(next, currentTimeNs);
+        }
+
+        // 调试日志（仅第一帧）
+        if (encodedOutputFrameCount == 0) {
+            AppLog.d(TAG, "Camera " + cameraId + " First frame PTS: " + timeline.ptsUs(currentTimeNs) + " us");
+        }
+        
+        long writeStartNs = System.nanoTime();
+        timeline.write(muxer, videoTrackIndex, encodedData, info, currentTimeNs);
+        long writeNs = System.nanoTime() - writeStartNs;
+        if (writeNs > maxWriteNsSinceCheck) {
+            maxWriteNsSinceCheck = writeNs;
+        }
+
+        // 事件前缓存与事件片段使用单调的采样时间（跨分段连续）
+        long sampleTimeUs = currentTimeNs / 1000;
+        if (preEventBuffer != null) {
+            encodedData.position(info.offset);
+            encodedData.limit(info.offset + info.size);
+            preEventBuffer.add(encodedData, info, sampleTimeUs);
+        }
+        if (eventClip != null) {
+            encodedData.position(info.offset);
+            encodedData.limit(info.offset + info.size);
+            if (eventClip.write(encodedData, info.flags, sampleTimeUs)) {
+                finishEventClip();
+            }
+        }
+        
+        encodedOutputFrameCount++;
+        lastEncoderOutputTime = System.currentTimeMillis();
+        return true;
+    }
+
+    /**
+     * 编码器异步输出事件（在输出线程上回调）
+     */
+    private final AsyncEncoderOutput.Listener asyncOutputListener = new AsyncEncoderOutput.Listener() {
+        @Override
+        public void onOutputAvailable() {
+            Handler handler = encoderHandler;
+            if (handler != null && !isReleased) {
+                handler.post(drainOutputTask);
+            }
+        }
+
+        @Override
+        public void onSamplesDropped() {
+            requestSyncFrame();
+        }
+
+        @Override
+        public void onEncoderError(MediaCodec.CodecException e) {
+            if (!e.isTransient()) {
+                encoderHealthy = false;  // 交给健康检查重建编码器
+            }
+        }
+    };
+
+    /**
+     * 在编码线程上写入已到达的样本（没有新帧时也能及时写入，例如摄像头断流）
+     */
+    private final Runnable drainOutputTask = () -> {
+        if (!isReleased && encoder != null) {
+            drainEncoder(false);
+        }
+    };
+
+    /**
+     * 连续无编码器输出的帧数（异步模式由输出回调维护）
+     */
+    private int getFramesWithoutEncoderOutput() {
+        return asyncOutput != null ? asyncOutput.getFramesWithoutOutput() : framesWithoutEncoderOutput;
+    }
+
+    /**
+     * 最后一次编码器输出时间（异步模式由输出回调维护）
+     */
+    private long getLastEncoderOutputTime() {
+        return asyncOutput != null ? asyncOutput.getLastOutputTimeMs() : lastEncoderOutputTime;
+    }
+
     /**
      * 调度下一段录制
      * 
@@ -885,13 +1590,14 @@ public class CodecVideoRecorder {
             segmentHandler.removeCallbacks(segmentRunnable);
         }
 
-        segmentRunnable = () -> {
-            if (isRecording.get() && encoderHandler != null) {
-                AppLog.d(TAG, "Camera " + cameraId + " Scheduling segment switch on encoder thread");
-                // 在编码线程上执行切换，避免线程冲突
-                encoderHandler.post(() -> switchToNextSegment());
-            }
-        };
+        if (externalSegmentClock) {
+            // 由共用分段时钟在统一边界调用 requestSegmentSwitch()
+            segmentRunnable = null;
+            AppLog.d(TAG, "Camera " + cameraId + " Waiting for shared segment clock");
+            return;
+        }
+
+        segmentRunnable = this::runSegmentSwitch;
 
         // 延迟执行（使用配置的分段时长 + 补偿时间）
         // 补偿编码器初始化延迟和停止时的帧丢失
@@ -900,6 +1606,283 @@ public class CodecVideoRecorder {
         AppLog.d(TAG, "Camera " + cameraId + " Scheduled next segment in " + (segmentDurationMs / 1000) + " seconds (actual delay: " + actualDelayMs + "ms)");
     }
 
+    /**
+     * 执行分段切换（在分段线程上执行）
+     */
+    private void runSegmentSwitch() {
+        if (isRecording.get() && encoderHandler != null) {
+            // 分段切换期间暂停中转复制，新分段的文件创建和文件头写入优先
+            RelayIoScheduler.getInstance().onSegmentRollover();
+            if (gaplessSegmentSwitch && muxerStarted && encoderOutputFormat != null) {
+                // 无缝切换：在分段线程上打开下一段 Muxer，编码器继续运行
+                prepareGaplessSegmentSwitch();
+                return;
+            }
+            AppLog.d(TAG, "Camera " + cameraId + " Scheduling segment switch on encoder thread");
+            // 在编码线程上执行切换，避免线程冲突
+            encoderHandler.post(() -> switchToNextSegment());
+        }
+    }
+
+    /**
+     * 准备无缝分段切换（在分段线程上执行）
+     * 
+     * 1. 生成下一段文件路径，创建 Muxer 并使用缓存的编码器输出格式添加轨道、启动
+     * 2. 将其发布为 pendingMuxer，并请求编码器立即输出关键帧
+     * 3. 编码线程在下一个关键帧处调用 swapToPendingMuxer() 完成切换
+     * 
+     * 失败或等待关键帧超时时，回退到 switchToNextSegment() 的完整切换流程
+     */
+    private void prepareGaplessSegmentSwitch() {
+        if (pendingMuxer != null) {
+            AppLog.w(TAG, "Camera " + cameraId + " Gapless switch already pending, skipping");
+            return;
+        }
+
+        String nextSegmentPath = generateSegmentPath();
+        if (nextSegmentPath.equals(currentFilePath)) {
+            AppLog.w(TAG, "Camera " + cameraId + " Next segment path equals current file, falling back to full switch");
+            encoderHandler.post(() -> switchToNextSegment());
+            return;
+        }
+
+        SampleMuxer nextMuxer = null;
+        try {
+            nextMuxer = openMuxer(nextSegmentPath);
+            int trackIndex = nextMuxer.addTrack(encoderOutputFormat);
+            nextMuxer.start();
+
+            boolean published;
+            synchronized (muxerWriteLock) {
+                // 与停止录制的 discardPendingMuxer() 串行：已停止时不再发布
+                published = isRecording.get() && !isReleased;
+                if (published) {
+                    pendingTrackIndex = trackIndex;
+                    pendingFilePath = nextSegmentPath;
+                    pendingMuxer = nextMuxer;  // 最后发布，编码线程以此为准
+                }
+            }
+            if (!published) {
+                try {
+                    nextMuxer.release();
+                } catch (Exception ignored) {
+                    // Ignore
+                }
+                new File(nextSegmentPath).delete();
+                AppLog.d(TAG, "Camera " + cameraId + " Recording stopped while opening next muxer");
+                return;
+            }
+
+            requestSyncFrame();
+            AppLog.d(TAG, "Camera " + cameraId + " Next muxer ready, waiting for key frame: " + nextSegmentPath);
+
+            // 关键帧超时检查（在编码线程上判断，避免与切换竞态）
+            final SampleMuxer expectedMuxer = nextMuxer;
+            segmentHandler.postDelayed(() -> {
+                if (encoderHandler != null) {
+                    encoderHandler.post(() -> {
+                        if (pendingMuxer == expectedMuxer) {
+                            AppLog.w(TAG, "Camera " + cameraId + " No key frame within " + GAPLESS_KEYFRAME_TIMEOUT_MS + "ms, falling back to full switch");
+                            discardPendingMuxer();
+                            switchToNextSegment();
+                        }
+                    });
+                }
+            }, GAPLESS_KEYFRAME_TIMEOUT_MS);
+
+        } catch (Exception e) {
+            AppLog.e(TAG, "Camera " + cameraId + " Failed to open next muxer, falling back to full switch", e);
+            if (nextMuxer != null) {
+                try {
+                    nextMuxer.release();
+                } catch (Exception ignored) {
+                    // Ignore
+                }
+                new File(nextSegmentPath).delete();
+            }
+            if (encoderHandler != null && isRecording.get()) {
+                encoderHandler.post(() -> switchToNextSegment());
+            }
+        }
+    }
+
+    /**
+     * 请求编码器尽快输出一个关键帧（IDR）
+     */
+    private void requestSyncFrame() {
+        MediaCodec codec = encoder;
+        if (codec == null) {
+            return;
+        }
+        try {
+            Bundle params = new Bundle();
+            params.putInt(MediaCodec.PARAMETER_KEY_REQUEST_SYNC_FRAME, 0);
+            codec.setParameters(params);
+        } catch (Exception e) {
+            // 部分编码器不支持，依赖 I_FRAME_INTERVAL 自然产生的关键帧
+            AppLog.w(TAG, "Camera " + cameraId + " Failed to request sync frame: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 在关键帧处切换到预先打开的 Muxer（在编码线程上执行，持有 muxerWriteLock）
+     * 只交换引用和计数器，旧 Muxer 的 stop()/release() 交给分段线程
+     * @param next 持锁读取的 pendingMuxer
+     * @param keyFrameTimeNs 关键帧的时间（作为新分段的 PTS 起点）
+     */
+    private void swapToPendingMuxer(SampleMuxer next, long keyFrameTimeNs) {
+        long swapStartNs = System.nanoTime();
+
+        final SampleMuxer completedMuxer = muxer;
+        final String completedFilePath = currentFilePath;
+
+        muxer = next;
+        videoTrackIndex = pendingTrackIndex;
+        currentFilePath = pendingFilePath;
+        pendingMuxer = null;
+        pendingTrackIndex = -1;
+        pendingFilePath = null;
+
+        segmentIndex++;
+        recordedFilePaths.add(currentFilePath);
+
+        // 新分段 PTS 从关键帧开始计算，与上一段共用同一时钟，保证时间轴连续
+        final long gapUs = timeline.switchAtKeyFrame(keyFrameTimeNs);
+        encodedOutputFrameCount = 0;
+        lastFileSize = 0;
+
+        lastSegmentSwitchStallNs = System.nanoTime() - swapStartNs;
+
+        final int newIndex = segmentIndex;
+        final long stallUs = lastSegmentSwitchStallNs / 1000;
+        postFinalizer(() -> finalizeCompletedSegment(completedMuxer, completedFilePath, newIndex, stallUs, gapUs));
+    }
+
+    /**
+     * 把 Muxer 的收尾（stop() 写入 moov、release()）投递到分段线程，不占用编码线程和 muxerWriteLock
+     * 没有分段线程时在调用线程上执行
+     */
+    private void postFinalizer(Runnable task) {
+        MuxerFinalizer finalizer = new MuxerFinalizer(task);
+        synchronized (pendingFinalizers) {
+            pendingFinalizers.add(finalizer);
+        }
+        Handler handler = segmentHandler;
+        if (handler != null) {
+            handler.post(finalizer);
+        } else {
+            finalizer.run();
+        }
+    }
+
+    /**
+     * 上一段或事件片段的收尾任务：正常在分段线程上执行，停止录制和释放时由调用线程补做
+     * 同一任务只执行一次，另一线程正在执行时等待其完成
+     */
+    private class MuxerFinalizer implements Runnable {
+        private final Runnable task;
+        private boolean done = false;
+
+        MuxerFinalizer(Runnable task) {
+            this.task = task;
+        }
+
+        @Override
+        public synchronized void run() {
+            if (done) {
+                return;
+            }
+            done = true;
+            try {
+                task.run();
+            } finally {
+                synchronized (pendingFinalizers) {
+                    pendingFinalizers.remove(this);
+                }
+            }
+        }
+    }
+
+    /**
+     * 在调用线程上完成所有已投递但尚未执行的上一段和事件片段收尾（停止录制校验文件前、释放清空分段线程队列前调用）
+     */
+    private void runPendingFinalizers() {
+        List<MuxerFinalizer> finalizers;
+        synchronized (pendingFinalizers) {
+            finalizers = new ArrayList<>(pendingFinalizers);
+        }
+        for (MuxerFinalizer finalizer : finalizers) {
+            finalizer.run();
+        }
+    }
+
+    /**
+     * 完成上一段文件（在分段线程上执行）
+     * 停止旧 Muxer（写入 moov），校验文件，通知外部并调度下一次切换
+     */
+    private void finalizeCompletedSegment(SampleMuxer completedMuxer, String completedFilePath,
+                                          int newIndex, long stallUs, long gapUs) {
+        long finalizeStartMs = System.currentTimeMillis();
+        try {
+            completedMuxer.stop();
+        } catch (Exception e) {
+            AppLog.e(TAG, "Camera " + cameraId + " Error stopping completed muxer", e);
+        }
+        try {
+            completedMuxer.release();
+        } catch (Exception e) {
+            AppLog.w(TAG, "Camera " + cameraId + " Error releasing completed muxer: " + e.getMessage());
+        }
+
+        validateAndCleanupFile(completedFilePath);
+        recoveryAttempts = 0;
+
+        AppLog.d(TAG, "Camera " + cameraId + " Gapless switch to segment " + newIndex + ": " + currentFilePath +
+                " (encoder stall " + stallUs + "us, frame gap " + gapUs + "us, finalize " +
+                (System.currentTimeMillis() - finalizeStartMs) + "ms)");
+
+        if (callback != null) {
+            callback.onSegmentSwitch(cameraId, newIndex, completedFilePath);
+        }
+
+        if (isRecording.get() && !isReleased) {
+            scheduleNextSegment();
+        }
+    }
+
+    /**
+     * 丢弃尚未接管的下一段 Muxer，并删除其空文件
+     * 持有 muxerWriteLock 取下引用，编码线程不会在此之后接管它；stop()/release() 在锁外执行
+     */
+    private void discardPendingMuxer() {
+        SampleMuxer discarded;
+        String discardedPath;
+        synchronized (muxerWriteLock) {
+            discarded = pendingMuxer;
+            discardedPath = pendingFilePath;
+            pendingMuxer = null;
+            pendingTrackIndex = -1;
+            pendingFilePath = null;
+        }
+        if (discarded == null) {
+            return;
+        }
+        try {
+            discarded.stop();
+        } catch (Exception e) {
+            // 没有写入任何样本时 stop() 会抛出异常，忽略
+        }
+        try {
+            discarded.release();
+        } catch (Exception e) {
+            // Ignore
+        }
+        if (discardedPath != null) {
+            new File(discardedPath).delete();
+        }
+        AppLog.d(TAG, "Camera " + cameraId + " Discarded pending muxer: " + discardedPath);
+    }
+
     /**
      * 切换到下一段（在编码线程上执行）
      * 
@@ -920,6 +1903,7 @@ public class CodecVideoRecorder {
         AppLog.d(TAG, "Camera " + cameraId + " Starting segment switch on encoder thread");
         
         boolean switchSuccess = false;
+        discardPendingMuxer();
         
         try {
             // 1. 停止当前录制（会排空编码器、停止 Muxer）
@@ -936,7 +1920,7 @@ public class CodecVideoRecorder {
             recordedFilePaths.add(nextSegmentPath);  // 记录新分段文件
             
             // 重置分段开始时间和帧计数
-            segmentStartTimeNs = System.nanoTime();
+            timeline.startSegment(System.nanoTime(), false);
             encodedOutputFrameCount = 0;
             // 不重置 firstFrameTimestampNs，保持 EGL 时间戳单调递增
 
@@ -1037,7 +2021,7 @@ public class CodecVideoRecorder {
             }
             
             // 重置分段开始时间和帧计数
-            segmentStartTimeNs = System.nanoTime();
+            timeline.startSegment(System.nanoTime(), false);
             encodedOutputFrameCount = 0;
             
             // 恢复录制
@@ -1166,7 +2150,7 @@ public class CodecVideoRecorder {
             AppLog.d(TAG, "Camera " + cameraId + " using local timestamp: " + timestamp);
         }
         String fileName = timestamp + "_" + cameraPosition + ".mp4";
-        return new File(saveDirectory, fileName).getAbsolutePath();
+        return StorageHelper.getMediaFile(new File(saveDirectory), fileName).getAbsolutePath();
     }
 
     /**
@@ -1194,9 +2178,13 @@ public class CodecVideoRecorder {
                 // Muxer 从未启动，但已经处理了很多帧
                 needsRecovery = true;
                 reason = "muxer never started after " + recordedFrameCount + " frames";
-            } else if (framesWithoutEncoderOutput > MAX_FRAMES_WITHOUT_OUTPUT) {
+            } else if (getFramesWithoutEncoderOutput() > MAX_FRAMES_WITHOUT_OUTPUT) {
                 needsRecovery = true;
-                reason = "no encoder output for " + framesWithoutEncoderOutput + " frames";
+                reason = "no encoder output for " + getFramesWithoutEncoderOutput() + " frames";
+            } else if (getFramesWithoutEncoderOutput() > 0
+                    && System.currentTimeMillis() - getLastEncoderOutputTime() > MAX_OUTPUT_SILENCE_MS) {
+                needsRecovery = true;
+                reason = "no encoder output for " + (System.currentTimeMillis() - getLastEncoderOutputTime()) + "ms";
             }
 
             if (needsRecovery) {
@@ -1225,6 +2213,15 @@ public class CodecVideoRecorder {
 
         // 暂停录制
         isRecording.set(false);
+        discardPendingMuxer();
+
+        // 新编码器的参数集可能不同，旧的事件前缓存和事件片段不能继续使用
+        synchronized (muxerWriteLock) {
+            finishEventClip();
+            if (preEventBuffer != null) {
+                preEventBuffer.clear();
+            }
+        }
 
         try {
             // 1. 清理旧的 Muxer（可能已损坏）
@@ -1285,7 +2282,7 @@ public class CodecVideoRecorder {
             createMuxer(newFilePath);
 
             // 7. 重置状态
-            segmentStartTimeNs = System.nanoTime();
+            timeline.startSegment(System.nanoTime(), false);
             encodedOutputFrameCount = 0;
             framesWithoutEncoderOutput = 0;
             encoderHealthy = true;
@@ -1332,7 +2329,7 @@ public class CodecVideoRecorder {
         fileSizeCheckRunnable = () -> {
             if (isRecording.get() && currentFilePath != null) {
                 File file = new File(currentFilePath);
-                long currentSize = file.exists() ? file.length() : 0;
+                long currentSize = getWrittenFileSize(file);
                 long sizeIncrease = currentSize - lastFileSize;
 
                 // 检查是否有写入
@@ -1362,6 +2359,12 @@ public class CodecVideoRecorder {
                     AppLog.w(TAG, "Camera " + cameraId + " WARNING: File size not growing! Current: " + currentSize + " bytes");
                 }
 
+                // 上报本周期的最大写入耗时，中转复制据此调整速率
+                if (hasFirstWrite) {
+                    RelayIoScheduler.getInstance().reportWriteLatency(cameraId, maxWriteNsSinceCheck / 1_000_000);
+                    maxWriteNsSinceCheck = 0;
+                }
+
                 lastFileSize = currentSize;
                 
                 // 继续下一次检查（首次写入前用快速间隔，之后用正常间隔）
@@ -1375,6 +2378,18 @@ public class CodecVideoRecorder {
         segmentHandler.postDelayed(fileSizeCheckRunnable, initialDelay);
     }
 
+    /**
+     * 获取当前分段已写入的字节数
+     * 分片 MP4 模式下文件是预分配的，file.length() 不能反映实际写入量
+     */
+    private long getWrittenFileSize(File file) {
+        SampleMuxer current = muxer;
+        if (current instanceof FragmentedSampleMuxer) {
+            return ((FragmentedSampleMuxer) current).getWrittenBytes();
+        }
+        return file.exists() ? file.length() : 0;
+    }
+
     /**
      * 调度首次写入超时检查
      */
@@ -1,11 +1,6 @@
 package com.kooo.evcam.camera;
 
-import android.graphics.Bitmap;
-import android.graphics.Canvas;
-import android.graphics.Color;
-import android.graphics.Paint;
 import android.graphics.SurfaceTexture;
-import android.graphics.Typeface;
 import android.opengl.EGL14;
 import android.opengl.EGLConfig;
 import android.opengl.EGLContext;
@@ -14,8 +9,8 @@ import android.opengl.EGLExt;
 import android.opengl.EGLSurface;
 import android.opengl.GLES11Ext;
 import android.opengl.GLES20;
-import android.opengl.GLUtils;
 import android.opengl.Matrix;
+import android.os.Debug;
 import android.view.Surface;
 
 import com.kooo.evcam.AppLog;
@@ -23,8 +18,6 @@ import com.kooo.evcam.AppLog;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
-import java.text.SimpleDateFormat;
-import java.util.Date;
 import java.util.Locale;
 
 /**
@@ -36,12 +29,18 @@ import java.util.Locale;
  * 2. 本类监听 SurfaceTexture 的 onFrameAvailable 回调
  * 3. 使用 OpenGL 将 SurfaceTexture 的内容渲染到 MediaCodec 的输入 Surface
  * 4. MediaCodec 编码后通过 MediaMuxer 写入文件
+ *
+ * 共享模式（传入 SharedGlRenderEngine）：不创建自己的 EGL 上下文和着色器程序，
+ * 只持有 OES 纹理和编码器输入的 EGL Surface，所有方法必须在引擎的渲染线程上调用。
+ *
+ * 缩略图：requestThumbnail() 后渲染的下一帧额外绘制到一个小尺寸帧缓冲并读回 RGBA，
+ * 不需要解码已编码的视频（用于分段缩略图和时间轴预览图旁路文件，见 VideoThumbnail）
  */
 public class EglSurfaceEncoder {
     private static final String TAG = "EglSurfaceEncoder";
 
     // Vertex shader - 简单的顶点变换
-    private static final String VERTEX_SHADER =
+    static final String VERTEX_SHADER =
             "uniform mat4 uMVPMatrix;\n" +
             "uniform mat4 uTexMatrix;\n" +
             "attribute vec4 aPosition;\n" +
@@ -53,7 +52,7 @@ public class EglSurfaceEncoder {
             "}\n";
 
     // Fragment shader - 使用外部纹理（OES）采样（无水印版本）
-    private static final String FRAGMENT_SHADER =
+    static final String FRAGMENT_SHADER =
             "#extension GL_OES_EGL_image_external : require\n" +
             "precision mediump float;\n" +
             "varying vec2 vTextureCoord;\n" +
@@ -62,32 +61,6 @@ public class EglSurfaceEncoder {
             "    gl_FragColor = texture2D(sTexture, vTextureCoord);\n" +
             "}\n";
 
-    // Fragment shader - 带时间水印版本
-    private static final String FRAGMENT_SHADER_WITH_WATERMARK =
-            "#extension GL_OES_EGL_image_external : require\n" +
-            "precision mediump float;\n" +
-            "varying vec2 vTextureCoord;\n" +
-            "uniform samplerExternalOES sTexture;\n" +
-            "uniform sampler2D sWatermarkTexture;\n" +
-            "uniform vec4 uWatermarkRect;\n" +  // x, y, width, height (归一化坐标)
-            "void main() {\n" +
-            "    vec4 videoColor = texture2D(sTexture, vTextureCoord);\n" +
-            "    // 检查是否在水印区域内\n" +
-            "    if (vTextureCoord.x >= uWatermarkRect.x && vTextureCoord.x <= uWatermarkRect.x + uWatermarkRect.z &&\n" +
-            "        vTextureCoord.y >= uWatermarkRect.y && vTextureCoord.y <= uWatermarkRect.y + uWatermarkRect.w) {\n" +
-            "        // 计算水印纹理坐标\n" +
-            "        vec2 watermarkCoord = vec2(\n" +
-            "            (vTextureCoord.x - uWatermarkRect.x) / uWatermarkRect.z,\n" +
-            "            (vTextureCoord.y - uWatermarkRect.y) / uWatermarkRect.w\n" +
-            "        );\n" +
-            "        vec4 watermarkColor = texture2D(sWatermarkTexture, watermarkCoord);\n" +
-            "        // Alpha 混合\n" +
-            "        gl_FragColor = mix(videoColor, watermarkColor, watermarkColor.a);\n" +
-            "    } else {\n" +
-            "        gl_FragColor = videoColor;\n" +
-            "    }\n" +
-            "}\n";
-
     // 顶点坐标（全屏四边形）
     private static final float[] VERTICES = {
             -1.0f, -1.0f,  // 左下
@@ -108,6 +81,9 @@ public class EglSurfaceEncoder {
     private final int width;
     private final int height;
 
+    // 共享渲染引擎（为 null 时使用独立的 EGL 上下文）
+    private final SharedGlRenderEngine sharedEngine;
+
     // EGL 相关
     private EGLDisplay eglDisplay = EGL14.EGL_NO_DISPLAY;
     private EGLContext eglContext = EGL14.EGL_NO_CONTEXT;
@@ -140,25 +116,56 @@ public class EglSurfaceEncoder {
 
     // 时间水印相关
     private boolean watermarkEnabled = false;
-    private int watermarkProgram;
-    private int watermarkTextureId;
-    private int watermarkTextureHandle;
-    private int watermarkRectHandle;
-    private int watermarkPositionHandle;
-    private int watermarkTexCoordHandle;
-    private int watermarkMvpMatrixHandle;
-    private int watermarkTexMatrixHandle;
-    private int watermarkOesTextureHandle;
-    private Bitmap watermarkBitmap;
-    private String lastWatermarkTime = "";
-    private static final int WATERMARK_WIDTH = 400;   // 水印纹理宽度（需容纳19字符的时间戳）
-    private static final int WATERMARK_HEIGHT = 44;   // 水印纹理高度
-    private final SimpleDateFormat watermarkDateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.getDefault());
+    private WatermarkTexture watermarkTexture;  // 字形图集水印（共享模式下归引擎所有）
+
+    // 2x2 拼接模式（象限顺序：0 左上、1 右上、2 左下、3 右下）
+    public static final int MOSAIC_QUADRANTS = 4;
+    private SurfaceTexture[] mosaicInputs;       // 为 null 时为普通单路模式
+    private int[] mosaicTextureIds;
+    private final float[][] mosaicTexMatrices = new float[MOSAIC_QUADRANTS][16];
+    private final boolean[] mosaicHasFrame = new boolean[MOSAIC_QUADRANTS];
+    private int mosaicMasterQuadrant = -1;        // 使用主输入（inputSurfaceTexture）的象限
+
+    // 缩略图（小尺寸帧缓冲，首次请求时创建）
+    public static final int THUMBNAIL_WIDTH = 320;
+    private volatile ThumbnailCallback pendingThumbnail;
+    private int thumbnailFramebuffer;
+    private int thumbnailTexture;
+    private int thumbnailWidth;
+    private int thumbnailHeight;
+
+    /**
+     * 缩略图回调（在渲染线程上调用，耗时的压缩和写文件应转到其他线程）
+     */
+    public interface ThumbnailCallback {
+        /**
+         * @param rgba 像素数据（RGBA，自下而上逐行排列，即 OpenGL 的行顺序）
+         */
+        void onThumbnail(ByteBuffer rgba, int width, int height);
+    }
+
+    // 渲染统计（用于对比共享渲染线程与每路独立线程的开销）
+    // 在渲染线程上更新，其他线程（录制状态、日志）读取，statsLock 保护
+    private final Object statsLock = new Object();
+    private long renderedFrameCount = 0;
+    private long totalDrawNs = 0;
+    private long maxDrawNs = 0;
+    private long totalDrawCpuNs = 0;
+    private long totalFrameIntervalNs = 0;
+    private long lastPresentationTimeNs = -1;
 
     public EglSurfaceEncoder(String cameraId, int width, int height) {
+        this(cameraId, width, height, null);
+    }
+
+    /**
+     * @param sharedEngine 共享渲染引擎，为 null 时使用独立的 EGL 上下文
+     */
+    public EglSurfaceEncoder(String cameraId, int width, int height, SharedGlRenderEngine sharedEngine) {
         this.cameraId = cameraId;
         this.width = width;
         this.height = height;
+        this.sharedEngine = sharedEngine;
 
         // 初始化 MVP 矩阵为单位矩阵
         Matrix.setIdentityM(mvpMatrix, 0);
@@ -179,7 +186,11 @@ public class EglSurfaceEncoder {
 
         try {
             // 初始化 EGL
-            initEgl(outputSurface);
+            if (sharedEngine != null) {
+                initSharedEgl(outputSurface);
+            } else {
+                initEgl(outputSurface);
+            }
 
             // 初始化 OpenGL
             initGl();
@@ -213,7 +224,7 @@ public class EglSurfaceEncoder {
         AppLog.d(TAG, "Camera " + cameraId + " Watermark " + (enabled ? "enabled" : "disabled"));
         
         // 如果已初始化且启用水印，需要初始化水印相关资源
-        if (isInitialized && enabled && watermarkProgram == 0) {
+        if (isInitialized && enabled && watermarkTexture == null) {
             initWatermarkGl();
         }
     }
@@ -225,6 +236,52 @@ public class EglSurfaceEncoder {
         return watermarkEnabled;
     }
 
+    /**
+     * 渲染统计快照
+     */
+    public static class RenderStats {
+        public final long frameCount;
+        // 平均每帧渲染墙钟耗时（从开始绘制到 eglSwapBuffers 返回，含等待缓冲区的阻塞，不是 GPU 执行时间）
+        public final long avgDrawWallUs;
+        public final long maxDrawWallUs;
+        public final long avgDrawCpuUs;    // 平均每帧渲染线程 CPU 耗时（-1 表示不支持）
+        public final long avgFrameIntervalUs;
+        public final boolean shared;
+
+        RenderStats(long frameCount, long avgDrawWallUs, long maxDrawWallUs, long avgDrawCpuUs,
+                    long avgFrameIntervalUs, boolean shared) {
+            this.frameCount = frameCount;
+            this.avgDrawWallUs = avgDrawWallUs;
+            this.maxDrawWallUs = maxDrawWallUs;
+            this.avgDrawCpuUs = avgDrawCpuUs;
+            this.avgFrameIntervalUs = avgFrameIntervalUs;
+            this.shared = shared;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%s frames=%d draw wall avg=%dus max=%dus cpu=%dus interval=%dus",
+                    shared ? "shared" : "dedicated", frameCount, avgDrawWallUs, maxDrawWallUs, avgDrawCpuUs,
+                    avgFrameIntervalUs);
+        }
+    }
+
+    /**
+     * 获取渲染统计
+     */
+    public RenderStats getRenderStats() {
+        synchronized (statsLock) {
+            long frames = renderedFrameCount;
+            if (frames == 0) {
+                return new RenderStats(0, 0, 0, 0, 0, sharedEngine != null);
+            }
+            long cpuUs = totalDrawCpuNs < 0 ? -1 : totalDrawCpuNs / frames / 1000;
+            long intervalUs = frames > 1 ? totalFrameIntervalNs / (frames - 1) / 1000 : 0;
+            return new RenderStats(frames, totalDrawNs / frames / 1000, maxDrawNs / 1000, cpuUs, intervalUs,
+                    sharedEngine != null);
+        }
+    }
+
     /**
      * 渲染一帧到输出 Surface
      * 应该在 SurfaceTexture.onFrameAvailable 回调中调用
@@ -240,6 +297,8 @@ public class EglSurfaceEncoder {
             return;
         }
 
+        long drawStartNs = System.nanoTime();
+        long drawStartCpuNs = Debug.threadCpuTimeNanos();
         try {
             // 首先绑定 EGL context（必须在 updateTexImage 之前）
             makeCurrent();
@@ -247,45 +306,251 @@ public class EglSurfaceEncoder {
             // 更新纹理（需要在正确的 EGL context 中）
             inputSurfaceTexture.updateTexImage();
             inputSurfaceTexture.getTransformMatrix(texMatrix);
+            if (mosaicInputs != null) {
+                System.arraycopy(texMatrix, 0, mosaicTexMatrices[mosaicMasterQuadrant], 0, 16);
+                mosaicHasFrame[mosaicMasterQuadrant] = true;
+            }
+
+            renderAndSwap(presentationTimeNs);
+
+            recordDrawStats(presentationTimeNs, drawStartNs, drawStartCpuNs);
+
+        } catch (Exception e) {
+            AppLog.e(TAG, "Camera " + cameraId + " Error drawing frame", e);
+        }
+    }
+
+    /**
+     * 拼接模式下不更新主输入，直接用各象限已锁定的最新帧渲染一帧
+     * 用于主象限摄像头断流时由其他摄像头驱动编码
+     * @param presentationTimeNs 帧的呈现时间（纳秒）
+     */
+    public void drawMosaicFrame(long presentationTimeNs) {
+        if (!isInitialized || isReleased || mosaicInputs == null) {
+            return;
+        }
 
-            // 设置视口
-            GLES20.glViewport(0, 0, width, height);
+        long drawStartNs = System.nanoTime();
+        long drawStartCpuNs = Debug.threadCpuTimeNanos();
+        try {
+            makeCurrent();
+            renderAndSwap(presentationTimeNs);
+            recordDrawStats(presentationTimeNs, drawStartNs, drawStartCpuNs);
+        } catch (Exception e) {
+            AppLog.e(TAG, "Camera " + cameraId + " Error drawing mosaic frame", e);
+        }
+    }
+
+    /**
+     * 渲染到编码器 Surface 并提交
+     */
+    private void renderAndSwap(long presentationTimeNs) {
+        drawContent(width, height, watermarkEnabled && watermarkTexture != null);
 
-            // 清除颜色缓冲
-            GLES20.glClearColor(0.0f, 0.0f, 0.0f, 1.0f);
-            GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
+        ThumbnailCallback thumbnailCallback = pendingThumbnail;
+        if (thumbnailCallback != null) {
+            pendingThumbnail = null;
+            captureThumbnail(thumbnailCallback);
+        }
 
-            // 根据是否启用水印选择不同的渲染路径
-            if (watermarkEnabled && watermarkProgram != 0) {
-                drawFrameWithWatermark();
+        // 设置呈现时间戳并交换缓冲区
+        EGLExt.eglPresentationTimeANDROID(eglDisplay, eglSurface, presentationTimeNs);
+        EGL14.eglSwapBuffers(eglDisplay, eglSurface);
+    }
+
+    /**
+     * 按当前模式把画面绘制到当前帧缓冲
+     * @param viewWidth 帧缓冲宽度
+     * @param viewHeight 帧缓冲高度
+     * @param watermark 是否叠加时间水印
+     */
+    private void drawContent(int viewWidth, int viewHeight, boolean watermark) {
+        // 设置视口
+        GLES20.glViewport(0, 0, viewWidth, viewHeight);
+
+        // 清除颜色缓冲
+        GLES20.glClearColor(0.0f, 0.0f, 0.0f, 1.0f);
+        GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
+
+        // 根据模式和是否启用水印选择不同的渲染路径
+        if (mosaicInputs != null) {
+            drawMosaicQuadrants(viewWidth, viewHeight, watermark);
+        } else if (watermark) {
+            drawFrameWithWatermark(textureId, texMatrix, viewWidth, viewHeight);
+        } else {
+            drawFrameWithoutWatermark(textureId, texMatrix);
+        }
+    }
+
+    /**
+     * 请求一张缩略图：下一次渲染时额外绘制一份小尺寸画面（不含水印）并读回
+     * 录制器在每个分段开始后调用得到分段的第一帧，之后定期调用得到时间轴预览帧
+     */
+    public void requestThumbnail(ThumbnailCallback callback) {
+        pendingThumbnail = callback;
+    }
+
+    /**
+     * 绘制到缩略图帧缓冲并读回像素，完成后恢复默认帧缓冲（编码器 Surface）
+     * 只读回缩略图尺寸的像素（320 宽约 230KB），不读取整帧
+     */
+    private void captureThumbnail(ThumbnailCallback callback) {
+        try {
+            if (thumbnailFramebuffer == 0) {
+                createThumbnailTarget();
+            }
+            GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, thumbnailFramebuffer);
+            drawContent(thumbnailWidth, thumbnailHeight, false);
+            ByteBuffer rgba = ByteBuffer.allocateDirect(thumbnailWidth * thumbnailHeight * 4).order(ByteOrder.nativeOrder());
+            GLES20.glReadPixels(0, 0, thumbnailWidth, thumbnailHeight, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, rgba);
+            checkGlError("glReadPixels thumbnail");
+            rgba.rewind();
+            callback.onThumbnail(rgba, thumbnailWidth, thumbnailHeight);
+        } catch (RuntimeException e) {
+            AppLog.w(TAG, "Camera " + cameraId + " Failed to capture thumbnail: " + e.getMessage());
+        } finally {
+            GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+        }
+    }
+
+    private void createThumbnailTarget() {
+        thumbnailWidth = THUMBNAIL_WIDTH;
+        // 按输出宽高比计算，取偶数
+        thumbnailHeight = Math.max(2, (THUMBNAIL_WIDTH * height / width) & ~1);
+
+        int[] ids = new int[1];
+        GLES20.glGenTextures(1, ids, 0);
+        thumbnailTexture = ids[0];
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, thumbnailTexture);
+        GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_RGBA, thumbnailWidth, thumbnailHeight, 0,
+                GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, null);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+
+        GLES20.glGenFramebuffers(1, ids, 0);
+        thumbnailFramebuffer = ids[0];
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, thumbnailFramebuffer);
+        GLES20.glFramebufferTexture2D(GLES20.GL_FRAMEBUFFER, GLES20.GL_COLOR_ATTACHMENT0, GLES20.GL_TEXTURE_2D,
+                thumbnailTexture, 0);
+        int status = GLES20.glCheckFramebufferStatus(GLES20.GL_FRAMEBUFFER);
+        if (status != GLES20.GL_FRAMEBUFFER_COMPLETE) {
+            releaseThumbnailTarget();
+            throw new RuntimeException("Thumbnail framebuffer incomplete: 0x" + Integer.toHexString(status));
+        }
+    }
+
+    private void releaseThumbnailTarget() {
+        if (thumbnailFramebuffer != 0) {
+            int[] framebuffers = {thumbnailFramebuffer};
+            GLES20.glDeleteFramebuffers(1, framebuffers, 0);
+            thumbnailFramebuffer = 0;
+        }
+        if (thumbnailTexture != 0) {
+            int[] textures = {thumbnailTexture};
+            GLES20.glDeleteTextures(1, textures, 0);
+            thumbnailTexture = 0;
+        }
+    }
+
+    /**
+     * 按象限渲染拼接画面，没有输入或尚未收到帧的象限保持黑色
+     */
+    private void drawMosaicQuadrants(int viewWidth, int viewHeight, boolean watermark) {
+        int quadrantWidth = viewWidth / 2;
+        int quadrantHeight = viewHeight / 2;
+        for (int quadrant = 0; quadrant < MOSAIC_QUADRANTS; quadrant++) {
+            if (mosaicInputs[quadrant] == null || !mosaicHasFrame[quadrant]) {
+                continue;
+            }
+            int column = quadrant % 2;
+            int row = quadrant / 2;
+            // GL 视口原点在左下角，上方一行对应 y = quadrantHeight
+            GLES20.glViewport(column * quadrantWidth, (1 - row) * quadrantHeight, quadrantWidth, quadrantHeight);
+            if (watermark) {
+                drawFrameWithWatermark(mosaicTextureIds[quadrant], mosaicTexMatrices[quadrant], quadrantWidth, quadrantHeight);
             } else {
-                drawFrameWithoutWatermark();
+                drawFrameWithoutWatermark(mosaicTextureIds[quadrant], mosaicTexMatrices[quadrant]);
             }
+        }
+    }
 
-            // 设置呈现时间戳并交换缓冲区
-            EGLExt.eglPresentationTimeANDROID(eglDisplay, eglSurface, presentationTimeNs);
-            EGL14.eglSwapBuffers(eglDisplay, eglSurface);
+    /**
+     * 设置 2x2 拼接模式的输入
+     * 必须在编码线程上、initialize() 之后调用
+     * @param inputs 各象限的输入 SurfaceTexture（无摄像头的象限为 null）
+     * @param textureIds 各象限输入对应的 OES 纹理
+     * @param masterQuadrant 使用主输入（setInputSurfaceTexture 设置的 SurfaceTexture）的象限，由主输入的帧驱动编码
+     */
+    public void setMosaicInputs(SurfaceTexture[] inputs, int[] textureIds, int masterQuadrant) {
+        this.mosaicInputs = inputs;
+        this.mosaicTextureIds = textureIds;
+        this.mosaicMasterQuadrant = masterQuadrant;
+        AppLog.d(TAG, "Camera " + cameraId + " Mosaic mode enabled, master quadrant=" + masterQuadrant);
+    }
 
-        } catch (Exception e) {
-            AppLog.e(TAG, "Camera " + cameraId + " Error drawing frame", e);
+    /**
+     * 锁定拼接模式下某个非主象限输入的最新帧（只更新纹理，不编码）
+     * 必须在编码线程上调用（onFrameAvailable 回调中）
+     */
+    public void latchMosaicInput(int quadrant) {
+        if (!isInitialized || isReleased || mosaicInputs == null || mosaicInputs[quadrant] == null) {
+            return;
+        }
+        makeCurrent();
+        mosaicInputs[quadrant].updateTexImage();
+        mosaicInputs[quadrant].getTransformMatrix(mosaicTexMatrices[quadrant]);
+        mosaicHasFrame[quadrant] = true;
+    }
+
+    /**
+     * 在当前上下文中创建额外的 OES 输入纹理（拼接模式的非主象限输入使用）
+     * 必须在编码线程上、initialize() 之后调用
+     */
+    public int createInputTexture() {
+        makeCurrent();
+        return createOesTexture();
+    }
+
+    /**
+     * 记录单帧渲染统计
+     */
+    private void recordDrawStats(long presentationTimeNs, long drawStartNs, long drawStartCpuNs) {
+        long drawNs = System.nanoTime() - drawStartNs;
+        long drawCpuNs = drawStartCpuNs >= 0 ? Debug.threadCpuTimeNanos() - drawStartCpuNs : -1;
+        synchronized (statsLock) {
+            totalDrawNs += drawNs;
+            if (drawNs > maxDrawNs) {
+                maxDrawNs = drawNs;
+            }
+            if (drawCpuNs >= 0 && totalDrawCpuNs >= 0) {
+                totalDrawCpuNs += drawCpuNs;
+            } else {
+                totalDrawCpuNs = -1;
+            }
+            if (lastPresentationTimeNs >= 0 && presentationTimeNs > lastPresentationTimeNs) {
+                totalFrameIntervalNs += presentationTimeNs - lastPresentationTimeNs;
+            }
+            lastPresentationTimeNs = presentationTimeNs;
+            renderedFrameCount++;
         }
     }
 
     /**
      * 无水印渲染
      */
-    private void drawFrameWithoutWatermark() {
+    private void drawFrameWithoutWatermark(int oesTextureId, float[] textureMatrix) {
         // 使用着色器程序
         GLES20.glUseProgram(program);
         checkGlError("glUseProgram");
 
         // 绑定纹理
         GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
-        GLES20.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, textureId);
+        GLES20.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, oesTextureId);
 
         // 设置 uniform 变量
         GLES20.glUniformMatrix4fv(mvpMatrixHandle, 1, false, mvpMatrix, 0);
-        GLES20.glUniformMatrix4fv(texMatrixHandle, 1, false, texMatrix, 0);
+        GLES20.glUniformMatrix4fv(texMatrixHandle, 1, false, textureMatrix, 0);
         GLES20.glUniform1i(textureHandle, 0);
 
         // 设置顶点属性
@@ -305,51 +570,14 @@ public class EglSurfaceEncoder {
     }
 
     /**
-     * 带水印渲染
+     * 带水印渲染：先绘制画面，再在当前视口右上角叠加字形图集水印
+     * @param viewWidth 当前视口宽度（用于计算水印位置）
+     * @param viewHeight 当前视口高度
      */
-    private void drawFrameWithWatermark() {
-        // 更新水印位图（如果时间变化了）
-        updateWatermarkBitmap();
-
-        // 使用水印着色器程序
-        GLES20.glUseProgram(watermarkProgram);
-        checkGlError("glUseProgram watermark");
-
-        // 绑定视频纹理到纹理单元0
-        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
-        GLES20.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, textureId);
-        GLES20.glUniform1i(watermarkOesTextureHandle, 0);
-
-        // 绑定水印纹理到纹理单元1
-        GLES20.glActiveTexture(GLES20.GL_TEXTURE1);
-        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, watermarkTextureId);
-        GLES20.glUniform1i(watermarkTextureHandle, 1);
-
-        // 设置 uniform 变量
-        GLES20.glUniformMatrix4fv(watermarkMvpMatrixHandle, 1, false, mvpMatrix, 0);
-        GLES20.glUniformMatrix4fv(watermarkTexMatrixHandle, 1, false, texMatrix, 0);
-
-        // 设置水印位置和大小（归一化坐标，右上角）
-        float watermarkW = (float) WATERMARK_WIDTH / width;   // 水印宽度占比
-        float watermarkH = (float) WATERMARK_HEIGHT / height; // 水印高度占比
-        float watermarkX = 1.0f - watermarkW - 0.01f;  // 右边距 1%
-        float watermarkY = 0.01f;  // 上边距 1%
-        GLES20.glUniform4f(watermarkRectHandle, watermarkX, watermarkY, watermarkW, watermarkH);
-
-        // 设置顶点属性
-        GLES20.glEnableVertexAttribArray(watermarkPositionHandle);
-        GLES20.glVertexAttribPointer(watermarkPositionHandle, 2, GLES20.GL_FLOAT, false, 0, vertexBuffer);
-
-        GLES20.glEnableVertexAttribArray(watermarkTexCoordHandle);
-        GLES20.glVertexAttribPointer(watermarkTexCoordHandle, 2, GLES20.GL_FLOAT, false, 0, texCoordBuffer);
-
-        // 绘制
-        GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
+    private void drawFrameWithWatermark(int oesTextureId, float[] textureMatrix, int viewWidth, int viewHeight) {
+        drawFrameWithoutWatermark(oesTextureId, textureMatrix);
+        watermarkTexture.draw(viewWidth, viewHeight);
         checkGlError("glDrawArrays watermark");
-
-        // 禁用顶点属性
-        GLES20.glDisableVertexAttribArray(watermarkPositionHandle);
-        GLES20.glDisableVertexAttribArray(watermarkTexCoordHandle);
     }
 
     /**
@@ -368,8 +596,13 @@ public class EglSurfaceEncoder {
         try {
             // 销毁旧的 EGL Surface
             // 注意：当 surface 为 EGL_NO_SURFACE 时，context 必须也是 EGL_NO_CONTEXT，否则会报 EGL_BAD_MATCH
+            // 共享模式下改为绑定引擎的 pbuffer，保持共享上下文可用
             if (eglSurface != EGL14.EGL_NO_SURFACE) {
-                EGL14.eglMakeCurrent(eglDisplay, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_CONTEXT);
+                if (sharedEngine != null) {
+                    sharedEngine.makeCurrentPbuffer();
+                } else {
+                    EGL14.eglMakeCurrent(eglDisplay, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_CONTEXT);
+                }
                 EGL14.eglDestroySurface(eglDisplay, eglSurface);
                 eglSurface = EGL14.EGL_NO_SURFACE;
             }
@@ -431,6 +664,11 @@ public class EglSurfaceEncoder {
         isReleased = true;
         isInitialized = false;
 
+        if (sharedEngine != null) {
+            releaseShared();
+            return;
+        }
+
         // 释放 OpenGL 资源
         if (program != 0) {
             GLES20.glDeleteProgram(program);
@@ -442,22 +680,13 @@ public class EglSurfaceEncoder {
             GLES20.glDeleteTextures(1, textures, 0);
             textureId = 0;
         }
+        releaseMosaicTextures();
+        releaseThumbnailTarget();
 
         // 释放水印相关资源
-        if (watermarkProgram != 0) {
-            GLES20.glDeleteProgram(watermarkProgram);
-            watermarkProgram = 0;
-        }
-
-        if (watermarkTextureId != 0) {
-            int[] textures = {watermarkTextureId};
-            GLES20.glDeleteTextures(1, textures, 0);
-            watermarkTextureId = 0;
-        }
-
-        if (watermarkBitmap != null) {
-            watermarkBitmap.recycle();
-            watermarkBitmap = null;
+        if (watermarkTexture != null) {
+            watermarkTexture.release();
+            watermarkTexture = null;
         }
 
         // 释放 EGL 资源
@@ -483,6 +712,53 @@ public class EglSurfaceEncoder {
         AppLog.d(TAG, "Camera " + cameraId + " EglSurfaceEncoder released");
     }
 
+    /**
+     * 释放拼接模式额外创建的输入纹理（主象限使用主纹理，已单独释放）
+     * 输入 SurfaceTexture 由创建者（CodecVideoRecorder）释放
+     */
+    private void releaseMosaicTextures() {
+        if (mosaicTextureIds != null) {
+            for (int quadrant = 0; quadrant < mosaicTextureIds.length; quadrant++) {
+                if (quadrant != mosaicMasterQuadrant && mosaicTextureIds[quadrant] != 0) {
+                    int[] textures = {mosaicTextureIds[quadrant]};
+                    GLES20.glDeleteTextures(1, textures, 0);
+                }
+            }
+        }
+        mosaicInputs = null;
+        mosaicTextureIds = null;
+    }
+
+    /**
+     * 共享模式释放：只释放本路的 OES 纹理和 EGL Surface，着色器程序、水印纹理和上下文归引擎所有
+     */
+    private void releaseShared() {
+        if (eglDisplay != EGL14.EGL_NO_DISPLAY) {
+            sharedEngine.makeCurrentPbuffer();
+
+            if (textureId != 0) {
+                int[] textures = {textureId};
+                GLES20.glDeleteTextures(1, textures, 0);
+                textureId = 0;
+            }
+            releaseMosaicTextures();
+            releaseThumbnailTarget();
+
+            if (eglSurface != EGL14.EGL_NO_SURFACE) {
+                EGL14.eglDestroySurface(eglDisplay, eglSurface);
+                eglSurface = EGL14.EGL_NO_SURFACE;
+            }
+        }
+
+        program = 0;
+        watermarkTexture = null;
+        eglDisplay = EGL14.EGL_NO_DISPLAY;
+        eglContext = EGL14.EGL_NO_CONTEXT;
+        inputSurfaceTexture = null;
+
+        AppLog.d(TAG, "Camera " + cameraId + " EglSurfaceEncoder released (shared), " + getRenderStats());
+    }
+
     /**
      * 获取纹理 ID
      */
@@ -560,12 +836,36 @@ public class EglSurfaceEncoder {
         AppLog.d(TAG, "Camera " + cameraId + " EGL setup complete");
     }
 
+    /**
+     * 共享模式初始化 EGL：使用引擎的 display/context/config，只创建本路的 EGL Surface
+     */
+    private void initSharedEgl(Surface outputSurface) {
+        eglDisplay = sharedEngine.getEglDisplay();
+        eglContext = sharedEngine.getEglContext();
+        eglConfig = sharedEngine.getEglConfig();
+        if (eglDisplay == EGL14.EGL_NO_DISPLAY || eglContext == EGL14.EGL_NO_CONTEXT) {
+            throw new RuntimeException("Shared render engine is not available");
+        }
+
+        int[] surfaceAttribList = {
+                EGL14.EGL_NONE
+        };
+        eglSurface = EGL14.eglCreateWindowSurface(eglDisplay, eglConfig, outputSurface, surfaceAttribList, 0);
+        if (eglSurface == EGL14.EGL_NO_SURFACE) {
+            throw new RuntimeException("Unable to create EGL window surface");
+        }
+
+        makeCurrent();
+
+        AppLog.d(TAG, "Camera " + cameraId + " EGL setup complete (shared context)");
+    }
+
     /**
      * 初始化 OpenGL
      */
     private void initGl() {
-        // 创建着色器程序
-        program = createProgram(VERTEX_SHADER, FRAGMENT_SHADER);
+        // 创建着色器程序（共享模式下使用引擎已编译的程序）
+        program = sharedEngine != null ? sharedEngine.getProgram() : createProgram(VERTEX_SHADER, FRAGMENT_SHADER);
         if (program == 0) {
             throw new RuntimeException("Unable to create shader program");
         }
@@ -578,15 +878,7 @@ public class EglSurfaceEncoder {
         textureHandle = GLES20.glGetUniformLocation(program, "sTexture");
 
         // 创建 OES 纹理
-        int[] textures = new int[1];
-        GLES20.glGenTextures(1, textures, 0);
-        textureId = textures[0];
-
-        GLES20.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, textureId);
-        GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
-        GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
-        GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
-        GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+        textureId = createOesTexture();
 
         // 创建顶点缓冲
         vertexBuffer = createFloatBuffer(VERTICES);
@@ -596,94 +888,40 @@ public class EglSurfaceEncoder {
     }
 
     /**
-     * 初始化水印相关的 OpenGL 资源
+     * 创建 OES 外部纹理
      */
-    private void initWatermarkGl() {
-        if (watermarkProgram != 0) {
-            return;  // 已经初始化过了
-        }
-
-        AppLog.d(TAG, "Camera " + cameraId + " Initializing watermark OpenGL resources");
-
-        // 创建带水印的着色器程序
-        watermarkProgram = createProgram(VERTEX_SHADER, FRAGMENT_SHADER_WITH_WATERMARK);
-        if (watermarkProgram == 0) {
-            AppLog.e(TAG, "Camera " + cameraId + " Failed to create watermark shader program");
-            return;
-        }
-
-        // 获取属性位置
-        watermarkPositionHandle = GLES20.glGetAttribLocation(watermarkProgram, "aPosition");
-        watermarkTexCoordHandle = GLES20.glGetAttribLocation(watermarkProgram, "aTextureCoord");
-        watermarkMvpMatrixHandle = GLES20.glGetUniformLocation(watermarkProgram, "uMVPMatrix");
-        watermarkTexMatrixHandle = GLES20.glGetUniformLocation(watermarkProgram, "uTexMatrix");
-        watermarkOesTextureHandle = GLES20.glGetUniformLocation(watermarkProgram, "sTexture");
-        watermarkTextureHandle = GLES20.glGetUniformLocation(watermarkProgram, "sWatermarkTexture");
-        watermarkRectHandle = GLES20.glGetUniformLocation(watermarkProgram, "uWatermarkRect");
-
-        // 创建水印纹理
+    private int createOesTexture() {
         int[] textures = new int[1];
         GLES20.glGenTextures(1, textures, 0);
-        watermarkTextureId = textures[0];
-
-        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, watermarkTextureId);
-        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
-        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
-        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
-        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+        int id = textures[0];
 
-        // 创建初始水印位图
-        watermarkBitmap = Bitmap.createBitmap(WATERMARK_WIDTH, WATERMARK_HEIGHT, Bitmap.Config.ARGB_8888);
-        updateWatermarkBitmap();
-
-        AppLog.d(TAG, "Camera " + cameraId + " Watermark OpenGL resources initialized, textureId=" + watermarkTextureId);
+        GLES20.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, id);
+        GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
+        GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
+        GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+        GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+        return id;
     }
 
     /**
-     * 更新水印位图（每秒调用一次）
+     * 初始化水印相关的 OpenGL 资源
      */
-    private void updateWatermarkBitmap() {
-        if (watermarkBitmap == null) {
-            return;
-        }
-
-        String currentTime = watermarkDateFormat.format(new Date());
-        
-        // 只有时间变化时才更新
-        if (currentTime.equals(lastWatermarkTime)) {
-            return;
+    private void initWatermarkGl() {
+        if (watermarkTexture != null) {
+            return;  // 已经初始化过了
         }
-        lastWatermarkTime = currentTime;
 
-        // 清除位图
-        watermarkBitmap.eraseColor(Color.TRANSPARENT);
-
-        Canvas canvas = new Canvas(watermarkBitmap);
-
-        // 设置画笔 - 阴影
-        Paint shadowPaint = new Paint();
-        shadowPaint.setColor(Color.BLACK);
-        shadowPaint.setTextSize(28);
-        shadowPaint.setAntiAlias(true);
-        shadowPaint.setTypeface(Typeface.MONOSPACE);
-
-        // 设置画笔 - 主文字
-        Paint textPaint = new Paint();
-        textPaint.setColor(Color.WHITE);
-        textPaint.setTextSize(28);
-        textPaint.setAntiAlias(true);
-        textPaint.setTypeface(Typeface.MONOSPACE);
-
-        // 绘制阴影（偏移2像素）
-        canvas.drawText(currentTime, 8, 32, shadowPaint);
-        // 绘制主文字
-        canvas.drawText(currentTime, 6, 30, textPaint);
+        AppLog.d(TAG, "Camera " + cameraId + " Initializing watermark OpenGL resources");
 
-        // 上传纹理到 GPU
-        if (watermarkTextureId != 0) {
-            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, watermarkTextureId);
-            GLUtils.texImage2D(GLES20.GL_TEXTURE_2D, 0, watermarkBitmap, 0);
+        // 创建水印图集纹理（共享模式下所有摄像头共用一张）
+        if (sharedEngine != null) {
+            watermarkTexture = sharedEngine.getWatermarkTexture();
+        } else {
+            watermarkTexture = new WatermarkTexture();
+            watermarkTexture.initialize();
         }
+
+        AppLog.d(TAG, "Camera " + cameraId + " Watermark OpenGL resources initialized, textureId=" + watermarkTexture.getTextureId());
     }
 
     /**
@@ -698,7 +936,7 @@ public class EglSurfaceEncoder {
     /**
      * 创建着色器程序
      */
-    private int createProgram(String vertexSource, String fragmentSource) {
+    static int createProgram(String vertexSource, String fragmentSource) {
         int vertexShader = loadShader(GLES20.GL_VERTEX_SHADER, vertexSource);
         if (vertexShader == 0) {
             return 0;
@@ -738,7 +976,7 @@ public class EglSurfaceEncoder {
     /**
      * 加载着色器
      */
-    private int loadShader(int shaderType, String source) {
+    private static int loadShader(int shaderType, String source) {
         int shader = GLES20.glCreateShader(shaderType);
         if (shader == 0) {
             AppLog.e(TAG, "Could not create shader type " + shaderType);
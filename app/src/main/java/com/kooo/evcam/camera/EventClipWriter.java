@@ -0,0 +1,120 @@
+package com.kooo.evcam.camera;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+
+import com.kooo.evcam.AppLog;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 事件片段写入器
+ * 把事件前缓存（PreEventBuffer）和事件后 M 秒的编码帧写入独立的 MP4 文件，
+ * 与正在录制的分段文件互不影响（使用独立的 Muxer，共享同一份编码输出）
+ *
+ * 只在写入 Muxer 的线程上使用
+ */
+class EventClipWriter {
+    private static final String TAG = "EventClipWriter";
+
+    private final String cameraId;
+    private final String filePath;
+    private final SampleMuxer muxer;
+    private final int trackIndex;
+    private long baseTimeUs = -1;   // 片段第一帧的采样时间，PTS 以此为零点
+    private long endTimeUs;         // 到达该采样时间后结束
+    private long lastPtsUs = -1;
+    private int frameCount = 0;
+    private final MediaCodec.BufferInfo sampleInfo = new MediaCodec.BufferInfo();
+
+    /**
+     * @param muxer 目标 Muxer（未 start）
+     * @param format 编码器输出格式
+     * @param endTimeUs 事件后录制的结束时间（采样时间，微秒）
+     */
+    EventClipWriter(String cameraId, String filePath, SampleMuxer muxer, MediaFormat format, long endTimeUs) {
+        this.cameraId = cameraId;
+        this.filePath = filePath;
+        this.muxer = muxer;
+        this.endTimeUs = endTimeUs;
+        this.trackIndex = muxer.addTrack(format);
+        muxer.start();
+    }
+
+    /**
+     * 写入事件前缓存
+     * @return 写入的帧数（缓存为空时为 0，之后从下一个关键帧开始写入）
+     */
+    int writePreRoll(PreEventBuffer preEventBuffer) {
+        if (preEventBuffer == null || preEventBuffer.getFrameCount() == 0) {
+            return 0;
+        }
+        baseTimeUs = preEventBuffer.getOldestTimeUs();
+        int frames = preEventBuffer.drainTo(muxer, trackIndex, baseTimeUs);
+        lastPtsUs = preEventBuffer.getDurationUs();  // 最新一帧的 PTS
+        frameCount += frames;
+        AppLog.d(TAG, "Camera " + cameraId + " Event clip pre-roll: " + frames + " frames, "
+                + (preEventBuffer.getDurationUs() / 1000) + "ms");
+        return frames;
+    }
+
+    /**
+     * 写入一帧实时编码数据
+     * @param data 编码数据（position/limit 为有效范围）
+     * @param flags 样本标志
+     * @param timeUs 采样时间（微秒）
+     * @return 到达结束时间时返回 true，调用方应调用 finish()
+     */
+    boolean write(ByteBuffer data, int flags, long timeUs) {
+        if (baseTimeUs < 0) {
+            // 没有事件前缓存时，从第一个关键帧开始
+            if ((flags & MediaCodec.BUFFER_FLAG_KEY_FRAME) == 0) {
+                return timeUs >= endTimeUs;
+            }
+            baseTimeUs = timeUs;
+        }
+        long ptsUs = timeUs - baseTimeUs;
+        if (ptsUs <= lastPtsUs) {
+            return timeUs >= endTimeUs;  // 事件前缓存已包含该帧
+        }
+        sampleInfo.set(data.position(), data.remaining(), ptsUs, flags & ~MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+        muxer.writeSampleData(trackIndex, data, sampleInfo);
+        lastPtsUs = ptsUs;
+        frameCount++;
+        return timeUs >= endTimeUs;
+    }
+
+    /**
+     * 延长结束时间（事件录制期间再次触发时合并为一个片段）
+     */
+    void extendTo(long newEndTimeUs) {
+        if (newEndTimeUs > endTimeUs) {
+            endTimeUs = newEndTimeUs;
+        }
+    }
+
+    /**
+     * 完成并关闭文件
+     * @return 是否成功写入至少一帧
+     */
+    boolean finish() {
+        boolean success = frameCount > 0;
+        try {
+            muxer.stop();
+        } catch (Exception e) {
+            AppLog.e(TAG, "Camera " + cameraId + " Error stopping event clip muxer", e);
+            success = false;
+        }
+        try {
+            muxer.release();
+        } catch (Exception e) {
+            // Ignore
+        }
+        AppLog.d(TAG, "Camera " + cameraId + " Event clip finished: " + filePath + ", frames=" + frameCount);
+        return success;
+    }
+
+    String getFilePath() {
+        return filePath;
+    }
+}
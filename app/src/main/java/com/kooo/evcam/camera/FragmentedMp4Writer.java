@@ -0,0 +1,841 @@
+package com.kooo.evcam.camera;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executor;
+
+/**
+ * 纯 Java 的分片 MP4（fMP4 / CMAF）H.264 写入器
+ *
+ * 与 MediaMuxer 不同，moov 在开头写入（不含样本表），之后每 N 个关键帧输出一个
+ * moof + mdat 分片并 force() 到磁盘。断电时只丢失尚未落盘的分片，
+ * 已写入的分片可以直接播放。
+ *
+ * 文件布局：
+ *   ftyp | moov(mvex) | moof mdat | moof mdat | ... | free(预分配剩余空间)
+ *
+ * 文件按块预分配，每次写完分片后在末尾写一个覆盖剩余预分配空间的 free box，
+ * 保证任意时刻文件结构完整；finish() 时截断到实际长度。
+ *
+ * 指定 I/O 线程（ioExecutor）时，force() 和预分配（FAT/exFAT 上 setLength 需要填零）都在 I/O 线程上执行，
+ * 写入样本的线程（编码输出线程）只做顺序写入，慢速U盘不会因此阻塞编码器：
+ * - 剩余预分配空间不足一半时提前扩展；扩展没跟上时直接追加写入（与扩展互斥，不会被 setLength 截断）
+ * - 每个分片写完后投递一次 force()，已排队未执行的 force() 会覆盖之后写入的分片，不重复投递
+ * - I/O 线程上的错误在下一次写入分片或 finish() 时抛出；finish() 等待所有投递的 I/O 完成后再截断
+ *
+ * 说明：
+ * - 输入可以是 Annex-B（MediaCodec 输出）或 AVCC 格式，内部统一转换为 4 字节长度前缀
+ * - 假设解码顺序与显示顺序一致（Surface 输入的车机编码器不产生 B 帧），不写 ctts
+ * - 不依赖 Android API，可在 JVM 上直接测试
+ */
+public class FragmentedMp4Writer {
+
+    private static final int TIMESCALE = 90000;  // 媒体时间刻度（90kHz）
+    private static final int MOVIE_TIMESCALE = 1000;
+    static final long DEFAULT_PREALLOCATE_BYTES = 32L * 1024 * 1024;  // 每次预分配 32MB
+    private static final int DEFAULT_MAX_FRAGMENT_BYTES = 16 * 1024 * 1024;  // 单分片上限，防止关键帧丢失时无限增长
+
+    // trun 中的样本标志
+    private static final int SAMPLE_FLAGS_SYNC = 0x02000000;      // sample_depends_on=2（不依赖其他帧）
+    private static final int SAMPLE_FLAGS_NON_SYNC = 0x01010000;  // sample_depends_on=1, is_non_sync_sample=1
+
+    private final File file;
+    private final int keyFramesPerFragment;
+    private final long preallocateBytes;
+    private final boolean syncEachFragment;
+    private final Executor ioExecutor;  // 执行 force() 和预分配的线程，为 null 时在写入线程上执行
+
+    private RandomAccessFile randomAccessFile;
+    private FileChannel channel;
+    private volatile long writePosition = 0;   // 有效数据末尾（分段线程会读取）
+    private volatile long allocatedLength = 0; // 当前预分配长度（扩展完成后才更新）
+
+    // 后台 I/O 状态，由 ioLock 保护
+    private final Object ioLock = new Object();
+    private int pendingIoTasks = 0;
+    private boolean forceQueued = false;
+    private boolean extendQueued = false;
+    private IOException ioError;
+    // 扩展文件长度和超出预分配范围的写入互斥
+    private final Object lengthLock = new Object();
+
+    // 轨道参数
+    private int width;
+    private int height;
+    private byte[] sps;
+    private byte[] pps;
+    private boolean started = false;
+    private boolean finished = false;
+
+    // 当前分片缓存（样本数据已转换为长度前缀格式）
+    private ByteBuffer pendingPayload = ByteBuffer.allocate(1024 * 1024);
+    private int[] pendingSizes = new int[64];
+    private long[] pendingPtsUs = new long[64];
+    private boolean[] pendingKeyFrames = new boolean[64];
+    private int pendingCount = 0;
+    private int pendingKeyFrameCount = 0;
+
+    // 分片头缓存（复用）
+    private ByteBuffer headerBuffer = ByteBuffer.allocate(4096);
+    private final int[] boxStack = new int[16];
+    private int boxDepth = 0;
+
+    private int sequenceNumber = 0;
+    private long firstPtsUs = -1;
+    private long lastSampleDurationTicks = TIMESCALE / 30;
+    private long nextDecodeTimeTicks = 0;
+
+    // 统计
+    private int fragmentCount = 0;
+    private long sampleCount = 0;
+
+    /**
+     * @param file 输出文件
+     * @param keyFramesPerFragment 每个分片包含的关键帧数（崩溃时最多丢失的视频量）
+     */
+    public FragmentedMp4Writer(File file, int keyFramesPerFragment) {
+        this(file, keyFramesPerFragment, DEFAULT_PREALLOCATE_BYTES, true, null);
+    }
+
+    /**
+     * @param file 输出文件
+     * @param keyFramesPerFragment 每个分片包含的关键帧数
+     * @param preallocateBytes 每次预分配的字节数（0 表示不预分配）
+     * @param syncEachFragment 每个分片写入后是否 force() 到磁盘
+     * @param ioExecutor 执行 force() 和预分配的线程（为 null 时在写入线程上同步执行）
+     */
+    public FragmentedMp4Writer(File file, int keyFramesPerFragment, long preallocateBytes, boolean syncEachFragment,
+                               Executor ioExecutor) {
+        this.file = file;
+        this.keyFramesPerFragment = Math.max(1, keyFramesPerFragment);
+        this.preallocateBytes = Math.max(0, preallocateBytes);
+        this.syncEachFragment = syncEachFragment;
+        this.ioExecutor = ioExecutor;
+    }
+
+    /**
+     * 设置视频参数
+     * @param width 宽度
+     * @param height 高度
+     * @param spsNal SPS（可带或不带起始码）
+     * @param ppsNal PPS（可带或不带起始码）
+     */
+    public void configure(int width, int height, ByteBuffer spsNal, ByteBuffer ppsNal) {
+        if (started) {
+            throw new IllegalStateException("Writer already started");
+        }
+        this.width = width;
+        this.height = height;
+        this.sps = stripStartCode(spsNal);
+        this.pps = stripStartCode(ppsNal);
+        if (sps.length < 4) {
+            throw new IllegalArgumentException("Invalid SPS, length=" + sps.length);
+        }
+    }
+
+    /**
+     * 打开文件并写入初始化段（ftyp + moov）
+     */
+    public void start() throws IOException {
+        if (started) {
+            throw new IllegalStateException("Writer already started");
+        }
+        if (sps == null || pps == null) {
+            throw new IllegalStateException("configure() must be called before start()");
+        }
+        randomAccessFile = new RandomAccessFile(file, "rw");
+        randomAccessFile.setLength(0);
+        channel = randomAccessFile.getChannel();
+        writePosition = 0;
+        allocatedLength = 0;
+
+        ByteBuffer init = buildInitSegment();
+        ensureCapacity(init.remaining());
+        writeFully(init);
+        writeTrailingFreeBox();
+        syncWrittenData();
+        started = true;
+    }
+
+    /**
+     * 写入一个编码后的访问单元（一帧）
+     * 调用方负责设置 buffer 的 position/limit 为有效数据范围，本方法不修改其 position
+     * @param data 帧数据（Annex-B 或 AVCC）
+     * @param presentationTimeUs 显示时间戳（微秒）
+     * @param keyFrame 是否为关键帧
+     */
+    public void writeSample(ByteBuffer data, long presentationTimeUs, boolean keyFrame) throws IOException {
+        if (!started || finished) {
+            throw new IllegalStateException("Writer not started or already finished");
+        }
+        if (firstPtsUs < 0) {
+            firstPtsUs = presentationTimeUs;
+        }
+
+        // 到达分片边界：关键帧数已满，或缓存过大
+        if (pendingCount > 0 && ((keyFrame && pendingKeyFrameCount >= keyFramesPerFragment)
+                || pendingPayload.position() >= DEFAULT_MAX_FRAGMENT_BYTES)) {
+            flushFragment(presentationTimeUs);
+        }
+
+        int start = pendingPayload.position();
+        appendAsLengthPrefixed(data);
+        int size = pendingPayload.position() - start;
+        if (size == 0) {
+            return;  // 只包含参数集/AUD 等被过滤的 NAL
+        }
+
+        ensureSampleArrays(pendingCount + 1);
+        pendingSizes[pendingCount] = size;
+        pendingPtsUs[pendingCount] = presentationTimeUs;
+        pendingKeyFrames[pendingCount] = keyFrame;
+        pendingCount++;
+        if (keyFrame) {
+            pendingKeyFrameCount++;
+        }
+        sampleCount++;
+    }
+
+    /**
+     * 写出剩余样本、截断预分配空间并关闭文件
+     */
+    public void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+        finished = true;
+        if (!started) {
+            return;
+        }
+        try {
+            if (pendingCount > 0) {
+                long lastPts = pendingPtsUs[pendingCount - 1];
+                flushFragment(lastPts + ticksToUs(lastSampleDurationTicks));
+            }
+            // 等待投递的扩展和 force() 完成，之后不会再有扩展，可以安全截断
+            awaitIo();
+            throwIoError();
+            randomAccessFile.setLength(writePosition);
+            channel.force(true);
+        } finally {
+            closeQuietly();
+        }
+    }
+
+    /**
+     * 关闭文件（不写出剩余样本，用于异常路径）
+     */
+    public void closeQuietly() {
+        try {
+            if (randomAccessFile != null) {
+                randomAccessFile.close();
+            }
+        } catch (IOException ignored) {
+            // Ignore
+        }
+        randomAccessFile = null;
+        channel = null;
+    }
+
+    public int getFragmentCount() {
+        return fragmentCount;
+    }
+
+    public long getSampleCount() {
+        return sampleCount;
+    }
+
+    /**
+     * 已写入磁盘的有效字节数（不含预分配空间）
+     */
+    public long getWrittenBytes() {
+        return writePosition;
+    }
+
+    // ===== 分片输出 =====
+
+    /**
+     * 输出当前缓存的样本为一个 moof + mdat 分片
+     * @param nextPtsUs 下一个样本的 PTS，用于计算最后一个样本的时长
+     */
+    private void flushFragment(long nextPtsUs) throws IOException {
+        if (pendingCount == 0) {
+            return;
+        }
+        throwIoError();
+        sequenceNumber++;
+
+        ByteBuffer header = prepareHeaderBuffer(256 + pendingCount * 16);
+        int moofStart = header.position();
+        beginBox(header, "moof");
+        beginFullBox(header, "mfhd", 0, 0);
+        header.putInt(sequenceNumber);
+        endBox(header);
+
+        beginBox(header, "traf");
+        beginFullBox(header, "tfhd", 0, 0x020000);  // default-base-is-moof
+        header.putInt(1);  // track_ID
+        endBox(header);
+
+        beginFullBox(header, "tfdt", 1, 0);
+        header.putLong(nextDecodeTimeTicks);
+        endBox(header);
+
+        // trun: data-offset + sample-duration + sample-size + sample-flags
+        beginFullBox(header, "trun", 0, 0x000001 | 0x000100 | 0x000200 | 0x000400);
+        header.putInt(pendingCount);
+        int dataOffsetPosition = header.position();
+        header.putInt(0);  // data_offset，稍后回填
+        long decodeTime = nextDecodeTimeTicks;
+        for (int i = 0; i < pendingCount; i++) {
+            long pts = pendingPtsUs[i];
+            long nextPts = (i + 1 < pendingCount) ? pendingPtsUs[i + 1] : nextPtsUs;
+            long endTicks = usToTicks(nextPts - firstPtsUs);
+            long duration = endTicks - decodeTime;
+            if (duration <= 0) {
+                duration = lastSampleDurationTicks;  // 时间戳异常时使用上一帧时长
+            }
+            lastSampleDurationTicks = duration;
+            decodeTime += duration;
+
+            header.putInt((int) duration);
+            header.putInt(pendingSizes[i]);
+            header.putInt(pendingKeyFrames[i] ? SAMPLE_FLAGS_SYNC : SAMPLE_FLAGS_NON_SYNC);
+        }
+        endBox(header);  // trun
+        endBox(header);  // traf
+        endBox(header);  // moof
+
+        int moofSize = header.position() - moofStart;
+        header.putInt(dataOffsetPosition, moofSize + 8);  // mdat 头 8 字节之后为样本数据
+
+        int payloadSize = pendingPayload.position();
+        header.putInt(payloadSize + 8);
+        header.put(ascii("mdat"));
+        header.flip();
+
+        ensureCapacity((long) header.remaining() + payloadSize);
+        writeFully(header);
+        pendingPayload.flip();
+        writeFully(pendingPayload);
+        pendingPayload.clear();
+        writeTrailingFreeBox();
+        syncWrittenData();
+
+        nextDecodeTimeTicks = decodeTime;
+        pendingCount = 0;
+        pendingKeyFrameCount = 0;
+        fragmentCount++;
+    }
+
+    /**
+     * 构建初始化段：ftyp + moov（含 mvex，不含样本）
+     */
+    private ByteBuffer buildInitSegment() {
+        ByteBuffer b = ByteBuffer.allocate(1024 + sps.length + pps.length);
+
+        beginBox(b, "ftyp");
+        b.put(ascii("iso6"));
+        b.putInt(0);
+        b.put(ascii("iso6"));
+        b.put(ascii("cmfc"));
+        b.put(ascii("isom"));
+        b.put(ascii("avc1"));
+        b.put(ascii("mp41"));
+        endBox(b);
+
+        beginBox(b, "moov");
+
+        beginFullBox(b, "mvhd", 0, 0);
+        b.putInt(0);  // creation_time
+        b.putInt(0);  // modification_time
+        b.putInt(MOVIE_TIMESCALE);
+        b.putInt(0);  // duration（分片文件中为 0）
+        b.putInt(0x00010000);  // rate 1.0
+        b.putShort((short) 0x0100);  // volume 1.0
+        b.putShort((short) 0);
+        b.putInt(0);
+        b.putInt(0);
+        putUnityMatrix(b);
+        for (int i = 0; i < 6; i++) {
+            b.putInt(0);  // pre_defined
+        }
+        b.putInt(2);  // next_track_ID
+        endBox(b);
+
+        beginBox(b, "trak");
+        beginFullBox(b, "tkhd", 0, 0x000003);  // enabled | in_movie
+        b.putInt(0);
+        b.putInt(0);
+        b.putInt(1);  // track_ID
+        b.putInt(0);
+        b.putInt(0);  // duration
+        b.putInt(0);
+        b.putInt(0);
+        b.putShort((short) 0);  // layer
+        b.putShort((short) 0);  // alternate_group
+        b.putShort((short) 0);  // volume
+        b.putShort((short) 0);
+        putUnityMatrix(b);
+        b.putInt(width << 16);
+        b.putInt(height << 16);
+        endBox(b);
+
+        beginBox(b, "mdia");
+        beginFullBox(b, "mdhd", 0, 0);
+        b.putInt(0);
+        b.putInt(0);
+        b.putInt(TIMESCALE);
+        b.putInt(0);
+        b.putShort((short) 0x55C4);  // language "und"
+        b.putShort((short) 0);
+        endBox(b);
+
+        beginFullBox(b, "hdlr", 0, 0);
+        b.putInt(0);
+        b.put(ascii("vide"));
+        b.putInt(0);
+        b.putInt(0);
+        b.putInt(0);
+        b.put(ascii("VideoHandler"));
+        b.put((byte) 0);
+        endBox(b);
+
+        beginBox(b, "minf");
+        beginFullBox(b, "vmhd", 0, 1);
+        b.putLong(0);  // graphicsmode + opcolor
+        endBox(b);
+
+        beginBox(b, "dinf");
+        beginFullBox(b, "dref", 0, 0);
+        b.putInt(1);
+        beginFullBox(b, "url ", 0, 1);  // self-contained
+        endBox(b);
+        endBox(b);  // dref
+        endBox(b);  // dinf
+
+        beginBox(b, "stbl");
+        beginFullBox(b, "stsd", 0, 0);
+        b.putInt(1);
+        putAvc1SampleEntry(b);
+        endBox(b);  // stsd
+        beginFullBox(b, "stts", 0, 0);
+        b.putInt(0);
+        endBox(b);
+        beginFullBox(b, "stsc", 0, 0);
+        b.putInt(0);
+        endBox(b);
+        beginFullBox(b, "stsz", 0, 0);
+        b.putInt(0);
+        b.putInt(0);
+        endBox(b);
+        beginFullBox(b, "stco", 0, 0);
+        b.putInt(0);
+        endBox(b);
+        endBox(b);  // stbl
+        endBox(b);  // minf
+        endBox(b);  // mdia
+        endBox(b);  // trak
+
+        beginBox(b, "mvex");
+        beginFullBox(b, "trex", 0, 0);
+        b.putInt(1);  // track_ID
+        b.putInt(1);  // default_sample_description_index
+        b.putInt(0);
+        b.putInt(0);
+        b.putInt(0);
+        endBox(b);
+        endBox(b);  // mvex
+
+        endBox(b);  // moov
+        b.flip();
+        return b;
+    }
+
+    private void putAvc1SampleEntry(ByteBuffer b) {
+        beginBox(b, "avc1");
+        b.put(new byte[6]);  // reserved
+        b.putShort((short) 1);  // data_reference_index
+        b.putShort((short) 0);
+        b.putShort((short) 0);
+        b.putInt(0);
+        b.putInt(0);
+        b.putInt(0);
+        b.putShort((short) width);
+        b.putShort((short) height);
+        b.putInt(0x00480000);  // 72 dpi
+        b.putInt(0x00480000);
+        b.putInt(0);
+        b.putShort((short) 1);  // frame_count
+        b.put(new byte[32]);  // compressorname
+        b.putShort((short) 0x0018);  // depth
+        b.putShort((short) -1);
+
+        beginBox(b, "avcC");
+        b.put((byte) 1);  // configurationVersion
+        b.put(sps[1]);  // AVCProfileIndication
+        b.put(sps[2]);  // profile_compatibility
+        b.put(sps[3]);  // AVCLevelIndication
+        b.put((byte) 0xFF);  // lengthSizeMinusOne = 3
+        b.put((byte) 0xE1);  // numOfSequenceParameterSets = 1
+        b.putShort((short) sps.length);
+        b.put(sps);
+        b.put((byte) 1);
+        b.putShort((short) pps.length);
+        b.put(pps);
+        endBox(b);  // avcC
+
+        endBox(b);  // avc1
+    }
+
+    private static void putUnityMatrix(ByteBuffer b) {
+        b.putInt(0x00010000);
+        b.putInt(0);
+        b.putInt(0);
+        b.putInt(0);
+        b.putInt(0x00010000);
+        b.putInt(0);
+        b.putInt(0);
+        b.putInt(0);
+        b.putInt(0x40000000);
+    }
+
+    // ===== NAL 处理 =====
+
+    /**
+     * 将一帧数据以 4 字节长度前缀格式追加到分片缓存
+     * Annex-B 输入按起始码拆分；SPS/PPS/AUD 已在 avcC 中，跳过
+     */
+    private void appendAsLengthPrefixed(ByteBuffer data) {
+        int base = data.position();
+        int limit = data.limit();
+        if (!isAnnexB(data, base, limit)) {
+            // 已是 AVCC 格式，直接复制
+            ensurePayloadCapacity(limit - base);
+            ByteBuffer src = data.duplicate();
+            pendingPayload.put(src);
+            return;
+        }
+
+        int nalStart = findNalStart(data, base, limit);
+        while (nalStart >= 0 && nalStart < limit) {
+            int next = findStartCode(data, nalStart, limit);
+            int nalEnd = (next < 0) ? limit : next;
+            // 去掉下一个起始码前面多出的 0（4 字节起始码 / trailing_zero_8bits）
+            if (next >= 0) {
+                while (nalEnd > nalStart && data.get(nalEnd - 1) == 0) {
+                    nalEnd--;
+                }
+            }
+            int nalLength = nalEnd - nalStart;
+            if (nalLength > 0) {
+                int nalType = data.get(nalStart) & 0x1F;
+                if (nalType != 7 && nalType != 8 && nalType != 9) {
+                    ensurePayloadCapacity(nalLength + 4);
+                    pendingPayload.putInt(nalLength);
+                    ByteBuffer src = data.duplicate();
+                    src.limit(nalEnd);
+                    src.position(nalStart);
+                    pendingPayload.put(src);
+                }
+            }
+            nalStart = (next < 0) ? -1 : findNalStart(data, next, limit);
+        }
+    }
+
+    private static boolean isAnnexB(ByteBuffer data, int base, int limit) {
+        if (limit - base < 4) {
+            return false;
+        }
+        return data.get(base) == 0 && data.get(base + 1) == 0
+                && (data.get(base + 2) == 1 || (data.get(base + 2) == 0 && data.get(base + 3) == 1));
+    }
+
+    /**
+     * 从 from 开始查找下一个 00 00 01 起始码的位置
+     * @return 起始码第一个字节的位置，没有则返回 -1
+     */
+    private static int findStartCode(ByteBuffer data, int from, int limit) {
+        for (int i = from; i + 2 < limit; i++) {
+            if (data.get(i) == 0 && data.get(i + 1) == 0 && data.get(i + 2) == 1) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 返回起始码之后 NAL 数据的位置
+     */
+    private static int findNalStart(ByteBuffer data, int from, int limit) {
+        int sc = findStartCode(data, from, limit);
+        return sc < 0 ? -1 : sc + 3;
+    }
+
+    /**
+     * 去除参数集前面的起始码
+     */
+    static byte[] stripStartCode(ByteBuffer nal) {
+        ByteBuffer src = nal.duplicate();
+        int pos = src.position();
+        int limit = src.limit();
+        if (limit - pos >= 4 && src.get(pos) == 0 && src.get(pos + 1) == 0
+                && src.get(pos + 2) == 0 && src.get(pos + 3) == 1) {
+            pos += 4;
+        } else if (limit - pos >= 3 && src.get(pos) == 0 && src.get(pos + 1) == 0 && src.get(pos + 2) == 1) {
+            pos += 3;
+        }
+        byte[] out = new byte[limit - pos];
+        src.position(pos);
+        src.get(out);
+        return out;
+    }
+
+    // ===== 文件写入 =====
+
+    /**
+     * 确保预分配空间能容纳接下来的 bytes 字节以及末尾的 free box 头
+     * 有 I/O 线程时只投递扩展（剩余空间不足一半时提前投递），不在写入线程上 setLength
+     */
+    private void ensureCapacity(long bytes) throws IOException {
+        if (preallocateBytes <= 0) {
+            return;
+        }
+        long required = writePosition + bytes + 16;
+        if (ioExecutor == null) {
+            if (required > allocatedLength) {
+                long newLength = Math.max(required, allocatedLength + preallocateBytes);
+                randomAccessFile.setLength(newLength);
+                allocatedLength = newLength;
+            }
+            return;
+        }
+        if (allocatedLength - required < preallocateBytes / 2) {
+            scheduleExtend();
+        }
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        if (ioExecutor != null && writePosition + buffer.remaining() > allocatedLength) {
+            // 预分配没跟上，直接追加写入（不能和 I/O 线程的 setLength 同时进行）
+            synchronized (lengthLock) {
+                writeAtPosition(buffer);
+            }
+        } else {
+            writeAtPosition(buffer);
+        }
+    }
+
+    private void writeAtPosition(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            writePosition += channel.write(buffer, writePosition);
+        }
+    }
+
+    // ===== 后台 I/O =====
+
+    private interface IoTask {
+        void run() throws IOException;
+    }
+
+    /**
+     * 分片写完后落盘（有 I/O 线程时投递，已有排队的 force() 时不重复投递）
+     */
+    private void syncWrittenData() throws IOException {
+        if (!syncEachFragment) {
+            return;
+        }
+        if (ioExecutor == null) {
+            channel.force(false);
+            return;
+        }
+        synchronized (ioLock) {
+            if (forceQueued) {
+                return;
+            }
+            forceQueued = true;
+        }
+        FileChannel target = channel;
+        submitIo(() -> {
+            synchronized (ioLock) {
+                forceQueued = false;  // 之后写入的分片需要新的 force()
+            }
+            target.force(false);
+        });
+    }
+
+    /**
+     * 投递一次预分配扩展：在当前预分配末尾（或已追加写入的末尾）之后再扩展 preallocateBytes，
+     * 并在原末尾写一个覆盖新增空间的 free box，和写入线程的 free box 首尾相接
+     */
+    private void scheduleExtend() {
+        synchronized (ioLock) {
+            if (extendQueued) {
+                return;
+            }
+            extendQueued = true;
+        }
+        RandomAccessFile target = randomAccessFile;
+        FileChannel targetChannel = channel;
+        submitIo(() -> {
+            try {
+                synchronized (lengthLock) {
+                    // 写入线程只在预分配范围内无锁写入，end 之后的区域此时不会被写入
+                    long end = Math.max(allocatedLength, writePosition);
+                    long newLength = end + preallocateBytes;
+                    target.setLength(newLength);
+                    writeFreeBox(targetChannel, end, newLength - end);
+                    allocatedLength = newLength;
+                }
+            } finally {
+                synchronized (ioLock) {
+                    extendQueued = false;
+                }
+            }
+        });
+    }
+
+    private void submitIo(IoTask task) {
+        synchronized (ioLock) {
+            pendingIoTasks++;
+        }
+        ioExecutor.execute(() -> {
+            try {
+                task.run();
+            } catch (IOException e) {
+                synchronized (ioLock) {
+                    if (ioError == null) {
+                        ioError = e;
+                    }
+                }
+            } finally {
+                synchronized (ioLock) {
+                    pendingIoTasks--;
+                    ioLock.notifyAll();
+                }
+            }
+        });
+    }
+
+    /**
+     * 等待所有投递的后台 I/O 完成
+     */
+    private void awaitIo() throws IOException {
+        synchronized (ioLock) {
+            while (pendingIoTasks > 0) {
+                try {
+                    ioLock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new java.io.InterruptedIOException("Interrupted waiting for fragment I/O");
+                }
+            }
+        }
+    }
+
+    /**
+     * 抛出 I/O 线程上发生的错误（force() 或预分配失败）
+     */
+    private void throwIoError() throws IOException {
+        IOException error;
+        synchronized (ioLock) {
+            error = ioError;
+        }
+        if (error != null) {
+            throw new IOException("Background fragment I/O failed", error);
+        }
+    }
+
+    /**
+     * 在有效数据之后写入 free box，覆盖剩余的预分配空间
+     * 保证文件在任意分片边界断电时仍是结构完整的 MP4
+     */
+    private void writeTrailingFreeBox() throws IOException {
+        if (preallocateBytes <= 0) {
+            return;
+        }
+        writeFreeBox(channel, writePosition, allocatedLength - writePosition);
+    }
+
+    private static void writeFreeBox(FileChannel target, long position, long size) throws IOException {
+        if (size < 16) {
+            return;
+        }
+        ByteBuffer free = ByteBuffer.allocate(16);
+        if (size <= 0xFFFFFFFFL) {
+            free.putInt((int) size);
+            free.put(ascii("free"));
+        } else {
+            free.putInt(1);
+            free.put(ascii("free"));
+            free.putLong(size);
+        }
+        free.flip();
+        while (free.hasRemaining()) {
+            position += target.write(free, position);
+        }
+    }
+
+    // ===== Box 构建工具 =====
+
+    private ByteBuffer prepareHeaderBuffer(int required) {
+        if (headerBuffer.capacity() < required) {
+            headerBuffer = ByteBuffer.allocate(Integer.highestOneBit(required) << 1);
+        }
+        headerBuffer.clear();
+        return headerBuffer;
+    }
+
+    private void beginBox(ByteBuffer b, String type) {
+        boxStack[boxDepth++] = b.position();
+        b.putInt(0);
+        b.put(ascii(type));
+    }
+
+    private void beginFullBox(ByteBuffer b, String type, int version, int flags) {
+        beginBox(b, type);
+        b.putInt((version << 24) | (flags & 0xFFFFFF));
+    }
+
+    private void endBox(ByteBuffer b) {
+        int start = boxStack[--boxDepth];
+        b.putInt(start, b.position() - start);
+    }
+
+    private void ensurePayloadCapacity(int extra) {
+        if (pendingPayload.remaining() >= extra) {
+            return;
+        }
+        int newCapacity = Math.max(pendingPayload.capacity() * 2, pendingPayload.position() + extra);
+        ByteBuffer bigger = ByteBuffer.allocate(newCapacity);
+        pendingPayload.flip();
+        bigger.put(pendingPayload);
+        pendingPayload = bigger;
+    }
+
+    private void ensureSampleArrays(int count) {
+        if (count <= pendingSizes.length) {
+            return;
+        }
+        int newLength = pendingSizes.length * 2;
+        pendingSizes = java.util.Arrays.copyOf(pendingSizes, newLength);
+        pendingPtsUs = java.util.Arrays.copyOf(pendingPtsUs, newLength);
+        pendingKeyFrames = java.util.Arrays.copyOf(pendingKeyFrames, newLength);
+    }
+
+    private static long usToTicks(long us) {
+        return us * TIMESCALE / 1000000L;
+    }
+
+    private static long ticksToUs(long ticks) {
+        return ticks * 1000000L / TIMESCALE;
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,91 @@
+package com.kooo.evcam.camera;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 基于 FragmentedMp4Writer 的样本写入器（防断电模式）
+ * 将 MediaMuxer 风格的调用转换为分片 MP4 写入，只支持单个 H.264 视频轨道
+ */
+public class FragmentedSampleMuxer implements SampleMuxer {
+    /**
+     * 所有分片写入器共用的 I/O 线程，执行 force() 和预分配，不占用编码输出线程
+     */
+    private static final ExecutorService IO_EXECUTOR = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "FragmentedMp4-IO");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final FragmentedMp4Writer writer;
+    private boolean trackAdded = false;
+
+    /**
+     * @param filePath 输出文件路径
+     * @param keyFramesPerFragment 每个分片包含的关键帧数
+     */
+    public FragmentedSampleMuxer(String filePath, int keyFramesPerFragment) {
+        writer = new FragmentedMp4Writer(new File(filePath), keyFramesPerFragment,
+                FragmentedMp4Writer.DEFAULT_PREALLOCATE_BYTES, true, IO_EXECUTOR);
+    }
+
+    @Override
+    public int addTrack(MediaFormat format) {
+        if (trackAdded) {
+            throw new IllegalStateException("Fragmented MP4 muxer supports a single video track");
+        }
+        ByteBuffer sps = format.getByteBuffer("csd-0");
+        ByteBuffer pps = format.getByteBuffer("csd-1");
+        if (sps == null || pps == null) {
+            throw new IllegalStateException("Output format has no csd-0/csd-1");
+        }
+        writer.configure(format.getInteger(MediaFormat.KEY_WIDTH), format.getInteger(MediaFormat.KEY_HEIGHT), sps, pps);
+        trackAdded = true;
+        return 0;
+    }
+
+    @Override
+    public void start() {
+        try {
+            writer.start();
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to start fragmented MP4 writer", e);
+        }
+    }
+
+    @Override
+    public void writeSampleData(int trackIndex, ByteBuffer data, MediaCodec.BufferInfo info) {
+        try {
+            writer.writeSample(data, info.presentationTimeUs, (info.flags & MediaCodec.BUFFER_FLAG_KEY_FRAME) != 0);
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to write fragment", e);
+        }
+    }
+
+    @Override
+    public void stop() {
+        try {
+            writer.finish();
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to finish fragmented MP4", e);
+        }
+    }
+
+    /**
+     * 已写入磁盘的有效字节数（不含预分配空间）
+     */
+    public long getWrittenBytes() {
+        return writer.getWrittenBytes();
+    }
+
+    @Override
+    public void release() {
+        writer.closeQuietly();
+    }
+}
@@ -0,0 +1,69 @@
+package com.kooo.evcam.camera;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * 延迟采样统计
+ * 保留最近 N 个延迟样本（纳秒），按需计算分位数
+ * record() 不分配对象；percentile()/toString() 会复制并排序样本，只在输出统计时调用
+ * 非线程安全，只在写入线程上记录
+ */
+class LatencyRecorder {
+    private final long[] samples;
+    private int count = 0;   // 已记录的总数（可能超过容量）
+    private long maxNs = 0;
+
+    LatencyRecorder(int capacity) {
+        samples = new long[capacity];
+    }
+
+    void record(long latencyNs) {
+        if (latencyNs < 0) {
+            return;
+        }
+        samples[count % samples.length] = latencyNs;
+        count++;
+        if (latencyNs > maxNs) {
+            maxNs = latencyNs;
+        }
+    }
+
+    int getCount() {
+        return count;
+    }
+
+    long getMaxNs() {
+        return maxNs;
+    }
+
+    /**
+     * 计算最近样本的分位数
+     * @param percentile 0-100
+     * @return 延迟（纳秒），没有样本时返回 -1
+     */
+    long percentile(double percentile) {
+        int size = Math.min(count, samples.length);
+        if (size == 0) {
+            return -1;
+        }
+        long[] sorted = Arrays.copyOf(samples, size);
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percentile / 100.0 * size) - 1;
+        return sorted[Math.max(0, Math.min(size - 1, index))];
+    }
+
+    void reset() {
+        count = 0;
+        maxNs = 0;
+    }
+
+    @Override
+    public String toString() {
+        if (count == 0) {
+            return "n=0";
+        }
+        return String.format(Locale.US, "n=%d p50=%.1fms p90=%.1fms p99=%.1fms max=%.1fms",
+                count, percentile(50) / 1e6, percentile(90) / 1e6, percentile(99) / 1e6, maxNs / 1e6);
+    }
+}
@@ -0,0 +1,1250 @@
+package com.kooo.evcam.camera;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 截断 MP4 修复引擎
+ *
+ * 录制中断电时 MediaMuxer / MediaRecorder 只写了 mdat，没有写 moov，文件无法播放。
+ * 本引擎以内存映射方式扫描 mdat 中的 H.264 NAL 单元（AVCC 长度前缀或 4 字节起始码的 Annex-B），
+ * 按访问单元重建样本表，使用同一摄像头健康分段中的 avcC（SPS/PPS）生成 moov，
+ * 并原地写入文件（优先写入 mdat 前预留的 free 空间，否则追加到有效数据之后），不复制样本数据。
+ *
+ * 对分片 MP4（FragmentedMp4Writer 写入）只需截掉末尾的预分配 free 空间和不完整的分片。
+ *
+ * 不依赖 Android API，可在 JVM 上直接测试。
+ */
+public class Mp4RecoveryEngine {
+
+    private static final long MAP_WINDOW_BYTES = 32L * 1024 * 1024;  // 内存映射窗口大小
+    private static final int TIMESCALE = 90000;
+    private static final long DEFAULT_SAMPLE_DURATION_US = 33333;  // 无法从健康分段获取时按 30fps
+    private static final int MAX_MOOV_BYTES = 16 * 1024 * 1024;
+    private static final int MAX_MOOF_BYTES = 1024 * 1024;
+    private static final int SAMPLE_IS_NON_SYNC = 0x00010000;  // 样本标志中的 sample_is_non_sync_sample
+
+    /**
+     * 修复结果状态
+     */
+    public enum Status {
+        HEALTHY,        // 文件完整，无需修复
+        REPAIRED,       // 已重建 moov
+        TRIMMED,        // 分片 MP4，已截掉不完整的尾部
+        NO_CONFIG,      // 缺少可用的 SPS/PPS（没有健康的同摄像头分段）
+        UNRECOVERABLE   // 没有可恢复的样本
+    }
+
+    /**
+     * 视频轨道配置（来自健康分段）
+     */
+    public static class TrackConfig {
+        public final byte[] avcC;     // avcC box 内容（不含 box 头）
+        public final int width;
+        public final int height;
+        public final long sampleDurationUs;
+
+        public TrackConfig(byte[] avcC, int width, int height, long sampleDurationUs) {
+            this.avcC = avcC;
+            this.width = width;
+            this.height = height;
+            this.sampleDurationUs = sampleDurationUs > 0 ? sampleDurationUs : DEFAULT_SAMPLE_DURATION_US;
+        }
+    }
+
+    /**
+     * 修复结果
+     */
+    public static class Result {
+        public Status status;
+        public int sampleCount;
+        public int keyFrameCount;
+        public long bytesScanned;
+        public long elapsedNanos;
+        public String message;
+
+        /**
+         * 扫描吞吐量（MB/s）
+         */
+        public double getScanMBps() {
+            if (elapsedNanos <= 0) {
+                return 0;
+            }
+            return (bytesScanned / (1024.0 * 1024.0)) / (elapsedNanos / 1e9);
+        }
+
+        @Override
+        public String toString() {
+            return status + " samples=" + sampleCount + " keyFrames=" + keyFrameCount
+                    + " scanned=" + bytesScanned + "B in " + (elapsedNanos / 1000000) + "ms ("
+                    + String.format(java.util.Locale.US, "%.1f", getScanMBps()) + " MB/s)"
+                    + (message != null ? " " + message : "");
+        }
+    }
+
+    /**
+     * 分段元数据
+     */
+    public static class SegmentInfo {
+        public final long durationMs;
+        public final int width;
+        public final int height;
+        public final String codec;        // 样本描述类型，如 "avc1"、"hvc1"
+        public final int keyFrameCount;
+        public final KeyFrameIndex keyFrames;  // 样本表不完整时为 null
+
+        public SegmentInfo(long durationMs, int width, int height, String codec, int keyFrameCount,
+                           KeyFrameIndex keyFrames) {
+            this.durationMs = durationMs;
+            this.width = width;
+            this.height = height;
+            this.codec = codec;
+            this.keyFrameCount = keyFrameCount;
+            this.keyFrames = keyFrames;
+        }
+
+        @Override
+        public String toString() {
+            return codec + " " + width + "x" + height + " " + durationMs + "ms keyFrames=" + keyFrameCount;
+        }
+    }
+
+    /**
+     * 关键帧索引：每个关键帧的时间（从分段开始计）和样本在文件中的字节偏移，按时间升序
+     * 编码为变长整数的差值序列，5 分钟 1 秒 GOP 的分段约 1KB
+     */
+    public static class KeyFrameIndex {
+        private final long[] timesUs;
+        private final long[] offsets;
+
+        public KeyFrameIndex(long[] timesUs, long[] offsets) {
+            this.timesUs = timesUs;
+            this.offsets = offsets;
+        }
+
+        public int size() {
+            return timesUs.length;
+        }
+
+        public long getTimeUs(int i) {
+            return timesUs[i];
+        }
+
+        public long getOffset(int i) {
+            return offsets[i];
+        }
+
+        /**
+         * 不晚于 timeUs 的最后一个关键帧
+         * @return 序号，早于第一个关键帧时返回 0，索引为空时返回 -1
+         */
+        public int floorIndex(long timeUs) {
+            if (timesUs.length == 0) {
+                return -1;
+            }
+            int i = Arrays.binarySearch(timesUs, timeUs);
+            if (i >= 0) {
+                return i;
+            }
+            return Math.max(0, -i - 2);
+        }
+
+        /**
+         * 与 timeUs 最近的关键帧
+         * @return 序号，索引为空时返回 -1
+         */
+        public int nearestIndex(long timeUs) {
+            int floor = floorIndex(timeUs);
+            if (floor < 0 || floor + 1 >= timesUs.length) {
+                return floor;
+            }
+            return timeUs - timesUs[floor] <= timesUs[floor + 1] - timeUs ? floor : floor + 1;
+        }
+
+        /**
+         * 编码：关键帧数 + 每个关键帧的（时间差, 偏移差），均为无符号变长整数
+         */
+        public byte[] encode() {
+            ByteBuffer buf = ByteBuffer.allocate(5 + timesUs.length * 20);
+            putVarint(buf, timesUs.length);
+            long lastTime = 0;
+            long lastOffset = 0;
+            for (int i = 0; i < timesUs.length; i++) {
+                putVarint(buf, timesUs[i] - lastTime);
+                putVarint(buf, offsets[i] - lastOffset);
+                lastTime = timesUs[i];
+                lastOffset = offsets[i];
+            }
+            return Arrays.copyOf(buf.array(), buf.position());
+        }
+
+        /**
+         * 解码 encode() 的结果
+         * @return 索引，数据损坏时返回 null
+         */
+        public static KeyFrameIndex decode(byte[] data) {
+            try {
+                ByteBuffer buf = ByteBuffer.wrap(data);
+                int count = (int) getVarint(buf);
+                if (count < 0 || count > data.length) {
+                    return null;
+                }
+                long[] times = new long[count];
+                long[] offsets = new long[count];
+                long time = 0;
+                long offset = 0;
+                for (int i = 0; i < count; i++) {
+                    time += getVarint(buf);
+                    offset += getVarint(buf);
+                    times[i] = time;
+                    offsets[i] = offset;
+                }
+                return new KeyFrameIndex(times, offsets);
+            } catch (java.nio.BufferUnderflowException e) {
+                return null;
+            }
+        }
+
+        private static void putVarint(ByteBuffer buf, long value) {
+            while ((value & ~0x7FL) != 0) {
+                buf.put((byte) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            buf.put((byte) value);
+        }
+
+        private static long getVarint(ByteBuffer buf) {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                byte b = buf.get();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            return value;
+        }
+    }
+
+    /**
+     * 顶层 box 描述
+     */
+    private static class Box {
+        final String type;
+        final long offset;
+        final int headerSize;
+        final long size;         // 实际可用大小（截断的 box 为到文件末尾的长度）
+        final boolean truncated; // 声明大小超出文件末尾，或大小为 0（到文件末尾）
+
+        Box(String type, long offset, int headerSize, long size, boolean truncated) {
+            this.type = type;
+            this.offset = offset;
+            this.headerSize = headerSize;
+            this.size = size;
+            this.truncated = truncated;
+        }
+
+        long end() {
+            return offset + size;
+        }
+    }
+
+    /**
+     * 快速检查文件是否需要修复（只读取顶层 box 头）
+     */
+    public static boolean needsRepair(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            List<Box> boxes = readTopLevelBoxes(raf.getChannel());
+            Box moov = find(boxes, "moov");
+            if (moov == null || moov.truncated) {
+                return find(boxes, "mdat") != null;
+            }
+            return isFragmented(boxes) && fragmentedValidLength(boxes) < raf.length();
+        }
+    }
+
+    /**
+     * 从健康分段读取视频轨道配置
+     * @return 配置，文件不完整或不是 H.264 视频时返回 null
+     */
+    public static TrackConfig readTrackConfig(File healthyFile) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(healthyFile, "r")) {
+            FileChannel channel = raf.getChannel();
+            Box moov = find(readTopLevelBoxes(channel), "moov");
+            if (moov == null || moov.truncated || moov.size > 16 * 1024 * 1024) {
+                return null;
+            }
+            ByteBuffer buf = ByteBuffer.allocate((int) moov.size);
+            channel.read(buf, moov.offset);
+            buf.flip();
+
+            int[] trak = findChild(buf, moov.headerSize, buf.limit(), "trak");
+            int[] mdia = trak == null ? null : findChild(buf, trak[0] + 8, trak[0] + trak[1], "mdia");
+            int[] mdhd = mdia == null ? null : findChild(buf, mdia[0] + 8, mdia[0] + mdia[1], "mdhd");
+            int[] minf = mdia == null ? null : findChild(buf, mdia[0] + 8, mdia[0] + mdia[1], "minf");
+            int[] stbl = minf == null ? null : findChild(buf, minf[0] + 8, minf[0] + minf[1], "stbl");
+            int[] stsd = stbl == null ? null : findChild(buf, stbl[0] + 8, stbl[0] + stbl[1], "stsd");
+            int[] stsz = stbl == null ? null : findChild(buf, stbl[0] + 8, stbl[0] + stbl[1], "stsz");
+            if (stsd == null) {
+                return null;
+            }
+            // stsd: 8 头 + 4 version/flags + 4 entry_count，之后为第一个样本描述
+            int[] avc1 = findChild(buf, stsd[0] + 16, stsd[0] + stsd[1], "avc1");
+            if (avc1 == null) {
+                return null;
+            }
+            int width = buf.getShort(avc1[0] + 8 + 24) & 0xFFFF;
+            int height = buf.getShort(avc1[0] + 8 + 26) & 0xFFFF;
+            int[] avcC = findChild(buf, avc1[0] + 8 + 78, avc1[0] + avc1[1], "avcC");
+            if (avcC == null) {
+                return null;
+            }
+            byte[] avcCData = new byte[avcC[1] - 8];
+            ByteBuffer src = buf.duplicate();
+            src.position(avcC[0] + 8);
+            src.get(avcCData);
+
+            long sampleDurationUs = 0;
+            if (mdhd != null && stsz != null) {
+                int version = buf.get(mdhd[0] + 8) & 0xFF;
+                long timescale;
+                long duration;
+                if (version == 1) {
+                    timescale = buf.getInt(mdhd[0] + 8 + 4 + 16) & 0xFFFFFFFFL;
+                    duration = buf.getLong(mdhd[0] + 8 + 4 + 20);
+                } else {
+                    timescale = buf.getInt(mdhd[0] + 8 + 4 + 8) & 0xFFFFFFFFL;
+                    duration = buf.getInt(mdhd[0] + 8 + 4 + 12) & 0xFFFFFFFFL;
+                }
+                long sampleCount = buf.getInt(stsz[0] + 8 + 8) & 0xFFFFFFFFL;
+                if (timescale > 0 && sampleCount > 0) {
+                    sampleDurationUs = duration * 1000000L / timescale / sampleCount;
+                }
+            }
+            return new TrackConfig(avcCData, width, height, sampleDurationUs);
+        }
+    }
+
+    /**
+     * 读取完整分段的元数据：时长、分辨率、编码格式、关键帧数和关键帧索引
+     * 只读取顶层 box 头、moov 和分片 MP4 的 moof（样本表），不读取样本数据
+     * @return 元数据，文件不完整或没有视频轨道时返回 null
+     */
+    public static SegmentInfo readSegmentInfo(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            FileChannel channel = raf.getChannel();
+            List<Box> boxes = readTopLevelBoxes(channel);
+            Box moovBox = find(boxes, "moov");
+            if (moovBox == null || moovBox.truncated || moovBox.size > MAX_MOOV_BYTES) {
+                return null;
+            }
+            ByteBuffer moov = readBox(channel, moovBox);
+
+            // 第一个视频轨道（hdlr 类型为 vide）
+            int[] trak = null;
+            int[] mdia = null;
+            int searchFrom = moovBox.headerSize;
+            while ((trak = findChild(moov, searchFrom, moov.limit(), "trak")) != null) {
+                mdia = findChild(moov, trak[0] + 8, trak[0] + trak[1], "mdia");
+                int[] hdlr = mdia == null ? null : findChild(moov, mdia[0] + 8, mdia[0] + mdia[1], "hdlr");
+                // hdlr: 8 头 + 4 version/flags + 4 pre_defined，之后为 handler_type
+                if (hdlr != null && hdlr[1] >= 20 && isType(moov, hdlr[0] + 16, "vide")) {
+                    break;
+                }
+                searchFrom = trak[0] + trak[1];
+            }
+            if (trak == null) {
+                return null;
+            }
+            int[] tkhd = findChild(moov, trak[0] + 8, trak[0] + trak[1], "tkhd");
+            int[] mdhd = findChild(moov, mdia[0] + 8, mdia[0] + mdia[1], "mdhd");
+            int[] minf = findChild(moov, mdia[0] + 8, mdia[0] + mdia[1], "minf");
+            int[] stbl = minf == null ? null : findChild(moov, minf[0] + 8, minf[0] + minf[1], "stbl");
+            int[] stsd = stbl == null ? null : findChild(moov, stbl[0] + 8, stbl[0] + stbl[1], "stsd");
+            if (tkhd == null || mdhd == null || stsd == null || stsd[1] < 16 + 8 + 28) {
+                return null;
+            }
+            int trackId = moov.getInt(tkhd[0] + 8 + 4 + ((moov.get(tkhd[0] + 8) & 0xFF) == 1 ? 16 : 8));
+            long timescale;
+            long duration;
+            if ((moov.get(mdhd[0] + 8) & 0xFF) == 1) {
+                timescale = moov.getInt(mdhd[0] + 8 + 4 + 16) & 0xFFFFFFFFL;
+                duration = moov.getLong(mdhd[0] + 8 + 4 + 20);
+            } else {
+                timescale = moov.getInt(mdhd[0] + 8 + 4 + 8) & 0xFFFFFFFFL;
+                duration = moov.getInt(mdhd[0] + 8 + 4 + 12) & 0xFFFFFFFFL;
+            }
+
+            // stsd 的第一个样本描述：类型即编码格式，宽高位于 VisualSampleEntry 的固定位置
+            int entry = stsd[0] + 16;
+            String codec = new String(new byte[]{moov.get(entry + 4), moov.get(entry + 5), moov.get(entry + 6),
+                    moov.get(entry + 7)}, StandardCharsets.US_ASCII);
+            int width = moov.getShort(entry + 8 + 24) & 0xFFFF;
+            int height = moov.getShort(entry + 8 + 26) & 0xFFFF;
+
+            // 普通 MP4：stss 条目数即关键帧数，没有 stss 时所有样本都是关键帧
+            long keyFrames = 0;
+            int[] stss = findChild(moov, stbl[0] + 8, stbl[0] + stbl[1], "stss");
+            int[] stsz = findChild(moov, stbl[0] + 8, stbl[0] + stbl[1], "stsz");
+            if (stss != null) {
+                keyFrames = moov.getInt(stss[0] + 8 + 4) & 0xFFFFFFFFL;
+            } else if (stsz != null) {
+                keyFrames = moov.getInt(stsz[0] + 8 + 8) & 0xFFFFFFFFL;
+            }
+            FragmentScan scan = new FragmentScan();
+            boolean indexComplete = readKeyFrameTable(moov, stbl, timescale, scan);
+
+            // 分片 MP4：样本在各 moof 的 trun 中，按样本标志统计关键帧并累计时长
+            int[] mvex = findChild(moov, moovBox.headerSize, moov.limit(), "mvex");
+            if (mvex != null) {
+                int[] defaults = readTrexDefaults(moov, mvex, trackId);
+                scan.timescale = timescale;
+                for (Box box : boxes) {
+                    if (box.type.equals("moof") && !box.truncated && box.size <= MAX_MOOF_BYTES) {
+                        scanFragment(readBox(channel, box), box, trackId, defaults, scan);
+                    }
+                }
+                keyFrames += scan.keyFrames;
+                if (duration == 0) {
+                    duration = scan.duration;
+                }
+                indexComplete = true;
+            }
+
+            long durationMs = timescale > 0 ? duration * 1000 / timescale : 0;
+            KeyFrameIndex index = indexComplete
+                    ? new KeyFrameIndex(Arrays.copyOf(scan.keyTimesUs.values, scan.keyTimesUs.size),
+                    Arrays.copyOf(scan.keyOffsets.values, scan.keyOffsets.size))
+                    : null;
+            return new SegmentInfo(durationMs, width, height, codec, (int) Math.min(keyFrames, Integer.MAX_VALUE), index);
+        }
+    }
+
+    /**
+     * 从普通 MP4 的样本表（stts / stsz / stsc / stco 或 co64 / stss）计算关键帧的时间和字节偏移
+     * 分片 MP4 的 moov 中样本表为空，直接返回 true
+     * @return 样本表完整时返回 true
+     */
+    private static boolean readKeyFrameTable(ByteBuffer moov, int[] stbl, long timescale, FragmentScan scan) {
+        int from = stbl[0] + 8;
+        int to = stbl[0] + stbl[1];
+        int[] stts = findChild(moov, from, to, "stts");
+        int[] stsz = findChild(moov, from, to, "stsz");
+        int[] stsc = findChild(moov, from, to, "stsc");
+        int[] stco = findChild(moov, from, to, "stco");
+        int[] co64 = stco == null ? findChild(moov, from, to, "co64") : null;
+        int[] stss = findChild(moov, from, to, "stss");
+        if (stts == null || stsz == null || stsc == null || (stco == null && co64 == null) || timescale <= 0) {
+            return false;
+        }
+        int sampleCount = moov.getInt(stsz[0] + 16);
+        if (sampleCount <= 0) {
+            return true;
+        }
+        int defaultSize = moov.getInt(stsz[0] + 12);
+        int sttsCount = moov.getInt(stts[0] + 12);
+        int stscCount = moov.getInt(stsc[0] + 12);
+        int[] chunkBox = stco != null ? stco : co64;
+        int chunkCount = moov.getInt(chunkBox[0] + 12);
+        int keyCount = stss != null ? moov.getInt(stss[0] + 12) : sampleCount;
+        if (stscCount <= 0 || chunkCount <= 0
+                || stts[0] + 16 + (long) sttsCount * 8 > to
+                || stsc[0] + 16 + (long) stscCount * 12 > to
+                || chunkBox[0] + 16 + (long) chunkCount * (stco != null ? 4 : 8) > to
+                || (defaultSize == 0 && stsz[0] + 20 + (long) sampleCount * 4 > to)
+                || (stss != null && stss[0] + 16 + (long) keyCount * 4 > to)) {
+            return false;
+        }
+
+        int sttsEntry = 0;
+        long sttsRemaining = sttsCount > 0 ? moov.getInt(stts[0] + 16) & 0xFFFFFFFFL : 0;
+        long decodeTime = 0;
+        int stscEntry = 0;
+        int keyEntry = 0;
+        long nextKey = stss != null && keyCount > 0 ? moov.getInt(stss[0] + 16) & 0xFFFFFFFFL : 1;
+        int sample = 1;  // 样本序号从 1 开始
+        for (int chunk = 1; chunk <= chunkCount && sample <= sampleCount; chunk++) {
+            while (stscEntry + 1 < stscCount && (moov.getInt(stsc[0] + 16 + (stscEntry + 1) * 12) & 0xFFFFFFFFL) <= chunk) {
+                stscEntry++;
+            }
+            long samplesInChunk = moov.getInt(stsc[0] + 16 + stscEntry * 12 + 4) & 0xFFFFFFFFL;
+            long offset = stco != null
+                    ? moov.getInt(stco[0] + 16 + (chunk - 1) * 4) & 0xFFFFFFFFL
+                    : moov.getLong(co64[0] + 16 + (chunk - 1) * 8);
+            for (long i = 0; i < samplesInChunk && sample <= sampleCount; i++, sample++) {
+                if (sample == nextKey) {
+                    scan.keyTimesUs.add(decodeTime * 1000000L / timescale);
+                    scan.keyOffsets.add(offset);
+                    keyEntry++;
+                    nextKey = stss == null ? sample + 1
+                            : keyEntry < keyCount ? moov.getInt(stss[0] + 16 + keyEntry * 4) & 0xFFFFFFFFL : -1;
+                }
+                offset += defaultSize != 0 ? defaultSize : moov.getInt(stsz[0] + 20 + (sample - 1) * 4) & 0xFFFFFFFFL;
+                // stts：样本时长按（样本数, 时长）游程编码
+                while (sttsRemaining == 0 && sttsEntry + 1 < sttsCount) {
+                    sttsEntry++;
+                    sttsRemaining = moov.getInt(stts[0] + 16 + sttsEntry * 8) & 0xFFFFFFFFL;
+                }
+                if (sttsRemaining > 0) {
+                    decodeTime += moov.getInt(stts[0] + 16 + sttsEntry * 8 + 4) & 0xFFFFFFFFL;
+                    sttsRemaining--;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 修复文件
+     * @param file 待修复文件
+     * @param config 同摄像头健康分段的轨道配置（可为 null，此时非分片文件返回 NO_CONFIG）
+     */
+    public Result repair(File file, TrackConfig config) throws IOException {
+        Result result = new Result();
+        long startNs = System.nanoTime();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            FileChannel channel = raf.getChannel();
+            long fileLength = channel.size();
+            List<Box> boxes = readTopLevelBoxes(channel);
+            Box moov = find(boxes, "moov");
+
+            if (moov != null && !moov.truncated) {
+                if (isFragmented(boxes)) {
+                    long validLength = fragmentedValidLength(boxes);
+                    if (validLength < fileLength) {
+                        raf.setLength(validLength);
+                        channel.force(true);
+                        result.status = Status.TRIMMED;
+                        result.message = "trimmed " + (fileLength - validLength) + " bytes";
+                        return result;
+                    }
+                }
+                result.status = Status.HEALTHY;
+                return result;
+            }
+
+            Box mdat = find(boxes, "mdat");
+            if (mdat == null) {
+                result.status = Status.UNRECOVERABLE;
+                result.message = "no mdat";
+                return result;
+            }
+            if (config == null) {
+                result.status = Status.NO_CONFIG;
+                return result;
+            }
+
+            long payloadStart = mdat.offset + mdat.headerSize;
+            long payloadLimit = mdat.truncated ? fileLength : mdat.end();
+            MappedReader reader = new MappedReader(channel, fileLength);
+            SampleTable table = new SampleTable();
+            long payloadEnd;
+            boolean annexB = reader.isAnnexBStartCode(payloadStart, payloadLimit);
+            LongArray nalStarts = null;
+            if (annexB) {
+                nalStarts = new LongArray();
+                payloadEnd = scanAnnexB(reader, payloadStart, payloadLimit, table, nalStarts);
+            } else {
+                payloadEnd = scanAvcc(reader, payloadStart, payloadLimit, table);
+            }
+            reader.release();
+            result.bytesScanned = payloadEnd - payloadStart;
+            result.sampleCount = table.count;
+            result.keyFrameCount = table.keyFrameCount;
+
+            if (table.count == 0) {
+                result.status = Status.UNRECOVERABLE;
+                result.message = "no complete access unit";
+                return result;
+            }
+
+            long mdatSize = payloadEnd - mdat.offset;
+            if (mdat.headerSize == 8 && mdatSize > 0xFFFFFFFFL) {
+                result.status = Status.UNRECOVERABLE;
+                result.message = "mdat exceeds 32-bit size";
+                return result;
+            }
+
+            // 确认可以修复后才改动文件：起始码改写为长度前缀
+            if (annexB) {
+                rewriteStartCodes(channel, nalStarts, payloadEnd);
+            }
+
+            ByteBuffer moovData = buildMoov(config, table, payloadStart);
+            int moovSize = moovData.remaining();  // 缓冲区容量大于实际写入的 moov
+
+            // 优先写入 mdat 之前预留的 free 空间（MediaMuxer 会预留），否则追加到有效数据之后
+            Box reserved = findReservedFree(boxes, mdat, moovSize);
+            long newLength;
+            if (reserved != null) {
+                writeFully(channel, moovData, reserved.offset);
+                long leftover = reserved.size - moovSize;
+                if (leftover >= 8) {
+                    ByteBuffer free = ByteBuffer.allocate(8);
+                    free.putInt((int) leftover).put(ascii("free")).flip();
+                    writeFully(channel, free, reserved.offset + moovSize);
+                }
+                newLength = payloadEnd;
+            } else {
+                writeFully(channel, moovData, payloadEnd);
+                newLength = payloadEnd + moovSize;
+            }
+            channel.force(false);
+
+            // 最后更新 mdat 大小，之前的任何中断都不会破坏原始数据
+            ByteBuffer header;
+            if (mdat.headerSize == 16) {
+                header = ByteBuffer.allocate(16);
+                header.putInt(1).put(ascii("mdat")).putLong(mdatSize);
+            } else {
+                header = ByteBuffer.allocate(8);
+                header.putInt((int) mdatSize).put(ascii("mdat"));
+            }
+            header.flip();
+            writeFully(channel, header, mdat.offset);
+            raf.setLength(newLength);
+            channel.force(true);
+
+            result.status = Status.REPAIRED;
+            if (annexB) {
+                result.message = "converted Annex-B start codes in place";
+            }
+            return result;
+        } finally {
+            result.elapsedNanos = System.nanoTime() - startNs;
+        }
+    }
+
+    // ===== 样本扫描 =====
+
+    /**
+     * 扫描 AVCC（4 字节长度前缀）格式的 mdat
+     * 每个 NAL 只读取长度和头部两个字节，然后直接跳过数据
+     * @return 最后一个完整访问单元的结束位置
+     */
+    private static long scanAvcc(MappedReader reader, long start, long limit, SampleTable table) {
+        long pos = start;
+        AccessUnitBuilder au = new AccessUnitBuilder(table, start);
+        while (pos + 5 <= limit) {
+            long length = reader.getInt(pos) & 0xFFFFFFFFL;
+            if (length == 0 || pos + 4 + length > limit) {
+                break;  // 截断或无效数据
+            }
+            int header = reader.get(pos + 4) & 0xFF;
+            if ((header & 0x80) != 0) {
+                break;  // forbidden_zero_bit
+            }
+            int type = header & 0x1F;
+            if (type == 0 || type > 23) {
+                break;
+            }
+            boolean firstSlice = length >= 2 && (reader.get(pos + 5) & 0x80) != 0;  // first_mb_in_slice == 0
+            au.onNal(pos, type, firstSlice);
+            pos += 4 + length;
+            au.nalEnd = pos;
+        }
+        return au.finish();
+    }
+
+    /**
+     * 扫描 Annex-B 格式的 mdat（只识别 4 字节起始码），只读不改写；起始码由 rewriteStartCodes 改写
+     * 最后一个 NAL 的完整性无法确定，丢弃
+     * @param nalStarts 输出各 NAL 起始码的位置
+     * @return 最后一个完整访问单元的结束位置
+     */
+    private static long scanAnnexB(MappedReader reader, long start, long limit,
+                                   SampleTable table, LongArray nalStarts) {
+        long pos = start;
+        while (pos + 4 <= limit) {
+            if (reader.get(pos + 2) > 1) {
+                pos += 3;  // 第 3 字节大于 1 时，起始码不可能覆盖 pos..pos+2
+                continue;
+            }
+            if (reader.get(pos) == 0 && reader.get(pos + 1) == 0 && reader.get(pos + 2) == 0
+                    && reader.get(pos + 3) == 1) {
+                nalStarts.add(pos);
+                pos += 4;
+            } else {
+                pos++;
+            }
+        }
+
+        AccessUnitBuilder au = new AccessUnitBuilder(table, start);
+        for (int i = 0; i + 1 < nalStarts.size; i++) {
+            long nalPos = nalStarts.values[i];
+            long nextPos = nalStarts.values[i + 1];
+            long length = nextPos - nalPos - 4;
+            if (length <= 0) {
+                continue;
+            }
+            int header = reader.get(nalPos + 4) & 0xFF;
+            int type = header & 0x1F;
+            boolean firstSlice = length >= 2 && (reader.get(nalPos + 5) & 0x80) != 0;
+            au.onNal(nalPos, type, firstSlice);
+            au.nalEnd = nextPos;
+        }
+        return au.finish();
+    }
+
+    /**
+     * 将有效数据范围内的 4 字节起始码原地改写为 NAL 长度
+     * @param end 最后一个完整访问单元的结束位置，之后的 NAL 会被截掉，不改写
+     */
+    private static void rewriteStartCodes(FileChannel channel, LongArray nalStarts, long end) throws IOException {
+        ByteBuffer lengthBuffer = ByteBuffer.allocate(4);
+        for (int i = 0; i + 1 < nalStarts.size; i++) {
+            long nalPos = nalStarts.values[i];
+            long nextPos = nalStarts.values[i + 1];
+            if (nextPos > end) {
+                break;
+            }
+            long length = nextPos - nalPos - 4;
+            if (length <= 0) {
+                continue;
+            }
+            lengthBuffer.clear();
+            lengthBuffer.putInt((int) length).flip();
+            writeFully(channel, lengthBuffer, nalPos);
+        }
+    }
+
+    /**
+     * 按 H.264 访问单元边界规则将 NAL 组合为样本
+     */
+    private static class AccessUnitBuilder {
+        private final SampleTable table;
+        private long auStart;
+        private boolean hasVcl = false;
+        private boolean isKey = false;
+        private long committedEnd;
+        long nalEnd;
+
+        AccessUnitBuilder(SampleTable table, long start) {
+            this.table = table;
+            this.auStart = start;
+            this.committedEnd = start;
+            this.nalEnd = start;
+        }
+
+        void onNal(long nalPos, int type, boolean firstSlice) {
+            boolean vcl = type >= 1 && type <= 5;
+            boolean startsNewAu = (type == 6 || type == 7 || type == 8 || type == 9 || (type >= 14 && type <= 18))
+                    || (vcl && firstSlice);
+            if (hasVcl && startsNewAu) {
+                commit(nalPos);
+            }
+            if (vcl) {
+                hasVcl = true;
+                if (type == 5) {
+                    isKey = true;
+                }
+            }
+        }
+
+        private void commit(long end) {
+            table.add((int) (end - auStart), isKey);
+            committedEnd = end;
+            auStart = end;
+            hasVcl = false;
+            isKey = false;
+        }
+
+        long finish() {
+            if (hasVcl) {
+                commit(nalEnd);
+            }
+            return committedEnd;
+        }
+    }
+
+    /**
+     * 重建的样本表（所有样本在 mdat 中连续存放，作为一个 chunk）
+     */
+    private static class SampleTable {
+        int[] sizes = new int[4096];
+        int[] keyFrames = new int[256];  // 关键帧的样本序号（从 1 开始）
+        int count = 0;
+        int keyFrameCount = 0;
+
+        void add(int size, boolean key) {
+            if (count == sizes.length) {
+                sizes = Arrays.copyOf(sizes, count * 2);
+            }
+            sizes[count++] = size;
+            if (key) {
+                if (keyFrameCount == keyFrames.length) {
+                    keyFrames = Arrays.copyOf(keyFrames, keyFrameCount * 2);
+                }
+                keyFrames[keyFrameCount++] = count;
+            }
+        }
+    }
+
+    private static class LongArray {
+        long[] values = new long[4096];
+        int size = 0;
+
+        void add(long value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+    }
+
+    /**
+     * 以固定窗口内存映射文件并按绝对位置读取
+     */
+    private static class MappedReader {
+        private final FileChannel channel;
+        private final long fileLength;
+        private MappedByteBuffer window;
+        private long windowStart = -1;
+        private long windowEnd = -1;
+
+        MappedReader(FileChannel channel, long fileLength) {
+            this.channel = channel;
+            this.fileLength = fileLength;
+        }
+
+        byte get(long position) {
+            if (position < windowStart || position >= windowEnd) {
+                map(position);
+            }
+            return window.get((int) (position - windowStart));
+        }
+
+        int getInt(long position) {
+            if (position >= windowStart && position + 4 <= windowEnd) {
+                return window.getInt((int) (position - windowStart));
+            }
+            return ((get(position) & 0xFF) << 24) | ((get(position + 1) & 0xFF) << 16)
+                    | ((get(position + 2) & 0xFF) << 8) | (get(position + 3) & 0xFF);
+        }
+
+        boolean isAnnexBStartCode(long position, long limit) {
+            return position + 4 <= limit && get(position) == 0 && get(position + 1) == 0
+                    && get(position + 2) == 0 && get(position + 3) == 1;
+        }
+
+        private void map(long position) {
+            long start = (position / MAP_WINDOW_BYTES) * MAP_WINDOW_BYTES;
+            long length = Math.min(MAP_WINDOW_BYTES, fileLength - start);
+            try {
+                window = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+            } catch (IOException e) {
+                throw new IllegalStateException("Failed to map file at " + start, e);
+            }
+            windowStart = start;
+            windowEnd = start + length;
+        }
+
+        void release() {
+            window = null;
+            windowStart = -1;
+            windowEnd = -1;
+        }
+    }
+
+    // ===== moov 构建 =====
+
+    private static ByteBuffer buildMoov(TrackConfig config, SampleTable table, long chunkOffset) {
+        long sampleDelta = Math.max(1, config.sampleDurationUs * TIMESCALE / 1000000L);
+        long mediaDuration = sampleDelta * table.count;
+        long movieDuration = mediaDuration * 1000 / TIMESCALE;
+        boolean use64BitOffset = chunkOffset > 0xFFFFFFFFL;
+
+        int capacity = 1024 + config.avcC.length + table.count * 4 + table.keyFrameCount * 4;
+        BoxBuilder b = new BoxBuilder(capacity);
+
+        b.begin("moov");
+
+        b.beginFull("mvhd", 0, 0);
+        b.buf.putInt(0).putInt(0).putInt(1000).putInt((int) movieDuration);
+        b.buf.putInt(0x00010000).putShort((short) 0x0100).putShort((short) 0).putInt(0).putInt(0);
+        putUnityMatrix(b.buf);
+        for (int i = 0; i < 6; i++) {
+            b.buf.putInt(0);
+        }
+        b.buf.putInt(2);
+        b.end();
+
+        b.begin("trak");
+        b.beginFull("tkhd", 0, 0x000003);
+        b.buf.putInt(0).putInt(0).putInt(1).putInt(0).putInt((int) movieDuration);
+        b.buf.putInt(0).putInt(0).putShort((short) 0).putShort((short) 0).putShort((short) 0).putShort((short) 0);
+        putUnityMatrix(b.buf);
+        b.buf.putInt(config.width << 16).putInt(config.height << 16);
+        b.end();
+
+        b.begin("mdia");
+        b.beginFull("mdhd", 0, 0);
+        b.buf.putInt(0).putInt(0).putInt(TIMESCALE).putInt((int) mediaDuration);
+        b.buf.putShort((short) 0x55C4).putShort((short) 0);
+        b.end();
+
+        b.beginFull("hdlr", 0, 0);
+        b.buf.putInt(0).put(ascii("vide")).putInt(0).putInt(0).putInt(0);
+        b.buf.put(ascii("VideoHandler")).put((byte) 0);
+        b.end();
+
+        b.begin("minf");
+        b.beginFull("vmhd", 0, 1);
+        b.buf.putLong(0);
+        b.end();
+        b.begin("dinf");
+        b.beginFull("dref", 0, 0);
+        b.buf.putInt(1);
+        b.beginFull("url ", 0, 1);
+        b.end();
+        b.end();
+        b.end();
+
+        b.begin("stbl");
+        b.beginFull("stsd", 0, 0);
+        b.buf.putInt(1);
+        b.begin("avc1");
+        b.buf.put(new byte[6]).putShort((short) 1).putShort((short) 0).putShort((short) 0);
+        b.buf.putInt(0).putInt(0).putInt(0);
+        b.buf.putShort((short) config.width).putShort((short) config.height);
+        b.buf.putInt(0x00480000).putInt(0x00480000).putInt(0).putShort((short) 1);
+        b.buf.put(new byte[32]).putShort((short) 0x0018).putShort((short) -1);
+        b.begin("avcC");
+        b.buf.put(config.avcC);
+        b.end();
+        b.end();  // avc1
+        b.end();  // stsd
+
+        b.beginFull("stts", 0, 0);
+        b.buf.putInt(1).putInt(table.count).putInt((int) sampleDelta);
+        b.end();
+
+        if (table.keyFrameCount > 0) {
+            b.beginFull("stss", 0, 0);
+            b.buf.putInt(table.keyFrameCount);
+            for (int i = 0; i < table.keyFrameCount; i++) {
+                b.buf.putInt(table.keyFrames[i]);
+            }
+            b.end();
+        }
+
+        b.beginFull("stsc", 0, 0);
+        b.buf.putInt(1).putInt(1).putInt(table.count).putInt(1);
+        b.end();
+
+        b.beginFull("stsz", 0, 0);
+        b.buf.putInt(0).putInt(table.count);
+        for (int i = 0; i < table.count; i++) {
+            b.buf.putInt(table.sizes[i]);
+        }
+        b.end();
+
+        if (use64BitOffset) {
+            b.beginFull("co64", 0, 0);
+            b.buf.putInt(1).putLong(chunkOffset);
+        } else {
+            b.beginFull("stco", 0, 0);
+            b.buf.putInt(1).putInt((int) chunkOffset);
+        }
+        b.end();
+
+        b.end();  // stbl
+        b.end();  // minf
+        b.end();  // mdia
+        b.end();  // trak
+        b.end();  // moov
+
+        b.buf.flip();
+        return b.buf;
+    }
+
+    private static class BoxBuilder {
+        final ByteBuffer buf;
+        private final int[] stack = new int[16];
+        private int depth = 0;
+
+        BoxBuilder(int capacity) {
+            buf = ByteBuffer.allocate(capacity);
+        }
+
+        void begin(String type) {
+            stack[depth++] = buf.position();
+            buf.putInt(0).put(ascii(type));
+        }
+
+        void beginFull(String type, int version, int flags) {
+            begin(type);
+            buf.putInt((version << 24) | (flags & 0xFFFFFF));
+        }
+
+        void end() {
+            int start = stack[--depth];
+            buf.putInt(start, buf.position() - start);
+        }
+    }
+
+    private static void putUnityMatrix(ByteBuffer b) {
+        b.putInt(0x00010000).putInt(0).putInt(0);
+        b.putInt(0).putInt(0x00010000).putInt(0);
+        b.putInt(0).putInt(0).putInt(0x40000000);
+    }
+
+    // ===== box 解析 =====
+
+    private static List<Box> readTopLevelBoxes(FileChannel channel) throws IOException {
+        List<Box> boxes = new ArrayList<>();
+        long fileLength = channel.size();
+        long pos = 0;
+        ByteBuffer header = ByteBuffer.allocate(16);
+        while (pos + 8 <= fileLength) {
+            header.clear();
+            header.limit((int) Math.min(16, fileLength - pos));
+            channel.read(header, pos);
+            header.flip();
+            long size = header.getInt() & 0xFFFFFFFFL;
+            byte[] typeBytes = new byte[4];
+            header.get(typeBytes);
+            String type = new String(typeBytes, StandardCharsets.US_ASCII);
+            int headerSize = 8;
+            if (size == 1) {
+                if (header.remaining() < 8) {
+                    boxes.add(new Box(type, pos, 16, fileLength - pos, true));
+                    break;
+                }
+                size = header.getLong();
+                headerSize = 16;
+            }
+            if (size < headerSize || pos + size > fileLength) {
+                // 大小为 0（到文件末尾）、未回填或超出文件长度
+                boxes.add(new Box(type, pos, headerSize, fileLength - pos, true));
+                break;
+            }
+            boxes.add(new Box(type, pos, headerSize, size, false));
+            pos += size;
+        }
+        return boxes;
+    }
+
+    private static ByteBuffer readBox(FileChannel channel, Box box) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate((int) box.size);
+        while (buf.hasRemaining()) {
+            if (channel.read(buf, box.offset + buf.position()) < 0) {
+                break;
+            }
+        }
+        buf.flip();
+        return buf;
+    }
+
+    /**
+     * trex 中轨道的默认样本时长、标志和大小
+     * @return {default_sample_duration, default_sample_flags, default_sample_size}
+     */
+    private static int[] readTrexDefaults(ByteBuffer moov, int[] mvex, int trackId) {
+        int pos = mvex[0] + 8;
+        int[] trex;
+        while ((trex = findChild(moov, pos, mvex[0] + mvex[1], "trex")) != null) {
+            // trex: 8 头 + 4 version/flags + track_ID + description_index + duration + size + flags
+            if (trex[1] >= 32 && moov.getInt(trex[0] + 12) == trackId) {
+                return new int[]{moov.getInt(trex[0] + 20), moov.getInt(trex[0] + 28), moov.getInt(trex[0] + 24)};
+            }
+            pos = trex[0] + trex[1];
+        }
+        return new int[]{0, 0, 0};
+    }
+
+    /**
+     * 分片扫描的累计结果
+     */
+    private static class FragmentScan {
+        long timescale;
+        long keyFrames;
+        long duration;                              // 累计样本时长（轨道时间单位）
+        final LongArray keyTimesUs = new LongArray();
+        final LongArray keyOffsets = new LongArray();
+    }
+
+    /**
+     * 扫描一个 moof 中指定轨道的样本：统计关键帧数和样本时长，并记录关键帧的时间和字节偏移
+     */
+    private static void scanFragment(ByteBuffer moof, Box moofBox, int trackId, int[] trexDefaults, FragmentScan scan) {
+        int trafFrom = moofBox.headerSize;
+        int[] traf;
+        while ((traf = findChild(moof, trafFrom, moof.limit(), "traf")) != null) {
+            trafFrom = traf[0] + traf[1];
+            int trafEnd = traf[0] + traf[1];
+            int[] tfhd = findChild(moof, traf[0] + 8, trafEnd, "tfhd");
+            if (tfhd == null || tfhd[1] < 16 || moof.getInt(tfhd[0] + 12) != trackId) {
+                continue;
+            }
+            int tfhdFlags = moof.getInt(tfhd[0] + 8) & 0xFFFFFF;
+            int defaultDuration = trexDefaults[0];
+            int defaultSize = trexDefaults[2];
+            int defaultFlags = trexDefaults[1];
+            long baseOffset = moofBox.offset;         // 没有 base_data_offset 时以 moof 开头为基准
+            int pos = tfhd[0] + 16;
+            if ((tfhdFlags & 0x01) != 0) {
+                baseOffset = moof.getLong(pos);
+                pos += 8;
+            }
+            pos += (tfhdFlags & 0x02) != 0 ? 4 : 0;   // sample_description_index
+            if ((tfhdFlags & 0x08) != 0) {
+                defaultDuration = moof.getInt(pos);
+                pos += 4;
+            }
+            if ((tfhdFlags & 0x10) != 0) {
+                defaultSize = moof.getInt(pos);
+                pos += 4;
+            }
+            if ((tfhdFlags & 0x20) != 0 && pos + 4 <= tfhd[0] + tfhd[1]) {
+                defaultFlags = moof.getInt(pos);
+            }
+            // tfdt：分片第一个样本的解码时间
+            int[] tfdt = findChild(moof, traf[0] + 8, trafEnd, "tfdt");
+            if (tfdt != null) {
+                scan.duration = (moof.get(tfdt[0] + 8) & 0xFF) == 1
+                        ? moof.getLong(tfdt[0] + 12) : moof.getInt(tfdt[0] + 12) & 0xFFFFFFFFL;
+            }
+
+            int trunFrom = traf[0] + 8;
+            int[] trun;
+            while ((trun = findChild(moof, trunFrom, trafEnd, "trun")) != null) {
+                trunFrom = trun[0] + trun[1];
+                int trunEnd = trun[0] + trun[1];
+                int flags = moof.getInt(trun[0] + 8) & 0xFFFFFF;
+                long sampleCount = moof.getInt(trun[0] + 12) & 0xFFFFFFFFL;
+                pos = trun[0] + 16;
+                long offset = baseOffset;
+                if ((flags & 0x001) != 0) {
+                    offset += moof.getInt(pos);  // data_offset
+                    pos += 4;
+                }
+                boolean hasFirstFlags = (flags & 0x004) != 0;
+                int firstFlags = 0;
+                if (hasFirstFlags) {
+                    firstFlags = moof.getInt(pos);
+                    pos += 4;
+                }
+                int entrySize = ((flags & 0x100) != 0 ? 4 : 0) + ((flags & 0x200) != 0 ? 4 : 0)
+                        + ((flags & 0x400) != 0 ? 4 : 0) + ((flags & 0x800) != 0 ? 4 : 0);
+                for (long i = 0; i < sampleCount && pos + entrySize <= trunEnd; i++) {
+                    int sampleDuration = defaultDuration;
+                    int sampleSize = defaultSize;
+                    int sampleFlags = (i == 0 && hasFirstFlags) ? firstFlags : defaultFlags;
+                    if ((flags & 0x100) != 0) {
+                        sampleDuration = moof.getInt(pos);
+                        pos += 4;
+                    }
+                    if ((flags & 0x200) != 0) {
+                        sampleSize = moof.getInt(pos);
+                        pos += 4;
+                    }
+                    if ((flags & 0x400) != 0) {
+                        sampleFlags = moof.getInt(pos);
+                        pos += 4;
+                    }
+                    pos += (flags & 0x800) != 0 ? 4 : 0;  // composition_time_offset
+                    if ((sampleFlags & SAMPLE_IS_NON_SYNC) == 0) {
+                        scan.keyFrames++;
+                        if (scan.timescale > 0) {
+                            scan.keyTimesUs.add(scan.duration * 1000000L / scan.timescale);
+                            scan.keyOffsets.add(offset);
+                        }
+                    }
+                    scan.duration += sampleDuration & 0xFFFFFFFFL;
+                    offset += sampleSize & 0xFFFFFFFFL;
+                }
+            }
+        }
+    }
+
+    private static boolean isType(ByteBuffer buf, int pos, String type) {
+        return buf.get(pos) == type.charAt(0) && buf.get(pos + 1) == type.charAt(1)
+                && buf.get(pos + 2) == type.charAt(2) && buf.get(pos + 3) == type.charAt(3);
+    }
+
+    private static Box find(List<Box> boxes, String type) {
+        for (Box box : boxes) {
+            if (box.type.equals(type)) {
+                return box;
+            }
+        }
+        return null;
+    }
+
+    private static boolean isFragmented(List<Box> boxes) {
+        return find(boxes, "moof") != null;
+    }
+
+    /**
+     * 分片 MP4 的有效长度：最后一个完整 mdat（或 moov）的结束位置
+     */
+    private static long fragmentedValidLength(List<Box> boxes) {
+        long validEnd = 0;
+        for (Box box : boxes) {
+            if (box.truncated) {
+                break;
+            }
+            // moof 只有在其后的 mdat 完整时才算有效；尾部的预分配 free 空间不计入
+            if (box.type.equals("ftyp") || box.type.equals("moov") || box.type.equals("mdat")) {
+                validEnd = box.end();
+            }
+        }
+        return validEnd;
+    }
+
+    /**
+     * 查找 mdat 之前足够容纳 moov 的 free/skip box
+     */
+    private static Box findReservedFree(List<Box> boxes, Box mdat, int moovSize) {
+        for (Box box : boxes) {
+            if (box.offset >= mdat.offset) {
+                break;
+            }
+            if ((box.type.equals("free") || box.type.equals("skip")) && !box.truncated
+                    && (box.size == moovSize || box.size >= moovSize + 8)) {
+                return box;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 在内存中的 box 区间查找子 box
+     * @return {offset, size}，没有则返回 null
+     */
+    private static int[] findChild(ByteBuffer buf, int start, int end, String type) {
+        int pos = start;
+        byte[] target = ascii(type);
+        while (pos + 8 <= end) {
+            int size = buf.getInt(pos);
+            if (size < 8 || pos + size > end) {
+                return null;
+            }
+            if (buf.get(pos + 4) == target[0] && buf.get(pos + 5) == target[1]
+                    && buf.get(pos + 6) == target[2] && buf.get(pos + 7) == target[3]) {
+                return new int[]{pos, size};
+            }
+            pos += size;
+        }
+        return null;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+}
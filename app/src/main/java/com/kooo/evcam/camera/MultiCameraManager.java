@@ -4,7 +4,14 @@ package com.kooo.evcam.camera;
 import com.kooo.evcam.AppConfig;
 import com.kooo.evcam.AppLog;
 import com.kooo.evcam.FileTransferManager;
+import com.kooo.evcam.IntegrityScrubber;
+import com.kooo.evcam.StorageBenchmark;
 import com.kooo.evcam.StorageHelper;
+import com.kooo.evcam.StorageIndex;
+import com.kooo.evcam.StorageSpaceManager;
+import com.kooo.evcam.StorageVolumeMonitor;
+import com.kooo.evcam.VideoThumbnail;
+import com.kooo.evcam.playback.VideoGroup;
 import android.content.Context;
 import android.os.Environment;
 import android.util.Log;
@@ -54,6 +61,14 @@ public class MultiCameraManager {
     private long timestampGeneratedTime = 0;  // 时间戳生成时间（毫秒）
     private static final long TIMESTAMP_CACHE_DURATION_MS = 10000;  // 时间戳缓存有效期（10秒，需覆盖各摄像头首次写入的时间差）
     private final Object timestampLock = new Object();  // 时间戳访问锁
+
+    // 共用分段时钟（各路录制器在同一分段边界切换，见 SegmentClock）
+    private final SegmentClock segmentClock = new SegmentClock();
+    private volatile boolean useSharedSegmentClock = false;
+    private volatile long currentSegmentDurationMs = 0;
+
+    // 当前录制所有录制器的总码率（bps），用于按写入速度预估剩余空间水位
+    private volatile long totalRecordingBitrate = 0;
     
     // Watchdog 回退相关
     private String currentRecordingTimestamp = null;  // 当前录制的时间戳（用于重建时继续录制）
@@ -136,8 +151,26 @@ public class MultiCameraManager {
         void onTimestampUpdated(String newTimestamp);
     }
 
+    /**
+     * 事件片段保存回调
+     */
+    public interface EventCaptureCallback {
+        /**
+         * 事件片段写入完成（主线程调用）
+         * @param cameraKey 摄像头位置（拼接录制时为 mosaic）
+         * @param clipFile 事件片段文件
+         * @param success 是否成功
+         */
+        void onEventClipSaved(String cameraKey, File clipFile, boolean success);
+    }
+
+    // U盘弹出或移除时，把正在写入U盘的录制切换到内部存储（后台线程回调，转到主线程处理）
+    private final StorageVolumeMonitor.Listener volumeListener =
+            (previousRoot, currentRoot) -> mainHandler.post(() -> failOverRemovedStorage(previousRoot));
+
     public MultiCameraManager(Context context) {
         this.context = context;
+        StorageVolumeMonitor.getInstance(context).addListener(volumeListener);
     }
 
     /**
@@ -149,6 +182,11 @@ public class MultiCameraManager {
             new VideoRecorder.SegmentTimestampProvider() {
         @Override
         public String getSegmentTimestamp() {
+            // 共用分段时钟的边界时间戳：同一边界的各路切换使用同一个文件时间戳
+            String boundaryTimestamp = segmentClock.getBoundaryTimestamp(TIMESTAMP_CACHE_DURATION_MS);
+            if (boundaryTimestamp != null) {
+                return boundaryTimestamp;
+            }
             synchronized (timestampLock) {
                 long now = System.currentTimeMillis();
                 // 如果缓存的时间戳仍在有效期内，返回缓存值
@@ -184,6 +222,7 @@ public class MultiCameraManager {
     private CodecFallbackCallback codecFallbackCallback;
     private FirstDataWrittenCallback firstDataWrittenCallback;
     private TimestampUpdateCallback timestampUpdateCallback;
+    private EventCaptureCallback eventCaptureCallback;
     private boolean hasNotifiedFirstDataWritten = false;  // 是否已通知首次写入（每次录制只通知一次）
 
     public void setStatusCallback(StatusCallback callback) {
@@ -236,6 +275,10 @@ public class MultiCameraManager {
         this.timestampUpdateCallback = callback;
     }
 
+    public void setEventCaptureCallback(EventCaptureCallback callback) {
+        this.eventCaptureCallback = callback;
+    }
+
     public void setMaxOpenCameras(int maxOpenCameras) {
         this.maxOpenCameras = Math.max(1, maxOpenCameras);
     }
@@ -602,6 +645,7 @@ public class MultiCameraManager {
             @Override
             public void onSegmentSwitch(String cameraId, int newSegmentIndex, String completedFilePath) {
                 AppLog.d(TAG, "Segment switch for camera " + cameraId + " to segment " + newSegmentIndex);
+                segmentClock.onParticipantSwitched(cameraId);
                 // 找到对应的 camera key 和 camera
                 for (Map.Entry<String, SingleCamera> entry : cameras.entrySet()) {
                     if (entry.getValue().getCameraId().equals(cameraId)) {
@@ -614,7 +658,12 @@ public class MultiCameraManager {
                             if (useRelayWrite && finalSaveDir != null && newSegmentIndex > 0 && completedFilePath != null) {
                                 // 传输已完成的文件（由回调提供确切路径，避免传输正在录制的新文件）
                                 scheduleRelayTransfer(completedFilePath);
+                            } else if (!useRelayWrite && completedFilePath != null) {
+                                // 直接写入最终目录：更新存储索引并封存校验和（中转写入在传输完成后处理）
+                                StorageIndex.recordFile(context, new File(completedFilePath));
+                                IntegrityScrubber.getInstance(context).sealAsync(new File(completedFilePath));
                             }
+                            checkStorageSpace(completedFilePath);
                             
                             // 更新录制 Surface 并重新创建会话（MediaRecorder 模式）
                             camera.setRecordSurface(recorder.getSurface(), false);
@@ -638,6 +687,8 @@ public class MultiCameraManager {
                     AppLog.w(TAG, "Corrupted files deleted for camera " + cameraId + ": " + deletedFiles.size() + " file(s)");
                     for (String file : deletedFiles) {
                         AppLog.d(TAG, "  Deleted: " + file);
+                        StorageIndex.recordDeleted(context, new File(file));
+                        VideoThumbnail.deleteSidecar(new File(file));
                     }
                     // 通知 MainActivity 显示弹窗
                     if (corruptedFilesCallback != null) {
@@ -655,6 +706,7 @@ public class MultiCameraManager {
             @Override
             public void onFirstDataWritten(String cameraId) {
                 AppLog.d(TAG, "First data written for camera " + cameraId);
+                startSegmentClock();
                 // 只在第一个摄像头首次写入时通知外部（每次录制只通知一次）
                 if (!hasNotifiedFirstDataWritten && firstDataWrittenCallback != null) {
                     hasNotifiedFirstDataWritten = true;
@@ -868,6 +920,9 @@ public class MultiCameraManager {
         int targetFrameRate = appConfig.getActualFrameRate(30);  // 假设硬件支持30fps
         AppLog.d(TAG, "Target frame rate: " + targetFrameRate + " fps (level: " + appConfig.getFramerateLevel() + ")");
 
+        prepareSegmentClock(appConfig, segmentDurationMs);
+        totalRecordingBitrate = 0;
+
         // 第一步：准备所有 MediaRecorder（但不启动）
         // 使用每个摄像头的实际预览分辨率，而不是硬编码的值
         boolean prepareSuccess = true;
@@ -893,7 +948,9 @@ public class MultiCameraManager {
             
             // 设置录制参数
             recorder.setSegmentDuration(segmentDurationMs);
+            attachToSegmentClock(camera.getCameraId(), recorder);
             recorder.setVideoBitrate(bitrate);
+            totalRecordingBitrate += bitrate;
             recorder.setVideoFrameRate(targetFrameRate);
             // 注：最大编码分辨率限制使用 VideoRecorder 内部默认值（4096x4096）
             
@@ -902,7 +959,7 @@ public class MultiCameraManager {
                     " @ " + targetFrameRate + "fps, " + AppConfig.formatBitrate(bitrate));
             
             // 所有摄像头使用统一的时间戳：日期_时间_摄像头位置.mp4
-            String path = new File(saveDir, timestamp + "_" + key + ".mp4").getAbsolutePath();
+            String path = StorageHelper.getMediaFile(saveDir, timestamp + "_" + key + ".mp4").getAbsolutePath();
             // 只准备 MediaRecorder，获取 Surface，使用预览的实际分辨率
             AppLog.d(TAG, "Preparing recording for " + key + " with size: " + previewSize.getWidth() + "x" + previewSize.getHeight());
             if (!recorder.prepareRecording(path, previewSize.getWidth(), previewSize.getHeight())) {
@@ -1040,6 +1097,7 @@ public class MultiCameraManager {
             isRecording = true;
             lastNotifiedSegmentIndex = -1;
             AppLog.d(TAG, activeCameras.size() + " camera(s) started recording successfully: " + activeCameras);
+            StorageBenchmark.getInstance(context).onRecordingStarted(this, totalRecordingBitrate);
             
             // 如果有失败的摄像头，通知上层
             if (!failedCameras.isEmpty() && recordingStatusCallback != null) {
@@ -1162,6 +1220,8 @@ public class MultiCameraManager {
         } else {
             AppLog.d(TAG, "Codec segment duration: " + (segmentDurationMs / 1000) + " seconds (" + appConfig.getSegmentDurationMinutes() + " minutes)");
         }
+        prepareSegmentClock(appConfig, segmentDurationMs);
+        totalRecordingBitrate = 0;
         
         // 获取帧率配置（根据帧率等级设置计算）
         int targetFrameRate = appConfig.getActualFrameRate(30);
@@ -1173,9 +1233,15 @@ public class MultiCameraManager {
         }
         codecRecorders.clear();
 
+        // 拼接模式：多路摄像头合成一路 2x2 画面，只使用一个编码器
+        boolean mosaicMode = appConfig.isMosaicRecordingEnabled() && keys.size() > 1;
+
         // 为每个摄像头创建软编码录制器并准备
         boolean prepareSuccess = true;
-        for (String key : keys) {
+        if (mosaicMode) {
+            prepareSuccess = prepareMosaicCodecRecording(keys, saveDir, timestamp, segmentDurationMs, targetFrameRate, appConfig);
+        }
+        for (String key : mosaicMode ? new ArrayList<String>() : keys) {
             SingleCamera camera = cameras.get(key);
             if (camera == null) {
                 continue;
@@ -1222,8 +1288,15 @@ public class MultiCameraManager {
 
             // 设置录制参数
             codecRecorder.setSegmentDuration(segmentDurationMs);
+            attachToSegmentClock(camera.getCameraId(), codecRecorder);
             codecRecorder.setBitRate(bitrate);
+            totalRecordingBitrate += bitrate;
             codecRecorder.setFrameRate(targetFrameRate);
+            codecRecorder.setGaplessSegmentSwitch(appConfig.isGaplessSegmentSwitchEnabled());
+            codecRecorder.setFragmentedMp4(appConfig.isFragmentedMp4Enabled(), appConfig.getKeyFramesPerFragment());
+            codecRecorder.setSharedRenderEnabled(appConfig.isSharedGlRenderEnabled());
+            codecRecorder.setAsyncEncoderOutput(appConfig.isAsyncCodecOutputEnabled());
+            configurePreEventBuffer(codecRecorder, appConfig);
             
             AppLog.d(TAG, "Codec recording params for " + key + ": " + 
                     encodeWidth + "x" + encodeHeight + 
@@ -1233,81 +1306,10 @@ public class MultiCameraManager {
             codecRecorder.setWatermarkEnabled(appConfig.isTimestampWatermarkEnabled());
 
             // 设置回调
-            codecRecorder.setCallback(new RecordCallback() {
-                @Override
-                public void onRecordStart(String cameraId) {
-                    AppLog.d(TAG, "Codec recording started for camera " + cameraId);
-                }
-
-                @Override
-                public void onRecordStop(String cameraId) {
-                    AppLog.d(TAG, "Codec recording stopped for camera " + cameraId);
-                }
-
-                @Override
-                public void onRecordError(String cameraId, String error) {
-                    AppLog.e(TAG, "Codec recording error for camera " + cameraId + ": " + error);
-                }
-
-                @Override
-                public void onPrepareSegmentSwitch(String cameraId, int currentSegmentIndex) {
-                    AppLog.d(TAG, "Codec prepare segment switch for camera " + cameraId + " (current segment: " + currentSegmentIndex + ")");
-                    // 软编码录制器使用独立的 SurfaceTexture，不需要暂停 Camera CaptureSession
-                    // 但为了一致性，我们记录日志
-                }
-
-                @Override
-                public void onSegmentSwitch(String cameraId, int newSegmentIndex, String completedFilePath) {
-                    AppLog.d(TAG, "Codec segment switch for camera " + cameraId + " to segment " + newSegmentIndex);
-                    
-                    // 如果使用中转写入，将上一个分段的文件传输到最终目录
-                    if (useRelayWrite && finalSaveDir != null && newSegmentIndex > 0 && completedFilePath != null) {
-                        // 传输已完成的文件（由回调提供确切路径，避免传输正在录制的新文件）
-                        scheduleRelayTransfer(completedFilePath);
-                    }
-                    
-                    // 通知分段切换回调（只通知一次，第一个触发的摄像头会通知）
-                    if (segmentSwitchCallback != null && newSegmentIndex > lastNotifiedSegmentIndex) {
-                        lastNotifiedSegmentIndex = newSegmentIndex;
-                        segmentSwitchCallback.onSegmentSwitch(newSegmentIndex);
-                    }
-                }
-
-                @Override
-                public void onCorruptedFilesDeleted(String cameraId, List<String> deletedFiles) {
-                    if (deletedFiles != null && !deletedFiles.isEmpty()) {
-                        AppLog.w(TAG, "Corrupted files deleted for codec camera " + cameraId + ": " + deletedFiles.size() + " file(s)");
-                        for (String file : deletedFiles) {
-                            AppLog.d(TAG, "  Deleted: " + file);
-                        }
-                        // 通知 MainActivity 显示弹窗
-                        if (corruptedFilesCallback != null) {
-                            mainHandler.post(() -> corruptedFilesCallback.onCorruptedFilesDeleted(deletedFiles));
-                        }
-                    }
-                }
-
-                @Override
-                public void onRecordingRebuildRequested(String cameraId, String reason) {
-                    // CodecVideoRecorder 通常不会触发此回调，但为了接口完整性实现
-                    AppLog.e(TAG, "Codec recording rebuild requested for camera " + cameraId + ", reason: " + reason);
-                    // Codec 模式不需要回退，记录日志即可
-                }
-
-                @Override
-                public void onFirstDataWritten(String cameraId) {
-                    AppLog.d(TAG, "Codec first data written for camera " + cameraId);
-                    // 只在第一个摄像头首次写入时通知外部（每次录制只通知一次）
-                    if (!hasNotifiedFirstDataWritten && firstDataWrittenCallback != null) {
-                        hasNotifiedFirstDataWritten = true;
-                        AppLog.d(TAG, "Notifying external: first data written, recording truly started");
-                        mainHandler.post(() -> firstDataWrittenCallback.onFirstDataWritten());
-                    }
-                }
-            });
+            codecRecorder.setCallback(createCodecRecordCallback());
 
             // 准备录制
-            String path = new File(saveDir, timestamp + "_" + key + ".mp4").getAbsolutePath();
+            String path = StorageHelper.getMediaFile(saveDir, timestamp + "_" + key + ".mp4").getAbsolutePath();
             AppLog.d(TAG, "Preparing codec recording for " + key + " with size: " + previewSize.getWidth() + "x" + previewSize.getHeight());
 
             android.graphics.SurfaceTexture surfaceTexture = codecRecorder.prepareRecording(path);
@@ -1370,6 +1372,170 @@ public class MultiCameraManager {
         return true;
     }
 
+    /**
+     * 创建 Codec 录制器的回调（各路录制器和拼接录制器共用）
+     */
+    private RecordCallback createCodecRecordCallback() {
+        return new RecordCallback() {
+            @Override
+            public void onRecordStart(String cameraId) {
+                AppLog.d(TAG, "Codec recording started for camera " + cameraId);
+            }
+
+            @Override
+            public void onRecordStop(String cameraId) {
+                AppLog.d(TAG, "Codec recording stopped for camera " + cameraId);
+            }
+
+            @Override
+            public void onRecordError(String cameraId, String error) {
+                AppLog.e(TAG, "Codec recording error for camera " + cameraId + ": " + error);
+            }
+
+            @Override
+            public void onPrepareSegmentSwitch(String cameraId, int currentSegmentIndex) {
+                AppLog.d(TAG, "Codec prepare segment switch for camera " + cameraId + " (current segment: " + currentSegmentIndex + ")");
+                // 软编码录制器使用独立的 SurfaceTexture，不需要暂停 Camera CaptureSession
+                // 但为了一致性，我们记录日志
+            }
+
+            @Override
+            public void onSegmentSwitch(String cameraId, int newSegmentIndex, String completedFilePath) {
+                AppLog.d(TAG, "Codec segment switch for camera " + cameraId + " to segment " + newSegmentIndex);
+                segmentClock.onParticipantSwitched(cameraId);
+            
+                // 如果使用中转写入，将上一个分段的文件传输到最终目录
+                if (useRelayWrite && finalSaveDir != null && newSegmentIndex > 0 && completedFilePath != null) {
+                    // 传输已完成的文件（由回调提供确切路径，避免传输正在录制的新文件）
+                    scheduleRelayTransfer(completedFilePath);
+                } else if (!useRelayWrite && completedFilePath != null) {
+                    // 直接写入最终目录：更新存储索引并封存校验和（中转写入在传输完成后处理）
+                    StorageIndex.recordFile(context, new File(completedFilePath));
+                    IntegrityScrubber.getInstance(context).sealAsync(new File(completedFilePath));
+                }
+                checkStorageSpace(completedFilePath);
+            
+                // 通知分段切换回调（只通知一次，第一个触发的摄像头会通知）
+                if (segmentSwitchCallback != null && newSegmentIndex > lastNotifiedSegmentIndex) {
+                    lastNotifiedSegmentIndex = newSegmentIndex;
+                    segmentSwitchCallback.onSegmentSwitch(newSegmentIndex);
+                }
+            }
+
+            @Override
+            public void onCorruptedFilesDeleted(String cameraId, List<String> deletedFiles) {
+                if (deletedFiles != null && !deletedFiles.isEmpty()) {
+                    AppLog.w(TAG, "Corrupted files deleted for codec camera " + cameraId + ": " + deletedFiles.size() + " file(s)");
+                    for (String file : deletedFiles) {
+                        AppLog.d(TAG, "  Deleted: " + file);
+                        StorageIndex.recordDeleted(context, new File(file));
+                        VideoThumbnail.deleteSidecar(new File(file));
+                    }
+                    // 通知 MainActivity 显示弹窗
+                    if (corruptedFilesCallback != null) {
+                        mainHandler.post(() -> corruptedFilesCallback.onCorruptedFilesDeleted(deletedFiles));
+                    }
+                }
+            }
+
+            @Override
+            public void onRecordingRebuildRequested(String cameraId, String reason) {
+                // CodecVideoRecorder 通常不会触发此回调，但为了接口完整性实现
+                AppLog.e(TAG, "Codec recording rebuild requested for camera " + cameraId + ", reason: " + reason);
+                // Codec 模式不需要回退，记录日志即可
+            }
+
+            @Override
+            public void onFirstDataWritten(String cameraId) {
+                AppLog.d(TAG, "Codec first data written for camera " + cameraId);
+                startSegmentClock();
+                // 只在第一个摄像头首次写入时通知外部（每次录制只通知一次）
+                if (!hasNotifiedFirstDataWritten && firstDataWrittenCallback != null) {
+                    hasNotifiedFirstDataWritten = true;
+                    AppLog.d(TAG, "Notifying external: first data written, recording truly started");
+                    mainHandler.post(() -> firstDataWrittenCallback.onFirstDataWritten());
+                }
+            }
+        };
+    }
+
+    /**
+     * 准备 2x2 拼接录制：所有摄像头共用一个 CodecVideoRecorder，输出 时间戳_mosaic.mp4
+     * 象限顺序固定为 前、后、左、右（左上、右上、左下、右下），与回放的 VideoGroup 一致
+     * 同一个录制器以每路摄像头的 key 放入 codecRecorders，启动/停止/释放逻辑保持不变（重复调用是幂等的）
+     * @return 是否准备成功
+     */
+    private boolean prepareMosaicCodecRecording(List<String> keys, File saveDir, String timestamp,
+                                                long segmentDurationMs, int targetFrameRate, AppConfig appConfig) {
+        List<String> positions = new ArrayList<>();
+        List<Size> inputSizes = new ArrayList<>();
+        Size masterSize = null;
+        for (String position : VideoGroup.MOSAIC_QUADRANT_POSITIONS) {
+            SingleCamera camera = keys.contains(position) ? cameras.get(position) : null;
+            if (camera == null) {
+                positions.add(null);
+                inputSizes.add(null);
+                continue;
+            }
+            Size previewSize = camera.getPreviewSize();
+            if (previewSize == null) {
+                AppLog.e(TAG, "Camera " + position + " preview size not available, using fallback 1280x800");
+                previewSize = new Size(1280, 800);
+            }
+            positions.add(position);
+            inputSizes.add(previewSize);
+            if (masterSize == null) {
+                masterSize = previewSize;
+            }
+        }
+        if (masterSize == null) {
+            AppLog.e(TAG, "No cameras available for mosaic recording");
+            return false;
+        }
+
+        // 拼接画面宽高都是 4 的倍数，保证每个象限为偶数尺寸
+        int mosaicWidth = Math.max(4, (appConfig.getMosaicWidth() / 4) * 4);
+        int mosaicHeight = Math.max(4, (int) ((long) mosaicWidth * masterSize.getHeight() / masterSize.getWidth() / 4) * 4);
+        int bitrate = appConfig.getMosaicBitrate(mosaicWidth, mosaicHeight, targetFrameRate);
+
+        CodecVideoRecorder codecRecorder = new CodecVideoRecorder(VideoGroup.POSITION_MOSAIC, mosaicWidth, mosaicHeight);
+        codecRecorder.setTimestampProvider(segmentTimestampProvider);
+        codecRecorder.setSegmentDuration(segmentDurationMs);
+        attachToSegmentClock(VideoGroup.POSITION_MOSAIC, codecRecorder);
+        codecRecorder.setBitRate(bitrate);
+        totalRecordingBitrate += bitrate;
+        codecRecorder.setFrameRate(targetFrameRate);
+        codecRecorder.setGaplessSegmentSwitch(appConfig.isGaplessSegmentSwitchEnabled());
+        codecRecorder.setFragmentedMp4(appConfig.isFragmentedMp4Enabled(), appConfig.getKeyFramesPerFragment());
+        codecRecorder.setSharedRenderEnabled(appConfig.isSharedGlRenderEnabled());
+        codecRecorder.setAsyncEncoderOutput(appConfig.isAsyncCodecOutputEnabled());
+        configurePreEventBuffer(codecRecorder, appConfig);
+        codecRecorder.setWatermarkEnabled(appConfig.isTimestampWatermarkEnabled());
+        codecRecorder.setMosaicInputs(positions, inputSizes);
+        codecRecorder.setCallback(createCodecRecordCallback());
+
+        AppLog.d(TAG, "Mosaic codec recording params: " + positions + " -> " + mosaicWidth + "x" + mosaicHeight +
+                " @ " + targetFrameRate + "fps, " + AppConfig.formatBitrate(bitrate));
+
+        String path = StorageHelper.getMediaFile(saveDir, timestamp + "_" + VideoGroup.POSITION_MOSAIC + ".mp4").getAbsolutePath();
+        if (codecRecorder.prepareRecording(path) == null) {
+            AppLog.e(TAG, "Failed to prepare mosaic codec recording");
+            codecRecorder.release();
+            return false;
+        }
+
+        for (String key : keys) {
+            SingleCamera camera = cameras.get(key);
+            android.graphics.SurfaceTexture input = codecRecorder.getMosaicInputSurfaceTexture(key);
+            if (camera == null || input == null) {
+                continue;
+            }
+            camera.setRecordSurface(new android.view.Surface(input), true);  // Codec 模式
+            codecRecorders.put(key, codecRecorder);
+        }
+        return true;
+    }
+
     private void executeCodecRecordingStart(List<String> keys, int stableAttempt, boolean forcedReopen) {
         AppLog.d(TAG, "Attempting to start codec recording...");
         if (isRecording) {
@@ -1438,6 +1604,7 @@ public class MultiCameraManager {
             lastNotifiedSegmentIndex = -1;
             isRecording = true;
             AppLog.d(TAG, activeCount + " camera(s) started codec recording successfully");
+            StorageBenchmark.getInstance(context).onRecordingStarted(this, totalRecordingBitrate);
         } else {
             AppLog.e(TAG, "Failed to start codec recording on all cameras");
             isRecording = false;
@@ -1474,6 +1641,9 @@ public class MultiCameraManager {
     public void stopRecording(boolean skipRelayTransfer) {
         AppLog.d(TAG, "stopRecording called, isRecording=" + isRecording + ", useCodecRecording=" + useCodecRecording + ", skipRelayTransfer=" + skipRelayTransfer);
 
+        // 先停止共用分段时钟，避免停止过程中触发分段切换
+        segmentClock.stop();
+
         // 清理待处理的录制启动任务和会话计数器（线程安全处理）
         synchronized (sessionLock) {
             if (pendingRecordingStart != null) {
@@ -1511,13 +1681,21 @@ public class MultiCameraManager {
             return;
         }
 
+        // 最后一个分段没有分段切换回调，停止后直接更新存储索引（中转写入在传输完成后更新）
+        List<String> lastSegmentPaths = new ArrayList<>();
+
         // 停止软编码录制
         if (!codecRecorders.isEmpty()) {
             AppLog.d(TAG, "Stopping codec recorders...");
+            logCodecRenderStats();
             for (String key : keys) {
                 CodecVideoRecorder codecRecorder = codecRecorders.get(key);
                 if (codecRecorder != null && codecRecorder.isRecording()) {
+                    String lastPath = codecRecorder.getCurrentFilePath();
                     codecRecorder.stopRecording();
+                    if (lastPath != null && !lastSegmentPaths.contains(lastPath)) {
+                        lastSegmentPaths.add(lastPath);
+                    }
                 }
             }
             // 释放软编码录制器
@@ -1531,7 +1709,17 @@ public class MultiCameraManager {
         for (String key : keys) {
             VideoRecorder recorder = recorders.get(key);
             if (recorder != null && recorder.isRecording()) {
+                String lastPath = recorder.getCurrentFilePath();
                 recorder.stopRecording();
+                if (lastPath != null) {
+                    lastSegmentPaths.add(lastPath);
+                }
+            }
+        }
+        if (!useRelayWrite) {
+            for (String path : lastSegmentPaths) {
+                StorageIndex.recordFile(context, new File(path));
+                IntegrityScrubber.getInstance(context).sealAsync(new File(path));
             }
         }
 
@@ -1571,6 +1759,7 @@ public class MultiCameraManager {
         isRecording = false;
         useRelayWrite = false;
         finalSaveDir = null;
+        StorageBenchmark.getInstance(context).onRecordingStopped(this);
         
         // 清理 Watchdog 回退状态
         currentRecordingTimestamp = null;
@@ -1712,6 +1901,7 @@ public class MultiCameraManager {
      */
     private void stopRecordingForRebuild() {
         AppLog.d(TAG, "Stopping recording for rebuild...");
+        segmentClock.stop();
         
         List<String> keys = getActiveCameraKeys();
         
@@ -1756,13 +1946,14 @@ public class MultiCameraManager {
             return;
         }
         
-        File targetFile = new File(finalSaveDir, tempFile.getName());
+        File targetFile = StorageHelper.getMediaFile(finalSaveDir, tempFile.getName());
         
         AppLog.d(TAG, "Scheduling relay transfer: " + tempFile.getName() + 
                 " -> " + targetFile.getAbsolutePath());
         
+        // 录制中完成的分段优先传输，尽快释放临时空间
         FileTransferManager transferManager = FileTransferManager.getInstance(context);
-        transferManager.addTransferTask(tempFile, targetFile, 
+        transferManager.addTransferTask(tempFile, targetFile, FileTransferManager.PRIORITY_HIGH,
                 new FileTransferManager.TransferCallback() {
             @Override
             public void onTransferComplete(File sourceFile, File targetFile) {
@@ -1830,7 +2021,7 @@ public class MultiCameraManager {
                 continue;
             }
             
-            File targetFile = new File(targetDir, tempFile.getName());
+            File targetFile = StorageHelper.getMediaFile(targetDir, tempFile.getName());
             
             transferManager.addTransferTask(tempFile, targetFile, 
                     new FileTransferManager.TransferCallback() {
@@ -1907,12 +2098,16 @@ public class MultiCameraManager {
         } catch (Exception e) {
             AppLog.e(TAG, "Unexpected error during release", e);
         } finally {
+            segmentClock.release();
+            StorageVolumeMonitor.getInstance(context).removeListener(volumeListener);
+
             // 8. 清理集合（确保执行）
             cameras.clear();
             recorders.clear();
             codecRecorders.clear();
             isRecording = false;
             isRebuildingRecording = false;
+            StorageBenchmark.getInstance(context).onRecordingStopped(this);
             currentRecordingTimestamp = null;
             currentEnabledCameras = null;
             AppLog.d(TAG, "All resources released");
@@ -2103,6 +2298,235 @@ public class MultiCameraManager {
         return sb.toString();
     }
 
+    /**
+     * 准备共用分段时钟（每次开始录制时调用）
+     * 分段时长覆盖（远程录制）时只有一个分段，不需要统一调度
+     */
+    private void prepareSegmentClock(AppConfig appConfig, long segmentDurationMs) {
+        segmentClock.stop();
+        segmentClock.resetStats();
+        useSharedSegmentClock = appConfig.isSharedSegmentClockEnabled() && overrideSegmentDurationMs <= 0;
+        currentSegmentDurationMs = segmentDurationMs;
+        AppLog.d(TAG, "Shared segment clock: " + (useSharedSegmentClock ? "enabled" : "disabled"));
+    }
+
+    /**
+     * 将录制器交给共用分段时钟调度（未启用时录制器使用自身的分段定时器）
+     * @param id 录制器的 cameraId（与 RecordCallback 回调一致）
+     */
+    private void attachToSegmentClock(String id, VideoRecorder recorder) {
+        recorder.setExternalSegmentClock(useSharedSegmentClock);
+        if (useSharedSegmentClock) {
+            segmentClock.register(id, recorder);
+        }
+    }
+
+    private void attachToSegmentClock(String id, CodecVideoRecorder codecRecorder) {
+        codecRecorder.setExternalSegmentClock(useSharedSegmentClock);
+        if (useSharedSegmentClock) {
+            segmentClock.register(id, codecRecorder);
+        }
+    }
+
+    /**
+     * 第一路录制器首次写入数据时启动共用分段时钟（已启动时忽略）
+     */
+    private void startSegmentClock() {
+        if (useSharedSegmentClock && isRecording) {
+            segmentClock.start(currentSegmentDurationMs);
+        }
+    }
+
+    /**
+     * 分段完成时检查视频存储的剩余空间，低于水位时分批删除最旧的视频（见 StorageSpaceManager）
+     * @param completedFilePath 刚完成的分段文件
+     */
+    private void checkStorageSpace(String completedFilePath) {
+        File videoDir = useRelayWrite ? finalSaveDir
+                : (completedFilePath != null ? StorageHelper.getShardRoot(new File(completedFilePath).getParentFile()) : null);
+        if (videoDir == null) {
+            return;
+        }
+        StorageSpaceManager.getInstance(context).onSegmentCompleted(videoDir, totalRecordingBitrate, currentSegmentDurationMs);
+    }
+
+    /**
+     * U盘不再可用时，不等待当前分段写入失败，立即把录制切换到回退目录（主线程调用）
+     * - 中转写入：录制本身在内部存储，只需把传输目标改为回退后的最终目录
+     * - 直接写入：写入被移除U盘的录制器改用回退目录并立即切换分段
+     * @param previousRoot 被移除的U盘根目录
+     */
+    private void failOverRemovedStorage(File previousRoot) {
+        if (!isRecording || previousRoot == null) {
+            return;
+        }
+        String lostPrefix = previousRoot.getAbsolutePath() + File.separator;
+        if (useRelayWrite) {
+            if (finalSaveDir != null && finalSaveDir.getAbsolutePath().startsWith(lostPrefix)) {
+                finalSaveDir = StorageHelper.getFinalVideoDir(context);
+                AppLog.w(TAG, "Storage removed, relay target switched to " + finalSaveDir.getAbsolutePath());
+            }
+            return;
+        }
+
+        String fallbackDir = StorageHelper.getVideoDir(context).getAbsolutePath();
+        int redirected = 0;
+        for (VideoRecorder recorder : recorders.values()) {
+            String path = recorder.getCurrentFilePath();
+            if (path != null && path.startsWith(lostPrefix) && recorder.redirectSegments(fallbackDir)) {
+                redirected++;
+            }
+        }
+        for (CodecVideoRecorder codecRecorder : codecRecorders.values()) {
+            String path = codecRecorder.getCurrentFilePath();
+            if (path != null && path.startsWith(lostPrefix) && codecRecorder.redirectSegments(fallbackDir)) {
+                redirected++;
+            }
+        }
+        if (redirected > 0) {
+            AppLog.w(TAG, "Storage removed, " + redirected + " recorder(s) failed over to " + fallbackDir);
+        }
+    }
+
+    /**
+     * 获取各路分段边界偏差统计（从共用分段时钟的边界到该路完成切换的延迟）
+     * @return 摄像头位置 -> 偏差分位数
+     */
+    public Map<String, String> getSegmentBoundarySkewStats() {
+        Map<String, String> stats = new LinkedHashMap<>();
+        for (Map.Entry<String, String> entry : segmentClock.getSkewStats().entrySet()) {
+            String key = entry.getKey();
+            for (Map.Entry<String, SingleCamera> camera : cameras.entrySet()) {
+                if (camera.getValue().getCameraId().equals(entry.getKey())) {
+                    key = camera.getKey();
+                    break;
+                }
+            }
+            stats.put(key, entry.getValue());
+        }
+        return stats;
+    }
+
+    /**
+     * 为 Codec 录制器配置事件前缓存（未启用时不分配内存）
+     */
+    private void configurePreEventBuffer(CodecVideoRecorder codecRecorder, AppConfig appConfig) {
+        if (!appConfig.isPreEventBufferEnabled()) {
+            return;
+        }
+        int capacityBytes = Math.max(1, appConfig.getPreEventBufferMb()) * 1024 * 1024;
+        codecRecorder.setPreEventBuffer(capacityBytes, appConfig.getPreEventSeconds() * 1000L);
+    }
+
+    /**
+     * 触发事件录制（车门打开、转向灯、远程录制命令等）
+     * 每路 Codec 录制器把事件前缓存和之后若干秒的画面写入事件目录（EVCam_Event），不影响正在录制的分段文件
+     * 需要 Codec 录制模式且已启用事件前缓存；未在录制时不产生片段
+     * @param reason 触发原因（用于日志）
+     * @return 已接受触发的录制器数量
+     */
+    public int triggerEventCapture(String reason) {
+        if (!isRecording || codecRecorders.isEmpty()) {
+            AppLog.w(TAG, "Event capture (" + reason + ") ignored: codec recording not active");
+            return 0;
+        }
+        AppConfig appConfig = new AppConfig(context);
+        File eventDir = StorageHelper.getEventVideoDir(context);
+        String timestamp = new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.getDefault()).format(new Date());
+        long postEventMs = appConfig.getPostEventSeconds() * 1000L;
+
+        int accepted = 0;
+        List<CodecVideoRecorder> triggered = new ArrayList<>();  // 拼接录制时多个 key 对应同一个录制器
+        for (Map.Entry<String, CodecVideoRecorder> entry : codecRecorders.entrySet()) {
+            CodecVideoRecorder codecRecorder = entry.getValue();
+            if (triggered.contains(codecRecorder)) {
+                continue;
+            }
+            triggered.add(codecRecorder);
+
+            final String key = codecRecorder.isMosaicMode() ? VideoGroup.POSITION_MOSAIC : entry.getKey();
+            String path = StorageHelper.getMediaFile(eventDir, timestamp + "_" + key + ".mp4").getAbsolutePath();
+            boolean ok = codecRecorder.triggerEventCapture(path, postEventMs, (cameraId, filePath, success) -> {
+                EventCaptureCallback callback = eventCaptureCallback;
+                if (callback != null) {
+                    mainHandler.post(() -> callback.onEventClipSaved(key, new File(filePath), success));
+                }
+            });
+            if (ok) {
+                accepted++;
+            }
+        }
+        AppLog.d(TAG, "Event capture (" + reason + ") triggered on " + accepted + " recorder(s), pre-event buffer: "
+                + getPreEventBufferStats());
+        return accepted;
+    }
+
+    /**
+     * 获取各路事件前缓存的状态和内存占用
+     * @return 状态描述（包含所有录制器的内存上限合计）
+     */
+    public String getPreEventBufferStats() {
+        StringBuilder sb = new StringBuilder();
+        List<CodecVideoRecorder> visited = new ArrayList<>();
+        long totalCapacity = 0;
+        for (Map.Entry<String, CodecVideoRecorder> entry : codecRecorders.entrySet()) {
+            CodecVideoRecorder codecRecorder = entry.getValue();
+            if (visited.contains(codecRecorder)) {
+                continue;
+            }
+            visited.add(codecRecorder);
+            String stats = codecRecorder.getPreEventBufferStats();
+            if (stats == null) {
+                continue;
+            }
+            totalCapacity += codecRecorder.getPreEventBufferCapacity();
+            String key = codecRecorder.isMosaicMode() ? VideoGroup.POSITION_MOSAIC : entry.getKey();
+            sb.append(key).append("[").append(stats).append("] ");
+        }
+        if (sb.length() == 0) {
+            return "disabled";
+        }
+        return sb.append("total cap=").append(StorageHelper.formatSize(totalCapacity)).toString();
+    }
+
+    /**
+     * 获取各路 Codec 录制器的渲染统计（每帧渲染墙钟耗时、CPU 耗时、帧间隔）
+     * 用于对比共享 GL 渲染线程与每路独立线程的开销
+     */
+    public Map<String, EglSurfaceEncoder.RenderStats> getCodecRenderStats() {
+        Map<String, EglSurfaceEncoder.RenderStats> stats = new LinkedHashMap<>();
+        for (Map.Entry<String, CodecVideoRecorder> entry : codecRecorders.entrySet()) {
+            EglSurfaceEncoder.RenderStats renderStats = entry.getValue().getRenderStats();
+            if (renderStats != null) {
+                stats.put(entry.getKey(), renderStats);
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * 获取各路摄像头 ImageReader 拍照的延迟统计（拍照请求到文件写完）
+     */
+    public Map<String, String> getStillCaptureStats() {
+        Map<String, String> stats = new LinkedHashMap<>();
+        for (Map.Entry<String, SingleCamera> entry : cameras.entrySet()) {
+            String captureStats = entry.getValue().getStillCaptureStats();
+            if (captureStats != null) {
+                stats.put(entry.getKey(), captureStats);
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * 输出各路 Codec 录制器的渲染统计
+     */
+    private void logCodecRenderStats() {
+        for (Map.Entry<String, EglSurfaceEncoder.RenderStats> entry : getCodecRenderStats().entrySet()) {
+            AppLog.d(TAG, "Render stats " + entry.getKey() + ": " + entry.getValue());
+        }
+    }
+
     public String getCameraResolutionsInfo() {
         StringBuilder sb = new StringBuilder();
         for (Map.Entry<String, SingleCamera> entry : cameras.entrySet()) {
@@ -0,0 +1,213 @@
+package com.kooo.evcam.camera;
+
+import android.media.MediaCodec;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 事件前编码帧环形缓存
+ * 在内存中保留最近 N 秒的 H.264 编码帧，事件触发时把这段"事件前"画面写入事件片段
+ *
+ * - 内存严格受限：所有帧数据写入一块固定大小的直接内存（构造时一次性分配），空间不足时淘汰最旧的帧
+ * - 关键帧对齐：淘汰后缓存总是从关键帧开始，写出的片段可以独立解码
+ * - 每帧只拷贝一次（编码输出 -> 环形内存），写出时直接引用环形内存，不再拷贝
+ *
+ * 非线程安全，只在写入 Muxer 的线程上使用（由 CodecVideoRecorder 的 muxerWriteLock 保护）
+ */
+class PreEventBuffer {
+    private static final int MIN_ENTRY_CAPACITY = 64;
+
+    private final ByteBuffer arena;
+    private final long maxDurationUs;
+
+    // 帧元数据环（与 arena 中的数据一一对应，按写入顺序排列）
+    private final int[] offsets;
+    private final int[] sizes;
+    private final int[] flags;
+    private final long[] timesUs;  // 采样时间（单调时钟，跨分段连续）
+    private int head = 0;   // 最旧的帧
+    private int count = 0;
+
+    private long usedBytes = 0;
+    private long droppedOversizeCount = 0;
+
+    // 写出时复用的对象
+    private final MediaCodec.BufferInfo drainInfo = new MediaCodec.BufferInfo();
+
+    /**
+     * @param capacityBytes 帧数据内存上限（字节）
+     * @param maxDurationMs 保留的最长时长（毫秒）
+     * @param frameRate 帧率（用于估算元数据容量）
+     */
+    PreEventBuffer(int capacityBytes, long maxDurationMs, int frameRate) {
+        arena = ByteBuffer.allocateDirect(capacityBytes);
+        maxDurationUs = maxDurationMs * 1000;
+        // 元数据按 2 倍帧率估算，帧数超过时同样淘汰最旧的帧
+        int entryCapacity = (int) Math.max(MIN_ENTRY_CAPACITY, maxDurationMs * Math.max(1, frameRate) * 2 / 1000);
+        offsets = new int[entryCapacity];
+        sizes = new int[entryCapacity];
+        flags = new int[entryCapacity];
+        timesUs = new long[entryCapacity];
+    }
+
+    /**
+     * 追加一帧编码数据（拷贝到环形内存）
+     * @param data 编码数据，position/limit 为有效范围（调用后恢复原 position）
+     * @param info 样本标志（只使用 flags）
+     * @param timeUs 采样时间（微秒，单调递增）
+     */
+    void add(ByteBuffer data, MediaCodec.BufferInfo info, long timeUs) {
+        int size = data.remaining();
+        if (size <= 0) {
+            return;
+        }
+        if (size > arena.capacity()) {
+            // 单帧超过缓存容量，之后的帧缺少参考帧，清空等待下一个关键帧
+            droppedOversizeCount++;
+            clear();
+            return;
+        }
+        boolean keyFrame = (info.flags & MediaCodec.BUFFER_FLAG_KEY_FRAME) != 0;
+        if (count == 0 && !keyFrame) {
+            return;  // 缓存必须从关键帧开始
+        }
+
+        // 按时长和帧数淘汰
+        while (count > 0 && (timeUs - timesUs[head] > maxDurationUs || count == offsets.length)) {
+            evictHead();
+        }
+
+        int offset = allocate(size, keyFrame);
+        if (offset < 0) {
+            // 淘汰后缓存被清空，当前帧不是关键帧
+            return;
+        }
+
+        int position = data.position();
+        ByteBuffer target = arena.duplicate();
+        target.position(offset);
+        target.put(data);
+        data.position(position);
+
+        int index = (head + count) % offsets.length;
+        offsets[index] = offset;
+        sizes[index] = size;
+        flags[index] = info.flags & ~MediaCodec.BUFFER_FLAG_END_OF_STREAM;
+        timesUs[index] = timeUs;
+        count++;
+        usedBytes += size;
+    }
+
+    /**
+     * 把缓存中的所有帧写入 Muxer（不拷贝数据）
+     * @param muxer 目标 Muxer（已 start）
+     * @param trackIndex 轨道索引
+     * @param baseTimeUs 片段起始时间，PTS = 采样时间 - baseTimeUs
+     * @return 写入的帧数
+     */
+    int drainTo(SampleMuxer muxer, int trackIndex, long baseTimeUs) {
+        ByteBuffer view = arena.duplicate();
+        for (int i = 0; i < count; i++) {
+            int index = (head + i) % offsets.length;
+            view.limit(offsets[index] + sizes[index]);
+            view.position(offsets[index]);
+            drainInfo.set(offsets[index], sizes[index], timesUs[index] - baseTimeUs, flags[index]);
+            muxer.writeSampleData(trackIndex, view, drainInfo);
+            view.limit(view.capacity());
+        }
+        return count;
+    }
+
+    /**
+     * 最旧一帧的采样时间（微秒），缓存为空时返回 -1
+     */
+    long getOldestTimeUs() {
+        return count > 0 ? timesUs[head] : -1;
+    }
+
+    /**
+     * 缓存覆盖的时长（微秒）
+     */
+    long getDurationUs() {
+        if (count == 0) {
+            return 0;
+        }
+        return timesUs[(head + count - 1) % offsets.length] - timesUs[head];
+    }
+
+    int getFrameCount() {
+        return count;
+    }
+
+    /**
+     * 当前帧数据占用的字节数
+     */
+    long getUsedBytes() {
+        return usedBytes;
+    }
+
+    /**
+     * 帧数据内存上限（字节）
+     */
+    int getCapacityBytes() {
+        return arena.capacity();
+    }
+
+    void clear() {
+        head = 0;
+        count = 0;
+        usedBytes = 0;
+    }
+
+    @Override
+    public String toString() {
+        return "frames=" + count + ", duration=" + (getDurationUs() / 1000) + "ms, used="
+                + (usedBytes / 1024) + "KB/" + (arena.capacity() / 1024) + "KB"
+                + (droppedOversizeCount > 0 ? ", oversize=" + droppedOversizeCount : "");
+    }
+
+    /**
+     * 在 arena 中分配连续空间，不足时淘汰最旧的帧
+     * 数据按写入顺序连续存放，尾部放不下时回绕到开头（尾部剩余空间留空）
+     * @return 偏移，缓存被清空且当前帧不是关键帧时返回 -1
+     */
+    private int allocate(int size, boolean keyFrame) {
+        int capacity = arena.capacity();
+        while (true) {
+            if (count == 0) {
+                return keyFrame ? 0 : -1;
+            }
+            int start = offsets[head];
+            int tail = (head + count - 1) % offsets.length;
+            int end = offsets[tail] + sizes[tail];
+            if (end > start) {
+                // 数据未回绕：[start, end)
+                if (capacity - end >= size) {
+                    return end;
+                }
+                if (start >= size) {
+                    return 0;
+                }
+            } else if (start - end >= size) {
+                // 数据已回绕：[start, capacity) + [0, end)
+                return end;
+            }
+            evictHead();
+        }
+    }
+
+    /**
+     * 淘汰最旧的一帧，并继续淘汰到下一个关键帧（保持缓存从关键帧开始）
+     */
+    private void evictHead() {
+        do {
+            usedBytes -= sizes[head];
+            head = (head + 1) % offsets.length;
+            count--;
+        } while (count > 0 && (flags[head] & MediaCodec.BUFFER_FLAG_KEY_FRAME) == 0);
+        if (count == 0) {
+            head = 0;
+            usedBytes = 0;
+        }
+    }
+}
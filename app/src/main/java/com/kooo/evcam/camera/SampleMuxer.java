@@ -0,0 +1,47 @@
+package com.kooo.evcam.camera;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 编码样本写入接口
+ * 抽象 CodecVideoRecorder 使用的 MP4 写入器，方法语义与 MediaMuxer 保持一致：
+ * addTrack() -> start() -> writeSampleData()... -> stop() -> release()
+ * 
+ * 实现：
+ * - PlatformSampleMuxer：系统 MediaMuxer（moov 在 stop() 时写入）
+ * - FragmentedSampleMuxer：分片 MP4，断电时最多丢失一个分片
+ */
+public interface SampleMuxer {
+    /**
+     * 添加轨道
+     * @param format 编码器输出格式（包含 csd-0/csd-1）
+     * @return 轨道索引
+     */
+    int addTrack(MediaFormat format);
+
+    /**
+     * 开始写入
+     */
+    void start();
+
+    /**
+     * 写入一个编码样本
+     * @param trackIndex 轨道索引
+     * @param data 样本数据（position/limit 为有效范围）
+     * @param info 样本信息（PTS、标志）
+     */
+    void writeSampleData(int trackIndex, ByteBuffer data, MediaCodec.BufferInfo info);
+
+    /**
+     * 停止写入并完成文件
+     */
+    void stop();
+
+    /**
+     * 释放资源
+     */
+    void release();
+}
@@ -0,0 +1,244 @@
+package com.kooo.evcam.camera;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+
+import com.kooo.evcam.AppLog;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * 多路摄像头共用的分段时钟
+ * 各路录制器不再各自在首次写入后启动分段定时器（启动时机不同，分段边界会逐渐错开），
+ * 而是由本时钟在单一线程上按同一个单调时钟（elapsedRealtime）统一触发分段切换：
+ *
+ * - 第 N 个分段边界 = 启动时刻 + N × 分段时长，每次都从启动时刻重新计算延迟，不累积误差
+ * - 每个边界生成一个统一的文件时间戳，供 SegmentTimestampProvider 使用
+ * - 记录各路从边界触发到完成切换的延迟（分段边界偏差）
+ */
+class SegmentClock {
+    private static final String TAG = "SegmentClock";
+    private static final int SKEW_SAMPLE_CAPACITY = 64;
+
+    /**
+     * 参与统一分段的录制器
+     */
+    interface Participant {
+        /**
+         * 请求在当前分段边界切换到下一段（不阻塞调用线程）
+         * @return 是否接受请求（未在录制时返回 false）
+         */
+        boolean requestSegmentSwitch();
+    }
+
+    private final HandlerThread clockThread;
+    private final Handler clockHandler;
+    private final Object lock = new Object();
+
+    private final Map<String, Participant> participants = new LinkedHashMap<>();
+    private final Map<String, LatencyRecorder> skewRecorders = new LinkedHashMap<>();
+    private final Map<String, Integer> lastRecordedBoundary = new LinkedHashMap<>();
+
+    private boolean running = false;
+    private long segmentDurationMs;
+    private long startElapsedMs;
+    private int boundaryIndex = 0;
+    private long boundaryElapsedMs = 0;     // 最近一次边界的触发时刻
+    private String boundaryTimestamp = null;  // 最近一次边界的统一文件时间戳
+
+    private final Runnable tickRunnable = this::onBoundary;
+
+    SegmentClock() {
+        clockThread = new HandlerThread("SegmentClock");
+        clockThread.start();
+        clockHandler = new Handler(clockThread.getLooper());
+    }
+
+    /**
+     * 注册参与统一分段的录制器（同一 id 重复注册时替换）
+     * @param id 录制器标识（与 RecordCallback 回调中的 cameraId 一致）
+     */
+    void register(String id, Participant participant) {
+        synchronized (lock) {
+            participants.put(id, participant);
+        }
+    }
+
+    /**
+     * 启动时钟（已启动时忽略）
+     * 应在第一路录制器首次写入数据时调用，使第一个分段时长为有效录制时长
+     * @param durationMs 分段时长（毫秒）
+     */
+    void start(long durationMs) {
+        synchronized (lock) {
+            if (running) {
+                return;
+            }
+            running = true;
+            segmentDurationMs = durationMs;
+            startElapsedMs = SystemClock.elapsedRealtime();
+            boundaryIndex = 0;
+            boundaryElapsedMs = 0;
+            boundaryTimestamp = null;
+            lastRecordedBoundary.clear();
+            scheduleNextBoundary();
+            AppLog.d(TAG, "Segment clock started, duration " + (durationMs / 1000) + "s, participants: " + participants.keySet());
+        }
+    }
+
+    /**
+     * 停止时钟并清空参与者（保留偏差统计，直到下次 resetStats）
+     */
+    void stop() {
+        synchronized (lock) {
+            if (running) {
+                AppLog.d(TAG, "Segment clock stopped after " + boundaryIndex + " boundaries, skew: " + buildSkewStats());
+            }
+            running = false;
+            clockHandler.removeCallbacks(tickRunnable);
+            participants.clear();
+            boundaryTimestamp = null;
+        }
+    }
+
+    boolean isRunning() {
+        synchronized (lock) {
+            return running;
+        }
+    }
+
+    /**
+     * 获取最近一次边界的统一文件时间戳
+     * @param maxAgeMs 有效期，超过后返回 null（分段切换失败重试等非边界切换不应复用边界时间戳）
+     * @return 时间戳（yyyyMMdd_HHmmss），没有有效的边界时间戳时返回 null
+     */
+    String getBoundaryTimestamp(long maxAgeMs) {
+        synchronized (lock) {
+            if (!running || boundaryTimestamp == null) {
+                return null;
+            }
+            if (SystemClock.elapsedRealtime() - boundaryElapsedMs > maxAgeMs) {
+                return null;
+            }
+            return boundaryTimestamp;
+        }
+    }
+
+    /**
+     * 录制器完成分段切换时调用，记录该路相对分段边界的偏差
+     * 只记录每个边界的第一次切换；距离边界超过半个分段的切换（如失败重试）不计入
+     */
+    void onParticipantSwitched(String id) {
+        synchronized (lock) {
+            if (!running || boundaryIndex == 0) {
+                return;
+            }
+            Integer recorded = lastRecordedBoundary.get(id);
+            if (recorded != null && recorded == boundaryIndex) {
+                return;
+            }
+            long skewMs = SystemClock.elapsedRealtime() - boundaryElapsedMs;
+            if (skewMs > segmentDurationMs / 2) {
+                return;
+            }
+            lastRecordedBoundary.put(id, boundaryIndex);
+            LatencyRecorder skew = skewRecorders.get(id);
+            if (skew == null) {
+                skew = new LatencyRecorder(SKEW_SAMPLE_CAPACITY);
+                skewRecorders.put(id, skew);
+            }
+            skew.record(skewMs * 1_000_000L);
+        }
+    }
+
+    /**
+     * 获取各路分段边界偏差统计
+     * @return 统计描述，id -> 偏差分位数
+     */
+    Map<String, String> getSkewStats() {
+        Map<String, String> stats = new LinkedHashMap<>();
+        synchronized (lock) {
+            for (Map.Entry<String, LatencyRecorder> entry : skewRecorders.entrySet()) {
+                stats.put(entry.getKey(), entry.getValue().toString());
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * 清空偏差统计（开始新的录制时调用）
+     */
+    void resetStats() {
+        synchronized (lock) {
+            skewRecorders.clear();
+            lastRecordedBoundary.clear();
+        }
+    }
+
+    void release() {
+        stop();
+        clockHandler.removeCallbacksAndMessages(null);
+        clockThread.quitSafely();
+    }
+
+    /**
+     * 分段边界（在时钟线程上执行）
+     * 先更新统一时间戳，再依次请求各路切换，保证各路生成的文件名相同
+     */
+    private void onBoundary() {
+        List<Map.Entry<String, Participant>> targets;
+        int index;
+        String timestamp;
+        synchronized (lock) {
+            if (!running) {
+                return;
+            }
+            boundaryElapsedMs = SystemClock.elapsedRealtime();
+            // 线程被长时间阻塞（如系统休眠）时跳过已错过的边界，避免连续触发
+            boundaryIndex = (int) Math.max(boundaryIndex + 1, (boundaryElapsedMs - startElapsedMs) / segmentDurationMs);
+            boundaryTimestamp = new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.getDefault()).format(new Date());
+            index = boundaryIndex;
+            timestamp = boundaryTimestamp;
+            targets = new ArrayList<>(participants.entrySet());
+            scheduleNextBoundary();
+        }
+
+        List<String> accepted = new ArrayList<>();
+        for (Map.Entry<String, Participant> target : targets) {
+            try {
+                if (target.getValue().requestSegmentSwitch()) {
+                    accepted.add(target.getKey());
+                }
+            } catch (Exception e) {
+                AppLog.e(TAG, "Segment switch request failed for " + target.getKey(), e);
+            }
+        }
+        AppLog.d(TAG, "Segment boundary " + index + " (" + timestamp + "), switching: " + accepted);
+    }
+
+    /**
+     * 调度下一个边界（持有 lock 时调用）
+     * 延迟按启动时刻计算，处理延迟不会累积到后续边界
+     */
+    private void scheduleNextBoundary() {
+        long nextElapsedMs = startElapsedMs + (boundaryIndex + 1) * segmentDurationMs;
+        long delayMs = Math.max(0, nextElapsedMs - SystemClock.elapsedRealtime());
+        clockHandler.removeCallbacks(tickRunnable);
+        clockHandler.postDelayed(tickRunnable, delayMs);
+    }
+
+    private String buildSkewStats() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, LatencyRecorder> entry : skewRecorders.entrySet()) {
+            sb.append(entry.getKey()).append("[").append(entry.getValue()).append("] ");
+        }
+        return sb.length() == 0 ? "n=0" : sb.toString().trim();
+    }
+}
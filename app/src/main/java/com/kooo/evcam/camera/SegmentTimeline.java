@@ -0,0 +1,63 @@
+package com.kooo.evcam.camera;
+
+import android.media.MediaCodec;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 分段文件的 PTS 时间轴
+ * 样本 PTS = 取得样本的系统时间 - 分段开始时间，不依赖帧数和假设的帧率；
+ * 无缝切换时新分段从切换关键帧的时间开始计算，与上一段共用同一时钟，
+ * 两个文件首尾相接后时间轴连续（上一段最后一帧到新分段第一帧的间隔就是实际帧间隔）
+ *
+ * 只在写入 Muxer 的线程上使用（CodecVideoRecorder 的编码线程，持有 muxerWriteLock）
+ */
+class SegmentTimeline {
+    private long segmentStartTimeNs = 0;
+    private long lastWrittenTimeNs = 0;  // 最后写入帧的时间（用于统计分段间隔）
+
+    /**
+     * 开始新的录制或完整切换后的新分段（PTS 从 startTimeNs 开始计算）
+     * @param resetLastWritten 是否清除上一帧时间（新的录制传 true）
+     */
+    void startSegment(long startTimeNs, boolean resetLastWritten) {
+        segmentStartTimeNs = startTimeNs;
+        if (resetLastWritten) {
+            lastWrittenTimeNs = 0;
+        }
+    }
+
+    /**
+     * 无缝切换：新分段从关键帧开始
+     * @return 上一段最后一帧到该关键帧的间隔（微秒），之前没有写入时为 0
+     */
+    long switchAtKeyFrame(long keyFrameTimeNs) {
+        long gapUs = lastWrittenTimeNs > 0 ? (keyFrameTimeNs - lastWrittenTimeNs) / 1000 : 0;
+        segmentStartTimeNs = keyFrameTimeNs;
+        return gapUs;
+    }
+
+    /**
+     * 样本在当前分段中的 PTS（微秒）
+     */
+    long ptsUs(long sampleTimeNs) {
+        return (sampleTimeNs - segmentStartTimeNs) / 1000;
+    }
+
+    /**
+     * 以当前分段的 PTS 写入一个样本
+     * @param data 样本数据，写入前按 info.offset/info.size 设置 position/limit
+     * @param sampleTimeNs 取得该样本的系统时间
+     */
+    void write(SampleMuxer muxer, int trackIndex, ByteBuffer data, MediaCodec.BufferInfo info, long sampleTimeNs) {
+        info.presentationTimeUs = ptsUs(sampleTimeNs);
+        data.position(info.offset);
+        data.limit(info.offset + info.size);
+        muxer.writeSampleData(trackIndex, data, info);
+        lastWrittenTimeNs = sampleTimeNs;
+    }
+
+    long getSegmentStartTimeNs() {
+        return segmentStartTimeNs;
+    }
+}
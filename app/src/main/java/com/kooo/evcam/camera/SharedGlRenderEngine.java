@@ -0,0 +1,319 @@
+package com.kooo.evcam.camera;
+
+import android.opengl.EGL14;
+import android.opengl.EGLConfig;
+import android.opengl.EGLContext;
+import android.opengl.EGLDisplay;
+import android.opengl.EGLExt;
+import android.opengl.EGLSurface;
+import android.opengl.GLES20;
+import android.os.Debug;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+
+import com.kooo.evcam.AppLog;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 多摄像头共享 GL 渲染引擎
+ *
+ * Codec 录制模式下默认每路摄像头各自拥有一个编码线程和一个 EGL 上下文，
+ * 四路摄像头时会有四个 GL 上下文在弱 SoC 上互相切换。
+ * 本引擎只创建一个渲染线程和一个 EGL 上下文，所有摄像头的 SurfaceTexture 回调、
+ * 渲染和编码器输出都在该线程上处理，着色器程序和时间水印纹理在各摄像头之间共享。
+ *
+ * 每路摄像头仍使用自己的 EglSurfaceEncoder（共享模式），只持有 OES 纹理和编码器输入的 EGL Surface。
+ *
+ * 引用计数：每个使用者调用 acquire() 获取，用完调用 release()，最后一个使用者释放时销毁线程和上下文。
+ * 创建 EGL 上下文失败时 acquire() 返回 null，调用方应回退到每路独立的 EGL 上下文。
+ */
+public class SharedGlRenderEngine {
+    private static final String TAG = "SharedGlRenderEngine";
+
+    private static SharedGlRenderEngine instance;
+    private int refCount = 0;
+
+    private HandlerThread renderThread;
+    private Handler renderHandler;
+
+    // EGL 相关（只在渲染线程上访问）
+    private EGLDisplay eglDisplay = EGL14.EGL_NO_DISPLAY;
+    private EGLContext eglContext = EGL14.EGL_NO_CONTEXT;
+    private EGLConfig eglConfig;
+    private EGLSurface pbufferSurface = EGL14.EGL_NO_SURFACE;  // 没有编码器 Surface 时用于绑定上下文
+
+    // 共享的着色器程序和水印纹理
+    private int program;
+    private WatermarkTexture watermarkTexture;
+
+    // 渲染线程 CPU 时间基准（用于与每路独立线程的方案对比）
+    private long threadCpuStartNs = -1;
+    private long wallStartNs;
+
+    private SharedGlRenderEngine() {
+    }
+
+    /**
+     * 获取共享引擎（首次获取时创建渲染线程和 EGL 上下文）
+     * @return 共享引擎，创建失败时返回 null（不保留失败的实例，下次获取时重新创建）
+     */
+    public static synchronized SharedGlRenderEngine acquire() {
+        if (instance == null) {
+            SharedGlRenderEngine engine = new SharedGlRenderEngine();
+            if (!engine.start()) {
+                engine.shutdown();
+                return null;
+            }
+            instance = engine;
+        }
+        instance.refCount++;
+        AppLog.d(TAG, "Shared render engine acquired, refCount=" + instance.refCount);
+        return instance;
+    }
+
+    /**
+     * 释放引用，最后一个使用者释放时销毁引擎
+     */
+    public void release() {
+        synchronized (SharedGlRenderEngine.class) {
+            if (refCount <= 0) {
+                return;
+            }
+            refCount--;
+            AppLog.d(TAG, "Shared render engine released, refCount=" + refCount);
+            if (refCount > 0) {
+                return;
+            }
+            if (instance == this) {
+                instance = null;
+            }
+        }
+        shutdown();
+    }
+
+    /**
+     * 渲染线程的 Handler，所有共享模式的 EglSurfaceEncoder 操作都必须 post 到该 Handler
+     */
+    public Handler getHandler() {
+        return renderHandler;
+    }
+
+    /**
+     * 当前线程是否为渲染线程
+     */
+    public boolean isRenderThread() {
+        return renderThread != null && Looper.myLooper() == renderThread.getLooper();
+    }
+
+    /**
+     * 在渲染线程上同步执行（已在渲染线程上时直接执行）
+     * @return 是否在超时前执行完成
+     */
+    public boolean runSync(Runnable task, long timeoutMs) {
+        if (isRenderThread()) {
+            task.run();
+            return true;
+        }
+        Handler handler = renderHandler;
+        if (handler == null) {
+            return false;
+        }
+        CountDownLatch latch = new CountDownLatch(1);
+        handler.post(() -> {
+            try {
+                task.run();
+            } finally {
+                latch.countDown();
+            }
+        });
+        try {
+            return latch.await(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    // ===== 供 EglSurfaceEncoder 使用（只在渲染线程上调用） =====
+
+    EGLDisplay getEglDisplay() {
+        return eglDisplay;
+    }
+
+    EGLContext getEglContext() {
+        return eglContext;
+    }
+
+    EGLConfig getEglConfig() {
+        return eglConfig;
+    }
+
+    int getProgram() {
+        return program;
+    }
+
+    /**
+     * 获取共享水印纹理（首次使用时创建）
+     * 所有摄像头共用同一张字形图集纹理和水印着色器程序
+     */
+    WatermarkTexture getWatermarkTexture() {
+        if (watermarkTexture == null) {
+            watermarkTexture = new WatermarkTexture();
+            watermarkTexture.initialize();
+        }
+        return watermarkTexture;
+    }
+
+    /**
+     * 没有编码器 Surface 时绑定上下文（例如释放某路摄像头的 GL 资源）
+     */
+    void makeCurrentPbuffer() {
+        EGL14.eglMakeCurrent(eglDisplay, pbufferSurface, pbufferSurface, eglContext);
+    }
+
+    /**
+     * 获取渲染线程的 CPU 占用率（百分比，单核）
+     * 必须在渲染线程上调用
+     */
+    public float getThreadCpuPercent() {
+        long cpuNs = Debug.threadCpuTimeNanos();
+        long wallNs = System.nanoTime() - wallStartNs;
+        if (cpuNs < 0 || threadCpuStartNs < 0 || wallNs <= 0) {
+            return -1;
+        }
+        return (cpuNs - threadCpuStartNs) * 100f / wallNs;
+    }
+
+    // ===== 私有方法 =====
+
+    /**
+     * 创建渲染线程并在其上初始化 EGL 上下文和着色器程序
+     * @return 是否成功（失败时由调用方 shutdown()）
+     */
+    private boolean start() {
+        renderThread = new HandlerThread("SharedGlRender");
+        renderThread.start();
+        renderHandler = new Handler(renderThread.getLooper());
+
+        boolean[] started = {false};
+        boolean done = runSync(() -> {
+            try {
+                initEgl();
+                program = EglSurfaceEncoder.createProgram(EglSurfaceEncoder.VERTEX_SHADER, EglSurfaceEncoder.FRAGMENT_SHADER);
+                if (program == 0) {
+                    throw new RuntimeException("Unable to create shared shader program");
+                }
+                threadCpuStartNs = Debug.threadCpuTimeNanos();
+                wallStartNs = System.nanoTime();
+                started[0] = true;
+                AppLog.d(TAG, "Shared render engine started");
+            } catch (Exception e) {
+                AppLog.e(TAG, "Failed to start shared render engine", e);
+                releaseEgl();
+            }
+        }, 5000);
+        if (!done) {
+            AppLog.e(TAG, "Timeout starting shared render engine");
+            return false;
+        }
+        return started[0];
+    }
+
+    private void shutdown() {
+        runSync(this::releaseEgl, 2000);
+        if (renderThread != null) {
+            renderThread.quitSafely();
+            try {
+                renderThread.join(1000);
+            } catch (InterruptedException e) {
+                // Ignore
+            }
+            renderThread = null;
+            renderHandler = null;
+        }
+        AppLog.d(TAG, "Shared render engine stopped");
+    }
+
+    private void initEgl() {
+        eglDisplay = EGL14.eglGetDisplay(EGL14.EGL_DEFAULT_DISPLAY);
+        if (eglDisplay == EGL14.EGL_NO_DISPLAY) {
+            throw new RuntimeException("Unable to get EGL14 display");
+        }
+
+        int[] version = new int[2];
+        if (!EGL14.eglInitialize(eglDisplay, version, 0, version, 1)) {
+            throw new RuntimeException("Unable to initialize EGL14");
+        }
+
+        int[] attribList = {
+                EGL14.EGL_RED_SIZE, 8,
+                EGL14.EGL_GREEN_SIZE, 8,
+                EGL14.EGL_BLUE_SIZE, 8,
+                EGL14.EGL_ALPHA_SIZE, 8,
+                EGL14.EGL_RENDERABLE_TYPE, EGL14.EGL_OPENGL_ES2_BIT,
+                EGL14.EGL_SURFACE_TYPE, EGL14.EGL_PBUFFER_BIT | EGL14.EGL_WINDOW_BIT,
+                EGLExt.EGL_RECORDABLE_ANDROID, 1,  // 重要：支持录制
+                EGL14.EGL_NONE
+        };
+        EGLConfig[] configs = new EGLConfig[1];
+        int[] numConfigs = new int[1];
+        if (!EGL14.eglChooseConfig(eglDisplay, attribList, 0, configs, 0, 1, numConfigs, 0)) {
+            throw new RuntimeException("Unable to find suitable EGL config");
+        }
+        eglConfig = configs[0];
+
+        int[] contextAttribList = {
+                EGL14.EGL_CONTEXT_CLIENT_VERSION, 2,
+                EGL14.EGL_NONE
+        };
+        eglContext = EGL14.eglCreateContext(eglDisplay, eglConfig, EGL14.EGL_NO_CONTEXT, contextAttribList, 0);
+        if (eglContext == EGL14.EGL_NO_CONTEXT) {
+            throw new RuntimeException("Unable to create EGL context");
+        }
+
+        int[] pbufferAttribList = {
+                EGL14.EGL_WIDTH, 1,
+                EGL14.EGL_HEIGHT, 1,
+                EGL14.EGL_NONE
+        };
+        pbufferSurface = EGL14.eglCreatePbufferSurface(eglDisplay, eglConfig, pbufferAttribList, 0);
+        if (pbufferSurface == EGL14.EGL_NO_SURFACE) {
+            throw new RuntimeException("Unable to create EGL pbuffer surface");
+        }
+        makeCurrentPbuffer();
+
+        AppLog.d(TAG, "Shared EGL context created: " + version[0] + "." + version[1]);
+    }
+
+    private void releaseEgl() {
+        if (eglDisplay == EGL14.EGL_NO_DISPLAY) {
+            return;
+        }
+        makeCurrentPbuffer();
+        AppLog.d(TAG, String.format(java.util.Locale.US, "Shared render thread CPU usage: %.1f%%", getThreadCpuPercent()));
+
+        if (program != 0) {
+            GLES20.glDeleteProgram(program);
+            program = 0;
+        }
+        if (watermarkTexture != null) {
+            watermarkTexture.release();
+            watermarkTexture = null;
+        }
+
+        EGL14.eglMakeCurrent(eglDisplay, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_CONTEXT);
+        if (pbufferSurface != EGL14.EGL_NO_SURFACE) {
+            EGL14.eglDestroySurface(eglDisplay, pbufferSurface);
+            pbufferSurface = EGL14.EGL_NO_SURFACE;
+        }
+        if (eglContext != EGL14.EGL_NO_CONTEXT) {
+            EGL14.eglDestroyContext(eglDisplay, eglContext);
+            eglContext = EGL14.EGL_NO_CONTEXT;
+        }
+        EGL14.eglTerminate(eglDisplay);
+        eglDisplay = EGL14.EGL_NO_DISPLAY;
+    }
+}
@@ -18,7 +18,6 @@ import android.hardware.camera2.TotalCaptureResult;
 import android.hardware.camera2.params.StreamConfigurationMap;
 import android.util.Range;
 import android.media.Image;
-import android.media.ImageReader;
 import android.os.Handler;
 import android.os.HandlerThread;
 import android.util.Log;
@@ -67,7 +66,12 @@ public class SingleCamera {
     private android.graphics.SurfaceTexture secondaryDisplaySurfaceTexture; // 副屏SurfaceTexture（用于设置buffer尺寸）
     private OutputConfiguration activePreviewConfig; // 共享预览配置，用于动态 Surface 增减
     private Surface previewSurface;  // 预览Surface（缓存以避免重复创建）
-    private ImageReader imageReader;  // 用于拍照的ImageReader
+    private StillCaptureReader stillCaptureReader;  // 用于拍照的 ImageReader（会话中的 JPEG 输出）
+    private volatile boolean stillCaptureInSession = false;  // 当前会话是否包含 JPEG 输出
+    private boolean stillCaptureUnsupported = false;  // 平台不支持额外的 JPEG 流（配置失败后不再尝试）
+    private static final float PHOTO_WATERMARK_MAX_TEXT_SIZE = 48;  // 拍照水印最大字号（字形图集按此字号生成）
+    private TimestampGlyphAtlas photoWatermarkAtlas;  // 拍照水印字形图集（首次拍照时创建，截图和 ImageReader 两条保存路径共用，绘制时持有 photoWatermarkLock）
+    private final Object photoWatermarkLock = new Object();
     private boolean singleOutputMode = false;  // 单一输出模式（用于不支持多路输出的车机平台）
     
     // 鱼眼矫正
@@ -839,9 +843,9 @@ public class SingleCamera {
                 previewSize = chooseOptimalSize(sizes);
                 AppLog.d(TAG, "Camera " + cameraId + " selected preview size: " + previewSize);
 
-                // 不在这里初始化ImageReader，改为拍照时按需创建
-                // 这样可以避免占用额外的缓冲区，防止超过系统限制(4个buffer)
-                AppLog.d(TAG, "Camera " + cameraId + " ImageReader will be created on demand when taking picture");
+                // 不在这里初始化ImageReader，改为创建会话时按配置加入（平台不支持额外的流时自动禁用）
+                // JPEG 流只在拍照时作为请求目标，不随预览重复出图
+                AppLog.d(TAG, "Camera " + cameraId + " ImageReader will be created with the capture session if enabled");
 
                 // 通知回调预览尺寸已确定
                 if (callback != null && previewSize != null) {
@@ -1338,6 +1342,8 @@ public class SingleCamera {
             // 准备所有输出Surface
             java.util.List<Surface> surfaces = new java.util.ArrayList<>();
             java.util.List<OutputConfiguration> outputConfigs = new java.util.ArrayList<>();
+            boolean includesStillSurface = false;
+            stillCaptureInSession = false;
 
             // 单一输出模式处理（用于 L6/L7 等不支持多路输出的车机平台）
             if (singleOutputMode && recordSurface != null && recordSurface.isValid()) {
@@ -1433,6 +1439,18 @@ public class SingleCamera {
                     previewRequestBuilder.addTarget(recordSurface);
                     AppLog.d(TAG, "Added record surface as SEPARATE stream");
                 }
+
+                // 拍照 JPEG 输出作为独立的流（不加入重复请求，只在拍照时作为目标）
+                // 鱼眼模式下拍照需要矫正后的画面，仍使用 TextureView 截图
+                if (!fisheyeActive && !outputConfigs.isEmpty()) {
+                    Surface stillSurface = prepareStillCaptureSurface();
+                    if (stillSurface != null) {
+                        outputConfigs.add(new OutputConfiguration(stillSurface));
+                        surfaces.add(stillSurface);
+                        includesStillSurface = true;
+                        AppLog.d(TAG, "Added still capture surface as SEPARATE stream");
+                    }
+                }
             }
 
             if (outputConfigs.isEmpty()) {
@@ -1460,6 +1478,7 @@ public class SingleCamera {
 
             // 创建会话 (使用 OutputConfiguration)
             AppLog.d(TAG, "Camera " + cameraId + " Creating capture session with " + outputConfigs.size() + " streams...");
+            final boolean stillIncluded = includesStillSurface;
             
             CameraCaptureSession.StateCallback sessionCallback = new CameraCaptureSession.StateCallback() {
                 @Override
@@ -1492,6 +1511,7 @@ public class SingleCamera {
                     }
 
                     captureSession = session;
+                    stillCaptureInSession = stillIncluded;
                     try {
                         frameCount = 0;
                         lastFrameLogTime = System.currentTimeMillis();
@@ -1530,6 +1550,18 @@ public class SingleCamera {
                         createCameraPreviewSession();
                         return;
                     }
+
+                    // 额外的 JPEG 流可能超出平台支持的流数量：禁用后立即重试（拍照回退到 TextureView 截图）
+                    if (stillIncluded) {
+                        stillCaptureUnsupported = true;
+                        AppLog.w(TAG, "Camera " + cameraId + " retrying without still capture surface...");
+                        if (backgroundHandler != null) {
+                            backgroundHandler.postDelayed(() -> {
+                                if (cameraDevice != null) createCameraPreviewSession();
+                            }, 200);
+                        }
+                        return;
+                    }
                     
                     // 重试逻辑
                     boolean fisheyeActive = (fisheyeCorrector != null && fisheyeCorrector.isInitialized());
@@ -1967,13 +1999,19 @@ public class SingleCamera {
      * @return 当前画面的 Bitmap，失败返回 null（调用方负责回收）
      */
     public android.graphics.Bitmap captureBitmap() {
-        if (textureView == null || !textureView.isAvailable()) {
-            AppLog.w(TAG, "Camera " + cameraId + " TextureView not available for capture");
+        if (previewSize == null) {
+            AppLog.w(TAG, "Camera " + cameraId + " preview size not available for capture");
             return null;
         }
 
-        if (previewSize == null) {
-            AppLog.w(TAG, "Camera " + cameraId + " preview size not available for capture");
+        if (textureView == null || !textureView.isAvailable()) {
+            // 预览未显示（如熄屏录制）时，在主线程和相机线程以外可以通过 JPEG 输出同步取图
+            android.os.Looper looper = android.os.Looper.myLooper();
+            if (stillCaptureInSession && looper != android.os.Looper.getMainLooper()
+                    && (backgroundHandler == null || looper != backgroundHandler.getLooper())) {
+                return captureBitmapWithImageReader();
+            }
+            AppLog.w(TAG, "Camera " + cameraId + " TextureView not available for capture");
             return null;
         }
 
@@ -2017,6 +2055,11 @@ public class SingleCamera {
      * @param saveDelayMs 保存文件前的延迟时间（毫秒）
      */
     public void takePicture(String timestamp, int saveDelayMs) {
+        // 优先使用 ImageReader 拍照（JPEG 直接写入文件，不需要预览 TextureView）
+        if (stillCaptureInSession && takePictureWithImageReader(timestamp, saveDelayMs)) {
+            return;
+        }
+
         if (textureView == null || !textureView.isAvailable()) {
             AppLog.e(TAG, "Camera " + cameraId + " TextureView not available");
             return;
@@ -2077,21 +2120,7 @@ public class SingleCamera {
      * 将Bitmap保存为JPEG文件（使用指定的时间戳）
      */
     private void saveBitmapAsJPEG(android.graphics.Bitmap bitmap, String timestamp) {
-        File photoDir = StorageHelper.getPhotoDir(context);
-        if (!photoDir.exists()) {
-            photoDir.mkdirs();
-        }
-
-        // 检查存储空间是否充足（至少需要 5MB）
-        long availableSpace = StorageHelper.getAvailableSpace(photoDir);
-        if (availableSpace >= 0 && availableSpace < 5 * 1024 * 1024) {
-            AppLog.w(TAG, "Camera " + cameraId + " 存储空间不足，剩余: " + StorageHelper.formatSize(availableSpace));
-            // 仍然尝试保存，因为照片通常只有几百KB
-        }
-
-        // 使用传入的时间戳命名：yyyyMMdd_HHmmss_摄像头位置.jpg
-        String position = (cameraPosition != null) ? cameraPosition : cameraId;
-        File photoFile = new File(photoDir, timestamp + "_" + position + ".jpg");
+        File photoFile = createPhotoFile(timestamp);
 
         // 检查是否需要添加时间角标
         android.graphics.Bitmap finalBitmap = bitmap;
@@ -2133,59 +2162,155 @@ public class SingleCamera {
         }
     }
 
+    /**
+     * 生成照片文件路径（yyyyMMdd_HHmmss_摄像头位置.jpg），并检查存储空间
+     */
+    private File createPhotoFile(String timestamp) {
+        File photoDir = StorageHelper.getPhotoDir(context);
+        if (!photoDir.exists()) {
+            photoDir.mkdirs();
+        }
+
+        // 检查存储空间是否充足（至少需要 5MB）
+        long availableSpace = StorageHelper.getAvailableSpace(photoDir);
+        if (availableSpace >= 0 && availableSpace < 5 * 1024 * 1024) {
+            AppLog.w(TAG, "Camera " + cameraId + " 存储空间不足，剩余: " + StorageHelper.formatSize(availableSpace));
+            // 仍然尝试保存，因为照片通常只有几百KB
+        }
+
+        // 使用传入的时间戳命名：yyyyMMdd_HHmmss_摄像头位置.jpg
+        String position = (cameraPosition != null) ? cameraPosition : cameraId;
+        return StorageHelper.getMediaFile(photoDir, timestamp + "_" + position + ".jpg");
+    }
+
+    /**
+     * 准备拍照用的 JPEG 输出 Surface（创建会话时调用）
+     * @return Surface，未启用或不支持时返回 null
+     */
+    private Surface prepareStillCaptureSurface() {
+        if (stillCaptureUnsupported || previewSize == null || !new AppConfig(context).isImageReaderCaptureEnabled()) {
+            return null;
+        }
+        CameraCharacteristics characteristics = getCameraCharacteristics();
+        if (characteristics == null) {
+            return null;
+        }
+        Size jpegSize = StillCaptureReader.chooseSize(
+                characteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP), previewSize);
+        if (jpegSize == null) {
+            AppLog.w(TAG, "Camera " + cameraId + " no JPEG output size available, using TextureView capture");
+            stillCaptureUnsupported = true;
+            return null;
+        }
+        if (stillCaptureReader == null) {
+            stillCaptureReader = new StillCaptureReader(cameraId, this::addTimestampWatermark);
+        }
+        try {
+            return stillCaptureReader.prepare(jpegSize);
+        } catch (Exception e) {
+            AppLog.e(TAG, "Camera " + cameraId + " failed to create still capture reader", e);
+            stillCaptureUnsupported = true;
+            return null;
+        }
+    }
+
+    /**
+     * 通过 ImageReader 拍照，JPEG 数据直接写入文件
+     * @return 是否已下发拍照请求（失败时调用方回退到 TextureView 截图）
+     */
+    private boolean takePictureWithImageReader(String timestamp, int saveDelayMs) {
+        CameraCaptureSession session = captureSession;
+        CameraDevice device = cameraDevice;
+        StillCaptureReader reader = stillCaptureReader;
+        if (session == null || device == null || reader == null) {
+            return false;
+        }
+        try {
+            boolean watermark = new AppConfig(context).isTimestampWatermarkEnabled();
+            reader.capture(device, session, backgroundHandler, createPhotoFile(timestamp), timestamp, saveDelayMs, watermark);
+            AppLog.d(TAG, "Camera " + cameraId + " still capture requested, will save in " + saveDelayMs + "ms");
+            return true;
+        } catch (CameraAccessException | RuntimeException e) {
+            AppLog.w(TAG, "Camera " + cameraId + " still capture failed, falling back to TextureView: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * 通过 ImageReader 同步取一帧位图（不能在主线程上调用）
+     */
+    private android.graphics.Bitmap captureBitmapWithImageReader() {
+        CameraCaptureSession session = captureSession;
+        CameraDevice device = cameraDevice;
+        StillCaptureReader reader = stillCaptureReader;
+        if (session == null || device == null || reader == null) {
+            return null;
+        }
+        try {
+            return reader.captureBitmap(device, session, backgroundHandler, previewSize, 2000);
+        } catch (CameraAccessException | RuntimeException e) {
+            AppLog.w(TAG, "Camera " + cameraId + " still capture for bitmap failed: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 获取 ImageReader 拍照的延迟统计（拍照请求到文件写完）
+     * @return 统计描述，未使用 ImageReader 拍照时返回 null
+     */
+    public String getStillCaptureStats() {
+        StillCaptureReader reader = stillCaptureReader;
+        return reader != null ? reader.getStats() : null;
+    }
+
     /**
      * 在Bitmap上添加时间角标
-     * @param originalBitmap 原始图片
+     * @param originalBitmap 原始图片（可写位图直接绘制，否则创建副本）
      * @param timestamp 时间戳字符串（格式：yyyyMMdd_HHmmss）
-     * @return 带有时间角标的新Bitmap
+     * @return 带有时间角标的Bitmap
      */
     private android.graphics.Bitmap addTimestampWatermark(android.graphics.Bitmap originalBitmap, String timestamp) {
         try {
-            // 创建可编辑的副本
-            android.graphics.Bitmap mutableBitmap = originalBitmap.copy(android.graphics.Bitmap.Config.ARGB_8888, true);
+            // 可写位图（ImageReader 拍照解码得到）直接绘制，否则创建可编辑的副本
+            android.graphics.Bitmap mutableBitmap = originalBitmap.isMutable()
+                    ? originalBitmap
+                    : originalBitmap.copy(android.graphics.Bitmap.Config.ARGB_8888, true);
             android.graphics.Canvas canvas = new android.graphics.Canvas(mutableBitmap);
 
             // 将时间戳转换为可读格式：yyyyMMdd_HHmmss -> yyyy-MM-dd HH:mm:ss
-            String displayTime;
-            try {
-                java.text.SimpleDateFormat inputFormat = new java.text.SimpleDateFormat("yyyyMMdd_HHmmss", Locale.getDefault());
-                java.text.SimpleDateFormat outputFormat = new java.text.SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.getDefault());
-                java.util.Date date = inputFormat.parse(timestamp);
-                displayTime = outputFormat.format(date);
-            } catch (Exception e) {
-                // 解析失败，使用当前时间
-                displayTime = new java.text.SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.getDefault()).format(new java.util.Date());
+            char[] displayTime = new char[TimestampGlyphAtlas.TIMESTAMP_LENGTH];
+            if (timestamp != null && timestamp.length() == 15 && timestamp.charAt(8) == '_') {
+                timestamp.getChars(0, 4, displayTime, 0);
+                displayTime[4] = '-';
+                timestamp.getChars(4, 6, displayTime, 5);
+                displayTime[7] = '-';
+                timestamp.getChars(6, 8, displayTime, 8);
+                displayTime[10] = ' ';
+                timestamp.getChars(9, 11, displayTime, 11);
+                displayTime[13] = ':';
+                timestamp.getChars(11, 13, displayTime, 14);
+                displayTime[16] = ':';
+                timestamp.getChars(13, 15, displayTime, 17);
+            } else {
+                // 格式不符，使用当前时间
+                TimestampGlyphAtlas.formatTimestamp(java.util.Calendar.getInstance(), displayTime);
             }
 
             // 根据图片宽度动态计算字体大小（约为图片宽度的3%）
             float textSize = mutableBitmap.getWidth() * 0.03f;
             if (textSize < 16) textSize = 16;  // 最小16像素
-            if (textSize > 48) textSize = 48;  // 最大48像素
-
-            // 设置画笔 - 阴影效果
-            android.graphics.Paint shadowPaint = new android.graphics.Paint();
-            shadowPaint.setColor(android.graphics.Color.BLACK);
-            shadowPaint.setTextSize(textSize);
-            shadowPaint.setAntiAlias(true);
-            shadowPaint.setTypeface(android.graphics.Typeface.MONOSPACE);
-
-            // 设置画笔 - 主文字
-            android.graphics.Paint textPaint = new android.graphics.Paint();
-            textPaint.setColor(android.graphics.Color.WHITE);
-            textPaint.setTextSize(textSize);
-            textPaint.setAntiAlias(true);
-            textPaint.setTypeface(android.graphics.Typeface.MONOSPACE);
-
-            // 计算位置（左上角，留一定边距）
-            float x = textSize * 0.5f;
-            float y = textSize * 1.2f;
-
-            // 绘制阴影（偏移2像素）
-            canvas.drawText(displayTime, x + 2, y + 2, shadowPaint);
-            // 绘制主文字
-            canvas.drawText(displayTime, x, y, textPaint);
-
-            AppLog.d(TAG, "Camera " + cameraId + " added timestamp watermark: " + displayTime);
+            if (textSize > PHOTO_WATERMARK_MAX_TEXT_SIZE) textSize = PHOTO_WATERMARK_MAX_TEXT_SIZE;  // 最大48像素
+
+            // 从字形图集绘制（图集按最大字号生成一次，阴影已包含在图集中）
+            synchronized (photoWatermarkLock) {
+                if (photoWatermarkAtlas == null) {
+                    photoWatermarkAtlas = new TimestampGlyphAtlas(PHOTO_WATERMARK_MAX_TEXT_SIZE);
+                }
+                // 位置（左上角，留一定边距）
+                photoWatermarkAtlas.drawText(canvas, displayTime, textSize * 0.5f, textSize * 0.3f, textSize);
+            }
+
+            AppLog.d(TAG, "Camera " + cameraId + " added timestamp watermark: " + new String(displayTime));
             return mutableBitmap;
 
         } catch (Exception e) {
@@ -2292,14 +2417,11 @@ public class SingleCamera {
             }
 
             // 释放ImageReader
-            if (imageReader != null) {
-                try {
-                    imageReader.close();
-                    AppLog.d(TAG, "Camera " + cameraId + " released image reader");
-                } catch (Exception e) {
-                    AppLog.d(TAG, "Camera " + cameraId + " ignored exception while closing image reader: " + e.getMessage());
-                }
-                imageReader = null;
+            stillCaptureInSession = false;
+            if (stillCaptureReader != null) {
+                stillCaptureReader.release();
+                stillCaptureReader = null;
+                AppLog.d(TAG, "Camera " + cameraId + " released image reader");
             }
 
             stopBackgroundThread();
@@ -0,0 +1,68 @@
+package com.kooo.evcam.camera;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 有界单生产者单消费者无锁环形队列
+ * 生产者和消费者各自只有一个线程时，offer/poll 不加锁、不分配对象
+ *
+ * 用于编码器输出回调线程把编码样本交给 Muxer 写入线程，以及写入后把样本归还到对象池
+ */
+class SpscRingBuffer<T> {
+    private final Object[] slots;
+    private final int mask;
+    private final AtomicLong head = new AtomicLong();  // 下一个读取位置（只由消费者推进）
+    private final AtomicLong tail = new AtomicLong();  // 下一个写入位置（只由生产者推进）
+
+    /**
+     * @param capacity 容量，向上取整为 2 的幂
+     */
+    SpscRingBuffer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        slots = new Object[size];
+        mask = size - 1;
+    }
+
+    /**
+     * 放入元素（只能由生产者线程调用）
+     * @return 队列已满时返回 false
+     */
+    boolean offer(T item) {
+        long currentTail = tail.get();
+        if (currentTail - head.get() >= slots.length) {
+            return false;
+        }
+        slots[(int) currentTail & mask] = item;
+        tail.lazySet(currentTail + 1);  // 发布元素，保证消费者先看到 slot 写入
+        return true;
+    }
+
+    /**
+     * 取出元素（只能由消费者线程调用）
+     * @return 队列为空时返回 null
+     */
+    @SuppressWarnings("unchecked")
+    T poll() {
+        long currentHead = head.get();
+        if (currentHead >= tail.get()) {
+            return null;
+        }
+        int index = (int) currentHead & mask;
+        T item = (T) slots[index];
+        slots[index] = null;
+        head.lazySet(currentHead + 1);
+        return item;
+    }
+
+    int size() {
+        return (int) (tail.get() - head.get());
+    }
+
+    boolean isEmpty() {
+        return head.get() >= tail.get();
+    }
+
+    int capacity() {
+        return slots.length;
+    }
+}
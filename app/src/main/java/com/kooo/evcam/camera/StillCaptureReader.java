@@ -0,0 +1,388 @@
+package com.kooo.evcam.camera;
+
+import android.graphics.Bitmap;
+import android.graphics.ImageDecoder;
+import android.graphics.ImageFormat;
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraCaptureSession;
+import android.hardware.camera2.CameraDevice;
+import android.hardware.camera2.CaptureFailure;
+import android.hardware.camera2.CaptureRequest;
+import android.hardware.camera2.params.StreamConfigurationMap;
+import android.media.ExifInterface;
+import android.media.Image;
+import android.media.ImageReader;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Size;
+import android.view.Surface;
+
+import androidx.annotation.NonNull;
+
+import com.kooo.evcam.AppLog;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ImageReader 拍照
+ * 会话中增加一路 JPEG 输出（不加入重复请求），拍照时单独下发一次 capture，
+ * 相机输出的 JPEG 数据直接写入文件，不经过 TextureView.getBitmap() 的 GPU 回读和位图拷贝
+ *
+ * - 时间信息写入 EXIF；启用时间角标时解码为可写位图绘制角标后再压缩
+ * - 不依赖预览 TextureView，熄屏录制时也能拍照
+ * - 记录每路摄像头从下发拍照请求到文件写完的延迟
+ *
+ * 图像回调和文件写入在独立的保存线程上执行，不阻塞相机线程
+ */
+class StillCaptureReader {
+    private static final String TAG = "StillCaptureReader";
+    private static final int MAX_IMAGES = 2;
+    private static final byte JPEG_QUALITY = 90;
+
+    /**
+     * 时间角标绘制（在位图上绘制时间，返回绘制后的位图）
+     */
+    interface Watermarker {
+        Bitmap apply(Bitmap bitmap, String timestamp);
+    }
+
+    /**
+     * 一次拍照请求（按下发顺序与图像对应）
+     */
+    private static class PendingStill {
+        File file;               // 保存路径，为 null 时表示只取位图
+        String timestamp;        // yyyyMMdd_HHmmss
+        long requestTimeNs;
+        int saveDelayMs;
+        boolean watermark;
+        Size bitmapSize;         // 取位图时的目标尺寸
+        CountDownLatch latch;    // 取位图时等待结果
+        Bitmap bitmap;
+    }
+
+    private final String cameraId;
+    private final Watermarker watermarker;
+    private HandlerThread saveThread;
+    private Handler saveHandler;
+    private ImageReader imageReader;
+    private Size size;
+    private final ArrayDeque<PendingStill> pending = new ArrayDeque<>();
+    private final LatencyRecorder captureToFileLatency = new LatencyRecorder(64);
+
+    StillCaptureReader(String cameraId, Watermarker watermarker) {
+        this.cameraId = cameraId;
+        this.watermarker = watermarker;
+    }
+
+    /**
+     * 选择 JPEG 输出尺寸：优先与预览相同，其次同宽高比且不超过预览面积的最大尺寸
+     * @return 尺寸，不支持 JPEG 输出时返回 null
+     */
+    static Size chooseSize(StreamConfigurationMap map, Size previewSize) {
+        if (map == null || previewSize == null) {
+            return null;
+        }
+        Size[] sizes = map.getOutputSizes(ImageFormat.JPEG);
+        if (sizes == null || sizes.length == 0) {
+            return null;
+        }
+        long previewArea = (long) previewSize.getWidth() * previewSize.getHeight();
+        float previewRatio = (float) previewSize.getWidth() / previewSize.getHeight();
+        Size sameRatio = null;
+        Size smaller = null;
+        for (Size candidate : sizes) {
+            if (candidate.equals(previewSize)) {
+                return candidate;
+            }
+            long area = (long) candidate.getWidth() * candidate.getHeight();
+            if (area > previewArea) {
+                continue;
+            }
+            float ratio = (float) candidate.getWidth() / candidate.getHeight();
+            if (Math.abs(ratio - previewRatio) < 0.01f
+                    && (sameRatio == null || area > (long) sameRatio.getWidth() * sameRatio.getHeight())) {
+                sameRatio = candidate;
+            }
+            if (smaller == null || area > (long) smaller.getWidth() * smaller.getHeight()) {
+                smaller = candidate;
+            }
+        }
+        return sameRatio != null ? sameRatio : smaller;
+    }
+
+    /**
+     * 准备 JPEG 输出 Surface（尺寸不变时复用已有的 ImageReader）
+     * 必须在旧会话关闭后调用
+     */
+    Surface prepare(Size jpegSize) {
+        if (saveThread == null) {
+            saveThread = new HandlerThread("PhotoSave-" + cameraId);
+            saveThread.start();
+            saveHandler = new Handler(saveThread.getLooper());
+        }
+        if (imageReader != null && jpegSize.equals(size)) {
+            return imageReader.getSurface();
+        }
+        closeReader();
+        size = jpegSize;
+        imageReader = ImageReader.newInstance(jpegSize.getWidth(), jpegSize.getHeight(), ImageFormat.JPEG, MAX_IMAGES);
+        imageReader.setOnImageAvailableListener(this::onImageAvailable, saveHandler);
+        AppLog.d(TAG, "Camera " + cameraId + " JPEG still output " + jpegSize.getWidth() + "x" + jpegSize.getHeight());
+        return imageReader.getSurface();
+    }
+
+    /**
+     * 拍照并保存到文件（异步）
+     * @param saveDelayMs 写入文件前的延迟（多路摄像头分散 I/O）
+     * @param watermark 是否绘制时间角标
+     */
+    void capture(CameraDevice device, CameraCaptureSession session, Handler cameraHandler,
+                 File file, String timestamp, int saveDelayMs, boolean watermark) throws CameraAccessException {
+        PendingStill still = new PendingStill();
+        still.file = file;
+        still.timestamp = timestamp;
+        still.saveDelayMs = saveDelayMs;
+        still.watermark = watermark;
+        submit(device, session, cameraHandler, still);
+    }
+
+    /**
+     * 拍照并解码为位图（同步等待，不能在主线程或相机线程上调用）
+     * @param targetSize 解码尺寸
+     * @return 位图，失败或超时返回 null（调用方负责回收）
+     */
+    Bitmap captureBitmap(CameraDevice device, CameraCaptureSession session, Handler cameraHandler,
+                         Size targetSize, long timeoutMs) throws CameraAccessException {
+        PendingStill still = new PendingStill();
+        still.bitmapSize = targetSize;
+        still.latch = new CountDownLatch(1);
+        submit(device, session, cameraHandler, still);
+        try {
+            if (!still.latch.await(timeoutMs, TimeUnit.MILLISECONDS)) {
+                AppLog.w(TAG, "Camera " + cameraId + " still capture timed out");
+                synchronized (pending) {
+                    pending.remove(still);
+                }
+                return null;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        return still.bitmap;
+    }
+
+    /**
+     * 拍照到文件的延迟统计
+     */
+    String getStats() {
+        synchronized (captureToFileLatency) {
+            return "capture-to-file " + captureToFileLatency;
+        }
+    }
+
+    /**
+     * 释放 ImageReader 和保存线程（关闭摄像头时调用）
+     */
+    void release() {
+        closeReader();
+        synchronized (pending) {
+            for (PendingStill still : pending) {
+                if (still.latch != null) {
+                    still.latch.countDown();
+                }
+            }
+            pending.clear();
+        }
+        if (saveThread != null) {
+            saveThread.quitSafely();
+            saveThread = null;
+            saveHandler = null;
+        }
+    }
+
+    private void submit(CameraDevice device, CameraCaptureSession session, Handler cameraHandler,
+                        PendingStill still) throws CameraAccessException {
+        if (imageReader == null) {
+            throw new IllegalStateException("JPEG output not prepared");
+        }
+        CaptureRequest.Builder builder = device.createCaptureRequest(CameraDevice.TEMPLATE_STILL_CAPTURE);
+        builder.addTarget(imageReader.getSurface());
+        builder.set(CaptureRequest.JPEG_QUALITY, JPEG_QUALITY);
+        builder.setTag(still);
+
+        still.requestTimeNs = System.nanoTime();
+        synchronized (pending) {
+            pending.add(still);
+        }
+        try {
+            session.capture(builder.build(), captureCallback, cameraHandler);
+        } catch (CameraAccessException | RuntimeException e) {
+            synchronized (pending) {
+                pending.remove(still);
+            }
+            throw e;
+        }
+    }
+
+    private final CameraCaptureSession.CaptureCallback captureCallback = new CameraCaptureSession.CaptureCallback() {
+        @Override
+        public void onCaptureFailed(@NonNull CameraCaptureSession session, @NonNull CaptureRequest request,
+                                    @NonNull CaptureFailure failure) {
+            Object tag = request.getTag();
+            AppLog.w(TAG, "Camera " + cameraId + " still capture failed, reason=" + failure.getReason());
+            if (tag instanceof PendingStill) {
+                PendingStill still = (PendingStill) tag;
+                synchronized (pending) {
+                    pending.remove(still);
+                }
+                if (still.latch != null) {
+                    still.latch.countDown();
+                }
+            }
+        }
+    };
+
+    /**
+     * 保存线程：取出 JPEG 图像，写入文件或解码为位图
+     */
+    private void onImageAvailable(ImageReader reader) {
+        Image image;
+        try {
+            image = reader.acquireNextImage();
+        } catch (IllegalStateException e) {
+            AppLog.w(TAG, "Camera " + cameraId + " failed to acquire still image: " + e.getMessage());
+            return;
+        }
+        if (image == null) {
+            return;
+        }
+        PendingStill still;
+        synchronized (pending) {
+            still = pending.poll();
+        }
+        if (still == null) {
+            image.close();
+            return;
+        }
+        if (still.file == null) {
+            decodeBitmap(image, still);
+        } else if (still.saveDelayMs > 0) {
+            // 延迟写入时保持图像打开（ImageReader 最多持有 MAX_IMAGES 张）
+            saveHandler.postDelayed(() -> saveImage(image, still), still.saveDelayMs);
+        } else {
+            saveImage(image, still);
+        }
+    }
+
+    private void saveImage(Image image, PendingStill still) {
+        try {
+            ByteBuffer jpeg = image.getPlanes()[0].getBuffer();
+            if (still.watermark && watermarker != null) {
+                writeWithWatermark(jpeg, still);
+            } else {
+                try (FileOutputStream output = new FileOutputStream(still.file);
+                     FileChannel channel = output.getChannel()) {
+                    while (jpeg.hasRemaining()) {
+                        channel.write(jpeg);
+                    }
+                }
+            }
+            writeExifTime(still);
+
+            long latencyNs = System.nanoTime() - still.requestTimeNs;
+            synchronized (captureToFileLatency) {
+                captureToFileLatency.record(latencyNs);
+            }
+            AppLog.i(TAG, "Photo saved: " + still.file.getAbsolutePath() + " (capture-to-file "
+                    + (latencyNs / 1_000_000) + "ms)");
+        } catch (Exception e) {
+            if (e.getMessage() != null && e.getMessage().contains("ENOSPC")) {
+                AppLog.e(TAG, "Camera " + cameraId + " 保存照片失败：存储空间已满");
+            } else {
+                AppLog.e(TAG, "Camera " + cameraId + " failed to save still image", e);
+            }
+        } finally {
+            image.close();
+        }
+    }
+
+    /**
+     * 解码为可写位图（不额外拷贝）、绘制时间角标后压缩保存
+     */
+    private void writeWithWatermark(ByteBuffer jpeg, PendingStill still) throws IOException {
+        Bitmap bitmap = ImageDecoder.decodeBitmap(ImageDecoder.createSource(jpeg), (decoder, info, source) -> {
+            decoder.setAllocator(ImageDecoder.ALLOCATOR_SOFTWARE);
+            decoder.setMutableRequired(true);
+        });
+        Bitmap marked = watermarker.apply(bitmap, still.timestamp);
+        try (FileOutputStream output = new FileOutputStream(still.file)) {
+            marked.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, output);
+        } finally {
+            if (marked != bitmap) {
+                marked.recycle();
+            }
+            bitmap.recycle();
+        }
+    }
+
+    /**
+     * 把拍照时间写入 EXIF（DateTime/DateTimeOriginal/DateTimeDigitized）
+     */
+    private void writeExifTime(PendingStill still) {
+        try {
+            Date date = null;
+            if (still.timestamp != null) {
+                date = new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.US).parse(still.timestamp);
+            }
+            String exifTime = new SimpleDateFormat("yyyy:MM:dd HH:mm:ss", Locale.US)
+                    .format(date != null ? date : new Date());
+            ExifInterface exif = new ExifInterface(still.file.getAbsolutePath());
+            exif.setAttribute(ExifInterface.TAG_DATETIME, exifTime);
+            exif.setAttribute(ExifInterface.TAG_DATETIME_ORIGINAL, exifTime);
+            exif.setAttribute(ExifInterface.TAG_DATETIME_DIGITIZED, exifTime);
+            exif.saveAttributes();
+        } catch (Exception e) {
+            AppLog.w(TAG, "Camera " + cameraId + " failed to write EXIF time: " + e.getMessage());
+        }
+    }
+
+    private void decodeBitmap(Image image, PendingStill still) {
+        try {
+            ByteBuffer jpeg = image.getPlanes()[0].getBuffer();
+            still.bitmap = ImageDecoder.decodeBitmap(ImageDecoder.createSource(jpeg), (decoder, info, source) -> {
+                decoder.setAllocator(ImageDecoder.ALLOCATOR_SOFTWARE);
+                if (still.bitmapSize != null) {
+                    decoder.setTargetSize(still.bitmapSize.getWidth(), still.bitmapSize.getHeight());
+                }
+            });
+        } catch (Exception e) {
+            AppLog.e(TAG, "Camera " + cameraId + " failed to decode still image", e);
+        } finally {
+            image.close();
+            still.latch.countDown();
+        }
+    }
+
+    private void closeReader() {
+        if (imageReader != null) {
+            try {
+                imageReader.close();
+            } catch (Exception e) {
+                AppLog.d(TAG, "Camera " + cameraId + " ignored exception while closing image reader: " + e.getMessage());
+            }
+            imageReader = null;
+            size = null;
+        }
+    }
+}
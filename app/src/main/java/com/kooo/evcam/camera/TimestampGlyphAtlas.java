@@ -0,0 +1,166 @@
+package com.kooo.evcam.camera;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.graphics.Typeface;
+
+import java.util.Calendar;
+
+/**
+ * 时间戳字形图集
+ * 一次性把时间戳用到的字符（数字、'-'、':'、空格）连同阴影绘制到一行等宽格子中，
+ * 之后按字符查表取格子，不再为每个时间戳重新绘制文字
+ *
+ * 录像水印（WatermarkTexture）把图集上传为 GL 纹理后逐字符绘制四边形；
+ * 拍照水印（SingleCamera）直接用 Canvas 从图集拷贝格子
+ */
+class TimestampGlyphAtlas {
+    static final String GLYPHS = "0123456789-: ";
+    static final int TIMESTAMP_LENGTH = 19;  // yyyy-MM-dd HH:mm:ss
+
+    private static final int SHADOW_OFFSET_RATIO = 14;  // 阴影偏移 = 字号 / 14（28px 字号时为 2px，与原水印一致）
+
+    private final float textSize;
+    private final int cellWidth;
+    private final int cellHeight;
+    private final int baseline;
+    private Bitmap bitmap;
+
+    // 拍照水印绘制时复用，避免逐字符分配
+    private final Rect srcRect = new Rect();
+    private final RectF dstRect = new RectF();
+    private final Paint bitmapPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+    /**
+     * @param textSize 图集中的字号（像素）
+     */
+    TimestampGlyphAtlas(float textSize) {
+        this.textSize = textSize;
+        Paint textPaint = createPaint(Color.WHITE, textSize);
+        Paint shadowPaint = createPaint(Color.BLACK, textSize);
+        int shadowOffset = Math.max(1, Math.round(textSize / SHADOW_OFFSET_RATIO));
+
+        // 等宽字体：所有字符宽度相同，格子额外留出阴影偏移和 1 像素间隔防止线性采样串色
+        Paint.FontMetricsInt metrics = textPaint.getFontMetricsInt();
+        cellWidth = (int) Math.ceil(textPaint.measureText("0")) + shadowOffset + 1;
+        cellHeight = metrics.descent - metrics.ascent + shadowOffset + 1;
+        baseline = -metrics.ascent;
+
+        bitmap = Bitmap.createBitmap(cellWidth * GLYPHS.length(), cellHeight, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+        for (int i = 0; i < GLYPHS.length(); i++) {
+            String glyph = GLYPHS.substring(i, i + 1);
+            float x = i * cellWidth;
+            canvas.drawText(glyph, x + shadowOffset, baseline + shadowOffset, shadowPaint);
+            canvas.drawText(glyph, x, baseline, textPaint);
+        }
+    }
+
+    /**
+     * 图集位图（单行格子，第 i 个格子对应 GLYPHS 的第 i 个字符）
+     */
+    Bitmap getBitmap() {
+        return bitmap;
+    }
+
+    int getCellWidth() {
+        return cellWidth;
+    }
+
+    int getCellHeight() {
+        return cellHeight;
+    }
+
+    int getGlyphCount() {
+        return GLYPHS.length();
+    }
+
+    /**
+     * 字符在图集中的格子序号，不支持的字符按空格处理
+     */
+    static int glyphIndex(char c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        }
+        switch (c) {
+            case '-':
+                return 10;
+            case ':':
+                return 11;
+            default:
+                return 12;
+        }
+    }
+
+    /**
+     * 把时间格式化为 yyyy-MM-dd HH:mm:ss 写入 out（不分配对象）
+     * @param calendar 复用的 Calendar，调用前需已设置时间
+     * @param out 长度至少为 TIMESTAMP_LENGTH
+     */
+    static void formatTimestamp(Calendar calendar, char[] out) {
+        writeDigits(out, 0, calendar.get(Calendar.YEAR), 4);
+        out[4] = '-';
+        writeDigits(out, 5, calendar.get(Calendar.MONTH) + 1, 2);
+        out[7] = '-';
+        writeDigits(out, 8, calendar.get(Calendar.DAY_OF_MONTH), 2);
+        out[10] = ' ';
+        writeDigits(out, 11, calendar.get(Calendar.HOUR_OF_DAY), 2);
+        out[13] = ':';
+        writeDigits(out, 14, calendar.get(Calendar.MINUTE), 2);
+        out[16] = ':';
+        writeDigits(out, 17, calendar.get(Calendar.SECOND), 2);
+    }
+
+    /**
+     * 用 Canvas 从图集绘制文字（拍照水印使用）
+     * @param canvas 目标画布
+     * @param text 文字（只包含 GLYPHS 中的字符）
+     * @param x 文字左上角 x
+     * @param y 文字左上角 y
+     * @param size 目标字号（像素），按与图集字号的比例缩放
+     */
+    void drawText(Canvas canvas, char[] text, float x, float y, float size) {
+        if (bitmap == null) {
+            return;
+        }
+        float scale = size / textSize;
+        float dstCellWidth = cellWidth * scale;
+        float dstCellHeight = cellHeight * scale;
+        for (int i = 0; i < text.length; i++) {
+            int index = glyphIndex(text[i]);
+            srcRect.set(index * cellWidth, 0, (index + 1) * cellWidth, cellHeight);
+            dstRect.set(x + i * dstCellWidth, y, x + (i + 1) * dstCellWidth, y + dstCellHeight);
+            canvas.drawBitmap(bitmap, srcRect, dstRect, bitmapPaint);
+        }
+    }
+
+    /**
+     * 释放图集位图（上传为纹理后即可释放）
+     */
+    void recycle() {
+        if (bitmap != null) {
+            bitmap.recycle();
+            bitmap = null;
+        }
+    }
+
+    private static void writeDigits(char[] out, int offset, int value, int digits) {
+        for (int i = offset + digits - 1; i >= offset; i--) {
+            out[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+
+    private static Paint createPaint(int color, float textSize) {
+        Paint paint = new Paint();
+        paint.setColor(color);
+        paint.setTextSize(textSize);
+        paint.setAntiAlias(true);
+        paint.setTypeface(Typeface.MONOSPACE);
+        return paint;
+    }
+}
@@ -2,6 +2,8 @@ package com.kooo.evcam.camera;
 
 
 import com.kooo.evcam.AppLog;
+import com.kooo.evcam.RelayIoScheduler;
+import com.kooo.evcam.StorageHelper;
 import android.media.MediaRecorder;
 import android.os.Handler;
 import android.os.HandlerThread;
@@ -20,7 +22,7 @@ import java.util.concurrent.atomic.AtomicBoolean;
 /**
  * 视频录制管理类
  */
-public class VideoRecorder {
+public class VideoRecorder implements SegmentClock.Participant {
     private static final String TAG = "VideoRecorder";
 
     /**
@@ -84,10 +86,11 @@ public class VideoRecorder {
     private Handler segmentHandler;
     
     private Runnable segmentRunnable;
+    private volatile boolean externalSegmentClock = false;  // 由 MultiCameraManager 的共用分段时钟触发切换
     private Runnable fileSizeCheckRunnable;  // 文件大小检查任务
     private Runnable pendingSegmentSwitchRunnable;  // 待执行的分段切换任务（用于取消）
     private int segmentIndex = 0;
-    private String saveDirectory;  // 保存目录
+    private volatile String saveDirectory;  // 保存目录
     private String cameraPosition;  // 摄像头位置（front/back/left/right）
     private SegmentTimestampProvider timestampProvider;  // 分段时间戳提供者（用于多路同步）
     private int recordWidth;
@@ -124,6 +127,56 @@ public class VideoRecorder {
         this.timestampProvider = provider;
     }
 
+    /**
+     * 设置是否由外部共用分段时钟调度分段切换
+     * 启用后不再启动自身的分段定时器，由 SegmentClock 在统一的分段边界调用 requestSegmentSwitch()
+     * @param enabled true 表示使用外部分段时钟
+     */
+    public void setExternalSegmentClock(boolean enabled) {
+        this.externalSegmentClock = enabled;
+    }
+
+    /**
+     * 请求立即切换到下一段（由共用分段时钟在分段边界调用，可在任意线程调用）
+     * 尚未首次写入的录制器忽略本次边界，等待下一个边界
+     * @return 是否接受请求
+     */
+    @Override
+    public boolean requestSegmentSwitch() {
+        Handler handler = segmentHandler;
+        if (!isRecording.get() || handler == null) {
+            return false;
+        }
+        handler.post(() -> {
+            if (!hasFirstWrite) {
+                AppLog.d(TAG, "Camera " + cameraId + " no valid data written yet, skipping shared segment boundary");
+                return;
+            }
+            if (segmentRunnable != null && segmentHandler != null) {
+                segmentHandler.removeCallbacks(segmentRunnable);
+            }
+            if (isRecording.get()) {
+                AppLog.d(TAG, "Camera " + cameraId + " switching to next segment (shared segment clock)");
+                switchToNextSegment();
+            }
+        });
+        return true;
+    }
+
+    /**
+     * 把后续分段改为写入指定目录并立即切换分段（当前存储被移除时由 MultiCameraManager 调用，可在任意线程调用）
+     * @param directory 新的保存目录
+     * @return 是否接受请求
+     */
+    public boolean redirectSegments(String directory) {
+        if (!isRecording.get()) {
+            return false;
+        }
+        AppLog.w(TAG, "Camera " + cameraId + " redirecting segments to " + directory);
+        saveDirectory = directory;
+        return requestSegmentSwitch();
+    }
+
     /**
      * 设置分段时长
      * @param durationMs 分段时长（毫秒）
@@ -414,7 +467,8 @@ public class VideoRecorder {
 
             // 从文件路径中提取保存目录和摄像头位置
             File file = new File(filePath);
-            this.saveDirectory = file.getParent();
+            // 分段路径按存储根目录计算（按日期分目录时跨天的分段写入新的日期目录）
+            this.saveDirectory = StorageHelper.getShardRoot(file.getParentFile()).getPath();
             String fileName = file.getName();
             // 文件名格式：日期_时间_摄像头位置.mp4
             // 提取摄像头位置（最后一个下划线后的部分，去掉.mp4）
@@ -466,7 +520,7 @@ public class VideoRecorder {
             AppLog.d(TAG, "Camera " + cameraId + " using local timestamp: " + timestamp);
         }
         String fileName = timestamp + "_" + cameraPosition + ".mp4";
-        return new File(saveDirectory, fileName).getAbsolutePath();
+        return StorageHelper.getMediaFile(new File(saveDirectory), fileName).getAbsolutePath();
     }
 
     /**
@@ -568,6 +622,13 @@ public class VideoRecorder {
             segmentHandler.removeCallbacks(segmentRunnable);
         }
 
+        if (externalSegmentClock) {
+            // 由共用分段时钟在统一边界调用 requestSegmentSwitch()
+            segmentRunnable = null;
+            AppLog.d(TAG, "Camera " + cameraId + " waiting for shared segment clock");
+            return;
+        }
+
         // 创建新的分段任务
         segmentRunnable = () -> {
             if (isRecording.get()) {
@@ -658,6 +719,11 @@ public class VideoRecorder {
                     }
                 }
                 
+                // MediaRecorder 无法测量单次写入耗时：本周期文件未增长时按整个检查间隔上报，中转复制据此降速
+                if (hasFirstWrite) {
+                    RelayIoScheduler.getInstance().reportWriteLatency(cameraId, hasNewWrite ? 0 : FILE_SIZE_CHECK_INTERVAL_MS);
+                }
+                
                 lastFileSize = currentSize;
                 
                 // 继续下一次检查（首次写入前用快速间隔，之后用正常间隔）
@@ -766,6 +832,9 @@ public class VideoRecorder {
             state = RecordingState.SWITCHING_SEGMENT;
         }
         
+        // 分段切换期间暂停中转复制，新分段的文件创建和文件头写入优先
+        RelayIoScheduler.getInstance().onSegmentRollover();
+        
         AppLog.d(TAG, "Camera " + cameraId + " initiating segment switch from segment " + segmentIndex);
         
         // 【第一步】通知外部暂停 CaptureSession 的录制输出
@@ -0,0 +1,210 @@
+package com.kooo.evcam.camera;
+
+import android.opengl.GLES20;
+import android.opengl.GLUtils;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.Calendar;
+
+/**
+ * 时间水印纹理
+ * 初始化时把字形图集上传为纹理（只上传一次），每帧按字符绘制四边形叠加到画面右上角
+ * 顶点位置在初始化时计算好，时间（秒）变化时只改写顶点缓冲中的纹理坐标，不分配对象也不上传纹理
+ * 必须在拥有 GL 上下文的线程上使用
+ */
+class WatermarkTexture {
+    private static final float TEXT_SIZE = 28;  // 字号（与原位图水印一致）
+    private static final int FLOATS_PER_VERTEX = 4;  // x, y, u, v
+    private static final int VERTICES_PER_GLYPH = 6;  // 两个三角形
+    private static final int STRIDE_BYTES = FLOATS_PER_VERTEX * 4;
+
+    // 顶点坐标为文字区域内的像素坐标（y 向下），由 uTransform 换算到当前视口的 NDC
+    private static final String VERTEX_SHADER =
+            "uniform vec4 uTransform;\n" +  // xy: 像素到 NDC 的缩放, zw: 偏移
+            "attribute vec2 aPosition;\n" +
+            "attribute vec2 aTextureCoord;\n" +
+            "varying vec2 vTextureCoord;\n" +
+            "void main() {\n" +
+            "    gl_Position = vec4(aPosition * uTransform.xy + uTransform.zw, 0.0, 1.0);\n" +
+            "    vTextureCoord = aTextureCoord;\n" +
+            "}\n";
+
+    private static final String FRAGMENT_SHADER =
+            "precision mediump float;\n" +
+            "varying vec2 vTextureCoord;\n" +
+            "uniform sampler2D sTexture;\n" +
+            "void main() {\n" +
+            "    gl_FragColor = texture2D(sTexture, vTextureCoord);\n" +
+            "}\n";
+
+    private int program;
+    private int positionHandle;
+    private int texCoordHandle;
+    private int transformHandle;
+    private int textureHandle;
+
+    private int textureId;
+    private int cellWidth;
+    private int cellHeight;
+    private float glyphUWidth;  // 单个格子在图集中的 u 宽度
+
+    private FloatBuffer vertexBuffer;
+    private final char[] timestampChars = new char[TimestampGlyphAtlas.TIMESTAMP_LENGTH];
+    private final Calendar calendar = Calendar.getInstance();
+    private long lastSecond = -1;
+
+    /**
+     * 创建着色器程序、图集纹理和顶点缓冲（需要当前线程已绑定 GL 上下文）
+     */
+    void initialize() {
+        if (textureId != 0) {
+            return;
+        }
+        program = EglSurfaceEncoder.createProgram(VERTEX_SHADER, FRAGMENT_SHADER);
+        positionHandle = GLES20.glGetAttribLocation(program, "aPosition");
+        texCoordHandle = GLES20.glGetAttribLocation(program, "aTextureCoord");
+        transformHandle = GLES20.glGetUniformLocation(program, "uTransform");
+        textureHandle = GLES20.glGetUniformLocation(program, "sTexture");
+
+        // 绘制并上传字形图集（之后不再上传）
+        TimestampGlyphAtlas atlas = new TimestampGlyphAtlas(TEXT_SIZE);
+        cellWidth = atlas.getCellWidth();
+        cellHeight = atlas.getCellHeight();
+        glyphUWidth = 1.0f / atlas.getGlyphCount();
+
+        int[] textures = new int[1];
+        GLES20.glGenTextures(1, textures, 0);
+        textureId = textures[0];
+
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textureId);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+        GLUtils.texImage2D(GLES20.GL_TEXTURE_2D, 0, atlas.getBitmap(), 0);
+        atlas.recycle();
+
+        // 预先计算每个字符的四边形位置，纹理坐标在 update() 中填写
+        int length = TimestampGlyphAtlas.TIMESTAMP_LENGTH;
+        vertexBuffer = ByteBuffer.allocateDirect(length * VERTICES_PER_GLYPH * STRIDE_BYTES)
+                .order(ByteOrder.nativeOrder())
+                .asFloatBuffer();
+        for (int i = 0; i < length; i++) {
+            float left = i * cellWidth;
+            float right = left + cellWidth;
+            putVertex(left, 0);
+            putVertex(right, 0);
+            putVertex(left, cellHeight);
+            putVertex(right, 0);
+            putVertex(right, cellHeight);
+            putVertex(left, cellHeight);
+        }
+        update();
+    }
+
+    /**
+     * 时间变化时更新各字符的纹理坐标（每帧调用，每秒实际更新一次）
+     */
+    void update() {
+        if (vertexBuffer == null) {
+            return;
+        }
+
+        long nowMs = System.currentTimeMillis();
+        long second = nowMs / 1000;
+
+        // 只有时间变化时才更新
+        if (second == lastSecond) {
+            return;
+        }
+        lastSecond = second;
+
+        calendar.setTimeInMillis(nowMs);
+        TimestampGlyphAtlas.formatTimestamp(calendar, timestampChars);
+        for (int i = 0; i < timestampChars.length; i++) {
+            float u0 = TimestampGlyphAtlas.glyphIndex(timestampChars[i]) * glyphUWidth;
+            float u1 = u0 + glyphUWidth;
+            int base = i * VERTICES_PER_GLYPH * FLOATS_PER_VERTEX;
+            putTexCoord(base, 0, u0, 0);
+            putTexCoord(base, 1, u1, 0);
+            putTexCoord(base, 2, u0, 1);
+            putTexCoord(base, 3, u1, 0);
+            putTexCoord(base, 4, u1, 1);
+            putTexCoord(base, 5, u0, 1);
+        }
+    }
+
+    /**
+     * 在当前视口的右上角叠加时间水印（边距为视口的 1%）
+     * @param viewWidth 当前视口宽度
+     * @param viewHeight 当前视口高度
+     */
+    void draw(int viewWidth, int viewHeight) {
+        if (program == 0 || vertexBuffer == null || viewWidth <= 0 || viewHeight <= 0) {
+            return;
+        }
+        update();
+
+        float textWidth = cellWidth * (float) timestampChars.length;
+        float left = viewWidth - textWidth - viewWidth * 0.01f;
+        float top = viewHeight * 0.01f;
+
+        GLES20.glUseProgram(program);
+        GLES20.glUniform4f(transformHandle,
+                2.0f / viewWidth, -2.0f / viewHeight,
+                2.0f * left / viewWidth - 1.0f, 1.0f - 2.0f * top / viewHeight);
+
+        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textureId);
+        GLES20.glUniform1i(textureHandle, 0);
+
+        vertexBuffer.position(0);
+        GLES20.glEnableVertexAttribArray(positionHandle);
+        GLES20.glVertexAttribPointer(positionHandle, 2, GLES20.GL_FLOAT, false, STRIDE_BYTES, vertexBuffer);
+        vertexBuffer.position(2);
+        GLES20.glEnableVertexAttribArray(texCoordHandle);
+        GLES20.glVertexAttribPointer(texCoordHandle, 2, GLES20.GL_FLOAT, false, STRIDE_BYTES, vertexBuffer);
+
+        // 图集位图为预乘 Alpha
+        GLES20.glEnable(GLES20.GL_BLEND);
+        GLES20.glBlendFunc(GLES20.GL_ONE, GLES20.GL_ONE_MINUS_SRC_ALPHA);
+        GLES20.glDrawArrays(GLES20.GL_TRIANGLES, 0, timestampChars.length * VERTICES_PER_GLYPH);
+        GLES20.glDisable(GLES20.GL_BLEND);
+
+        GLES20.glDisableVertexAttribArray(positionHandle);
+        GLES20.glDisableVertexAttribArray(texCoordHandle);
+    }
+
+    int getTextureId() {
+        return textureId;
+    }
+
+    /**
+     * 释放程序和纹理（需要当前线程已绑定 GL 上下文）
+     */
+    void release() {
+        if (textureId != 0) {
+            int[] textures = {textureId};
+            GLES20.glDeleteTextures(1, textures, 0);
+            textureId = 0;
+        }
+        if (program != 0) {
+            GLES20.glDeleteProgram(program);
+            program = 0;
+        }
+        vertexBuffer = null;
+        lastSecond = -1;
+    }
+
+    private void putVertex(float x, float y) {
+        vertexBuffer.put(x).put(y).put(0f).put(0f);
+    }
+
+    private void putTexCoord(int base, int vertex, float u, float v) {
+        int index = base + vertex * FLOATS_PER_VERTEX + 2;
+        vertexBuffer.put(index, u);
+        vertexBuffer.put(index + 1, v);
+    }
+}
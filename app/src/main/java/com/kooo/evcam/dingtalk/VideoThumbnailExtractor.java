@@ -2,12 +2,12 @@ package com.kooo.evcam.dingtalk;
 
 
 import com.kooo.evcam.AppLog;
-import android.graphics.Bitmap;
+import com.kooo.evcam.VideoThumbnail;
+import com.kooo.evcam.camera.Mp4RecoveryEngine;
 import android.media.MediaMetadataRetriever;
 import android.util.Log;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 
 /**
@@ -19,49 +19,18 @@ public class VideoThumbnailExtractor {
 
     /**
      * 从视频文件提取封面图
+     * 优先复制录制时生成的缩略图（VideoThumbnail），旧文件没有缩略图时才解码第一个关键帧
      * @param videoFile 视频文件
      * @param outputFile 输出的封面图文件
      * @return 是否成功
      */
     public static boolean extractThumbnail(File videoFile, File outputFile) {
-        MediaMetadataRetriever retriever = null;
-        FileOutputStream fos = null;
-
-        try {
-            retriever = new MediaMetadataRetriever();
-            retriever.setDataSource(videoFile.getAbsolutePath());
-
-            // 获取第一帧（时间为 0 微秒）
-            Bitmap bitmap = retriever.getFrameAtTime(0, MediaMetadataRetriever.OPTION_CLOSEST_SYNC);
-
-            if (bitmap == null) {
-                AppLog.e(TAG, "无法从视频中提取帧: " + videoFile.getName());
-                return false;
-            }
-
-            // 保存为 JPEG 文件
-            fos = new FileOutputStream(outputFile);
-            bitmap.compress(Bitmap.CompressFormat.JPEG, 85, fos);
-            fos.flush();
-
-            AppLog.d(TAG, "封面图提取成功: " + outputFile.getAbsolutePath());
-            return true;
-
-        } catch (Exception e) {
-            AppLog.e(TAG, "提取封面图失败: " + videoFile.getName(), e);
+        if (!VideoThumbnail.copyTo(videoFile, outputFile)) {
+            AppLog.e(TAG, "无法从视频中提取帧: " + videoFile.getName());
             return false;
-        } finally {
-            try {
-                if (retriever != null) {
-                    retriever.release();
-                }
-                if (fos != null) {
-                    fos.close();
-                }
-            } catch (IOException e) {
-                AppLog.e(TAG, "关闭资源失败", e);
-            }
         }
+        AppLog.d(TAG, "封面图提取成功: " + outputFile.getAbsolutePath());
+        return true;
     }
 
     /**
@@ -70,6 +39,15 @@ public class VideoThumbnailExtractor {
      * @return 视频时长，失败返回 0
      */
     public static int getVideoDuration(File videoFile) {
+        // 先直接读取 MP4 头部（不创建解码器），读取失败时再用 MediaMetadataRetriever
+        try {
+            Mp4RecoveryEngine.SegmentInfo info = Mp4RecoveryEngine.readSegmentInfo(videoFile);
+            if (info != null && info.durationMs > 0) {
+                return (int) (info.durationMs / 1000);
+            }
+        } catch (IOException e) {
+            AppLog.w(TAG, "读取视频头部失败: " + videoFile.getName() + " - " + e.getMessage());
+        }
         MediaMetadataRetriever retriever = null;
         try {
             retriever = new MediaMetadataRetriever();
@@ -0,0 +1,62 @@
+package com.kooo.evcam.playback;
+
+import androidx.recyclerview.widget.DiffUtil;
+
+import java.util.List;
+
+/**
+ * 按日期分组列表的差异比较（可展开适配器的扁平化列表：日期头部 + 视频/图片组）
+ *
+ * - 日期头部按日期字符串、分组按时间戳前缀判断是否为同一项
+ * - MediaCatalog 的快照中未变化的分组是同一个对象，分组内容按引用比较；
+ *   日期头部比较展开状态和组数量（旧列表中的头部来自上一次快照，原地切换展开状态时由调用方单独刷新）
+ */
+class DateSectionDiffCallback extends DiffUtil.Callback {
+
+    private final List<Object> oldItems;
+    private final List<Object> newItems;
+
+    DateSectionDiffCallback(List<Object> oldItems, List<Object> newItems) {
+        this.oldItems = oldItems;
+        this.newItems = newItems;
+    }
+
+    @Override
+    public int getOldListSize() {
+        return oldItems.size();
+    }
+
+    @Override
+    public int getNewListSize() {
+        return newItems.size();
+    }
+
+    @Override
+    public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+        Object oldItem = oldItems.get(oldItemPosition);
+        Object newItem = newItems.get(newItemPosition);
+        if (oldItem instanceof DateSection && newItem instanceof DateSection) {
+            return ((DateSection<?>) oldItem).getDateString().equals(((DateSection<?>) newItem).getDateString());
+        }
+        if (oldItem instanceof VideoGroup && newItem instanceof VideoGroup) {
+            return ((VideoGroup) oldItem).getTimestampPrefix().equals(((VideoGroup) newItem).getTimestampPrefix());
+        }
+        if (oldItem instanceof PhotoGroup && newItem instanceof PhotoGroup) {
+            return ((PhotoGroup) oldItem).getTimestampPrefix().equals(((PhotoGroup) newItem).getTimestampPrefix());
+        }
+        return false;
+    }
+
+    @Override
+    public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+        Object oldItem = oldItems.get(oldItemPosition);
+        Object newItem = newItems.get(newItemPosition);
+        if (oldItem instanceof DateSection) {
+            DateSection<?> oldSection = (DateSection<?>) oldItem;
+            DateSection<?> newSection = (DateSection<?>) newItem;
+            return oldSection.isExpanded() == newSection.isExpanded()
+                    && oldSection.getItemCount() == newSection.getItemCount();
+        }
+        return oldItem == newItem;
+    }
+}
@@ -8,6 +8,7 @@ import android.widget.ImageView;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.bumptech.glide.Glide;
@@ -79,6 +80,23 @@ public class ExpandablePhotoGroupAdapter extends RecyclerView.Adapter<RecyclerVi
         }
     }
 
+    /**
+     * 重新构建扁平化列表，用 DiffUtil 比较新旧列表，只刷新变化的项
+     * 已不在列表中的分组同时从多选集合中移除
+     */
+    public void dispatchListUpdate() {
+        List<Object> oldItems = new ArrayList<>(flattenedItems);
+        buildFlattenedList();
+        if (!selectedGroups.isEmpty()) {
+            Set<PhotoGroup> present = new HashSet<>();
+            for (DateSection<PhotoGroup> section : dateSections) {
+                present.addAll(section.getItems());
+            }
+            selectedGroups.retainAll(present);
+        }
+        DiffUtil.calculateDiff(new DateSectionDiffCallback(oldItems, flattenedItems), false).dispatchUpdatesTo(this);
+    }
+
     public void setOnItemClickListener(OnItemClickListener listener) {
         this.itemClickListener = listener;
     }
@@ -168,14 +186,14 @@ public class ExpandablePhotoGroupAdapter extends RecyclerView.Adapter<RecyclerVi
         if (holder instanceof DateHeaderViewHolder) {
             @SuppressWarnings("unchecked")
             DateSection<PhotoGroup> section = (DateSection<PhotoGroup>) item;
-            bindDateHeader((DateHeaderViewHolder) holder, section, position);
+            bindDateHeader((DateHeaderViewHolder) holder, section);
         } else if (holder instanceof PhotoGroupViewHolder) {
             PhotoGroup group = (PhotoGroup) item;
-            bindPhotoGroup((PhotoGroupViewHolder) holder, group, position);
+            bindPhotoGroup((PhotoGroupViewHolder) holder, group);
         }
     }
 
-    private void bindDateHeader(DateHeaderViewHolder holder, DateSection<PhotoGroup> section, int position) {
+    private void bindDateHeader(DateHeaderViewHolder holder, DateSection<PhotoGroup> section) {
         // 设置日期文字
         holder.dateText.setText(section.getFullDateDisplay());
         
@@ -188,17 +206,22 @@ public class ExpandablePhotoGroupAdapter extends RecyclerView.Adapter<RecyclerVi
         
         // 点击切换展开状态
         holder.itemView.setOnClickListener(v -> {
+            int headerPosition = holder.getBindingAdapterPosition();
+            if (headerPosition == RecyclerView.NO_POSITION) {
+                return;
+            }
             section.toggleExpanded();
-            buildFlattenedList();
-            notifyDataSetChanged();
+            // 只插入/移除该日期下的项，头部本身是同一个对象，单独刷新展开图标
+            dispatchListUpdate();
+            notifyItemChanged(headerPosition);
             
             if (dateHeaderClickListener != null) {
-                dateHeaderClickListener.onDateHeaderClick(section, position);
+                dateHeaderClickListener.onDateHeaderClick(section, headerPosition);
             }
         });
     }
 
-    private void bindPhotoGroup(PhotoGroupViewHolder holder, PhotoGroup group, int position) {
+    private void bindPhotoGroup(PhotoGroupViewHolder holder, PhotoGroup group) {
         // 设置日期时间（只显示时间，因为日期已在头部显示）
         holder.videoDate.setVisibility(View.GONE);
         holder.videoTime.setText(group.getFormattedTime());
@@ -235,14 +258,14 @@ public class ExpandablePhotoGroupAdapter extends RecyclerView.Adapter<RecyclerVi
                 } else {
                     selectedGroups.add(group);
                 }
-                notifyItemChanged(position);
+                notifyItemChanged(holder.getBindingAdapterPosition());
                 if (itemSelectedListener != null) {
                     itemSelectedListener.onItemSelected(group);
                 }
             } else {
                 // 单选模式：选中并显示
                 if (itemClickListener != null) {
-                    itemClickListener.onItemClick(group, position);
+                    itemClickListener.onItemClick(group, holder.getBindingAdapterPosition());
                 }
             }
         });
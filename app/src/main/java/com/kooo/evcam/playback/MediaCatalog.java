@@ -0,0 +1,368 @@
+package com.kooo.evcam.playback;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+
+import com.kooo.evcam.AppLog;
+import com.kooo.evcam.StorageHelper;
+import com.kooo.evcam.StorageIndex;
+import com.kooo.evcam.VideoThumbnail;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 回放媒体目录
+ * 在后台线程上维护录像/图片分组，回放界面打开和刷新时不在主线程上遍历存储目录：
+ *
+ * - 文件列表来自持久化的媒体目录（StorageIndex）：录像由录制回调写入，打开界面时不遍历存储目录，
+ *   只在本进程尚未对账、距上次对账超过 RECONCILE_INTERVAL_MS 或用户点击刷新时对账（只读取文件名列表，只对新增文件 stat）；
+ *   拍照不经过索引回调，图片目录每次刷新都对账
+ * - 文件名时间戳按固定位置解析（StorageHelper.parseTimestampPrefix），不创建 SimpleDateFormat
+ * - 分组按时间戳保存在内存中，每次刷新只重建有文件增删或大小变化的分组，未变化的分组沿用原对象
+ * - 结果以不可变快照发布到主线程，列表用 DiffUtil 比较新旧快照，只刷新变化的项
+ * - 对账后在后台为没有缩略图的旧录像补齐缩略图（VideoThumbnail.backfill）
+ *
+ * 录像和图片各一个实例（forVideos / forPhotos），重新打开回放界面时先显示上次的结果，再在后台刷新
+ */
+public class MediaCatalog<T> {
+    private static final String TAG = "MediaCatalog";
+
+    private static final String[] VIDEO_EXTENSIONS = {".mp4"};
+    private static final String[] PHOTO_EXTENSIONS = {".jpg", ".jpeg", ".png"};
+    private static final long RECONCILE_INTERVAL_MS = 10 * 60 * 1000L;
+
+    private static MediaCatalog<VideoGroup> videoCatalog;
+    private static MediaCatalog<PhotoGroup> photoCatalog;
+    private static ExecutorService executor;
+
+    /**
+     * 分组工厂：由同一时间戳的文件创建分组
+     */
+    interface GroupFactory<T> {
+        T create(String timestampPrefix, long timeMs, Map<String, File> files, long totalSize);
+    }
+
+    /**
+     * 目录变化监听器（在主线程上回调）
+     */
+    public interface Listener<T> {
+        void onCatalogChanged(Snapshot<T> snapshot);
+    }
+
+    /**
+     * 不可变快照
+     * 两次快照之间没有变化的分组是同一个对象，可以直接按引用比较内容是否变化
+     */
+    public static class Snapshot<T> {
+        public final File root;          // 存储目录
+        public final List<T> groups;     // 所有分组（最新的在前，不可修改）
+        public final boolean available;  // 存储目录是否可访问
+
+        Snapshot(File root, List<T> groups, boolean available) {
+            this.root = root;
+            this.groups = Collections.unmodifiableList(groups);
+            this.available = available;
+        }
+    }
+
+    /**
+     * 一个文件的记录
+     */
+    private static class FileRecord {
+        final File file;
+        final String position;
+        final long timeMs;       // 所属分组的时间戳
+        long size;
+        int generation;          // 最近一次出现在索引中的刷新轮次
+
+        FileRecord(File file, String position, long timeMs, long size) {
+            this.file = file;
+            this.position = position;
+            this.timeMs = timeMs;
+            this.size = size;
+        }
+    }
+
+    /**
+     * 一个时间戳的分组状态
+     */
+    private class GroupState {
+        final String timestampPrefix;
+        final long timeMs;
+        final Map<String, FileRecord> files = new HashMap<>();  // 相对路径 -> 文件记录
+        T group;         // 最近发布的分组对象（文件未变化时沿用）
+        boolean dirty;
+
+        GroupState(String timestampPrefix, long timeMs) {
+            this.timestampPrefix = timestampPrefix;
+            this.timeMs = timeMs;
+        }
+
+        T build() {
+            Map<String, File> positions = new HashMap<>();
+            long totalSize = 0;
+            for (FileRecord record : files.values()) {
+                positions.put(record.position, record.file);
+                totalSize += record.size;
+            }
+            return factory.create(timestampPrefix, timeMs, positions, totalSize);
+        }
+    }
+
+    private final Context context;
+    private final boolean photos;
+    private final String[] extensions;
+    private final GroupFactory<T> factory;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final List<Listener<T>> listeners = new CopyOnWriteArrayList<>();
+    private final AtomicBoolean refreshPending = new AtomicBoolean(false);
+    private final AtomicBoolean rescanRequested = new AtomicBoolean(false);
+    private volatile Snapshot<T> snapshot;
+
+    // 以下字段只在后台线程上访问
+    private File root;
+    private final Map<String, FileRecord> files = new HashMap<>();  // 相对路径 -> 文件记录
+    private final TreeMap<Long, GroupState> groups = new TreeMap<>(Collections.reverseOrder());  // 时间戳 -> 分组（最新的在前）
+    private int generation = 0;
+
+    private MediaCatalog(Context context, boolean photos, String[] extensions, GroupFactory<T> factory) {
+        this.context = context.getApplicationContext();
+        this.photos = photos;
+        this.extensions = extensions;
+        this.factory = factory;
+    }
+
+    /**
+     * 获取录像目录（视频回看界面使用）
+     */
+    public static synchronized MediaCatalog<VideoGroup> forVideos(Context context) {
+        if (videoCatalog == null) {
+            videoCatalog = new MediaCatalog<>(context, false, VIDEO_EXTENSIONS, VideoGroup::new);
+        }
+        return videoCatalog;
+    }
+
+    /**
+     * 获取图片目录（图片回看界面使用）
+     */
+    public static synchronized MediaCatalog<PhotoGroup> forPhotos(Context context) {
+        if (photoCatalog == null) {
+            photoCatalog = new MediaCatalog<>(context, true, PHOTO_EXTENSIONS, PhotoGroup::new);
+        }
+        return photoCatalog;
+    }
+
+    private static synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            executor = Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, "MediaCatalog"));
+        }
+        return executor;
+    }
+
+    /**
+     * 添加监听器；已有快照时立即（在主线程上）回调一次
+     */
+    public void addListener(Listener<T> listener) {
+        listeners.add(listener);
+        if (snapshot != null) {
+            mainHandler.post(() -> {
+                Snapshot<T> current = snapshot;
+                if (listeners.contains(listener)) {
+                    listener.onCatalogChanged(current);
+                }
+            });
+        }
+    }
+
+    public void removeListener(Listener<T> listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * 获取最近发布的快照
+     * @return 快照，尚未完成第一次扫描时返回 null
+     */
+    public Snapshot<T> getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * 在后台从媒体目录更新分组，需要时与存储目录对账（任意线程调用，已有刷新在排队时合并）
+     */
+    public void refresh() {
+        if (!refreshPending.compareAndSet(false, true)) {
+            return;
+        }
+        getExecutor().execute(() -> {
+            refreshPending.set(false);
+            refreshInternal(rescanRequested.getAndSet(false));
+        });
+    }
+
+    /**
+     * 强制与存储目录对账后更新分组（用户点击刷新时使用）
+     */
+    public void rescan() {
+        rescanRequested.set(true);
+        refresh();
+    }
+
+    /**
+     * 回放界面删除文件后调用：从存储索引中移除并更新分组，不重新遍历目录
+     */
+    public void removeFiles(Collection<File> deletedFiles) {
+        List<File> deleted = new ArrayList<>(deletedFiles);
+        getExecutor().execute(() -> {
+            for (File file : deleted) {
+                StorageIndex.recordDeleted(context, file);
+            }
+            if (root != null) {
+                apply(StorageIndex.forDirectory(context, root).getEntries());
+            }
+        });
+    }
+
+    private void refreshInternal(boolean forceReconcile) {
+        long startMs = System.currentTimeMillis();
+        File currentRoot = photos ? StorageHelper.getPhotoDir(context) : StorageHelper.getVideoDir(context);
+        if (!currentRoot.equals(root)) {
+            // 存储位置变化（如切换到U盘），重新建立分组
+            root = currentRoot;
+            files.clear();
+            groups.clear();
+        }
+
+        StorageIndex index = StorageIndex.forDirectory(context, root);
+        long lastReconcile = index.getLastReconcileTimeMs();
+        boolean available;
+        if (forceReconcile || photos || lastReconcile == 0 || startMs - lastReconcile >= RECONCILE_INTERVAL_MS) {
+            available = index.reconcile().directoryAvailable;
+            if (available && !photos) {
+                VideoThumbnail.backfill(root);
+            }
+        } else {
+            available = root.isDirectory();
+        }
+        if (!available) {
+            files.clear();
+            groups.clear();
+            publish(new Snapshot<>(root, new ArrayList<>(), false));
+            return;
+        }
+        int changed = apply(index.getEntries());
+        AppLog.d(TAG, (photos ? "图片" : "录像") + "目录刷新: " + groups.size() + " 组，变化 " + changed + " 组，耗时 "
+                + (System.currentTimeMillis() - startMs) + "ms");
+    }
+
+    /**
+     * 把索引条目与内存中的分组比较，只重建有变化的分组，有变化（或尚无快照）时发布新快照
+     * @return 变化的分组数
+     */
+    private int apply(List<StorageIndex.Entry> entries) {
+        TimeZone zone = TimeZone.getDefault();
+        List<GroupState> dirtyGroups = new ArrayList<>();
+        generation++;
+
+        for (StorageIndex.Entry entry : entries) {
+            String name = entry.name;
+            if (entry.camera == null || !hasMediaExtension(name)) {
+                continue;
+            }
+            FileRecord record = files.get(name);
+            if (record == null) {
+                int nameStart = name.lastIndexOf('/') + 1;
+                long timeMs = StorageHelper.parseTimestampPrefix(name, nameStart, zone);
+                if (timeMs < 0) {
+                    continue;
+                }
+                GroupState state = groups.get(timeMs);
+                if (state == null) {
+                    state = new GroupState(name.substring(nameStart, nameStart + 15), timeMs);
+                    groups.put(timeMs, state);
+                }
+                record = new FileRecord(new File(root, name), entry.camera, timeMs, entry.getSize());
+                files.put(name, record);
+                state.files.put(name, record);
+                markDirty(state, dirtyGroups);
+            } else if (record.size != entry.getSize()) {
+                record.size = entry.getSize();
+                markDirty(groups.get(record.timeMs), dirtyGroups);
+            }
+            record.generation = generation;
+        }
+
+        // 索引中已不存在的文件
+        Iterator<Map.Entry<String, FileRecord>> iterator = files.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, FileRecord> item = iterator.next();
+            FileRecord record = item.getValue();
+            if (record.generation != generation) {
+                iterator.remove();
+                GroupState state = groups.get(record.timeMs);
+                state.files.remove(item.getKey());
+                markDirty(state, dirtyGroups);
+            }
+        }
+
+        for (GroupState state : dirtyGroups) {
+            state.dirty = false;
+            if (state.files.isEmpty()) {
+                groups.remove(state.timeMs);
+            } else {
+                state.group = state.build();
+            }
+        }
+
+        if (!dirtyGroups.isEmpty() || snapshot == null || !snapshot.available) {
+            List<T> list = new ArrayList<>(groups.size());
+            for (GroupState state : groups.values()) {
+                list.add(state.group);
+            }
+            publish(new Snapshot<>(root, list, true));
+        }
+        return dirtyGroups.size();
+    }
+
+    private void markDirty(GroupState state, List<GroupState> dirtyGroups) {
+        if (!state.dirty) {
+            state.dirty = true;
+            dirtyGroups.add(state);
+        }
+    }
+
+    private boolean hasMediaExtension(String name) {
+        for (String extension : extensions) {
+            if (name.regionMatches(true, name.length() - extension.length(), extension, 0, extension.length())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 发布快照；主线程上总是回调最新的快照，积压的旧快照不会覆盖新快照
+     */
+    private void publish(Snapshot<T> newSnapshot) {
+        snapshot = newSnapshot;
+        mainHandler.post(() -> {
+            Snapshot<T> current = snapshot;
+            for (Listener<T> listener : listeners) {
+                listener.onCatalogChanged(current);
+            }
+        });
+    }
+}
@@ -10,24 +10,40 @@ import android.os.Build;
 import android.os.Handler;
 import android.os.Looper;
 import android.util.Log;
+import android.view.Gravity;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.FrameLayout;
 import android.widget.VideoView;
 
+import com.kooo.evcam.StorageIndex;
+import com.kooo.evcam.camera.Mp4RecoveryEngine;
+
 import java.io.File;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * 多路视频同步播放管理器
  * 支持1-4路视频同时播放，并保持同步
+ * 四宫格多路播放的启动、暂停、跳转和倍速由 PlaybackSync 以主时钟统一控制
+ * 加载视频组时在后台读取各路关键帧索引，跳转时各路对齐到同一个关键帧附近的时间戳
  */
 public class MultiVideoPlayerManager {
     private static final String TAG = "MultiVideoPlayerManager";
 
     /** 支持的倍速 */
     public static final float[] SPEED_OPTIONS = {0.5f, 1.0f, 1.5f, 2.0f};
+
+    /** 读取关键帧索引的后台线程 */
+    private static ExecutorService indexExecutor;
     
     private final Context context;
     private final Handler handler;
+    private final PlaybackSync sync;
 
     /** 各位置的VideoView */
     private VideoView videoFront;
@@ -57,6 +73,11 @@ public class MultiVideoPlayerManager {
     private boolean isSingleMode = false;
     private String singleModePosition = VideoGroup.POSITION_FRONT;
 
+    /** 是否为 2x2 拼接录制的视频组（只解码一个文件，单路模式裁剪象限显示） */
+    private boolean isMosaicGroup = false;
+    private int mosaicVideoWidth = 0;
+    private int mosaicVideoHeight = 0;
+
     /** 视频时长（毫秒） */
     private int duration = 0;
 
@@ -76,6 +97,7 @@ public class MultiVideoPlayerManager {
     public MultiVideoPlayerManager(Context context) {
         this.context = context;
         this.handler = new Handler(Looper.getMainLooper());
+        this.sync = new PlaybackSync(handler);
     }
 
     /**
@@ -109,11 +131,23 @@ public class MultiVideoPlayerManager {
         this.totalVideos = 0;
         this.duration = 0;
         this.mediaPlayers.clear();
+        this.isMosaicGroup = group != null && group.isMosaic();
 
         if (group == null) {
             return;
         }
 
+        // 拼接录制：只加载一个文件到单路 VideoView，四路/单路都通过裁剪显示
+        if (isMosaicGroup) {
+            totalVideos = 1;
+            mosaicVideoWidth = 0;
+            mosaicVideoHeight = 0;
+            loadVideoIfExists(VideoGroup.POSITION_MOSAIC, group.getMosaicFile(), videoSingle);
+            applyMosaicCrop();
+            return;
+        }
+        resetMosaicCrop();
+
         // 统计要加载的视频数量
         if (group.hasVideo(VideoGroup.POSITION_FRONT)) totalVideos++;
         if (group.hasVideo(VideoGroup.POSITION_BACK)) totalVideos++;
@@ -127,6 +161,8 @@ public class MultiVideoPlayerManager {
             return;
         }
 
+        loadKeyFrameIndices(group);
+
         // 加载各位置视频
         loadVideoIfExists(VideoGroup.POSITION_FRONT, group.getFrontVideo(), videoFront);
         loadVideoIfExists(VideoGroup.POSITION_BACK, group.getBackVideo(), videoBack);
@@ -139,6 +175,47 @@ public class MultiVideoPlayerManager {
         }
     }
 
+    /**
+     * 后台读取各路关键帧索引（优先取数据库，旧分段首次读取时解析文件），完成后交给 PlaybackSync 规划跳转
+     */
+    private void loadKeyFrameIndices(VideoGroup group) {
+        sync.clearKeyFrameIndices();
+        String[] positions = {VideoGroup.POSITION_FRONT, VideoGroup.POSITION_BACK,
+                VideoGroup.POSITION_LEFT, VideoGroup.POSITION_RIGHT};
+        Map<String, File> files = new HashMap<>();
+        for (String position : positions) {
+            if (group.hasVideo(position)) {
+                files.put(position, group.getVideoFile(position));
+            }
+        }
+        Context appContext = context.getApplicationContext();
+        getIndexExecutor().execute(() -> {
+            Map<String, Mp4RecoveryEngine.KeyFrameIndex> indices = new HashMap<>();
+            for (Map.Entry<String, File> entry : files.entrySet()) {
+                Mp4RecoveryEngine.KeyFrameIndex index = StorageIndex.getKeyFrameIndex(appContext, entry.getValue());
+                if (index != null) {
+                    indices.put(entry.getKey(), index);
+                }
+            }
+            handler.post(() -> {
+                if (currentGroup != group) {
+                    return;
+                }
+                for (Map.Entry<String, Mp4RecoveryEngine.KeyFrameIndex> entry : indices.entrySet()) {
+                    sync.setKeyFrameIndex(entry.getKey(), entry.getValue());
+                }
+                Log.d(TAG, "Key frame indices loaded: " + indices.size() + "/" + files.size());
+            });
+        });
+    }
+
+    private static synchronized ExecutorService getIndexExecutor() {
+        if (indexExecutor == null) {
+            indexExecutor = Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, "KeyFrameIndex"));
+        }
+        return indexExecutor;
+    }
+
     /**
      * 加载单个视频到VideoView
      */
@@ -158,6 +235,12 @@ public class MultiVideoPlayerManager {
                 // 行车记录仪视频没有声音，设置静音
                 mp.setVolume(0f, 0f);
 
+                if (VideoGroup.POSITION_MOSAIC.equals(position)) {
+                    mosaicVideoWidth = mp.getVideoWidth();
+                    mosaicVideoHeight = mp.getVideoHeight();
+                    applyMosaicCrop();
+                }
+
                 // 记录最长时长
                 int videoDuration = mp.getDuration();
                 if (videoDuration > duration) {
@@ -173,6 +256,7 @@ public class MultiVideoPlayerManager {
 
             videoView.setOnCompletionListener(mp -> {
                 // 所有视频播放完成
+                sync.logStats("播放完成");
                 isPlaying = false;
                 if (playbackListener != null) {
                     playbackListener.onPlaybackStateChanged(false);
@@ -202,6 +286,7 @@ public class MultiVideoPlayerManager {
         if (preparedCount >= totalVideos) {
             isPrepared = true;
             Log.d(TAG, "All videos prepared, duration=" + duration);
+            attachSync();
             
             // 放弃音频焦点，让其他应用（如音乐播放器）继续播放
             abandonAudioFocus();
@@ -214,6 +299,28 @@ public class MultiVideoPlayerManager {
         }
     }
 
+    /**
+     * 把已准备好的四宫格各路交给同步控制（前路优先作为主时钟）
+     */
+    private void attachSync() {
+        sync.clear();
+        sync.setBaseSpeed(currentSpeed);
+        if (isMosaicGroup) {
+            return;
+        }
+        attachSyncStream(VideoGroup.POSITION_FRONT, videoFront);
+        attachSyncStream(VideoGroup.POSITION_BACK, videoBack);
+        attachSyncStream(VideoGroup.POSITION_LEFT, videoLeft);
+        attachSyncStream(VideoGroup.POSITION_RIGHT, videoRight);
+    }
+
+    private void attachSyncStream(String position, VideoView videoView) {
+        MediaPlayer mp = mediaPlayers.get(position);
+        if (mp != null && videoView != null) {
+            sync.addStream(position, videoView, mp);
+        }
+    }
+
     /**
      * 开始播放
      */
@@ -224,25 +331,14 @@ public class MultiVideoPlayerManager {
 
         isPlaying = true;
 
-        if (isSingleMode) {
-            // 单路模式播放 videoSingle（用户看到的视频）
+        if (isSingleMode || isMosaicGroup) {
+            // 单路模式（或拼接视频）播放 videoSingle（用户看到的视频）
             if (videoSingle != null) {
                 videoSingle.start();
             }
         } else {
-            // 多路模式播放所有
-            if (videoFront != null && currentGroup != null && currentGroup.hasVideo(VideoGroup.POSITION_FRONT)) {
-                videoFront.start();
-            }
-            if (videoBack != null && currentGroup != null && currentGroup.hasVideo(VideoGroup.POSITION_BACK)) {
-                videoBack.start();
-            }
-            if (videoLeft != null && currentGroup != null && currentGroup.hasVideo(VideoGroup.POSITION_LEFT)) {
-                videoLeft.start();
-            }
-            if (videoRight != null && currentGroup != null && currentGroup.hasVideo(VideoGroup.POSITION_RIGHT)) {
-                videoRight.start();
-            }
+            // 多路模式同时启动所有路，并按主时钟保持同步
+            sync.start();
         }
 
         if (playbackListener != null) {
@@ -259,6 +355,7 @@ public class MultiVideoPlayerManager {
     public void pause() {
         isPlaying = false;
 
+        sync.pause();
         if (videoFront != null) videoFront.pause();
         if (videoBack != null) videoBack.pause();
         if (videoLeft != null) videoLeft.pause();
@@ -287,6 +384,7 @@ public class MultiVideoPlayerManager {
     public void stopAll() {
         isPlaying = false;
         isPrepared = false;
+        sync.clear();
         handler.removeCallbacksAndMessages(null);
         isStopping = true;
 
@@ -310,24 +408,14 @@ public class MultiVideoPlayerManager {
     public void seekTo(int position) {
         if (!isPrepared) return;
 
-        if (isSingleMode) {
+        if (isSingleMode || isMosaicGroup) {
             // 单路模式：操作 videoSingle（用户看到的视频）
             if (videoSingle != null) {
                 videoSingle.seekTo(position);
             }
         } else {
-            if (videoFront != null && currentGroup != null && currentGroup.hasVideo(VideoGroup.POSITION_FRONT)) {
-                videoFront.seekTo(position);
-            }
-            if (videoBack != null && currentGroup != null && currentGroup.hasVideo(VideoGroup.POSITION_BACK)) {
-                videoBack.seekTo(position);
-            }
-            if (videoLeft != null && currentGroup != null && currentGroup.hasVideo(VideoGroup.POSITION_LEFT)) {
-                videoLeft.seekTo(position);
-            }
-            if (videoRight != null && currentGroup != null && currentGroup.hasVideo(VideoGroup.POSITION_RIGHT)) {
-                videoRight.seekTo(position);
-            }
+            // 所有路跳转到同一个关键帧对齐的时间戳，全部完成后再一起恢复播放
+            sync.seekTo(position, isPlaying);
         }
     }
 
@@ -336,6 +424,13 @@ public class MultiVideoPlayerManager {
      */
     public int getCurrentPosition() {
         // 返回当前播放视频的位置
+        if (isMosaicGroup && videoSingle != null) {
+            try {
+                return videoSingle.getCurrentPosition();
+            } catch (Exception e) {
+                return 0;
+            }
+        }
         if (isSingleMode && videoSingle != null) {
             // 单路模式下优先从 videoSingle 获取位置
             try {
@@ -401,6 +496,7 @@ public class MultiVideoPlayerManager {
     public float cycleSpeed() {
         currentSpeedIndex = (currentSpeedIndex + 1) % SPEED_OPTIONS.length;
         currentSpeed = SPEED_OPTIONS[currentSpeedIndex];
+        sync.setBaseSpeed(currentSpeed);
         
         // 应用新倍速到所有播放器
         for (MediaPlayer mp : mediaPlayers.values()) {
@@ -421,6 +517,7 @@ public class MultiVideoPlayerManager {
                 break;
             }
         }
+        sync.setBaseSpeed(currentSpeed);
         
         for (MediaPlayer mp : mediaPlayers.values()) {
             setMediaPlayerSpeed(mp, currentSpeed);
@@ -474,6 +571,13 @@ public class MultiVideoPlayerManager {
      * 设置单路/多路模式
      */
     public void setSingleMode(boolean singleMode, String position) {
+        // 拼接视频：同一个解码器，只需调整裁剪区域，不重新加载
+        if (isMosaicGroup) {
+            updateSingleModePosition(singleMode, position);
+            applyMosaicCrop();
+            return;
+        }
+
         // 先保存当前播放位置和状态
         int savedPosition = 0;
         boolean wasPlaying = isPlaying;
@@ -491,6 +595,7 @@ public class MultiVideoPlayerManager {
         if (isPrepared && currentGroup != null) {
             if (singleMode) {
                 // 切换到单路：先暂停多路视频
+                sync.pause();
                 if (videoFront != null) videoFront.pause();
                 if (videoBack != null) videoBack.pause();
                 if (videoLeft != null) videoLeft.pause();
@@ -508,6 +613,7 @@ public class MultiVideoPlayerManager {
                     play();
                 } else {
                     // 确保所有视频都暂停
+                    sync.pause();
                     if (videoFront != null) videoFront.pause();
                     if (videoBack != null) videoBack.pause();
                     if (videoLeft != null) videoLeft.pause();
@@ -589,6 +695,67 @@ public class MultiVideoPlayerManager {
         }
     }
 
+    /**
+     * 按当前模式调整拼接视频的显示区域
+     * 四路模式完整显示；单路模式把 VideoView 放大为两倍象限大小，并用负边距把目标象限移到可见区域，
+     * 超出父布局的部分被裁掉，无需解码四个文件
+     */
+    private void applyMosaicCrop() {
+        if (videoSingle == null || !(videoSingle.getParent() instanceof View)) {
+            return;
+        }
+        View parent = (View) videoSingle.getParent();
+        parent.post(() -> {
+            int quadrant = isSingleMode ? VideoGroup.getMosaicQuadrant(singleModePosition) : -1;
+            int parentWidth = parent.getWidth();
+            int parentHeight = parent.getHeight();
+            if (!isMosaicGroup || quadrant < 0 || mosaicVideoWidth <= 0 || mosaicVideoHeight <= 0
+                    || parentWidth <= 0 || parentHeight <= 0) {
+                resetMosaicCrop();
+                return;
+            }
+
+            // 象限按宽高比适配父布局（居中）
+            float quadrantWidth = mosaicVideoWidth / 2f;
+            float quadrantHeight = mosaicVideoHeight / 2f;
+            float scale = Math.min(parentWidth / quadrantWidth, parentHeight / quadrantHeight);
+            int displayWidth = Math.round(quadrantWidth * scale);
+            int displayHeight = Math.round(quadrantHeight * scale);
+            int column = quadrant % 2;
+            int row = quadrant / 2;
+
+            FrameLayout.LayoutParams params = new FrameLayout.LayoutParams(displayWidth * 2, displayHeight * 2);
+            params.gravity = Gravity.TOP | Gravity.START;
+            params.leftMargin = (parentWidth - displayWidth) / 2 - column * displayWidth;
+            params.topMargin = (parentHeight - displayHeight) / 2 - row * displayHeight;
+            videoSingle.setLayoutParams(params);
+        });
+    }
+
+    /**
+     * 恢复单路 VideoView 的默认布局（居中完整显示）
+     */
+    private void resetMosaicCrop() {
+        if (videoSingle == null || !(videoSingle.getLayoutParams() instanceof FrameLayout.LayoutParams)) {
+            return;
+        }
+        FrameLayout.LayoutParams current = (FrameLayout.LayoutParams) videoSingle.getLayoutParams();
+        if (current.width == ViewGroup.LayoutParams.MATCH_PARENT && current.height == ViewGroup.LayoutParams.MATCH_PARENT) {
+            return;
+        }
+        FrameLayout.LayoutParams params = new FrameLayout.LayoutParams(
+                ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.MATCH_PARENT);
+        params.gravity = Gravity.CENTER;
+        videoSingle.setLayoutParams(params);
+    }
+
+    /**
+     * 当前视频组是否为拼接录制
+     */
+    public boolean isMosaicGroup() {
+        return isMosaicGroup;
+    }
+
     /**
      * 是否是单路模式
      */
@@ -640,6 +807,20 @@ public class MultiVideoPlayerManager {
         playbackListener = null;
     }
 
+    /**
+     * 获取四宫格各路相对主时钟的偏差统计（不含主时钟本身，单路和拼接录制时为空）
+     */
+    public List<PlaybackSync.DriftStats> getSyncStats() {
+        return sync.getStats();
+    }
+
+    /**
+     * 清零偏差统计（开始一次新的测量）
+     */
+    public void resetSyncStats() {
+        sync.resetStats();
+    }
+
     /**
      * 检查指定位置是否有视频
      */
@@ -40,6 +40,16 @@ public class PhotoGroup {
         this.captureTime = parseTimestamp(timestampPrefix);
     }
 
+    /**
+     * 由已知时间和文件大小创建分组（MediaCatalog 使用，不解析日期、不 stat 文件）
+     */
+    PhotoGroup(String timestampPrefix, long captureTimeMs, Map<String, File> photoFiles, long totalSize) {
+        this.timestampPrefix = timestampPrefix;
+        this.captureTime = new Date(captureTimeMs);
+        this.photoFiles = new HashMap<>(photoFiles);
+        this.totalSize = totalSize;
+    }
+
     /**
      * 添加图片文件到分组
      */
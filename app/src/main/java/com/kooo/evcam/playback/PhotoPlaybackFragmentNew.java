@@ -30,18 +30,13 @@ import android.widget.PopupMenu;
 import com.google.android.material.dialog.MaterialAlertDialogBuilder;
 import com.kooo.evcam.MainActivity;
 import com.kooo.evcam.R;
-import com.kooo.evcam.StorageHelper;
 
 import java.io.File;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 
@@ -74,6 +69,8 @@ public class PhotoPlaybackFragmentNew extends Fragment {
     private List<DateSection<PhotoGroup>> dateSections = new ArrayList<>();
     private ExpandablePhotoGroupAdapter adapter;
     private PhotoGroup currentGroup;
+    private MediaCatalog<PhotoGroup> catalog;
+    private final MediaCatalog.Listener<PhotoGroup> catalogListener = this::onCatalogChanged;
 
     // 状态
     private boolean isMultiSelectMode = false;
@@ -88,6 +85,10 @@ public class PhotoPlaybackFragmentNew extends Fragment {
         initViews(view);
         setupListeners();
         setupDoubleTapListeners();
+
+        // 图片列表由后台目录维护，先显示上次的结果，刷新完成后增量更新
+        catalog = MediaCatalog.forPhotos(getContext());
+        catalog.addListener(catalogListener);
         updatePhotoList();
         applyStatusBarInsets(view);
 
@@ -192,7 +193,7 @@ public class PhotoPlaybackFragmentNew extends Fragment {
         });
 
         // 刷新
-        btnRefresh.setOnClickListener(v -> updatePhotoList());
+        btnRefresh.setOnClickListener(v -> catalog.rescan());
 
         // 多选模式
         btnMultiSelect.setOnClickListener(v -> toggleMultiSelectMode());
@@ -430,59 +431,50 @@ public class PhotoPlaybackFragmentNew extends Fragment {
     }
 
     /**
-     * 更新图片列表（按日期分组，然后按时间戳分组）
+     * 刷新图片列表（在后台从媒体目录更新，完成后回调 onCatalogChanged；刷新按钮强制与存储目录对账）
      */
     private void updatePhotoList() {
-        dateSections.clear();
-
-        File saveDir = StorageHelper.getPhotoDir(getContext());
-        if (!saveDir.exists() || !saveDir.isDirectory()) {
-            showEmptyState();
-            return;
-        }
-
-        File[] files = saveDir.listFiles((dir, name) -> {
-            String lower = name.toLowerCase();
-            return lower.endsWith(".jpg") || lower.endsWith(".jpeg") || lower.endsWith(".png");
-        });
+        catalog.refresh();
+    }
 
-        if (files == null || files.length == 0) {
-            showEmptyState();
+    private void onCatalogChanged(MediaCatalog.Snapshot<PhotoGroup> snapshot) {
+        if (adapter == null || getView() == null) {
             return;
         }
+        showPhotoGroups(snapshot.groups);
+    }
 
-        // 第一步：按时间戳分组（同一秒拍摄的多路图片）
-        Map<String, PhotoGroup> groupMap = new HashMap<>();
-        for (File file : files) {
-            String timestamp = PhotoGroup.extractTimestampPrefix(file.getName());
-            PhotoGroup group = groupMap.get(timestamp);
-            if (group == null) {
-                group = new PhotoGroup(timestamp);
-                groupMap.put(timestamp, group);
-            }
-            group.addFile(file);
+    /**
+     * 按日期分组显示图片组，用 DiffUtil 只刷新变化的项
+     * @param groups 图片组（按时间从新到旧排列）
+     */
+    private void showPhotoGroups(List<PhotoGroup> groups) {
+        // 保留已有日期分组的展开状态
+        Map<String, Boolean> expandedStates = new HashMap<>();
+        for (DateSection<PhotoGroup> section : dateSections) {
+            expandedStates.put(section.getDateString(), section.isExpanded());
         }
 
-        // 转为列表并排序（最新的在前）
-        List<PhotoGroup> allGroups = new ArrayList<>(groupMap.values());
-        Collections.sort(allGroups, (g1, g2) -> g2.getCaptureTime().compareTo(g1.getCaptureTime()));
-
-        // 第二步：按日期分组
-        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd", Locale.getDefault());
-        Map<String, DateSection<PhotoGroup>> dateSectionMap = new LinkedHashMap<>();
-        
-        for (PhotoGroup group : allGroups) {
-            String dateString = dateFormat.format(group.getCaptureTime());
-            DateSection<PhotoGroup> section = dateSectionMap.get(dateString);
-            if (section == null) {
+        List<DateSection<PhotoGroup>> sections = new ArrayList<>();
+        DateSection<PhotoGroup> section = null;
+        String sectionPrefix = null;
+        for (PhotoGroup group : groups) {
+            // 时间戳前缀的前8位即日期（yyyyMMdd），同一天的分组相邻
+            String prefix = group.getTimestampPrefix();
+            if (sectionPrefix == null || !prefix.regionMatches(0, sectionPrefix, 0, 8)) {
+                sectionPrefix = prefix;
+                String dateString = prefix.substring(0, 4) + "-" + prefix.substring(4, 6) + "-" + prefix.substring(6, 8);
                 section = new DateSection<>(dateString, group.getCaptureTime());
-                dateSectionMap.put(dateString, section);
+                Boolean expanded = expandedStates.get(dateString);
+                if (expanded != null) {
+                    section.setExpanded(expanded);
+                }
+                sections.add(section);
             }
             section.addItem(group);
         }
-
-        // 日期分组已按日期排序（LinkedHashMap 保持插入顺序，而 allGroups 已排序）
-        dateSections.addAll(dateSectionMap.values());
+        dateSections.clear();
+        dateSections.addAll(sections);
 
         // 更新UI
         if (dateSections.isEmpty()) {
@@ -492,8 +484,10 @@ public class PhotoPlaybackFragmentNew extends Fragment {
             emptyText.setVisibility(View.GONE);
         }
 
-        adapter.buildFlattenedList();
-        adapter.notifyDataSetChanged();
+        adapter.dispatchListUpdate();
+        if (isMultiSelectMode) {
+            updateSelectedCount();
+        }
     }
 
     private void showEmptyState() {
@@ -547,24 +541,28 @@ public class PhotoPlaybackFragmentNew extends Fragment {
                 .setMessage("确定要删除选中的 " + selectedGroups.size() + " 组照片吗？（包含所有摄像头照片）")
                 .setPositiveButton("删除", (dialog, which) -> {
                     int deletedCount = 0;
+                    List<File> deletedFiles = new ArrayList<>();
                     
                     // 删除选中的图片组
                     for (PhotoGroup group : selectedGroups) {
+                        deletedFiles.addAll(group.getAllPhotoFiles().values());
                         deletedCount += group.deleteAll();
                     }
                     
-                    // 从日期分组中移除已删除的组
+                    // 移除已删除的组（空的日期分组随之移除）
+                    List<PhotoGroup> remainingGroups = new ArrayList<>();
                     for (DateSection<PhotoGroup> section : dateSections) {
-                        section.getItems().removeAll(selectedGroups);
+                        for (PhotoGroup group : section.getItems()) {
+                            if (!selectedGroups.contains(group)) {
+                                remainingGroups.add(group);
+                            }
+                        }
                     }
-                    
-                    // 移除空的日期分组
-                    dateSections.removeIf(section -> section.getItemCount() == 0);
 
                     adapter.clearSelection();
-                    adapter.buildFlattenedList();
-                    adapter.notifyDataSetChanged();
+                    showPhotoGroups(remainingGroups);
                     updateSelectedCount();
+                    catalog.removeFiles(deletedFiles);
 
                     if (getContext() != null) {
                         android.widget.Toast.makeText(getContext(),
@@ -581,6 +579,14 @@ public class PhotoPlaybackFragmentNew extends Fragment {
                 .show();
     }
 
+    @Override
+    public void onDestroyView() {
+        super.onDestroyView();
+        if (catalog != null) {
+            catalog.removeListener(catalogListener);
+        }
+    }
+
     private void applyStatusBarInsets(View view) {
         View toolbarView = view.findViewById(R.id.toolbar);
         if (toolbarView != null) {
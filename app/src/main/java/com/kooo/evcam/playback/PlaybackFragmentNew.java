@@ -27,17 +27,13 @@ import android.widget.PopupMenu;
 import com.google.android.material.dialog.MaterialAlertDialogBuilder;
 import com.kooo.evcam.MainActivity;
 import com.kooo.evcam.R;
-import com.kooo.evcam.StorageHelper;
 
 import java.io.File;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -76,6 +72,9 @@ public class PlaybackFragmentNew extends Fragment {
     private VideoGroup currentGroup;
     private ExpandableVideoGroupAdapter adapter;
     private MultiVideoPlayerManager playerManager;
+    private final ScrubPreview scrubPreview = new ScrubPreview();
+    private MediaCatalog<VideoGroup> catalog;
+    private final MediaCatalog.Listener<VideoGroup> catalogListener = this::onCatalogChanged;
 
     // 状态
     private boolean isMultiSelectMode = false;
@@ -92,6 +91,10 @@ public class PlaybackFragmentNew extends Fragment {
         initPlayerManager();
         setupListeners();
         setupDoubleTapListeners();
+        
+        // 视频列表由后台目录维护，先显示上次的结果，刷新完成后增量更新
+        catalog = MediaCatalog.forVideos(getContext());
+        catalog.addListener(catalogListener);
         updateVideoList();
         
         // 应用状态栏适配
@@ -182,6 +185,8 @@ public class PlaybackFragmentNew extends Fragment {
     private void initPlayerManager() {
         playerManager = new MultiVideoPlayerManager(getContext());
         playerManager.setVideoViews(videoFront, videoBack, videoLeft, videoRight, videoSingle);
+        scrubPreview.attach(frameFront, frameBack, frameLeft, frameRight,
+                singleViewLayout instanceof FrameLayout ? (FrameLayout) singleViewLayout : null);
         
         playerManager.setPlaybackListener(new MultiVideoPlayerManager.OnPlaybackListener() {
             @Override
@@ -261,7 +266,7 @@ public class PlaybackFragmentNew extends Fragment {
         });
 
         // 刷新
-        btnRefresh.setOnClickListener(v -> updateVideoList());
+        btnRefresh.setOnClickListener(v -> catalog.rescan());
 
         // 多选模式
         btnMultiSelect.setOnClickListener(v -> toggleMultiSelectMode());
@@ -296,17 +301,21 @@ public class PlaybackFragmentNew extends Fragment {
             public void onProgressChanged(SeekBar seekBar, int progress, boolean fromUser) {
                 if (fromUser) {
                     currentTime.setText(formatTime(progress));
+                    // 拖动中只显示时间轴预览图，松手后再跳转
+                    scrubPreview.show(progress, isSingleMode ? currentSinglePosition : null);
                 }
             }
 
             @Override
             public void onStartTrackingTouch(SeekBar seekBar) {
                 isDraggingSeekBar = true;
+                scrubPreview.show(seekBar.getProgress(), isSingleMode ? currentSinglePosition : null);
             }
 
             @Override
             public void onStopTrackingTouch(SeekBar seekBar) {
                 isDraggingSeekBar = false;
+                scrubPreview.hide();
                 playerManager.seekTo(seekBar.getProgress());
             }
         });
@@ -328,6 +337,13 @@ public class PlaybackFragmentNew extends Fragment {
                 public boolean onDoubleTap(MotionEvent e) {
                     if (isSingleMode) {
                         switchToMultiMode();
+                    } else if (playerManager.isMosaicGroup() && videoSingle != null
+                            && videoSingle.getWidth() > 0 && videoSingle.getHeight() > 0) {
+                        // 拼接视频四路显示时，双击的象限放大到单路
+                        int column = e.getX() - videoSingle.getLeft() < videoSingle.getWidth() / 2f ? 0 : 1;
+                        int row = e.getY() - videoSingle.getTop() < videoSingle.getHeight() / 2f ? 0 : 1;
+                        String position = VideoGroup.MOSAIC_QUADRANT_POSITIONS[row * 2 + column];
+                        switchToSingleMode(position, getPositionLabel(position));
                     }
                     return true;
                 }
@@ -398,6 +414,12 @@ public class PlaybackFragmentNew extends Fragment {
         
         playerManager.setSingleMode(false, null);
         
+        // 拼接视频始终在单路布局中显示（四路即完整画面）
+        if (currentGroup != null && currentGroup.isMosaic()) {
+            labelSingle.setText("四路");
+            return;
+        }
+        
         // 直接切换，不做动画（避免透明过渡时看到十字背景）
         singleViewLayout.setVisibility(View.GONE);
         multiViewLayout.setVisibility(View.VISIBLE);
@@ -518,7 +540,15 @@ public class PlaybackFragmentNew extends Fragment {
         }
         
         // 显示四宫格（根据当前模式）
-        if (isSingleMode) {
+        if (group.isMosaic()) {
+            // 拼接视频只解码一个文件，单路/四路都在单路布局中通过裁剪显示
+            multiViewLayout.setVisibility(View.GONE);
+            singleViewLayout.setVisibility(View.VISIBLE);
+            if (!isSingleMode) {
+                labelSingle.setText("四路");
+                btnViewMode.setText("多路");
+            }
+        } else if (isSingleMode) {
             multiViewLayout.setVisibility(View.GONE);
             singleViewLayout.setVisibility(View.VISIBLE);
         } else {
@@ -538,6 +568,7 @@ public class PlaybackFragmentNew extends Fragment {
         
         // 加载视频
         playerManager.loadVideoGroup(group);
+        scrubPreview.load(group);
     }
     
     /**
@@ -566,55 +597,50 @@ public class PlaybackFragmentNew extends Fragment {
     }
 
     /**
-     * 更新视频列表（按日期分组，然后按时间戳分组）
+     * 刷新视频列表（在后台从媒体目录更新，完成后回调 onCatalogChanged；刷新按钮强制与存储目录对账）
      */
     private void updateVideoList() {
-        dateSections.clear();
-
-        File saveDir = StorageHelper.getVideoDir(getContext());
-        if (!saveDir.exists() || !saveDir.isDirectory()) {
-            showEmptyState();
-            return;
-        }
+        catalog.refresh();
+    }
 
-        File[] files = saveDir.listFiles((dir, name) -> name.toLowerCase().endsWith(".mp4"));
-        if (files == null || files.length == 0) {
-            showEmptyState();
+    private void onCatalogChanged(MediaCatalog.Snapshot<VideoGroup> snapshot) {
+        if (adapter == null || getView() == null) {
             return;
         }
+        showVideoGroups(snapshot.groups);
+    }
 
-        // 第一步：按时间戳分组（同一秒录制的多路视频）
-        Map<String, VideoGroup> groupMap = new HashMap<>();
-        for (File file : files) {
-            String timestamp = VideoGroup.extractTimestampPrefix(file.getName());
-            VideoGroup group = groupMap.get(timestamp);
-            if (group == null) {
-                group = new VideoGroup(timestamp);
-                groupMap.put(timestamp, group);
-            }
-            group.addFile(file);
+    /**
+     * 按日期分组显示视频组，用 DiffUtil 只刷新变化的项
+     * @param groups 视频组（按时间从新到旧排列）
+     */
+    private void showVideoGroups(List<VideoGroup> groups) {
+        // 保留已有日期分组的展开状态
+        Map<String, Boolean> expandedStates = new HashMap<>();
+        for (DateSection<VideoGroup> section : dateSections) {
+            expandedStates.put(section.getDateString(), section.isExpanded());
         }
 
-        // 转为列表并排序（最新的在前）
-        List<VideoGroup> allGroups = new ArrayList<>(groupMap.values());
-        Collections.sort(allGroups, (g1, g2) -> g2.getRecordTime().compareTo(g1.getRecordTime()));
-
-        // 第二步：按日期分组
-        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd", Locale.getDefault());
-        Map<String, DateSection<VideoGroup>> dateSectionMap = new LinkedHashMap<>();
-        
-        for (VideoGroup group : allGroups) {
-            String dateString = dateFormat.format(group.getRecordTime());
-            DateSection<VideoGroup> section = dateSectionMap.get(dateString);
-            if (section == null) {
+        List<DateSection<VideoGroup>> sections = new ArrayList<>();
+        DateSection<VideoGroup> section = null;
+        String sectionPrefix = null;
+        for (VideoGroup group : groups) {
+            // 时间戳前缀的前8位即日期（yyyyMMdd），同一天的分组相邻
+            String prefix = group.getTimestampPrefix();
+            if (sectionPrefix == null || !prefix.regionMatches(0, sectionPrefix, 0, 8)) {
+                sectionPrefix = prefix;
+                String dateString = prefix.substring(0, 4) + "-" + prefix.substring(4, 6) + "-" + prefix.substring(6, 8);
                 section = new DateSection<>(dateString, group.getRecordTime());
-                dateSectionMap.put(dateString, section);
+                Boolean expanded = expandedStates.get(dateString);
+                if (expanded != null) {
+                    section.setExpanded(expanded);
+                }
+                sections.add(section);
             }
             section.addItem(group);
         }
-
-        // 日期分组已按日期排序（LinkedHashMap 保持插入顺序，而 allGroups 已排序）
-        dateSections.addAll(dateSectionMap.values());
+        dateSections.clear();
+        dateSections.addAll(sections);
 
         // 更新UI
         if (dateSections.isEmpty()) {
@@ -624,8 +650,10 @@ public class PlaybackFragmentNew extends Fragment {
             emptyText.setVisibility(View.GONE);
         }
 
-        adapter.buildFlattenedList();
-        adapter.notifyDataSetChanged();
+        adapter.dispatchListUpdate();
+        if (isMultiSelectMode) {
+            updateSelectedCount();
+        }
     }
 
     private void showEmptyState() {
@@ -679,24 +707,28 @@ public class PlaybackFragmentNew extends Fragment {
                 .setMessage("确定要删除选中的 " + selectedGroups.size() + " 组视频吗？（包含所有摄像头录像）")
                 .setPositiveButton("删除", (dialog, which) -> {
                     int deletedCount = 0;
+                    List<File> deletedFiles = new ArrayList<>();
                     
                     // 删除选中的视频组
                     for (VideoGroup group : selectedGroups) {
+                        deletedFiles.addAll(group.getAllVideoFiles().values());
                         deletedCount += group.deleteAll();
                     }
                     
-                    // 从日期分组中移除已删除的组
+                    // 移除已删除的组（空的日期分组随之移除）
+                    List<VideoGroup> remainingGroups = new ArrayList<>();
                     for (DateSection<VideoGroup> section : dateSections) {
-                        section.getItems().removeAll(selectedGroups);
+                        for (VideoGroup group : section.getItems()) {
+                            if (!selectedGroups.contains(group)) {
+                                remainingGroups.add(group);
+                            }
+                        }
                     }
-                    
-                    // 移除空的日期分组
-                    dateSections.removeIf(section -> section.getItemCount() == 0);
 
                     adapter.clearSelection();
-                    adapter.buildFlattenedList();
-                    adapter.notifyDataSetChanged();
+                    showVideoGroups(remainingGroups);
                     updateSelectedCount();
+                    catalog.removeFiles(deletedFiles);
 
                     if (getContext() != null) {
                         android.widget.Toast.makeText(getContext(),
@@ -747,8 +779,12 @@ public class PlaybackFragmentNew extends Fragment {
     @Override
     public void onDestroyView() {
         super.onDestroyView();
+        if (catalog != null) {
+            catalog.removeListener(catalogListener);
+        }
         if (playerManager != null) {
             playerManager.release();
         }
+        scrubPreview.release();
     }
 }
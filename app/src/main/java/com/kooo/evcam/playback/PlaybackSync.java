@@ -0,0 +1,517 @@
+package com.kooo.evcam.playback;
+
+import android.media.MediaPlayer;
+import android.media.MediaTimestamp;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.widget.VideoView;
+
+import com.kooo.evcam.AppLog;
+import com.kooo.evcam.camera.Mp4RecoveryEngine;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * 多路回放同步（主时钟）
+ * 四个 VideoView 各自独立解码，启动延迟、解码速度和 seek 落点（默认跳到各自的前一个关键帧）都不同，
+ * 长时间播放和跳转后画面会逐渐错开。本类以一路为主时钟，持续把其他路对齐到主时钟：
+ *
+ * - 主时钟取参考路（优先前路）的播放位置，用 MediaPlayer.getTimestamp() 外推到当前时刻，精度不受 getCurrentPosition 的毫秒取整影响
+ * - 每 TICK_INTERVAL_MS 测量一次各路相对主时钟的偏差：半帧以内不修正；
+ *   较小的偏差用不超过 ±MAX_NUDGE 的速度微调在约 CORRECTION_WINDOW_MS 内追平；
+ *   超过 RESYNC_THRESHOLD_MS 时直接 seek 到主时钟位置（落后时相当于丢帧追赶），并按该路上次 seek 的耗时提前量补偿
+ * - 跳转时先暂停所有路，全部完成后再一起恢复播放，各路从同一时间戳开始：
+ *   各路都有关键帧索引（StorageIndex.getKeyFrameIndex）时，在目标附近的关键帧中选一个使各路从前一个关键帧解码的距离
+ *   最大值最小的时间戳，所有路同时按 SEEK_CLOSEST 跳转（不互相等待）；
+ *   缺少索引时主路先按 SEEK_PREVIOUS_SYNC 跳到目标前的关键帧，其他路再按 SEEK_CLOSEST 跳到主路实际落点
+ * - 统计各路偏差（开始播放/跳转后的 SETTLE_MS 内不计入），用于确认整段播放中偏差保持在一帧以内
+ *
+ * 只用于四宫格多路播放；单路模式和拼接录制只有一个解码器，不需要同步
+ * 所有方法在主线程上调用
+ */
+public class PlaybackSync {
+    private static final String TAG = "PlaybackSync";
+
+    /** 一帧的时长（录制默认 30fps） */
+    public static final int FRAME_INTERVAL_MS = 33;
+
+    private static final long TICK_INTERVAL_MS = 100;
+    private static final long DEAD_BAND_MS = FRAME_INTERVAL_MS / 2;   // 半帧以内不修正
+    private static final long RESYNC_THRESHOLD_MS = 300;              // 超过时 seek 重新对齐
+    private static final float MAX_NUDGE = 0.05f;                     // 速度微调上限（±5%）
+    private static final long CORRECTION_WINDOW_MS = 1000;            // 微调时期望追平偏差的时间
+    private static final long SETTLE_MS = 1000;                       // 开始播放/跳转后不计入统计的时间
+    private static final long DEFAULT_SEEK_LATENCY_MS = 150;          // 未测量过时 seek 耗时的估计值
+    private static final long SEEK_TIMEOUT_MS = 3000;                 // 跳转等待 seek 完成的超时
+    private static final long SNAP_WINDOW_MS = 1000;                  // 跳转时在目标前后多大范围内选关键帧
+
+    /**
+     * 一路视频的同步状态
+     */
+    private static final class Stream {
+        final String position;
+        final VideoView view;
+        final MediaPlayer player;
+        float appliedSpeed;
+        boolean seekPending;
+        int seekMode;
+        long seekStartMs;
+        long seekLatencyMs = DEFAULT_SEEK_LATENCY_MS;
+
+        // 统计
+        long lastDriftMs;
+        long maxDriftMs;
+        long samples;
+        long withinFrameSamples;
+        double sumAbsDriftMs;
+        int nudges;
+        int resyncs;
+
+        Stream(String position, VideoView view, MediaPlayer player, float speed) {
+            this.position = position;
+            this.view = view;
+            this.player = player;
+            this.appliedSpeed = speed;
+        }
+
+        void resetStats() {
+            lastDriftMs = 0;
+            maxDriftMs = 0;
+            samples = 0;
+            withinFrameSamples = 0;
+            sumAbsDriftMs = 0;
+            nudges = 0;
+            resyncs = 0;
+        }
+    }
+
+    /**
+     * 一路视频的偏差统计（相对主时钟，正数表示超前）
+     */
+    public static final class DriftStats {
+        public final String position;
+        public final long samples;             // 采样次数（不含稳定期）
+        public final long lastDriftMs;         // 最近一次测量的偏差
+        public final long maxDriftMs;          // 最大偏差（绝对值）
+        public final double meanAbsDriftMs;    // 平均偏差（绝对值）
+        public final long withinFrameSamples;  // 偏差在一帧以内的采样次数
+        public final int nudges;               // 速度微调次数
+        public final int resyncs;              // seek 重新对齐次数
+
+        DriftStats(Stream stream) {
+            this.position = stream.position;
+            this.samples = stream.samples;
+            this.lastDriftMs = stream.lastDriftMs;
+            this.maxDriftMs = stream.maxDriftMs;
+            this.meanAbsDriftMs = stream.samples > 0 ? stream.sumAbsDriftMs / stream.samples : 0;
+            this.withinFrameSamples = stream.withinFrameSamples;
+            this.nudges = stream.nudges;
+            this.resyncs = stream.resyncs;
+        }
+
+        /**
+         * 整个统计期间偏差是否始终在一帧以内
+         */
+        public boolean isWithinOneFrame() {
+            return samples > 0 && maxDriftMs <= FRAME_INTERVAL_MS;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%s: samples=%d last=%dms max=%dms mean=%.1fms withinFrame=%.1f%% nudges=%d resyncs=%d",
+                    position, samples, lastDriftMs, maxDriftMs, meanAbsDriftMs,
+                    samples > 0 ? withinFrameSamples * 100.0 / samples : 0, nudges, resyncs);
+        }
+    }
+
+    private final Handler handler;
+    private final List<Stream> streams = new ArrayList<>();  // 第一路为主时钟
+    private final Map<String, Mp4RecoveryEngine.KeyFrameIndex> keyFrameIndices = new HashMap<>();  // 位置 -> 关键帧索引
+    private float baseSpeed = 1.0f;
+    private boolean running = false;
+    private long settleUntilMs = 0;
+
+    // 跳转状态
+    private boolean seeking = false;
+    private boolean resumeAfterSeek = false;
+    private int pendingSeekMs = -1;
+    private int remainingSeeks = 0;
+
+    private final Runnable tick = new Runnable() {
+        @Override
+        public void run() {
+            if (!running) {
+                return;
+            }
+            sample();
+            handler.postDelayed(this, TICK_INTERVAL_MS);
+        }
+    };
+
+    private final Runnable seekTimeout = () -> {
+        AppLog.w(TAG, "等待 seek 完成超时，继续播放");
+        finishSeek();
+    };
+
+    PlaybackSync(Handler handler) {
+        this.handler = handler;
+    }
+
+    /**
+     * 添加一路视频（第一路为主时钟，应按前、后、左、右的顺序添加）
+     */
+    void addStream(String position, VideoView view, MediaPlayer player) {
+        Stream stream = new Stream(position, view, player, baseSpeed);
+        player.setOnSeekCompleteListener(mp -> onSeekComplete(stream));
+        streams.add(stream);
+    }
+
+    /**
+     * 清除所有路（加载新视频组或停止播放时调用），有统计数据时输出到日志
+     */
+    void clear() {
+        logStats("停止");
+        stopTicking();
+        handler.removeCallbacks(seekTimeout);
+        streams.clear();
+        seeking = false;
+        pendingSeekMs = -1;
+        remainingSeeks = 0;
+    }
+
+    boolean isActive() {
+        return !streams.isEmpty();
+    }
+
+    /**
+     * 设置一路的关键帧索引（加载视频组后在后台读取，可以在添加该路之前或之后设置）
+     */
+    void setKeyFrameIndex(String position, Mp4RecoveryEngine.KeyFrameIndex index) {
+        keyFrameIndices.put(position, index);
+    }
+
+    /**
+     * 清除关键帧索引（加载新视频组时调用）
+     */
+    void clearKeyFrameIndices() {
+        keyFrameIndices.clear();
+    }
+
+    /**
+     * 设置基准倍速（各路的微调在基准倍速上进行）
+     */
+    void setBaseSpeed(float speed) {
+        baseSpeed = speed;
+        for (Stream stream : streams) {
+            stream.appliedSpeed = speed;
+        }
+    }
+
+    /**
+     * 同时启动所有路并开始同步；正在跳转时等跳转完成后再启动
+     */
+    void start() {
+        if (seeking) {
+            resumeAfterSeek = true;
+            return;
+        }
+        for (Stream stream : streams) {
+            stream.view.start();
+        }
+        for (Stream stream : streams) {
+            applySpeed(stream, baseSpeed);
+        }
+        settleUntilMs = SystemClock.elapsedRealtime() + SETTLE_MS;
+        if (!running) {
+            running = true;
+            handler.postDelayed(tick, TICK_INTERVAL_MS);
+        }
+    }
+
+    /**
+     * 暂停所有路并停止同步
+     */
+    void pause() {
+        resumeAfterSeek = false;
+        stopTicking();
+        for (Stream stream : streams) {
+            stream.view.pause();
+        }
+    }
+
+    private void stopTicking() {
+        running = false;
+        handler.removeCallbacks(tick);
+    }
+
+    /**
+     * 所有路跳转到同一个关键帧对齐的时间戳
+     * 有关键帧索引时各路同时跳到规划的时间戳，否则主路跳到目标前的关键帧、其他路精确跳到主路的实际落点；
+     * 跳转期间再次跳转时只保留最后一次
+     * @param resume 完成后是否恢复播放
+     */
+    void seekTo(int positionMs, boolean resume) {
+        if (streams.isEmpty()) {
+            return;
+        }
+        if (seeking) {
+            pendingSeekMs = positionMs;
+            resumeAfterSeek = resume;
+            return;
+        }
+        seeking = true;
+        resumeAfterSeek = resume;
+        stopTicking();
+        for (Stream stream : streams) {
+            stream.view.pause();
+            stream.seekPending = false;  // 忽略之前重新对齐的完成回调
+        }
+        handler.postDelayed(seekTimeout, SEEK_TIMEOUT_MS);
+        long alignedMs = planAlignedSeek(positionMs);
+        if (alignedMs >= 0) {
+            // 已知各路关键帧：所有路同时跳到同一时间戳
+            remainingSeeks = streams.size();
+            for (Stream stream : new ArrayList<>(streams)) {
+                seekStream(stream, alignedMs, MediaPlayer.SEEK_CLOSEST);
+            }
+        } else {
+            remainingSeeks = 1;
+            seekStream(streams.get(0), positionMs, MediaPlayer.SEEK_PREVIOUS_SYNC);
+        }
+    }
+
+    /**
+     * 用各路的关键帧索引选择跳转时间戳：候选为目标前后 SNAP_WINDOW_MS 内任意一路的关键帧，
+     * 代价为各路从不晚于候选的关键帧解码到候选的最大距离，取代价最小（相同时离目标最近）的候选
+     * @return 跳转时间戳（毫秒），有一路缺少索引时返回 -1
+     */
+    private long planAlignedSeek(int positionMs) {
+        List<Mp4RecoveryEngine.KeyFrameIndex> indices = new ArrayList<>(streams.size());
+        for (Stream stream : streams) {
+            Mp4RecoveryEngine.KeyFrameIndex index = keyFrameIndices.get(stream.position);
+            if (index == null || index.size() == 0) {
+                return -1;
+            }
+            indices.add(index);
+        }
+        long targetUs = positionMs * 1000L;
+        long windowUs = SNAP_WINDOW_MS * 1000L;
+        long bestUs = -1;
+        long bestCost = Long.MAX_VALUE;
+        for (Mp4RecoveryEngine.KeyFrameIndex candidates : indices) {
+            for (int i = candidates.floorIndex(targetUs - windowUs); i < candidates.size(); i++) {
+                long candidateUs = candidates.getTimeUs(i);
+                if (candidateUs > targetUs + windowUs) {
+                    break;
+                }
+                if (candidateUs < targetUs - windowUs) {
+                    continue;
+                }
+                long cost = 0;
+                for (Mp4RecoveryEngine.KeyFrameIndex index : indices) {
+                    long floorUs = index.getTimeUs(index.floorIndex(candidateUs));
+                    cost = Math.max(cost, Math.max(0, candidateUs - floorUs));
+                }
+                if (cost < bestCost || (cost == bestCost
+                        && Math.abs(candidateUs - targetUs) < Math.abs(bestUs - targetUs))) {
+                    bestCost = cost;
+                    bestUs = candidateUs;
+                }
+            }
+        }
+        if (bestUs < 0) {
+            // 目标附近没有关键帧：退回主路不晚于目标的关键帧
+            Mp4RecoveryEngine.KeyFrameIndex master = indices.get(0);
+            bestUs = master.getTimeUs(master.floorIndex(targetUs));
+        }
+        return bestUs / 1000;
+    }
+
+    private void seekStream(Stream stream, long positionMs, int mode) {
+        stream.seekPending = true;
+        stream.seekMode = mode;
+        stream.seekStartMs = SystemClock.elapsedRealtime();
+        try {
+            long target = Math.max(0, Math.min(positionMs, stream.player.getDuration()));
+            stream.player.seekTo(target, mode);
+        } catch (IllegalStateException e) {
+            AppLog.w(TAG, "seek 失败: " + stream.position + " - " + e.getMessage());
+            onSeekComplete(stream);
+        }
+    }
+
+    private void onSeekComplete(Stream stream) {
+        if (!stream.seekPending || !streams.contains(stream)) {
+            return;
+        }
+        stream.seekPending = false;
+        stream.seekLatencyMs = SystemClock.elapsedRealtime() - stream.seekStartMs;
+        if (!seeking) {
+            // 播放中的重新对齐
+            return;
+        }
+        remainingSeeks--;
+        if (stream == streams.get(0) && stream.seekMode == MediaPlayer.SEEK_PREVIOUS_SYNC) {
+            // 主路已落在关键帧上，其他路对齐到该时间戳
+            int alignedMs = currentPositionMs(stream.player);
+            for (int i = 1; i < streams.size(); i++) {
+                remainingSeeks++;
+                seekStream(streams.get(i), alignedMs, MediaPlayer.SEEK_CLOSEST);
+            }
+        }
+        if (remainingSeeks <= 0) {
+            finishSeek();
+        }
+    }
+
+    private void finishSeek() {
+        handler.removeCallbacks(seekTimeout);
+        seeking = false;
+        remainingSeeks = 0;
+        for (Stream stream : streams) {
+            stream.seekPending = false;
+        }
+        if (pendingSeekMs >= 0) {
+            int next = pendingSeekMs;
+            pendingSeekMs = -1;
+            seekTo(next, resumeAfterSeek);
+        } else if (resumeAfterSeek) {
+            start();
+        }
+    }
+
+    /**
+     * 测量各路偏差并修正（每 TICK_INTERVAL_MS 一次）
+     */
+    private void sample() {
+        if (seeking || streams.size() < 2) {
+            return;
+        }
+        Stream master = streams.get(0);
+        if (!isPlaying(master.player)) {
+            return;
+        }
+        long masterUs = positionUs(master.player);
+        boolean settled = SystemClock.elapsedRealtime() >= settleUntilMs;
+
+        for (int i = 1; i < streams.size(); i++) {
+            Stream stream = streams.get(i);
+            if (stream.seekPending || !isPlaying(stream.player)) {
+                // 正在重新对齐，或该路较短已播放完
+                continue;
+            }
+            long driftMs = (positionUs(stream.player) - masterUs) / 1000;
+            long absDrift = Math.abs(driftMs);
+            stream.lastDriftMs = driftMs;
+            if (settled) {
+                stream.samples++;
+                stream.sumAbsDriftMs += absDrift;
+                stream.maxDriftMs = Math.max(stream.maxDriftMs, absDrift);
+                if (absDrift <= FRAME_INTERVAL_MS) {
+                    stream.withinFrameSamples++;
+                }
+            }
+
+            if (absDrift > RESYNC_THRESHOLD_MS) {
+                // 偏差过大：直接跳到主时钟在 seek 完成时的位置
+                stream.resyncs++;
+                applySpeed(stream, baseSpeed);
+                long targetMs = masterUs / 1000 + (long) (stream.seekLatencyMs * baseSpeed);
+                seekStream(stream, targetMs, MediaPlayer.SEEK_CLOSEST);
+                continue;
+            }
+
+            float nudge = 0;
+            if (absDrift > DEAD_BAND_MS) {
+                // 超前时减速、落后时加速，约 CORRECTION_WINDOW_MS 内追平
+                nudge = -driftMs / (baseSpeed * CORRECTION_WINDOW_MS);
+                nudge = Math.max(-MAX_NUDGE, Math.min(MAX_NUDGE, nudge));
+            }
+            float speed = baseSpeed * (1 + nudge);
+            if (Math.abs(speed - stream.appliedSpeed) > baseSpeed * 0.005f) {
+                if (nudge != 0) {
+                    stream.nudges++;
+                }
+                applySpeed(stream, speed);
+            }
+        }
+    }
+
+    private void applySpeed(Stream stream, float speed) {
+        try {
+            stream.player.setPlaybackParams(stream.player.getPlaybackParams().setSpeed(speed));
+            stream.appliedSpeed = speed;
+        } catch (Exception e) {
+            AppLog.w(TAG, "设置播放速度失败: " + stream.position + " - " + e.getMessage());
+        }
+    }
+
+    /**
+     * 播放位置（微秒），用 MediaTimestamp 外推到当前时刻，不支持时退回 getCurrentPosition
+     */
+    private static long positionUs(MediaPlayer player) {
+        try {
+            MediaTimestamp timestamp = player.getTimestamp();
+            if (timestamp != null) {
+                long elapsedUs = (System.nanoTime() - timestamp.getAnchorSystemNanoTime()) / 1000;
+                return timestamp.getAnchorMediaTimeUs() + (long) (elapsedUs * timestamp.getMediaClockRate());
+            }
+            return player.getCurrentPosition() * 1000L;
+        } catch (IllegalStateException e) {
+            return 0;
+        }
+    }
+
+    private static int currentPositionMs(MediaPlayer player) {
+        try {
+            return player.getCurrentPosition();
+        } catch (IllegalStateException e) {
+            return 0;
+        }
+    }
+
+    private static boolean isPlaying(MediaPlayer player) {
+        try {
+            return player.isPlaying();
+        } catch (IllegalStateException e) {
+            return false;
+        }
+    }
+
+    /**
+     * 获取各路（不含主时钟）的偏差统计
+     */
+    public List<DriftStats> getStats() {
+        List<DriftStats> stats = new ArrayList<>();
+        for (int i = 1; i < streams.size(); i++) {
+            stats.add(new DriftStats(streams.get(i)));
+        }
+        return stats;
+    }
+
+    /**
+     * 清零统计（开始一次新的测量）
+     */
+    public void resetStats() {
+        for (Stream stream : streams) {
+            stream.resetStats();
+        }
+    }
+
+    /**
+     * 把偏差统计输出到日志
+     */
+    void logStats(String reason) {
+        if (streams.size() < 2 || streams.get(1).samples == 0) {
+            return;
+        }
+        AppLog.d(TAG, "同步统计（" + reason + "），主时钟: " + streams.get(0).position);
+        for (DriftStats stats : getStats()) {
+            AppLog.d(TAG, "  " + stats + (stats.isWithinOneFrame() ? "" : "  [超过一帧]"));
+        }
+    }
+}
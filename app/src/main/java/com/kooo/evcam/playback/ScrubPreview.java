@@ -0,0 +1,221 @@
+package com.kooo.evcam.playback;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Handler;
+import android.os.Looper;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.FrameLayout;
+import android.widget.ImageView;
+import android.widget.VideoView;
+
+import com.kooo.evcam.AppLog;
+import com.kooo.evcam.VideoThumbnail;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 拖动进度条时的画面预览
+ * 从录制时生成的时间轴预览图（VideoThumbnail.timelineFor）裁剪对应时间的格子，覆盖显示在各路画面上，
+ * 拖动过程中不解码视频、不跳转播放器；松手后隐藏并由播放器跳转到最终位置
+ * 没有时间轴预览图的旧文件不显示预览（拖动时保持原画面）
+ */
+class ScrubPreview {
+    private static final String TAG = "ScrubPreview";
+
+    private static ExecutorService executor;
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Map<String, ImageView> overlays = new HashMap<>();     // 位置 -> 四宫格中的覆盖层
+    private final Map<String, Bitmap> sheets = new HashMap<>();          // 位置 -> 时间轴预览图
+    private final Map<ImageView, Integer> shownTiles = new HashMap<>();  // 覆盖层 -> 当前显示的格子
+    private ImageView singleOverlay;  // 单路布局中的覆盖层（单路模式和拼接视频）
+    private VideoGroup group;
+    private boolean showing = false;
+
+    /**
+     * 在各路画面的 VideoView 之上添加覆盖层
+     */
+    void attach(FrameLayout front, FrameLayout back, FrameLayout left, FrameLayout right, FrameLayout single) {
+        addOverlay(VideoGroup.POSITION_FRONT, front);
+        addOverlay(VideoGroup.POSITION_BACK, back);
+        addOverlay(VideoGroup.POSITION_LEFT, left);
+        addOverlay(VideoGroup.POSITION_RIGHT, right);
+        singleOverlay = addOverlay(null, single);
+    }
+
+    private ImageView addOverlay(String position, FrameLayout frame) {
+        if (frame == null) {
+            return null;
+        }
+        ImageView overlay = new ImageView(frame.getContext());
+        overlay.setScaleType(ImageView.ScaleType.CENTER_CROP);
+        overlay.setVisibility(View.GONE);
+        // 紧贴在 VideoView 之上，标签等仍显示在最上层
+        int index = frame.getChildCount();
+        for (int i = 0; i < frame.getChildCount(); i++) {
+            if (frame.getChildAt(i) instanceof VideoView) {
+                index = i + 1;
+                break;
+            }
+        }
+        frame.addView(overlay, index, new FrameLayout.LayoutParams(
+                ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.MATCH_PARENT));
+        if (position != null) {
+            overlays.put(position, overlay);
+        }
+        return overlay;
+    }
+
+    /**
+     * 加载视频组的时间轴预览图（后台解码）
+     */
+    void load(VideoGroup group) {
+        hide();
+        recycleSheets();
+        this.group = group;
+        if (group == null) {
+            return;
+        }
+        Map<String, File> files = new HashMap<>();
+        if (group.isMosaic()) {
+            files.put(VideoGroup.POSITION_MOSAIC, group.getMosaicFile());
+        } else {
+            for (String position : new String[]{VideoGroup.POSITION_FRONT, VideoGroup.POSITION_BACK,
+                    VideoGroup.POSITION_LEFT, VideoGroup.POSITION_RIGHT}) {
+                if (group.hasVideo(position)) {
+                    files.put(position, group.getVideoFile(position));
+                }
+            }
+        }
+        getExecutor().execute(() -> {
+            Map<String, Bitmap> decoded = new HashMap<>();
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inPreferredConfig = Bitmap.Config.RGB_565;
+            for (Map.Entry<String, File> entry : files.entrySet()) {
+                if (entry.getValue() == null) {
+                    continue;
+                }
+                File timeline = VideoThumbnail.timelineFor(entry.getValue());
+                if (!timeline.isFile()) {
+                    continue;
+                }
+                Bitmap sheet = BitmapFactory.decodeFile(timeline.getAbsolutePath(), options);
+                if (sheet != null) {
+                    decoded.put(entry.getKey(), sheet);
+                }
+            }
+            handler.post(() -> {
+                if (this.group != group) {
+                    for (Bitmap sheet : decoded.values()) {
+                        sheet.recycle();
+                    }
+                    return;
+                }
+                sheets.putAll(decoded);
+                AppLog.d(TAG, "Timeline previews loaded: " + decoded.size() + "/" + files.size());
+            });
+        });
+    }
+
+    /**
+     * 显示指定时间的预览
+     * @param singlePosition 单路模式时显示的位置，多路模式传 null
+     */
+    void show(int positionMs, String singlePosition) {
+        if (group == null || sheets.isEmpty()) {
+            return;
+        }
+        showing = true;
+        int tile = (int) (positionMs / VideoThumbnail.TIMELINE_INTERVAL_MS);
+        if (group.isMosaic()) {
+            int quadrant = singlePosition != null ? VideoGroup.getMosaicQuadrant(singlePosition) : -1;
+            showTile(sheets.get(VideoGroup.POSITION_MOSAIC), singleOverlay, tile, quadrant);
+        } else if (singlePosition != null) {
+            showTile(sheets.get(singlePosition), singleOverlay, tile, -1);
+        } else {
+            for (Map.Entry<String, Bitmap> entry : sheets.entrySet()) {
+                showTile(entry.getValue(), overlays.get(entry.getKey()), tile, -1);
+            }
+        }
+    }
+
+    /**
+     * @param quadrant 拼接视频单路模式时裁剪的象限，-1 表示整个格子
+     */
+    private void showTile(Bitmap sheet, ImageView overlay, int tile, int quadrant) {
+        if (sheet == null || overlay == null) {
+            return;
+        }
+        int columns = Math.max(1, sheet.getWidth() / VideoThumbnail.TIMELINE_TILE_WIDTH);
+        int rows = Math.max(1, sheet.getHeight() / VideoThumbnail.TIMELINE_TILE_HEIGHT);
+        tile = Math.max(0, Math.min(tile, columns * rows - 1));
+        int key = tile * 5 + quadrant + 1;
+        Integer shown = shownTiles.get(overlay);
+        if (shown == null || shown != key) {
+            int x = (tile % columns) * VideoThumbnail.TIMELINE_TILE_WIDTH;
+            int y = (tile / columns) * VideoThumbnail.TIMELINE_TILE_HEIGHT;
+            int width = VideoThumbnail.TIMELINE_TILE_WIDTH;
+            int height = VideoThumbnail.TIMELINE_TILE_HEIGHT;
+            if (quadrant >= 0) {
+                width /= 2;
+                height /= 2;
+                x += (quadrant % 2) * width;
+                y += (quadrant / 2) * height;
+            }
+            overlay.setImageBitmap(Bitmap.createBitmap(sheet, x, y, width, height));
+            shownTiles.put(overlay, key);
+        }
+        overlay.setVisibility(View.VISIBLE);
+    }
+
+    /**
+     * 隐藏预览（松手后播放器跳转前调用）
+     */
+    void hide() {
+        if (!showing) {
+            return;
+        }
+        showing = false;
+        for (ImageView overlay : overlays.values()) {
+            overlay.setVisibility(View.GONE);
+        }
+        if (singleOverlay != null) {
+            singleOverlay.setVisibility(View.GONE);
+        }
+    }
+
+    /**
+     * 释放预览图（界面销毁时调用）
+     */
+    void release() {
+        group = null;
+        hide();
+        recycleSheets();
+        overlays.clear();
+        singleOverlay = null;
+    }
+
+    private void recycleSheets() {
+        for (ImageView overlay : shownTiles.keySet()) {
+            overlay.setImageDrawable(null);
+        }
+        for (Bitmap sheet : sheets.values()) {
+            sheet.recycle();
+        }
+        sheets.clear();
+        shownTiles.clear();
+    }
+
+    private static synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            executor = Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, "ScrubPreview"));
+        }
+        return executor;
+    }
+}
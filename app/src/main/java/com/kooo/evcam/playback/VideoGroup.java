@@ -1,5 +1,8 @@
 package com.kooo.evcam.playback;
 
+import com.kooo.evcam.SegmentChecksum;
+import com.kooo.evcam.VideoThumbnail;
+
 import java.io.File;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
@@ -21,6 +24,14 @@ public class VideoGroup {
     public static final String POSITION_LEFT = "left";
     public static final String POSITION_RIGHT = "right";
     
+    /** 2x2 拼接录制文件的位置后缀（一个文件包含四路画面） */
+    public static final String POSITION_MOSAIC = "mosaic";
+    
+    /** 拼接画面各象限对应的摄像头位置（左上、右上、左下、右下），录制和回放共用 */
+    public static final String[] MOSAIC_QUADRANT_POSITIONS = {
+            POSITION_FRONT, POSITION_BACK, POSITION_LEFT, POSITION_RIGHT
+    };
+    
     /** 时间戳前缀，如 "20260131_1254" */
     private final String timestampPrefix;
     
@@ -40,6 +51,20 @@ public class VideoGroup {
         this.recordTime = parseTimestamp(timestampPrefix);
     }
     
+    /**
+     * 由已知时间和文件大小创建分组（MediaCatalog 使用，不解析日期、不 stat 文件）
+     * @param timestampPrefix 时间戳前缀
+     * @param recordTimeMs 录制时间（毫秒）
+     * @param videoFiles 位置 -> 视频文件
+     * @param totalSize 总文件大小
+     */
+    VideoGroup(String timestampPrefix, long recordTimeMs, Map<String, File> videoFiles, long totalSize) {
+        this.timestampPrefix = timestampPrefix;
+        this.recordTime = new Date(recordTimeMs);
+        this.videoFiles = new HashMap<>(videoFiles);
+        this.totalSize = totalSize;
+    }
+    
     /**
      * 添加视频文件到分组
      * @param file 视频文件
@@ -198,7 +223,7 @@ public class VideoGroup {
         } else if (videoFiles.containsKey(POSITION_RIGHT)) {
             return videoFiles.get(POSITION_RIGHT);
         }
-        return null;
+        return videoFiles.get(POSITION_MOSAIC);
     }
     
     /**
@@ -232,9 +257,40 @@ public class VideoGroup {
     
     /**
      * 检查是否有指定位置的视频
+     * 拼接录制的分组中四个位置都由拼接文件提供
      */
     public boolean hasVideo(String position) {
-        return videoFiles.containsKey(position);
+        return videoFiles.containsKey(position)
+                || (isMosaic() && getMosaicQuadrant(position) >= 0);
+    }
+    
+    /**
+     * 是否为 2x2 拼接录制的分组
+     */
+    public boolean isMosaic() {
+        return videoFiles.containsKey(POSITION_MOSAIC);
+    }
+    
+    /**
+     * 获取拼接录制文件
+     * @return 文件，不是拼接分组时为null
+     */
+    public File getMosaicFile() {
+        return videoFiles.get(POSITION_MOSAIC);
+    }
+    
+    /**
+     * 获取摄像头位置在拼接画面中的象限
+     * @param position 位置（front/back/left/right）
+     * @return 象限（0 左上、1 右上、2 左下、3 右下），不在拼接画面中时返回 -1
+     */
+    public static int getMosaicQuadrant(String position) {
+        for (int i = 0; i < MOSAIC_QUADRANT_POSITIONS.length; i++) {
+            if (MOSAIC_QUADRANT_POSITIONS[i].equals(position)) {
+                return i;
+            }
+        }
+        return -1;
     }
     
     /**
@@ -245,6 +301,8 @@ public class VideoGroup {
         int deleted = 0;
         for (File file : videoFiles.values()) {
             if (file.delete()) {
+                SegmentChecksum.deleteSidecar(file);
+                VideoThumbnail.deleteSidecar(file);
                 deleted++;
             }
         }
@@ -13,8 +13,8 @@ import androidx.recyclerview.widget.RecyclerView;
 import com.bumptech.glide.Glide;
 import com.bumptech.glide.load.engine.DiskCacheStrategy;
 import com.bumptech.glide.request.RequestOptions;
-import com.bumptech.glide.signature.ObjectKey;
 import com.kooo.evcam.R;
+import com.kooo.evcam.VideoThumbnailLoader;
 
 import java.io.File;
 import java.util.HashSet;
@@ -160,17 +160,16 @@ public class VideoGroupAdapter extends RecyclerView.Adapter<VideoGroupAdapter.Vi
             return;
         }
 
+        // 读取录制时生成的缩略图（VideoThumbnail），缩略图本身就是磁盘缓存
         RequestOptions options = new RequestOptions()
-                .frame(0)
                 .centerCrop()
-                .diskCacheStrategy(DiskCacheStrategy.RESOURCE)
-                .signature(new ObjectKey(videoFile.lastModified()))
+                .diskCacheStrategy(DiskCacheStrategy.NONE)
                 .placeholder(android.R.color.black)
                 .error(android.R.color.black);
 
         Glide.with(context)
                 .asBitmap()
-                .load(videoFile)
+                .load(new VideoThumbnailLoader.Source(videoFile))
                 .apply(options)
                 .into(imageView);
     }
@@ -66,6 +66,7 @@ public abstract class RemoteCommandHandler {
         void startRecording();  // 恢复手动录制
         void setSegmentDurationOverride(long durationMs);  // 设置分段时长覆盖（用于远程录制）
         void clearSegmentDurationOverride();  // 清除分段时长覆盖
+        void triggerEventCapture(String reason);  // 保存事件前缓存（事件片段）
     }
     
     /**
@@ -156,6 +157,8 @@ public abstract class RemoteCommandHandler {
         // 6. 如果正在手动录制，记录状态并停止
         if (cameraController.isRecording()) {
             currentContext.setWasManualRecordingBefore(true);
+            // 先保存事件前缓存，远程录制只能覆盖命令之后的画面
+            cameraController.triggerEventCapture(platformName + " 远程录制");
             AppLog.d(TAG, platformName + ": 检测到手动录制正在进行，暂停手动录制");
             cameraController.stopRecording(false);
             cameraController.stopRecordingTimer();
@@ -5,15 +5,22 @@ import android.content.Context;
 import com.kooo.evcam.AppLog;
 import com.kooo.evcam.FileTransferManager;
 import com.kooo.evcam.StorageHelper;
+import com.kooo.evcam.StorageIndex;
 
 import java.io.File;
+import java.io.FilenameFilter;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.TimeZone;
 
 /**
  * 媒体文件查找工具
  * 统一处理视频/照片文件的查找逻辑
+ * 最终目录中的文件按时间戳从媒体目录（StorageIndex）查询，索引中还没有记录时才列出目录
  */
 public class MediaFileFinder {
     private static final String TAG = "MediaFileFinder";
@@ -59,17 +66,21 @@ public class MediaFileFinder {
             return new ArrayList<>();
         }
         
-        File[] files = videoDir.listFiles((dir, name) -> 
-            name.startsWith(timestamp) && name.endsWith(".mp4")
-        );
+        List<File> files = findIndexed(videoDir, timestamp, ".mp4");
+        if (files.isEmpty()) {
+            // 只列出该时间戳对应的日期分目录和根目录（按日期分目录存储时不遍历整个视频目录）
+            files = listMatching(StorageHelper.getCandidateDirs(videoDir, timestamp), (dir, name) ->
+                name.startsWith(timestamp) && name.endsWith(".mp4")
+            );
+        }
         
-        if (files == null || files.length == 0) {
+        if (files.isEmpty()) {
             AppLog.e(TAG, "未找到录制的视频文件，时间戳: " + timestamp);
             return new ArrayList<>();
         }
         
-        AppLog.d(TAG, "从最终目录找到 " + files.length + " 个视频文件");
-        return new ArrayList<>(Arrays.asList(files));
+        AppLog.d(TAG, "从最终目录找到 " + files.size() + " 个视频文件");
+        return files;
     }
     
     /**
@@ -111,19 +122,35 @@ public class MediaFileFinder {
         // 2. 从最终目录查找所有时间戳对应的文件
         File videoDir = StorageHelper.getVideoDir(context);
         if (videoDir != null && videoDir.exists()) {
-            File[] files = videoDir.listFiles((dir, name) -> {
-                if (!name.endsWith(".mp4")) {
-                    return false;
+            List<File> files = new ArrayList<>();
+            List<String> unindexed = new ArrayList<>();
+            for (String ts : timestamps) {
+                List<File> indexed = findIndexed(videoDir, ts, ".mp4");
+                if (indexed.isEmpty()) {
+                    unindexed.add(ts);
+                } else {
+                    files.addAll(indexed);
                 }
-                for (String ts : timestamps) {
-                    if (name.startsWith(ts)) {
-                        return true;
-                    }
+            }
+            if (!unindexed.isEmpty()) {
+                Set<File> dirs = new LinkedHashSet<>();
+                for (String ts : unindexed) {
+                    dirs.addAll(StorageHelper.getCandidateDirs(videoDir, ts));
                 }
-                return false;
-            });
+                files.addAll(listMatching(dirs, (dir, name) -> {
+                    if (!name.endsWith(".mp4")) {
+                        return false;
+                    }
+                    for (String ts : unindexed) {
+                        if (name.startsWith(ts)) {
+                            return true;
+                        }
+                    }
+                    return false;
+                }));
+            }
             
-            if (files != null && files.length > 0) {
+            if (!files.isEmpty()) {
                 // 避免重复添加（临时目录和最终目录可能有同名文件）
                 for (File f : files) {
                     boolean exists = false;
@@ -168,18 +195,67 @@ public class MediaFileFinder {
             return new ArrayList<>();
         }
         
-        File[] files = photoDir.listFiles((dir, name) -> 
-            name.startsWith(timestamp) && 
-            (name.endsWith(".jpg") || name.endsWith(".jpeg"))
-        );
+        List<File> files = findIndexed(photoDir, timestamp, ".jpg", ".jpeg");
+        if (files.isEmpty()) {
+            files = listMatching(StorageHelper.getCandidateDirs(photoDir, timestamp), (dir, name) -> 
+                name.startsWith(timestamp) && 
+                (name.endsWith(".jpg") || name.endsWith(".jpeg"))
+            );
+        }
         
-        if (files == null || files.length == 0) {
+        if (files.isEmpty()) {
             AppLog.e(TAG, "未找到拍摄的照片，时间戳: " + timestamp);
             return new ArrayList<>();
         }
         
-        AppLog.d(TAG, "找到 " + files.length + " 张照片");
-        return new ArrayList<>(Arrays.asList(files));
+        AppLog.d(TAG, "找到 " + files.size() + " 张照片");
+        return files;
+    }
+    
+    /**
+     * 从媒体目录查询时间戳对应的文件（按开始时间索引查询该秒内的条目，不列出目录）
+     * 只返回仍然存在的文件；时间戳无法解析或索引中没有记录时返回空列表
+     */
+    private List<File> findIndexed(File root, String timestamp, String... extensions) {
+        List<File> result = new ArrayList<>();
+        long timeMs = StorageHelper.parseTimestampPrefix(timestamp, 0, TimeZone.getDefault());
+        if (timeMs < 0) {
+            return result;
+        }
+        for (StorageIndex.Entry entry : StorageIndex.forDirectory(context, root).query(timeMs, timeMs + 1000, null)) {
+            String name = entry.name.substring(entry.name.lastIndexOf('/') + 1);
+            if (!name.startsWith(timestamp) || !hasExtension(name, extensions)) {
+                continue;
+            }
+            File file = new File(root, entry.name);
+            if (file.exists()) {
+                result.add(file);
+            }
+        }
+        return result;
+    }
+    
+    private static boolean hasExtension(String name, String[] extensions) {
+        for (String extension : extensions) {
+            if (name.endsWith(extension)) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * 列出多个目录中符合条件的文件
+     */
+    private static List<File> listMatching(Collection<File> dirs, FilenameFilter filter) {
+        List<File> result = new ArrayList<>();
+        for (File dir : dirs) {
+            File[] files = dir.listFiles(filter);
+            if (files != null) {
+                result.addAll(Arrays.asList(files));
+            }
+        }
+        return result;
     }
     
     /**
@@ -203,7 +279,7 @@ public class MediaFileFinder {
         for (File tempFile : tempFiles) {
             if (tempFile.exists()) {
                 // 构造目标文件路径
-                File targetFile = new File(videoDir, tempFile.getName());
+                File targetFile = StorageHelper.getMediaFile(videoDir, tempFile.getName());
                 
                 transferManager.addTransferTask(tempFile, targetFile, new FileTransferManager.TransferCallback() {
                     @Override
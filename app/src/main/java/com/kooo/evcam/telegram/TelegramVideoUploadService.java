@@ -1,6 +1,7 @@
 package com.kooo.evcam.telegram;
 
 import com.kooo.evcam.AppLog;
+import com.kooo.evcam.SegmentChecksum;
 import com.kooo.evcam.dingtalk.VideoThumbnailExtractor;
 
 import android.content.Context;
@@ -59,6 +60,13 @@ public class TelegramVideoUploadService {
                         continue;
                     }
 
+                    // 与校验旁路文件比对，不上传已损坏的文件（没有校验记录的旧文件照常上传）
+                    if (SegmentChecksum.verify(videoFile) == SegmentChecksum.Result.MISMATCH) {
+                        AppLog.e(TAG, "视频文件校验失败，跳过上传: " + videoFile.getName());
+                        callback.onError("文件校验失败（可能已损坏）: " + videoFile.getName());
+                        continue;
+                    }
+
                     callback.onProgress("正在处理 (" + (i + 1) + "/" + videoFiles.size() + "): " + videoFile.getName());
 
                     try {
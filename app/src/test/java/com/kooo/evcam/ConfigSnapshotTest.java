@@ -0,0 +1,408 @@
+package com.kooo.evcam;
+
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.content.SharedPreferences;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * ConfigSnapshot 测试，以及 AppConfig 读取路径的微基准
+ *
+ * FakePreferences 按 SharedPreferencesImpl 的方式加锁读取，变化通知延后到 deliverNotifications()
+ * （真实系统中 apply() 的通知在主线程上异步执行），用来验证写入后在任意线程上马上读取能读到新值
+ * ConfigSnapshot 是进程内单例，本类所有测试共用同一个 FakePreferences
+ */
+public class ConfigSnapshotTest {
+
+    private static final FakePreferences PREFS = new FakePreferences();
+    private static final FakeContext CONTEXT = new FakeContext(PREFS);
+
+    /**
+     * 按 SharedPreferencesImpl 的方式实现：读取和写入都持有同一把锁
+     */
+    private static class FakePreferences implements SharedPreferences {
+        private final Object lock = new Object();
+        private final Map<String, Object> map = new HashMap<>();
+        private final List<OnSharedPreferenceChangeListener> listeners = new ArrayList<>();
+        private final List<String> pendingNotifications = new ArrayList<>();
+
+        void deliverNotifications() {
+            List<String> keys;
+            synchronized (lock) {
+                keys = new ArrayList<>(pendingNotifications);
+                pendingNotifications.clear();
+            }
+            for (String key : keys) {
+                for (OnSharedPreferenceChangeListener listener : new ArrayList<>(listeners)) {
+                    listener.onSharedPreferenceChanged(this, key);
+                }
+            }
+        }
+
+        @Override
+        public Map<String, ?> getAll() {
+            synchronized (lock) {
+                return new HashMap<>(map);
+            }
+        }
+
+        private Object read(String key) {
+            synchronized (lock) {
+                return map.get(key);
+            }
+        }
+
+        @Override
+        public String getString(String key, String defValue) {
+            Object value = read(key);
+            return value != null ? (String) value : defValue;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Set<String> getStringSet(String key, Set<String> defValues) {
+            Object value = read(key);
+            return value != null ? (Set<String>) value : defValues;
+        }
+
+        @Override
+        public int getInt(String key, int defValue) {
+            Object value = read(key);
+            return value != null ? (Integer) value : defValue;
+        }
+
+        @Override
+        public long getLong(String key, long defValue) {
+            Object value = read(key);
+            return value != null ? (Long) value : defValue;
+        }
+
+        @Override
+        public float getFloat(String key, float defValue) {
+            Object value = read(key);
+            return value != null ? (Float) value : defValue;
+        }
+
+        @Override
+        public boolean getBoolean(String key, boolean defValue) {
+            Object value = read(key);
+            return value != null ? (Boolean) value : defValue;
+        }
+
+        @Override
+        public boolean contains(String key) {
+            return read(key) != null;
+        }
+
+        @Override
+        public Editor edit() {
+            return new FakeEditor();
+        }
+
+        @Override
+        public void registerOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+            listeners.add(listener);
+        }
+
+        @Override
+        public void unregisterOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+            listeners.remove(listener);
+        }
+
+        private class FakeEditor implements Editor {
+            private final Map<String, Object> changes = new HashMap<>();
+            private boolean clear = false;
+
+            private Editor put(String key, Object value) {
+                changes.put(key, value);
+                return this;
+            }
+
+            @Override
+            public Editor putString(String key, String value) {
+                return put(key, value);
+            }
+
+            @Override
+            public Editor putStringSet(String key, Set<String> values) {
+                return put(key, values);
+            }
+
+            @Override
+            public Editor putInt(String key, int value) {
+                return put(key, value);
+            }
+
+            @Override
+            public Editor putLong(String key, long value) {
+                return put(key, value);
+            }
+
+            @Override
+            public Editor putFloat(String key, float value) {
+                return put(key, value);
+            }
+
+            @Override
+            public Editor putBoolean(String key, boolean value) {
+                return put(key, value);
+            }
+
+            @Override
+            public Editor remove(String key) {
+                return put(key, null);
+            }
+
+            @Override
+            public Editor clear() {
+                clear = true;
+                return this;
+            }
+
+            @Override
+            public boolean commit() {
+                apply();
+                return true;
+            }
+
+            @Override
+            public void apply() {
+                synchronized (lock) {
+                    if (clear) {
+                        map.clear();
+                    }
+                    for (Map.Entry<String, Object> entry : changes.entrySet()) {
+                        if (entry.getValue() == null) {
+                            map.remove(entry.getKey());
+                        } else {
+                            map.put(entry.getKey(), entry.getValue());
+                        }
+                        pendingNotifications.add(entry.getKey());
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * ContextImpl.getSharedPreferences() 按名称查缓存时持有类锁，这里同样加锁
+     */
+    private static class FakeContext extends ContextWrapper {
+        private final SharedPreferences prefs;
+
+        FakeContext(SharedPreferences prefs) {
+            super(null);
+            this.prefs = prefs;
+        }
+
+        @Override
+        public Context getApplicationContext() {
+            return this;
+        }
+
+        @Override
+        public SharedPreferences getSharedPreferences(String name, int mode) {
+            synchronized (FakeContext.class) {
+                return prefs;
+            }
+        }
+    }
+
+    @Test
+    public void writeIsVisibleOnOtherThreadBeforeChangeNotification() throws InterruptedException {
+        AppConfig config = new AppConfig(CONTEXT);
+        long version = ConfigSnapshot.get(CONTEXT).getVersion();
+
+        Thread writer = new Thread(() -> new AppConfig(CONTEXT).setVideoStorageLimitGb(37));
+        writer.start();
+        writer.join();
+        AtomicInteger seen = new AtomicInteger();
+        Thread reader = new Thread(() -> seen.set(new AppConfig(CONTEXT).getVideoStorageLimitGb()));
+        reader.start();
+        reader.join();
+
+        // 变化通知尚未送达，读到的已是新值
+        assertEquals(37, seen.get());
+        assertEquals(37, config.getVideoStorageLimitGb());
+        assertTrue(ConfigSnapshot.get(CONTEXT).getVersion() > version);
+        PREFS.deliverNotifications();
+        assertEquals(37, config.getVideoStorageLimitGb());
+    }
+
+    @Test
+    public void snapshotIsImmutableAfterLaterWrites() {
+        AppConfig config = new AppConfig(CONTEXT);
+        config.setPhotoStorageLimitGb(3);
+        ConfigSnapshot before = ConfigSnapshot.get(CONTEXT);
+
+        config.setPhotoStorageLimitGb(4);
+        PREFS.deliverNotifications();
+
+        assertEquals(3, before.getInt("photo_storage_limit_gb", -1));
+        assertEquals(4, ConfigSnapshot.get(CONTEXT).getInt("photo_storage_limit_gb", -1));
+        assertEquals(4, config.getPhotoStorageLimitGb());
+    }
+
+    @Test
+    public void subscribersOnlyReceiveTheirKeys() {
+        AppConfig config = new AppConfig(CONTEXT);
+        PREFS.deliverNotifications();
+        List<String> received = new ArrayList<>();
+        List<Integer> values = new ArrayList<>();
+        ConfigSnapshot.Listener listener = (snapshot, key) -> {
+            received.add(key);
+            values.add(snapshot.getInt("event_storage_limit_gb", -1));
+        };
+        ConfigSnapshot.subscribe(listener, "event_storage_limit_gb");
+        try {
+            config.setVideoStorageLimitGb(12);
+            config.setEventStorageLimitGb(6);
+            PREFS.deliverNotifications();
+        } finally {
+            ConfigSnapshot.unsubscribe(listener);
+        }
+        config.setEventStorageLimitGb(7);
+        PREFS.deliverNotifications();
+
+        assertEquals(1, received.size());
+        assertEquals("event_storage_limit_gb", received.get(0));
+        assertEquals(6, (int) values.get(0));
+    }
+
+    @Test
+    public void eachCommitBuildsOneSnapshot() {
+        AppConfig config = new AppConfig(CONTEXT);
+        PREFS.deliverNotifications();
+        long version = ConfigSnapshot.get(CONTEXT).getVersion();
+
+        config.setVideoStorageLimitGb(21);
+        assertEquals(version + 1, ConfigSnapshot.get(CONTEXT).getVersion());
+        // 变化通知到达时快照已包含这次修改，不再重建
+        PREFS.deliverNotifications();
+        assertEquals(version + 1, ConfigSnapshot.get(CONTEXT).getVersion());
+        assertEquals(21, config.getVideoStorageLimitGb());
+    }
+
+    @Test
+    public void directWriteIsPickedUpOnChangeNotification() {
+        AppConfig config = new AppConfig(CONTEXT);
+        PREFS.deliverNotifications();
+
+        // 绕过 AppConfig 直接写入 SharedPreferences
+        PREFS.edit().putInt("photo_storage_limit_gb", 9).apply();
+        ConfigSnapshot before = ConfigSnapshot.get(CONTEXT);
+        PREFS.deliverNotifications();
+
+        assertTrue(ConfigSnapshot.get(CONTEXT).getVersion() > before.getVersion());
+        assertEquals(9, config.getPhotoStorageLimitGb());
+    }
+
+    @Test
+    public void valuesAreTyped() {
+        ConfigSnapshot.edit(ConfigSnapshot.preferences(CONTEXT))
+                .putString("typed_key", "text")
+                .putInt("typed_int", 5)
+                .apply();
+        ConfigSnapshot snapshot = ConfigSnapshot.get(CONTEXT);
+
+        assertTrue(snapshot.contains("typed_key"));
+        assertEquals("text", snapshot.getString("typed_key", null));
+        // 类型不符时返回默认值，不抛出 ClassCastException
+        assertEquals(-1, snapshot.getInt("typed_key", -1));
+        assertEquals(5, snapshot.getInt("typed_int", -1));
+        assertEquals("default", snapshot.getString("typed_int", "default"));
+
+        ConfigSnapshot.edit(ConfigSnapshot.preferences(CONTEXT)).remove("typed_key").apply();
+        assertFalse(ConfigSnapshot.get(CONTEXT).contains("typed_key"));
+        PREFS.deliverNotifications();
+    }
+
+    /**
+     * 热路径微基准：每次调用创建 AppConfig 并读取两项配置
+     * 对照组按改动前的方式直接经过 getSharedPreferences() 和加锁的 getInt()
+     * 耗时与机器负载有关（JVM 上的相对差异，ART 上会不同），只打印到输出，检查的是两种方式读到的值相同
+     */
+    @Test
+    public void benchmarkHotPathReads() throws InterruptedException {
+        AppConfig appConfig = new AppConfig(CONTEXT);
+        appConfig.setVideoStorageLimitGb(10);
+        PREFS.deliverNotifications();
+        final int expected = appConfig.getVideoStorageLimitGb() + appConfig.getPhotoStorageLimitGb();
+        final int iterations = 2_000_000;
+        for (int threads : new int[]{1, 4}) {
+            long lockedNs = 0;
+            long snapshotNs = 0;
+            for (int round = 0; round < 3; round++) {  // 第一轮为预热
+                long locked = run(threads, iterations, expected, () -> {
+                    SharedPreferences prefs = CONTEXT.getSharedPreferences(AppConfig.PREF_NAME, Context.MODE_PRIVATE);
+                    return prefs.getInt("video_storage_limit_gb", 10) + prefs.getInt("photo_storage_limit_gb", 10);
+                });
+                long snapshot = run(threads, iterations, expected, () -> {
+                    AppConfig config = new AppConfig(CONTEXT);
+                    return config.getVideoStorageLimitGb() + config.getPhotoStorageLimitGb();
+                });
+                if (round > 0) {
+                    lockedNs += locked;
+                    snapshotNs += snapshot;
+                }
+            }
+            double lockedPerCall = lockedNs / 2.0 / iterations;
+            double snapshotPerCall = snapshotNs / 2.0 / iterations;
+            System.out.printf("ConfigSnapshot benchmark, %d thread(s): locked %.1f ns/call, snapshot %.1f ns/call%n",
+                    threads, lockedPerCall, snapshotPerCall);
+        }
+    }
+
+    private interface Call {
+        int call();
+    }
+
+    /**
+     * 每个线程调用 iterations 次，每次调用的结果都必须等于 expected
+     * @return 每个线程的平均耗时（纳秒）
+     */
+    private static long run(int threads, int iterations, int expected, Call call) throws InterruptedException {
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicLong totalNs = new AtomicLong();
+        AtomicLong sink = new AtomicLong();
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            Thread worker = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                long begin = System.nanoTime();
+                long sum = 0;
+                for (int i = 0; i < iterations; i++) {
+                    sum += call.call();
+                }
+                totalNs.addAndGet(System.nanoTime() - begin);
+                sink.addAndGet(sum);
+            });
+            workers.add(worker);
+            worker.start();
+        }
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        assertEquals((long) expected * iterations * threads, sink.get());
+        return totalNs.get() / threads;
+    }
+}
@@ -0,0 +1,89 @@
+package com.kooo.evcam;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Crc32c 已知答案测试，以及数组、堆缓冲区、直接缓冲区三条计算路径的一致性
+ */
+public class Crc32cTest {
+
+    private static final byte[] CHECK_INPUT = "123456789".getBytes(StandardCharsets.US_ASCII);
+    private static final long CHECK_VALUE = 0xE3069283L;  // CRC-32C 标准校验值
+
+    @Test
+    public void knownAnswerFromByteArray() {
+        Crc32c crc = new Crc32c();
+        crc.update(CHECK_INPUT, 0, CHECK_INPUT.length);
+        assertEquals(CHECK_VALUE, crc.getValue());
+    }
+
+    @Test
+    public void knownAnswerFromHeapBuffer() {
+        ByteBuffer buffer = ByteBuffer.wrap(CHECK_INPUT);
+        Crc32c crc = new Crc32c();
+        crc.update(buffer);
+        assertEquals(CHECK_VALUE, crc.getValue());
+        assertEquals(buffer.limit(), buffer.position());
+    }
+
+    @Test
+    public void knownAnswerFromDirectBuffer() {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(CHECK_INPUT.length);
+        buffer.put(CHECK_INPUT).flip();
+        Crc32c crc = new Crc32c();
+        crc.update(buffer);
+        assertEquals(CHECK_VALUE, crc.getValue());
+        assertEquals(buffer.limit(), buffer.position());
+        assertEquals(ByteOrder.BIG_ENDIAN, buffer.order());  // 计算后恢复原字节序
+    }
+
+    @Test
+    public void knownAnswerFromSingleBytesAndAfterReset() {
+        Crc32c crc = new Crc32c();
+        crc.update(new byte[]{1, 2, 3}, 0, 3);
+        crc.reset();
+        for (byte b : CHECK_INPUT) {
+            crc.update(b);
+        }
+        assertEquals(CHECK_VALUE, crc.getValue());
+    }
+
+    @Test
+    public void allInputPathsAgreeOnUnalignedRanges() {
+        Random random = new Random(42);
+        byte[] data = new byte[4099];
+        random.nextBytes(data);
+        ByteBuffer direct = ByteBuffer.allocateDirect(data.length);
+        direct.put(data);
+
+        for (int offset = 0; offset < 9; offset++) {
+            for (int length : new int[]{0, 1, 7, 8, 9, 63, 1000, data.length - offset}) {
+                Crc32c expected = new Crc32c();
+                for (int i = offset; i < offset + length; i++) {
+                    expected.update(data[i]);
+                }
+
+                Crc32c fromArray = new Crc32c();
+                fromArray.update(data, offset, length);
+                assertEquals(expected.getValue(), fromArray.getValue());
+
+                Crc32c fromHeap = new Crc32c();
+                fromHeap.update(ByteBuffer.wrap(data, offset, length));
+                assertEquals(expected.getValue(), fromHeap.getValue());
+
+                Crc32c fromDirect = new Crc32c();
+                direct.limit(offset + length).position(offset);
+                fromDirect.update(direct);
+                assertEquals(expected.getValue(), fromDirect.getValue());
+                direct.clear();
+            }
+        }
+    }
+}
@@ -0,0 +1,371 @@
+package com.kooo.evcam;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * RelayIoScheduler 慢速设备基准
+ *
+ * SlowDevice 模拟一个单队列的慢速U盘：写入先进入脏页缓存，按设备带宽回写；
+ * 脏数据超过上限时写入方阻塞（对应内核的脏页限流），所有写入按先后顺序排队
+ * 4 个录制器各以 1MB/s 写入 64KB 的块，同时中转复制一个文件，
+ * 比较不同限速策略下录制器单次写入延迟的分布和中转复制速率
+ *
+ * 录制器排在一个复制块之后时的最坏延迟由块大小决定，限速只能减少这种情况出现的次数，
+ * 所以检查的是慢写入（超过 100ms）的占比和 p90，p99 只打印不检查
+ */
+public class RelayIoSchedulerTest {
+
+    private static final long MB = 1024 * 1024;
+    private static final long MS = 1_000_000L;
+
+    private static final long DEVICE_BYTES_PER_SEC = 12 * MB;
+    private static final long DIRTY_LIMIT_BYTES = 4 * MB;
+    private static final int RECORDERS = 4;
+    private static final int RECORDER_WRITE_BYTES = 64 * 1024;
+    private static final long RECORDER_INTERVAL_NS = 1_000_000_000L * RECORDER_WRITE_BYTES / MB;  // 1MB/s
+    private static final long REPORT_INTERVAL_NS = 500 * MS;
+    private static final long COPY_BYTES = 32 * MB;
+    private static final long MAX_RATE_BYTES_PER_SEC = 10 * MB;
+
+    /**
+     * 单队列慢速设备
+     */
+    private static class SlowDevice {
+        private final ReentrantLock queue = new ReentrantLock(true);
+        private double dirtyBytes = 0;
+        private long lastDrainNs = System.nanoTime();
+
+        void write(int bytes) {
+            queue.lock();
+            try {
+                drain();
+                while (dirtyBytes + bytes > DIRTY_LIMIT_BYTES) {
+                    sleepNs((long) ((dirtyBytes + bytes - DIRTY_LIMIT_BYTES) * 1e9 / DEVICE_BYTES_PER_SEC) + 1);
+                    drain();
+                }
+                dirtyBytes += bytes;
+            } finally {
+                queue.unlock();
+            }
+        }
+
+        /**
+         * 等待当前所有脏数据回写完成（不占用队列）
+         */
+        void force() {
+            double pending;
+            queue.lock();
+            try {
+                drain();
+                pending = dirtyBytes;
+            } finally {
+                queue.unlock();
+            }
+            sleepNs((long) (pending * 1e9 / DEVICE_BYTES_PER_SEC));
+        }
+
+        private void drain() {
+            long now = System.nanoTime();
+            dirtyBytes = Math.max(0, dirtyBytes - (now - lastDrainNs) / 1e9 * DEVICE_BYTES_PER_SEC);
+            lastDrainNs = now;
+        }
+    }
+
+    /**
+     * 只支持 RelayIoScheduler.copy() 用到的操作的通道
+     */
+    private abstract static class TestChannel extends FileChannel {
+        @Override
+        public int read(ByteBuffer dst) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public long read(ByteBuffer[] dsts, int offset, int length) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs, int offset, int length) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public long position() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public FileChannel position(long newPosition) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public FileChannel truncate(long size) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void force(boolean metaData) throws IOException {
+        }
+
+        @Override
+        public long transferTo(long position, long count, WritableByteChannel target) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public long transferFrom(ReadableByteChannel src, long position, long count) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int read(ByteBuffer dst, long position) throws IOException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int write(ByteBuffer src, long position) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public MappedByteBuffer map(MapMode mode, long position, long size) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public FileLock lock(long position, long size, boolean shared) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public FileLock tryLock(long position, long size, boolean shared) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        protected void implCloseChannel() {
+        }
+    }
+
+    /**
+     * 内存中的源文件，内容按位置确定
+     */
+    private static class SourceChannel extends TestChannel {
+        private static final byte[] PATTERN = new byte[65521];
+
+        static {
+            for (int i = 0; i < PATTERN.length; i++) {
+                PATTERN[i] = (byte) (i * 131 + (i >>> 7));
+            }
+        }
+
+        private final long size;
+
+        SourceChannel(long size) {
+            this.size = size;
+        }
+
+        @Override
+        public long size() {
+            return size;
+        }
+
+        @Override
+        public int read(ByteBuffer dst, long position) {
+            if (position >= size) {
+                return -1;
+            }
+            int count = (int) Math.min(dst.remaining(), size - position);
+            int done = 0;
+            while (done < count) {
+                int offset = (int) ((position + done) % PATTERN.length);
+                int n = Math.min(count - done, PATTERN.length - offset);
+                dst.put(PATTERN, offset, n);
+                done += n;
+            }
+            return count;
+        }
+    }
+
+    /**
+     * 写入 SlowDevice 的目标文件，只保留校验和
+     */
+    private static class DeviceChannel extends TestChannel {
+        private final SlowDevice device;
+        private final Crc32c crc = new Crc32c();
+        private long written = 0;
+
+        DeviceChannel(SlowDevice device) {
+            this.device = device;
+        }
+
+        @Override
+        public int write(ByteBuffer src) {
+            int n = src.remaining();
+            crc.update(src);
+            device.write(n);
+            written += n;
+            return n;
+        }
+
+        @Override
+        public long size() {
+            return written;
+        }
+
+        @Override
+        public void force(boolean metaData) {
+            device.force();
+        }
+    }
+
+    private static class Result {
+        final String policy;
+        final List<Long> latenciesNs;
+        final double copyBytesPerSec;
+
+        Result(String policy, List<Long> latenciesNs, double copyBytesPerSec) {
+            this.policy = policy;
+            this.latenciesNs = latenciesNs;
+            this.copyBytesPerSec = copyBytesPerSec;
+            Collections.sort(latenciesNs);
+        }
+
+        long percentile(int p) {
+            int rank = (int) Math.ceil(p / 100.0 * latenciesNs.size());
+            return latenciesNs.get(Math.max(0, rank - 1));
+        }
+
+        /**
+         * 超过调度器降速阈值（100ms）的写入占比
+         */
+        double slowFraction() {
+            int slow = 0;
+            for (long latency : latenciesNs) {
+                if (latency > 100 * MS) {
+                    slow++;
+                }
+            }
+            return (double) slow / latenciesNs.size();
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US,
+                    "%-9s recorder write p50 %5.1fms p90 %5.1fms p99 %5.1fms, >100ms %4.1f%%, copy %4.1f MB/s",
+                    policy, percentile(50) / 1e6, percentile(90) / 1e6, percentile(99) / 1e6,
+                    slowFraction() * 100, copyBytesPerSec / MB);
+        }
+    }
+
+    /**
+     * 录制器写入的同时中转复制 COPY_BYTES 字节
+     */
+    private static Result run(String policy) throws Exception {
+        RelayIoScheduler scheduler = new RelayIoScheduler();
+        scheduler.configure(policy, MAX_RATE_BYTES_PER_SEC);
+        SlowDevice device = new SlowDevice();
+        AtomicBoolean stop = new AtomicBoolean(false);
+        List<Long> latencies = Collections.synchronizedList(new ArrayList<>());
+
+        List<Thread> recorders = new ArrayList<>();
+        for (int i = 0; i < RECORDERS; i++) {
+            String source = "camera" + i;
+            long phaseNs = RECORDER_INTERVAL_NS * i / RECORDERS;
+            Thread recorder = new Thread(() -> {
+                long next = System.nanoTime() + phaseNs;
+                long nextReport = next + REPORT_INTERVAL_NS;
+                long maxNs = 0;
+                while (!stop.get()) {
+                    sleepNs(next - System.nanoTime());
+                    long begin = System.nanoTime();
+                    device.write(RECORDER_WRITE_BYTES);
+                    long latency = System.nanoTime() - begin;
+                    latencies.add(latency);
+                    maxNs = Math.max(maxNs, latency);
+                    // 与录制器的文件大小检查一样，定期上报最近一段时间的最大写入延迟
+                    if (System.nanoTime() >= nextReport) {
+                        scheduler.reportWriteLatency(source, maxNs / 1_000_000);
+                        maxNs = 0;
+                        nextReport += REPORT_INTERVAL_NS;
+                    }
+                    // 写入落后时不补写，保持 1MB/s
+                    next = Math.max(next + RECORDER_INTERVAL_NS, System.nanoTime());
+                }
+            });
+            recorders.add(recorder);
+            recorder.start();
+        }
+
+        // 录制先于复制开始，录制器已上报过延迟
+        sleepNs(2 * REPORT_INTERVAL_NS);
+        latencies.clear();
+        SourceChannel in = new SourceChannel(COPY_BYTES);
+        DeviceChannel out = new DeviceChannel(device);
+        Crc32c crc = new Crc32c();
+        long begin = System.nanoTime();
+        long copied = scheduler.copy(in, out, crc);
+        long elapsedNs = System.nanoTime() - begin;
+
+        stop.set(true);
+        for (Thread recorder : recorders) {
+            recorder.join();
+        }
+        assertEquals(COPY_BYTES, copied);
+        assertEquals(COPY_BYTES, out.size());
+        assertEquals(crc.getValue(), out.crc.getValue());
+        return new Result(policy, new ArrayList<>(latencies), COPY_BYTES * 1e9 / elapsedNs);
+    }
+
+    @Test(timeout = 120_000)
+    public void benchmarkRecorderLatencyOnSlowDevice() throws Exception {
+        Result unlimited = run(RelayIoScheduler.POLICY_UNLIMITED);
+        Result fixed = run(RelayIoScheduler.POLICY_FIXED);
+        Result adaptive = run(RelayIoScheduler.POLICY_ADAPTIVE);
+        System.out.println("RelayIoScheduler slow device benchmark (12 MB/s, 4 recorders at 1 MB/s, 32 MB copy):");
+        System.out.println("  " + unlimited);
+        System.out.println("  " + fixed);
+        System.out.println("  " + adaptive);
+
+        // 不限速时复制和录制的总写入超过设备带宽，大部分录制写入被脏页限流
+        assertTrue(unlimited.toString(), unlimited.slowFraction() > 0.5);
+        // 自适应降速后慢写入只出现在降速之前
+        assertTrue(adaptive.toString(), adaptive.slowFraction() < unlimited.slowFraction() / 4);
+        assertTrue(adaptive.toString(), adaptive.percentile(90) < unlimited.percentile(90));
+        assertTrue(adaptive.toString(), adaptive.slowFraction() < fixed.slowFraction());
+        assertTrue(adaptive.copyBytesPerSec > 0);
+    }
+
+    private static void sleepNs(long ns) {
+        long deadline = System.nanoTime() + ns;
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(remaining);
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package com.kooo.evcam;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * RetentionPlanner 保留策略测试，以及 10 万个文件的规划耗时基准
+ */
+public class RetentionPlannerTest {
+
+    private static final long HOUR_MS = 60 * 60 * 1000L;
+    private static final long DAY_MS = 24 * HOUR_MS;
+    private static final long MB = 1024L * 1024L;
+    private static final long NOW_MS = 1_700_000_000_000L;
+    private static final String[] CAMERAS = {"front", "back", "left", "right"};
+    private static final File DIR = new File("video");
+
+    private static RetentionPlanner.Item normal(String name, String camera, long startTimeMs, long size) {
+        return new RetentionPlanner.Item(DIR, name, camera, startTimeMs, size, RetentionPlanner.Tier.NORMAL);
+    }
+
+    private static RetentionPlanner.Item event(String name, long startTimeMs, long size) {
+        return new RetentionPlanner.Item(DIR, name, "front", startTimeMs, size, RetentionPlanner.Tier.PROTECTED);
+    }
+
+    private static Set<String> deletedNames(RetentionPlanner.Plan plan) {
+        Set<String> names = new HashSet<>();
+        for (RetentionPlanner.Item item : plan.getDeletions()) {
+            names.add(item.name);
+        }
+        return names;
+    }
+
+    @Test
+    public void totalQuotaDeletesNormalFilesBeforeEvents() {
+        List<RetentionPlanner.Item> items = new ArrayList<>();
+        items.add(event("event_old", NOW_MS - 10 * HOUR_MS, 100 * MB));
+        for (int i = 0; i < 10; i++) {
+            items.add(normal("normal_" + i, "front", NOW_MS - (9 - i) * HOUR_MS, 100 * MB));
+        }
+        RetentionPlanner planner = new RetentionPlanner(Collections.singletonList(
+                new RetentionPlanner.MaxTotalBytesPolicy(800 * MB, 600 * MB)));
+
+        RetentionPlanner.Plan plan = planner.plan(items, NOW_MS);
+
+        // 1100MB 降到 600MB：删除最旧的 5 个普通文件，事件片段保留
+        Set<String> deleted = deletedNames(plan);
+        assertEquals(5, deleted.size());
+        assertFalse(deleted.contains("event_old"));
+        for (int i = 0; i < 5; i++) {
+            assertTrue(deleted.contains("normal_" + i));
+        }
+    }
+
+    @Test
+    public void totalQuotaEvictsOldestEventsWhenOnlyEventsRemain() {
+        List<RetentionPlanner.Item> items = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            items.add(event("event_" + i, NOW_MS - (10 - i) * HOUR_MS, 100 * MB));
+        }
+        items.add(normal("normal", "front", NOW_MS - HOUR_MS / 2, 100 * MB));
+        RetentionPlanner planner = new RetentionPlanner(Collections.singletonList(
+                new RetentionPlanner.MaxTotalBytesPolicy(800 * MB, 600 * MB)));
+
+        RetentionPlanner.Plan plan = planner.plan(items, NOW_MS);
+
+        // 普通文件删完后事件片段仍有 1000MB，删除最旧的事件片段直到不超过上限
+        Set<String> deleted = deletedNames(plan);
+        assertEquals(new HashSet<>(Arrays.asList("normal", "event_0", "event_1")), deleted);
+        assertEquals(300 * MB, plan.getDeletedBytes());
+    }
+
+    @Test
+    public void pinnedFilesSurviveTotalQuota() {
+        List<RetentionPlanner.Item> items = new ArrayList<>();
+        items.add(normal("pinned", "front", NOW_MS - 2 * HOUR_MS, 500 * MB));
+        items.add(event("event", NOW_MS - HOUR_MS, 500 * MB));
+        RetentionPlanner planner = new RetentionPlanner(Arrays.asList(
+                new RetentionPlanner.HourlyKeepPolicy(1),
+                new RetentionPlanner.MaxTotalBytesPolicy(600 * MB, 600 * MB)));
+
+        RetentionPlanner.Plan plan = planner.plan(items, NOW_MS);
+
+        assertEquals(Collections.singleton("event"), deletedNames(plan));
+    }
+
+    @Test
+    public void protectedQuotaDeletesOldestEvents() {
+        List<RetentionPlanner.Item> items = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            items.add(event("event_" + i, NOW_MS - (5 - i) * HOUR_MS, 100 * MB));
+        }
+        items.add(normal("normal", "front", NOW_MS - 10 * HOUR_MS, 1000 * MB));
+        RetentionPlanner planner = new RetentionPlanner(Collections.singletonList(
+                new RetentionPlanner.ProtectedQuotaPolicy(300 * MB)));
+
+        RetentionPlanner.Plan plan = planner.plan(items, NOW_MS);
+
+        assertEquals(new HashSet<>(Arrays.asList("event_0", "event_1")), deletedNames(plan));
+    }
+
+    @Test
+    public void hourlyKeepPinsFirstSegmentOfEachHour() {
+        List<RetentionPlanner.Item> items = new ArrayList<>();
+        long hourStart = (NOW_MS / HOUR_MS - 3) * HOUR_MS;
+        for (int i = 0; i < 6; i++) {
+            items.add(normal("seg_" + i, "front", hourStart + i * 20 * 60 * 1000L, 100 * MB));
+        }
+        RetentionPlanner planner = new RetentionPlanner(Arrays.asList(
+                new RetentionPlanner.HourlyKeepPolicy(1),
+                new RetentionPlanner.MaxTotalBytesPolicy(0, 0)));
+
+        RetentionPlanner.Plan plan = planner.plan(items, NOW_MS);
+
+        // 3 个分段一小时，每小时最早的一段保留
+        assertEquals(2, plan.getPinnedCount());
+        assertEquals(new HashSet<>(Arrays.asList("seg_1", "seg_2", "seg_4", "seg_5")), deletedNames(plan));
+    }
+
+    /**
+     * 10 万个文件（四路摄像头约 35 天的 2 分钟分段，外加事件片段）在全部策略下的规划耗时
+     * 规划是纯 Java、确定性的，这里同时检查两次规划结果一致
+     */
+    @Test
+    public void plans100kFilesWithAllPolicies() {
+        Random random = new Random(13);
+        List<RetentionPlanner.Item> items = new ArrayList<>();
+        int perCamera = 25_000;
+        for (String camera : CAMERAS) {
+            for (int i = 0; i < perCamera; i++) {
+                long start = NOW_MS - (perCamera - i) * 2 * 60 * 1000L;
+                items.add(normal(camera + "_" + i, camera, start, 40 * MB + random.nextInt((int) (10 * MB))));
+            }
+        }
+        for (int i = 0; i < 500; i++) {
+            items.add(event("event_" + i, NOW_MS - random.nextInt((int) (35 * DAY_MS / 1000)) * 1000L, 30 * MB));
+        }
+        Collections.shuffle(items, random);
+        long limitBytes = 1024 * 1024 * MB;
+        RetentionPlanner planner = new RetentionPlanner(Arrays.asList(
+                new RetentionPlanner.HourlyKeepPolicy(7),
+                new RetentionPlanner.MaxAgePolicy(30),
+                new RetentionPlanner.MaxBytesPerCameraPolicy(300 * 1024 * MB),
+                new RetentionPlanner.ProtectedQuotaPolicy(4 * 1024 * MB),
+                new RetentionPlanner.MaxTotalBytesPolicy(limitBytes, limitBytes * 4 / 5)));
+
+        // 预热后计时
+        RetentionPlanner.Plan first = planner.plan(items, NOW_MS);
+        long best = Long.MAX_VALUE;
+        RetentionPlanner.Plan plan = null;
+        for (int run = 0; run < 5; run++) {
+            long startNs = System.nanoTime();
+            plan = planner.plan(items, NOW_MS);
+            best = Math.min(best, System.nanoTime() - startNs);
+        }
+        System.out.println("RetentionPlanner: " + items.size() + " files planned in "
+                + (best / 1_000_000) + "ms (best of 5): " + plan);
+
+        assertEquals(first.getDeletions(), plan.getDeletions());
+        long remaining = 0;
+        long remainingEvents = 0;
+        Set<String> deleted = deletedNames(plan);
+        for (RetentionPlanner.Item item : items) {
+            if (!deleted.contains(item.name)) {
+                remaining += item.size;
+                if (item.tier == RetentionPlanner.Tier.PROTECTED) {
+                    remainingEvents += item.size;
+                }
+            }
+        }
+        assertTrue(remaining <= limitBytes);
+        assertTrue(remainingEvents <= 4 * 1024 * MB);
+        // 宽松上限，只用于发现数量级的退化
+        assertTrue("planning took " + (best / 1_000_000) + "ms", best < 2_000_000_000L);
+    }
+}
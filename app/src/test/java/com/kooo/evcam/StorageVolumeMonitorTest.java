@@ -0,0 +1,51 @@
+package com.kooo.evcam;
+
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * 挂载表解析测试：用车机和手机上采集的 /proc/mounts 样本（test/resources/mounts）回放
+ */
+public class StorageVolumeMonitorTest {
+
+    private static List<String> parse(String fixture) throws IOException {
+        InputStream in = StorageVolumeMonitorTest.class.getResourceAsStream("/mounts/" + fixture);
+        assertNotNull("missing fixture " + fixture, in);
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            return StorageVolumeMonitor.parseMountTable(reader);
+        }
+    }
+
+    @Test
+    public void findsUsbDriveBehindSdcardfs() throws IOException {
+        // vfat 挂载在 /mnt/media_rw，sdcardfs 映射到 /mnt/runtime/* 和 /storage，只取 /storage 下的挂载点
+        assertEquals(Collections.singletonList("/storage/1A2B-3C4D"), parse("head_unit_usb_sdcardfs.txt"));
+    }
+
+    @Test
+    public void internalStorageOnlyHasNoUsbDrive() throws IOException {
+        assertEquals(Collections.emptyList(), parse("internal_only_fuse.txt"));
+    }
+
+    @Test
+    public void keepsMountOrderAndDropsDuplicates() throws IOException {
+        assertEquals(Arrays.asList("/storage/E4F1-09AB", "/storage/5C3E-7D21"), parse("two_volumes_fuse.txt"));
+    }
+
+    @Test
+    public void ignoresMalformedLinesAndNonVolumePaths() throws IOException {
+        // 空行、字段不足、子目录、非 XXXX-XXXX 格式都被忽略；小写和制表符分隔的挂载点可以识别
+        assertEquals(Arrays.asList("/storage/ab12-cd34", "/storage/0F0F-A0A0"), parse("malformed_and_lowercase.txt"));
+    }
+}
@@ -0,0 +1,238 @@
+package com.kooo.evcam;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * U盘挂载状态机测试：用模拟的检测结果回放插入、弹出、更换U盘和不发送事件的系统
+ */
+public class VolumeStateMachineTest {
+
+    private static final File DRIVE_A = new File("/storage/1A2B-3C4D");
+    private static final File DRIVE_B = new File("/storage/E4F1-09AB");
+
+    /**
+     * 模拟的U盘检测：检测结果、可访问的目录和可写的目录都由测试设置
+     */
+    private static class FakeProbe implements VolumeStateMachine.VolumeProbe {
+        File detected;
+        final Set<File> readable = new HashSet<>();
+        final Set<File> writable = new HashSet<>();
+        int detectCount = 0;
+
+        void insert(File root) {
+            detected = root;
+            readable.add(root);
+            writable.add(root);
+        }
+
+        void unplug(File root) {
+            if (root.equals(detected)) {
+                detected = null;
+            }
+            readable.remove(root);
+            writable.remove(root);
+        }
+
+        @Override
+        public File detectRoot() {
+            detectCount++;
+            return detected;
+        }
+
+        @Override
+        public boolean isWritable(File root) {
+            return writable.contains(root);
+        }
+
+        @Override
+        public boolean canRead(File root) {
+            return readable.contains(root);
+        }
+    }
+
+    private FakeProbe probe;
+    private VolumeStateMachine machine;
+    private List<String> changes;
+
+    @Before
+    public void setUp() {
+        probe = new FakeProbe();
+        machine = new VolumeStateMachine(probe);
+        changes = new ArrayList<>();
+        machine.addListener((previousRoot, currentRoot) -> changes.add(previousRoot + " -> " + currentRoot));
+    }
+
+    private void assertState(StorageVolumeMonitor.State state, File root, boolean writable) {
+        VolumeStateMachine.Snapshot snapshot = machine.getSnapshot();
+        assertEquals(state, snapshot.state);
+        assertEquals(root, snapshot.root);
+        assertEquals(writable, snapshot.writable);
+    }
+
+    @Test
+    public void startsUnknownAndInitDoesNotNotify() {
+        assertState(StorageVolumeMonitor.State.UNKNOWN, null, false);
+
+        probe.insert(DRIVE_A);
+        machine.init();
+
+        assertState(StorageVolumeMonitor.State.MOUNTED, DRIVE_A, true);
+        assertTrue(changes.isEmpty());
+    }
+
+    @Test
+    public void ejectFallsBackImmediatelyUntilDriveIsRemounted() {
+        probe.insert(DRIVE_A);
+        machine.init();
+
+        // 弹出事件到达时目录仍可访问，也不能再使用
+        machine.onRemoved(DRIVE_A.getAbsolutePath());
+        assertState(StorageVolumeMonitor.State.EJECTING, null, false);
+        assertEquals(1, changes.size());
+        assertEquals(DRIVE_A + " -> null", changes.get(0));
+
+        machine.rescan();
+        machine.periodicCheck();
+        assertState(StorageVolumeMonitor.State.EJECTING, null, false);
+
+        // 真正卸载后兜底检查进入 ABSENT（根目录没有变化，不再通知）
+        probe.unplug(DRIVE_A);
+        machine.periodicCheck();
+        assertState(StorageVolumeMonitor.State.ABSENT, null, false);
+        assertEquals(1, changes.size());
+
+        // 重新插入同一个U盘可以直接识别
+        probe.insert(DRIVE_A);
+        machine.onMounted(DRIVE_A.getAbsolutePath());
+        assertState(StorageVolumeMonitor.State.MOUNTED, DRIVE_A, true);
+        assertEquals("null -> " + DRIVE_A, changes.get(1));
+    }
+
+    @Test
+    public void mountEventClearsEjectingFlagForSameDrive() {
+        probe.insert(DRIVE_A);
+        machine.init();
+        machine.onRemoved(DRIVE_A.getAbsolutePath());
+
+        // 弹出后没有拔出就重新挂载（存储卷回调可能不带路径）
+        machine.onMounted(null);
+
+        assertState(StorageVolumeMonitor.State.MOUNTED, DRIVE_A, true);
+        assertEquals(2, changes.size());
+    }
+
+    @Test
+    public void removalOfOtherVolumeIsIgnored() {
+        probe.insert(DRIVE_A);
+        machine.init();
+        int detects = probe.detectCount;
+
+        machine.onRemoved(DRIVE_B.getAbsolutePath());
+        machine.onRemoved(null);
+
+        assertState(StorageVolumeMonitor.State.MOUNTED, DRIVE_A, true);
+        assertTrue(changes.isEmpty());
+        assertEquals(detects, probe.detectCount);  // 不触发重新检测
+    }
+
+    @Test
+    public void removalWithoutPathEjectsWhenCurrentDriveIsGone() {
+        probe.insert(DRIVE_A);
+        machine.init();
+        probe.unplug(DRIVE_A);
+
+        machine.onRemoved(null);
+
+        assertState(StorageVolumeMonitor.State.ABSENT, null, false);
+        assertEquals(1, changes.size());
+    }
+
+    @Test
+    public void swappingDrivesNotifiesEachChange() {
+        probe.insert(DRIVE_A);
+        machine.init();
+
+        probe.unplug(DRIVE_A);
+        machine.onRemoved(DRIVE_A.getAbsolutePath());
+        probe.insert(DRIVE_B);
+        machine.onMounted(DRIVE_B.getAbsolutePath());
+
+        assertState(StorageVolumeMonitor.State.MOUNTED, DRIVE_B, true);
+        assertEquals(2, changes.size());
+        assertEquals(DRIVE_A + " -> null", changes.get(0));
+        assertEquals("null -> " + DRIVE_B, changes.get(1));
+    }
+
+    @Test
+    public void ejectingDriveIsSkippedWhenAnotherDriveIsPresent() {
+        probe.insert(DRIVE_A);
+        machine.init();
+        probe.insert(DRIVE_B);  // 检测结果已变为另一个U盘，A 仍可访问
+
+        machine.onRemoved(DRIVE_A.getAbsolutePath());
+
+        assertState(StorageVolumeMonitor.State.MOUNTED, DRIVE_B, true);
+        assertEquals(2, changes.size());
+        assertEquals("null -> " + DRIVE_B, changes.get(1));
+    }
+
+    @Test
+    public void periodicCheckCatchesSilentRemovalAndLateMount() {
+        probe.insert(DRIVE_A);
+        machine.init();
+
+        // 系统不发送任何挂载事件
+        probe.unplug(DRIVE_A);
+        machine.periodicCheck();
+        assertState(StorageVolumeMonitor.State.ABSENT, null, false);
+        assertEquals(DRIVE_A + " -> null", changes.get(0));
+
+        probe.insert(DRIVE_B);
+        machine.periodicCheck();
+        assertState(StorageVolumeMonitor.State.MOUNTED, DRIVE_B, true);
+        assertEquals("null -> " + DRIVE_B, changes.get(1));
+    }
+
+    @Test
+    public void writabilityChangeUpdatesStateWithoutNotifying() {
+        probe.insert(DRIVE_A);
+        machine.init();
+
+        probe.writable.remove(DRIVE_A);
+        machine.rescan();
+
+        assertState(StorageVolumeMonitor.State.MOUNTED, DRIVE_A, false);
+        assertTrue(changes.isEmpty());
+    }
+
+    @Test
+    public void failingListenerDoesNotBlockOthers() {
+        List<String> later = new ArrayList<>();
+        VolumeStateMachine failing = new VolumeStateMachine(probe);
+        failing.addListener((previousRoot, currentRoot) -> {
+            throw new IllegalStateException("listener failure");
+        });
+        failing.addListener((previousRoot, currentRoot) -> later.add(String.valueOf(currentRoot)));
+        failing.init();
+
+        probe.insert(DRIVE_A);
+        failing.rescan();
+
+        assertEquals(1, later.size());
+        assertEquals(DRIVE_A.toString(), later.get(0));
+        assertFalse(failing.getSnapshot().root == null);
+        assertNull(machine.getSnapshot().root);
+    }
+}
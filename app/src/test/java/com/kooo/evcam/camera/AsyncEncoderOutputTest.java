@@ -0,0 +1,196 @@
+package com.kooo.evcam.camera;
+
+import android.media.MediaCodec;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * AsyncEncoderOutput 管线测试
+ * 用模拟编码器线程代替 MediaCodec 回调（提交帧 -> 编码耗时 -> 输出），
+ * 写入线程按 CodecVideoRecorder 的流程取样本、模拟 Muxer 写入耗时并统计输入到写入的延迟
+ */
+public class AsyncEncoderOutputTest {
+
+    private static final long MS = 1_000_000L;
+
+    /**
+     * 记录回调的监听器，onOutputAvailable 时唤醒写入线程
+     */
+    private static class CountingListener implements AsyncEncoderOutput.Listener {
+        final AtomicInteger outputSignals = new AtomicInteger();
+        final AtomicInteger dropSignals = new AtomicInteger();
+        volatile Thread writer;
+
+        @Override
+        public void onOutputAvailable() {
+            outputSignals.incrementAndGet();
+            Thread thread = writer;
+            if (thread != null) {
+                LockSupport.unpark(thread);
+            }
+        }
+
+        @Override
+        public void onSamplesDropped() {
+            dropSignals.incrementAndGet();
+        }
+
+        @Override
+        public void onEncoderError(MediaCodec.CodecException e) {
+        }
+    }
+
+    private static void encode(AsyncEncoderOutput output, byte[] payload, long ptsUs, boolean keyFrame) {
+        MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+        info.offset = 0;
+        info.size = payload.length;
+        info.presentationTimeUs = ptsUs;
+        info.flags = keyFrame ? MediaCodec.BUFFER_FLAG_KEY_FRAME : 0;
+        output.enqueueSample(ByteBuffer.wrap(payload), info, payload.length, false);
+    }
+
+    @Test
+    public void copiesSampleAndSignalsOncePerDrain() {
+        CountingListener listener = new CountingListener();
+        AsyncEncoderOutput output = new AsyncEncoderOutput("test", listener);
+
+        encode(output, new byte[]{1, 2, 3}, 1000, true);
+        encode(output, new byte[]{4, 5}, 2000, false);
+
+        // 队列非空期间只通知一次
+        assertEquals(1, listener.outputSignals.get());
+        AsyncEncoderOutput.EncodedSample sample = output.poll();
+        assertNotNull(sample);
+        assertTrue(sample.isKeyFrame());
+        assertEquals(1000, sample.info.presentationTimeUs);
+        assertEquals(3, sample.info.size);
+        assertEquals(3, sample.data.remaining());
+        assertEquals(3, sample.data.get(2));
+        output.recycle(sample);
+
+        output.clearOutputSignal();
+        encode(output, new byte[]{6}, 3000, false);
+        assertEquals(2, listener.outputSignals.get());
+    }
+
+    @Test
+    public void dropsUntilKeyFrameWhenWriterFallsBehind() {
+        CountingListener listener = new CountingListener();
+        AsyncEncoderOutput output = new AsyncEncoderOutput("test", listener);
+        byte[] payload = new byte[16];
+
+        // 写入线程不取样本，对象池（32 个）耗尽后开始丢弃
+        int accepted = 0;
+        for (int i = 0; i < 40; i++) {
+            encode(output, payload, i * 1000L, i == 0);
+        }
+        assertEquals(1, listener.dropSignals.get());
+
+        AsyncEncoderOutput.EncodedSample sample;
+        while ((sample = output.poll()) != null) {
+            accepted++;
+            output.recycle(sample);
+        }
+        assertEquals(32, accepted);
+
+        // 对象池已归还，但在关键帧之前仍然丢弃，保证写入的数据可解码
+        encode(output, payload, 50_000, false);
+        assertNull(output.poll());
+        encode(output, payload, 51_000, true);
+        sample = output.poll();
+        assertNotNull(sample);
+        assertTrue(sample.isKeyFrame());
+        assertEquals(51_000, sample.info.presentationTimeUs);
+        output.recycle(sample);
+        encode(output, payload, 52_000, false);
+        assertNotNull(output.poll());
+        assertEquals(1, listener.dropSignals.get());
+        assertTrue(output.getStats(), output.getStats().endsWith("dropped=9"));
+    }
+
+    /**
+     * 模拟编码器：每 10ms 提交一帧，编码耗时 3ms；写入线程每帧写入 1ms，每 50 帧卡顿 25ms
+     * 检查输入到写入延迟的分位数反映了编码和写入耗时，卡顿只影响尾部
+     */
+    @Test(timeout = 60_000)
+    public void fakeCodecReportsInputToMuxLatencyPercentiles() throws InterruptedException {
+        final int frames = 300;
+        CountingListener listener = new CountingListener();
+        AsyncEncoderOutput output = new AsyncEncoderOutput("test", listener);
+        AtomicBoolean encoderDone = new AtomicBoolean(false);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        AtomicInteger muxed = new AtomicInteger();
+
+        Thread writer = new Thread(() -> {
+            try {
+                while (true) {
+                    output.clearOutputSignal();
+                    AsyncEncoderOutput.EncodedSample sample;
+                    while ((sample = output.poll()) != null) {
+                        int index = muxed.getAndIncrement();
+                        sleepNs(index % 50 == 49 ? 25 * MS : MS);
+                        output.onSampleMuxed(sample.info.presentationTimeUs);
+                        output.recycle(sample);
+                    }
+                    if (encoderDone.get() && muxed.get() >= frames) {
+                        return;
+                    }
+                    LockSupport.parkNanos(5 * MS);
+                }
+            } catch (Throwable t) {
+                failure.set(t);
+            }
+        });
+        listener.writer = writer;
+        writer.start();
+
+        byte[] payload = new byte[4096];
+        long startNs = System.nanoTime();
+        for (int i = 0; i < frames; i++) {
+            long frameNs = startNs + i * 10 * MS;
+            sleepNs(frameNs - System.nanoTime());
+            long ptsNs = frameNs - startNs;
+            output.onFrameSubmitted(ptsNs);
+            sleepNs(3 * MS);
+            encode(output, payload, ptsNs / 1000, i % 30 == 0);
+        }
+        encoderDone.set(true);
+        LockSupport.unpark(writer);
+        writer.join();
+
+        assertNull(failure.get());
+        LatencyRecorder latency = output.getInputToMuxLatency();
+        System.out.println("Fake codec input-to-mux latency: " + latency);
+        assertEquals(frames, muxed.get());
+        assertEquals(frames, latency.getCount());
+        long p50 = latency.percentile(50);
+        long p90 = latency.percentile(90);
+        long p99 = latency.percentile(99);
+        // 每帧至少包含编码 3ms 和写入 1ms
+        assertTrue("p50=" + p50, p50 >= 4 * MS);
+        assertTrue(p50 <= p90 && p90 <= p99 && p99 <= latency.getMaxNs());
+        // 卡顿的帧本身至少延迟 3 + 25ms，卡顿只占 2%，中位数不受影响
+        assertTrue("max=" + latency.getMaxNs(), latency.getMaxNs() >= 28 * MS);
+        assertTrue("p50=" + p50, p50 < 28 * MS);
+        assertTrue(output.getStats().endsWith("dropped=0"));
+    }
+
+    private static void sleepNs(long ns) {
+        long deadline = System.nanoTime() + ns;
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(remaining);
+        }
+    }
+}
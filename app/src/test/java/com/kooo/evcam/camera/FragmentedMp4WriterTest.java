@@ -0,0 +1,302 @@
+package com.kooo.evcam.camera;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * FragmentedMp4Writer 输出结构测试：初始化段、每个分片的 moof/mdat，以及预分配空间的 free box
+ */
+public class FragmentedMp4WriterTest {
+
+    private static final byte[] SPS = {0x67, 0x42, (byte) 0xC0, 0x1F, (byte) 0x8C, 0x68};
+    private static final byte[] PPS = {0x68, (byte) 0xCE, 0x3C, (byte) 0x80};
+    private static final int GOP = 30;
+    private static final long FRAME_US = 40_000;  // 25fps，正好 3600 个 90kHz 刻度
+    private static final int FRAME_TICKS = 3600;
+    private static final int SYNC = 0x02000000;
+    private static final int NON_SYNC = 0x01010000;
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("fragmented", ".mp4");
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void writesInitSegmentAndOneFragmentPerGop() throws IOException {
+        FragmentedMp4Writer writer = newWriter(64 * 1024);
+        for (int i = 0; i < 3 * GOP; i++) {
+            writer.writeSample(frame(i), i * FRAME_US, i % GOP == 0);
+        }
+        writer.finish();
+
+        byte[] data = Files.readAllBytes(file.toPath());
+        List<Box> top = Box.children(data, 0, data.length);
+        // ftyp | moov | moof mdat x3，finish() 后没有 free
+        assertEquals(8, top.size());
+        assertEquals("ftyp", top.get(0).type);
+        assertEquals("moov", top.get(1).type);
+        assertEquals(3, writer.getFragmentCount());
+        assertEquals(3 * GOP, writer.getSampleCount());
+
+        Box moov = top.get(1);
+        Box trex = moov.find(data, "mvex", "trex");
+        assertNotNull(trex);
+        assertEquals(1, readInt(data, trex.payload + 4));  // track_ID
+        Box avc1 = moov.find(data, "trak", "mdia", "minf", "stbl", "stsd", "avc1");
+        assertNotNull(avc1);
+        // avc1 的 78 字节固定字段之后是 avcC，参数集不带起始码
+        Box avcC = Box.children(data, avc1.payload + 78, avc1.offset + avc1.size).get(0);
+        assertEquals("avcC", avcC.type);
+        assertEquals(SPS.length, ByteBuffer.wrap(data, avcC.payload + 6, 2).getShort());
+        assertEquals(SPS[0], data[avcC.payload + 8]);
+
+        for (int f = 0; f < 3; f++) {
+            Box moof = top.get(2 + f * 2);
+            Box mdat = top.get(3 + f * 2);
+            assertEquals("moof", moof.type);
+            assertEquals("mdat", mdat.type);
+
+            Box mfhd = moof.find(data, "mfhd");
+            assertEquals(f + 1, readInt(data, mfhd.payload + 4));
+            Box tfdt = moof.find(data, "traf", "tfdt");
+            assertEquals(1, data[tfdt.payload]);  // version 1，64 位 decode time
+            assertEquals((long) f * GOP * FRAME_TICKS, readLong(data, tfdt.payload + 4));
+
+            Box trun = moof.find(data, "traf", "trun");
+            int pos = trun.payload + 4;
+            int count = readInt(data, pos);
+            assertEquals(GOP, count);
+            int dataOffset = readInt(data, pos + 4);
+            // default-base-is-moof：data_offset 指向 mdat 的样本数据
+            assertEquals(mdat.offset + 8, moof.offset + dataOffset);
+            pos += 8;
+            int sampleStart = moof.offset + dataOffset;
+            for (int s = 0; s < count; s++) {
+                int duration = readInt(data, pos);
+                int size = readInt(data, pos + 4);
+                int flags = readInt(data, pos + 8);
+                pos += 12;
+                assertEquals(FRAME_TICKS, duration);
+                assertEquals(s == 0 ? SYNC : NON_SYNC, flags);
+                // 样本为长度前缀格式，参数集已移到 avcC
+                int nalLength = readInt(data, sampleStart);
+                assertEquals(size, nalLength + 4);
+                assertEquals(s == 0 ? 0x65 : 0x41, data[sampleStart + 4]);
+                sampleStart += size;
+            }
+            assertEquals(mdat.offset + mdat.size, sampleStart);
+        }
+    }
+
+    @Test
+    public void fileIsCompleteAtFragmentBoundaryAndTruncatedOnFinish() throws IOException {
+        long preallocate = 256 * 1024;
+        FragmentedMp4Writer writer = newWriter(preallocate);
+        for (int i = 0; i <= GOP; i++) {
+            writer.writeSample(frame(i), i * FRAME_US, i % GOP == 0);
+        }
+
+        // 第一个分片已落盘，剩余预分配空间由末尾的 free box 覆盖
+        byte[] data = Files.readAllBytes(file.toPath());
+        assertEquals(preallocate, data.length);
+        List<Box> top = Box.children(data, 0, data.length);
+        assertEquals(5, top.size());
+        assertEquals("moof", top.get(2).type);
+        assertEquals("mdat", top.get(3).type);
+        Box free = top.get(4);
+        assertEquals("free", free.type);
+        assertEquals(writer.getWrittenBytes(), free.offset);
+        assertEquals(data.length, free.offset + free.size);
+
+        writer.finish();
+
+        data = Files.readAllBytes(file.toPath());
+        assertEquals(writer.getWrittenBytes(), data.length);
+        top = Box.children(data, 0, data.length);
+        assertEquals(6, top.size());
+        for (Box box : top) {
+            assertFalse("free".equals(box.type));
+        }
+        assertEquals("mdat", top.get(5).type);
+    }
+
+    @Test
+    public void backgroundIoKeepsFileCompleteWhilePreallocationLags() throws Exception {
+        // 预分配块比一个分片还小，写入线程会频繁超出预分配范围，和 I/O 线程的扩展交替进行
+        long preallocate = 2 * 1024;
+        int gops = 20;
+        ExecutorService io = Executors.newSingleThreadExecutor();
+        try {
+            FragmentedMp4Writer writer = new FragmentedMp4Writer(file, 1, preallocate, true, io);
+            writer.configure(1280, 720, ByteBuffer.wrap(annexB(SPS)), ByteBuffer.wrap(PPS));
+            writer.start();
+            for (int i = 0; i < gops * GOP; i++) {
+                writer.writeSample(frame(i), i * FRAME_US, i % GOP == 0);
+                if (i % GOP == 0 && i > 0) {
+                    // I/O 线程空闲后，整个文件（含扩展出的空间）仍由首尾相接的 box 覆盖
+                    io.submit(() -> { }).get();
+                    byte[] data = Files.readAllBytes(file.toPath());
+                    assertTrue(data.length >= writer.getWrittenBytes());
+                    Box.children(data, 0, data.length);
+                }
+            }
+            writer.finish();
+        } finally {
+            io.shutdown();
+        }
+
+        byte[] data = Files.readAllBytes(file.toPath());
+        List<Box> top = Box.children(data, 0, data.length);
+        assertEquals(2 + 2 * gops, top.size());
+        for (Box box : top) {
+            assertFalse("free".equals(box.type));
+        }
+    }
+
+    @Test
+    public void acceptsLengthPrefixedInput() throws IOException {
+        FragmentedMp4Writer writer = newWriter(0);
+        byte[] slice = slice(0x65, 0);
+        ByteBuffer avcc = ByteBuffer.allocate(4 + slice.length);
+        avcc.putInt(slice.length).put(slice).flip();
+        writer.writeSample(avcc, 0, true);
+        assertEquals(0, avcc.position());  // 不修改调用方的 position
+        writer.finish();
+
+        byte[] data = Files.readAllBytes(file.toPath());
+        List<Box> top = Box.children(data, 0, data.length);
+        Box mdat = top.get(top.size() - 1);
+        assertEquals("mdat", mdat.type);
+        byte[] payload = new byte[mdat.size - 8];
+        System.arraycopy(data, mdat.offset + 8, payload, 0, payload.length);
+        assertArrayEquals(avcc.array(), payload);
+    }
+
+    private FragmentedMp4Writer newWriter(long preallocate) throws IOException {
+        FragmentedMp4Writer writer = new FragmentedMp4Writer(file, 1, preallocate, false, null);
+        writer.configure(1280, 720, ByteBuffer.wrap(annexB(SPS)), ByteBuffer.wrap(PPS));
+        writer.start();
+        return writer;
+    }
+
+    /**
+     * MediaCodec 风格的 Annex-B 帧：关键帧前带 SPS/PPS
+     */
+    private static ByteBuffer frame(int index) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        boolean key = index % GOP == 0;
+        if (key) {
+            out.writeBytes(annexB(SPS));
+            out.writeBytes(annexB(PPS));
+        }
+        out.writeBytes(annexB(slice(key ? 0x65 : 0x41, index)));
+        return ByteBuffer.wrap(out.toByteArray());
+    }
+
+    private static byte[] annexB(byte[] nal) {
+        byte[] out = new byte[nal.length + 4];
+        out[3] = 1;
+        System.arraycopy(nal, 0, out, 4, nal.length);
+        return out;
+    }
+
+    private static byte[] slice(int header, int index) {
+        byte[] nal = new byte[50 + index % 5 * 10];
+        nal[0] = (byte) header;
+        for (int i = 1; i < nal.length; i++) {
+            nal[i] = (byte) 0x5A;  // 不包含 0 字节，避免出现起始码
+        }
+        return nal;
+    }
+
+    private static int readInt(byte[] data, int pos) {
+        return ByteBuffer.wrap(data, pos, 4).getInt();
+    }
+
+    private static long readLong(byte[] data, int pos) {
+        return ByteBuffer.wrap(data, pos, 8).getLong();
+    }
+
+    /**
+     * 解析出的 box（offset 为 box 头的位置，payload 为头之后的位置）
+     */
+    private static class Box {
+        final int offset;
+        final int size;
+        final String type;
+        final int payload;
+
+        Box(int offset, int size, String type) {
+            this.offset = offset;
+            this.size = size;
+            this.type = type;
+            this.payload = offset + 8;
+        }
+
+        /**
+         * 解析 [start, end) 范围内的所有 box，要求正好覆盖整个范围
+         */
+        static List<Box> children(byte[] data, int start, int end) {
+            List<Box> boxes = new ArrayList<>();
+            int pos = start;
+            while (pos < end) {
+                int size = readInt(data, pos);
+                assertTrue("box at " + pos + " has size " + size, size >= 8 && pos + size <= end);
+                boxes.add(new Box(pos, size, new String(data, pos + 4, 4, StandardCharsets.US_ASCII)));
+                pos += size;
+            }
+            assertEquals(end, pos);
+            return boxes;
+        }
+
+        /**
+         * 按路径查找子 box（FullBox 的 version/flags 留在 payload 中）
+         */
+        Box find(byte[] data, String... path) {
+            Box current = this;
+            for (String type : path) {
+                int childStart = current.payload;
+                if ("stsd".equals(current.type) || "dref".equals(current.type)) {
+                    childStart += 8;
+                }
+                Box next = null;
+                for (Box child : children(data, childStart, current.offset + current.size)) {
+                    if (child.type.equals(type)) {
+                        next = child;
+                        break;
+                    }
+                }
+                if (next == null) {
+                    return null;
+                }
+                current = next;
+            }
+            return current;
+        }
+    }
+}
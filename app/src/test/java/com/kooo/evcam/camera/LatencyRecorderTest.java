@@ -0,0 +1,62 @@
+package com.kooo.evcam.camera;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * LatencyRecorder 分位数测试
+ */
+public class LatencyRecorderTest {
+
+    @Test
+    public void percentilesUseNearestRank() {
+        LatencyRecorder recorder = new LatencyRecorder(100);
+        // 乱序写入 1..100ms
+        for (int i = 0; i < 100; i++) {
+            recorder.record((i * 37 % 100 + 1) * 1_000_000L);
+        }
+
+        assertEquals(100, recorder.getCount());
+        assertEquals(50_000_000L, recorder.percentile(50));
+        assertEquals(90_000_000L, recorder.percentile(90));
+        assertEquals(99_000_000L, recorder.percentile(99));
+        assertEquals(100_000_000L, recorder.percentile(100));
+        assertEquals(1_000_000L, recorder.percentile(0));
+        assertEquals(100_000_000L, recorder.getMaxNs());
+        assertEquals("n=100 p50=50.0ms p90=90.0ms p99=99.0ms max=100.0ms", recorder.toString());
+    }
+
+    @Test
+    public void keepsOnlyMostRecentSamplesButMaxOfAll() {
+        LatencyRecorder recorder = new LatencyRecorder(10);
+        recorder.record(500);
+        for (int i = 1; i <= 20; i++) {
+            recorder.record(i);
+        }
+
+        // 最近 10 个样本是 11..20，最大值仍是被覆盖的 500
+        assertEquals(21, recorder.getCount());
+        assertEquals(11, recorder.percentile(0));
+        assertEquals(15, recorder.percentile(50));
+        assertEquals(20, recorder.percentile(100));
+        assertEquals(500, recorder.getMaxNs());
+    }
+
+    @Test
+    public void ignoresNegativeSamplesAndResets() {
+        LatencyRecorder recorder = new LatencyRecorder(4);
+        assertEquals(-1, recorder.percentile(50));
+        assertEquals("n=0", recorder.toString());
+
+        recorder.record(-5);
+        assertEquals(0, recorder.getCount());
+        recorder.record(7);
+        assertEquals(7, recorder.percentile(99));
+
+        recorder.reset();
+        assertEquals(0, recorder.getCount());
+        assertEquals(0, recorder.getMaxNs());
+        assertEquals(-1, recorder.percentile(50));
+    }
+}
@@ -0,0 +1,263 @@
+package com.kooo.evcam.camera;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Mp4RecoveryEngine 修复截断文件的测试：构造只有 mdat、没有 moov 的文件，修复后按 box 结构解析
+ */
+public class Mp4RecoveryEngineTest {
+
+    private static final byte[] SPS = {0x67, 0x42, (byte) 0xC0, 0x1F, (byte) 0x8C, 0x68};
+    private static final byte[] PPS = {0x68, (byte) 0xCE, 0x3C, (byte) 0x80};
+    private static final int FRAMES = 90;
+    private static final int GOP = 30;
+    private static final int RESERVED_FREE = 4096;
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("recovery", ".mp4");
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void repairWritesMoovIntoReservedFreeSpace() throws IOException {
+        writeTruncatedFile(file, true, false);
+
+        Mp4RecoveryEngine.Result result = new Mp4RecoveryEngine().repair(file, trackConfig());
+
+        assertEquals(result.toString(), Mp4RecoveryEngine.Status.REPAIRED, result.status);
+        assertEquals(FRAMES, result.sampleCount);
+        List<long[]> boxes = parseBoxes(file);
+        assertEquals("ftyp", typeOf(file, boxes.get(0)));
+        assertEquals("moov", typeOf(file, boxes.get(1)));
+        assertEquals(24, boxes.get(1)[0]);
+        assertEquals("free", typeOf(file, boxes.get(2)));
+        assertEquals(24 + boxes.get(1)[1], boxes.get(2)[0]);
+        assertEquals(RESERVED_FREE, boxes.get(1)[1] + boxes.get(2)[1]);
+        assertEquals("mdat", typeOf(file, boxes.get(3)));
+        assertEquals(24 + RESERVED_FREE, boxes.get(3)[0]);
+        assertEquals(4, boxes.size());
+        assertEquals(file.length(), boxes.get(3)[0] + boxes.get(3)[1]);
+        assertPlayable(boxes.get(3)[0] + 8);
+    }
+
+    @Test
+    public void repairAppendsMoovWithoutReservedSpace() throws IOException {
+        writeTruncatedFile(file, false, false);
+
+        Mp4RecoveryEngine.Result result = new Mp4RecoveryEngine().repair(file, trackConfig());
+
+        assertEquals(result.toString(), Mp4RecoveryEngine.Status.REPAIRED, result.status);
+        List<long[]> boxes = parseBoxes(file);
+        assertEquals(3, boxes.size());
+        assertEquals("ftyp", typeOf(file, boxes.get(0)));
+        assertEquals("mdat", typeOf(file, boxes.get(1)));
+        assertEquals("moov", typeOf(file, boxes.get(2)));
+        // moov 之后没有残留数据
+        assertEquals(file.length(), boxes.get(2)[0] + boxes.get(2)[1]);
+        assertPlayable(boxes.get(1)[0] + 8);
+    }
+
+    @Test
+    public void repairConvertsAnnexBStartCodes() throws IOException {
+        writeTruncatedFile(file, true, true);
+
+        Mp4RecoveryEngine.Result result = new Mp4RecoveryEngine().repair(file, trackConfig());
+
+        assertEquals(result.toString(), Mp4RecoveryEngine.Status.REPAIRED, result.status);
+        List<long[]> boxes = parseBoxes(file);
+        long payload = boxes.get(3)[0] + 8;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            // 第一个 NAL 的起始码已改写为长度前缀
+            raf.seek(payload);
+            assertEquals(SPS.length, raf.readInt());
+        }
+        assertPlayable(payload);
+    }
+
+    @Test
+    public void rejectedAnnexBFileIsNotModified() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeFtyp(out);
+        writeBoxHeader(out, 0, "mdat");
+        // 只有参数集，没有完整的访问单元
+        writeAnnexBNal(out, SPS);
+        writeAnnexBNal(out, PPS);
+        writeAnnexBNal(out, new byte[]{0x65, (byte) 0x88, 0x01});
+        Files.write(file.toPath(), out.toByteArray());
+        byte[] before = Files.readAllBytes(file.toPath());
+
+        Mp4RecoveryEngine.Result result = new Mp4RecoveryEngine().repair(file, trackConfig());
+
+        assertEquals(Mp4RecoveryEngine.Status.UNRECOVERABLE, result.status);
+        assertArrayEquals(before, Files.readAllBytes(file.toPath()));
+    }
+
+    @Test
+    public void healthyFileIsLeftAlone() throws IOException {
+        writeTruncatedFile(file, true, false);
+        Mp4RecoveryEngine engine = new Mp4RecoveryEngine();
+        engine.repair(file, trackConfig());
+        byte[] repaired = Files.readAllBytes(file.toPath());
+
+        assertEquals(Mp4RecoveryEngine.Status.HEALTHY, engine.repair(file, trackConfig()).status);
+        assertArrayEquals(repaired, Files.readAllBytes(file.toPath()));
+    }
+
+    /**
+     * 修复后的样本表可以被解析，关键帧指向 mdat 中的样本
+     */
+    private void assertPlayable(long payloadStart) throws IOException {
+        Mp4RecoveryEngine.SegmentInfo info = Mp4RecoveryEngine.readSegmentInfo(file);
+        assertNotNull(info);
+        assertEquals("avc1", info.codec);
+        assertEquals(FRAMES / GOP, info.keyFrameCount);
+        assertEquals(FRAMES * 1000L / 30, info.durationMs, 2);
+        assertNotNull(info.keyFrames);
+        assertEquals(payloadStart, info.keyFrames.getOffset(0));
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            for (int i = 0; i < info.keyFrames.size(); i++) {
+                raf.seek(info.keyFrames.getOffset(i) + 4);
+                assertEquals(SPS[0], raf.readByte());
+            }
+        }
+    }
+
+    // ===== 构造测试文件 =====
+
+    /**
+     * 写入 MediaMuxer 断电后的文件：ftyp + [free 预留] + 大小未回填的 mdat，最后一帧只写了一半
+     */
+    private static void writeTruncatedFile(File target, boolean reserveFree, boolean annexB) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeFtyp(out);
+        if (reserveFree) {
+            writeBoxHeader(out, RESERVED_FREE, "free");
+            out.write(new byte[RESERVED_FREE - 8]);
+        }
+        writeBoxHeader(out, 0, "mdat");
+        for (int i = 0; i <= FRAMES; i++) {
+            List<byte[]> nals = new ArrayList<>();
+            if (i % GOP == 0) {
+                nals.add(SPS);
+                nals.add(PPS);
+                nals.add(slice(5, i));
+            } else {
+                nals.add(slice(1, i));
+            }
+            for (byte[] nal : nals) {
+                if (annexB) {
+                    writeAnnexBNal(out, nal);
+                } else {
+                    writeInt(out, nal.length);
+                    out.write(nal);
+                }
+            }
+        }
+        // 截掉最后一帧的后半部分
+        byte[] data = out.toByteArray();
+        Files.write(target.toPath(), Arrays.copyOf(data, data.length - 20));
+    }
+
+    private static byte[] slice(int type, int frame) {
+        byte[] nal = new byte[60 + frame % 7 * 10];
+        nal[0] = (byte) (0x60 | type);
+        nal[1] = (byte) 0x88;  // first_mb_in_slice == 0
+        for (int i = 2; i < nal.length; i++) {
+            nal[i] = (byte) 0x5A;  // 不包含起始码
+        }
+        return nal;
+    }
+
+    private static void writeFtyp(ByteArrayOutputStream out) throws IOException {
+        writeBoxHeader(out, 24, "ftyp");
+        out.write(ascii("isom"));
+        writeInt(out, 0);
+        out.write(ascii("isom"));
+        out.write(ascii("avc1"));
+    }
+
+    private static void writeAnnexBNal(ByteArrayOutputStream out, byte[] nal) throws IOException {
+        writeInt(out, 1);
+        out.write(nal);
+    }
+
+    private static void writeBoxHeader(ByteArrayOutputStream out, int size, String type) throws IOException {
+        writeInt(out, size);
+        out.write(ascii(type));
+    }
+
+    private static void writeInt(ByteArrayOutputStream out, int value) {
+        out.write(value >>> 24);
+        out.write(value >>> 16);
+        out.write(value >>> 8);
+        out.write(value);
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static Mp4RecoveryEngine.TrackConfig trackConfig() {
+        ByteBuffer avcC = ByteBuffer.allocate(11 + SPS.length + PPS.length);
+        avcC.put((byte) 1).put(SPS[1]).put(SPS[2]).put(SPS[3]).put((byte) 0xFF).put((byte) 0xE1);
+        avcC.putShort((short) SPS.length).put(SPS);
+        avcC.put((byte) 1).putShort((short) PPS.length).put(PPS);
+        return new Mp4RecoveryEngine.TrackConfig(avcC.array(), 1280, 720, 33333);
+    }
+
+    // ===== 解析结果 =====
+
+    /**
+     * 解析顶层 box，要求每个 box 的大小都有效且正好覆盖整个文件
+     * @return 每个 box 的 {偏移, 大小}
+     */
+    private static List<long[]> parseBoxes(File target) throws IOException {
+        List<long[]> boxes = new ArrayList<>();
+        try (RandomAccessFile raf = new RandomAccessFile(target, "r")) {
+            long pos = 0;
+            while (pos < raf.length()) {
+                raf.seek(pos);
+                long size = raf.readInt() & 0xFFFFFFFFL;
+                assertTrue("box at " + pos + " has size " + size, size >= 8);
+                assertTrue("box at " + pos + " exceeds file", pos + size <= raf.length());
+                boxes.add(new long[]{pos, size});
+                pos += size;
+            }
+        }
+        return boxes;
+    }
+
+    private static String typeOf(File target, long[] box) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(target, "r")) {
+            byte[] type = new byte[4];
+            raf.seek(box[0] + 4);
+            raf.readFully(type);
+            return new String(type, StandardCharsets.US_ASCII);
+        }
+    }
+}
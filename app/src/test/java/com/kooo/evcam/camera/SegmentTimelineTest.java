@@ -0,0 +1,136 @@
+package com.kooo.evcam.camera;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 无缝分段切换的 PTS 连续性测试：按 CodecVideoRecorder 的写入流程，
+ * 在关键帧处把写入切换到下一段 SampleMuxer，检查各分段文件拼接后的时间轴
+ */
+public class SegmentTimelineTest {
+
+    private static final long FRAME_INTERVAL_NS = 33_333_333L;
+    private static final int GOP = 30;
+
+    /**
+     * 记录写入样本的 SampleMuxer
+     */
+    private static class RecordingMuxer implements SampleMuxer {
+        final List<Long> ptsUs = new ArrayList<>();
+        final List<Boolean> keyFrames = new ArrayList<>();
+
+        @Override
+        public int addTrack(MediaFormat format) {
+            return 0;
+        }
+
+        @Override
+        public void start() {
+        }
+
+        @Override
+        public void writeSampleData(int trackIndex, ByteBuffer data, MediaCodec.BufferInfo info) {
+            assertEquals(info.size, data.remaining());
+            ptsUs.add(info.presentationTimeUs);
+            keyFrames.add((info.flags & MediaCodec.BUFFER_FLAG_KEY_FRAME) != 0);
+        }
+
+        @Override
+        public void stop() {
+        }
+
+        @Override
+        public void release() {
+        }
+    }
+
+    @Test
+    public void ptsIsContinuousAcrossGaplessSwitches() {
+        SegmentTimeline timeline = new SegmentTimeline();
+        Random random = new Random(42);
+        long startNs = 1_000_000_000L;
+        timeline.startSegment(startNs, true);
+
+        List<RecordingMuxer> segments = new ArrayList<>();
+        List<Long> segmentStartsNs = new ArrayList<>();
+        RecordingMuxer current = new RecordingMuxer();
+        segments.add(current);
+        segmentStartsNs.add(startNs);
+        RecordingMuxer pending = null;
+
+        List<Long> sampleTimesNs = new ArrayList<>();
+        List<Long> gapsUs = new ArrayList<>();
+        ByteBuffer data = ByteBuffer.allocate(64);
+        MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+        long timeNs = startNs + 5_000_000L;
+        for (int frame = 0; frame < 400; frame++) {
+            // 帧间隔抖动 ±4ms
+            timeNs += FRAME_INTERVAL_NS + (random.nextInt(8_000_001) - 4_000_000);
+            boolean keyFrame = frame % GOP == 0;
+            if (frame == 95 || frame == 250) {
+                pending = new RecordingMuxer();  // 分段线程预先打开下一段
+            }
+            if (pending != null && keyFrame) {
+                gapsUs.add(timeline.switchAtKeyFrame(timeNs));
+                current = pending;
+                pending = null;
+                segments.add(current);
+                segmentStartsNs.add(timeNs);
+            }
+            info.offset = 8;
+            info.size = 40;
+            info.flags = keyFrame ? MediaCodec.BUFFER_FLAG_KEY_FRAME : 0;
+            timeline.write(current, 0, data, info, timeNs);
+            sampleTimesNs.add(timeNs);
+        }
+
+        assertEquals(3, segments.size());
+        int sample = 0;
+        for (int s = 0; s < segments.size(); s++) {
+            RecordingMuxer segment = segments.get(s);
+            if (s > 0) {
+                // 新分段从关键帧开始，PTS 为 0
+                assertTrue(segment.keyFrames.get(0));
+                assertEquals(0L, (long) segment.ptsUs.get(0));
+                // 切换间隔就是上一段最后一帧到关键帧的实际间隔，没有额外停顿
+                long expectedGapUs = (sampleTimesNs.get(sample) - sampleTimesNs.get(sample - 1)) / 1000;
+                assertEquals(expectedGapUs, (long) gapsUs.get(s - 1));
+            }
+            long previous = -1;
+            for (long pts : segment.ptsUs) {
+                assertTrue("PTS must increase within a segment", pts > previous);
+                previous = pts;
+                // 分段开始时间 + PTS 还原出采样时间：拼接后时间轴与录制时一致
+                long restoredNs = segmentStartsNs.get(s) + pts * 1000;
+                assertEquals((double) sampleTimesNs.get(sample), (double) restoredNs, 1000);
+                sample++;
+            }
+        }
+        // 没有丢帧或重复写入
+        assertEquals(sampleTimesNs.size(), sample);
+    }
+
+    @Test
+    public void newRecordingResetsSwitchGap() {
+        SegmentTimeline timeline = new SegmentTimeline();
+        timeline.startSegment(0, true);
+        MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+        info.size = 4;
+        timeline.write(new RecordingMuxer(), 0, ByteBuffer.allocate(4), info, 40_000_000L);
+
+        timeline.startSegment(100_000_000L, true);
+
+        assertEquals(0, timeline.switchAtKeyFrame(200_000_000L));
+        assertEquals(0, timeline.ptsUs(200_000_000L));
+    }
+}
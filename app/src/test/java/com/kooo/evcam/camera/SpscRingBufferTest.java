@@ -0,0 +1,105 @@
+package com.kooo.evcam.camera;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * SpscRingBuffer 测试：容量、先进先出、满/空边界，以及一个生产者和一个消费者并发时的顺序
+ */
+public class SpscRingBufferTest {
+
+    @Test
+    public void capacityIsRoundedUpToPowerOfTwo() {
+        assertEquals(2, new SpscRingBuffer<Integer>(1).capacity());
+        assertEquals(4, new SpscRingBuffer<Integer>(3).capacity());
+        assertEquals(4, new SpscRingBuffer<Integer>(4).capacity());
+        assertEquals(8, new SpscRingBuffer<Integer>(5).capacity());
+        assertEquals(32, new SpscRingBuffer<Integer>(32).capacity());
+    }
+
+    @Test
+    public void offerFailsWhenFullAndPollReturnsNullWhenEmpty() {
+        SpscRingBuffer<Integer> buffer = new SpscRingBuffer<>(4);
+        assertTrue(buffer.isEmpty());
+        assertNull(buffer.poll());
+        for (int i = 0; i < 4; i++) {
+            assertTrue(buffer.offer(i));
+        }
+        assertFalse(buffer.offer(4));
+        assertEquals(4, buffer.size());
+
+        assertEquals(0, (int) buffer.poll());
+        assertTrue(buffer.offer(4));
+        for (int i = 1; i <= 4; i++) {
+            assertEquals(i, (int) buffer.poll());
+        }
+        assertNull(buffer.poll());
+        assertTrue(buffer.isEmpty());
+    }
+
+    @Test
+    public void keepsOrderAcrossManyWrapArounds() {
+        SpscRingBuffer<Integer> buffer = new SpscRingBuffer<>(8);
+        int next = 0;
+        int expected = 0;
+        for (int round = 0; round < 1000; round++) {
+            // 每轮放入和取出的数量不同，读写位置在环上不断错开
+            for (int i = 0; i < round % 8 + 1; i++) {
+                if (buffer.offer(next)) {
+                    next++;
+                }
+            }
+            for (int i = 0; i < round % 5 + 1; i++) {
+                Integer item = buffer.poll();
+                if (item == null) {
+                    break;
+                }
+                assertEquals(expected++, (int) item);
+            }
+        }
+        Integer item;
+        while ((item = buffer.poll()) != null) {
+            assertEquals(expected++, (int) item);
+        }
+        assertEquals(next, expected);
+    }
+
+    @Test(timeout = 30_000)
+    public void concurrentProducerAndConsumerSeeEveryItemInOrder() throws InterruptedException {
+        final int count = 1_000_000;
+        SpscRingBuffer<Integer> buffer = new SpscRingBuffer<>(32);
+        AtomicReference<String> failure = new AtomicReference<>();
+        Thread consumer = new Thread(() -> {
+            int expected = 0;
+            while (expected < count) {
+                Integer item = buffer.poll();
+                if (item == null) {
+                    Thread.yield();
+                    continue;
+                }
+                if (item != expected) {
+                    failure.set("expected " + expected + " but got " + item);
+                    return;
+                }
+                expected++;
+            }
+        });
+        consumer.start();
+        for (int i = 0; i < count; i++) {
+            Integer item = i;
+            while (!buffer.offer(item)) {
+                Thread.yield();
+            }
+        }
+        consumer.join();
+
+        assertNull(failure.get());
+        assertTrue(buffer.isEmpty());
+    }
+}